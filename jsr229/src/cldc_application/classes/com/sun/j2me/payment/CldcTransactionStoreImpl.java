@@ -490,6 +490,8 @@ public final class CldcTransactionStoreImpl implements TransactionStore {
             try {
                 /* read missed and passed transactions */
                 int[] recordIDs = store.getRecordIDs();
+                int[] missedIDs = new int[recordIDs.length];
+                int numMissed = 0;
                 CldcTransactionRecordImpl r;
                 for (int i = 0; i < recordIDs.length; i++) {
                     int recId = recordIDs[i];
@@ -497,9 +499,14 @@ public final class CldcTransactionStoreImpl implements TransactionStore {
                     if (null != r &&
                         (r.getApplicationID() == applicationID) &&
                         r.wasMissed()) {
-                        store.deleteRecord(recId);
+                        missedIDs[numMissed++] = recId;
                     }
                 }
+
+                /* delete them at once */
+                int[] deletedIDs = new int[numMissed];
+                System.arraycopy(missedIDs, 0, deletedIDs, 0, numMissed);
+                store.deleteRecords(deletedIDs);
             } finally {
                 store.closeStore();
             }
@@ -793,10 +800,13 @@ public final class CldcTransactionStoreImpl implements TransactionStore {
                     new TransactionStorageImpl(securityToken, true);
             try {
 		if (store.getNumRecords() == 0) {
-                    /* Record ID = NEXT_TRANSACTION_RECORD_ID */
-                    store.addRecord(getByteArrayFromInt(nextTransactionID));
-                    /* Record ID = NEXT_APPLICATION_RECORD_ID */
-                    store.addRecord(getByteArrayFromInt(nextApplicationID));
+                    /* both records are added or none */
+                    store.addRecords(new byte[][] {
+                        /* Record ID = NEXT_TRANSACTION_RECORD_ID */
+                        getByteArrayFromInt(nextTransactionID),
+                        /* Record ID = NEXT_APPLICATION_RECORD_ID */
+                        getByteArrayFromInt(nextApplicationID)
+                    });
                 }
             } catch (RecordStoreException ex) {
                 throw new IOException(
@@ -836,10 +846,15 @@ public final class CldcTransactionStoreImpl implements TransactionStore {
             }
         }
 
-        while (passedRecords.size() > PASSED_TRANSACTIONS_LIMIT) {
-            r = (CldcTransactionRecordImpl) passedRecords.elementAt(0);
-            st.deleteRecord(r.getRecordID());
-            passedRecords.removeElementAt(0);
+        int numDeleted = passedRecords.size() - PASSED_TRANSACTIONS_LIMIT;
+        if (numDeleted > 0) {
+            /* delete the oldest records at once */
+            int[] deletedIDs = new int[numDeleted];
+            for (int i = 0; i < numDeleted; i++) {
+                r = (CldcTransactionRecordImpl) passedRecords.elementAt(i);
+                deletedIDs[i] = r.getRecordID();
+            }
+            st.deleteRecords(deletedIDs);
         }
     }
 
@@ -860,9 +875,11 @@ public final class CldcTransactionStoreImpl implements TransactionStore {
             TransactionStorageImpl store = 
                     new TransactionStorageImpl(securityToken, false);
             try {
+                int[] recordIDs = new int[recs.length];
                 for (int i = 0; i < recs.length; i++) {
-                    store.deleteRecord(recs[i].getRecordID());
+                    recordIDs[i] = recs[i].getRecordID();
                 }
+                store.deleteRecords(recordIDs);
             } finally {
                 store.closeStore();
             }
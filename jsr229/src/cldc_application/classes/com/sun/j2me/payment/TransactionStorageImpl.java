@@ -104,6 +104,26 @@ class TransactionStorageImpl {
         store.deleteRecord(recordId);
     }
 
+    /**
+     * Deletes several records from the Transaction Store at once.
+     * Nothing is deleted if one of the record IDs is invalid.
+     *
+     * @param recordIds the IDs of the records to delete
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception InvalidRecordIDException if a recordId is invalid
+     * @exception RecordStoreException if a general record store
+     *          exception occurs
+     * @see com.sun.midp.rms.RecordStoreImpl#deleteRecords
+     */
+    void deleteRecords(int[] recordIds)
+        throws RecordStoreNotOpenException, InvalidRecordIDException,
+            RecordStoreException {
+	checkOpen();
+        store.deleteRecords(recordIds);
+    }
+
     /**
      * Updates content of the record in the Transaction Store
      *
@@ -213,6 +233,32 @@ class TransactionStorageImpl {
         return store.addRecord(data, 0, data.length);
     }
 
+    /**
+     * Adds several records into the Transaction Store at once.
+     * Either all of them are added or none.
+     *
+     * @param records the data to be stored in the records
+     *
+     * @return the recordIds of the new records
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception RecordStoreException if a different record
+     *          store-related exception occurred
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception SecurityException if the MIDlet has read-only access
+     *          to the RecordStore
+     *
+     * @see com.sun.midp.rms.RecordStoreImpl#addRecords
+     */
+    int[] addRecords(byte[][] records)
+        throws RecordStoreNotOpenException, RecordStoreException,
+            RecordStoreFullException {
+	checkOpen();
+        return store.addRecords(records);
+    }
+
     /**
      * Returns the size (in bytes) of the record.
      *
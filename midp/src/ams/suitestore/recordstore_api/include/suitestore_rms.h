@@ -44,6 +44,10 @@
 #define MIDP_RMS_DB_EXT       0
 /** specifies the extension .idx to the function midp_suite_rms_filename */
 #define MIDP_RMS_IDX_EXT      1
+/** specifies the extension .jnl to the function midp_suite_rms_filename */
+#define MIDP_RMS_JNL_EXT      2
+/** specifies the extension .sdx to the function midp_suite_rms_filename */
+#define MIDP_RMS_SDX_EXT      3
 
 /** @} */
 
@@ -64,8 +68,8 @@ extern "C" {
  * @param storageId storage ID where the RMS will be located
  * NOTE: currently this parameter is ignored due to limitation of our
  * implementation: RMS is always located at the same storage as the suite.
- * @param extension rms extension that can be MIDP_RMS_DB_EXT or
- * MIDP_RMS_IDX_EXT
+ * @param extension rms extension that can be MIDP_RMS_DB_EXT,
+ * MIDP_RMS_IDX_EXT, MIDP_RMS_JNL_EXT or MIDP_RMS_SDX_EXT
  * @param pResourceName RMS name
  * @param pFileName The in/out parameter that contains returned filename
  *
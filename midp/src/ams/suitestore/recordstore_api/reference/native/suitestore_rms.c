@@ -62,8 +62,8 @@
  * @param storageId storage ID where the RMS will be located
  * NOTE: currently this parameter is ignored due to limitation of our
  * implementation: RMS is always located at the same storage as the suite.
- * @param extension rms extension that can be MIDP_RMS_DB_EXT or
- * MIDP_RMS_IDX_EXT
+ * @param extension rms extension that can be MIDP_RMS_DB_EXT,
+ * MIDP_RMS_IDX_EXT, MIDP_RMS_JNL_EXT or MIDP_RMS_SDX_EXT
  * @param pResourceName RMS name
  * @param pFileName The in/out parameter that contains returned filename
  *
@@ -105,6 +105,12 @@ midp_suite_get_rms_filename(SuiteIdType suiteId,
         } else if (MIDP_RMS_DB_EXT == extension) {
             ext = &DB_EXTENSION;
             extLen = pcsl_string_length(&DB_EXTENSION);
+        } else if (MIDP_RMS_JNL_EXT == extension) {
+            ext = &JNL_EXTENSION;
+            extLen = pcsl_string_length(&JNL_EXTENSION);
+        } else if (MIDP_RMS_SDX_EXT == extension) {
+            ext = &SDX_EXTENSION;
+            extLen = pcsl_string_length(&SDX_EXTENSION);
         } else {
             return BAD_PARAMS;
         }
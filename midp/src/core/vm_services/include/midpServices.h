@@ -100,7 +100,8 @@ typedef enum midp_SignalType {
     JSR234_TUNER_SOUGHT_SIGNAL,
     JSR257_CONTACTLESS_SIGNAL,
     NETWORK_STATUS_SIGNAL,
-    INTERISOLATE_MUTEX_SIGNAL
+    INTERISOLATE_MUTEX_SIGNAL,
+    NETWORK_SELECT_SIGNAL
 } midpSignalType;
 
 
@@ -36,6 +36,9 @@ public class Event {
     /** Links events in the queue. */
     Event next;
 
+    /** Order in which the event was posted, used across queue lanes. */
+    int sequence;
+
     /**
      * Construct an event.
      *
@@ -105,8 +105,8 @@ public class TestEventQueue extends TestCase {
 
         // assertions on the event queue
 
-        assertSame("nextEvent should be ev", ev, eq.nextEvent);
-        assertSame("lastEvent should be ev", ev, eq.lastEvent);
+        assertSame("nextEvent should be ev", ev, eq.nextEvent[EventQueue.LIFECYCLE_LANE]);
+        assertSame("lastEvent should be ev", ev, eq.lastEvent[EventQueue.LIFECYCLE_LANE]);
 
         // assertions from the event listener
 
@@ -146,8 +146,8 @@ public class TestEventQueue extends TestCase {
 
         // assertions on the event queue
 
-        assertSame("nextEvent should be ev0", ev0, eq.nextEvent);
-        assertSame("lastEvent should be ev2", ev2, eq.lastEvent);
+        assertSame("nextEvent should be ev0", ev0, eq.nextEvent[EventQueue.LIFECYCLE_LANE]);
+        assertSame("lastEvent should be ev2", ev2, eq.lastEvent[EventQueue.LIFECYCLE_LANE]);
         assertSame("ev0.next should be ev1", ev1, ev0.next);
         assertSame("ev1.next should be ev2", ev2, ev1.next);
         assertNull("ev2.next should be null", ev2.next);
@@ -190,8 +190,8 @@ public class TestEventQueue extends TestCase {
 
         // assertions on the event queue
 
-        assertSame("nextEvent should be ev0", ev0, eq.nextEvent);
-        assertSame("lastEvent should be ev0", ev0, eq.lastEvent);
+        assertSame("nextEvent should be ev0", ev0, eq.nextEvent[EventQueue.LIFECYCLE_LANE]);
+        assertSame("lastEvent should be ev0", ev0, eq.lastEvent[EventQueue.LIFECYCLE_LANE]);
         assertNull("ev0.next should be null", ev0.next);
 
         // assertions from the event listener
@@ -212,6 +212,87 @@ public class TestEventQueue extends TestCase {
         assertEquals("waiting[1] should be ev0", ev0, arr[1]);
     }
 
+    /**
+     * Removes the next event the dispatch thread would process.
+     *
+     * @param eq event queue to remove the event from
+     *
+     * @return the removed event
+     */
+    Event dispatchNext(EventQueue eq) {
+        int lane = eq.getNextLane();
+
+        if (lane < 0) {
+            return null;
+        }
+
+        return eq.remove(eq.nextEvent[lane].type);
+    }
+
+    /**
+     * Tests the order in which events of different lanes are dispatched.
+     */
+    void testLanes() {
+        EventQueue eq = new EventQueue();
+        InstrumentedEventListener iel = new InstrumentedEventListener();
+
+        eq.registerEventListener(EventTypes.KEY_EVENT, iel);
+        eq.registerEventListener(EventTypes.REPAINT_EVENT, iel);
+        eq.registerEventListener(EventTypes.DESTROY_MIDLET_EVENT, iel);
+        eq.registerEventListener(EventTypes.RECORD_STORE_CHANGE_EVENT, iel);
+
+        Event paint0 = new Event(EventTypes.REPAINT_EVENT);
+        Event lifecycle = new Event(EventTypes.DESTROY_MIDLET_EVENT);
+        Event key0 = new Event(EventTypes.KEY_EVENT);
+        Event paint1 = new Event(EventTypes.REPAINT_EVENT);
+        Event background = new Event(EventTypes.RECORD_STORE_CHANGE_EVENT);
+        Event key1 = new Event(EventTypes.KEY_EVENT);
+
+        eq.post(paint0);
+        eq.post(lifecycle);
+        eq.post(key0);
+        eq.post(paint1);
+        eq.post(background);
+        eq.post(key1);
+
+        // the lifecycle event is not overtaken by later events
+        assertSame("paint0 should be first", paint0, dispatchNext(eq));
+        assertSame("lifecycle should be second", lifecycle, dispatchNext(eq));
+        assertSame("key0 should be third", key0, dispatchNext(eq));
+        assertSame("key1 should overtake paint1", key1, dispatchNext(eq));
+        assertSame("paint1 should be fifth", paint1, dispatchNext(eq));
+        assertSame("background should be last", background,
+                   dispatchNext(eq));
+        assertNull("queue should be empty", dispatchNext(eq));
+    }
+
+    /**
+     * Tests that an overtaken event is dispatched after at most
+     * MAX_OVERTAKING events.
+     */
+    void testOvertaking() {
+        EventQueue eq = new EventQueue();
+        InstrumentedEventListener iel = new InstrumentedEventListener();
+
+        eq.registerEventListener(EventTypes.KEY_EVENT, iel);
+        eq.registerEventListener(EventTypes.RECORD_STORE_CHANGE_EVENT, iel);
+
+        Event background = new Event(EventTypes.RECORD_STORE_CHANGE_EVENT);
+        eq.post(background);
+
+        for (int i = 0; i < EventQueue.MAX_OVERTAKING * 2; i++) {
+            eq.post(new Event(EventTypes.KEY_EVENT));
+        }
+
+        for (int i = 0; i < EventQueue.MAX_OVERTAKING; i++) {
+            assertEquals("key event expected", EventTypes.KEY_EVENT,
+                         dispatchNext(eq).type);
+        }
+
+        assertSame("background should not wait longer", background,
+                   dispatchNext(eq));
+    }
+
     /**
      * Runs all tests.
      */
@@ -228,6 +309,10 @@ public class TestEventQueue extends TestCase {
         testPost3();
         declare("testPreprocess");
         testPreprocess();
+        declare("testLanes");
+        testLanes();
+        declare("testOvertaking");
+        testOvertaking();
     }
 
 }
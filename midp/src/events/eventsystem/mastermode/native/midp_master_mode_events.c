@@ -33,6 +33,7 @@
 #include <midp_mastermode_port.h>
 #include <midpEventUtil.h>
 #include <push_server_export.h>
+#include <socket_selector_export.h>
 #include <midp_thread.h>
 #include <midp_run_vm.h>
 #include <suspend_resume.h>
@@ -166,6 +167,12 @@ void midp_check_events(JVMSPI_BlockedThreadInfo *blocked_threads,
             midp_thread_signal_list(blocked_threads, blocked_threads_count, 
                                     PUSH_SIGNAL, 0, 0);
         }
+        else if (socket_selector_notify(newSignal.descriptor,
+                                        NETWORK_READ_SIGNAL)) {
+            /* A socket selector is waiting for a read on this descriptor */
+            midp_thread_signal_list(blocked_threads, blocked_threads_count,
+                                    NETWORK_SELECT_SIGNAL, 0, 0);
+        }
 #if (ENABLE_JSR_120 || ENABLE_JSR_205)
         else
             jsr120_check_signal(newSignal.waitingFor, newSignal.descriptor, newSignal.status);
@@ -177,9 +184,19 @@ void midp_check_events(JVMSPI_BlockedThreadInfo *blocked_threads,
 #if (ENABLE_JSR_120 || ENABLE_JSR_205)
         if (!jsr120_check_signal(newSignal.waitingFor, newSignal.descriptor, newSignal.status))
 #endif
+        {
             midp_thread_signal_list(blocked_threads, blocked_threads_count,
                                     newSignal.waitingFor, newSignal.descriptor,
                                     newSignal.status);
+
+            if (newSignal.waitingFor == NETWORK_WRITE_SIGNAL &&
+                    socket_selector_notify(newSignal.descriptor,
+                                           NETWORK_WRITE_SIGNAL)) {
+                /* A socket selector is waiting for a write */
+                midp_thread_signal_list(blocked_threads, blocked_threads_count,
+                                        NETWORK_SELECT_SIGNAL, 0, 0);
+            }
+        }
         break;
 
     case NETWORK_EXCEPTION_SIGNAL:
@@ -190,6 +207,14 @@ void midp_check_events(JVMSPI_BlockedThreadInfo *blocked_threads,
         eventUnblockJavaThread(blocked_threads, blocked_threads_count,
             NETWORK_WRITE_SIGNAL, newSignal.descriptor,
             newSignal.status);
+        if (socket_selector_notify(newSignal.descriptor,
+                                   NETWORK_READ_SIGNAL) |
+                socket_selector_notify(newSignal.descriptor,
+                                       NETWORK_WRITE_SIGNAL)) {
+            /* Let a socket selector find the error when it reads or writes */
+            midp_thread_signal_list(blocked_threads, blocked_threads_count,
+                                    NETWORK_SELECT_SIGNAL, 0, 0);
+        }
         return; 
 
     case PUSH_ALARM_SIGNAL:
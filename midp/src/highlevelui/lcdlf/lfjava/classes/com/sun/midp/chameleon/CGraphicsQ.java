@@ -27,7 +27,6 @@
 package com.sun.midp.chameleon;
 
 import javax.microedition.lcdui.*;
-import java.util.Vector;
 
 /**
  * Chameleon graphics queue class. This class contains methods 
@@ -42,14 +41,14 @@ public class CGraphicsQ {
      */    
     public static final boolean DEBUG = false;
     
-    /** A queue of refresh areas, represented by 4 element arrays */
-    protected Vector refreshQ;
+    /** The region of the screen areas waiting to be refreshed */
+    protected CRegion refreshQ;
     
     /**
      * Construct a new Graphics queue. 
      */
     public CGraphicsQ() {
-        refreshQ = new Vector();
+        refreshQ = new CRegion();
     }
     
     /**
@@ -60,6 +59,10 @@ public class CGraphicsQ {
      * of the region should be in raw screen coordinates, that
      * is, 0,0 would represent the topleft pixel on the screen.
      *
+     * The queued areas are merged into a set of non-overlapping
+     * rectangles, so no pixel is blitted twice and the areas
+     * already queued are not added again.
+     *
      * @param x the 'x' anchor coordinate of the region
      * @param y the 'y' anchor coordinate of the region
      * @param w the width of the region
@@ -67,45 +70,7 @@ public class CGraphicsQ {
      */
     public void queueRefresh(int x, int y, int w, int h) {
         synchronized (refreshQ) {
-            int[] region;
-            for (int i = 0; i < refreshQ.size(); i++) {
-                region = (int[])refreshQ.elementAt(i);
-                
-                // We test to see if we already have the dirty region
-                if (region[0] == x && region[1] == y &&
-                    region[2] == w && region[3] == h)
-                {
-                    return;
-                }
-
-                // We also test to see if the dirty region is wholely
-                // contained within another region
-                if (x >= region[0] && y >= region[1] &&                
-                    (x + w) <= (region[0] + region[1]) && 
-                    (y + h) <= (region[1] + region[3])) 
-                {
-                    return;                    
-                }
-
-                // Lastly, we do a special case whereby the region
-                // is congruent with a previous region. For instance,
-                // when changing screens, the title area will repaint,
-                // the body area will repaint, and the soft button
-                // area will repaint. All 3 areas are congruent and
-                // can be coalesced.
-                if (x == region[0] && w == region[2]) {
-                    if ((region[1] + region[3]) == y ||
-                        (y + h) == region[1]) 
-                    {
-                        if (region[1] > y) {
-                            region[1] = y;
-                        }
-                        region[3] += h;
-                        return;
-                    } 
-                }
-            }
-            refreshQ.addElement(new int[] {x, y, w, h});
+            refreshQ.add(x, y, w, h);
         }
     }
     
@@ -114,7 +79,7 @@ public class CGraphicsQ {
      * (blitted to the screen). This method will empty the queue
      * and return its contents. Each element in the array will be
      * a 4 element int[] holding the x, y, w, and h of each refresh
-     * region
+     * region. The regions never overlap.
      *
      * @return the queue of all areas of the screen to be refreshed,
      *         as an array of arrays
@@ -122,10 +87,13 @@ public class CGraphicsQ {
     public Object[] getRefreshRegions() {
         synchronized (refreshQ) {
             Object[] q = new Object[refreshQ.size()];
-            refreshQ.copyInto(q);
-            refreshQ.removeAllElements();
+            for (int i = 0; i < q.length; i++) {
+                int[] region = new int[4];
+                refreshQ.getRect(i, region);
+                q[i] = region;
+            }
+            refreshQ.clear();
             return q;
         }
     }
 }
-
@@ -49,6 +49,33 @@ public class CLayer {
     /** Copy of the dirty bounds needed to unlock the layers for painting */
     protected int[] dirtyBoundsCopy;
 
+    /**
+     * Exact area needing repainting, dirtyBounds hold its bounding
+     * rectangle. The region is used only while the layer is dirty and
+     * not the entire layer needs repainting.
+     */
+    protected CRegion dirtyRegion;
+
+    /** Copy of the dirty region needed to unlock the layers for painting */
+    protected CRegion dirtyRegionCopy;
+
+    /**
+     * Flag indicating the content of this layer is kept in a back buffer.
+     * A cached layer which is dirty only because of changes of other
+     * layers is repainted by blitting the buffer instead of painting
+     * its background and body again.
+     */
+    private boolean cacheEnabled;
+
+    /** Back buffer with the layer content, null until first painting */
+    private Image cacheImage;
+
+    /** Area of the layer content changed since the back buffer update */
+    private CRegion cacheInvalid;
+
+    /** Copy of the changed content area needed to unlock the layers */
+    private CRegion cacheInvalidCopy;
+
     /** Flag indicating if this layer has a transparent background or not. */
     protected boolean transparent;
     
@@ -208,6 +235,8 @@ public class CLayer {
         dirtyBounds = new int[4];
         dirtyBoundsCopy = new int[4];
         boundsCopy = new int[4];
+        dirtyRegion = new CRegion();
+        dirtyRegionCopy = new CRegion();
         cleanDirtyRegions();
         
         // IMPL_NOTE : center the background image by default
@@ -347,6 +376,39 @@ public class CLayer {
     public void setOpaque(boolean opaque) {
         this.opaque = opaque;
     }
+
+    /**
+     * Determine if the content of this layer is kept in a back buffer
+     *
+     * @return true if this layer is painted from a back buffer
+     */
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * Keep the content of this layer in a back buffer, so the layer
+     * made dirty by other layers is repainted with a single blit. Only
+     * the areas passed to addDirtyRegion() are painted again.
+     *
+     * The buffer is an opaque mutable image as large as the layer, thus
+     * it should be enabled only for layers with a non-transparent
+     * background whose content changes are always reported with
+     * addDirtyRegion() or requestRepaint().
+     *
+     * @param enabled true to paint the layer from a back buffer,
+     *                false to release the buffer
+     */
+    public void setCacheEnabled(boolean enabled) {
+        if (enabled && cacheInvalid == null) {
+            cacheInvalid = new CRegion();
+            cacheInvalidCopy = new CRegion();
+        }
+        cacheEnabled = enabled;
+        if (!enabled) {
+            cacheImage = null;
+        }
+    }
     
     /**
      * Returns true if this layer is in need of repainting.
@@ -381,6 +443,20 @@ public class CLayer {
     protected void cleanDirtyRegions() {
         dirtyBounds[X] = dirtyBounds[Y]
             = dirtyBounds[W] = dirtyBounds[H] = -1;
+        dirtyRegion.clear();
+    }
+
+    /**
+     * Update dirty bounds after the dirty region has been changed.
+     * The region covering the entire layer is reset to the state
+     * of the whole layer being dirty.
+     */
+    private void updateDirtyBounds() {
+        if (dirtyRegion.getArea() == bounds[W] * bounds[H]) {
+            cleanDirtyRegions();
+        } else {
+            dirtyRegion.getBounds(dirtyBounds);
+        }
     }
 
     /**
@@ -501,6 +577,7 @@ public class CLayer {
             System.err.println("Layer " + layerID() + ":");
             System.err.println("\tMarking entire layer dirty");
         }
+        invalidateCache(0, 0, bounds[W], bounds[H]);
         cleanDirtyRegions();
         setDirty();
     }
@@ -526,6 +603,9 @@ public class CLayer {
      * obscured by another layer or window element. The new region should
      * be in the coordinate space of this layer.
      *
+     * The area is considered to have changed content, so if the layer
+     * is painted from a back buffer, the area will be painted again.
+     *
      * @param x the x coordinate of the region
      * @param y the y coordinate of the region
      * @param w the width of the region
@@ -534,6 +614,24 @@ public class CLayer {
      *         false otherwise
      */
     public boolean addDirtyRegion(int x, int y, int w, int h) {
+        invalidateCache(x, y, w, h);
+        return markDirtyRegion(x, y, w, h);
+    }
+
+    /**
+     * Add an area to be marked for repaint to this layer without
+     * changing the layer content. It is used by the window to sweep
+     * dirty areas of other layers to this one, so a layer painted from
+     * a back buffer can refresh the area from the buffer.
+     *
+     * @param x the x coordinate of the region
+     * @param y the y coordinate of the region
+     * @param w the width of the region
+     * @param h the height of the region
+     * @return true if dirty region of the layer was changed,
+     *         false otherwise
+     */
+    boolean markDirtyRegion(int x, int y, int w, int h) {
         if (CGraphicsQ.DEBUG) {
             System.err.println("Layer " + this + ":");
             System.err.println("\tAdd dirty: " + x + ", "
@@ -564,59 +662,36 @@ public class CLayer {
             return false;
         }
 
-        boolean res = false;
-        int dx, dy, dx2, dy2;
-        if (isEmptyDirtyRegions()) {
-            dx = x; dy = y;
-            dx2 = x2; dy2 = y2;
-        } else {
-            dx = dirtyBounds[X];
-            dy = dirtyBounds[Y];
-            dx2 = dx + dirtyBounds[W];
-            dy2 = dy + dirtyBounds[H];
-            if (dx2 < x2) dx2 = x2;
-            if (dy2 < y2) dy2 = y2;
-            if (x < dx) dx = x;
-            if (y < dy) dy = y;
-        }
-
         // Lastly, we carefully restrict the dirty region
         // to be within the bounds of this layer
-        if (dx < 0) dx = 0;
-        if (dy < 0) dy = 0;
-        if (dx2 > bw) dx2 = bw;
-        if (dy2 > bh) dy2 = bh;
+        if (x < 0) x = 0;
+        if (y < 0) y = 0;
+        if (x2 > bw) x2 = bw;
+        if (y2 > bh) y2 = bh;
+
+        if (!isDirty()) {
+            dirtyRegion.clear();
+        }
+        if (!dirtyRegion.add(x, y, x2 - x, y2 - y)) {
+            if (CGraphicsQ.DEBUG) {
+                System.err.println(
+                    "\tAdded region is dirty already");
+            }
+            return false;
+        }
 
         // Update changed dirty region
-        int dw = dx2 - dx;
-        int dh = dy2 - dy;
-        if (dirtyBounds[W] != dw || dirtyBounds[H] != dh) {
-            if (dw == bw && dh == bh) {
-                // The entire layer is dirty now
-                cleanDirtyRegions();
-
-                if (CGraphicsQ.DEBUG) {
-                    System.err.println(
-                        "\tThe entire layer became dirty");
-                }
+        updateDirtyBounds();
+        if (CGraphicsQ.DEBUG) {
+            if (isEmptyDirtyRegions()) {
+                System.err.println(
+                    "\tThe entire layer became dirty");
             } else {
-                dirtyBounds[X] = dx;
-                dirtyBounds[Y] = dy;
-                dirtyBounds[W] = dw;
-                dirtyBounds[H] = dh;
-
-                if (CGraphicsQ.DEBUG) {
-                    System.err.println(
-                        "\tCurrent dirty: " + dirtyBounds[X] + ", "
-                        + dirtyBounds[Y] + ", " + dirtyBounds[W] + ", "
-                        + dirtyBounds[H]);
-                }
+                System.err.println("\tCurrent dirty: " + dirtyRegion);
             }
-            res = true;
-            setDirty();
         }
-
-        return res;
+        setDirty();
+        return true;
     }
 
     /**
@@ -644,83 +719,39 @@ public class CLayer {
                 + y + ", " + w + ", " + h);
         }
 
-        int x2 = x + w;
-        int y2 = y + h;
-        boolean res = false;
-        int dx, dy, dx2, dy2;
         if (isEmptyDirtyRegions()) {
-            dx = 0; dy = 0;
-            dx2 = bounds[W];
-            dy2 = bounds[H];
-        } else {
-            dx = dirtyBounds[X];
-            dy = dirtyBounds[Y];
-            dx2 = dx + dirtyBounds[W];
-            dy2 = dy + dirtyBounds[H];
+            dirtyRegion.set(0, 0, bounds[W], bounds[H]);
         }
 
         // Subtracted region can be outside of the dirty area
-        if (x >= dx2 || y >= dy2 || x2 <= dx || y2 <=dy) {
+        if (!dirtyRegion.subtract(x, y, w, h)) {
             if (CGraphicsQ.DEBUG) {
                 System.err.println(
                     "\tSubtracted region is outside of dirty area");
             }
-            return false;
-        }
-
-        boolean insideVert = (y <= dy && y2 >= dy2);
-        boolean insideHorz = (x <= dx && x2 >= dx2);
-
-        if (insideVert) {
-            if (dx >= x && dx < x2) dx = x2;
-            else if (dx2 > x && dx2 <= x2) dx2 = x;
-        } else if (insideHorz) {
-            if (dy >= y && dy < y2) dy = y2;
-            else if (dy2 > y && dy2 <= y2) dy2 = y;
-        } else {
-            // We can subtract only such a regions that result
-            // of subtraction is a rectangular area
-            if (CGraphicsQ.DEBUG) {
-                System.err.println(
-                    "\tSubtraction can't be done");
+            if (dirtyBounds[X] == -1) {
+                dirtyRegion.clear();
             }
             return false;
-
         }
 
         // Result of subtraction can be an empty dirty region
-        if (dx >= dx2 || dy >= dy2) {
+        if (dirtyRegion.isEmpty()) {
             cleanDirty();
-            res = true;
 
             if (CGraphicsQ.DEBUG) {
                 System.err.println(
                     "\tThe layer is no more dirty");
             }
-
-        } else if (dirtyBounds[W] != dx2 - dx ||
-                dirtyBounds[H] != dy2 - dy) {
-            // Update changed dirty region
-            dirtyBounds[X] = dx;
-            dirtyBounds[Y] = dy;
-            dirtyBounds[W] = dx2 - dx;
-            dirtyBounds[H] = dy2 - dy;
-            res = true;
-
-            if (CGraphicsQ.DEBUG) {
-                System.err.println(
-                    "\tCurrent dirty: " + dirtyBounds[X] + ", "
-                    + dirtyBounds[Y] + ", " + dirtyBounds[W] + ", "
-                    + dirtyBounds[H]);
-            }
         } else {
+            updateDirtyBounds();
+
             if (CGraphicsQ.DEBUG) {
-                System.err.println(
-                    "\tDirty area has not been changed");
+                System.err.println("\tCurrent dirty: " + dirtyRegion);
             }
         }
 
-        return res;
+        return true;
     }
 
     /**
@@ -735,17 +766,106 @@ public class CLayer {
             dirtyBoundsCopy[Y] = 0;
             dirtyBoundsCopy[W] = bounds[W];
             dirtyBoundsCopy[H] = bounds[H];
+            dirtyRegionCopy.set(0, 0, bounds[W], bounds[H]);
         } else {
             System.arraycopy(
                 dirtyBounds, 0, dirtyBoundsCopy, 0, 4);
+            dirtyRegionCopy.set(dirtyRegion);
         }
         System.arraycopy(
             bounds, 0, boundsCopy, 0, 4);
 
+        // Content changes not yet painted to the back buffer
+        // are accumulated until the next buffer update
+        if (cacheEnabled) {
+            cacheInvalidCopy.add(cacheInvalid);
+            cacheInvalid.clear();
+        }
+
         // Reset dirty layer state
         cleanDirty();
     }
 
+    /**
+     * Mark an area of the layer content as changed, so it will be
+     * painted to the back buffer again on the next repaint.
+     *
+     * @param x the x coordinate of the changed area
+     * @param y the y coordinate of the changed area
+     * @param w the width of the changed area
+     * @param h the height of the changed area
+     */
+    private void invalidateCache(int x, int y, int w, int h) {
+        if (cacheEnabled) {
+            cacheInvalid.add(x, y, w, h);
+        }
+    }
+
+    /**
+     * Bring the back buffer of the layer up to date painting the
+     * content changed since the previous update. Method should be
+     * called for the dirty layers only, after their state has been
+     * copied, with the graphics prepared for the layer painting.
+     *
+     * @param g the graphics the layer is going to be painted with
+     * @return true if the dirty area can be blitted from the buffer,
+     *         false if the layer has to be painted directly
+     */
+    boolean validateCache(Graphics g) {
+        if (!cacheEnabled || transparent) {
+            return false;
+        }
+
+        int w = boundsCopy[W];
+        int h = boundsCopy[H];
+        if (w <= 0 || h <= 0) {
+            return false;
+        }
+
+        Image img = cacheImage;
+        int[] r = new int[4];
+        if (img == null || img.getWidth() != w || img.getHeight() != h) {
+            cacheImage = null;
+            try {
+                img = Image.createImage(w, h);
+            } catch (OutOfMemoryError e) {
+                // Not enough memory for the buffer,
+                // keep painting the layer directly
+                cacheEnabled = false;
+                return false;
+            }
+            r[W] = w;
+            r[H] = h;
+        } else if (!cacheInvalidCopy.isEmpty()) {
+            cacheInvalidCopy.getBounds(r);
+        }
+        cacheInvalidCopy.clear();
+
+        if (r[W] > 0 && r[H] > 0) {
+            if (CGraphicsQ.DEBUG) {
+                System.err.println("\tUpdate buffer: " +
+                    r[X] + ", " + r[Y] + ", " + r[W] + ", " + r[H]);
+            }
+            Graphics bg = img.getGraphics();
+            bg.setFont(g.getFont());
+            bg.setColor(g.getColor());
+            bg.setClip(r[X], r[Y], r[W], r[H]);
+            paint(bg);
+        }
+        cacheImage = img;
+        return true;
+    }
+
+    /**
+     * Paint this layer from its back buffer. The graphics clip
+     * is expected to be set to the dirty area of the layer.
+     *
+     * @param g The graphics object to use to paint this layer.
+     */
+    void paintCache(Graphics g) {
+        g.drawImage(cacheImage, 0, 0, Graphics.TOP | Graphics.LEFT);
+    }
+
     /**
      * Request a repaint for the entire contents of this layer.
      */
@@ -923,6 +1043,9 @@ public class CLayer {
                 res += " (" +
                     dirtyBounds[X] + ", " + dirtyBounds[Y] + ", " +
                     dirtyBounds[W] + ", " + dirtyBounds[H] + ")";
+                if (dirtyRegion.size() > 1) {
+                    res += " " + dirtyRegion;
+                }
             }
         }
         res += ", opaque: " + (opaque ? 1 : 0);
@@ -0,0 +1,416 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.chameleon;
+
+/**
+ * A region of the screen represented as a set of non-overlapping
+ * rectangles. The region supports union and subtraction of rectangles,
+ * so that dirty and refresh areas of Chameleon layers can be tracked
+ * exactly rather than as a single bounding box.
+ *
+ * To keep the cost of painting a region bounded, the number of
+ * rectangles is limited by MAX_RECTS. A region which would need more
+ * rectangles is replaced by its bounding box, which is always a safe
+ * (larger) approximation of a dirty area.
+ */
+public class CRegion {
+
+    /** Maximal number of rectangles kept before collapsing to bounds */
+    public static final int MAX_RECTS = 8;
+
+    /**
+     * Rectangles of the region, 4 elements per rectangle holding
+     * x, y, width and height. The rectangles never overlap.
+     */
+    private int[] rects;
+
+    /** Number of rectangles in the region */
+    private int count;
+
+    /** Construct an empty region. */
+    public CRegion() {
+        rects = new int[(MAX_RECTS + 1) * 4];
+    }
+
+    /** Remove all rectangles from the region. */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Determines whether the region is empty.
+     *
+     * @return true if the region contains no area
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Get the number of rectangles the region consists of.
+     *
+     * @return number of non-overlapping rectangles in the region
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get a rectangle of the region.
+     *
+     * @param index index of the rectangle, from 0 to size() - 1
+     * @param rect 4 element array to store x, y, width and height
+     *             of the rectangle to
+     */
+    public void getRect(int index, int[] rect) {
+        System.arraycopy(rects, index * 4, rect, 0, 4);
+    }
+
+    /**
+     * Get the bounding box of the region. The bounds of an empty
+     * region are all zeros.
+     *
+     * @param bounds 4 element array to store x, y, width and height
+     *               of the bounding box to
+     */
+    public void getBounds(int[] bounds) {
+        if (count == 0) {
+            bounds[0] = bounds[1] = bounds[2] = bounds[3] = 0;
+            return;
+        }
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE;
+        int x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        for (int i = 0, n = count * 4; i < n; i += 4) {
+            if (rects[i] < x1) x1 = rects[i];
+            if (rects[i + 1] < y1) y1 = rects[i + 1];
+            if (rects[i] + rects[i + 2] > x2) x2 = rects[i] + rects[i + 2];
+            if (rects[i + 1] + rects[i + 3] > y2) y2 = rects[i + 1] + rects[i + 3];
+        }
+        bounds[0] = x1;
+        bounds[1] = y1;
+        bounds[2] = x2 - x1;
+        bounds[3] = y2 - y1;
+    }
+
+    /**
+     * Get the number of pixels covered by the region.
+     *
+     * @return area of the region
+     */
+    public int getArea() {
+        int area = 0;
+        for (int i = 0, n = count * 4; i < n; i += 4) {
+            area += rects[i + 2] * rects[i + 3];
+        }
+        return area;
+    }
+
+    /**
+     * Replace the region with a single rectangle.
+     *
+     * @param x the x coordinate of the rectangle
+     * @param y the y coordinate of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     */
+    public void set(int x, int y, int w, int h) {
+        count = 0;
+        if (w > 0 && h > 0) {
+            append(x, y, w, h);
+        }
+    }
+
+    /**
+     * Replace the region with a copy of another one.
+     *
+     * @param r the region to copy
+     */
+    public void set(CRegion r) {
+        if (rects.length < r.count * 4) {
+            rects = new int[r.rects.length];
+        }
+        System.arraycopy(r.rects, 0, rects, 0, r.count * 4);
+        count = r.count;
+    }
+
+    /**
+     * Check whether a rectangle intersects the region.
+     *
+     * @param x the x coordinate of the rectangle
+     * @param y the y coordinate of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @return true if the rectangle and the region have common area
+     */
+    public boolean intersects(int x, int y, int w, int h) {
+        int x2 = x + w;
+        int y2 = y + h;
+        for (int i = 0, n = count * 4; i < n; i += 4) {
+            if (x < rects[i] + rects[i + 2] && rects[i] < x2 &&
+                    y < rects[i + 1] + rects[i + 3] && rects[i + 1] < y2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a rectangle to the region. Only the parts of the rectangle
+     * not covered by the region yet are added, so the rectangles of
+     * the region stay disjoint.
+     *
+     * @param x the x coordinate of the rectangle
+     * @param y the y coordinate of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @return true if the region was changed, false if the rectangle
+     *         is empty or already covered by the region
+     */
+    public boolean add(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return false;
+        }
+        int x2 = x + w;
+        int y2 = y + h;
+
+        // Cut the new rectangle by each of the existing ones, the
+        // remaining pieces are kept at the tail of the array
+        int n = count;
+        append(x, y, w, h);
+        for (int i = 0; i < n; i++) {
+            int j = i * 4;
+            cut(n, rects[j], rects[j + 1],
+                rects[j] + rects[j + 2], rects[j + 1] + rects[j + 3]);
+            if (count == n) {
+                // The rectangle is covered by the region
+                return false;
+            }
+        }
+
+        // Drop the rectangles the new one covers entirely, they
+        // would only fragment the new rectangle needlessly, and
+        // cut it again by the rest
+        count = n;
+        for (int i = 0; i < count; ) {
+            int j = i * 4;
+            if (rects[j] >= x && rects[j + 1] >= y &&
+                    rects[j] + rects[j + 2] <= x2 &&
+                    rects[j + 1] + rects[j + 3] <= y2) {
+                remove(i);
+            } else {
+                i++;
+            }
+        }
+        n = count;
+        append(x, y, w, h);
+        for (int i = 0; i < n; i++) {
+            int j = i * 4;
+            cut(n, rects[j], rects[j + 1],
+                rects[j] + rects[j + 2], rects[j + 1] + rects[j + 3]);
+        }
+
+        normalize();
+        return true;
+    }
+
+    /**
+     * Add another region to this one.
+     *
+     * @param r the region to add
+     * @return true if this region was changed
+     */
+    public boolean add(CRegion r) {
+        boolean res = false;
+        for (int i = 0, n = r.count * 4; i < n; i += 4) {
+            if (add(r.rects[i], r.rects[i + 1],
+                    r.rects[i + 2], r.rects[i + 3])) {
+                res = true;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Subtract a rectangle from the region.
+     *
+     * @param x the x coordinate of the rectangle
+     * @param y the y coordinate of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @return true if the region was changed
+     */
+    public boolean subtract(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0 || !intersects(x, y, w, h)) {
+            return false;
+        }
+        cut(0, x, y, x + w, y + h);
+        normalize();
+        return true;
+    }
+
+    /**
+     * Cut the area x1, y1 - x2, y2 out of the rectangles starting
+     * from the given index. Each rectangle intersecting the area
+     * is replaced by up to 4 pieces lying outside of it.
+     *
+     * @param from index of the first rectangle to cut
+     * @param x1 the left edge of the area
+     * @param y1 the top edge of the area
+     * @param x2 the right edge of the area (exclusive)
+     * @param y2 the bottom edge of the area (exclusive)
+     */
+    private void cut(int from, int x1, int y1, int x2, int y2) {
+        int i = from;
+        while (i < count) {
+            int j = i * 4;
+            int rx = rects[j];
+            int ry = rects[j + 1];
+            int rx2 = rx + rects[j + 2];
+            int ry2 = ry + rects[j + 3];
+
+            if (x1 >= rx2 || x2 <= rx || y1 >= ry2 || y2 <= ry) {
+                i++;
+                continue;
+            }
+
+            // The pieces appended below do not intersect the area,
+            // so it's safe for the loop to visit them again
+            remove(i);
+            if (ry < y1) {
+                append(rx, ry, rx2 - rx, y1 - ry);
+            }
+            if (ry2 > y2) {
+                append(rx, y2, rx2 - rx, ry2 - y2);
+            }
+            int my = ry < y1 ? y1 : ry;
+            int my2 = ry2 > y2 ? y2 : ry2;
+            if (rx < x1) {
+                append(rx, my, x1 - rx, my2 - my);
+            }
+            if (rx2 > x2) {
+                append(x2, my, rx2 - x2, my2 - my);
+            }
+        }
+    }
+
+    /**
+     * Merge adjacent rectangles sharing a whole edge and collapse
+     * the region to its bounding box if it is still too fragmented.
+     */
+    private void normalize() {
+        boolean merged = true;
+        while (merged && count > 1) {
+            merged = false;
+            for (int i = 0; i < count; i++) {
+                int a = i * 4;
+                for (int k = i + 1; k < count; k++) {
+                    int b = k * 4;
+                    if (rects[a] == rects[b] && rects[a + 2] == rects[b + 2]
+                            && (rects[a + 1] + rects[a + 3] == rects[b + 1]
+                            || rects[b + 1] + rects[b + 3] == rects[a + 1])) {
+                        // Vertically adjacent with the same columns
+                        if (rects[b + 1] < rects[a + 1]) {
+                            rects[a + 1] = rects[b + 1];
+                        }
+                        rects[a + 3] += rects[b + 3];
+                    } else if (rects[a + 1] == rects[b + 1]
+                            && rects[a + 3] == rects[b + 3]
+                            && (rects[a] + rects[a + 2] == rects[b]
+                            || rects[b] + rects[b + 2] == rects[a])) {
+                        // Horizontally adjacent with the same rows
+                        if (rects[b] < rects[a]) {
+                            rects[a] = rects[b];
+                        }
+                        rects[a + 2] += rects[b + 2];
+                    } else {
+                        continue;
+                    }
+                    remove(k);
+                    merged = true;
+                    k--;
+                }
+            }
+        }
+
+        if (count > MAX_RECTS) {
+            int[] r = new int[4];
+            getBounds(r);
+            count = 0;
+            append(r[0], r[1], r[2], r[3]);
+        }
+    }
+
+    /**
+     * Append a rectangle to the end of the array, growing it as needed.
+     *
+     * @param x the x coordinate of the rectangle
+     * @param y the y coordinate of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     */
+    private void append(int x, int y, int w, int h) {
+        int j = count * 4;
+        if (j + 4 > rects.length) {
+            int[] newRects = new int[rects.length * 2];
+            System.arraycopy(rects, 0, newRects, 0, j);
+            rects = newRects;
+        }
+        rects[j] = x;
+        rects[j + 1] = y;
+        rects[j + 2] = w;
+        rects[j + 3] = h;
+        count++;
+    }
+
+    /**
+     * Remove a rectangle replacing it with the last one.
+     *
+     * @param index index of the rectangle to remove
+     */
+    private void remove(int index) {
+        count--;
+        if (index != count) {
+            System.arraycopy(rects, count * 4, rects, index * 4, 4);
+        }
+    }
+
+    /**
+     * Get the region details for debug purposes.
+     *
+     * @return String with the list of region rectangles
+     */
+    public String toString() {
+        StringBuffer sb = new StringBuffer("CRegion {");
+        for (int i = 0, n = count * 4; i < n; i += 4) {
+            sb.append(" [").append(rects[i]).append(", ")
+                .append(rects[i + 1]).append(", ")
+                .append(rects[i + 2]).append(", ")
+                .append(rects[i + 3]).append("]");
+        }
+        return sb.append(" }").toString();
+    }
+}
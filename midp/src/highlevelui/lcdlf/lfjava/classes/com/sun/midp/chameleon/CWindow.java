@@ -75,6 +75,12 @@ public abstract class CWindow {
     /** Layers replication to not keep the lock on painting */
     protected CLayer[] dirtyLayers = new CLayer[dirtyMaxCount];
 
+    /** Rectangle of a dirty region being swept to other layers */
+    private int[] sweepRect = new int[4];
+
+    /** Rectangle of a dirty region being painted */
+    private int[] paintRect = new int[4];
+
     /**
      * Background layer of this window, should be the bottom most layer
      * of the window, can be invisible for transparent windows. 
@@ -423,31 +429,14 @@ public abstract class CWindow {
         CLayerElement res = null;
         CLayer l = le.getLayer();
 
-        // Prepare absolute dirty region coordinates of layer l
-        int dx = l.bounds[X];
-        int dy = l.bounds[Y];
-        int dh, dw;
-        if (l.isEmptyDirtyRegions()) {
-            dw = l.bounds[W];
-            dh = l.bounds[H];
-        } else {
-            dx += l.dirtyBounds[X];
-            dy += l.dirtyBounds[Y];
-            dw = l.dirtyBounds[W];
-            dh = l.dirtyBounds[H];
-        }
-
         // Sweep dirty region to upper layers
         for (CLayerElement le2 = le.getUpper();
                 le2 != null; le2 = le2.getUpper()) {
             
             l2 = le2.getLayer();
-            if (l2.visible) {
-                if (l2.addDirtyRegion(
-                        dx-l2.bounds[X], dy-l2.bounds[Y], dw, dh)) {
-                    // Remember the highest changed layer
-                    res = le2;
-                }
+            if (l2.visible && sweepDirtyRegion(l, l2)) {
+                // Remember the highest changed layer
+                res = le2;
             }
         }
 
@@ -458,22 +447,48 @@ public abstract class CWindow {
                 l2 = le2.getLayer();
 
                 if (l2.visible) {
-                    l2.addDirtyRegion(
-                        dx-l2.bounds[X], dy-l2.bounds[Y], dw, dh);
+                    sweepDirtyRegion(l, l2);
                 }
             }
+        }
 
-            // A newly hidden layer should be dirty only for the first
-            // succeeded paint, it should be cleaned as soon as underlying
-            // layers are properly marked as dirty. 
-            if (hidden) {
-                l.cleanDirty();
-            }
+        // A newly hidden layer should be dirty only for the first
+        // succeeded paint, it should be cleaned as soon as underlying
+        // layers are properly marked as dirty. 
+        if (hidden) {
+            l.cleanDirty();
         }
 
         return res;
     }
 
+    /**
+     * Mark the dirty region of one layer as dirty in another layer.
+     * The region is swept rectangle by rectangle, so the areas of
+     * the target layer between the rectangles stay clean.
+     *
+     * @param l dirty layer to take the region from
+     * @param l2 layer to mark the region dirty in
+     * @return true if dirty region of l2 was changed, false otherwise
+     */
+    private boolean sweepDirtyRegion(CLayer l, CLayer l2) {
+        int dx = l.bounds[X] - l2.bounds[X];
+        int dy = l.bounds[Y] - l2.bounds[Y];
+        if (l.isEmptyDirtyRegions()) {
+            return l2.markDirtyRegion(dx, dy, l.bounds[W], l.bounds[H]);
+        }
+
+        boolean res = false;
+        int[] r = sweepRect;
+        for (int i = 0; i < l.dirtyRegion.size(); i++) {
+            l.dirtyRegion.getRect(i, r);
+            if (l2.markDirtyRegion(dx + r[X], dy + r[Y], r[W], r[H])) {
+                res = true;
+            }
+        }
+        return res;
+    }
+
     // Heuristic Explanation: Any layer that needs painting also
     // requires all layers below and above that region to be painted.
     // This is required because layers may be transparent or even
@@ -589,43 +604,61 @@ public abstract class CWindow {
 
         for (int i = 0; i < dirtyCount; i++) {
             CLayer l = dirtyLayers[i];
+            CRegion r = l.dirtyRegionCopy;
+
+            // Bring the back buffer of a cached layer up to date,
+            // then the dirty region is refreshed from the buffer
+            boolean cached = l.validateCache(g);
+
+            // A fragmented dirty region is painted rectangle by
+            // rectangle. Painting the bounds of the region instead
+            // is not allowed, the areas between the rectangles can
+            // be covered by opaque layers which are not repainted.
+            int n = r.size();
+            for (int j = 0; j < n; j++) {
+                // Prepare relative dirty region coordinates
+                // of the current layer
+                r.getRect(j, paintRect);
+                int dx = paintRect[X];
+                int dy = paintRect[Y];
+                int dw = paintRect[W];
+                int dh = paintRect[H];
+
+                // Before we call into the layer to paint, we
+                // translate the graphics context into the layer's
+                // coordinate space
+                g.translate(l.boundsCopy[X], l.boundsCopy[Y]);
 
-            // Prepare relative dirty region coordinates
-            // of the current layer
-            int dx = l.dirtyBoundsCopy[X];
-            int dy = l.dirtyBoundsCopy[Y];
-            int dw = l.dirtyBoundsCopy[W];
-            int dh = l.dirtyBoundsCopy[H];
-
-            // Before we call into the layer to paint, we
-            // translate the graphics context into the layer's
-            // coordinate space
-            g.translate(l.boundsCopy[X], l.boundsCopy[Y]);
-
-            if (CGraphicsQ.DEBUG) {
-                System.err.println("Painting Layer: " + l);
-                System.err.println("\tClip: " +
-                    dx + ", " + dy + ", " + dw + ", " + dh);
-            }
+                if (CGraphicsQ.DEBUG) {
+                    System.err.println("Painting Layer: " + l);
+                    System.err.println("\tClip: " +
+                        dx + ", " + dy + ", " + dw + ", " + dh +
+                        (cached ? " (cached)" : ""));
+                }
 
-            // Clip the graphics to only contain the dirty region of
-            // the layer (if the dirty region isn't set, clip to the
-            // whole layer contents).
-            g.clipRect(dx, dy, dw, dh);
-            refreshQ.queueRefresh(
-                l.boundsCopy[X] + dx, l.boundsCopy[Y] + dy, dw, dh);
-            l.paint(g);
+                // Clip the graphics to only contain the dirty region of
+                // the layer (if the dirty region isn't set, clip to the
+                // whole layer contents).
+                g.clipRect(dx, dy, dw, dh);
+                refreshQ.queueRefresh(
+                    l.boundsCopy[X] + dx, l.boundsCopy[Y] + dy, dw, dh);
+                if (cached) {
+                    l.paintCache(g);
+                } else {
+                    l.paint(g);
+                }
 
-            // We restore our graphics context to prepare
-            // for the next layer
-            g.translate(-g.getTranslateX(), -g.getTranslateY());
-            g.translate(tranX, tranY);
+                // We restore our graphics context to prepare
+                // for the next layer
+                g.translate(-g.getTranslateX(), -g.getTranslateY());
+                g.translate(tranX, tranY);
 
-            // We reset our clip to this window's bounds again.
-            g.setClip(bounds[X], bounds[Y], bounds[W], bounds[H]);
+                // We reset our clip to this window's bounds again.
+                g.setClip(bounds[X], bounds[Y], bounds[W], bounds[H]);
 
-            g.setFont(font);
-            g.setColor(color);
+                g.setFont(font);
+                g.setColor(color);
+            } // for
         } // for
     }
 
@@ -40,6 +40,9 @@ public class BackgroundLayer extends CLayer {
         super.opaque = true;
         visible = !transparent;
         tileBG = true;
+        // Tiling the image is much slower than blitting the buffer
+        // each time the layers above make the background dirty
+        setCacheEnabled(bgImage != null);
     }
 
     /**
@@ -51,6 +54,7 @@ public class BackgroundLayer extends CLayer {
     public void setBackground(Image bgImage, int bgColor) {
         setBackground(bgImage, tileBG, bgColor);
         visible = !transparent;
+        setCacheEnabled(bgImage != null);
     }
 }
 
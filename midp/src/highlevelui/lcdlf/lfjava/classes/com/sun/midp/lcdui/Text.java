@@ -72,7 +72,41 @@ public class Text {
     
     /** Number of GNL_ parameter constants. */
     private static final int GNL_NUM_PARAMS = 11;
-    
+
+    // the following are used by the cache of computed text sizes
+
+    /** Number of entries in the size cache, must be a power of 2. */
+    private static final int SC_NUM_ENTRIES = 256;
+    /** Number of entries in each set of the size cache. */
+    private static final int SC_NUM_WAYS = 4;
+    /** Entry holds the result of getSizeForWidth. */
+    private static final int SC_SIZE_FOR_WIDTH = 1;
+    /** Entry holds the result of getTwoStringsSize. */
+    private static final int SC_TWO_STRINGS_SIZE = 2;
+
+    /** Kind of each cache entry, 0 if the entry is empty. */
+    private static final int[] scKind = new int[SC_NUM_ENTRIES];
+    /** First string of each cache entry. */
+    private static final String[] scFirstStr = new String[SC_NUM_ENTRIES];
+    /** Hash code of the first string of each cache entry. */
+    private static final int[] scFirstHash = new int[SC_NUM_ENTRIES];
+    /** Second string of each cache entry. */
+    private static final String[] scSecondStr = new String[SC_NUM_ENTRIES];
+    /** Hash code of the second string of each cache entry. */
+    private static final int[] scSecondHash = new int[SC_NUM_ENTRIES];
+    /** Attributes of the font of the first string of each cache entry. */
+    private static final int[] scFirstFont = new int[SC_NUM_ENTRIES];
+    /** Attributes of the font of the second string of each cache entry. */
+    private static final int[] scSecondFont = new int[SC_NUM_ENTRIES];
+    /** Available width of each cache entry. */
+    private static final int[] scAvailWidth = new int[SC_NUM_ENTRIES];
+    /** First line offset or padding of each cache entry. */
+    private static final int[] scParam = new int[SC_NUM_ENTRIES];
+    /** Computed width of each cache entry. */
+    private static final int[] scWidth = new int[SC_NUM_ENTRIES];
+    /** Computed height of each cache entry. */
+    private static final int[] scHeight = new int[SC_NUM_ENTRIES];
+
 
     // constants to affect how text drawing is handled
     // These values can be OR'd together. no error checking is performed
@@ -769,6 +803,11 @@ public class Text {
 	    return;
         }
 
+        if (getCachedSize(size, SC_SIZE_FOR_WIDTH, str, null,
+                          font, null, availableWidth, offset)) {
+            return;
+        }
+
 	char[] text = str.toCharArray();
 
         int[] inout = initGNL(font, availableWidth, 0, Text.NORMAL, offset);
@@ -804,6 +843,9 @@ public class Text {
 	size[WIDTH] = widest;
 	size[HEIGHT] = font.getHeight() * numLines;
 	// return values in size[]
+
+        putCachedSize(size, SC_SIZE_FOR_WIDTH, str, null,
+                      font, null, availableWidth, offset);
     }
 
     /**
@@ -1025,7 +1067,12 @@ public class Text {
             size[WIDTH] = size[HEIGHT] = 0;
 	    return;
         }
-	
+
+        if (getCachedSize(size, SC_TWO_STRINGS_SIZE, firstStr, secondStr,
+                          firstFont, secondFont, width, pad)) {
+            return;
+        }
+
         int[] inout = new int[GNL_NUM_PARAMS];
 	
         char[] text; 
@@ -1071,6 +1118,8 @@ public class Text {
                 }
                 size[HEIGHT] = height;
 		size[WIDTH] = widest;
+                putCachedSize(size, SC_TWO_STRINGS_SIZE, firstStr, secondStr,
+                              firstFont, secondFont, width, pad);
 		return;
             }
         }
@@ -1124,9 +1173,172 @@ public class Text {
 
 	size[WIDTH] = widest;
 	size[HEIGHT] = height;
+        putCachedSize(size, SC_TWO_STRINGS_SIZE, firstStr, secondStr,
+                      firstFont, secondFont, width, pad);
 	return;
     }
 
+    /**
+     * Gets the hash code of a string for the size cache. The hash only
+     * selects the entries to compare, a hit needs equal strings.
+     *
+     * @param str the string, or null
+     * @return the hash code of the string, 0 if it is null
+     */
+    private static int getSizeCacheHash(String str) {
+        return (str == null) ? 0 : str.hashCode();
+    }
+
+    /**
+     * Compares a string of a cache entry with a measured string.
+     *
+     * @param cached the string of the cache entry, or null
+     * @param str the measured string, or null
+     * @return true if both are null or the strings are equal
+     */
+    private static boolean isSameSizeCacheString(String cached, String str) {
+        return (cached == str) || (cached != null && cached.equals(str));
+    }
+
+    /**
+     * Gets the attributes of a font for the size cache. Fonts with the
+     * same face, style and size measure text the same way. The face,
+     * style and size constants of Font use separate bits.
+     *
+     * @param font the font, or null
+     * @return the attributes of the font, -1 if it is null
+     */
+    private static int getSizeCacheFont(Font font) {
+        return (font == null) ? -1 :
+            font.getFace() | font.getStyle() | font.getSize();
+    }
+
+    /**
+     * Gets the first cache entry of the set for the given strings and
+     * sizing parameters.
+     *
+     * @param firstHash hash code of the first string
+     * @param secondHash hash code of the second string
+     * @param width the available width
+     * @param param the first line offset or the padding between strings
+     * @return index of the first cache entry of the set
+     */
+    private static int getSizeCacheSet(int firstHash, int secondHash,
+                                       int width, int param) {
+        int h = firstHash;
+        h = 31 * h + secondHash;
+        h = 31 * h + width;
+        h = 31 * h + param;
+        h ^= (h >>> 16) ^ (h >>> 7);
+        return (h & (SC_NUM_ENTRIES / SC_NUM_WAYS - 1)) * SC_NUM_WAYS;
+    }
+
+    /**
+     * Looks up a text size computed earlier for the same strings,
+     * fonts and sizing parameters.
+     *
+     * @param size the array that returns size[WIDTH] and size[HEIGHT]
+     * @param kind SC_SIZE_FOR_WIDTH or SC_TWO_STRINGS_SIZE
+     * @param firstStr the first string
+     * @param secondStr the second string, or null
+     * @param firstFont the font of the first string
+     * @param secondFont the font of the second string, or null
+     * @param width the available width
+     * @param param the first line offset or the padding between strings
+     * @return true if the size was found and returned in size[]
+     */
+    private static boolean getCachedSize(int[] size, int kind,
+                                         String firstStr, String secondStr,
+                                         Font firstFont, Font secondFont,
+                                         int width, int param) {
+        int firstHash = getSizeCacheHash(firstStr);
+        int secondHash = getSizeCacheHash(secondStr);
+        int firstFontKey = getSizeCacheFont(firstFont);
+        int secondFontKey = getSizeCacheFont(secondFont);
+        int set = getSizeCacheSet(firstHash, secondHash, width, param);
+
+        synchronized (scKind) {
+            for (int i = set; i < set + SC_NUM_WAYS; i++) {
+                if (scKind[i] == kind &&
+                    scFirstHash[i] == firstHash &&
+                    scSecondHash[i] == secondHash &&
+                    scFirstFont[i] == firstFontKey &&
+                    scSecondFont[i] == secondFontKey &&
+                    scAvailWidth[i] == width && scParam[i] == param &&
+                    isSameSizeCacheString(scFirstStr[i], firstStr) &&
+                    isSameSizeCacheString(scSecondStr[i], secondStr)) {
+                    size[WIDTH] = scWidth[i];
+                    size[HEIGHT] = scHeight[i];
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores a computed text size as the first entry of its set,
+     * the oldest entry of the set is dropped.
+     *
+     * @param size the array that holds the computed size[WIDTH]
+     *             and size[HEIGHT]
+     * @param kind SC_SIZE_FOR_WIDTH or SC_TWO_STRINGS_SIZE
+     * @param firstStr the first string
+     * @param secondStr the second string, or null
+     * @param firstFont the font of the first string
+     * @param secondFont the font of the second string, or null
+     * @param width the available width
+     * @param param the first line offset or the padding between strings
+     */
+    private static void putCachedSize(int[] size, int kind,
+                                      String firstStr, String secondStr,
+                                      Font firstFont, Font secondFont,
+                                      int width, int param) {
+        int firstHash = getSizeCacheHash(firstStr);
+        int secondHash = getSizeCacheHash(secondStr);
+        int set = getSizeCacheSet(firstHash, secondHash, width, param);
+        int n = SC_NUM_WAYS - 1;
+
+        synchronized (scKind) {
+            System.arraycopy(scKind, set, scKind, set + 1, n);
+            System.arraycopy(scFirstStr, set, scFirstStr, set + 1, n);
+            System.arraycopy(scFirstHash, set, scFirstHash, set + 1, n);
+            System.arraycopy(scSecondStr, set, scSecondStr, set + 1, n);
+            System.arraycopy(scSecondHash, set, scSecondHash, set + 1, n);
+            System.arraycopy(scFirstFont, set, scFirstFont, set + 1, n);
+            System.arraycopy(scSecondFont, set, scSecondFont, set + 1, n);
+            System.arraycopy(scAvailWidth, set, scAvailWidth, set + 1, n);
+            System.arraycopy(scParam, set, scParam, set + 1, n);
+            System.arraycopy(scWidth, set, scWidth, set + 1, n);
+            System.arraycopy(scHeight, set, scHeight, set + 1, n);
+
+            scKind[set] = kind;
+            scFirstStr[set] = firstStr;
+            scFirstHash[set] = firstHash;
+            scSecondStr[set] = secondStr;
+            scSecondHash[set] = secondHash;
+            scFirstFont[set] = getSizeCacheFont(firstFont);
+            scSecondFont[set] = getSizeCacheFont(secondFont);
+            scAvailWidth[set] = width;
+            scParam[set] = param;
+            scWidth[set] = size[WIDTH];
+            scHeight[set] = size[HEIGHT];
+        }
+    }
+
+    /**
+     * Empties the cache of computed text sizes.
+     */
+    static void clearSizeCache() {
+        synchronized (scKind) {
+            for (int i = 0; i < SC_NUM_ENTRIES; i++) {
+                scKind[i] = 0;
+                scFirstStr[i] = null;
+                scSecondStr[i] = null;
+            }
+        }
+    }
+
     // IMPL_NOTE:  remove these - there must be a common place to get them
     /** Used as an index into the size[], for the x. */
     public final static int X      = 0;
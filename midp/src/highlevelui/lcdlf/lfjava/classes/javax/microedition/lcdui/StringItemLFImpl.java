@@ -86,12 +86,8 @@ class StringItemLFImpl extends ItemLFImpl implements StringItemLF {
         // almost concatenated together and wrapped together
         // (if both are not empty there is a horizontal padding between them)
 
-        int size[] = contentBounds;
-        Text.getTwoStringsSize(size, strItem.label, strItem.str,
-            ScreenSkin.FONT_LABEL,
-            strItem.font, lGetAvailableWidth(),
-            getHorizontalPad());
-        return size[WIDTH];
+        lGetTwoStringsSize(contentBounds, lGetAvailableWidth());
+        return contentBounds[WIDTH];
     }
     
     /**
@@ -112,15 +108,8 @@ class StringItemLFImpl extends ItemLFImpl implements StringItemLF {
         // In PLAIN and HYPERLINK modes label and content string are
         // almost concatenated together and wrapped together
         // (almost because there is a horizontal padding between them)
-        int size[] = contentBounds;
-
-        Text.getTwoStringsSize(size, strItem.label, strItem.str,
-                ScreenSkin.FONT_LABEL,
-                strItem.font,
-                w == -1 ? lGetAvailableWidth() : w,
-                getHorizontalPad());
-        
-        return size[HEIGHT];
+        lGetTwoStringsSize(contentBounds, w == -1 ? lGetAvailableWidth() : w);
+        return contentBounds[HEIGHT];
     }
 
     /**
@@ -512,6 +501,45 @@ class StringItemLFImpl extends ItemLFImpl implements StringItemLF {
     //  Private methods
     // *****************************************************
     
+    /**
+     * Gets the size of the label and the text wrapped together in
+     * the given width. The results for the last two widths are kept
+     * while the label, text and font stay the same: each layout pass
+     * asks for the preferred width and then for the preferred height
+     * at that width, and items below a changed one are laid out again
+     * without wrapping their text.
+     *
+     * @param size the array that returns size[WIDTH] and size[HEIGHT]
+     * @param w the available width for the label and the text
+     */
+    private void lGetTwoStringsSize(int[] size, int w) {
+        int pad = getHorizontalPad();
+
+        if (sizeLabel != strItem.label || sizeStr != strItem.str ||
+            sizeFont != strItem.font || sizePad != pad) {
+            sizeLabel = strItem.label;
+            sizeStr = strItem.str;
+            sizeFont = strItem.font;
+            sizePad = pad;
+            sizeCache[0] = sizeCache[3] = INVALID_SIZE;
+        }
+
+        int i = (sizeCache[0] == w) ? 0 : (sizeCache[3] == w) ? 3 : -1;
+        if (i < 0) {
+            Text.getTwoStringsSize(size, strItem.label, strItem.str,
+                                   ScreenSkin.FONT_LABEL, strItem.font,
+                                   w, pad);
+            // keep the newest result first
+            System.arraycopy(sizeCache, 0, sizeCache, 3, 3);
+            sizeCache[0] = w;
+            sizeCache[1] = size[WIDTH];
+            sizeCache[2] = size[HEIGHT];
+        } else {
+            size[WIDTH] = sizeCache[i + 1];
+            size[HEIGHT] = sizeCache[i + 2];
+        }
+    }
+
     /**
      * Check that given the label, text, and commands, Form
      * should traverse this StringItem. Updates the internal
@@ -535,6 +563,25 @@ class StringItemLFImpl extends ItemLFImpl implements StringItemLF {
     /** StringItem associated with this view */
     private StringItem strItem;
 
+    /** Label the sizes in sizeCache were computed for */
+    private String sizeLabel;
+
+    /** Text the sizes in sizeCache were computed for */
+    private String sizeStr;
+
+    /** Font the sizes in sizeCache were computed for */
+    private Font sizeFont;
+
+    /** Padding the sizes in sizeCache were computed for */
+    private int sizePad;
+
+    /**
+     * Two last sizes of the label and the text, each one stored as
+     * the available width, the resulting width and height.
+     * The available width is INVALID_SIZE for an unused entry.
+     */
+    private int[] sizeCache = {INVALID_SIZE, 0, 0, INVALID_SIZE, 0, 0};
+
     /**
      * An internal flag. True if Form should not traverse
      * to this StringItem
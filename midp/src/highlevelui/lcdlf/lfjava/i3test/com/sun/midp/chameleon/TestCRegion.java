@@ -0,0 +1,152 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.chameleon;
+
+import java.util.Random;
+
+import com.sun.midp.i3test.*;
+
+/**
+ * Tests the rectangle set algebra of CRegion used for the dirty and
+ * refresh regions of Chameleon. Random sequences of additions and
+ * subtractions are checked against a pixel map of the same area.
+ */
+public class TestCRegion extends TestCase {
+
+    /** Size of the area covered by the tested regions */
+    static final int SIZE = 32;
+
+    /**
+     * Check the region is made of disjoint rectangles covering exactly
+     * the marked pixels, or all of them if the region was collapsed
+     * to its bounds.
+     *
+     * @param r region to check
+     * @param map expected pixel map, updated if the region was collapsed
+     */
+    void checkRegion(CRegion r, boolean[] map) {
+        int[] count = new int[SIZE * SIZE];
+        int[] rect = new int[4];
+
+        assertTrue("too many rectangles", r.size() <= CRegion.MAX_RECTS);
+        for (int i = 0; i < r.size(); i++) {
+            r.getRect(i, rect);
+            assertTrue("empty rectangle", rect[2] > 0 && rect[3] > 0);
+            for (int y = rect[1]; y < rect[1] + rect[3]; y++) {
+                for (int x = rect[0]; x < rect[0] + rect[2]; x++) {
+                    count[y * SIZE + x]++;
+                }
+            }
+        }
+
+        int area = 0;
+        for (int i = 0; i < map.length; i++) {
+            assertTrue("rectangles overlap", count[i] <= 1);
+            assertTrue("area lost", !map[i] || count[i] == 1);
+            // A collapsed region is allowed to grow
+            map[i] = count[i] == 1;
+            area += count[i];
+        }
+        assertEquals("getArea", area, r.getArea());
+    }
+
+    /**
+     * Test union and subtraction of simple rectangles.
+     */
+    void testSimple() {
+        CRegion r = new CRegion();
+        int[] b = new int[4];
+
+        assertTrue(r.isEmpty());
+        assertTrue(r.add(0, 0, 10, 10));
+        assertFalse("covered area added", r.add(2, 2, 5, 5));
+        assertTrue(r.add(0, 10, 10, 5));
+        assertEquals("adjacent rectangles merged", 1, r.size());
+        r.getBounds(b);
+        assertEquals(0, b[0]);
+        assertEquals(0, b[1]);
+        assertEquals(10, b[2]);
+        assertEquals(15, b[3]);
+
+        assertFalse("outside area subtracted", r.subtract(20, 0, 5, 5));
+        assertTrue(r.subtract(3, 3, 4, 4));
+        assertEquals(150 - 16, r.getArea());
+        assertFalse(r.intersects(3, 3, 4, 4));
+        assertTrue(r.intersects(2, 2, 2, 2));
+
+        assertTrue("hole filled", r.add(3, 3, 4, 4));
+        assertEquals(150, r.getArea());
+
+        assertTrue(r.subtract(0, 0, 10, 15));
+        assertTrue(r.isEmpty());
+    }
+
+    /**
+     * Test random sequences of operations against a pixel map.
+     */
+    void testRandom() {
+        Random rnd = new Random(1);
+
+        for (int n = 0; n < 200; n++) {
+            CRegion r = new CRegion();
+            boolean[] map = new boolean[SIZE * SIZE];
+
+            for (int k = 0; k < 16; k++) {
+                int x = rnd.nextInt(SIZE);
+                int y = rnd.nextInt(SIZE);
+                int w = 1 + rnd.nextInt(SIZE - x);
+                int h = 1 + rnd.nextInt(SIZE - y);
+                boolean add = rnd.nextInt(3) != 0;
+
+                boolean changed = false;
+                for (int j = y; j < y + h; j++) {
+                    for (int i = x; i < x + w; i++) {
+                        changed |= map[j * SIZE + i] != add;
+                        map[j * SIZE + i] = add;
+                    }
+                }
+
+                boolean res = add ? r.add(x, y, w, h)
+                                  : r.subtract(x, y, w, h);
+                assertEquals("change reported", changed, res);
+                checkRegion(r, map);
+            }
+        }
+    }
+
+    /**
+     * Overridden from TestCase parent. This method will kick off each
+     * individual test
+     */
+    public void runTests() {
+        declare("testSimple");
+        testSimple();
+
+        declare("testRandom");
+        testRandom();
+    }
+}
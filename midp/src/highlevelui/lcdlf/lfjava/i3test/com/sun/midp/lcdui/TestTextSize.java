@@ -0,0 +1,191 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.lcdui;
+
+import java.util.Random;
+
+import javax.microedition.lcdui.Font;
+
+import com.sun.midp.i3test.*;
+
+/**
+ * Tests that the text sizes returned by Text do not depend on the
+ * cache of computed sizes. Sizes of strings measured over and over
+ * are compared with the sizes computed with an empty cache, including
+ * strings of the same length and hash code.
+ */
+public class TestTextSize extends TestCase {
+
+    /** Characters the tested strings are made of */
+    static final String CHARS = "abc de\nfghij  klmW\r\nxyz";
+
+    /** Number of tested strings */
+    static final int NUM_STRINGS = 40;
+
+    /** Strings measured by the tests */
+    String[] strings = new String[NUM_STRINGS];
+
+    /**
+     * Fill the tested strings with random text, some of them empty.
+     *
+     * @param rnd random generator to use
+     */
+    void fillStrings(Random rnd) {
+        for (int i = 0; i < NUM_STRINGS; i++) {
+            int len = (i % 8 == 0) ? 0 : rnd.nextInt(120);
+            StringBuffer buf = new StringBuffer(len);
+            for (int j = 0; j < len; j++) {
+                buf.append(CHARS.charAt(rnd.nextInt(CHARS.length())));
+            }
+            strings[i] = buf.toString();
+        }
+    }
+
+    /**
+     * Test getSizeForWidth on repeated requests.
+     */
+    void testSizeForWidth() {
+        Random rnd = new Random(1);
+        Font[] fonts = {
+            Font.getDefaultFont(),
+            Font.getFont(Font.FACE_SYSTEM, Font.STYLE_BOLD, Font.SIZE_LARGE)
+        };
+        int[] size = new int[4];
+        int[] expected = new int[4];
+
+        fillStrings(rnd);
+        for (int n = 0; n < 2000; n++) {
+            String str = strings[rnd.nextInt(NUM_STRINGS)];
+            Font font = fonts[rnd.nextInt(fonts.length)];
+            int width = 40 + rnd.nextInt(4) * 40;
+            int offset = rnd.nextInt(3) == 0 ? rnd.nextInt(width) : 0;
+
+            Text.getSizeForWidth(size, width, new String(str),
+                                 font, offset);
+            Text.clearSizeCache();
+            Text.getSizeForWidth(expected, width, str, font, offset);
+            assertEquals("width", expected[Text.WIDTH], size[Text.WIDTH]);
+            assertEquals("height", expected[Text.HEIGHT], size[Text.HEIGHT]);
+        }
+    }
+
+    /**
+     * Test getTwoStringsSize on repeated requests.
+     */
+    void testTwoStringsSize() {
+        Random rnd = new Random(2);
+        Font first = Font.getDefaultFont();
+        Font second =
+            Font.getFont(Font.FACE_SYSTEM, Font.STYLE_PLAIN, Font.SIZE_SMALL);
+        int[] size = new int[4];
+        int[] expected = new int[4];
+
+        fillStrings(rnd);
+        for (int n = 0; n < 2000; n++) {
+            String str1 = strings[rnd.nextInt(NUM_STRINGS)];
+            String str2 = strings[rnd.nextInt(NUM_STRINGS)];
+            int width = 40 + rnd.nextInt(4) * 40;
+            int pad = rnd.nextInt(2) * 4;
+
+            Text.getTwoStringsSize(size, new String(str1),
+                                   new String(str2), first, second,
+                                   width, pad);
+            Text.clearSizeCache();
+            Text.getTwoStringsSize(expected, str1, str2, first, second,
+                                   width, pad);
+            assertEquals("width", expected[Text.WIDTH], size[Text.WIDTH]);
+            assertEquals("height", expected[Text.HEIGHT], size[Text.HEIGHT]);
+        }
+    }
+
+    /**
+     * Test strings of the same length and hash code, which the cache
+     * must not mix up.
+     */
+    void testHashCollision() {
+        // 31 * 'A' + 'a' == 31 * 'B' + 'B', 31 * '\n' + ' ' == 31 * '\t' + '?'
+        String[][] pairs = {
+            { "AaAaAaAaAaAaAaAaAaAa", "BBBBBBBBBBBBBBBBBBBB" },
+            { "xyz\n xyz", "xyz\t?xyz" }
+        };
+        Font font = Font.getDefaultFont();
+        int width = 200;
+        int[] size = new int[4];
+        int[] expected = new int[4];
+
+        for (int i = 0; i < pairs.length; i++) {
+            String str1 = pairs[i][0];
+            String str2 = pairs[i][1];
+
+            assertEquals("length", str1.length(), str2.length());
+            assertEquals("hash", str1.hashCode(), str2.hashCode());
+
+            Text.clearSizeCache();
+            Text.getSizeForWidth(expected, width, str2, font, 0);
+
+            Text.clearSizeCache();
+            Text.getSizeForWidth(size, width, str1, font, 0);
+            Text.getSizeForWidth(size, width, str2, font, 0);
+            assertEquals("width", expected[Text.WIDTH], size[Text.WIDTH]);
+            assertEquals("height", expected[Text.HEIGHT], size[Text.HEIGHT]);
+
+            Text.clearSizeCache();
+            Text.getTwoStringsSize(expected, str2, str2, font, font,
+                                   width, 0);
+
+            Text.clearSizeCache();
+            Text.getTwoStringsSize(size, str1, str1, font, font, width, 0);
+            Text.getTwoStringsSize(size, str2, str2, font, font, width, 0);
+            assertEquals("two width", expected[Text.WIDTH],
+                         size[Text.WIDTH]);
+            assertEquals("two height", expected[Text.HEIGHT],
+                         size[Text.HEIGHT]);
+        }
+
+        // the second pair wraps differently, a mix-up would show
+        Text.clearSizeCache();
+        Text.getSizeForWidth(size, width, pairs[1][0], font, 0);
+        Text.getSizeForWidth(expected, width, pairs[1][1], font, 0);
+        assertTrue("different sizes",
+                   size[Text.HEIGHT] != expected[Text.HEIGHT]);
+    }
+
+    /**
+     * Overridden from TestCase parent. This method will kick off each
+     * individual test
+     */
+    public void runTests() {
+        declare("testSizeForWidth");
+        testSizeForWidth();
+
+        declare("testTwoStringsSize");
+        testTwoStringsSize();
+
+        declare("testHashCollision");
+        testHashCollision();
+    }
+}
@@ -102,9 +102,38 @@ public class DisplayEventListener implements EventListener {
      *     event to the queue
      */
     public boolean preprocess(Event event, Event waitingEvent) {
+        if (event.getType() == EventTypes.PEN_EVENT && waitingEvent != null) {
+            return preprocessPenEvent((NativeEvent)event,
+                                      (NativeEvent)waitingEvent);
+        }
+
         return true;
     }
 
+    /**
+     * Preprocess a pen event to merge it with the waiting pen event if
+     * both are drags on the same display. Only the last position of a
+     * drag is delivered, so a slow consumer does not fall behind the pen.
+     *
+     * @param event pen event being posted
+     * @param waitingEvent last pen event waiting in the queue
+     *
+     * @return true if the event should be put in the queue, false if
+     * the event has been merged with the waiting event
+     */
+    private boolean preprocessPenEvent(NativeEvent event,
+                                       NativeEvent waitingEvent) {
+        if (event.intParam1 != EventConstants.DRAGGED ||
+                waitingEvent.intParam1 != EventConstants.DRAGGED ||
+                event.intParam4 != waitingEvent.intParam4) {
+            return true;
+        }
+
+        waitingEvent.intParam2 = event.intParam2;
+        waitingEvent.intParam3 = event.intParam3;
+        return false;
+    }
+
     /**
      * Process an event.
      *
@@ -100,6 +100,8 @@ public class LCDUIEventListener implements EventListener {
         case EventTypes.SCREEN_CHANGE_EVENT:
             return preprocessScreenChangeEvent
                         (newEvent, waitingEvent);
+        case EventTypes.SCREEN_REPAINT_EVENT:
+            return preprocessScreenRepaintEvent(newEvent, waitingEvent);
         // case EventTypes.ITEM_EVENT: 
         default:
             return true;
@@ -224,6 +226,29 @@ public class LCDUIEventListener implements EventListener {
         return false;
     }
 
+    /**
+     * Preprocess a screen repaint event to only allow one for the same
+     * display in the queue at once.
+     *
+     * @param genericEvent1 LCDUI event
+     * @param genericEvent2 waiting LCDUI event
+     *
+     * @return true if the event should be put in the queue, false if
+     * the event should not be put in the queue because it is duplicate
+     * of the event currently waiting in the queue.
+     */
+    private boolean preprocessScreenRepaintEvent(Event genericEvent1,
+            Event genericEvent2) {
+        if (genericEvent2 == null) {
+            // There is no other event, queue this event
+            return true;
+        }
+
+        // The whole screen is repainted once for each display
+        return ((LCDUIEvent)genericEvent1).display !=
+            ((LCDUIEvent)genericEvent2).display;
+    }
+
     /**
      * Processes event of ITEM_EVENT class
      *
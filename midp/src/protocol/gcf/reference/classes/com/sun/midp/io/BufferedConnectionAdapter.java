@@ -36,6 +36,16 @@ import java.io.*;
  * specify a buffer size greater than 0 and override
  * {@link #readBytesNonBlocking(byte[], int, int)} in order to for available
  * to work properly.
+ * <p>
+ * The read ahead buffer adapts to the data rate of the connection: it
+ * doubles (up to a maximum size) when consecutive fills come back full
+ * and halves (down to its initial size) when fills keep coming back
+ * mostly empty.
+ * <p>
+ * Writes made through the output stream can optionally be coalesced in a
+ * write behind buffer, see {@link #setWriteBufferSize(int)}. The buffer
+ * is written out when it is full, on <code>flush</code> and when the
+ * output stream is closed.
  */
 public abstract class BufferedConnectionAdapter extends ConnectionBaseAdapter {
 
@@ -78,15 +88,112 @@ public abstract class BufferedConnectionAdapter extends ConnectionBaseAdapter {
      */
     protected int pos;
 
+    /** Number of consecutive full fills before the buffer grows. */
+    private static final int FULL_FILLS_TO_GROW = 2;
+
+    /** Number of consecutive short fills before the buffer shrinks. */
+    private static final int SHORT_FILLS_TO_SHRINK = 8;
+
+    /** Size the read ahead buffer was created with. */
+    private int minBufferSize;
+
+    /** Size the read ahead buffer can grow to. */
+    private int maxBufferSize;
+
+    /** Number of consecutive fills that filled the whole buffer. */
+    private int fullFills;
+
+    /** Number of consecutive fills that used a quarter of the buffer or less. */
+    private int shortFills;
+
+    /** True if the last fill of the buffer filled it completely. */
+    private boolean streaming;
+
+    /** Write behind buffer, null when writes are not coalesced. */
+    private byte writeBuf[];
+
+    /** Number of bytes waiting in the write behind buffer. */
+    private int writeCount;
+
+    /** Lock object for the write behind buffer. */
+    private final Object writeBufLock = new Object();
+
     /**
      * Initializes the connection.
      *
      * @param sizeOfBuffer size of the internal buffer or 0 for no buffer
      */
     protected BufferedConnectionAdapter(int sizeOfBuffer) {
+        this(sizeOfBuffer, sizeOfBuffer);
+    }
+
+    /**
+     * Initializes the connection with a read ahead buffer that can grow.
+     *
+     * @param sizeOfBuffer initial size of the internal buffer or 0 for no
+     *                     buffer
+     * @param maxSizeOfBuffer size the internal buffer may grow to when
+     *                        data arrives faster than it is consumed,
+     *                        values below <code>sizeOfBuffer</code> keep
+     *                        the buffer at its initial size
+     */
+    protected BufferedConnectionAdapter(int sizeOfBuffer,
+                                        int maxSizeOfBuffer) {
+        this(sizeOfBuffer, maxSizeOfBuffer, 0);
+    }
+
+    /**
+     * Initializes the connection with a read ahead buffer that can grow
+     * and a write behind buffer.
+     *
+     * @param sizeOfBuffer initial size of the internal buffer or 0 for no
+     *                     buffer
+     * @param maxSizeOfBuffer size the internal buffer may grow to
+     * @param sizeOfWriteBuffer size of the write behind buffer or 0 to
+     *                          write through, see
+     *                          {@link #setWriteBufferSize(int)}
+     */
+    protected BufferedConnectionAdapter(int sizeOfBuffer, int maxSizeOfBuffer,
+                                        int sizeOfWriteBuffer) {
         if (sizeOfBuffer > 0) {
             buf = new byte[sizeOfBuffer];
         }
+
+        if (sizeOfWriteBuffer > 0) {
+            writeBuf = new byte[sizeOfWriteBuffer];
+        }
+
+        minBufferSize = sizeOfBuffer;
+
+        if (maxSizeOfBuffer < sizeOfBuffer) {
+            maxBufferSize = sizeOfBuffer;
+        } else {
+            maxBufferSize = maxSizeOfBuffer;
+        }
+    }
+
+    /**
+     * Sets the size of the write behind buffer. Writes of the output
+     * stream are collected in the buffer until it is full or the stream is
+     * flushed or closed, so a request made of several small writes goes
+     * out in one native write. Only use this when the user of the
+     * connection flushes its output.
+     *
+     * @param sizeOfBuffer size of the write behind buffer or 0 to write
+     *                     through
+     * @exception  IOException  if an I/O error occurs while writing out
+     *             the current buffer
+     */
+    public void setWriteBufferSize(int sizeOfBuffer) throws IOException {
+        synchronized (writeBufLock) {
+            drainWriteBuffer();
+
+            if (sizeOfBuffer > 0) {
+                writeBuf = new byte[sizeOfBuffer];
+            } else {
+                writeBuf = null;
+            }
+        }
     }
 
     /**
@@ -124,20 +231,165 @@ public abstract class BufferedConnectionAdapter extends ConnectionBaseAdapter {
                     return res;
                 } else {
                     count = res;
+                    adaptBufferSize(res);
                 }
             }
         }
 
-        if (len > count) {
-            len = count;
+        bytesRead = len;
+        if (bytesRead > count) {
+            bytesRead = count;
         }
 
-        System.arraycopy(buf, pos, b, off, len);
-        count -= len;
-        pos   += len;
-        return len;
+        System.arraycopy(buf, pos, b, off, bytesRead);
+        count -= bytesRead;
+        pos   += bytesRead;
+
+        if (count == 0 && bytesRead < len && streaming &&
+                canReadNonBlocking()) {
+            /*
+             * The data is streaming in, pick up what arrived while
+             * the caller was processing the buffer without waiting.
+             */
+            int res = readBytesNonBlocking(b, off + bytesRead,
+                                           len - bytesRead);
+            if (res > 0) {
+                bytesRead += res;
+            }
+        }
+
+        return bytesRead;
     };
 
+    /**
+     * Resizes the read ahead buffer after a fill. The buffer grows when
+     * fills keep coming back full and shrinks back when they keep coming
+     * back mostly empty. The bytes of the fill are kept.
+     *
+     * @param filled number of bytes the last fill put in the buffer
+     */
+    private void adaptBufferSize(int filled) {
+        int newSize = buf.length;
+
+        streaming = (filled == buf.length);
+
+        if (streaming) {
+            shortFills = 0;
+            fullFills++;
+            if (fullFills >= FULL_FILLS_TO_GROW &&
+                    buf.length < maxBufferSize) {
+                newSize = Math.min(buf.length * 2, maxBufferSize);
+            }
+        } else if (filled <= buf.length / 4) {
+            fullFills = 0;
+            shortFills++;
+            if (shortFills >= SHORT_FILLS_TO_SHRINK &&
+                    buf.length > minBufferSize) {
+                newSize = Math.max(buf.length / 2, minBufferSize);
+            }
+        } else {
+            fullFills = 0;
+            shortFills = 0;
+        }
+
+        if (newSize != buf.length) {
+            byte[] temp = new byte[newSize];
+
+            System.arraycopy(buf, 0, temp, 0, filled);
+            buf = temp;
+            fullFills = 0;
+            shortFills = 0;
+        }
+    }
+
+    /**
+     * Tells if {@link #readBytesNonBlocking(byte[], int, int)} returns
+     * at once when no data is available, so a read served from the buffer
+     * can be topped up with data that arrived in the meantime.
+     * <p>
+     * The <code>canReadNonBlocking</code> method of
+     * <code>BufferedConnectionAdapter</code> returns <code>false</code>.
+     *
+     * @return true if non-blocking reads never wait for data
+     */
+    protected boolean canReadNonBlocking() {
+        return false;
+    }
+
+    /**
+     * Collects the bytes written to the output stream in the write behind
+     * buffer, if there is one, or writes them through.
+     *
+     * @param      b     the data.
+     * @param      off   the start offset in the data.
+     * @param      len   the number of bytes to write.
+     * @return     number of bytes written or buffered
+     * @exception  IOException  if an I/O error occurs.
+     */
+    protected int writeOutputBytes(byte b[], int off, int len)
+            throws IOException {
+        synchronized (writeBufLock) {
+            if (writeBuf == null) {
+                return writeBytes(b, off, len);
+            }
+
+            if (len > writeBuf.length - writeCount) {
+                drainWriteBuffer();
+
+                if (len >= writeBuf.length) {
+                    return writeBytes(b, off, len);
+                }
+            }
+
+            System.arraycopy(b, off, writeBuf, writeCount, len);
+            writeCount += len;
+            return len;
+        }
+    }
+
+    /**
+     * Writes out the bytes waiting in the write behind buffer.
+     *
+     * @exception  IOException  if an I/O error occurs.
+     */
+    protected void flush() throws IOException {
+        synchronized (writeBufLock) {
+            drainWriteBuffer();
+        }
+    }
+
+    /**
+     * Called once by the child output stream. The bytes waiting in the
+     * write behind buffer are written out and then the parent method is
+     * called.
+     *
+     * @exception IOException if the subclass throws one
+     */
+    protected void closeOutputStream() throws IOException {
+        flush();
+        super.closeOutputStream();
+    }
+
+    /**
+     * Writes the write behind buffer to the connection. The caller must
+     * hold the write buffer lock.
+     *
+     * @exception  IOException  if an I/O error occurs.
+     */
+    private void drainWriteBuffer() throws IOException {
+        int bytesWritten = 0;
+
+        try {
+            while (bytesWritten < writeCount) {
+                bytesWritten += writeBytes(writeBuf, bytesWritten,
+                                           writeCount - bytesWritten);
+            }
+        } finally {
+            // a failed connection cannot take the rest anyway
+            writeCount = 0;
+        }
+    }
+
     /**
      * Reads up to <code>len</code> bytes of data from the input stream into
      * an array of bytes, but does not block if no bytes available. A subclass
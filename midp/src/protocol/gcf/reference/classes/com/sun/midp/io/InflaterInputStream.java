@@ -0,0 +1,1033 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * An input stream that decompresses data in the deflate format
+ * (RFC 1951), raw or wrapped in the zlib (RFC 1950) or gzip (RFC 1952)
+ * format. The data is decompressed as it is read, only the last 32K
+ * bytes of output are kept for back references, so a large response
+ * does not have to fit in memory.
+ * <p>
+ * A read returns the bytes that can be decompressed from the input
+ * already received instead of waiting for the rest of the input.
+ * <code>mark</code> and <code>reset</code> are not supported.
+ */
+public class InflaterInputStream extends FilterInputStream {
+    /** Deflate data without a header. */
+    public static final int FORMAT_DEFLATE = 0;
+    /**
+     * Deflate data in the zlib format. Raw deflate data is accepted
+     * too, since some HTTP servers send it for the "deflate" encoding.
+     */
+    public static final int FORMAT_ZLIB = 1;
+    /** Deflate data in the gzip format. */
+    public static final int FORMAT_GZIP = 2;
+
+    /** Size of the window of the last output bytes, a power of 2. */
+    private static final int WINDOW_SIZE = 32768;
+    /** Mask for a position in the window. */
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    /** Longest back reference. */
+    private static final int MAX_MATCH = 258;
+    /** Longest Huffman code. */
+    private static final int MAX_BITS = 15;
+    /** Size of the input buffer. */
+    private static final int INPUT_BUFFER_SIZE = 1024;
+
+    /** Before the stream header. */
+    private static final int STATE_HEADER = 0;
+    /** Before a block header. */
+    private static final int STATE_BLOCK = 1;
+    /** In a stored block. */
+    private static final int STATE_STORED = 2;
+    /** In a compressed block. */
+    private static final int STATE_CODES = 3;
+    /** Before the stream trailer. */
+    private static final int STATE_TRAILER = 4;
+    /** After the stream trailer. */
+    private static final int STATE_DONE = 5;
+
+    /** Base lengths of the length symbols 257 to 285. */
+    private static final short[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+
+    /** Extra bits of the length symbols 257 to 285. */
+    private static final byte[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+
+    /** Base distances of the distance symbols. */
+    private static final int[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+        8193, 12289, 16385, 24577
+    };
+
+    /** Extra bits of the distance symbols. */
+    private static final byte[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+    /** Order of the code length code lengths in a dynamic block. */
+    private static final byte[] CODE_LENGTH_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    /** Literal/length code of the fixed blocks. */
+    private static Huffman fixedLiterals;
+    /** Distance code of the fixed blocks. */
+    private static Huffman fixedDistances;
+    /** Table for the CRC-32 of gzip data. */
+    private static int[] crcTable;
+
+    /** Format of the data, one of the FORMAT_ constants. */
+    private int format;
+    /** Decoding state, one of the STATE_ constants. */
+    private int state = STATE_HEADER;
+    /** True if the current block is the last one. */
+    private boolean lastBlock;
+    /** Bytes left in the current stored block. */
+    private int storedLeft;
+
+    /** Input read from the underlying stream. */
+    private byte[] input = new byte[INPUT_BUFFER_SIZE];
+    /** Position of the next byte in the input buffer. */
+    private int inputPos;
+    /** Number of bytes in the input buffer. */
+    private int inputLength;
+    /** Input bits not used yet, the next bit is the lowest one. */
+    private int bitBuffer;
+    /** Number of bits in the bit buffer. */
+    private int bitCount;
+
+    /** The last output bytes. */
+    private byte[] window = new byte[WINDOW_SIZE];
+    /** Number of bytes decompressed, modulo 2^32. */
+    private int written;
+    /** Number of bytes returned to the reader, modulo 2^32. */
+    private int returned;
+    /** True after a whole window of bytes has been decompressed. */
+    private boolean windowFull;
+
+    /** Literal/length code of the current block. */
+    private Huffman literals;
+    /** Distance code of the current block. */
+    private Huffman distances;
+    /** Literal/length code of dynamic blocks, reused. */
+    private Huffman dynamicLiterals;
+    /** Distance code of dynamic blocks, reused. */
+    private Huffman dynamicDistances;
+
+    /** True if the output is checked against a checksum. */
+    private boolean checked;
+    /** Checksum of the output returned so far. */
+    private int checksum;
+    /** Buffer for reading one byte. */
+    private byte[] oneByte = new byte[1];
+
+    /** Checksum in the trailer. */
+    private int expectedChecksum;
+    /** Length modulo 2^32 in the gzip trailer. */
+    private int expectedLength;
+
+    /**
+     * Creates a stream that decompresses data read from another stream.
+     *
+     * @param in the compressed data
+     * @param format format of the data, one of the FORMAT_ constants
+     */
+    public InflaterInputStream(InputStream in, int format) {
+        super(in);
+        this.format = format;
+
+        if (format == FORMAT_GZIP) {
+            checksum = 0xffffffff;
+        } else {
+            checksum = 1;
+        }
+    }
+
+    /**
+     * Reads the next byte of decompressed data.
+     *
+     * @return the next byte or -1 at the end of the data
+     * @exception IOException if the data is corrupt or cannot be read
+     */
+    public int read() throws IOException {
+        if (read(oneByte, 0, 1) == -1) {
+            return -1;
+        }
+
+        return oneByte[0] & 0xff;
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes of decompressed data. Blocks
+     * until at least one byte can be returned.
+     *
+     * @param b the buffer into which the data is read
+     * @param off the start offset in array <code>b</code>
+     * @param len the maximum number of bytes to read
+     *
+     * @return the number of bytes read or -1 at the end of the data
+     * @exception IOException if the data is corrupt or cannot be read
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        while (written == returned) {
+            if (state == STATE_DONE) {
+                checkTrailer();
+                return -1;
+            }
+
+            inflate(len);
+        }
+
+        int count = Math.min(len, written - returned);
+        int pos = returned & WINDOW_MASK;
+        int first = Math.min(count, WINDOW_SIZE - pos);
+
+        System.arraycopy(window, pos, b, off, first);
+        System.arraycopy(window, 0, b, off + first, count - first);
+
+        if (checked) {
+            updateChecksum(b, off, count);
+        }
+
+        returned += count;
+        return count;
+    }
+
+    /**
+     * Skips over decompressed data.
+     *
+     * @param n the number of bytes to skip
+     *
+     * @return the number of bytes skipped
+     * @exception IOException if the data is corrupt or cannot be read
+     */
+    public long skip(long n) throws IOException {
+        byte[] b = new byte[(int)Math.min(n, 512)];
+        long skipped = 0;
+
+        while (skipped < n) {
+            int count = read(b, 0, (int)Math.min(n - skipped, b.length));
+            if (count == -1) {
+                break;
+            }
+
+            skipped += count;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Returns the number of decompressed bytes that can be read without
+     * blocking.
+     *
+     * @return the number of bytes
+     */
+    public int available() {
+        return written - returned;
+    }
+
+    /**
+     * Does nothing, mark is not supported.
+     *
+     * @param readlimit ignored
+     */
+    public void mark(int readlimit) {
+    }
+
+    /**
+     * Always throws an exception, reset is not supported.
+     *
+     * @exception IOException always
+     */
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Tells if mark and reset are supported.
+     *
+     * @return false
+     */
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Decompresses data until <code>wanted</code> bytes are waiting to be
+     * read, the window has no room for a back reference, or the buffered
+     * input has been used and some bytes are waiting.
+     *
+     * @param wanted number of bytes the reader wants
+     * @exception IOException if the data is corrupt or cannot be read
+     */
+    private void inflate(int wanted) throws IOException {
+        for (;;) {
+            int waiting = written - returned;
+
+            if (waiting >= wanted || WINDOW_SIZE - waiting < MAX_MATCH ||
+                    (waiting > 0 && inputPos == inputLength)) {
+                return;
+            }
+
+            switch (state) {
+            case STATE_HEADER:
+                readHeader();
+                state = STATE_BLOCK;
+                break;
+
+            case STATE_BLOCK:
+                readBlockHeader();
+                break;
+
+            case STATE_STORED:
+                inflateStored(wanted);
+                break;
+
+            case STATE_CODES:
+                inflateCodes(wanted);
+                break;
+
+            case STATE_TRAILER:
+                readTrailer();
+                state = STATE_DONE;
+                return;
+
+            default:
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the zlib or gzip header.
+     *
+     * @exception IOException if the header is invalid or cannot be read
+     */
+    private void readHeader() throws IOException {
+        if (format == FORMAT_ZLIB) {
+            needBits(16);
+
+            int cmf = bitBuffer & 0xff;
+            int flags = (bitBuffer >>> 8) & 0xff;
+
+            if ((cmf & 0x0f) != 8 || (cmf >>> 4) > 7 ||
+                    ((cmf << 8) | flags) % 31 != 0) {
+                // no zlib header, raw deflate data
+                return;
+            }
+
+            if ((flags & 0x20) != 0) {
+                throw new IOException("Preset dictionary not supported");
+            }
+
+            dropBits(16);
+            checked = true;
+            return;
+        }
+
+        if (format != FORMAT_GZIP) {
+            return;
+        }
+
+        if (getBits(8) != 0x1f || getBits(8) != 0x8b || getBits(8) != 8) {
+            throw new IOException("Not in GZIP format");
+        }
+
+        int flags = getBits(8);
+
+        // modification time, extra flags, operating system
+        for (int i = 0; i < 6; i++) {
+            getBits(8);
+        }
+
+        if ((flags & 0x04) != 0) {
+            // extra field
+            for (int i = getBits(16); i > 0; i--) {
+                getBits(8);
+            }
+        }
+
+        if ((flags & 0x08) != 0) {
+            // file name
+            while (getBits(8) != 0) {
+            }
+        }
+
+        if ((flags & 0x10) != 0) {
+            // comment
+            while (getBits(8) != 0) {
+            }
+        }
+
+        if ((flags & 0x02) != 0) {
+            // header CRC
+            getBits(16);
+        }
+
+        checked = true;
+    }
+
+    /**
+     * Reads the header of the next block and prepares its codes.
+     *
+     * @exception IOException if the header is invalid or cannot be read
+     */
+    private void readBlockHeader() throws IOException {
+        lastBlock = (getBits(1) == 1);
+
+        switch (getBits(2)) {
+        case 0:
+            // stored block, the length starts at a byte boundary
+            dropBits(bitCount & 7);
+
+            int length = getBits(16);
+            if ((getBits(16) ^ 0xffff) != length) {
+                throw new IOException("Invalid stored block length");
+            }
+
+            storedLeft = length;
+            state = STATE_STORED;
+            break;
+
+        case 1:
+            synchronized (InflaterInputStream.class) {
+                if (fixedLiterals == null) {
+                    buildFixedCodes();
+                }
+            }
+
+            literals = fixedLiterals;
+            distances = fixedDistances;
+            state = STATE_CODES;
+            break;
+
+        case 2:
+            readDynamicCodes();
+            state = STATE_CODES;
+            break;
+
+        default:
+            throw new IOException("Invalid block type");
+        }
+    }
+
+    /**
+     * Builds the codes of the fixed blocks.
+     *
+     * @exception IOException never, the codes are valid
+     */
+    private static void buildFixedCodes() throws IOException {
+        byte[] lengths = new byte[288];
+        int i;
+
+        for (i = 0; i < 144; i++) {
+            lengths[i] = 8;
+        }
+
+        for (; i < 256; i++) {
+            lengths[i] = 9;
+        }
+
+        for (; i < 280; i++) {
+            lengths[i] = 7;
+        }
+
+        for (; i < 288; i++) {
+            lengths[i] = 8;
+        }
+
+        Huffman codes = new Huffman(288);
+        codes.build(lengths, 0, 288);
+        fixedLiterals = codes;
+
+        for (i = 0; i < 30; i++) {
+            lengths[i] = 5;
+        }
+
+        codes = new Huffman(30);
+        codes.build(lengths, 0, 30);
+        fixedDistances = codes;
+    }
+
+    /**
+     * Reads the codes of a dynamic block.
+     *
+     * @exception IOException if the codes are invalid or cannot be read
+     */
+    private void readDynamicCodes() throws IOException {
+        int literalCount = getBits(5) + 257;
+        int distanceCount = getBits(5) + 1;
+        int codeLengthCount = getBits(4) + 4;
+        byte[] lengths = new byte[literalCount + distanceCount];
+
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new IOException("Invalid dynamic block");
+        }
+
+        for (int i = 0; i < codeLengthCount; i++) {
+            lengths[CODE_LENGTH_ORDER[i]] = (byte)getBits(3);
+        }
+
+        if (dynamicLiterals == null) {
+            dynamicLiterals = new Huffman(288);
+            dynamicDistances = new Huffman(30);
+        }
+
+        // the code length code is only needed here, borrow a table
+        Huffman codeLengths = dynamicDistances;
+        codeLengths.build(lengths, 0, 19);
+
+        for (int i = 0; i < 19; i++) {
+            lengths[i] = 0;
+        }
+
+        for (int i = 0; i < lengths.length; ) {
+            int symbol = decode(codeLengths);
+
+            if (symbol < 16) {
+                lengths[i++] = (byte)symbol;
+                continue;
+            }
+
+            int repeat;
+            byte length = 0;
+
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new IOException("Invalid dynamic block");
+                }
+
+                length = lengths[i - 1];
+                repeat = 3 + getBits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + getBits(3);
+            } else {
+                repeat = 11 + getBits(7);
+            }
+
+            if (i + repeat > lengths.length) {
+                throw new IOException("Invalid dynamic block");
+            }
+
+            while (repeat-- > 0) {
+                lengths[i++] = length;
+            }
+        }
+
+        if (lengths[256] == 0) {
+            throw new IOException("Invalid dynamic block");
+        }
+
+        dynamicLiterals.build(lengths, 0, literalCount);
+        dynamicDistances.build(lengths, literalCount, distanceCount);
+        literals = dynamicLiterals;
+        distances = dynamicDistances;
+    }
+
+    /**
+     * Copies bytes of a stored block to the window.
+     *
+     * @param wanted number of bytes the reader wants
+     * @exception IOException if the input cannot be read
+     */
+    private void inflateStored(int wanted) throws IOException {
+        // bytes already in the bit buffer come first
+        while (storedLeft > 0 && bitCount >= 8) {
+            window[written++ & WINDOW_MASK] = (byte)bitBuffer;
+            dropBits(8);
+            storedLeft--;
+        }
+
+        while (storedLeft > 0) {
+            int waiting = written - returned;
+
+            if (waiting >= wanted || waiting == WINDOW_SIZE) {
+                return;
+            }
+
+            if (inputPos == inputLength) {
+                if (waiting > 0) {
+                    return;
+                }
+
+                fillInput();
+            }
+
+            int pos = written & WINDOW_MASK;
+            int count = Math.min(Math.min(storedLeft, inputLength - inputPos),
+                Math.min(WINDOW_SIZE - waiting, WINDOW_SIZE - pos));
+
+            System.arraycopy(input, inputPos, window, pos, count);
+            inputPos += count;
+            storedLeft -= count;
+            advance(count);
+        }
+
+        endBlock();
+    }
+
+    /**
+     * Decompresses the symbols of a compressed block.
+     *
+     * @param wanted number of bytes the reader wants
+     * @exception IOException if the data is corrupt or cannot be read
+     */
+    private void inflateCodes(int wanted) throws IOException {
+        byte[] window = this.window;
+
+        for (;;) {
+            int waiting = written - returned;
+
+            if (waiting >= wanted || WINDOW_SIZE - waiting < MAX_MATCH ||
+                    (waiting > 0 && inputPos == inputLength &&
+                        bitCount < MAX_BITS)) {
+                return;
+            }
+
+            int symbol = decode(literals);
+
+            if (symbol < 256) {
+                window[written & WINDOW_MASK] = (byte)symbol;
+                advance(1);
+                continue;
+            }
+
+            if (symbol == 256) {
+                endBlock();
+                return;
+            }
+
+            symbol -= 257;
+            if (symbol >= LENGTH_BASE.length) {
+                throw new IOException("Invalid length code");
+            }
+
+            int length = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+
+            symbol = decode(distances);
+            if (symbol >= DISTANCE_BASE.length) {
+                throw new IOException("Invalid distance code");
+            }
+
+            int distance = DISTANCE_BASE[symbol] +
+                getBits(DISTANCE_EXTRA[symbol]);
+
+            if (!windowFull && distance > written) {
+                throw new IOException("Invalid distance");
+            }
+
+            int to = written;
+            int from = to - distance;
+
+            if (distance >= length &&
+                    (from & WINDOW_MASK) + length <= WINDOW_SIZE &&
+                    (to & WINDOW_MASK) + length <= WINDOW_SIZE) {
+                // no overlap and no wrap around
+                System.arraycopy(window, from & WINDOW_MASK,
+                                 window, to & WINDOW_MASK, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    window[(to + i) & WINDOW_MASK] =
+                        window[(from + i) & WINDOW_MASK];
+                }
+            }
+
+            advance(length);
+        }
+    }
+
+    /**
+     * Counts decompressed bytes put in the window.
+     *
+     * @param count the number of bytes
+     */
+    private void advance(int count) {
+        written += count;
+
+        if (written < 0 || written >= WINDOW_SIZE) {
+            windowFull = true;
+        }
+    }
+
+    /**
+     * Moves on to the next block or the trailer after a block ends.
+     */
+    private void endBlock() {
+        if (lastBlock) {
+            state = STATE_TRAILER;
+        } else {
+            state = STATE_BLOCK;
+        }
+    }
+
+    /**
+     * Reads the zlib or gzip trailer.
+     *
+     * @exception IOException if the trailer cannot be read
+     */
+    private void readTrailer() throws IOException {
+        if (!checked) {
+            return;
+        }
+
+        dropBits(bitCount & 7);
+
+        if (format == FORMAT_GZIP) {
+            expectedChecksum = getBits(16) | (getBits(16) << 16);
+            expectedLength = getBits(16) | (getBits(16) << 16);
+            return;
+        }
+
+        // the Adler-32 of zlib is big endian
+        for (int i = 0; i < 4; i++) {
+            expectedChecksum = (expectedChecksum << 8) | getBits(8);
+        }
+    }
+
+    /**
+     * Checks the data returned against the trailer.
+     *
+     * @exception IOException if the checksum or length does not match
+     */
+    private void checkTrailer() throws IOException {
+        if (!checked) {
+            return;
+        }
+
+        if (format == FORMAT_GZIP) {
+            if ((checksum ^ 0xffffffff) != expectedChecksum ||
+                    returned != expectedLength) {
+                throw new IOException("Corrupt GZIP data");
+            }
+        } else if (checksum != expectedChecksum) {
+            throw new IOException("Corrupt ZLIB data");
+        }
+    }
+
+    /**
+     * Updates the checksum with data returned to the reader.
+     *
+     * @param b the buffer
+     * @param off offset of the data
+     * @param len length of the data
+     */
+    private void updateChecksum(byte[] b, int off, int len) {
+        int end = off + len;
+
+        if (format == FORMAT_GZIP) {
+            int[] table = getCrcTable();
+            int crc = checksum;
+
+            for (int i = off; i < end; i++) {
+                crc = table[(crc ^ b[i]) & 0xff] ^ (crc >>> 8);
+            }
+
+            checksum = crc;
+            return;
+        }
+
+        int s1 = checksum & 0xffff;
+        int s2 = checksum >>> 16;
+
+        while (off < end) {
+            // the sums can not overflow in 5552 bytes
+            int chunkEnd = Math.min(end, off + 5552);
+
+            for (; off < chunkEnd; off++) {
+                s1 += b[off] & 0xff;
+                s2 += s1;
+            }
+
+            s1 %= 65521;
+            s2 %= 65521;
+        }
+
+        checksum = (s2 << 16) | s1;
+    }
+
+    /**
+     * Gets the CRC-32 table, computing it the first time.
+     *
+     * @return the table
+     */
+    private static synchronized int[] getCrcTable() {
+        if (crcTable == null) {
+            int[] table = new int[256];
+
+            for (int n = 0; n < 256; n++) {
+                int c = n;
+
+                for (int k = 0; k < 8; k++) {
+                    if ((c & 1) != 0) {
+                        c = 0xedb88320 ^ (c >>> 1);
+                    } else {
+                        c >>>= 1;
+                    }
+                }
+
+                table[n] = c;
+            }
+
+            crcTable = table;
+        }
+
+        return crcTable;
+    }
+
+    /**
+     * Decodes a symbol.
+     *
+     * @param code the Huffman code
+     *
+     * @return the symbol
+     * @exception IOException if the data is corrupt or cannot be read
+     */
+    private int decode(Huffman code) throws IOException {
+        // take what is buffered before blocking to read more
+        while (bitCount <= 24 && inputPos < inputLength) {
+            bitBuffer |= (input[inputPos++] & 0xff) << bitCount;
+            bitCount += 8;
+        }
+
+        int entry = code.fast[bitBuffer & Huffman.FAST_MASK];
+        int length = entry & 0x0f;
+
+        if (entry >= 0 && length <= bitCount) {
+            bitBuffer >>>= length;
+            bitCount -= length;
+            return entry >> 4;
+        }
+
+        // canonical decoding of a long code, one bit at a time
+        int bits = 0;
+        int first = 0;
+        int index = 0;
+
+        for (length = 1; length <= MAX_BITS; length++) {
+            if (length > bitCount) {
+                needBits(length);
+            }
+
+            bits |= (bitBuffer >>> (length - 1)) & 1;
+
+            int count = code.count[length];
+            if (bits - first < count) {
+                dropBits(length);
+                return code.symbols[index + bits - first];
+            }
+
+            index += count;
+            first = (first + count) << 1;
+            bits <<= 1;
+        }
+
+        throw new IOException("Invalid Huffman code");
+    }
+
+    /**
+     * Gets bits from the input.
+     *
+     * @param count the number of bits, 0 to 16
+     *
+     * @return the bits, the first one is the lowest
+     * @exception IOException if the input cannot be read
+     */
+    private int getBits(int count) throws IOException {
+        needBits(count);
+
+        int bits = bitBuffer & ((1 << count) - 1);
+
+        dropBits(count);
+        return bits;
+    }
+
+    /**
+     * Makes sure the bit buffer has enough bits, reading the
+     * underlying stream if needed.
+     *
+     * @param count the number of bits, up to 24
+     * @exception IOException if the input ends or cannot be read
+     */
+    private void needBits(int count) throws IOException {
+        while (bitCount < count) {
+            if (inputPos == inputLength) {
+                fillInput();
+            }
+
+            bitBuffer |= (input[inputPos++] & 0xff) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Removes bits from the bit buffer.
+     *
+     * @param count the number of bits
+     */
+    private void dropBits(int count) {
+        bitBuffer >>>= count;
+        bitCount -= count;
+    }
+
+    /**
+     * Reads more input from the underlying stream.
+     *
+     * @exception IOException if the input ends or cannot be read
+     */
+    private void fillInput() throws IOException {
+        int count;
+
+        do {
+            count = in.read(input, 0, input.length);
+        } while (count == 0);
+
+        if (count < 0) {
+            throw new IOException("Unexpected end of compressed data");
+        }
+
+        inputPos = 0;
+        inputLength = count;
+    }
+
+    /**
+     * A canonical Huffman code. Codes of up to <code>FAST_BITS</code>
+     * bits are decoded with one table lookup.
+     */
+    private static class Huffman {
+        /** Bits decoded by one table lookup. */
+        static final int FAST_BITS = 9;
+        /** Mask for the bits of a table lookup. */
+        static final int FAST_MASK = (1 << FAST_BITS) - 1;
+
+        /** Number of codes of each length. */
+        short[] count = new short[MAX_BITS + 1];
+        /** Symbols ordered by code. */
+        short[] symbols;
+        /**
+         * Symbol shifted left by 4 or'ed with the code length, by the
+         * next <code>FAST_BITS</code> input bits, -1 for longer codes.
+         */
+        int[] fast = new int[1 << FAST_BITS];
+
+        /**
+         * Creates a code for up to the given number of symbols.
+         *
+         * @param maxSymbols the number of symbols
+         */
+        Huffman(int maxSymbols) {
+            symbols = new short[maxSymbols];
+        }
+
+        /**
+         * Builds the code from code lengths.
+         *
+         * @param lengths code lengths of the symbols, 0 if not used
+         * @param off offset of the first length
+         * @param n the number of symbols
+         * @exception IOException if the lengths are over-subscribed
+         */
+        void build(byte[] lengths, int off, int n) throws IOException {
+            short[] offsets = new short[MAX_BITS + 2];
+            int left = 1;
+
+            for (int i = 0; i <= MAX_BITS; i++) {
+                count[i] = 0;
+            }
+
+            for (int i = 0; i < n; i++) {
+                count[lengths[off + i]]++;
+            }
+
+            count[0] = 0;
+            for (int len = 1; len <= MAX_BITS; len++) {
+                left = (left << 1) - count[len];
+                if (left < 0) {
+                    throw new IOException("Invalid Huffman code");
+                }
+
+                offsets[len + 1] = (short)(offsets[len] + count[len]);
+            }
+
+            for (int i = 0; i < n; i++) {
+                int len = lengths[off + i];
+
+                if (len != 0) {
+                    symbols[offsets[len]++] = (short)i;
+                }
+            }
+
+            for (int i = 0; i < fast.length; i++) {
+                fast[i] = -1;
+            }
+
+            // the symbols are ordered by code, which is counted up
+            int code = 0;
+            int index = 0;
+
+            for (int len = 1; len <= FAST_BITS; len++) {
+                for (int i = 0; i < count[len]; i++) {
+                    int reversed = 0;
+
+                    // the input has the first bit of a code lowest
+                    for (int bit = 0; bit < len; bit++) {
+                        reversed |= ((code >>> bit) & 1) << (len - 1 - bit);
+                    }
+
+                    int entry = (symbols[index++] << 4) | len;
+                    for (int j = reversed; j < fast.length; j += 1 << len) {
+                        fast[j] = entry;
+                    }
+
+                    code++;
+                }
+
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -68,6 +68,21 @@ public abstract class NetworkConnectionBase extends
     protected NetworkConnectionBase(int sizeOfBuffer) {
         super(sizeOfBuffer);
     }
+
+    /**
+     * Initializes the connection with adaptive read ahead and write
+     * behind buffers.
+     *
+     * @param sizeOfBuffer initial size of the read ahead buffer or 0 for
+     *                     no buffer
+     * @param maxSizeOfBuffer size the read ahead buffer may grow to
+     * @param sizeOfWriteBuffer size of the write behind buffer or 0 to
+     *                          write through
+     */
+    protected NetworkConnectionBase(int sizeOfBuffer, int maxSizeOfBuffer,
+                                    int sizeOfWriteBuffer) {
+        super(sizeOfBuffer, maxSizeOfBuffer, sizeOfWriteBuffer);
+    }
 }
 
 
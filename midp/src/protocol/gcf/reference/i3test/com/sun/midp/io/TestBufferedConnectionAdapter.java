@@ -0,0 +1,279 @@
+/*
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package com.sun.midp.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.microedition.io.Connection;
+import javax.microedition.io.Connector;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the adaptive read ahead buffer and the write behind buffer of
+ * BufferedConnectionAdapter.
+ */
+public class TestBufferedConnectionAdapter extends TestCase {
+    /**
+     * Connection that reads an endless stream of bytes and records
+     * the native writes.
+     */
+    static class StubConnection extends BufferedConnectionAdapter {
+        /** Most bytes one blocking read returns. */
+        int readSize;
+
+        /** Bytes the next non-blocking read can return. */
+        int pendingBytes;
+
+        /** Value of the next byte read. */
+        int nextByte;
+
+        /** Number of native writes. */
+        int writeCalls;
+
+        /** Bytes written. */
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        /**
+         * Creates a stub connection.
+         *
+         * @param sizeOfBuffer initial read ahead buffer size
+         * @param maxSizeOfBuffer read ahead buffer size limit
+         */
+        StubConnection(int sizeOfBuffer, int maxSizeOfBuffer) {
+            super(sizeOfBuffer, maxSizeOfBuffer);
+        }
+
+        public Connection openPrim(String name, int mode, boolean timeouts) {
+            return this;
+        }
+
+        protected void disconnect() {
+        }
+
+        protected int nonBufferedRead(byte b[], int off, int len) {
+            return produce(b, off, Math.min(len, readSize));
+        }
+
+        protected int readBytesNonBlocking(byte b[], int off, int len) {
+            int res = produce(b, off, Math.min(len, pendingBytes));
+
+            pendingBytes -= res;
+            return res;
+        }
+
+        protected boolean canReadNonBlocking() {
+            return true;
+        }
+
+        protected int writeBytes(byte b[], int off, int len) {
+            writeCalls++;
+            written.write(b, off, len);
+            return len;
+        }
+
+        /**
+         * Fills part of an array with the next bytes of the stream.
+         *
+         * @param b array to fill
+         * @param off offset of the first byte
+         * @param len number of bytes
+         * @return len
+         */
+        private int produce(byte b[], int off, int len) {
+            for (int i = 0; i < len; i++) {
+                b[off + i] = (byte)nextByte++;
+            }
+
+            return len;
+        }
+    }
+
+    /**
+     * Reads one byte at a time until a given number of buffer fills.
+     *
+     * @param conn connection to read from
+     * @param fills number of fills of the read ahead buffer
+     */
+    void drainFills(StubConnection conn, int fills) throws IOException {
+        byte[] b = new byte[1];
+
+        for (int i = 0; i < fills; i++) {
+            do {
+                conn.readBytes(b, 0, 1);
+            } while (conn.count > 0);
+        }
+    }
+
+    /**
+     * Checks the read ahead buffer doubles while fills come back full
+     * and does not grow past its limit.
+     */
+    void testGrow() throws IOException {
+        StubConnection conn = new StubConnection(16, 64);
+
+        conn.readSize = 1000;
+        drainFills(conn, 1);
+        assertEquals("one full fill", 16, conn.buf.length);
+
+        drainFills(conn, 1);
+        assertEquals("two full fills", 32, conn.buf.length);
+
+        drainFills(conn, 10);
+        assertEquals("limit", 64, conn.buf.length);
+    }
+
+    /**
+     * Checks the read ahead buffer shrinks back to its initial size
+     * when fills stay small.
+     */
+    void testShrink() throws IOException {
+        StubConnection conn = new StubConnection(16, 64);
+
+        conn.readSize = 1000;
+        drainFills(conn, 10);
+        assertEquals(64, conn.buf.length);
+
+        conn.readSize = 4;
+        drainFills(conn, 7);
+        assertEquals("before shrinking", 64, conn.buf.length);
+
+        drainFills(conn, 1);
+        assertEquals("halved", 32, conn.buf.length);
+
+        drainFills(conn, 30);
+        assertEquals("initial size", 16, conn.buf.length);
+    }
+
+    /**
+     * Checks a read served from the buffer picks up the data that
+     * arrived while streaming and the stream stays in order.
+     */
+    void testTopUp() throws IOException {
+        StubConnection conn = new StubConnection(16, 16);
+        byte[] b = new byte[32];
+        int n;
+
+        conn.readSize = 1000;
+        n = conn.readBytes(b, 0, 8);
+        assertEquals(8, n);
+
+        conn.pendingBytes = 100;
+        n = conn.readBytes(b, 8, 24);
+        assertEquals("topped up", 24, n);
+
+        for (int i = 0; i < 32; i++) {
+            assertEquals("byte " + i, i, b[i]);
+        }
+
+        // no top up when the last fill was not full
+        conn = new StubConnection(16, 16);
+        conn.readSize = 10;
+        conn.pendingBytes = 100;
+        n = conn.readBytes(b, 0, 4);
+        n = conn.readBytes(b, 0, 12);
+        assertEquals("not streaming", 6, n);
+    }
+
+    /**
+     * Checks small writes are coalesced until flush and large writes
+     * go out directly after the buffered bytes.
+     */
+    void testWriteBehind() throws IOException {
+        StubConnection conn = new StubConnection(0, 0);
+        OutputStream os;
+        byte[] data = new byte[100];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+
+        conn.setWriteBufferSize(32);
+        conn.initStreamConnection(Connector.READ_WRITE);
+        os = conn.openOutputStream();
+
+        for (int i = 0; i < 10; i++) {
+            os.write(data[i]);
+        }
+
+        os.write(data, 10, 10);
+        assertEquals("buffered", 0, conn.writeCalls);
+
+        os.flush();
+        assertEquals("one write", 1, conn.writeCalls);
+
+        os.write(data, 20, 30);
+        os.write(data, 50, 50);
+        assertEquals("buffer then direct write", 3, conn.writeCalls);
+
+        os.write(data, 0, 5);
+        os.close();
+        assertEquals("close flushes", 4, conn.writeCalls);
+
+        byte[] out = conn.written.toByteArray();
+
+        assertEquals(105, out.length);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("byte " + i, data[i], out[i]);
+        }
+    }
+
+    /**
+     * Checks writes go straight through without a write behind buffer.
+     */
+    void testWriteThrough() throws IOException {
+        StubConnection conn = new StubConnection(0, 0);
+        OutputStream os;
+
+        conn.initStreamConnection(Connector.READ_WRITE);
+        os = conn.openOutputStream();
+        os.write(1);
+        os.write(new byte[10]);
+        assertEquals(2, conn.writeCalls);
+        os.close();
+        assertEquals(2, conn.writeCalls);
+    }
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testGrow");
+        testGrow();
+
+        declare("testShrink");
+        testShrink();
+
+        declare("testTopUp");
+        testTopUp();
+
+        declare("testWriteBehind");
+        testWriteBehind();
+
+        declare("testWriteThrough");
+        testWriteThrough();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests decompression of deflate data by InflaterInputStream.
+ */
+public class TestInflaterInputStream extends TestCase {
+    /** Text compressed in the test data. */
+    static final String TEXT = "HTTP content is often compressed. ";
+
+    /** TEXT repeated 40 times in the gzip format. */
+    static final byte[] GZIP_DATA = {
+        (byte)0x1f, (byte)0x8b, (byte)0x08, (byte)0x00, (byte)0x00, (byte)0x00,
+        (byte)0x00, (byte)0x00, (byte)0x02, (byte)0x03, (byte)0xf3, (byte)0x08,
+        (byte)0x09, (byte)0x09, (byte)0x50, (byte)0x48, (byte)0xce, (byte)0xcf,
+        (byte)0x2b, (byte)0x49, (byte)0xcd, (byte)0x2b, (byte)0x51, (byte)0xc8,
+        (byte)0x2c, (byte)0x56, (byte)0xc8, (byte)0x4f, (byte)0x03, (byte)0xb2,
+        (byte)0x80, (byte)0x02, (byte)0xb9, (byte)0x05, (byte)0x45, (byte)0xa9,
+        (byte)0xc5, (byte)0xc5, (byte)0xa9, (byte)0x29, (byte)0x7a, (byte)0x0a,
+        (byte)0x1e, (byte)0xa3, (byte)0x2a, (byte)0x46, (byte)0x55, (byte)0x8c,
+        (byte)0xaa, (byte)0x18, (byte)0x55, (byte)0x31, (byte)0xaa, (byte)0x82,
+        (byte)0x08, (byte)0x15, (byte)0x00, (byte)0x0e, (byte)0xd9, (byte)0xe4,
+        (byte)0x05, (byte)0x50, (byte)0x05, (byte)0x00, (byte)0x00
+    };
+
+    /** "stored block data" in the zlib format, not compressed. */
+    static final byte[] STORED_DATA = {
+        (byte)0x78, (byte)0x01, (byte)0x01, (byte)0x11, (byte)0x00, (byte)0xee,
+        (byte)0xff, (byte)0x73, (byte)0x74, (byte)0x6f, (byte)0x72, (byte)0x65,
+        (byte)0x64, (byte)0x20, (byte)0x62, (byte)0x6c, (byte)0x6f, (byte)0x63,
+        (byte)0x6b, (byte)0x20, (byte)0x64, (byte)0x61, (byte)0x74, (byte)0x61,
+        (byte)0x3b, (byte)0xcd, (byte)0x06, (byte)0x77
+    };
+
+    /** TEXT repeated 40 times as raw deflate data. */
+    static final byte[] RAW_DATA = {
+        (byte)0xf3, (byte)0x08, (byte)0x09, (byte)0x09, (byte)0x50, (byte)0x48,
+        (byte)0xce, (byte)0xcf, (byte)0x2b, (byte)0x49, (byte)0xcd, (byte)0x2b,
+        (byte)0x51, (byte)0xc8, (byte)0x2c, (byte)0x56, (byte)0xc8, (byte)0x4f,
+        (byte)0x03, (byte)0xb2, (byte)0x80, (byte)0x02, (byte)0xb9, (byte)0x05,
+        (byte)0x45, (byte)0xa9, (byte)0xc5, (byte)0xc5, (byte)0xa9, (byte)0x29,
+        (byte)0x7a, (byte)0x0a, (byte)0x1e, (byte)0xa3, (byte)0x2a, (byte)0x46,
+        (byte)0x55, (byte)0x8c, (byte)0xaa, (byte)0x18, (byte)0x55, (byte)0x31,
+        (byte)0xaa, (byte)0x82, (byte)0x08, (byte)0x15, (byte)0x00
+    };
+
+    /**
+     * Reads all the data of a stream a few bytes at a time.
+     *
+     * @param in the stream
+     * @return the data as a string
+     * @exception IOException if the data cannot be read
+     */
+    String readAll(InputStream in) throws IOException {
+        StringBuffer sb = new StringBuffer();
+        byte[] b = new byte[7];
+        int count;
+
+        while ((count = in.read(b, 0, b.length)) != -1) {
+            sb.append(new String(b, 0, count));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Gets the expected text.
+     *
+     * @return TEXT repeated 40 times
+     */
+    String repeatedText() {
+        StringBuffer sb = new StringBuffer();
+
+        for (int i = 0; i < 40; i++) {
+            sb.append(TEXT);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Tests decompression of gzip data with back references.
+     */
+    void testGzip() throws IOException {
+        InputStream in = new InflaterInputStream(
+            new ByteArrayInputStream(GZIP_DATA),
+            InflaterInputStream.FORMAT_GZIP);
+
+        assertEquals("first byte", 'H', in.read());
+        assertEquals("text", repeatedText().substring(1), readAll(in));
+        assertEquals("end", -1, in.read());
+    }
+
+    /**
+     * Tests a stored block in the zlib format.
+     */
+    void testStored() throws IOException {
+        InputStream in = new InflaterInputStream(
+            new ByteArrayInputStream(STORED_DATA),
+            InflaterInputStream.FORMAT_ZLIB);
+
+        assertEquals("text", "stored block data", readAll(in));
+    }
+
+    /**
+     * Tests that deflate data without the zlib header is accepted, as
+     * some servers send it.
+     */
+    void testRawDeflate() throws IOException {
+        InputStream in = new InflaterInputStream(
+            new ByteArrayInputStream(RAW_DATA),
+            InflaterInputStream.FORMAT_ZLIB);
+
+        assertEquals("text", repeatedText(), readAll(in));
+    }
+
+    /**
+     * Tests that corrupt and truncated data is detected.
+     */
+    void testCorrupt() {
+        byte[] data = new byte[GZIP_DATA.length];
+
+        System.arraycopy(GZIP_DATA, 0, data, 0, data.length);
+
+        // a bit of the CRC
+        data[data.length - 8] ^= 1;
+
+        try {
+            readAll(new InflaterInputStream(new ByteArrayInputStream(data),
+                InflaterInputStream.FORMAT_GZIP));
+            fail("bad CRC not detected");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        try {
+            readAll(new InflaterInputStream(
+                new ByteArrayInputStream(GZIP_DATA, 0, GZIP_DATA.length - 12),
+                InflaterInputStream.FORMAT_GZIP));
+            fail("truncated data not detected");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testGzip");
+        testGzip();
+
+        declare("testStored");
+        testStored();
+
+        declare("testRawDeflate");
+        testRawDeflate();
+
+        declare("testCorrupt");
+        testCorrupt();
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import com.sun.midp.util.DateParser;
+
+/**
+ * A response kept in the HTTP response cache. A cached response and its
+ * header fields are not changed once it is in the cache, revalidating it
+ * creates a new one, so connections can share them and a connection
+ * reading the content of a response can keep using it after it is
+ * replaced or evicted.
+ */
+class CachedResponse {
+    /** Longest heuristic freshness lifetime, one day. */
+    private static final long MAX_HEURISTIC_LIFETIME = 24 * 60 * 60 * 1000L;
+
+    /** Cache key of the response. */
+    final String key;
+    /** ID of the suite that requested the response. */
+    final int suiteId;
+    /** Status code of the response. */
+    final int responseCode;
+    /** Status message of the response. */
+    final String responseMsg;
+    /** HTTP version of the response. */
+    final String httpVer;
+    /** Header fields of the response. */
+    final ResponseHeaders headers;
+    /** Content of the response as it was received. */
+    final byte[] content;
+    /** When the response was received. */
+    final long responseTime;
+    /** Age of the response when it was received in milliseconds. */
+    private final long initialAge;
+    /** How long the response is fresh in milliseconds. */
+    private final long freshnessLifetime;
+    /** Bytes of memory the response is counted for. */
+    final int size;
+
+    /** Next response used less recently. */
+    CachedResponse prev;
+    /** Next response used more recently. */
+    CachedResponse next;
+
+    /**
+     * Creates a cached response.
+     *
+     * @param key cache key of the response
+     * @param suiteId ID of the suite that requested the response
+     * @param responseCode status code of the response
+     * @param responseMsg status message of the response
+     * @param httpVer HTTP version of the response
+     * @param headers header fields of the response, not copied, they
+     *                must not be changed after this
+     * @param content content of the response
+     * @param responseTime when the response was received
+     */
+    CachedResponse(String key, int suiteId, int responseCode,
+            String responseMsg, String httpVer, ResponseHeaders headers,
+            byte[] content, long responseTime) {
+        this.key = key;
+        this.suiteId = suiteId;
+        this.responseCode = responseCode;
+        this.responseMsg = responseMsg;
+        this.httpVer = httpVer;
+        this.headers = headers;
+        this.content = content;
+        this.responseTime = responseTime;
+
+        long date = getDate(headers, "date", responseTime);
+        long age = getSeconds(headers.getPropertyIgnoreCase("age"), null);
+
+        initialAge = Math.max(Math.max(0, responseTime - date),
+                              Math.max(0, age) * 1000);
+        freshnessLifetime = getFreshnessLifetime(headers, date);
+
+        /*
+         * Characters take two bytes. The header fields are bytes, plus
+         * the strings of the names and values asked for, plus the objects.
+         */
+        size = content.length + 2 * key.length() +
+               3 * headers.getDataLength() + 64;
+    }
+
+    /**
+     * Checks if a response can be cached.
+     *
+     * @param responseCode status code of the response
+     * @param headers header fields of the response
+     *
+     * @return true if the response can be cached
+     */
+    static boolean isCacheable(int responseCode, ResponseHeaders headers) {
+        if (responseCode != 200) {
+            return false;
+        }
+
+        String cacheControl = headers.getPropertyIgnoreCase("cache-control");
+        if (hasDirective(cacheControl, "no-store")) {
+            return false;
+        }
+
+        // the request headers the content depends on are not kept
+        String vary = headers.getPropertyIgnoreCase("vary");
+        if (vary != null && !vary.trim().equalsIgnoreCase("accept-encoding")) {
+            return false;
+        }
+
+        // a cookie must not be set again by a cached response
+        if (headers.getPropertyIgnoreCase("set-cookie") != null) {
+            return false;
+        }
+
+        // useless if it is never fresh and cannot be revalidated
+        return getFreshnessLifetime(headers,
+                   getDate(headers, "date", System.currentTimeMillis())) > 0 ||
+               headers.getPropertyIgnoreCase("etag") != null ||
+               headers.getPropertyIgnoreCase("last-modified") != null;
+    }
+
+    /**
+     * Checks if the response can be used without asking the server.
+     *
+     * @param now the current time
+     *
+     * @return true if the response is fresh
+     */
+    boolean isFresh(long now) {
+        return initialAge + (now - responseTime) < freshnessLifetime;
+    }
+
+    /**
+     * Checks if the server can be asked whether the response changed.
+     *
+     * @return true if the response has an ETag or Last-Modified header
+     */
+    boolean hasValidator() {
+        return headers.getPropertyIgnoreCase("etag") != null ||
+               headers.getPropertyIgnoreCase("last-modified") != null;
+    }
+
+    /**
+     * Creates the response to use after the server answered a conditional
+     * request with 304 Not Modified. The header fields of the 304 response
+     * replace the cached fields with the same names.
+     *
+     * @param notModified header fields of the 304 response
+     * @param now when the 304 response was received
+     *
+     * @return the updated response
+     */
+    CachedResponse revalidate(ResponseHeaders notModified, long now) {
+        ResponseHeaders updated = new ResponseHeaders();
+
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.getKeyAt(i);
+
+            if (!isUpdated(name, notModified)) {
+                updated.addField(name, headers.getValueAt(i));
+            }
+        }
+
+        for (int i = 0; i < notModified.size(); i++) {
+            String name = notModified.getKeyAt(i);
+
+            if (isUpdated(name, notModified)) {
+                updated.addField(name, notModified.getValueAt(i));
+            }
+        }
+
+        return new CachedResponse(key, suiteId, responseCode, responseMsg,
+            httpVer, updated, content, now);
+    }
+
+    /**
+     * Checks if a 304 response updates the header fields with a name.
+     *
+     * @param name name of the fields
+     * @param notModified header fields of the 304 response
+     *
+     * @return true if the fields are replaced by the 304 response
+     */
+    private static boolean isUpdated(String name,
+                                     ResponseHeaders notModified) {
+        // these describe the 304 response, not the content
+        if (name.equalsIgnoreCase("content-length") ||
+                name.equalsIgnoreCase("transfer-encoding") ||
+                name.equalsIgnoreCase("content-encoding")) {
+            return false;
+        }
+
+        return notModified.indexOfIgnoreCase(name) >= 0;
+    }
+
+    /**
+     * Gets how long a response is fresh from its Cache-Control, Expires
+     * or Last-Modified header fields.
+     *
+     * @param headers header fields of the response
+     * @param date value of the Date header field
+     *
+     * @return the freshness lifetime in milliseconds
+     */
+    private static long getFreshnessLifetime(ResponseHeaders headers,
+                                             long date) {
+        String cacheControl = headers.getPropertyIgnoreCase("cache-control");
+
+        if (hasDirective(cacheControl, "no-cache")) {
+            return 0;
+        }
+
+        long maxAge = getSeconds(cacheControl, "max-age");
+        if (maxAge >= 0) {
+            return maxAge * 1000;
+        }
+
+        String expires = headers.getPropertyIgnoreCase("expires");
+        if (expires != null) {
+            // an invalid date means already expired
+            return Math.max(0, getDate(headers, "expires", 0) - date);
+        }
+
+        long lastModified = getDate(headers, "last-modified", date);
+        if (lastModified < date) {
+            return Math.min((date - lastModified) / 10,
+                            MAX_HEURISTIC_LIFETIME);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the value of a date header field.
+     *
+     * @param headers header fields of the response
+     * @param name name of the field
+     * @param defaultValue value if the field is missing or invalid
+     *
+     * @return the date in milliseconds since the epoch
+     */
+    private static long getDate(ResponseHeaders headers, String name,
+                                long defaultValue) {
+        String value = headers.getPropertyIgnoreCase(name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return DateParser.parse(value);
+        } catch (IllegalArgumentException iae) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Checks if a Cache-Control value has a directive.
+     *
+     * @param value the Cache-Control value or null
+     * @param directive name of the directive
+     *
+     * @return true if the directive is present
+     */
+    static boolean hasDirective(String value, String directive) {
+        if (value == null) {
+            return false;
+        }
+
+        value = value.toLowerCase();
+
+        for (int start = value.indexOf(directive); start >= 0;
+                 start = value.indexOf(directive, start + 1)) {
+            int end = start + directive.length();
+
+            if ((start == 0 || value.charAt(start - 1) == ' ' ||
+                     value.charAt(start - 1) == ',') &&
+                    (end == value.length() || value.charAt(end) == ',' ||
+                     value.charAt(end) == '=' || value.charAt(end) == ' ')) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets a number of seconds from a header value.
+     *
+     * @param value the header value or null
+     * @param directive name of the Cache-Control directive with the
+     *                  number, or null if the value is the number
+     *
+     * @return the number, or -1 if it is missing or invalid
+     */
+    private static long getSeconds(String value, String directive) {
+        if (value == null) {
+            return -1;
+        }
+
+        int start = 0;
+
+        if (directive != null) {
+            value = value.toLowerCase();
+
+            for (start = value.indexOf(directive + "="); start >= 0;
+                     start = value.indexOf(directive + "=", start + 1)) {
+                if (start == 0 || value.charAt(start - 1) == ' ' ||
+                        value.charAt(start - 1) == ',') {
+                    break;
+                }
+            }
+
+            if (start < 0) {
+                return -1;
+            }
+
+            start += directive.length() + 1;
+        }
+
+        int end = start;
+        while (end < value.length() && Character.isDigit(value.charAt(end))) {
+            end++;
+        }
+
+        try {
+            return Long.parseLong(value.substring(start, end));
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+}
@@ -76,8 +76,14 @@ import com.sun.j2me.security.*;
 
 import com.sun.midp.main.Configuration;
 
+import com.sun.midp.midlet.MIDletSuite;
+import com.sun.midp.midlet.MIDletStateHandler;
+
 import com.sun.midp.io.ConnectionBaseAdapter;
 import com.sun.midp.io.HttpUrl;
+import com.sun.midp.io.InflaterInputStream;
+
+import com.sun.midp.io.j2me.socket.SocketSelector;
 
 import com.sun.midp.security.SecurityToken;
 import com.sun.midp.security.SecurityInitializer;
@@ -98,6 +104,8 @@ public class Protocol extends ConnectionBaseAdapter
         "javax.microedition.io.Connector.http";
     /** HTTP version string to use with all outgoing HTTP requests. */
     protected static final String HTTP_VERSION = "HTTP/1.1";
+    /** HTTP version string of HTTP 1.0 responses. */
+    private static final String HTTP_VERSION_1_0 = "HTTP/1.0";
     /** Where to start the data in the output buffer. */
     private static final int HTTP_OUTPUT_DATA_OFFSET = 24;
     /** How must extra room for the chunk terminator. */
@@ -121,18 +129,33 @@ public class Protocol extends ConnectionBaseAdapter
     private static int outputBufferSize = 2048;
     /** How much data can be put in the output buffer. */
     private static int outputDataSize;
+    /** Size of the write behind buffer of the request socket. */
+    private static int socketWriteBufferSize = 2048;
     /** The "host:port" value to use for HTTP proxied requests. */
     private static String http_proxy;
     /** The flag indicates absolute URL should be used in "GET" requests. */
     private static boolean isUseAbsUrl;
     /** Maximum number of persistent connections. */
     private static int maxNumberOfPersistentConnections = 4;
+    /** Maximum number of persistent connections to one host. */
+    private static int maxNumberOfPersistentConnectionsPerHost = 2;
     /** Connection linger time in the pool, default 60 seconds. */
     private static long connectionLingerTime = 60000;
+    /** How long an idle connection stays in the pool, default 15 seconds. */
+    private static long connectionIdleTimeout = 15000;
+    /**
+     * Maximum number of requests outstanding on one persistent connection,
+     * less than 2 turns request pipelining off.
+     */
+    private static int pipelineDepth = 0;
     /** Persistent connection pool. */
     protected static StreamConnectionPool connectionPool; 
     /** True if com.sun.midp.io.http.force_non_persistent = true. */
     private static boolean nonPersistentFlag;
+    /** True if com.sun.midp.io.http.content_decoding = true. */
+    private static boolean contentDecodingFlag;
+    /** Memory cache of responses, null if caching is off. */
+    private static ResponseCache responseCache;
     /**
      * The methods other than openPrim need to know that the
      * permission occurred. com.sun.midp.io.j2me.https.Protocol
@@ -167,6 +190,16 @@ public class Protocol extends ConnectionBaseAdapter
             nonPersistentFlag = true;
         }
 
+        /*
+         * Ask for gzip or deflate content and decode it transparently,
+         * unless the application asks for an encoding itself.
+         */
+        flag = Configuration.getProperty(
+                   "com.sun.midp.io.http.content_decoding");
+        if ((flag != null) && (flag.equals("true"))) {
+            contentDecodingFlag = true;
+        }
+
         /*
          * Get the  maximum number of persistent connections
          * from the configuration file if there is one.
@@ -176,15 +209,45 @@ public class Protocol extends ConnectionBaseAdapter
                 "com.sun.midp.io.http.max_persistent_connections",
                 maxNumberOfPersistentConnections);
 
+        maxNumberOfPersistentConnectionsPerHost =
+            Configuration.getPositiveIntProperty(
+                "com.sun.midp.io.http.max_persistent_connections_per_host",
+                maxNumberOfPersistentConnectionsPerHost);
+
         // Get how long a "not in use" connection should stay in the pool.
         connectionLingerTime =
             (long)Configuration.getNonNegativeIntProperty(
                 "com.sun.midp.io.http.persistent_connection_linger_time",
                 (int)connectionLingerTime);
 
+        connectionIdleTimeout =
+            (long)Configuration.getNonNegativeIntProperty(
+                "com.sun.midp.io.http.persistent_connection_idle_timeout",
+                (int)connectionIdleTimeout);
+
+        /*
+         * Pipelining is off unless configured, since some servers and
+         * proxies do not handle pipelined requests.
+         */
+        pipelineDepth = Configuration.getNonNegativeIntProperty(
+                            "com.sun.midp.io.http.pipeline_depth",
+                            pipelineDepth);
+
         connectionPool = new StreamConnectionPool(
                                  maxNumberOfPersistentConnections,
-                                 connectionLingerTime);
+                                 maxNumberOfPersistentConnectionsPerHost,
+                                 connectionLingerTime,
+                                 connectionIdleTimeout,
+                                 pipelineDepth);
+        connectionPool.setSelector(
+            SocketSelector.getInstance(classSecurityToken));
+
+        // Get the bytes of responses each suite can cache, 0 is no cache.
+        temp = Configuration.getNonNegativeIntProperty(
+                   "com.sun.midp.io.http.cache_size", 0);
+        if (temp > 0) {
+            responseCache = new ResponseCache(temp);
+        }
 
         /*
          * Get the buffer sizes from the configuration file.
@@ -206,6 +269,14 @@ public class Protocol extends ConnectionBaseAdapter
 
         outputDataSize = outputBufferSize - HTTP_OUTPUT_DATA_OFFSET -
                          HTTP_OUTPUT_EXTRA_ROOM;
+
+        /*
+         * The request header and body are sent in one segment when they
+         * fit in the write behind buffer of the socket. 0 writes through.
+         */
+        socketWriteBufferSize = Configuration.getNonNegativeIntProperty(
+                              "com.sun.midp.io.http.socket_write_buffer_size",
+                              socketWriteBufferSize);
     }
 
     /** The protocol (or scheme) for the URL of the connection. */
@@ -226,7 +297,7 @@ public class Protocol extends ConnectionBaseAdapter
     protected Properties reqProperties;
 
     /** Collection of response headers as name/value pairs. */
-    protected Properties headerFields;
+    private ResponseHeaders headerFields;
 
     /** HTTP method type for the current request. */
     protected String method;
@@ -236,12 +307,22 @@ public class Protocol extends ConnectionBaseAdapter
      */
     /** Low level socket connection used for the HTTP requests. */
     private StreamConnection streamConnection;
+    /** True if the connection came from the pool, opened by another one. */
+    private boolean reusedConnection;
+    /** True if the request is pipelined behind other requests. */
+    private boolean pipelinedRequest;
+    /** Ticket of the request on a pooled connection. */
+    private int requestTicket;
+    /** Keep-Alive timeout of the response in milliseconds or -1. */
+    private long keepAliveTimeout = -1;
+    /** Keep-Alive max of the response or -1. */
+    private int keepAliveMax = -1;
     /** Low level socket output stream. */
     protected DataOutputStream streamOutput;
     /** Low level socket input stream. */
     protected DataInputStream streamInput;
-    /** A shared temporary header buffer. */
-    private StringBuffer stringbuffer;
+    /** The buffered socket input stream the response is parsed from. */
+    private ResponseInputStream responseInput;
     /** HTTP version string set with all incoming HTTP responses. */
     private String httpVer = null;
     /** Used when appl calls setRequestProperty("Connection", "close"). */
@@ -270,12 +351,31 @@ public class Protocol extends ConnectionBaseAdapter
     private boolean requestFinished;
     /** True if eof seen. */
     private boolean eof;           
-    /** Internal stream buffer to minimize the number of TCP socket reads. */
-    private byte[] readbuf;         
-    /** Number of bytes left in internal input stream buffer. */
-    private int bytesleft;
-    /** Number of bytes read from the internal input stream buffer. */ 
-    private int bytesread;     
+    /** True if Accept-Encoding was added to the request for decoding. */
+    private boolean acceptEncodingAdded;
+    /**
+     * Format of the content to decode, one of the InflaterInputStream
+     * FORMAT_ constants, or -1 if the content is not decoded.
+     */
+    private int contentFormat = -1;
+    /** Decodes the content, created on the first read. */
+    private InflaterInputStream contentDecoder;
+    /** Cache key of the request, null if the response is not cached. */
+    private String cacheKey;
+    /** ID of the suite the response is cached for. */
+    private int cacheSuiteId;
+    /** Cached response being revalidated or used. */
+    private CachedResponse cachedResponse;
+    /** Content read from the cache, null if read from the network. */
+    private byte[] cachedContent;
+    /** Position of the next byte of the cached content. */
+    private int cachedContentPos;
+    /** Content read from the network to be cached, null if not cached. */
+    private byte[] contentToCache;
+    /** Number of bytes of the content to be cached. */
+    private int contentToCacheLength;
+    /** When the response to be cached was received. */
+    private long cacheResponseTime;
     /** Buffered data output for content length calculation. */
     private byte[] writebuf;         
     /** Number of bytes of data that need to be written from the buffer. */
@@ -298,8 +398,7 @@ public class Protocol extends ConnectionBaseAdapter
      */
     public Protocol() {
         reqProperties = new Properties();
-        headerFields = new Properties();
-        stringbuffer = new StringBuffer(32);
+        headerFields = new ResponseHeaders();
 
         method = GET;
         responseCode = -1;
@@ -309,8 +408,6 @@ public class Protocol extends ConnectionBaseAdapter
         if (nonPersistentFlag) {
             ConnectionCloseFlag = true;
         }
-
-        readbuf = new byte[inputBufferSize];
     }
 
     /**
@@ -488,6 +585,93 @@ public class Protocol extends ConnectionBaseAdapter
         return out;
     }
     
+    /**
+     * Reads up to <code>len</code> bytes of data from the input stream into
+     * an array of bytes, decoding gzip or deflate content if it was
+     * asked for.
+     * This method can only be called after the InputStream setup is complete.
+     *
+     * @param      b     the buffer into which the data is read.
+     * @param      off   the start offset in array <code>b</code>
+     *                   at which the data is written.
+     * @param      len   the maximum number of bytes to read.
+     * @return     the total number of bytes read into the buffer, or
+     *             <code>-1</code> if there is no more data because the end of
+     *             the stream has been reached.
+     * @exception  IOException  if an I/O error occurs.
+     */
+    protected int readBytes(byte b[], int off, int len)
+        throws IOException {
+
+        int rc;
+
+        if (contentFormat < 0) {
+            return readContentBytes(b, off, len);
+        }
+
+        if (contentDecoder == null) {
+            contentDecoder = new InflaterInputStream(
+                new ContentInputStream(), contentFormat);
+        }
+
+        rc = contentDecoder.read(b, off, len);
+        if (rc == -1 && !eof) {
+            /*
+             * Read the rest of the content, so the connection can be
+             * reused for the next request.
+             */
+            byte[] rest = new byte[64];
+
+            while (readContentBytes(rest, 0, rest.length) != -1) {
+            }
+        }
+
+        return rc;
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes of the content as it was sent,
+     * from the cache or from the network. Content read from the network
+     * is kept to be cached if the response can be cached.
+     *
+     * @param      b     the buffer into which the data is read.
+     * @param      off   the start offset in array <code>b</code>
+     *                   at which the data is written.
+     * @param      len   the maximum number of bytes to read.
+     * @return     the total number of bytes read into the buffer, or
+     *             <code>-1</code> if there is no more data because the end of
+     *             the stream has been reached.
+     * @exception  IOException  if an I/O error occurs.
+     */
+    private int readContentBytes(byte b[], int off, int len)
+        throws IOException {
+
+        int rc;
+
+        if (cachedContent != null) {
+            rc = Math.min(len, cachedContent.length - cachedContentPos);
+            if (rc <= 0 && len > 0) {
+                return -1;
+            }
+
+            System.arraycopy(cachedContent, cachedContentPos, b, off, rc);
+            cachedContentPos += rc;
+            return rc;
+        }
+
+        rc = readNetworkBytes(b, off, len);
+
+        if (contentToCache != null) {
+            if (rc > 0) {
+                keepContent(b, off, rc);
+            } else if (rc == -1) {
+                storeResponse();
+            }
+        }
+
+        return rc;
+    }
+
     /**
      * Reads up to <code>len</code> bytes of data from the input stream into
      * an array of bytes.
@@ -503,7 +687,7 @@ public class Protocol extends ConnectionBaseAdapter
      *             the stream has been reached.
      * @exception  IOException  if an I/O error occurs.
      */
-    protected int readBytes(byte b[], int off, int len)
+    private int readNetworkBytes(byte b[], int off, int len)
         throws IOException {
 
         int rc;
@@ -536,44 +720,19 @@ public class Protocol extends ConnectionBaseAdapter
             }
 
             /*
-             * Non-chunked unknown length
+             * Non-chunked unknown length, the connection stream is
+             * buffered so small reads do not go to the socket.
              */
-
-            if (bytesleft == 0) {
+            rc = streamInput.read(b, off, len);
+            if (rc == -1) {
                 /*
-                 * the internal input stream buffer is empty, read from the
-                 * stream
+                 * The next call to this method should not read.
                  */
-                if (len >= inputBufferSize) {
-                    /*
-                     * No need to buffer, if the caller has given a big buffer.
-                     */
-                    rc = streamInput.read(b, off, len);
-                } else {
-                    rc = streamInput.read(readbuf, 0, inputBufferSize);
-                    bytesleft = rc;
-                    bytesread = 0;
-                }
-
-                if (rc == -1) {
-                    /*
-                     * The next call to this method should not read.
-                     */
-                    eof = true;
-                    return -1;
-                }
-
-                totalbytesread += rc;
-
-                if (bytesleft == 0) {
-                    /*
-                     * The data was read directly into the caller's buffer.
-                     */
-                    return rc;
-                }
+                eof = true;
+                return -1;
             }
 
-            rc = readFromBuffer(b, off, len);
+            totalbytesread += rc;
             return rc;
         } finally {
             synchronized (streamInput) {
@@ -582,43 +741,6 @@ public class Protocol extends ConnectionBaseAdapter
         }
     }
     
-    /**
-     * Reads up to <code>len</code> bytes of data from the internal buffer into
-     * an array of bytes.
-     *
-     * @param      b     the buffer into which the data is read.
-     * @param      off   the start offset in array <code>b</code>
-     *                   at which the data is written.
-     * @param      len   the maximum number of bytes to read.
-     * @return     the total number of bytes read into the buffer, or
-     *             <code>-1</code> if there is no more data because the end of
-     *             the stream has been reached.
-     * @exception  IOException  if an I/O error occurs.
-     */
-    private int readFromBuffer(byte b[], int off, int len)
-        throws IOException {
-        
-        /*
-         * copy http buffer data into user buffer, then
-         * increment and decrement counters
-         */
-        
-        int rc;
-
-        if (len > bytesleft) {
-            rc = bytesleft;
-        } else {
-            rc = len;            
-        }
-
-        System.arraycopy(readbuf, bytesread, b, off, rc);
-
-        bytesleft -= rc;
-        bytesread += rc;
-        
-        return rc;
-    }
-
     /**
      * Returns the number of bytes that can be read (or skipped over) from
      * this input stream without blocking by the next caller of a method for
@@ -632,6 +754,15 @@ public class Protocol extends ConnectionBaseAdapter
     public int available() throws IOException {
         int bytesAvailable;
 
+        if (contentFormat >= 0) {
+            // only what is already decoded can be read without blocking
+            return (contentDecoder == null ? 0 : contentDecoder.available());
+        }
+
+        if (cachedContent != null) {
+            return cachedContent.length - cachedContentPos;
+        }
+
         /* 
          * Only after all the headers have been processed can
          * an accurate available count be provided.
@@ -640,15 +771,6 @@ public class Protocol extends ConnectionBaseAdapter
             return 0;
         }
 
-        /*
-         * Regardless of chunked or non-chunked transfers -
-         * if data is already buffered return the amount 
-         * buffered.
-         */
-        if (bytesleft > 0) { 
-            return bytesleft; 
-        }
-                
         if (chunkedIn && totalbytesread == chunksize) { 
             /* 
              * Check if a new chunk size header is available.
@@ -658,11 +780,11 @@ public class Protocol extends ConnectionBaseAdapter
 
         /*
          * Otherwise rely on the lower level stream available
-         * count for the nonchunked input stream.
+         * count, up to the end of the chunk or the content.
          */
-        bytesAvailable =  streamInput.available();
-        if (chunksize <= bytesAvailable) {
-            return chunksize;
+        bytesAvailable = streamInput.available();
+        if (chunksize >= 0 && chunksize - totalbytesread < bytesAvailable) {
+            return chunksize - totalbytesread;
         }
 
         return bytesAvailable;
@@ -670,71 +792,15 @@ public class Protocol extends ConnectionBaseAdapter
 
 
     /** 
-     * Read a chunk size header into the readLine buffer
-     * without blocking. The stringbuffer is populated
-     * with characters one at a time. This routine is design
-     * so that a partial chunk size header could be read
-     * and then completed by a blocking read of the chunk 
-     * or a subsequent call to available.
+     * Reads the end of a chunk and the size of the next chunk
+     * without blocking, if they have been received. Nothing
+     * is read if they are not all there, so available can be
+     * called again later or the chunk size read by a blocking read.
      *
      * @return available data that can be read
      */
     int readChunkSizeNonBlocking() throws IOException {
-        /*
-         * Check the underlying stream to see how many bytes are
-         * available. Do not read beyond the available characters,
-         * because that would block.
-         */
-        int len = streamInput.available();
-        
-        /* Reset the last character from the current readLine buffer. */
-        int sblen = stringbuffer.length();
-        char lastchar = '\0';
-        if (sblen > 0) {
-            lastchar = stringbuffer.charAt(sblen - 1);
-        }
-
-        int size = -1;
-        /*
-         * Loop through the available characters until a full 
-         * chunk size header is in the readLine buffer.
-         */
-        for (; len > 0; len--) {
-            char c = (char) streamInput.read();
-            
-            if (lastchar == '\r' && c == '\n') {
-                // remove the '\r' from the buffer
-                stringbuffer.setLength(stringbuffer.length() - 1);
-
-                if (stringbuffer.length() > 0) {
-                    // this is a size, not the CRLF at the end of a chunk
-                    try {
-                        String temp = stringbuffer.toString();
-                        int semi = temp.indexOf(';');
-
-                        // skip extensions
-                        if (semi > 0) {
-                            temp = temp.substring(0, semi);
-                        }
-
-                        /*
-                         * Reset the string buffer length so readline() will
-                         * not parse this line.
-                         */
-                        stringbuffer.setLength(0);
-
-                        size = Integer.parseInt(temp, 16);
-                    } catch (NumberFormatException nfe) {
-                        throw new IOException(
-                            "invalid chunk size number format");
-                    }
-                    break;
-                }
-            } else {
-                stringbuffer.append(c);
-                lastchar = c;
-            }
-        }
+        int size = responseInput.readChunkSize(true, false);
         
         if (size < 0) {
             // did not get the size
@@ -744,7 +810,7 @@ public class Protocol extends ConnectionBaseAdapter
         /*
          * Update the chunksize and the total bytes that have been
          * read from the chunk. This will trigger the next call to
-         * readBytes to refill the buffers as needed.
+         * readBytes to read the chunk.
          */
         chunksize = size;
         if (size == 0) {
@@ -759,6 +825,7 @@ public class Protocol extends ConnectionBaseAdapter
          * otherwise return the remainder of the available
          * bytes (e.g. partial chunk).
          */
+        int len = streamInput.available();
         return (chunksize < len ? chunksize : len);
         
     }
@@ -784,191 +851,64 @@ public class Protocol extends ConnectionBaseAdapter
 
         int rc;
 
-
-        if (bytesleft == 0) {
+        if (totalbytesread == chunksize) {
             /*
-             * the internal input stream buffer is empty, read from the stream
+             * read the end of the chunk and get the size of the
+             * the next if there is one
              */
 
-            if (totalbytesread == chunksize) {
+            if (!chunkedIn) {
                 /*
-                 * read the end of the chunk and get the size of the
-                 * the next if there is one
-                 */
-
-                if (!chunkedIn) {
-                    /*
-                     * non-chucked data is treated as one big chunk so there
-                     * is no more data so just return as if there are no
-                     * more chunks
-                     */
-                    eof = true;
-                    return -1;
-                }
-
-                skipEndOfChunkCRLF();
-
-                chunksize = readChunkSize();
-                if (chunksize == 0) {
-                    eof = true;
-
-                    /*
-                     * REFERENCE: HTTP1.1 document 
-                     * SECTION: 3.6.1 Chunked Transfer Coding
-                     * in some cases there may be an OPTIONAL trailer
-                     * containing entity-header fields. since we don't support
-                     * the available() method for TCP socket input streams and
-                     * for performance and reuse reasons we do not attempt to
-                     * clean up the current connections input stream. 
-                     * check readResponseMessage() method in this class for
-                     * more details
-                     */
-                    return -1;
-                }
-
-                /*
-                 * we have not read any bytes from this new chunk
-                 */
-                totalbytesread = 0;
-            }
-
-            int bytesToRead = chunksize - totalbytesread;
-
-            if (len >= bytesToRead) {
-
-                /*
-                 * No need to buffer, if the caller has given a big buffer.
-                 */
-                rc = streamInput.read(b, off, bytesToRead);
-
-            } else if (len >= inputBufferSize) {
-                /*
-                 * No need to buffer, if the caller has given a big buffer.
-                 */
-                rc = streamInput.read(b, off, len);
-            } else {
-                if (inputBufferSize >= bytesToRead) {
-                    rc = streamInput.read(readbuf, 0, bytesToRead);
-                } else {
-                    rc = streamInput.read(readbuf, 0, inputBufferSize);
-                }
-
-                bytesleft = rc;
-                bytesread = 0;
-            }
-
-            if (rc == -1) {
-                /*
-                 * Network problem or the wrong length was sent by the server.
+                 * non-chucked data is treated as one big chunk so there
+                 * is no more data so just return as if there are no
+                 * more chunks
                  */
                 eof = true;
-                throw new IOException("unexpected end of stream");
+                return -1;
             }
 
-            totalbytesread += rc;
+            chunksize = responseInput.readChunkSize(true, true);
+            if (chunksize == 0) {
+                eof = true;
 
-            if (bytesleft == 0) {
                 /*
-                 * The data was read directly into the caller's buffer.
+                 * REFERENCE: HTTP1.1 document 
+                 * SECTION: 3.6.1 Chunked Transfer Coding
+                 * in some cases there may be an OPTIONAL trailer
+                 * containing entity-header fields. since we don't support
+                 * the available() method for TCP socket input streams and
+                 * for performance and reuse reasons we do not attempt to
+                 * clean up the current connections input stream. 
+                 * check readResponseMessage() method in this class for
+                 * more details
                  */
-                return rc;
-            }
-        }
-
-        rc = readFromBuffer(b, off, len);
-
-        return rc;
-    }
-
-    /** 
-     * Read the chunk size from the input.
-     * It is a hex length followed by optional headers (ignored).
-     * and terminated with CRLF.
-     *
-     * @return size of the buffered read
-     */
-    private int readChunkSize() throws IOException {
-        int size = -1;
-
-        try {
-            String chunk = null;
-
-            try {
-                chunk = readLine(streamInput);
-            } catch (IOException ioe) {
-                /* throw new IOException(ioe.getMessage()); */
-            }
-
-            if (chunk == null) {
-                throw new IOException("No Chunk Size");
+                return -1;
             }
 
-            int i;
-            for (i = 0; i < chunk.length(); i++) {
-                char ch = chunk.charAt(i);
-                if (Character.digit(ch, 16) == -1)
-                    break;
-            }
-
-            /* look at extensions?.... */
-            size = Integer.parseInt(chunk.substring(0, i), 16);
-        } catch (NumberFormatException e) {
-            throw new IOException("invalid chunk size number format");
-        }
-        
-        return size;
-    }
-    
-    /**
-     * Skips the CRLF at the end of each chunk in the InputStream.
-     *
-     * @exception IOException if the LF half of the ending CRLF
-     * is missing.
-     */
-    private void skipEndOfChunkCRLF() throws IOException { 
-        int ch;
-
-        if (stringbuffer.length() > 1) {
             /*
-             * readChunkSizeNonBlocking does not leave CRLF in the buffer
-             * so assume that the ending CRLF has been skipped already
+             * we have not read any bytes from this new chunk
              */
-            return;
+            totalbytesread = 0;
         }
 
-        // readChunkSizeNonBlocking could have left a \r single in the buffer
-        if (stringbuffer.length() == 1) {
-            if (stringbuffer.charAt(0) != '\r') {
-                // assume that the ending CRLF has been skipped already
-                return;
-            }
-             
-            // remove the '\r'
-            stringbuffer.setLength(0);
-            ch = streamInput.read();
-            if (ch != '\n') {
-                throw new IOException("missing the LF of an expected CRLF");
-            }
+        int bytesToRead = chunksize - totalbytesread;
 
-            return;
-        }
-                
-        ch = streamInput.read();
-        if (ch != '\r') {
+        /*
+         * The connection stream is buffered, a big read of the caller
+         * goes directly to the socket.
+         */
+        rc = streamInput.read(b, off, (len < bytesToRead ? len : bytesToRead));
+        if (rc == -1) {
             /*
-             * assume readChunkSizeNonBlocking has read the end of the chunk
-             * and that this is the next chunk size, so put the char in the
-             * buffer for readChunkSize and return
+             * Network problem or the wrong length was sent by the server.
              */
-            stringbuffer.append(ch);
-            return;
+            eof = true;
+            throw new IOException("unexpected end of stream");
         }
 
-        ch = streamInput.read();
-        if (ch != '\n') {
-            throw new IOException("missing the LF of an expected CRLF");
-        }
-    } 
+        totalbytesread += rc;
+        return rc;
+    }
 
     /**
      * Writes <code>len</code> bytes from the specified byte array
@@ -1292,6 +1232,11 @@ public class Protocol extends ConnectionBaseAdapter
 	    // Fall through to return -1 for length
 	}
 
+        if (contentFormat >= 0) {
+            // the length of the decoded content is not known
+            return -1;
+        }
+
 	return contentLength;
 
     }
@@ -1314,11 +1259,18 @@ public class Protocol extends ConnectionBaseAdapter
      * Get the Content-Encoding for the current response.
      *
      * @return encoding type of data to be transmitted after the 
-     *         response headers
+     *         response headers, null if the data is decoded before it
+     *         is read
      */   
     public String getEncoding() {
         try {
-            return getHeaderField("content-encoding");
+            String encoding = getHeaderField("content-encoding");
+
+            if (contentFormat >= 0) {
+                return null;
+            }
+
+            return encoding;
         } catch (IOException x) {
             return null;
         }
@@ -1532,6 +1484,10 @@ public class Protocol extends ConnectionBaseAdapter
                 chunkedOut = true;
             }
 
+            if (readResponseHeader && useCachedResponse()) {
+                return;
+            }
+
 
             bytesToRetry = bytesToWrite;
 
@@ -1541,19 +1497,31 @@ public class Protocol extends ConnectionBaseAdapter
 
                 if (readResponseHeader) {
                     finishRequestGetResponseHeader();
+                } else {
+                    // send the chunk now, the request is not finished
+                    streamOutput.flush();
                 }
             } catch (IOException ioe) {
-                if (!(streamConnection instanceof StreamConnectionElement)) {
+                if (!reusedConnection) {
                     /*
                      * This was a connection opened during this transaction.
                      * So do not try to recover.
                      */
+                    if (streamConnection instanceof StreamConnectionElement) {
+                        // fail the requests pipelined behind this one
+                        connectionPool.remove(
+                            (StreamConnectionElement)streamConnection,
+                            requestTicket);
+                        streamConnection = null;
+                    }
+
                     throw ioe;
                 }
 
                 try {
                     connectionPool.remove(
-                        (StreamConnectionElement)streamConnection);
+                        (StreamConnectionElement)streamConnection,
+                        requestTicket);
                 } catch (Exception e) {
                     // do not over throw the previous exception
                 }
@@ -1567,6 +1535,8 @@ public class Protocol extends ConnectionBaseAdapter
                 streamConnection = null;
                 streamInput = null;
                 streamOutput = null;
+                reusedConnection = false;
+                pipelinedRequest = false;
                 bytesToWrite = bytesToRetry;
 
                 startRequest();
@@ -1574,6 +1544,8 @@ public class Protocol extends ConnectionBaseAdapter
 
                 if (readResponseHeader) {
                     finishRequestGetResponseHeader();
+                } else {
+                    streamOutput.flush();
                 }
             }
 
@@ -1610,7 +1582,47 @@ public class Protocol extends ConnectionBaseAdapter
         }
 
         streamConnect();
-        sendRequestHeader();
+
+        if (!(streamConnection instanceof StreamConnectionElement)) {
+            sendRequestHeader();
+            return;
+        }
+
+        /*
+         * Requests pipelined on the connection take their tickets in
+         * the order they are written.
+         */
+        StreamConnectionElement sce =
+            (StreamConnectionElement)streamConnection;
+        boolean pipelinable = isPipelinable();
+
+        synchronized (sce) {
+            requestTicket = sce.m_nextTicket++;
+            sendRequestHeader();
+
+            if (pipelinable) {
+                // the request is complete, there is no body
+                streamOutput.flush();
+            }
+        }
+
+        if (pipelinable && !pipelinedRequest) {
+            connectionPool.allowPipelining(sce);
+        }
+    }
+
+    /**
+     * Checks if the request can be pipelined on a persistent connection
+     * or have other requests pipelined behind it. Only requests without
+     * a body whose method is idempotent can, since they may need to be
+     * sent again on another connection.
+     *
+     * @return true if the request can be pipelined
+     */
+    private boolean isPipelinable() {
+        return pipelineDepth > 1 && !ConnectionCloseFlag &&
+            (method.equals(GET) || method.equals(HEAD)) &&
+            !chunkedOut && bytesToWrite == 0;
     }
 
     /**
@@ -1620,6 +1632,8 @@ public class Protocol extends ConnectionBaseAdapter
      * @exception IOException is thrown if the connection cannot be opened
      */
     protected void streamConnect() throws IOException {
+        boolean opening = false;
+
         if (!permissionChecked) {
             throw new SecurityException("The permission check was bypassed");
         }
@@ -1627,23 +1641,65 @@ public class Protocol extends ConnectionBaseAdapter
         streamConnection = connectionPool.get(classSecurityToken, protocol,
                                               url.host, url.port);
 
-
-        if (streamConnection == null) {
-            streamConnection = connect();
+        if (streamConnection == null && isPipelinable()) {
+            streamConnection = connectionPool.getPipelined(
+                classSecurityToken, protocol, url.host, url.port);
+            pipelinedRequest = (streamConnection instanceof
+                                StreamConnectionElement) &&
+                ((StreamConnectionElement)streamConnection).m_pipelinable;
+            opening = (streamConnection == null);
         }
 
-        /*
-         * Because StreamConnection.open*Stream cannot be called twice
-         * the HTTP connect method may have already open the streams
-         * to connect to the proxy and saved them in the field variables
-         * already.
-         */
-        if (streamOutput != null) {
-            return;
-        }
+        try {
+            if (streamConnection == null) {
+                streamConnection = connect();
+            }
+
+            reusedConnection =
+                (streamConnection instanceof StreamConnectionElement);
+
+            /*
+             * Because StreamConnection.open*Stream cannot be called twice
+             * the HTTP connect method may have already open the streams
+             * to connect to the proxy and saved them in the field variables
+             * already.
+             */
+            if (streamOutput == null) {
+                streamOutput = streamConnection.openDataOutputStream();
+                streamInput = streamConnection.openDataInputStream();
+            }
 
-        streamOutput = streamConnection.openDataOutputStream();
-        streamInput = streamConnection.openDataInputStream();
+            /*
+             * The buffer goes with the connection, so bytes read ahead
+             * are there for the next response on a persistent connection.
+             */
+            if (!(streamInput instanceof ResponseInputStream)) {
+                streamInput = new ResponseInputStream(streamInput,
+                                                      inputBufferSize);
+            }
+
+            responseInput = (ResponseInputStream)streamInput;
+
+            if (reusedConnection || ConnectionCloseFlag) {
+                return;
+            }
+
+            /*
+             * Put a new connection in the pool right away, so other
+             * requests to the host can be pipelined on it.
+             */
+            StreamConnectionElement sce = connectionPool.add(protocol,
+                url.host, url.port, streamConnection, streamOutput,
+                streamInput, opening);
+            opening = false;
+            if (sce != null) {
+                streamConnection = sce;
+            }
+        } finally {
+            if (opening) {
+                connectionPool.release(protocol, url.host, url.port);
+            }
+        }
     }
 
     /**
@@ -1703,6 +1759,25 @@ public class Protocol extends ConnectionBaseAdapter
                     newUserAgentValue);
         }
 
+        addAcceptEncoding();
+
+        if (cachedResponse != null) {
+            // ask the server if the cached response is still valid
+            String validator =
+                cachedResponse.headers.getPropertyIgnoreCase("etag");
+            if (validator != null) {
+                reqProperties.setPropertyIgnoreCase("If-None-Match",
+                                                    validator);
+            }
+
+            validator =
+                cachedResponse.headers.getPropertyIgnoreCase("last-modified");
+            if (validator != null) {
+                reqProperties.setPropertyIgnoreCase("If-Modified-Since",
+                                                    validator);
+            }
+        }
+
         // HTTP 1.0 requests must contain content length for proxies
         if (getRequestProperty("Content-Length") == null) {
             setRequestField("Content-Length", Integer.toString(bytesToWrite));
@@ -1914,18 +1989,26 @@ public class Protocol extends ConnectionBaseAdapter
 
         streamOutput.flush();
 
-        readResponseMessage(streamInput);
+        if (streamConnection instanceof StreamConnectionElement) {
+            // responses of earlier pipelined requests come first
+            ((StreamConnectionElement)streamConnection).waitForTurn(
+                requestTicket);
+        }
+
+        readResponseMessage(responseInput);
         
-        readHeaders(streamInput);
+        readHeaders(responseInput, false);
         
         /*
          * Ignore a continuation header and read the true headers again.
          * (CR# 4382226 discovered with Jetty HTTP 1.1 web server.
          */
         if (responseCode == 100) {
-            readResponseMessage(streamInput);
-            readHeaders(streamInput);
+            readResponseMessage(responseInput);
+            readHeaders(responseInput, false);
         }
+
+        updateCache();
     }
 
     /**
@@ -2018,6 +2101,12 @@ public class Protocol extends ConnectionBaseAdapter
         // Do not delay request since this delays the response.
         conn.setSocketOption(SocketConnection.DELAY, 0);
 
+        /*
+         * Collect the request line, headers and body so they leave in
+         * as few segments as possible, every request ends with a flush.
+         */
+        conn.setWriteBufferSize(socketWriteBufferSize);
+
         return conn;
     }
 
@@ -2081,15 +2170,21 @@ public class Protocol extends ConnectionBaseAdapter
          *
          */
 
-        readResponseMessage(is);
+        /*
+         * Read without buffering ahead, the bytes after the response
+         * belong to the tunneled connection.
+         */
+        ResponseInputStream in = new ResponseInputStream(is, 1);
+
+        readResponseMessage(in);
         
-        readHeaders(is);
+        readHeaders(in, true);
         
         int bytesToRead = chunksize - totalbytesread;
         
         if (bytesToRead > 0) {
             byte[] b = new byte[bytesToRead];
-            is.read(b, 0, bytesToRead);
+            in.read(b, 0, bytesToRead);
         }
 
         int errorGroup = responseCode / 100;
@@ -2114,13 +2209,17 @@ public class Protocol extends ConnectionBaseAdapter
      * @exception IOException  is thrown if the header response can 
      *                         not be parsed
      */
-    private void readResponseMessage(InputStream in) throws IOException {
+    private void readResponseMessage(ResponseInputStream in)
+            throws IOException {
+        int length;
+        byte[] line;
+        int httpEnd;
+        int codeEnd;
 
-        String line = null;
         responseCode = -1;
         responseMsg = null;
 
-        line = readLine(in);
+        length = in.readResponseLine();
 
         /*
          * REFERENCE: HTTP1.1 document 
@@ -2132,64 +2231,110 @@ public class Protocol extends ConnectionBaseAdapter
          * stream. the first thing we do here is read the stream and 
          * discard it.
          */
-        if (line != null && line.length() == 0) {
-            line = readLine(in);
+        if (length == 0) {
+            length = in.readResponseLine();
         }
             
-        int httpEnd, codeEnd;
-        
-        responseCode = -1;
-        responseMsg = null;
-
-        if (line == null) {
+        if (length < 0) {
             throw new IOException("response empty");
         }
 
-        httpEnd = line.indexOf(' ');
-        if (httpEnd < 0) {
-            if (line.length() > 10) {
-                // only put the first 10 chars in the exception
-                line = line.substring(0, 10);
-            }
+        /*
+         * The status line is parsed from the bytes of the line, only the
+         * reason phrase becomes a new string.
+         */
+        line = in.getLine();
 
+        httpEnd = indexOf(line, 0, length, ' ');
+        if (httpEnd < 0) {
+            // only put the first 10 chars in the exception
             throw new IOException("cannot find status code in response: " +
-                line);
+                ResponseHeaders.newString(line, 0, Math.min(length, 10)));
         }
     
-        String temp = line.substring(0, httpEnd);
-        if (!temp.startsWith("HTTP")) {
-            if (httpEnd > 10) {
-                // only put the first 10 chars in the exception
-                temp = temp.substring(0, 10);
-            }
-
+        if (!startsWith(line, 0, httpEnd, "HTTP")) {
+            // only put the first 10 chars in the exception
             throw new IOException("response does not start with HTTP " +
-                 "it starts with: " + temp);
+                 "it starts with: " +
+                 ResponseHeaders.newString(line, 0, Math.min(httpEnd, 10)));
         }
 
-        httpVer = temp;
-        if (line.length() <= httpEnd) {
-            throw new IOException("status line ends after HTTP version");
+        if (httpEnd == HTTP_VERSION.length() &&
+                startsWith(line, 0, httpEnd, HTTP_VERSION)) {
+            httpVer = HTTP_VERSION;
+        } else if (httpEnd == HTTP_VERSION_1_0.length() &&
+                       startsWith(line, 0, httpEnd, HTTP_VERSION_1_0)) {
+            httpVer = HTTP_VERSION_1_0;
+        } else {
+            httpVer = ResponseHeaders.newString(line, 0, httpEnd);
         }
     
-        codeEnd = line.substring(httpEnd + 1).indexOf(' ');
+        codeEnd = indexOf(line, httpEnd + 1, length, ' ');
         if (codeEnd < 0) {
             throw new IOException("cannot find reason phrase in response");
         }
 
-        codeEnd += (httpEnd + 1);
-        if (line.length() <= codeEnd) {
-            throw new IOException("status line end after status code");
-        }
-    
-        try {
-            responseCode = Integer.parseInt(line.substring(httpEnd+1, 
-                                                               codeEnd));
-        } catch (NumberFormatException nfe) {
+        if (codeEnd == httpEnd + 1) {
             throw new IOException("status code in response is not a number");
         }
 
-        responseMsg = line.substring(codeEnd + 1);
+        responseCode = 0;
+        for (int i = httpEnd + 1; i < codeEnd; i++) {
+            if (line[i] < '0' || line[i] > '9' || responseCode > 99999) {
+                responseCode = -1;
+                throw new IOException(
+                    "status code in response is not a number");
+            }
+
+            responseCode = responseCode * 10 + (line[i] - '0');
+        }
+
+        responseMsg = ResponseHeaders.newString(line, codeEnd + 1, length);
+    }
+
+    /**
+     * Finds a byte in a line.
+     *
+     * @param line bytes of the line
+     * @param start where to start looking
+     * @param end end of the line
+     * @param b the byte
+     *
+     * @return the index of the byte or -1 if it was not found
+     */
+    private static int indexOf(byte[] line, int start, int end, int b) {
+        for (int i = start; i < end; i++) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks if bytes of a line start with a string.
+     *
+     * @param line bytes of the line
+     * @param start start of the bytes
+     * @param end end of the bytes
+     * @param prefix the string
+     *
+     * @return true if the bytes start with the string
+     */
+    private static boolean startsWith(byte[] line, int start, int end,
+                                      String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     /** 
@@ -2197,120 +2342,113 @@ public class Protocol extends ConnectionBaseAdapter
      * Parse the response headers name value pairs for easy application use.
      *
      * @param in input stream where the response headers are read
+     * @param tunnel true if the headers are of the response to a CONNECT
+     *               request, then the content of a successful response
+     *               is not read since the bytes after the headers belong
+     *               to the tunneled connection
      * @exception IOException  is thrown if the response headers cannot 
      *                         be parsed
      */
-    private void readHeaders(InputStream in) throws IOException {
-        String line;
-        String key = null;
-        int prevPropIndex = headerFields.size() - 1;
-        boolean firstLine = true;
-        String value;
-        String prevValue = null;
-        int index;
+    private void readHeaders(ResponseInputStream in, boolean tunnel)
+            throws IOException {
+        int length;
+        byte[] line;
+        int field = -1;
 
         /*
          * Initialize and set the current input stream variables
          */
-        bytesleft = 0;
         chunksize = -1;
-        bytesread = 0;
         totalbytesread = 0;
         chunkedIn = false;
         eof = false;
+        contentFormat = -1;
 
         
         for (;;) {
-            try {
-                line = readLine(in);
-            } catch (IOException ioe) {
-                throw new IOException(ioe.getMessage());
-            }
-
-            if (line == null || line.equals(""))
+            length = in.readResponseLine();
+            if (length <= 0) {
                 break;
+            }
 
-            if ((!firstLine) && (line.charAt(0) == ' ' ||
-                                    line.charAt(0) == '\t')) {
-                // This line is a continuation of the previous line.
-
-                /*
-                 * The continuation is for the user readablility so restore
-                 * the CR LF when appending.
-                 */
-                value = prevValue + "\r\n" + line;
+            line = in.getLine();
 
+            if (field >= 0 && (line[0] == ' ' || line[0] == '\t')) {
                 /*
-                 * Set value by index, since there can be multiple properties
-                 * with the same key.
+                 * This line is a continuation of the previous line.
+                 * The continuation is for the user readablility so the
+                 * CR LF is restored when appending.
                  */
-                headerFields.setPropertyAt(prevPropIndex, value);
-                prevValue = value;
+                headerFields.addContinuation(line, length);
                 continue;
             }
-                
-            index = line.indexOf(':');
-            if (index < 0) {
-                throw new IOException("malformed header field " + line);
-            }
-
-            key = line.substring(0, index);
-            if (key.length() == 0) {
-                throw new IOException("malformed header field, no key "+ line);
-            }
 
-            if (line.length() <= index + 1) 
-                value = "";
-            else 
-                value = line.substring(index + 1).trim();
+            /*
+             * Save the response key value pairs. The fields are indexed,
+             * strings are only created when they are asked for.
+             */
+            field = headerFields.addField(line, length);
 
             /**
              * Check the response header to see if the server would like
              * to close the connection.
              * CR#4492849
              */
-            if ((key.equalsIgnoreCase("connection")) && 
-                (value.equalsIgnoreCase("close"))) {
+            if (headerFields.keyEqualsIgnoreCase(field, "connection") && 
+                headerFields.valueEqualsIgnoreCase(field, "close")) {
                 ConnectionCloseFlag = true;
             }
 
+            /*
+             * Keep-Alive: timeout=15, max=100 tells how long the server
+             * keeps an idle connection open and how many more requests
+             * it accepts on it.
+             */
+            if (headerFields.keyEqualsIgnoreCase(field, "keep-alive")) {
+                String value = headerFields.getValueAt(field);
+                int timeout = getKeepAliveParameter(value, "timeout");
+                if (timeout >= 0) {
+                    keepAliveTimeout = timeout * 1000L;
+                }
+
+                keepAliveMax = getKeepAliveParameter(value, "max");
+            }
+
             /*
              * Determine if this is a chunked data transfer. Transfer-Encoding 
              * header values are treated as case-insensitive 
              */
-            if ((key.equalsIgnoreCase("transfer-encoding")) &&
-                (value.equalsIgnoreCase("chunked"))) {
+            if (headerFields.keyEqualsIgnoreCase(field, "transfer-encoding") &&
+                headerFields.valueEqualsIgnoreCase(field, "chunked")) {
                 chunkedIn = true;
             }
 
             /*
              * Update the Content-Length based on the header value.
              */
-            if (key.equalsIgnoreCase("content-length")) {
-                try {
-                    contentLength =  Integer.parseInt(value);
-                } catch (IllegalArgumentException iae) {
-                    // fall through
-                } catch (NullPointerException npe) {
-                    // fall through
+            if (headerFields.keyEqualsIgnoreCase(field, "content-length")) {
+                int value = headerFields.getIntValueAt(field);
+                if (value >= 0) {
+                    contentLength = value;
                 }
             }
-
-            /* Save the response key value pairs. */
-            headerFields.addProperty(key, value);
-            firstLine = false;
-            prevPropIndex++;
-            prevValue = value;
-            
         }
 
         
     	/* Initialize the amount of data expected. */
-        if (chunkedIn) {
-            chunksize = readChunkSize();
+        if (tunnel && responseCode / 100 == 2) {
+            /*
+             * A successful CONNECT response has no content, whatever its
+             * headers say, reading a chunk size or a body here would take
+             * bytes of the tunneled connection.
+             */
+            chunksize = 0;
+        } else if (chunkedIn) {
+            chunksize = in.readChunkSize(false, true);
         } else {
             // do not let the read block if there is no data.
-            if (method.equals(HEAD)) {
+            if (method.equals(HEAD) || responseCode == 204 ||
+                    responseCode == 304) {
                 chunksize = 0;
             } else {
                 // treat non chunked data of known length as one big chunk
@@ -2322,44 +2460,258 @@ public class Protocol extends ConnectionBaseAdapter
         if (chunksize == 0) {
             eof = true;
         }
+
+        if (!eof) {
+            setContentFormat();
+        }
+    }
+
+    /**
+     * Sets the format of the content to decode from the Content-Encoding
+     * of the response, if Accept-Encoding was added to the request.
+     */
+    private void setContentFormat() {
+        contentFormat = -1;
+
+        if (!acceptEncodingAdded) {
+            return;
+        }
+
+        int field = headerFields.indexOfIgnoreCase("content-encoding");
+
+        if (field < 0) {
+            return;
+        }
+
+        if (headerFields.valueEqualsIgnoreCase(field, "gzip") ||
+                headerFields.valueEqualsIgnoreCase(field, "x-gzip")) {
+            contentFormat = InflaterInputStream.FORMAT_GZIP;
+        } else if (headerFields.valueEqualsIgnoreCase(field, "deflate")) {
+            contentFormat = InflaterInputStream.FORMAT_ZLIB;
+        }
     }
 
     /**
-     * Uses the shared stringbuffer to read a line terminated by CRLF 
-     * and return it as string. Blocks until the line is done or end of
-     * stream.
+     * Adds Accept-Encoding to the request if the content is to be decoded
+     * and the application did not ask for an encoding itself.
+     */
+    private void addAcceptEncoding() {
+        if (contentDecodingFlag && (acceptEncodingAdded ||
+                reqProperties.getPropertyIgnoreCase("Accept-Encoding") ==
+                    null)) {
+            reqProperties.setPropertyIgnoreCase("Accept-Encoding",
+                                                "gzip, deflate");
+            acceptEncodingAdded = true;
+        }
+    }
+
+    /**
+     * Gets the key of a request in the response cache. Only GET requests
+     * without a body, credentials or conditions of their own are cached.
      *
-     * @param     in  InputStream to read the data
-     * @return    one line of input header or null if end of stream
-     * @exception IOException if error encountered while reading headers
+     * @return the key or null if the response is not cached
      */
-    private String readLine(InputStream in) throws IOException {
-        int c;
+    private String getCacheKey() {
+        if (responseCache == null || !protocol.equals("http") ||
+                !method.equals(GET) || bytesToWrite != 0 || chunkedOut) {
+            return null;
+        }
 
-        try {
-            for (;;) {
-                c = in.read();
-                if (c < 0) {
-                    return null;
-                }
+        if (reqProperties.getPropertyIgnoreCase("Authorization") != null ||
+                reqProperties.getPropertyIgnoreCase("Range") != null ||
+                reqProperties.getPropertyIgnoreCase("If-None-Match") != null ||
+                reqProperties.getPropertyIgnoreCase("If-Modified-Since") !=
+                    null) {
+            return null;
+        }
 
-                if (c == '\r') {
-                    continue;
-                }
+        String cacheControl = reqProperties.getPropertyIgnoreCase(
+                                  "Cache-Control");
+        String pragma = reqProperties.getPropertyIgnoreCase("Pragma");
 
-                if (c == '\n') {
-                    break;
-                }
+        if (CachedResponse.hasDirective(cacheControl, "no-cache") ||
+                CachedResponse.hasDirective(cacheControl, "no-store") ||
+                CachedResponse.hasDirective(pragma, "no-cache")) {
+            return null;
+        }
+
+        MIDletSuite suite =
+            MIDletStateHandler.getMidletStateHandler().getMIDletSuite();
+
+        cacheSuiteId = (suite == null ? 0 : suite.getID());
 
-                stringbuffer.append((char)c);
+        // the content depends on the encodings asked for
+        addAcceptEncoding();
+
+        return cacheSuiteId + " " + url + " " +
+            reqProperties.getPropertyIgnoreCase("Accept-Encoding");
+    }
+
+    /**
+     * Answers the request from the cache if a fresh response is cached.
+     * A stale response that can be revalidated is kept for
+     * {@link #sendRequestHeader} to ask the server if it changed.
+     *
+     * @return true if the response came from the cache
+     */
+    private boolean useCachedResponse() {
+        long now = System.currentTimeMillis();
+
+        cacheKey = getCacheKey();
+        if (cacheKey == null) {
+            return false;
+        }
+
+        cachedResponse = responseCache.get(cacheKey, now);
+        if (cachedResponse == null || !cachedResponse.isFresh(now)) {
+            return false;
+        }
+
+        requestFinished = true;
+        setCachedResponse(cachedResponse);
+        return true;
+    }
+
+    /**
+     * Makes a cached response the response of this connection.
+     *
+     * @param response the cached response
+     */
+    private void setCachedResponse(CachedResponse response) {
+        responseCode = response.responseCode;
+        responseMsg = response.responseMsg;
+        httpVer = response.httpVer;
+        headerFields = response.headers;
+        cachedContent = response.content;
+        cachedContentPos = 0;
+        contentLength = cachedContent.length;
+        chunkedIn = false;
+
+        if (cachedContent.length > 0) {
+            setContentFormat();
+        }
+    }
+
+    /**
+     * Updates the cache with the response just received. A response that
+     * was not modified is answered from the cache, a response that can
+     * be cached is kept as it is read.
+     */
+    private void updateCache() {
+        if (cacheKey == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (responseCode == 304 && cachedResponse != null) {
+            cachedResponse = cachedResponse.revalidate(headerFields, now);
+            responseCache.revalidated(cachedResponse);
+            setCachedResponse(cachedResponse);
+            return;
+        }
+
+        cachedResponse = null;
+
+        if (!CachedResponse.isCacheable(responseCode, headerFields) ||
+                contentLength > responseCache.getMaxResponseSize()) {
+            responseCache.remove(cacheKey);
+            cacheKey = null;
+            return;
+        }
+
+        cacheResponseTime = now;
+        contentToCache = new byte[contentLength >= 0 ? contentLength : 1024];
+        contentToCacheLength = 0;
+
+        if (eof) {
+            storeResponse();
+        }
+    }
+
+    /**
+     * Keeps content read from the network to cache it when all of it
+     * has been read.
+     *
+     * @param b the buffer with the content
+     * @param off offset of the content
+     * @param len length of the content
+     */
+    private void keepContent(byte[] b, int off, int len) {
+        if (contentToCacheLength + len > contentToCache.length) {
+            int size = Math.max(contentToCacheLength + len,
+                                contentToCache.length * 2);
+
+            if (contentToCacheLength + len >
+                    responseCache.getMaxResponseSize()) {
+                // too large to cache
+                responseCache.remove(cacheKey);
+                contentToCache = null;
+                return;
             }
 
-            /* Return a whole line and reset the string buffer. */
-            String line =  stringbuffer.toString(); 
+            byte[] temp = new byte[Math.min(size,
+                              responseCache.getMaxResponseSize())];
+            System.arraycopy(contentToCache, 0, temp, 0,
+                             contentToCacheLength);
+            contentToCache = temp;
+        }
+
+        System.arraycopy(b, off, contentToCache, contentToCacheLength, len);
+        contentToCacheLength += len;
 
-            return line;
-        } finally {
-            stringbuffer.setLength(0);
+        if (contentToCacheLength == contentLength) {
+            // the caller may not read the end of the content
+            storeResponse();
+        }
+    }
+
+    /**
+     * Puts the response in the cache once all its content has been read.
+     */
+    private void storeResponse() {
+        byte[] content = contentToCache;
+
+        if (contentToCacheLength < content.length) {
+            content = new byte[contentToCacheLength];
+            System.arraycopy(contentToCache, 0, content, 0,
+                             contentToCacheLength);
+        }
+
+        contentToCache = null;
+        responseCache.put(new CachedResponse(cacheKey, cacheSuiteId,
+            responseCode, responseMsg, httpVer,
+            headerFields, content, cacheResponseTime));
+    }
+
+    /**
+     * Gets a numeric parameter of a Keep-Alive header value.
+     *
+     * @param value value of the Keep-Alive header, for example
+     *        "timeout=15, max=100"
+     * @param name name of the parameter
+     *
+     * @return value of the parameter or -1 if it is missing or
+     *         not a number
+     */
+    private static int getKeepAliveParameter(String value, String name) {
+        int start = value.toLowerCase().indexOf(name + "=");
+        if (start < 0) {
+            return -1;
+        }
+
+        start += name.length() + 1;
+
+        int end = start;
+        while (end < value.length() &&
+                Character.isDigit(value.charAt(end))) {
+            end++;
+        }
+
+        try {
+            return Integer.parseInt(value.substring(start, end));
+        } catch (NumberFormatException nfe) {
+            return -1;
         }
     }
 
@@ -2425,12 +2777,13 @@ public class Protocol extends ConnectionBaseAdapter
             }
         }
 
-        if (!requestFinished || !eof || httpVer.equals("HTTP/1.0") ||
+        if (!requestFinished || !eof || httpVer.equals(HTTP_VERSION_1_0) ||
                 ConnectionCloseFlag) {
             if (streamConnection instanceof StreamConnectionElement) {
-                // we got this connection from the pool
+                // the connection is in the pool
                 connectionPool.remove(
-                        (StreamConnectionElement)streamConnection);
+                        (StreamConnectionElement)streamConnection,
+                        requestTicket);
             } else {
                 disconnect(streamConnection);
             }
@@ -2438,19 +2791,25 @@ public class Protocol extends ConnectionBaseAdapter
             return;
         }
 
+        StreamConnectionElement sce;
         if (streamConnection instanceof StreamConnectionElement) {
-            // we got this connection from the pool
-            connectionPool.returnForReuse(
-                   (StreamConnectionElement)streamConnection);
-            return;
-        }
+            // the connection is in the pool
+            sce = (StreamConnectionElement)streamConnection;
+        } else {
+            // the pool was full when connected, try to save it now
+            sce = connectionPool.add(protocol, url.host, url.port,
+                      streamConnection, streamOutput, streamInput, false);
+            if (sce == null) {
+                // pool full, disconnect
+                disconnect(streamConnection);
+                return;
+            }
 
-        // save the connection for reuse
-        if (!connectionPool.add(protocol, url.host, url.port,
-                 streamConnection, streamOutput, streamInput)) {
-            // pool full, disconnect
-            disconnect(streamConnection);
+            requestTicket = sce.m_nextTicket++;
         }
+
+        connectionPool.returnForReuse(sce, requestTicket, keepAliveTimeout,
+                                      keepAliveMax);
     }
 
     /** 
@@ -2487,6 +2846,41 @@ public class Protocol extends ConnectionBaseAdapter
             }
         }
     }
+
+    /**
+     * Reads the encoded content of the response for the decoder.
+     */
+    private class ContentInputStream extends InputStream {
+        /**
+         * Reads a byte of the content.
+         *
+         * @return the byte or -1 at the end of the content
+         * @exception IOException if an I/O error occurs
+         */
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            if (readContentBytes(b, 0, 1) == -1) {
+                return -1;
+            }
+
+            return b[0] & 0xff;
+        }
+
+        /**
+         * Reads up to <code>len</code> bytes of the content.
+         *
+         * @param b the buffer into which the data is read
+         * @param off the start offset in array <code>b</code>
+         * @param len the maximum number of bytes to read
+         *
+         * @return the number of bytes read or -1 at the end of the content
+         * @exception IOException if an I/O error occurs
+         */
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readContentBytes(b, off, len);
+        }
+    }
 }
 
 
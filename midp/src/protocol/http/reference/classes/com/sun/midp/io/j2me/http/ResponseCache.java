@@ -0,0 +1,285 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.util.Hashtable;
+
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
+/**
+ * A memory cache of HTTP responses. Each suite has its own entries and
+ * its own budget of memory, when a suite goes over its budget its least
+ * recently used responses are evicted.
+ */
+class ResponseCache {
+    /** Cached responses by key. */
+    private Hashtable responses = new Hashtable();
+    /** Bytes used by each suite, by suite ID. */
+    private Hashtable suiteSizes = new Hashtable();
+    /** Most recently used response. */
+    private CachedResponse mostRecent;
+    /** Least recently used response. */
+    private CachedResponse leastRecent;
+    /** Bytes each suite can use. */
+    private int suiteBudget;
+    /** Largest response that is cached. */
+    private int maxResponseSize;
+
+    /** Number of requests answered from the cache. */
+    private int hits;
+    /** Number of cached responses the server said were not modified. */
+    private int revalidations;
+    /** Number of requests that were not in the cache. */
+    private int misses;
+    /** Number of responses evicted to stay in the budget. */
+    private int evictions;
+
+    /**
+     * Creates a cache.
+     *
+     * @param suiteBudget bytes each suite can use, a response can use
+     *                    a quarter of that
+     */
+    ResponseCache(int suiteBudget) {
+        this.suiteBudget = suiteBudget;
+        maxResponseSize = suiteBudget / 4;
+    }
+
+    /**
+     * Gets the size of the largest response that is cached.
+     *
+     * @return the size in bytes
+     */
+    int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    /**
+     * Gets a response that is fresh or that can be revalidated.
+     * A stale response that cannot be revalidated is removed.
+     *
+     * @param key cache key of the request
+     * @param now the current time
+     *
+     * @return the response or null
+     */
+    synchronized CachedResponse get(String key, long now) {
+        CachedResponse response = (CachedResponse)responses.get(key);
+
+        if (response == null) {
+            misses++;
+            return null;
+        }
+
+        if (response.isFresh(now)) {
+            hits++;
+        } else if (!response.hasValidator()) {
+            remove(response);
+            misses++;
+            return null;
+        }
+
+        unlink(response);
+        link(response);
+        return response;
+    }
+
+    /**
+     * Puts a response in the cache, replacing the one with the same key.
+     *
+     * @param response the response
+     */
+    synchronized void put(CachedResponse response) {
+        CachedResponse old = (CachedResponse)responses.get(response.key);
+
+        if (old != null) {
+            remove(old);
+        }
+
+        if (response.size > maxResponseSize) {
+            return;
+        }
+
+        responses.put(response.key, response);
+        link(response);
+
+        int[] used = getSuiteSize(response.suiteId);
+        used[0] += response.size;
+
+        // evict the least recently used responses of the suite
+        CachedResponse r = leastRecent;
+        while (used[0] > suiteBudget && r != null) {
+            CachedResponse next = r.next;
+
+            if (r.suiteId == response.suiteId && r != response) {
+                remove(r);
+                evictions++;
+            }
+
+            r = next;
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_PROTOCOL,
+                "HTTP cache: " + responses.size() + " responses, " +
+                hits + " hits, " + revalidations + " revalidated, " +
+                misses + " misses, " + evictions + " evicted");
+        }
+    }
+
+    /**
+     * Replaces a cached response after the server said it was not
+     * modified.
+     *
+     * @param response the revalidated response
+     */
+    synchronized void revalidated(CachedResponse response) {
+        revalidations++;
+        put(response);
+    }
+
+    /**
+     * Removes the response for a request.
+     *
+     * @param key cache key of the request
+     */
+    synchronized void remove(String key) {
+        CachedResponse response = (CachedResponse)responses.get(key);
+
+        if (response != null) {
+            remove(response);
+        }
+    }
+
+    /**
+     * Removes a response from the cache.
+     *
+     * @param response the response
+     */
+    private void remove(CachedResponse response) {
+        responses.remove(response.key);
+        unlink(response);
+        getSuiteSize(response.suiteId)[0] -= response.size;
+    }
+
+    /**
+     * Gets the counter of the bytes used by a suite.
+     *
+     * @param suiteId ID of the suite
+     *
+     * @return array with the number of bytes
+     */
+    private int[] getSuiteSize(int suiteId) {
+        Integer id = new Integer(suiteId);
+        int[] used = (int[])suiteSizes.get(id);
+
+        if (used == null) {
+            used = new int[1];
+            suiteSizes.put(id, used);
+        }
+
+        return used;
+    }
+
+    /**
+     * Makes a response the most recently used.
+     *
+     * @param response the response
+     */
+    private void link(CachedResponse response) {
+        response.prev = mostRecent;
+        response.next = null;
+
+        if (mostRecent != null) {
+            mostRecent.next = response;
+        } else {
+            leastRecent = response;
+        }
+
+        mostRecent = response;
+    }
+
+    /**
+     * Takes a response out of the order of use.
+     *
+     * @param response the response
+     */
+    private void unlink(CachedResponse response) {
+        if (response.prev != null) {
+            response.prev.next = response.next;
+        } else {
+            leastRecent = response.next;
+        }
+
+        if (response.next != null) {
+            response.next.prev = response.prev;
+        } else {
+            mostRecent = response.prev;
+        }
+
+        response.prev = null;
+        response.next = null;
+    }
+
+    /**
+     * Gets the number of requests answered from the cache.
+     *
+     * @return the number of hits
+     */
+    synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of cached responses the server said were not
+     * modified.
+     *
+     * @return the number of revalidations
+     */
+    synchronized int getRevalidations() {
+        return revalidations;
+    }
+
+    /**
+     * Gets the number of requests that were not in the cache.
+     *
+     * @return the number of misses
+     */
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of responses evicted to stay in the budget.
+     *
+     * @return the number of evictions
+     */
+    synchronized int getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.io.IOException;
+
+/**
+ * The header fields of an HTTP response. The fields are kept as the bytes
+ * received with the positions of their names and values, a name or value
+ * string is only created when it is asked for. Lookups by name compare the
+ * bytes. Like the headers of a request, the names are case insensitive
+ * and a name can have several fields.
+ */
+class ResponseHeaders {
+    /** Number of ints in the bounds of a field. */
+    private static final int BOUNDS = 4;
+
+    /** Bytes of the fields. */
+    private byte[] data;
+    /** Number of bytes of the fields. */
+    private int dataLength;
+    /**
+     * Start and end of the name and start and end of the value of each
+     * field in the data.
+     */
+    private int[] bounds;
+    /** Number of fields. */
+    private int count;
+    /** Names of the fields created so far. */
+    private String[] keys;
+    /** Values of the fields created so far. */
+    private String[] values;
+
+    /**
+     * Adds a field from a header line.
+     *
+     * @param line bytes of the line, without the CRLF
+     * @param length length of the line
+     *
+     * @return the index of the field
+     *
+     * @exception IOException if the line is not a header field
+     */
+    int addField(byte[] line, int length) throws IOException {
+        int colon = 0;
+        int start;
+        int end;
+
+        while (colon < length && line[colon] != ':') {
+            colon++;
+        }
+
+        if (colon == length) {
+            throw new IOException("malformed header field " +
+                                  newString(line, 0, length));
+        }
+
+        if (colon == 0) {
+            throw new IOException("malformed header field, no key " +
+                                  newString(line, 0, length));
+        }
+
+        ensureCapacity(length);
+
+        start = dataLength;
+        System.arraycopy(line, 0, data, start, length);
+        dataLength += length;
+
+        // the value is trimmed, the name is not
+        end = start + length;
+        int valueStart = start + colon + 1;
+        while (valueStart < end && (data[valueStart] & 0xff) <= ' ') {
+            valueStart++;
+        }
+
+        while (end > valueStart && (data[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+
+        return addBounds(start, start + colon, valueStart, end);
+    }
+
+    /**
+     * Adds a continuation line to the value of the last field. The CRLF
+     * before the line is kept in the value.
+     *
+     * @param line bytes of the line, without the CRLF
+     * @param length length of the line
+     */
+    void addContinuation(byte[] line, int length) {
+        int last = (count - 1) * BOUNDS;
+
+        // the value of the last field is at the end of the data
+        dataLength = bounds[last + 3];
+        ensureCapacity(length + 2);
+
+        data[dataLength++] = '\r';
+        data[dataLength++] = '\n';
+        System.arraycopy(line, 0, data, dataLength, length);
+        dataLength += length;
+
+        bounds[last + 3] = dataLength;
+        values[count - 1] = null;
+    }
+
+    /**
+     * Adds a field.
+     *
+     * @param key name of the field
+     * @param value value of the field
+     */
+    void addField(String key, String value) {
+        int keyLength = key.length();
+        int valueLength = value.length();
+        int start;
+
+        ensureCapacity(keyLength + valueLength);
+
+        start = dataLength;
+        for (int i = 0; i < keyLength; i++) {
+            data[dataLength++] = (byte)key.charAt(i);
+        }
+
+        for (int i = 0; i < valueLength; i++) {
+            data[dataLength++] = (byte)value.charAt(i);
+        }
+
+        addBounds(start, start + keyLength, start + keyLength, dataLength);
+        keys[count - 1] = key;
+        values[count - 1] = value;
+    }
+
+    /**
+     * Makes room for more bytes in the data and for one more field.
+     *
+     * @param length number of bytes to add
+     */
+    private void ensureCapacity(int length) {
+        if (data == null) {
+            data = new byte[Math.max(256, length)];
+            bounds = new int[8 * BOUNDS];
+            keys = new String[8];
+            values = new String[8];
+        }
+
+        if (dataLength + length > data.length) {
+            byte[] temp = new byte[Math.max(dataLength + length,
+                                            data.length * 2)];
+            System.arraycopy(data, 0, temp, 0, dataLength);
+            data = temp;
+        }
+
+        if (count == keys.length) {
+            int[] tempBounds = new int[bounds.length * 2];
+            String[] tempKeys = new String[keys.length * 2];
+            String[] tempValues = new String[keys.length * 2];
+
+            System.arraycopy(bounds, 0, tempBounds, 0, bounds.length);
+            System.arraycopy(keys, 0, tempKeys, 0, count);
+            System.arraycopy(values, 0, tempValues, 0, count);
+            bounds = tempBounds;
+            keys = tempKeys;
+            values = tempValues;
+        }
+    }
+
+    /**
+     * Adds the bounds of a field, the data must have room for it.
+     *
+     * @param keyStart start of the name
+     * @param keyEnd end of the name
+     * @param valueStart start of the value
+     * @param valueEnd end of the value
+     *
+     * @return the index of the field
+     */
+    private int addBounds(int keyStart, int keyEnd, int valueStart,
+                          int valueEnd) {
+        int i = count * BOUNDS;
+
+        bounds[i] = keyStart;
+        bounds[i + 1] = keyEnd;
+        bounds[i + 2] = valueStart;
+        bounds[i + 3] = valueEnd;
+        return count++;
+    }
+
+    /**
+     * Gets the number of fields.
+     *
+     * @return the number of fields
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Gets the name of a field.
+     *
+     * @param index index of the field
+     *
+     * @return the name
+     */
+    String getKeyAt(int index) {
+        checkIndex(index);
+
+        if (keys[index] == null) {
+            keys[index] = newString(data, bounds[index * BOUNDS],
+                                    bounds[index * BOUNDS + 1]);
+        }
+
+        return keys[index];
+    }
+
+    /**
+     * Gets the value of a field.
+     *
+     * @param index index of the field
+     *
+     * @return the value
+     */
+    String getValueAt(int index) {
+        checkIndex(index);
+
+        if (values[index] == null) {
+            values[index] = newString(data, bounds[index * BOUNDS + 2],
+                                      bounds[index * BOUNDS + 3]);
+        }
+
+        return values[index];
+    }
+
+    /**
+     * Gets the value of the last field with a name, ignoring case.
+     *
+     * @param key name of the field
+     *
+     * @return the value or null if there is no field with the name
+     */
+    String getPropertyIgnoreCase(String key) {
+        int index = indexOfIgnoreCase(key);
+
+        if (index < 0) {
+            return null;
+        }
+
+        return getValueAt(index);
+    }
+
+    /**
+     * Gets the index of the last field with a name, ignoring case.
+     *
+     * @param key name of the field
+     *
+     * @return the index or -1 if there is no field with the name
+     */
+    int indexOfIgnoreCase(String key) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (keyEqualsIgnoreCase(i, key)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks the name of a field, ignoring case.
+     *
+     * @param index index of the field
+     * @param key the name
+     *
+     * @return true if the field has the name
+     */
+    boolean keyEqualsIgnoreCase(int index, String key) {
+        return regionEqualsIgnoreCase(bounds[index * BOUNDS],
+                   bounds[index * BOUNDS + 1], key);
+    }
+
+    /**
+     * Checks the value of a field, ignoring case.
+     *
+     * @param index index of the field
+     * @param value the value
+     *
+     * @return true if the field has the value
+     */
+    boolean valueEqualsIgnoreCase(int index, String value) {
+        return regionEqualsIgnoreCase(bounds[index * BOUNDS + 2],
+                   bounds[index * BOUNDS + 3], value);
+    }
+
+    /**
+     * Gets the value of a field as a number.
+     *
+     * @param index index of the field
+     *
+     * @return the number or -1 if the value is not a non-negative number
+     */
+    int getIntValueAt(int index) {
+        int start = bounds[index * BOUNDS + 2];
+        int end = bounds[index * BOUNDS + 3];
+        int value = 0;
+
+        if (start == end) {
+            return -1;
+        }
+
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+
+            if (digit < 0 || digit > 9 ||
+                    value > (Integer.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * Gets the number of bytes of the fields.
+     *
+     * @return the number of bytes
+     */
+    int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Throws an exception for an index that is not a field.
+     *
+     * @param index the index
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    /**
+     * Compares bytes of the data with a string, ignoring case.
+     *
+     * @param start start of the bytes
+     * @param end end of the bytes
+     * @param s the string
+     *
+     * @return true if the bytes are the characters of the string
+     */
+    private boolean regionEqualsIgnoreCase(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+
+        for (int i = 0; start < end; i++, start++) {
+            char c1 = (char)(data[start] & 0xff);
+            char c2 = s.charAt(i);
+
+            if (c1 != c2 &&
+                    Character.toUpperCase(c1) != Character.toUpperCase(c2) &&
+                    Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates a string of bytes, each byte is a character.
+     *
+     * @param b the bytes
+     * @param start start of the bytes
+     * @param end end of the bytes
+     *
+     * @return the string
+     */
+    static String newString(byte[] b, int start, int end) {
+        char[] chars = new char[end - start];
+
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char)(b[start + i] & 0xff);
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * The input stream of an HTTP connection. The bytes read from the network
+ * are buffered with the connection instead of the request, so bytes read
+ * ahead while parsing one response are still there for the next response
+ * of a persistent connection. Response lines and chunk sizes are parsed
+ * directly from the buffer instead of a byte at a time from the network.
+ */
+class ResponseInputStream extends DataInputStream {
+    /** Stream the bytes are read from. */
+    private InputStream network;
+    /** Bytes read from the network and not read from this stream yet. */
+    private byte[] buf;
+    /** Position of the next byte to read in the buffer. */
+    private int pos;
+    /** Number of valid bytes in the buffer. */
+    private int count;
+    /** Bytes of the last line read, without the CR and LF. */
+    private byte[] line = new byte[64];
+    /** Position after the chunk size line found by scanChunkSize. */
+    private int chunkSizeEnd;
+
+    /**
+     * Creates a buffered stream. Reading response lines does not read
+     * ahead more bytes than the buffer can hold, so with a buffer of one
+     * byte nothing after the last line read is taken from the network.
+     *
+     * @param network stream to read the bytes from
+     * @param size size of the buffer
+     */
+    ResponseInputStream(InputStream network, int size) {
+        super(network);
+
+        this.network = network;
+        buf = new byte[Math.max(1, size)];
+
+        // the final read methods of DataInputStream use the "in" stream
+        in = new InputStream() {
+            public int read() throws IOException {
+                return readBuffered();
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                return readBuffered(b, off, len);
+            }
+
+            public long skip(long n) throws IOException {
+                return skipBuffered(n);
+            }
+
+            public int available() throws IOException {
+                return (count - pos) + ResponseInputStream.this.network.
+                    available();
+            }
+
+            public void close() throws IOException {
+                ResponseInputStream.this.network.close();
+            }
+        };
+    }
+
+    /**
+     * Reads more bytes from the network into the buffer. The bytes not
+     * read yet are moved to the start of the buffer first.
+     *
+     * @return the number of bytes read or -1 at the end of the stream
+     *
+     * @exception IOException if an I/O error occurs
+     */
+    private int fill() throws IOException {
+        int rc;
+
+        if (pos == count) {
+            pos = 0;
+            count = 0;
+        } else if (count == buf.length) {
+            count -= pos;
+            System.arraycopy(buf, pos, buf, 0, count);
+            pos = 0;
+        }
+
+        rc = network.read(buf, count, buf.length - count);
+        if (rc > 0) {
+            count += rc;
+        }
+
+        return rc;
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return the byte or -1 at the end of the stream
+     *
+     * @exception IOException if an I/O error occurs
+     */
+    private int readBuffered() throws IOException {
+        if (pos == count && fill() <= 0) {
+            return -1;
+        }
+
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * Reads bytes into an array. When the buffer is empty a read as
+     * large as the buffer goes straight to the network.
+     *
+     * @param b the array
+     * @param off offset in the array of the first byte
+     * @param len maximum number of bytes to read
+     *
+     * @return the number of bytes read or -1 at the end of the stream
+     *
+     * @exception IOException if an I/O error occurs
+     */
+    private int readBuffered(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (pos == count) {
+            if (len >= buf.length) {
+                return network.read(b, off, len);
+            }
+
+            if (fill() <= 0) {
+                return -1;
+            }
+        }
+
+        if (len > count - pos) {
+            len = count - pos;
+        }
+
+        System.arraycopy(buf, pos, b, off, len);
+        pos += len;
+        return len;
+    }
+
+    /**
+     * Skips bytes.
+     *
+     * @param n number of bytes to skip
+     *
+     * @return the number of bytes skipped
+     *
+     * @exception IOException if an I/O error occurs
+     */
+    private long skipBuffered(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+
+        if (pos == count) {
+            return network.skip(n);
+        }
+
+        if (n > count - pos) {
+            n = count - pos;
+        }
+
+        pos += (int)n;
+        return n;
+    }
+
+    /**
+     * Reads a line ending with LF. The CR characters of the line are
+     * dropped. The bytes of the line are kept until the next line is read.
+     *
+     * @return the length of the line or -1 if the stream ended first
+     *
+     * @exception IOException if an I/O error occurs
+     *
+     * @see #getLine
+     */
+    int readResponseLine() throws IOException {
+        int length = 0;
+
+        for (;;) {
+            if (pos == count && fill() <= 0) {
+                return -1;
+            }
+
+            while (pos < count) {
+                byte b = buf[pos++];
+
+                if (b == '\n') {
+                    return length;
+                }
+
+                if (b != '\r') {
+                    if (length == line.length) {
+                        byte[] temp = new byte[length * 2];
+                        System.arraycopy(line, 0, temp, 0, length);
+                        line = temp;
+                    }
+
+                    line[length++] = b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the bytes of the last line read.
+     *
+     * @return array with the line at the start
+     */
+    byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * Reads the size line of a chunk, a hex number that can be followed by
+     * extensions, which are ignored.
+     * Unlike a response line, bytes after the size line can be read into
+     * the buffer even with a buffer of one byte, which grows to hold it.
+     *
+     * @param endOfChunk true to read the CRLF ending the previous chunk
+     *                   first
+     * @param block false to return -1 instead of waiting for the network
+     *
+     * @return the size of the chunk, or -1 if it could not be read without
+     *         blocking
+     *
+     * @exception IOException if an I/O error occurs or the size line is
+     *                        not valid
+     */
+    int readChunkSize(boolean endOfChunk, boolean block) throws IOException {
+        for (;;) {
+            int size = scanChunkSize(endOfChunk);
+
+            if (size >= 0) {
+                pos = chunkSizeEnd;
+                return size;
+            }
+
+            if (pos == 0 && count == buf.length) {
+                if (!block) {
+                    return -1;
+                }
+
+                // the size line is longer than the buffer
+                byte[] temp = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, temp, 0, count);
+                buf = temp;
+            }
+
+            if (!block && network.available() <= 0) {
+                return -1;
+            }
+
+            if (fill() <= 0) {
+                throw new IOException("No Chunk Size");
+            }
+        }
+    }
+
+    /**
+     * Parses a chunk size line in the buffer without reading it.
+     *
+     * @param endOfChunk true if the CRLF ending the previous chunk comes
+     *                   first
+     *
+     * @return the size of the chunk or -1 if the line is not all in the
+     *         buffer
+     *
+     * @exception IOException if the size line is not valid
+     */
+    private int scanChunkSize(boolean endOfChunk) throws IOException {
+        int i = pos;
+        int size = 0;
+        int digits = 0;
+
+        if (endOfChunk) {
+            if (i == count) {
+                return -1;
+            }
+
+            if (buf[i] == '\r') {
+                if (++i == count) {
+                    return -1;
+                }
+
+                if (buf[i] != '\n') {
+                    throw new IOException(
+                        "missing the LF of an expected CRLF");
+                }
+
+                i++;
+            } else if (buf[i] == '\n') {
+                i++;
+            }
+        }
+
+        for (; i < count; i++) {
+            int digit = Character.digit((char)buf[i], 16);
+
+            if (digit < 0) {
+                break;
+            }
+
+            if (size > (Integer.MAX_VALUE >> 4)) {
+                throw new IOException("invalid chunk size number format");
+            }
+
+            size = (size << 4) + digit;
+            digits++;
+        }
+
+        // skip the extensions
+        while (i < count && buf[i] != '\n') {
+            i++;
+        }
+
+        if (i == count) {
+            return -1;
+        }
+
+        if (digits == 0) {
+            throw new IOException("invalid chunk size number format");
+        }
+
+        chunkSizeEnd = i + 1;
+        return size;
+    }
+}
@@ -27,6 +27,7 @@
 package com.sun.midp.io.j2me.http;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.DataInputStream;
@@ -38,6 +39,8 @@ import java.util.Enumeration;
 import javax.microedition.io.StreamConnection;
 import javax.microedition.io.Connector;
 
+import com.sun.midp.io.j2me.socket.SelectorKey;
+
 import com.sun.midp.log.Logging;
 import com.sun.midp.log.LogChannels;
 
@@ -46,6 +49,11 @@ import com.sun.midp.log.LogChannels;
  * for an HTTP connection pool element container. Each
  * element contains appropriate http connection information
  * including a reference to the underlying socket stream connection.
+ *
+ * <p> Several requests can be outstanding on one element when requests
+ * are pipelined. Each request takes a ticket when its header is written
+ * and reads its response only when its ticket is being served, so the
+ * responses are read in the order the requests were sent.
  * 
  * @version 1.0
  */
@@ -64,12 +72,38 @@ public class StreamConnectionElement
     private DataInputStream             m_data_input_stream;
     /** Output stream to http server. */
     private DataOutputStream            m_data_output_stream;
-    /** In use flag. */
+    /** In use flag, true while any request is outstanding. */
     boolean                   m_in_use;
     /** Start time in milliseconds. */
     long                      m_time;
     /** Removed from pool flag while in use. (lingered too long) */
     boolean m_removed;
+    /** Pool key of the element, protocol, host and port. */
+    String m_key;
+    /** Number of requests sent or being sent and not yet finished. */
+    int m_outstanding;
+    /** Ticket of the next request written to the connection. */
+    int m_nextTicket;
+    /** Ticket of the request whose response can be read now. */
+    int m_servingTicket;
+    /**
+     * Ticket of the first request whose response will not be read,
+     * requests with later tickets can not be served.
+     */
+    int m_brokenTicket = Integer.MAX_VALUE;
+    /** True if more requests may be pipelined behind the current ones. */
+    boolean m_pipelinable;
+    /**
+     * True until the request that opened the connection for pipelining
+     * is written or fails.
+     */
+    boolean m_opening;
+    /** How long the connection can stay idle in the pool. */
+    long m_idleTimeout;
+    /** Requests the server still accepts on the connection, -1 if any. */
+    int m_requestsLeft = -1;
+    /** Selector key watching the connection while idle, null if none. */
+    SelectorKey m_idleKey;
     
     /**
      * Create a new instance of this class.
@@ -94,6 +128,56 @@ public class StreamConnectionElement
         m_data_output_stream = p_dos;
         m_data_input_stream = p_dis;
         m_time = System.currentTimeMillis();
+
+        // the element is created for the request that opened it
+        m_in_use = true;
+        m_outstanding = 1;
+    }
+
+    /**
+     * Waits until the response of a request can be read.
+     *
+     * @param ticket ticket of the request
+     *
+     * @exception InterruptedIOException if the thread is interrupted
+     * @exception IOException if an earlier request dropped the connection,
+     *            so the response will never be read
+     */
+    synchronized void waitForTurn(int ticket) throws IOException {
+        while (ticket != m_servingTicket && ticket < m_brokenTicket) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                throw new InterruptedIOException(
+                    "Interrupted while waiting for a pipelined response");
+            }
+        }
+
+        if (ticket > m_brokenTicket) {
+            throw new IOException("Pipelined connection dropped");
+        }
+    }
+
+    /**
+     * Finishes a request and lets the next pipelined one read its response.
+     *
+     * @param ticket ticket of the finished request
+     * @param broken true if the response of the request was not read
+     *               completely, so the connection can not serve later
+     *               requests
+     */
+    synchronized void finishRequest(int ticket, boolean broken) {
+        m_outstanding--;
+
+        if (broken) {
+            if (ticket < m_brokenTicket) {
+                m_brokenTicket = ticket;
+            }
+        } else if (ticket == m_servingTicket) {
+            m_servingTicket++;
+        }
+
+        notifyAll();
     }
 
     /**
@@ -57,13 +57,21 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 
 import java.util.Vector;
+import java.util.Hashtable;
 import java.util.Enumeration;
 
 import javax.microedition.io.StreamConnection;
 
+import com.sun.midp.io.j2me.socket.SelectorKey;
+import com.sun.midp.io.j2me.socket.SelectorListener;
+import com.sun.midp.io.j2me.socket.SocketSelector;
+
 import com.sun.midp.security.Permissions;
 import com.sun.midp.security.SecurityToken;
 
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
 /**
  * This class implements the necessary functionality for the HTTP persistent
  * connection pool. This class contains individual http connection elements
@@ -72,16 +80,60 @@ import com.sun.midp.security.SecurityToken;
  * another http connection session or the same one. This reduces the connection
  * time for each subsequent connection.
  *
+ * <p> Elements are kept in per host lists, so finding a connection does
+ * not scan the connections to other hosts. Idle connections are evicted
+ * after the idle timeout, which the server may shorten with a Keep-Alive
+ * header. When all the connections a host may have are busy, idempotent
+ * requests can be pipelined behind the requests already sent on one of
+ * them.
+ *
+ * <p> With a socket selector, idle socket connections are watched and
+ * evicted as soon as the server closes them, instead of failing the
+ * next request sent on them.
+ *
  * @version 1.0
  *
  */
 public class StreamConnectionPool {
     /** How long a connection can linger after its last use. */
     private long m_connectionLingerTime;
-    /** internal connection hash table */
-    private Vector m_connections;
+    /** How long a connection can stay idle in the pool. */
+    private long m_idleTimeout;
+    /** Lists of connection elements, by protocol, host and port. */
+    private Hashtable m_hosts;
+    /** Number of connections in the pool. */
+    private int m_count;
+    /** Number of connections being opened, by protocol, host and port. */
+    private Hashtable m_opening;
     /** maximum connections */
     private int m_max_connections;
+    /** Maximum connections to one host. */
+    private int m_max_host_connections;
+    /** Maximum requests outstanding on one connection. */
+    private int m_pipeline_depth;
+    /** When the next connection in the pool may expire. */
+    private long m_nextExpiration = Long.MAX_VALUE;
+
+    /** Number of requests that reused an idle connection. */
+    private int m_hits;
+    /** Number of new connections put in the pool. */
+    private int m_misses;
+    /** Number of requests pipelined on a busy connection. */
+    private int m_pipelined;
+    /** Number of connections evicted because they expired. */
+    private int m_evictions;
+    /** Number of idle connections the server closed. */
+    private int m_serverClosed;
+
+    /** Selector watching the idle connections, null if none. */
+    private SocketSelector m_selector;
+
+    /** Evicts the idle connections that become readable. */
+    private final SelectorListener m_idleListener = new SelectorListener() {
+        public void socketReady(SelectorKey key, int readyOps) {
+            idleConnectionReady(key);
+        }
+    };
 
     /**
      * Create a new instance of this class.
@@ -90,20 +142,48 @@ public class StreamConnectionPool {
      *
      * @param number_of_connections initial number of connections 
      *       must greater than zero.
+     * @param connections_per_host maximum number of connections to
+     *       one host
      * @param connectionLingerTime how many milliseconds a connection should
      *       stay in the pool after its last use
+     * @param idleTimeout how many milliseconds a connection that is not
+     *       in use should stay in the pool
+     * @param pipeline_depth maximum number of requests outstanding on
+     *       one connection, less than 2 turns pipelining off
      */
     StreamConnectionPool(int number_of_connections,
-                         long connectionLingerTime) {
+                         int connections_per_host,
+                         long connectionLingerTime,
+                         long idleTimeout,
+                         int pipeline_depth) {
         this.m_max_connections = number_of_connections;
+        this.m_max_host_connections = connections_per_host;
         this.m_connectionLingerTime = connectionLingerTime;
-        m_connections = new Vector(m_max_connections);
+        this.m_idleTimeout = idleTimeout;
+        this.m_pipeline_depth = pipeline_depth;
+        m_hosts = new Hashtable();
+        m_opening = new Hashtable();
+    }
+
+    /**
+     * Returns the key of the connections to a host.
+     *
+     * @param p_protocol            The protocol for the connection
+     * @param p_host                The Hostname for the connection
+     * @param p_port                The port number for the connection
+     *
+     * @return key of the host's connection list
+     */
+    private static String getKey(String p_protocol, String p_host,
+                                 int p_port) {
+        return p_protocol + "://" + p_host + ":" + p_port;
     }
     
     /**
-     * Tries to add a reuseable connection to the connection pool.
-     * Replace any not in use connections to the same host and port.
-     * Will not add to the same host and port in use. Will replace
+     * Tries to add a connection to the connection pool. The connection
+     * is in use by the request that opened it.
+     * Replaces the oldest not in use connection to the same host and
+     * port if the host has the maximum number of connections, or the
      * oldest not in use element (if any) if the pool is full.
      * 
      * @param p_protocol            The protocol for the connection
@@ -114,73 +194,151 @@ public class StreamConnectionPool {
      *                                connection
      * @param dis                   The data input stream from the base
      *                                connection
+     * @param opened                true if the connection was opened after
+     *                                {@link #getPipelined} returned null
      *
-     * @return true if the connection was added, otherwise false
+     * @return the new element or null if the connection was not added
      */
-    synchronized boolean add(String p_protocol,
+    synchronized StreamConnectionElement add(String p_protocol,
             String p_host, int p_port, StreamConnection sc,
-            DataOutputStream dos, DataInputStream dis) {
+            DataOutputStream dos, DataInputStream dis, boolean opened) {
 
-        StreamConnectionElement oldestNotInUse = null;
+        String key = getKey(p_protocol, p_host, p_port);
+        Vector host = (Vector)m_hosts.get(key);
 
-        // find the last unused element
-        Enumeration cons = m_connections.elements();
-        while (cons.hasMoreElements()) {
-            StreamConnectionElement sce =
-                (StreamConnectionElement)cons.nextElement();
+        if (opened) {
+            release(key);
+        }
 
-            if (sce.m_in_use) {
-                if (p_host.equals(sce.m_host) && p_port == sce.m_port) {
-                    return false;
-                }
+        evictExpired(System.currentTimeMillis());
 
-                continue;
+        if (host != null && host.size() >= m_max_host_connections) {
+            StreamConnectionElement oldest = findOldestNotInUse(host);
+
+            if (oldest == null) {
+                return null;
             }
 
-            // if the connection is a duplicate, delete it
-            if (p_host.equals(sce.m_host) && p_port == sce.m_port) {
-                // no protocol duplicates on host and port
-                sce.close();
-                m_connections.removeElement(sce);
-                break;
-            } else {
-                if (oldestNotInUse == null ||
-                    sce.m_time < oldestNotInUse.m_time) {
+            remove(oldest);
+        }
+
+        if (m_count >= m_max_connections) {
+            StreamConnectionElement oldestNotInUse = null;
+
+            Enumeration hosts = m_hosts.elements();
+            while (hosts.hasMoreElements()) {
+                StreamConnectionElement sce =
+                    findOldestNotInUse((Vector)hosts.nextElement());
+
+                if (sce != null && (oldestNotInUse == null ||
+                        sce.m_time < oldestNotInUse.m_time)) {
                     // save the oldest not in use, it may be removed later
                     oldestNotInUse = sce;
                 }
             }
-        }
 
-        /*
-         * first check and see if the maximum number of connections
-         * has been reached - if so delete the first one in the list (FIFO)
-         *   or
-         * if this port and host are already in the pool.
-         */
-        if (m_connections.size() >= m_max_connections) {
             if (oldestNotInUse == null) {
-                return false;
+                return null;
             }
 
-            oldestNotInUse.close();
-            m_connections.removeElement(oldestNotInUse);
+            remove(oldestNotInUse);
         }
      
-        m_connections.addElement(new StreamConnectionElement(p_protocol,
-                          p_host, p_port, sc, dos, dis));
-        return true;
+        StreamConnectionElement result = new StreamConnectionElement(
+            p_protocol, p_host, p_port, sc, dos, dis);
+
+        result.m_key = key;
+        result.m_idleTimeout = m_idleTimeout;
+        result.m_opening = opened;
+
+        host = (Vector)m_hosts.get(key);
+        if (host == null) {
+            host = new Vector(m_max_host_connections);
+            m_hosts.put(key, host);
+        }
+
+        host.addElement(result);
+        m_count++;
+        m_misses++;
+        updateExpiration(result);
+        return result;
+    }
+
+    /**
+     * Finds the oldest element not in use.
+     *
+     * @param host list of the connection elements to a host
+     *
+     * @return oldest element that is not in use or null
+     */
+    private static StreamConnectionElement findOldestNotInUse(Vector host) {
+        StreamConnectionElement result = null;
+
+        for (int i = 0; i < host.size(); i++) {
+            StreamConnectionElement sce =
+                (StreamConnectionElement)host.elementAt(i);
+
+            if (!sce.m_in_use &&
+                    (result == null || sce.m_time < result.m_time)) {
+                result = sce;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes an element from the pool, closing it unless a request
+     * is still outstanding on it.
+     *
+     * @param sce                 The stream connection element to remove
+     */
+    private void remove(StreamConnectionElement sce) {
+        Vector host = (Vector)m_hosts.get(sce.m_key);
+
+        unwatchIdle(sce);
+
+        if (host != null && host.removeElement(sce)) {
+            m_count--;
+            if (host.isEmpty()) {
+                m_hosts.remove(sce.m_key);
+            }
+        }
+
+        if (sce.m_outstanding == 0) {
+            sce.close();
+        } else {
+            // signal returnForReuse() to close
+            sce.m_removed = true;
+        }
     }
     
     /**
+     * Finish a request whose response was not read completely.
      * Close connection and remove an instance of the stream connection
-     * element from the connection pool.
+     * element from the connection pool. If the response of an earlier
+     * pipelined request is still being read, the connection is closed
+     * after that.
      *
      * @param sce                 The stream connection element to remove
+     * @param ticket              Ticket of the request
      */
-    synchronized void remove(StreamConnectionElement sce) {
-	sce.close();
-        m_connections.removeElement(sce);
+    synchronized void remove(StreamConnectionElement sce, int ticket) {
+        boolean reading = (ticket == sce.m_servingTicket);
+
+        sce.finishRequest(ticket, true);
+        sce.m_opening = false;
+        remove(sce);
+        notifyAll();
+
+        if (reading) {
+            // no earlier response left to read, fail the later requests now
+            sce.close();
+        }
+
+        if (sce.m_outstanding == 0) {
+            sce.m_in_use = false;
+        }
     }
     
     /**
@@ -202,52 +360,251 @@ public class StreamConnectionPool {
             String p_protocol, String p_host, int p_port) {
 
         StreamConnectionElement result = null;
-        long c_time = System.currentTimeMillis();
-        Enumeration cons = m_connections.elements();
 
         callerSecurityToken.checkIfPermissionAllowed(Permissions.MIDP);
 
-        while (cons.hasMoreElements()) {
-            StreamConnectionElement sce =
-                (StreamConnectionElement)cons.nextElement();
-            
-            if ((c_time - sce.m_time) > m_connectionLingerTime) {
-                if (!sce.m_in_use) {
-                    sce.close();
-                } else {
-                    // signal returnToUse() to close
-                    sce.m_removed = true;
+        evictExpired(System.currentTimeMillis());
+
+        return takeIdle(
+            (Vector)m_hosts.get(getKey(p_protocol, p_host, p_port)));
+    }
+
+    /**
+     * Takes the most recently used idle connection to a host.
+     *
+     * @param host list of the connection elements to a host or null
+     *
+     * @return the element or null if there is no idle connection
+     */
+    private StreamConnectionElement takeIdle(Vector host) {
+        StreamConnectionElement result = null;
+
+        if (host != null) {
+            for (int i = 0; i < host.size(); i++) {
+                StreamConnectionElement sce =
+                    (StreamConnectionElement)host.elementAt(i);
+
+                // prefer the most recently used connection
+                if (!sce.m_in_use &&
+                        (result == null || sce.m_time > result.m_time)) {
+                    result = sce;
                 }
+            }
+        }
 
-                m_connections.removeElement(sce);
-                continue;
+        if (result == null) {
+            return null;
+        }
+
+        unwatchIdle(result);
+        m_hits++;
+        result.m_in_use = true;
+        result.m_outstanding++;
+        if (result.m_requestsLeft > 0) {
+            result.m_requestsLeft--;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get a connection for a request that can be pipelined. Returns an
+     * idle connection if there is one. Otherwise, if the host already has
+     * all the connections it may have, returns a connection in use that
+     * accepts more pipelined requests, waiting for one while another
+     * connection to the host is being opened. The caller must write its
+     * request while holding the element's lock and take the element's
+     * next ticket there.
+     * <p>
+     * Null means the caller should open a new connection, the pool counts
+     * it as being opened until it is passed to {@link #add} or
+     * {@link #release}.
+     *
+     * @param callerSecurityToken   The security token of the caller
+     * @param p_protocol            The protocol for the connection
+     * @param p_host                The Hostname for the connection
+     * @param p_port                The port number for the connection
+     *
+     * @return                      A stream connection element or
+     *                              null if not found
+     */
+    synchronized StreamConnectionElement getPipelined(
+            SecurityToken callerSecurityToken,
+            String p_protocol, String p_host, int p_port) {
+
+        String key = getKey(p_protocol, p_host, p_port);
+
+        callerSecurityToken.checkIfPermissionAllowed(Permissions.MIDP);
+
+        evictExpired(System.currentTimeMillis());
+
+        for (;;) {
+            Vector host = (Vector)m_hosts.get(key);
+            StreamConnectionElement result = takeIdle(host);
+
+            if (result != null) {
+                return result;
             }
 
-            if (p_host.equals(sce.m_host) && p_port == sce.m_port &&
-                    p_protocol.equals(sce.m_protocol) && !sce.m_in_use) {
-                result = sce;
+            int[] opening = (int[])m_opening.get(key);
+            int connections = (host == null ? 0 : host.size()) +
+                              (opening == null ? 0 : opening[0]);
 
-                // do not break out so old connections can be removed
-                continue;
+            if (connections < m_max_host_connections) {
+                break;
+            }
+
+            boolean pending = (opening != null);
+
+            result = findPipelinable(host);
+            if (result != null) {
+                m_pipelined++;
+                result.m_outstanding++;
+                if (result.m_requestsLeft > 0) {
+                    result.m_requestsLeft--;
+                }
+
+                return result;
+            }
+
+            for (int i = 0; !pending && host != null && i < host.size();
+                     i++) {
+                pending = ((StreamConnectionElement)host.elementAt(i))
+                          .m_opening;
             }
+
+            if (!pending) {
+                // no connection will accept the request soon
+                break;
+            }
+
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                break;
+            }
+        }
+
+        int[] opening = (int[])m_opening.get(key);
+        if (opening == null) {
+            opening = new int[1];
+            m_opening.put(key, opening);
         }
 
-        if (result != null) {
-            result.m_in_use = true;
+        opening[0]++;
+        return null;
+    }
+
+    /**
+     * Finds the connection in use with the fewest outstanding requests
+     * that accepts another pipelined request.
+     *
+     * @param host list of the connection elements to a host or null
+     *
+     * @return the element or null if there is none
+     */
+    private StreamConnectionElement findPipelinable(Vector host) {
+        StreamConnectionElement result = null;
+
+        if (m_pipeline_depth < 2 || host == null) {
+            return null;
+        }
+
+        for (int i = 0; i < host.size(); i++) {
+            StreamConnectionElement sce =
+                (StreamConnectionElement)host.elementAt(i);
+
+            if (!sce.m_pipelinable || sce.m_removed ||
+                    sce.m_brokenTicket != Integer.MAX_VALUE ||
+                    sce.m_outstanding >= m_pipeline_depth ||
+                    sce.m_requestsLeft == 0) {
+                continue;
+            }
+
+            // spread the requests over the connections
+            if (result == null || sce.m_outstanding < result.m_outstanding) {
+                result = sce;
+            }
         }
 
         return result;
     }
 
+    /**
+     * Called when a connection opened after {@link #getPipelined}
+     * returned null will not be added to the pool.
+     *
+     * @param p_protocol            The protocol for the connection
+     * @param p_host                The Hostname for the connection
+     * @param p_port                The port number for the connection
+     */
+    synchronized void release(String p_protocol, String p_host, int p_port) {
+        release(getKey(p_protocol, p_host, p_port));
+    }
+
+    /**
+     * Stops counting a connection as being opened and wakes up the
+     * requests waiting for it.
+     *
+     * @param key key of the connection's host
+     */
+    private void release(String key) {
+        int[] opening = (int[])m_opening.get(key);
+
+        if (opening != null && --opening[0] == 0) {
+            m_opening.remove(key);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Allows requests to be pipelined behind the ones sent on a
+     * connection. Called after a request that can be pipelined has been
+     * completely written.
+     *
+     * @param sce                 The stream connection element
+     */
+    synchronized void allowPipelining(StreamConnectionElement sce) {
+        sce.m_pipelinable = true;
+        sce.m_opening = false;
+        notifyAll();
+    }
+
     /**
      * Return an instance of the stream connection element to the 
      * connection pool so it can be reused. It is done in the method
      * so it can be synchronized with the get method.
      *
      * @param returned            The stream connection element to return
+     * @param ticket              Ticket of the finished request
+     * @param keepAliveTimeout    How long the server keeps the connection
+     *                            open in milliseconds, or -1 if unknown
+     * @param keepAliveMax        How many more requests the server accepts
+     *                            on the connection, or -1 if unknown
      */
-    synchronized void returnForReuse(StreamConnectionElement returned) {
+    synchronized void returnForReuse(StreamConnectionElement returned,
+            int ticket, long keepAliveTimeout, int keepAliveMax) {
+        returned.finishRequest(ticket, false);
+        returned.m_opening = false;
+        notifyAll();
+
+        if (keepAliveTimeout >= 0 && keepAliveTimeout < m_idleTimeout) {
+            returned.m_idleTimeout = keepAliveTimeout;
+        }
+
+        if (keepAliveMax >= 0) {
+            // requests already pipelined count against the limit
+            returned.m_requestsLeft = Math.max(0, keepAliveMax -
+                (returned.m_nextTicket - returned.m_servingTicket));
+        }
+
+        if (returned.m_outstanding > 0) {
+            return;
+        }
+
         returned.m_in_use = false;
+        returned.m_pipelinable = false;
 
         if (returned.m_removed) {
             // the connection was out too long
@@ -256,5 +613,205 @@ public class StreamConnectionPool {
         }
 
         returned.m_time = System.currentTimeMillis();
+
+        if (returned.m_requestsLeft == 0) {
+            // the server will not accept another request
+            remove(returned);
+            return;
+        }
+
+        updateExpiration(returned);
+        watchIdle(returned);
+    }
+
+    /**
+     * Sets the selector that watches the idle socket connections, so the
+     * ones the server closes are evicted right away.
+     *
+     * @param selector socket selector or null to stop watching
+     */
+    synchronized void setSelector(SocketSelector selector) {
+        m_selector = selector;
+    }
+
+    /**
+     * Starts watching an idle connection if it is a socket connection.
+     * An idle connection has no response to read, so it becomes readable
+     * only when the server closes it or breaks the protocol.
+     *
+     * @param sce                 The stream connection element
+     */
+    private void watchIdle(StreamConnectionElement sce) {
+        StreamConnection base = sce.getBaseConnection();
+
+        if (m_selector == null ||
+                !(base instanceof com.sun.midp.io.j2me.socket.Protocol)) {
+            return;
+        }
+
+        try {
+            sce.m_idleKey = m_selector.register(
+                (com.sun.midp.io.j2me.socket.Protocol)base,
+                SocketSelector.OP_READ, m_idleListener);
+            sce.m_idleKey.attach(sce);
+        } catch (IOException ioe) {
+            // the connection is closed, it is evicted when it expires
+        } catch (IllegalStateException ise) {
+            // already watched by someone else, leave it alone
+        }
+    }
+
+    /**
+     * Stops watching a connection that is taken or removed.
+     *
+     * @param sce                 The stream connection element
+     */
+    private static void unwatchIdle(StreamConnectionElement sce) {
+        if (sce.m_idleKey != null) {
+            sce.m_idleKey.cancel();
+            sce.m_idleKey = null;
+        }
+    }
+
+    /**
+     * Evicts an idle connection that became readable. Called on the I/O
+     * thread of the selector.
+     *
+     * @param key selector key of the connection
+     */
+    private synchronized void idleConnectionReady(SelectorKey key) {
+        StreamConnectionElement sce =
+            (StreamConnectionElement)key.attachment();
+
+        key.cancel();
+
+        if (sce.m_idleKey != key) {
+            // taken by a request meanwhile
+            return;
+        }
+
+        sce.m_idleKey = null;
+        m_serverClosed++;
+        remove(sce);
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_PROTOCOL,
+                "HTTP connection pool: server closed idle connection to " +
+                sce.m_key);
+        }
+    }
+
+    /**
+     * Takes the expiration time of an element into account for the
+     * next eviction.
+     *
+     * @param sce                 The stream connection element
+     */
+    private void updateExpiration(StreamConnectionElement sce) {
+        long expiration = sce.m_time + Math.min(sce.m_idleTimeout,
+                                                m_connectionLingerTime);
+
+        if (expiration < m_nextExpiration) {
+            m_nextExpiration = expiration;
+        }
+    }
+
+    /**
+     * Removes the connections that stayed idle too long and marks the
+     * ones in use too long, so they are not reused. Does nothing until
+     * the first connection can expire.
+     *
+     * @param c_time current time in milliseconds
+     */
+    private void evictExpired(long c_time) {
+        if (c_time <= m_nextExpiration) {
+            return;
+        }
+
+        m_nextExpiration = Long.MAX_VALUE;
+
+        Enumeration hosts = m_hosts.elements();
+        while (hosts.hasMoreElements()) {
+            Vector host = (Vector)hosts.nextElement();
+
+            for (int i = host.size() - 1; i >= 0; i--) {
+                StreamConnectionElement sce =
+                    (StreamConnectionElement)host.elementAt(i);
+                long idle = c_time - sce.m_time;
+
+                if (idle > m_connectionLingerTime ||
+                        (!sce.m_in_use && idle > sce.m_idleTimeout)) {
+                    m_evictions++;
+                    remove(sce);
+                    continue;
+                }
+
+                updateExpiration(sce);
+            }
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_PROTOCOL,
+                "HTTP connection pool: " + m_count + " connections, " +
+                m_hits + " hits, " + m_misses + " misses, " +
+                m_pipelined + " pipelined, " + m_evictions + " evicted, " +
+                m_serverClosed + " closed by server");
+        }
+    }
+
+    /**
+     * Gets the number of connections in the pool.
+     *
+     * @return number of connections
+     */
+    synchronized int getConnectionCount() {
+        return m_count;
+    }
+
+    /**
+     * Gets the number of requests that reused an idle connection.
+     *
+     * @return number of hits
+     */
+    synchronized int getHits() {
+        return m_hits;
+    }
+
+    /**
+     * Gets the number of new connections put in the pool, the requests
+     * that could not reuse one.
+     *
+     * @return number of misses
+     */
+    synchronized int getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * Gets the number of requests pipelined on a busy connection.
+     *
+     * @return number of pipelined requests
+     */
+    synchronized int getPipelined() {
+        return m_pipelined;
+    }
+
+    /**
+     * Gets the number of idle connections evicted because the server
+     * closed them.
+     *
+     * @return number of connections closed by the server
+     */
+    synchronized int getServerClosed() {
+        return m_serverClosed;
+    }
+
+    /**
+     * Gets the number of connections evicted because they expired.
+     *
+     * @return number of evictions
+     */
+    synchronized int getEvictions() {
+        return m_evictions;
     }
 }
@@ -0,0 +1,207 @@
+/*
+ *  
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the HTTP response cache: freshness, cacheability, revalidation
+ * and the per suite budget.
+ */
+public class TestResponseCache extends TestCase {
+
+    /** Time the test responses were received. */
+    static final long NOW = 1000000000000L;
+
+    /**
+     * Creates header fields.
+     *
+     * @param fields names and values of the fields
+     *
+     * @return the header fields
+     */
+    static ResponseHeaders headers(String[] fields) {
+        ResponseHeaders headers = new ResponseHeaders();
+
+        for (int i = 0; i < fields.length; i += 2) {
+            headers.addField(fields[i], fields[i + 1]);
+        }
+
+        return headers;
+    }
+
+    /**
+     * Creates a cached response.
+     *
+     * @param key cache key of the response
+     * @param suiteId ID of the suite that requested the response
+     * @param headers header fields of the response
+     * @param length length of the content
+     *
+     * @return the response
+     */
+    static CachedResponse response(String key, int suiteId,
+                                   ResponseHeaders headers, int length) {
+        return new CachedResponse(key, suiteId, 200, "OK", "HTTP/1.1",
+                                  headers, new byte[length], NOW);
+    }
+
+    /**
+     * Tests the freshness lifetime from Cache-Control and Expires.
+     */
+    void testFreshness() {
+        CachedResponse r = response("a", 1,
+            headers(new String[] {"Cache-Control", "public, max-age=60"}), 0);
+        assertTrue("fresh", r.isFresh(NOW + 59000));
+        assertFalse("stale", r.isFresh(NOW + 60000));
+
+        r = response("a", 1, headers(new String[] {
+            "Cache-Control", "max-age=60", "Age", "30"}), 0);
+        assertTrue("fresh with age", r.isFresh(NOW + 29000));
+        assertFalse("stale with age", r.isFresh(NOW + 30000));
+
+        r = response("a", 1, headers(new String[] {
+            "Cache-Control", "no-cache, max-age=60", "ETag", "\"1\""}), 0);
+        assertFalse("no-cache", r.isFresh(NOW));
+        assertTrue("validator", r.hasValidator());
+
+        r = response("a", 1, headers(new String[] {
+            "Expires", "Thu, 01 Jan 1970 00:00:00 GMT"}), 0);
+        assertFalse("expired", r.isFresh(NOW));
+
+        r = response("a", 1, headers(new String[] {"Expires", "0"}), 0);
+        assertFalse("invalid expires", r.isFresh(NOW));
+        assertFalse("no validator", r.hasValidator());
+    }
+
+    /**
+     * Tests which responses can be cached.
+     */
+    void testCacheable() {
+        assertTrue("max-age", CachedResponse.isCacheable(200,
+            headers(new String[] {"Cache-Control", "max-age=60"})));
+        assertTrue("etag", CachedResponse.isCacheable(200,
+            headers(new String[] {"ETag", "\"1\""})));
+        assertFalse("no headers", CachedResponse.isCacheable(200,
+            headers(new String[0])));
+        assertFalse("status", CachedResponse.isCacheable(404,
+            headers(new String[] {"Cache-Control", "max-age=60"})));
+        assertFalse("no-store", CachedResponse.isCacheable(200,
+            headers(new String[] {"Cache-Control", "no-store, max-age=60"})));
+        assertFalse("vary", CachedResponse.isCacheable(200,
+            headers(new String[] {"Cache-Control", "max-age=60",
+                                  "Vary", "User-Agent"})));
+        assertTrue("vary encoding", CachedResponse.isCacheable(200,
+            headers(new String[] {"Cache-Control", "max-age=60",
+                                  "Vary", "Accept-Encoding"})));
+        assertFalse("cookie", CachedResponse.isCacheable(200,
+            headers(new String[] {"Cache-Control", "max-age=60",
+                                  "Set-Cookie", "a=b"})));
+
+        assertFalse("directive prefix", CachedResponse.hasDirective(
+            "no-store-x", "no-store"));
+    }
+
+    /**
+     * Tests that a 304 response updates the header fields and the
+     * freshness but keeps the content.
+     */
+    void testRevalidate() {
+        CachedResponse r = response("a", 1, headers(new String[] {
+            "Cache-Control", "max-age=0", "ETag", "\"1\"",
+            "Content-Length", "10", "Content-Type", "text/plain"}), 10);
+        assertFalse("stale", r.isFresh(NOW));
+
+        CachedResponse updated = r.revalidate(headers(new String[] {
+            "Cache-Control", "max-age=60", "ETag", "\"2\"",
+            "Content-Length", "0"}), NOW + 1000);
+
+        assertTrue("fresh", updated.isFresh(NOW + 1000));
+        assertSame("content", r.content, updated.content);
+        assertEquals("etag", "\"2\"",
+                     updated.headers.getPropertyIgnoreCase("etag"));
+        assertEquals("length", "10",
+                     updated.headers.getPropertyIgnoreCase("content-length"));
+        assertEquals("type", "text/plain",
+                     updated.headers.getPropertyIgnoreCase("content-type"));
+        assertEquals("old etag", "\"1\"",
+                     r.headers.getPropertyIgnoreCase("etag"));
+    }
+
+    /**
+     * Tests that a suite over its budget loses its least recently used
+     * responses and not the responses of other suites.
+     */
+    void testEviction() {
+        ResponseCache cache = new ResponseCache(4000);
+        ResponseHeaders fresh =
+            headers(new String[] {"Cache-Control", "max-age=60"});
+
+        cache.put(response("other", 2, fresh, 800));
+        cache.put(response("a", 1, fresh, 800));
+        cache.put(response("b", 1, fresh, 800));
+        cache.put(response("c", 1, fresh, 800));
+        cache.put(response("d", 1, fresh, 800));
+
+        // use "a" so "b" is the least recently used of suite 1
+        assertNotNull("a", cache.get("a", NOW));
+        cache.put(response("e", 1, fresh, 800));
+
+        assertNull("b evicted", cache.get("b", NOW));
+        assertNotNull("a kept", cache.get("a", NOW));
+        assertNotNull("c kept", cache.get("c", NOW));
+        assertNotNull("d kept", cache.get("d", NOW));
+        assertNotNull("e kept", cache.get("e", NOW));
+        assertNotNull("other suite kept", cache.get("other", NOW));
+        assertEquals("evictions", 1, cache.getEvictions());
+
+        cache.put(response("big", 1, fresh, 1001));
+        assertNull("too big", cache.get("big", NOW));
+
+        // a stale response without a validator is dropped
+        assertNull("stale", cache.get("a", NOW + 60000));
+        assertEquals("hits", 6, cache.getHits());
+        assertEquals("misses", 3, cache.getMisses());
+    }
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testFreshness");
+        testFreshness();
+
+        declare("testCacheable");
+        testCacheable();
+
+        declare("testRevalidate");
+        testRevalidate();
+
+        declare("testEviction");
+        testEviction();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ *  
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests parsing responses from the buffered connection stream: lines,
+ * chunk sizes with and without blocking and the indexed header fields.
+ */
+public class TestResponseInputStream extends TestCase {
+
+    /**
+     * A stream that returns its bytes a few at a time and tells how many
+     * can be read without blocking.
+     */
+    static class TrickleInputStream extends InputStream {
+        /** Bytes of the stream. */
+        byte[] data;
+        /** Position of the next byte. */
+        int pos;
+        /** Bytes that can be read without blocking. */
+        int received;
+
+        /**
+         * Creates a stream.
+         *
+         * @param s the bytes of the stream
+         */
+        TrickleInputStream(String s) {
+            data = s.getBytes();
+        }
+
+        public int read() {
+            byte[] b = new byte[1];
+
+            return (read(b, 0, 1) < 0 ? -1 : b[0] & 0xff);
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (pos == data.length) {
+                return -1;
+            }
+
+            // at most 3 bytes, only received ones if there are some
+            len = Math.min(Math.min(len, 3),
+                           (received > pos ? received : data.length) - pos);
+            System.arraycopy(data, pos, b, off, len);
+            pos += len;
+            received = Math.max(received, pos);
+            return len;
+        }
+
+        public int available() {
+            return received - pos;
+        }
+    }
+
+    /**
+     * Creates a buffered stream.
+     *
+     * @param s the bytes of the stream
+     * @param size size of the buffer
+     *
+     * @return the stream
+     */
+    static ResponseInputStream stream(String s, int size) {
+        return new ResponseInputStream(
+            new ByteArrayInputStream(s.getBytes()), size);
+    }
+
+    /**
+     * Gets the last line read as a string.
+     *
+     * @param in the stream
+     * @param length length of the line
+     *
+     * @return the line
+     */
+    static String line(ResponseInputStream in, int length) {
+        return ResponseHeaders.newString(in.getLine(), 0, length);
+    }
+
+    /**
+     * Tests reading lines and that the bytes after them can still be read.
+     */
+    void testLines() throws IOException {
+        ResponseInputStream in = stream(
+            "HTTP/1.1 200 OK\r\nlong line " +
+            "with more bytes than the buffer\n\r\nbody", 8);
+
+        int length = in.readResponseLine();
+        assertEquals("status", "HTTP/1.1 200 OK", line(in, length));
+
+        length = in.readResponseLine();
+        assertEquals("long", "long line with more bytes than the buffer",
+                     line(in, length));
+
+        assertEquals("empty", 0, in.readResponseLine());
+
+        // the rest of the buffer, then the network
+        byte[] b = new byte[10];
+        int n = 0;
+        for (int rc; (rc = in.read(b, n, b.length - n)) > 0; ) {
+            n += rc;
+        }
+
+        assertEquals("body", "body", new String(b, 0, n));
+        assertEquals("end", -1, in.readResponseLine());
+    }
+
+    /**
+     * Tests reading chunk sizes with extensions and the CRLF ending a
+     * chunk.
+     */
+    void testChunkSize() throws IOException {
+        ResponseInputStream in = stream(
+            "1a;name=value\r\n" + "abcdefghijklmnopqrstuvwxyz" +
+            "\r\nFF\r\n", 4);
+
+        assertEquals("first", 0x1a, in.readChunkSize(false, true));
+        byte[] chunk = new byte[26];
+        for (int n = 0; n < chunk.length; ) {
+            n += in.read(chunk, n, chunk.length - n);
+        }
+
+        assertEquals("chunk", "abcdefghijklmnopqrstuvwxyz", new String(chunk));
+        assertEquals("second", 0xff, in.readChunkSize(true, true));
+
+        try {
+            stream("\r\nxyz\r\n", 4).readChunkSize(true, true);
+            fail("no digits");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        try {
+            stream("\r", 4).readChunkSize(true, true);
+            fail("no size");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        try {
+            stream("\r\n123456789\r\n", 4).readChunkSize(true, true);
+            fail("too big");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that a chunk size is not read before all of it is received.
+     */
+    void testChunkSizeNonBlocking() throws IOException {
+        TrickleInputStream network = new TrickleInputStream("\r\n10\r\n0");
+        ResponseInputStream in = new ResponseInputStream(network, 16);
+
+        assertEquals("nothing received", -1, in.readChunkSize(true, false));
+
+        network.received = 4;
+        assertEquals("part received", -1, in.readChunkSize(true, false));
+
+        network.received = 6;
+        assertEquals("all received", 16, in.readChunkSize(true, false));
+        assertEquals("next byte", '0', in.read());
+    }
+
+    /**
+     * Tests the header fields: trimmed values, continuation lines,
+     * lookups of the last field with a name and numbers.
+     */
+    void testHeaders() throws IOException {
+        ResponseInputStream in = stream(
+            "Content-Length:  42 \r\n" +
+            "X-Long: one\r\n" +
+            "\ttwo\r\n" +
+            "set-cookie: a=1\r\n" +
+            "Set-Cookie: b=2\r\n" +
+            "Empty:\r\n" +
+            "\r\n", 16);
+        ResponseHeaders headers = new ResponseHeaders();
+
+        for (int length; (length = in.readResponseLine()) > 0; ) {
+            byte[] line = in.getLine();
+
+            if (line[0] == '\t') {
+                headers.addContinuation(line, length);
+            } else {
+                headers.addField(line, length);
+            }
+        }
+
+        assertEquals("size", 5, headers.size());
+        assertEquals("key", "Content-Length", headers.getKeyAt(0));
+        assertEquals("trimmed", "42", headers.getValueAt(0));
+        assertEquals("number", 42, headers.getIntValueAt(0));
+        assertEquals("not number", -1, headers.getIntValueAt(1));
+        assertEquals("continuation", "one\r\n\ttwo",
+                     headers.getPropertyIgnoreCase("x-long"));
+        assertEquals("last", "b=2",
+                     headers.getPropertyIgnoreCase("SET-COOKIE"));
+        assertEquals("empty", "", headers.getValueAt(4));
+        assertNull("missing", headers.getPropertyIgnoreCase("content"));
+        assertTrue("value", headers.valueEqualsIgnoreCase(2, "A=1"));
+
+        try {
+            headers.addField("no colon".getBytes(), 8);
+            fail("malformed");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testLines");
+        testLines();
+
+        declare("testChunkSize");
+        testChunkSize();
+
+        declare("testChunkSizeNonBlocking");
+        testChunkSizeNonBlocking();
+
+        declare("testHeaders");
+        testHeaders();
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *  
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.io.IOException;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the persistent connection pool: per host limits, idle eviction,
+ * Keep-Alive limits and the ticket order of pipelined requests.
+ */
+public class TestStreamConnectionPool extends TestCase {
+
+    /** Protocol of the pooled connections. */
+    static final String PROTOCOL = "http";
+
+    /** Host of the pooled connections. */
+    static final String HOST = "pool.example.com";
+
+    /** Port of the pooled connections. */
+    static final int PORT = 80;
+
+    /**
+     * Adds a new connection to a pool and takes the ticket of the request
+     * that opened it.
+     *
+     * @param pool the pool
+     * @param opened true if the connection was opened after getPipelined
+     * @return the new element or null
+     */
+    StreamConnectionElement add(StreamConnectionPool pool, boolean opened) {
+        StreamConnectionElement sce = pool.add(PROTOCOL, HOST, PORT,
+            new StubStreamConnection(""), null, null, opened);
+
+        if (sce != null) {
+            sce.m_nextTicket++;
+        }
+
+        return sce;
+    }
+
+    /**
+     * Adds a new connection to a pool.
+     *
+     * @param pool the pool
+     * @return the new element or null
+     */
+    StreamConnectionElement add(StreamConnectionPool pool) {
+        return add(pool, false);
+    }
+
+    /**
+     * Gets a connection for a pipelined request from a pool.
+     *
+     * @param pool the pool
+     * @return the element or null
+     */
+    StreamConnectionElement getPipelined(StreamConnectionPool pool) {
+        return pool.getPipelined(getSecurityToken(), PROTOCOL, HOST, PORT);
+    }
+
+    /**
+     * Gets an idle connection from a pool.
+     *
+     * @param pool the pool
+     * @return the element or null
+     */
+    StreamConnectionElement get(StreamConnectionPool pool) {
+        return pool.get(getSecurityToken(), PROTOCOL, HOST, PORT);
+    }
+
+    /**
+     * Tests that a host can not have more than its connections and
+     * that an idle connection is reused.
+     */
+    void testHostLimit() {
+        StreamConnectionPool pool =
+            new StreamConnectionPool(4, 2, 60000, 60000, 0);
+
+        StreamConnectionElement first = add(pool);
+        StreamConnectionElement second = add(pool);
+        assertNotNull("first", first);
+        assertNotNull("second", second);
+        assertNull("third", add(pool));
+        assertNull("none idle", get(pool));
+
+        pool.returnForReuse(first, 0, -1, -1);
+        assertSame("reused", first, get(pool));
+        assertEquals("hits", 1, pool.getHits());
+        assertEquals("misses", 2, pool.getMisses());
+
+        // an idle connection to the host is replaced by a new one
+        pool.returnForReuse(second, 0, -1, -1);
+        assertNotNull("replaced", add(pool));
+        assertEquals("count", 2, pool.getConnectionCount());
+    }
+
+    /**
+     * Tests that idle connections are evicted after the idle timeout and
+     * after the number of requests the server allows.
+     */
+    void testEviction() throws InterruptedException {
+        StreamConnectionPool pool =
+            new StreamConnectionPool(4, 2, 60000, 10, 0);
+
+        StreamConnectionElement sce = add(pool);
+        pool.returnForReuse(sce, 0, -1, -1);
+        Thread.sleep(100);
+        assertNull("expired", get(pool));
+        assertEquals("evictions", 1, pool.getEvictions());
+        assertEquals("count", 0, pool.getConnectionCount());
+
+        pool = new StreamConnectionPool(4, 2, 60000, 60000, 0);
+        sce = add(pool);
+        pool.returnForReuse(sce, 0, -1, 0);
+        assertEquals("no requests left", 0, pool.getConnectionCount());
+    }
+
+    /**
+     * Tests that requests are pipelined up to the pipeline depth and
+     * read their responses in the order they were sent.
+     */
+    void testPipelining() throws Exception {
+        StreamConnectionPool pool =
+            new StreamConnectionPool(4, 1, 60000, 60000, 3);
+
+        final StreamConnectionElement sce = add(pool);
+        assertNull("not pipelinable yet", getPipelined(pool));
+        pool.release(PROTOCOL, HOST, PORT);
+
+        pool.allowPipelining(sce);
+        assertSame("second request", sce, getPipelined(pool));
+        assertSame("third request", sce, getPipelined(pool));
+        assertNull("pipeline full", getPipelined(pool));
+        pool.release(PROTOCOL, HOST, PORT);
+        assertEquals("pipelined", 2, pool.getPipelined());
+
+        final int[] order = new int[2];
+        final int[] count = new int[1];
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < readers.length; i++) {
+            final int ticket = sce.m_nextTicket++;
+
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        sce.waitForTurn(ticket);
+                        synchronized (count) {
+                            order[count[0]++] = ticket;
+                        }
+
+                        sce.finishRequest(ticket, false);
+                    } catch (IOException ioe) {
+                        // the count shows the failure
+                    }
+                }
+            };
+        }
+
+        // start the later request first, it still has to wait
+        readers[1].start();
+        readers[0].start();
+        Thread.sleep(100);
+        assertEquals("waiting", 0, count[0]);
+
+        pool.returnForReuse(sce, 0, -1, -1);
+        readers[0].join();
+        readers[1].join();
+        assertEquals("served", 2, count[0]);
+        assertEquals("first", 1, order[0]);
+        assertEquals("second", 2, order[1]);
+    }
+
+    /**
+     * Tests that a request that can be pipelined waits for the connection
+     * being opened to the host instead of opening another one.
+     */
+    void testPipelineWait() throws Exception {
+        final StreamConnectionPool pool =
+            new StreamConnectionPool(4, 1, 60000, 60000, 2);
+        final StreamConnectionElement[] result =
+            new StreamConnectionElement[1];
+
+        assertNull("open a connection", getPipelined(pool));
+
+        Thread waiter = new Thread() {
+            public void run() {
+                result[0] = getPipelined(pool);
+            }
+        };
+
+        waiter.start();
+        Thread.sleep(100);
+        assertTrue("waiting for the connection", waiter.isAlive());
+
+        StreamConnectionElement sce = add(pool, true);
+        assertNotNull("added", sce);
+        Thread.sleep(100);
+        assertTrue("waiting for the first request", waiter.isAlive());
+
+        pool.allowPipelining(sce);
+        waiter.join();
+        assertSame("pipelined", sce, result[0]);
+        assertEquals("count", 1, pool.getConnectionCount());
+    }
+
+    /**
+     * Tests that a request waiting behind a dropped connection fails,
+     * so it can be sent again.
+     */
+    void testDroppedPipeline() throws Exception {
+        StreamConnectionPool pool =
+            new StreamConnectionPool(4, 1, 60000, 60000, 2);
+
+        StreamConnectionElement sce = add(pool);
+        pool.allowPipelining(sce);
+        assertSame("pipelined", sce, getPipelined(pool));
+
+        int ticket = sce.m_nextTicket++;
+        pool.remove(sce, 0);
+        assertEquals("count", 0, pool.getConnectionCount());
+
+        try {
+            sce.waitForTurn(ticket);
+            fail("no exception");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testHostLimit");
+        testHostLimit();
+
+        declare("testEviction");
+        testEviction();
+
+        declare("testPipelining");
+        testPipelining();
+
+        declare("testPipelineWait");
+        testPipelineWait();
+
+        declare("testDroppedPipeline");
+        testDroppedPipeline();
+    }
+}
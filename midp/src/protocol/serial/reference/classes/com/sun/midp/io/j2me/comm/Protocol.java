@@ -54,6 +54,12 @@ public class Protocol extends BufferedConnectionAdapter
     /** Size of the read ahead buffer, default is 256. */
     protected static int bufferSize;
 
+    /** Size the read ahead buffer can grow to, default is no growth. */
+    protected static int maxBufferSize;
+
+    /** Size of the write behind buffer, default is no buffering. */
+    protected static int writeBufferSize;
+
     /**
      * Class initializer
      */
@@ -62,6 +68,12 @@ public class Protocol extends BufferedConnectionAdapter
         bufferSize =
             Configuration.getNonNegativeIntProperty(
                 "com.sun.midp.io.j2me.comm.buffersize", bufferSize);
+        maxBufferSize =
+            Configuration.getNonNegativeIntProperty(
+                "com.sun.midp.io.j2me.comm.max_buffersize", maxBufferSize);
+        writeBufferSize =
+            Configuration.getNonNegativeIntProperty(
+                "com.sun.midp.io.j2me.comm.write_buffersize", writeBufferSize);
 
 	if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
 	    Logging.report(Logging.INFORMATION, LogChannels.LC_PROTOCOL,
@@ -104,8 +116,8 @@ public class Protocol extends BufferedConnectionAdapter
 
     /** Creates a buffered comm port connection. */
     public Protocol() {
-        // use the default buffer size
-        super(bufferSize);
+        // use the default buffer sizes
+        super(bufferSize, maxBufferSize, writeBufferSize);
     }
 
     /**
@@ -0,0 +1,86 @@
+/*
+ *  
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+/**
+ * @file
+ * @ingroup network
+ * 
+ * Registry of the sockets watched by the Java socket selectors. The
+ * event handling code offers it the read and write readiness signals
+ * no Java thread is blocked for, the registry records them and wakes
+ * up the selector threads.
+ */
+
+#ifndef _SOCKET_SELECTOR_EXPORT_H_
+#define _SOCKET_SELECTOR_EXPORT_H_
+
+#include <midpServices.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/** Interest in, or readiness for, reading a socket. */
+#define SOCKET_SELECT_READ  1
+
+/** Interest in, or readiness for, writing a socket. */
+#define SOCKET_SELECT_WRITE 2
+
+/**
+ * Records the readiness of a socket watched by a selector. Called for
+ * the network signals no Java thread is blocked for.
+ *
+ * @param handle Platform specific handle of the socket
+ * @param signalType NETWORK_READ_SIGNAL or NETWORK_WRITE_SIGNAL
+ *
+ * @return <tt>1</tt> if a selector watches the socket for the signal and
+ *         has to be woken up with NETWORK_SELECT_SIGNAL, 
+ *         <tt>0</tt> otherwise
+ */
+int socket_selector_notify(int handle, midpSignalType signalType);
+
+/**
+ * Gets the operations a selector waits for on a socket.
+ *
+ * @param handle Platform specific handle of the socket
+ *
+ * @return SOCKET_SELECT_READ and SOCKET_SELECT_WRITE bits, 
+ *         <tt>0</tt> if no selector watches the socket
+ */
+int socket_selector_get_interest(int handle);
+
+/**
+ * Stops watching a socket. Called when the socket is closed.
+ *
+ * @param handle Platform specific handle of the socket
+ */
+void socket_selector_remove(int handle);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif /* _SOCKET_SELECTOR_EXPORT_H_ */
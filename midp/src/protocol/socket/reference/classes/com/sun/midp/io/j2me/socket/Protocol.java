@@ -69,6 +69,12 @@ public class Protocol extends NetworkConnectionBase
     /** Size of the read ahead buffer, default is no buffering. */
     private static int bufferSize;
 
+    /** Size the read ahead buffer can grow to. */
+    private static int maxBufferSize = 8192;
+
+    /** Size of the write behind buffer, default is no buffering. */
+    private static int writeBufferSize;
+
     /**
      * Handle to native socket object. This is set and get only by 
      * native code.
@@ -81,6 +87,9 @@ public class Protocol extends NetworkConnectionBase
     /** Lock object for writing to the socket */
     private final Object writerLock = new Object();
 
+    /** Key of the connection in the socket selector, null if none. */
+    SelectorKey selectorKey;
+
     /**
      * Class initializer
      */
@@ -88,6 +97,12 @@ public class Protocol extends NetworkConnectionBase
         /* See if a read ahead / write behind buffer size has been specified */
         bufferSize = Configuration.getNonNegativeIntProperty(
                          "com.sun.midp.io.j2me.socket.buffersize", bufferSize);
+        maxBufferSize = Configuration.getNonNegativeIntProperty(
+                         "com.sun.midp.io.j2me.socket.max_buffersize",
+                         maxBufferSize);
+        writeBufferSize = Configuration.getNonNegativeIntProperty(
+                         "com.sun.midp.io.j2me.socket.write_buffersize",
+                         writeBufferSize);
     }
 
     /** Hostname */
@@ -107,8 +122,8 @@ public class Protocol extends NetworkConnectionBase
 
     /** Creates a buffered TCP client connection. */
     public Protocol() {
-        // use the default buffer size
-        super(bufferSize);
+        // use the default buffer sizes
+        super(bufferSize, maxBufferSize, writeBufferSize);
     }
 
     /**
@@ -406,6 +421,10 @@ public class Protocol extends NetworkConnectionBase
          * TCP connection by sending all pending data and the FIN flag.
          */
 
+        if (selectorKey != null) {
+            selectorKey.cancel();
+        }
+
         if (!outputShutdown) {
             shutdownOutput0();
         }
@@ -469,6 +488,131 @@ public class Protocol extends NetworkConnectionBase
         }
     }
 
+    /**
+     * Reads up to <code>len</code> bytes of data from the input stream into
+     * an array of bytes, but does not block if no bytes available.
+     * Sets the <code>eof</code> field of the connection when the native read
+     * returns -1.
+     *
+     * @param      b     the buffer into which the data is read.
+     * @param      off   the start offset in array <code>b</code>
+     *                   at which the data is written.
+     * @param      len   the maximum number of bytes to read.
+     * @return     the total number of bytes read into the buffer, or
+     *             <code>-1</code> if there is no more data because the end of
+     *             the stream has been reached.
+     * @exception  IOException  if an I/O error occurs.
+     */
+    protected int readBytesNonBlocking(byte b[], int off, int len)
+        throws IOException {
+
+        int bytesRead;
+
+        synchronized (readerLock) {
+            bytesRead = readNonBlocking0(b, off, len);
+        }
+
+        if (bytesRead == -1) {
+            eof = true;
+        }
+
+        return bytesRead;
+    }
+
+    /**
+     * The native non-blocking read of a socket returns at once when no
+     * data is available.
+     *
+     * @return true
+     */
+    protected boolean canReadNonBlocking() {
+        return true;
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes of data without blocking. Meant
+     * for connections served by a {@link SocketSelector}, data in the
+     * read ahead buffer is returned first.
+     *
+     * @param      b     the buffer into which the data is read.
+     * @param      off   the start offset in array <code>b</code>
+     *                   at which the data is written.
+     * @param      len   the maximum number of bytes to read.
+     * @return     the total number of bytes read into the buffer,
+     *             <code>0</code> if no data can be read now, or
+     *             <code>-1</code> if there is no more data because the end
+     *             of the stream has been reached.
+     * @exception  IOException  if an I/O error occurs.
+     */
+    public int readNonBlocking(byte b[], int off, int len)
+            throws IOException {
+        if (count > 0) {
+            if (len > count) {
+                len = count;
+            }
+
+            System.arraycopy(buf, pos, b, off, len);
+            count -= len;
+            pos += len;
+            return len;
+        }
+
+        if (eof) {
+            return -1;
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        return readBytesNonBlocking(b, off, len);
+    }
+
+    /**
+     * Writes up to <code>len</code> bytes without blocking. Meant for
+     * connections served by a {@link SocketSelector}. The write behind
+     * buffer of the output stream is bypassed.
+     *
+     * @param      b     the data.
+     * @param      off   the start offset in the data.
+     * @param      len   the maximum number of bytes to write.
+     * @return     number of bytes written, <code>0</code> if no data can
+     *             be written now
+     * @exception  IOException  if an I/O error occurs.
+     */
+    public int writeNonBlocking(byte b[], int off, int len)
+            throws IOException {
+        if (outputShutdown) {
+            throw new IOException("Output shutdown");
+        }
+
+        synchronized (writerLock) {
+            return writeNonBlocking0(b, off, len);
+        }
+    }
+
+    /**
+     * Gets the handle of the native socket.
+     *
+     * @return native handle, -1 if the socket is closed
+     */
+    int getHandle() {
+        return handle;
+    }
+
+    /**
+     * Sets the operations the socket selector waits for.
+     *
+     * @param ops <code>SocketSelector.OP_READ</code> and
+     *            <code>SocketSelector.OP_WRITE</code> bits,
+     *            <code>0</code> to stop waiting
+     *
+     * @exception  IOException  if the socket is closed
+     */
+    void setInterest(int ops) throws IOException {
+        setInterest0(ops);
+    }
+
     /**
      * Returns the number of bytes that can be read (or skipped over) from
      * this input stream without blocking by the next caller of a method for
@@ -522,12 +666,15 @@ public class Protocol extends NetworkConnectionBase
     }
 
     /**
-     * Called once by the child output stream. The output side of the socket
-     * will be shutdown and then the parent method will be called.
+     * Called once by the child output stream. The write behind buffer is
+     * written out, the output side of the socket will be shutdown and then
+     * the parent method will be called.
      *
      * @exception IOException if the subclass throws one
      */
     protected void closeOutputStream() throws IOException {
+        flush();
+
         /*
          * Shutdown the output gracefully closes the sending side of the 
          * TCP connection by sending all pending data and the FIN flag.
@@ -719,6 +866,45 @@ public class Protocol extends NetworkConnectionBase
     private native int write0(byte b[], int off, int len)
         throws IOException;
 
+    /**
+     * Reads from the open socket connection without blocking.
+     *
+     * @param      b      the buffer into which the data is read.
+     * @param      off    the start offset in array <code>b</code>
+     *                    at which the data is written.
+     * @param      len    the maximum number of bytes to read.
+     * @return     the total number of bytes read into the buffer,
+     *             <code>0</code> if no data can be read now, or
+     *             <code>-1</code> if there is no more data because the end
+     *             of the stream has been reached.
+     * @exception  IOException  if an I/O error occurs.
+     */
+    private native int readNonBlocking0(byte b[], int off, int len)
+        throws IOException;
+
+    /**
+     * Writes to the open socket connection without blocking.
+     *
+     * @param      b      the buffer of the data to write
+     * @param      off    the start offset in array <code>b</code>
+     *                    at which the data is written.
+     * @param      len    the maximum number of bytes to write.
+     * @return     the number of bytes written, <code>0</code> if no data
+     *             can be written now
+     * @exception  IOException  if an I/O error occurs.
+     */
+    private native int writeNonBlocking0(byte b[], int off, int len)
+        throws IOException;
+
+    /**
+     * Sets the operations the native socket selector registry waits for.
+     *
+     * @param      ops    operations to wait for, <code>0</code> to stop
+     *                    waiting
+     * @exception  IOException  if the socket is closed
+     */
+    private native void setInterest0(int ops) throws IOException;
+
     /**
      * Gets the number of bytes that can be read without blocking.
      *
@@ -0,0 +1,153 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.socket;
+
+import java.io.IOException;
+
+/**
+ * Registration of a connection with a {@link SocketSelector}. The key
+ * is cancelled when the connection is closed.
+ */
+public class SelectorKey {
+    /** Selector the connection is registered with. */
+    final SocketSelector selector;
+
+    /** The registered connection. */
+    final Protocol connection;
+
+    /** Native handle of the connection when it was registered. */
+    final int handle;
+
+    /** Listener called when the connection is ready. */
+    final SelectorListener listener;
+
+    /** Operations the selector waits for. */
+    int interestOps;
+
+    /** True until the key is cancelled. */
+    boolean valid = true;
+
+    /** Object attached by the owner of the key. */
+    private Object attachment;
+
+    /**
+     * Creates a key.
+     *
+     * @param selector selector the connection is registered with
+     * @param connection the registered connection
+     * @param handle native handle of the connection
+     * @param listener listener called when the connection is ready
+     */
+    SelectorKey(SocketSelector selector, Protocol connection, int handle,
+                SelectorListener listener) {
+        this.selector = selector;
+        this.connection = connection;
+        this.handle = handle;
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the registered connection.
+     *
+     * @return socket connection
+     */
+    public Protocol getConnection() {
+        return connection;
+    }
+
+    /**
+     * Gets the operations the selector waits for.
+     *
+     * @return <code>SocketSelector.OP_READ</code> and
+     *         <code>SocketSelector.OP_WRITE</code> bits
+     */
+    public int getInterestOps() {
+        synchronized (selector) {
+            return interestOps;
+        }
+    }
+
+    /**
+     * Sets the operations the selector waits for. The listener is called
+     * as long as the connection is ready for any of them.
+     *
+     * @param ops <code>SocketSelector.OP_READ</code> and
+     *            <code>SocketSelector.OP_WRITE</code> bits, 
+     *            <code>0</code> to suspend the key
+     *
+     * @exception IOException if the key is cancelled or the connection
+     *            closed
+     */
+    public void setInterestOps(int ops) throws IOException {
+        synchronized (selector) {
+            if (!valid) {
+                throw new IOException("Selector key cancelled");
+            }
+
+            interestOps = ops & (SocketSelector.OP_READ |
+                                 SocketSelector.OP_WRITE);
+            connection.setInterest(interestOps);
+        }
+    }
+
+    /**
+     * Tells if the key is still registered.
+     *
+     * @return true until the key is cancelled
+     */
+    public boolean isValid() {
+        synchronized (selector) {
+            return valid;
+        }
+    }
+
+    /**
+     * Cancels the registration, the listener is not called any more.
+     * Nothing happens if the key is already cancelled.
+     */
+    public void cancel() {
+        selector.cancel(this);
+    }
+
+    /**
+     * Attaches an object to the key.
+     *
+     * @param obj object to attach, may be null
+     */
+    public void attach(Object obj) {
+        attachment = obj;
+    }
+
+    /**
+     * Gets the object attached to the key.
+     *
+     * @return attached object or null
+     */
+    public Object attachment() {
+        return attachment;
+    }
+}
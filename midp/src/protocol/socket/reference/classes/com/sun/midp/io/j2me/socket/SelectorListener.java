@@ -0,0 +1,45 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.socket;
+
+/**
+ * Listener of a connection registered with a {@link SocketSelector}.
+ */
+public interface SelectorListener {
+    /**
+     * Called on the I/O thread of the selector when the connection can be
+     * read or written without blocking. The listener must not block, it
+     * reads and writes with {@link Protocol#readNonBlocking} and
+     * {@link Protocol#writeNonBlocking}. The end of the stream and errors
+     * make the connection ready for reading.
+     *
+     * @param key key of the connection
+     * @param readyOps <code>SocketSelector.OP_READ</code> and
+     *                 <code>SocketSelector.OP_WRITE</code> bits
+     */
+    void socketReady(SelectorKey key, int readyOps);
+}
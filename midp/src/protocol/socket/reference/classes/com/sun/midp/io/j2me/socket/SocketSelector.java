@@ -0,0 +1,275 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.socket;
+
+import java.io.IOException;
+
+import java.util.Hashtable;
+
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
+import com.sun.midp.security.Permissions;
+import com.sun.midp.security.SecurityToken;
+
+/**
+ * Serves many "socket:" connections with one thread. The listeners of
+ * the registered connections are called on the I/O thread of the
+ * selector when their connection can be read or written without
+ * blocking, instead of a thread blocking in a read or write for each
+ * connection.
+ * <p>
+ * Readiness comes from the native socket event handling: the read and
+ * write signals no Java thread is blocked for are recorded for the
+ * registered sockets and wake up the I/O thread. It is level triggered,
+ * after a listener returns the selector waits again for the operations
+ * of its key, so a listener that leaves data unread is called again.
+ * <p>
+ * A connection registered with the selector should not be read or
+ * written by blocking calls at the same time. The I/O thread runs only
+ * while connections are registered.
+ * <p>
+ * The selector is internal to the implementation: getting it requires
+ * the MIDP permission and its package is hidden, so MIDlets cannot use
+ * it and still need a thread per blocking connection. The HTTP handler
+ * is not built on it either, since HttpConnection is blocking by its
+ * specification, it only uses the selector to watch the idle
+ * connections of its pool.
+ */
+public class SocketSelector implements Runnable {
+    /** Readiness for reading, includes the end of stream and errors. */
+    public static final int OP_READ = 1;
+
+    /** Readiness for writing. */
+    public static final int OP_WRITE = 2;
+
+    /** Most ready sockets taken from the native registry at once. */
+    private static final int SELECT_BATCH = 8;
+
+    /** The selector of the isolate. */
+    private static SocketSelector instance;
+
+    /** Keys of the registered connections, by native handle. */
+    private final Hashtable keys = new Hashtable();
+
+    /** The I/O thread, null while no connection is registered. */
+    private Thread thread;
+
+    /** Use {@link #getInstance}. */
+    private SocketSelector() {
+    }
+
+    /**
+     * Gets the selector of the isolate.
+     *
+     * @param token security token of the caller
+     *
+     * @return the selector
+     *
+     * @exception SecurityException if the caller does not have the
+     *            MIDP permission
+     */
+    public static synchronized SocketSelector getInstance(
+            SecurityToken token) {
+        token.checkIfPermissionAllowed(Permissions.MIDP);
+
+        if (instance == null) {
+            instance = new SocketSelector();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Registers a connection. The connection must be open and may have
+     * only one key.
+     *
+     * @param connection socket connection to serve
+     * @param ops operations to wait for, <code>OP_READ</code> and
+     *            <code>OP_WRITE</code> bits
+     * @param listener listener to call when the connection is ready
+     *
+     * @return key of the connection
+     *
+     * @exception IOException if the connection is closed
+     * @exception IllegalStateException if the connection is already
+     *            registered
+     */
+    public SelectorKey register(Protocol connection, int ops,
+                                SelectorListener listener)
+            throws IOException {
+        SelectorKey key;
+
+        synchronized (this) {
+            int handle = connection.getHandle();
+
+            if (handle == -1) {
+                throw new IOException("Connection closed");
+            }
+
+            if (connection.selectorKey != null) {
+                throw new IllegalStateException("Already registered");
+            }
+
+            key = new SelectorKey(this, connection, handle, listener);
+            keys.put(new Integer(handle), key);
+            connection.selectorKey = key;
+
+            if (thread == null) {
+                thread = new Thread(this);
+                thread.start();
+            }
+        }
+
+        try {
+            key.setInterestOps(ops);
+        } catch (IOException ioe) {
+            key.cancel();
+            throw ioe;
+        }
+
+        return key;
+    }
+
+    /**
+     * Cancels a key.
+     *
+     * @param key key to cancel
+     */
+    synchronized void cancel(SelectorKey key) {
+        if (!key.valid) {
+            return;
+        }
+
+        key.valid = false;
+        keys.remove(new Integer(key.handle));
+        key.connection.selectorKey = null;
+
+        try {
+            key.connection.setInterest(0);
+        } catch (IOException ioe) {
+            // the socket is closed, the native registry forgot it
+        }
+
+        if (keys.isEmpty()) {
+            // let the I/O thread exit
+            wakeup0();
+        }
+    }
+
+    /**
+     * Gets the number of registered connections.
+     *
+     * @return number of keys
+     */
+    public synchronized int getKeyCount() {
+        return keys.size();
+    }
+
+    /**
+     * The I/O thread. Calls the listeners of the ready connections until
+     * no connection is registered.
+     */
+    public void run() {
+        int[] handles = new int[SELECT_BATCH];
+        int[] readyOps = new int[SELECT_BATCH];
+
+        for (;;) {
+            int count;
+
+            synchronized (this) {
+                if (keys.isEmpty()) {
+                    thread = null;
+                    return;
+                }
+            }
+
+            count = select0(handles, readyOps);
+
+            for (int i = 0; i < count; i++) {
+                SelectorKey key;
+
+                synchronized (this) {
+                    key = (SelectorKey)keys.get(new Integer(handles[i]));
+                }
+
+                if (key != null) {
+                    dispatch(key, readyOps[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls the listener of a ready connection, then waits again for the
+     * operations of the key.
+     *
+     * @param key key of the connection
+     * @param readyOps operations the connection is ready for
+     */
+    private void dispatch(SelectorKey key, int readyOps) {
+        try {
+            key.listener.socketReady(key, readyOps);
+        } catch (Throwable t) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_PROTOCOL,
+                    "Socket selector listener failed: " + t);
+            }
+
+            key.cancel();
+            return;
+        }
+
+        synchronized (this) {
+            if (key.valid && key.interestOps != 0) {
+                try {
+                    key.connection.setInterest(key.interestOps);
+                } catch (IOException ioe) {
+                    cancel(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the sockets of the isolate that became ready from the native
+     * registry. Blocks until a socket is ready or the selector is woken
+     * up if none is ready.
+     *
+     * @param handles receives the handles of the ready sockets
+     * @param readyOps receives the operations each socket is ready for
+     *
+     * @return number of sockets stored in the arrays, may be
+     *         <code>0</code> after a wake up
+     */
+    private static native int select0(int[] handles, int[] readyOps);
+
+    /**
+     * Wakes up the I/O thread blocked in <code>select0</code>.
+     */
+    private static native void wakeup0();
+}
@@ -0,0 +1,331 @@
+/*
+ * 	
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.socket;
+
+import java.io.*;
+import javax.microedition.io.*;
+import com.sun.midp.i3test.*;
+
+/**
+ * Tests of the socket selector: readiness callbacks on the I/O thread
+ * and non-blocking reads, over a loopback connection.
+ */
+public class TestSocketSelector extends TestCase implements SelectorListener {
+
+    /** Port of the loopback server socket. */
+    static private final int PORT = 50271;
+
+    /** Server side of the loopback connection. */
+    ServerSocketConnection server;
+
+    /** Accepted server side connection. */
+    StreamConnection accepted;
+
+    /** Client connection being served by the selector. */
+    Protocol client;
+
+    /** Selector under test. */
+    SocketSelector selector;
+
+    /** Data read by the listener. */
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    /** True once the listener read the end of the stream. */
+    boolean endOfStream;
+
+    /** Number of listener calls. */
+    int calls;
+
+    /** Thread the listener was called on. */
+    Thread listenerThread;
+
+    /**
+     * Reads what the client connection has without blocking.
+     *
+     * @param key key of the client connection
+     * @param readyOps operations the connection is ready for
+     */
+    public void socketReady(SelectorKey key, int readyOps) {
+        byte[] buf = new byte[4];
+        int n;
+
+        synchronized (this) {
+            calls++;
+            listenerThread = Thread.currentThread();
+
+            try {
+                while ((n = key.getConnection().readNonBlocking(buf, 0,
+                        buf.length)) > 0) {
+                    received.write(buf, 0, n);
+                }
+
+                if (n == -1) {
+                    endOfStream = true;
+                    key.cancel();
+                }
+            } catch (IOException ioe) {
+                fail("Unexpected exception in listener " + ioe);
+                key.cancel();
+            }
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the listener received some bytes or the end of stream.
+     *
+     * @param bytes number of bytes to wait for
+     */
+    synchronized void waitForListener(int bytes) {
+        long end = System.currentTimeMillis() + 5000;
+
+        while (received.size() < bytes && !endOfStream &&
+               System.currentTimeMillis() < end) {
+            try {
+                wait(200);
+            } catch (InterruptedException e) {
+                // Ignore interrupt
+            }
+        }
+    }
+
+    /**
+     * Opens the loopback connection.
+     *
+     * @return false if testing cannot be continued
+     */
+    boolean setUp() {
+        try {
+            server = (ServerSocketConnection)
+                Connector.open("socket://:" + PORT);
+            client = (Protocol)Connector.open("socket://localhost:" + PORT);
+            accepted = server.acceptAndOpen();
+        } catch (IOException ioe) {
+            assertNull("Exception during loopback open", ioe);
+            return false;
+        }
+
+        selector = SocketSelector.getInstance(getSecurityToken());
+        return true;
+    }
+
+    /**
+     * A read without data returns 0 instead of blocking.
+     */
+    void testWouldBlock() throws IOException {
+        byte[] buf = new byte[4];
+
+        assertEquals("nothing to read", 0, client.readNonBlocking(buf, 0, 4));
+    }
+
+    /**
+     * The listener is called on the I/O thread when data arrives and
+     * again for the data it has not read yet.
+     */
+    void testReadReady() throws IOException {
+        OutputStream os = accepted.openOutputStream();
+        SelectorKey key = selector.register(client, SocketSelector.OP_READ,
+                                            this);
+
+        assertTrue("key valid", key.isValid());
+        assertEquals("one key", 1, selector.getKeyCount());
+
+        os.write("0123456789".getBytes());
+        os.flush();
+        waitForListener(10);
+
+        synchronized (this) {
+            assertEquals("all bytes read", "0123456789",
+                         new String(received.toByteArray()));
+            assertTrue("listener called", calls > 0);
+            assertTrue("called on the I/O thread",
+                       listenerThread != Thread.currentThread());
+        }
+
+        // not watched for writing, so no call without new data
+        int before = calls;
+        try {
+            Thread.sleep(300);
+        } catch (InterruptedException e) {
+            // Ignore interrupt
+        }
+        assertEquals("no call without data", before, calls);
+
+        os.close();
+    }
+
+    /**
+     * The end of the stream makes the connection ready and the listener
+     * reads -1.
+     */
+    void testEndOfStream() throws IOException {
+        accepted.close();
+        accepted = null;
+        waitForListener(Integer.MAX_VALUE);
+
+        assertTrue("end of stream", endOfStream);
+        assertEquals("key cancelled", 0, selector.getKeyCount());
+    }
+
+    /**
+     * Closing a registered connection cancels its key.
+     */
+    void testCloseCancels() throws IOException {
+        Protocol other = (Protocol)Connector.open("socket://localhost:" +
+                                                  PORT);
+        StreamConnection otherAccepted = server.acceptAndOpen();
+        SelectorKey key = selector.register(other, SocketSelector.OP_READ,
+                                            this);
+
+        other.close();
+        assertFalse("key cancelled", key.isValid());
+        assertEquals("no keys", 0, selector.getKeyCount());
+
+        try {
+            key.setInterestOps(SocketSelector.OP_READ);
+            fail("cancelled key accepted interest");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        otherAccepted.close();
+    }
+
+    /**
+     * Writes a message once the connection can be written and stops
+     * watching it.
+     */
+    static class WriteListener implements SelectorListener {
+        /** Operations of the last call. */
+        int readyOps;
+
+        /** Number of bytes written. */
+        int written;
+
+        /**
+         * Writes the message without blocking.
+         *
+         * @param key key of the connection
+         * @param readyOps operations the connection is ready for
+         */
+        public synchronized void socketReady(SelectorKey key, int readyOps) {
+            byte[] msg = "abc".getBytes();
+
+            this.readyOps = readyOps;
+            try {
+                written = key.getConnection().writeNonBlocking(msg, 0,
+                                                               msg.length);
+            } catch (IOException ioe) {
+                written = -1;
+            }
+
+            key.cancel();
+            notifyAll();
+        }
+
+        /**
+         * Waits for the listener call.
+         */
+        synchronized void waitForCall() {
+            long end = System.currentTimeMillis() + 5000;
+
+            while (readyOps == 0 && System.currentTimeMillis() < end) {
+                try {
+                    wait(200);
+                } catch (InterruptedException e) {
+                    // Ignore interrupt
+                }
+            }
+        }
+    }
+
+    /**
+     * A new connection is ready for writing at once, and the listener
+     * can write without blocking.
+     */
+    void testWriteReady() throws IOException {
+        Protocol other = (Protocol)Connector.open("socket://localhost:" +
+                                                  PORT);
+        StreamConnection otherAccepted = server.acceptAndOpen();
+        WriteListener listener = new WriteListener();
+        byte[] buf = new byte[3];
+
+        selector.register(other, SocketSelector.OP_WRITE, listener);
+        listener.waitForCall();
+
+        synchronized (listener) {
+            assertEquals("ready for writing", SocketSelector.OP_WRITE,
+                         listener.readyOps);
+            assertEquals("all bytes written", 3, listener.written);
+        }
+        assertEquals("no keys", 0, selector.getKeyCount());
+
+        DataInputStream is = otherAccepted.openDataInputStream();
+        is.readFully(buf);
+        assertEquals("bytes received", "abc", new String(buf));
+
+        is.close();
+        otherAccepted.close();
+        other.close();
+    }
+
+    /**
+     * Close the connections.
+     */
+    void tearDown() {
+        try {
+            if (accepted != null) {
+                accepted.close();
+            }
+            if (client != null) {
+                client.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            assertNull("Exception closing a socket", e);
+        }
+    }
+
+    /**
+     * Run the tests over one loopback connection.
+     */
+    public void runTests() throws IOException {
+        declare("Test socket selector");
+
+        if (setUp()) {
+            testWouldBlock();
+            testReadReady();
+            testEndOfStream();
+            testCloseCancels();
+            testWriteReady();
+            tearDown();
+        }
+    }
+}
@@ -40,11 +40,13 @@
 #include <midpResourceLimit.h>
 #include <string.h>
 #include <pcsl_network.h>
+#include <pcsl_network_notifier.h>
 #include <midp_thread.h>
 #include <midp_libc_ext.h>
 #include <kni_globals.h>
 #include <midpUtilKni.h>
 #include <midp_net_events.h>
+#include <socket_selector_export.h>
 
 /**
  * @file
@@ -416,6 +418,187 @@ Java_com_sun_midp_io_j2me_socket_Protocol_write0(void) {
     KNI_ReturnInt((jint)bytesWritten);
 }
 
+/**
+ * Reads from the open socket connection without blocking.
+ * <p>
+ * IMPL NOTE: a read that would block is not finished later, the next
+ * call starts a new one. This relies on the platform keeping no state
+ * between <tt>pcsl_socket_read_start</tt> and
+ * <tt>pcsl_socket_read_finish</tt>, as the BSD port does.
+ * <p>
+ * Java declaration:
+ * <pre>
+ *     readNonBlocking0([BII)I
+ * </pre>
+ *
+ * @param b the buffer into which the data is read.
+ * @param off the start offset in array <tt>b</tt>
+ *            at which the data is written.
+ * @param len the maximum number of bytes to read.
+ *
+ * @return the number of bytes read into the buffer, <tt>0</tt> if no
+ *         data can be read now, or <tt>-1</tt> if there is no more data
+ *         because the end of the stream has been reached.
+ */
+KNIEXPORT KNI_RETURNTYPE_INT
+Java_com_sun_midp_io_j2me_socket_Protocol_readNonBlocking0(void) {
+    int length;
+    int offset;
+    void *pcslHandle;
+    int bytesRead = 0;
+    int status;
+    void* context = NULL;
+
+    length = (int)KNI_GetParameterAsInt(3);
+    offset = (int)KNI_GetParameterAsInt(2);
+
+    KNI_StartHandles(2);
+    
+    KNI_DeclareHandle(bufferObject);
+    KNI_DeclareHandle(thisObject);
+    KNI_GetThisPointer(thisObject);
+    KNI_GetParameterAsObject(1, bufferObject);
+    
+    pcslHandle = (void *)(getMidpSocketProtocolPtr(thisObject)->handle);
+
+    REPORT_INFO3(LC_PROTOCOL, "socket::readNonBlocking0 o=%d l=%d fd=%d\n",
+                 offset, length, (int)pcslHandle);
+
+    if (INVALID_HANDLE == pcslHandle) {
+        KNI_ThrowNew(midpIOException,
+                     "invalid handle during socket::readNonBlocking");
+    } else {
+        int ipAddress;
+        int port;
+
+        /* Check the push cache for a waiting packet. */
+        SNI_BEGIN_RAW_POINTERS;
+        bytesRead = pushgetcachedpacket((int)pcslHandle, &ipAddress, &port,
+            (char*)&(JavaByteArray(bufferObject)[offset]), length);
+        SNI_END_RAW_POINTERS;
+
+        if (bytesRead <= 0) {
+            SNI_BEGIN_RAW_POINTERS;
+            status = pcsl_socket_read_start(pcslHandle,
+                           (unsigned char*)&(JavaByteArray(bufferObject)[offset]),
+                           length, &bytesRead, &context);
+            SNI_END_RAW_POINTERS;
+
+            if (status == PCSL_NET_SUCCESS) {
+                if (bytesRead == 0) {
+                    /* end of stream */
+                    bytesRead = -1;
+                }
+            } else if (status == PCSL_NET_WOULDBLOCK) {
+                bytesRead = 0;
+
+                /* no thread waits for the notifier the read installed */
+                if (!(socket_selector_get_interest((int)pcslHandle) &
+                        SOCKET_SELECT_READ)) {
+                    pcsl_remove_network_notifier(pcslHandle,
+                                                 PCSL_NET_CHECK_READ);
+                }
+            } else if (status == PCSL_NET_INTERRUPTED) {
+                midp_snprintf(gKNIBuffer, KNI_BUFFER_SIZE,
+                        "Interrupted IO error %d during socket::read ",
+                        pcsl_network_error(pcslHandle));
+                KNI_ThrowNew(midpInterruptedIOException, gKNIBuffer);
+            } else {
+                midp_snprintf(gKNIBuffer, KNI_BUFFER_SIZE,
+                        "Unknown error %d during socket::read ",
+                        pcsl_network_error(pcslHandle));
+                KNI_ThrowNew(midpIOException, gKNIBuffer);
+            }
+        }
+    }
+
+    REPORT_INFO1(LC_PROTOCOL, "socket::readNonBlocking0 bytesRead=%d\n",
+                 bytesRead);
+
+    KNI_EndHandles();
+    KNI_ReturnInt((jint)bytesRead);
+}
+
+/**
+ * Writes to the open socket connection without blocking. See the
+ * IMPL NOTE of <code>readNonBlocking0</code>.
+ * <p>
+ * Java declaration:
+ * <pre>
+ *     writeNonBlocking0([BII)I
+ * </pre>
+ *
+ * @param b the buffer of the data to write
+ * @param off the start offset in array <tt>b</tt>
+ *            at which the data is written.
+ * @param len the number of bytes to write.
+ *
+ * @return the number of bytes written, <tt>0</tt> if no data can be
+ *         written now
+ */
+KNIEXPORT KNI_RETURNTYPE_INT
+Java_com_sun_midp_io_j2me_socket_Protocol_writeNonBlocking0(void) {
+    int length;
+    int offset;
+    void *pcslHandle;
+    int bytesWritten = 0;
+    int status;
+    void *context = NULL;
+
+    length = (int)KNI_GetParameterAsInt(3);
+    offset = (int)KNI_GetParameterAsInt(2);
+
+    KNI_StartHandles(2);
+
+    KNI_DeclareHandle(bufferObject);
+    KNI_DeclareHandle(thisObject);
+    KNI_GetThisPointer(thisObject);
+    KNI_GetParameterAsObject(1, bufferObject);
+
+    pcslHandle = (void *)(getMidpSocketProtocolPtr(thisObject)->handle);
+
+    REPORT_INFO3(LC_PROTOCOL, "socket::writeNonBlocking0 o=%d l=%d fd=%d\n", 
+                 offset, length, pcslHandle);
+
+    if (INVALID_HANDLE == pcslHandle) {
+        KNI_ThrowNew(midpIOException, 
+                     "invalid handle during socket::writeNonBlocking");
+    } else {
+        SNI_BEGIN_RAW_POINTERS;
+        status = pcsl_socket_write_start(pcslHandle, 
+                       (char*)&(JavaByteArray(bufferObject)[offset]),
+                       length, &bytesWritten, &context);
+        SNI_END_RAW_POINTERS;
+
+        if (status == PCSL_NET_WOULDBLOCK) {
+            bytesWritten = 0;
+
+            /* no thread waits for the notifier the write installed */
+            if (!(socket_selector_get_interest((int)pcslHandle) &
+                    SOCKET_SELECT_WRITE)) {
+                pcsl_remove_network_notifier(pcslHandle,
+                                             PCSL_NET_CHECK_WRITE);
+            }
+        } else if (status == PCSL_NET_INTERRUPTED) {
+            midp_snprintf(gKNIBuffer, KNI_BUFFER_SIZE,
+                    "Interrupted IO error %d during socket::write ", 
+                    pcsl_network_error(pcslHandle));
+            KNI_ThrowNew(midpInterruptedIOException, gKNIBuffer);
+        } else if (status != PCSL_NET_SUCCESS) {
+            midp_snprintf(gKNIBuffer, KNI_BUFFER_SIZE,
+                    "IOError %d during socket:: write \n", 
+                    pcsl_network_error(pcslHandle));
+            KNI_ThrowNew(midpIOException, gKNIBuffer);
+        }
+    }
+
+    REPORT_INFO1(LC_PROTOCOL, "socket::writeNonBlocking0 bytesWritten=%d\n", 
+                 bytesWritten);
+
+    KNI_EndHandles();
+    KNI_ReturnInt((jint)bytesWritten);
+}
+
 /**
  * Gets the number of bytes that can be read without blocking.
  * <p>
@@ -496,6 +679,7 @@ Java_com_sun_midp_io_j2me_socket_Protocol_close0(void) {
             KNI_ThrowNew(midpIOException,
                 "invalid handle during socket::close");
         } else {
+            socket_selector_remove((int)pcslHandle);
             status = pcsl_socket_close_start(pcslHandle, &context);
 
             getMidpSocketProtocolPtr(thisObject)->handle =
@@ -560,6 +744,7 @@ Java_com_sun_midp_io_j2me_socket_Protocol_finalize(void) {
     REPORT_INFO1(LC_PROTOCOL, "socket::finalize handle=%d\n", pcslHandle);
 
     if (INVALID_HANDLE != pcslHandle) {
+        socket_selector_remove((int)pcslHandle);
         status = pcsl_socket_close_start(pcslHandle, &context);
 
         getMidpSocketProtocolPtr(thisObject)->handle = (jint)INVALID_HANDLE;
@@ -0,0 +1,397 @@
+/*
+ *  
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+#include <kni.h>
+#include <sni.h>
+#include <commonKNIMacros.h>
+#include <ROMStructs.h>
+
+#include <midpError.h>
+#include <midpMalloc.h>
+#include <midpServices.h>
+#include <midp_thread.h>
+#include <midp_logging.h>
+#include <push_server_resource_mgmt.h>
+#include <pcsl_network.h>
+#include <pcsl_network_notifier.h>
+
+#include <socket_selector_export.h>
+
+/**
+ * @file
+ * 
+ * Registry of the sockets watched by the socket selectors of the
+ * "socket:" protocol, and the native functions of the selector.
+ * <p>
+ * Readiness is one shot: when a socket becomes ready for an operation
+ * the interest in it is dropped and its platform notifier removed, so a
+ * socket nobody reads does not keep waking up the VM. The selector
+ * renews the interest after its listener has handled the readiness.
+ */
+
+/* Macro to retrieve C structure representation of an Object */
+typedef struct Java_com_sun_midp_io_j2me_socket_Protocol _socketProtocol;
+#define getMidpSocketProtocolPtr(handle) (unhand(_socketProtocol,(handle)))
+
+/** A socket watched by a selector. */
+typedef struct _SelectorEntry {
+    /** Platform specific handle of the socket */
+    int handle;
+    /** Isolate of the selector that watches the socket */
+    int isolateId;
+    /** Operations the selector waits for */
+    int interestOps;
+    /** Operations the socket became ready for, not yet selected */
+    int readyOps;
+    /** Next entry of the registry */
+    struct _SelectorEntry* next;
+} SelectorEntry;
+
+/** Sockets watched by the selectors of all isolates. */
+static SelectorEntry* selectorEntries = NULL;
+
+/** An isolate whose selector was woken up. */
+typedef struct _PendingWakeup {
+    /** Isolate of the selector */
+    int isolateId;
+    /** Next pending wake up */
+    struct _PendingWakeup* next;
+} PendingWakeup;
+
+/**
+ * Isolates whose selector was woken up, so a selector thread about to
+ * block in <code>select0</code> does not miss the wake up meant for it.
+ */
+static PendingWakeup* pendingWakeups = NULL;
+
+/**
+ * Finds the registry entry of a socket.
+ *
+ * @param handle Platform specific handle of the socket
+ *
+ * @return the entry or NULL
+ */
+static SelectorEntry* findEntry(int handle) {
+    SelectorEntry* p;
+
+    for (p = selectorEntries; p != NULL; p = p->next) {
+        if (p->handle == handle) {
+            return p;
+        }
+    }
+
+    return NULL;
+}
+
+/**
+ * Takes the pending wake up of the selector of an isolate.
+ *
+ * @param isolateId isolate of the selector
+ *
+ * @return <tt>1</tt> if the selector was woken up since it last took
+ *         its wake up, <tt>0</tt> otherwise
+ */
+static int takeWakeup(int isolateId) {
+    PendingWakeup** pp;
+
+    for (pp = &pendingWakeups; *pp != NULL; pp = &(*pp)->next) {
+        if ((*pp)->isolateId == isolateId) {
+            PendingWakeup* p = *pp;
+
+            *pp = p->next;
+            midpFree(p);
+            return 1;
+        }
+    }
+
+    return 0;
+}
+
+/**
+ * Installs or removes the platform notifiers of a socket.
+ *
+ * @param handle Platform specific handle of the socket
+ * @param ops operations to notify or stop notifying
+ * @param add non-zero to install the notifiers, zero to remove them
+ */
+static void setNotifiers(int handle, int ops, int add) {
+    if (ops & SOCKET_SELECT_READ) {
+        if (add) {
+            pcsl_add_network_notifier((void*)handle, PCSL_NET_CHECK_READ);
+        } else {
+            pcsl_remove_network_notifier((void*)handle, PCSL_NET_CHECK_READ);
+        }
+    }
+
+    if (ops & SOCKET_SELECT_WRITE) {
+        if (add) {
+            pcsl_add_network_notifier((void*)handle, PCSL_NET_CHECK_WRITE);
+        } else {
+            pcsl_remove_network_notifier((void*)handle,
+                                         PCSL_NET_CHECK_WRITE);
+        }
+    }
+}
+
+/**
+ * Records the readiness of a socket watched by a selector. Called for
+ * the network signals no Java thread is blocked for.
+ *
+ * @param handle Platform specific handle of the socket
+ * @param signalType NETWORK_READ_SIGNAL or NETWORK_WRITE_SIGNAL
+ *
+ * @return <tt>1</tt> if a selector watches the socket for the signal and
+ *         has to be woken up with NETWORK_SELECT_SIGNAL, 
+ *         <tt>0</tt> otherwise
+ */
+int socket_selector_notify(int handle, midpSignalType signalType) {
+    SelectorEntry* p = findEntry(handle);
+    int op;
+
+    if (p == NULL) {
+        return 0;
+    }
+
+    if (signalType == NETWORK_READ_SIGNAL) {
+        op = SOCKET_SELECT_READ;
+    } else if (signalType == NETWORK_WRITE_SIGNAL) {
+        op = SOCKET_SELECT_WRITE;
+    } else {
+        return 0;
+    }
+
+    if ((p->interestOps & op) == 0) {
+        return 0;
+    }
+
+    p->interestOps &= ~op;
+    p->readyOps |= op;
+    setNotifiers(handle, op, 0);
+
+    REPORT_INFO2(LC_PROTOCOL, "socket selector: fd=%d ready=%d\n",
+                 handle, p->readyOps);
+
+    return 1;
+}
+
+/**
+ * Gets the operations a selector waits for on a socket.
+ *
+ * @param handle Platform specific handle of the socket
+ *
+ * @return SOCKET_SELECT_READ and SOCKET_SELECT_WRITE bits, 
+ *         <tt>0</tt> if no selector watches the socket
+ */
+int socket_selector_get_interest(int handle) {
+    SelectorEntry* p = findEntry(handle);
+
+    return (p == NULL) ? 0 : p->interestOps;
+}
+
+/**
+ * Stops watching a socket. Called when the socket is closed.
+ *
+ * @param handle Platform specific handle of the socket
+ */
+void socket_selector_remove(int handle) {
+    SelectorEntry** pp;
+
+    for (pp = &selectorEntries; *pp != NULL; pp = &(*pp)->next) {
+        if ((*pp)->handle == handle) {
+            SelectorEntry* p = *pp;
+
+            *pp = p->next;
+            setNotifiers(handle, p->interestOps, 0);
+            midpFree(p);
+            return;
+        }
+    }
+}
+
+/**
+ * Sets the operations a selector waits for on a socket. Readiness for
+ * operations no longer wanted is forgotten. Data in the push cache makes
+ * the socket ready for reading right away, the platform does not notify
+ * it.
+ * <p>
+ * Java declaration:
+ * <pre>
+ *     setInterest0(I)V
+ * </pre>
+ *
+ * @param ops operations to wait for, <tt>0</tt> to stop watching
+ *            the socket
+ */
+KNIEXPORT KNI_RETURNTYPE_VOID
+Java_com_sun_midp_io_j2me_socket_Protocol_setInterest0(void) {
+    int ops = (int)KNI_GetParameterAsInt(1);
+    int handle;
+    SelectorEntry* p;
+
+    KNI_StartHandles(1);
+    KNI_DeclareHandle(thisObject);
+    KNI_GetThisPointer(thisObject);
+
+    handle = (int)(getMidpSocketProtocolPtr(thisObject)->handle);
+
+    if ((void*)handle == INVALID_HANDLE) {
+        KNI_ThrowNew(midpIOException,
+                     "invalid handle during socket::setInterest");
+    } else if (ops == 0) {
+        socket_selector_remove(handle);
+    } else {
+        p = findEntry(handle);
+        if (p == NULL) {
+            p = (SelectorEntry*)midpMalloc(sizeof (SelectorEntry));
+            if (p == NULL) {
+                KNI_ThrowNew(midpOutOfMemoryError,
+                             "socket::setInterest");
+            } else {
+                p->handle = handle;
+                p->interestOps = 0;
+                p->readyOps = 0;
+                p->next = selectorEntries;
+                selectorEntries = p;
+            }
+        }
+
+        if (p != NULL) {
+            p->isolateId = getCurrentIsolateId();
+            setNotifiers(handle, p->interestOps & ~ops, 0);
+            p->readyOps &= ops;
+            p->interestOps = ops & ~p->readyOps;
+
+            if ((p->interestOps & SOCKET_SELECT_READ) &&
+                    pushcacheddatasize(handle) > 0) {
+                p->interestOps &= ~SOCKET_SELECT_READ;
+                p->readyOps |= SOCKET_SELECT_READ;
+            }
+
+            setNotifiers(handle, p->interestOps, 1);
+
+            if (p->readyOps != 0) {
+                midp_thread_signal(NETWORK_SELECT_SIGNAL, 0, 0);
+            }
+        }
+    }
+
+    KNI_EndHandles();
+    KNI_ReturnVoid();
+}
+
+/**
+ * Takes the sockets of the current isolate that became ready. Blocks the
+ * calling thread until a socket is ready or the selector is woken up if
+ * none is ready at the first invocation.
+ * <p>
+ * Java declaration:
+ * <pre>
+ *     select0([I[I)I
+ * </pre>
+ *
+ * @param handles receives the handles of the ready sockets
+ * @param readyOps receives the operations each socket is ready for
+ *
+ * @return number of sockets stored in the arrays, may be <tt>0</tt>
+ *         after a wake up
+ */
+KNIEXPORT KNI_RETURNTYPE_INT
+Java_com_sun_midp_io_j2me_socket_SocketSelector_select0(void) {
+    int isolateId = getCurrentIsolateId();
+    int count = 0;
+    int max;
+    SelectorEntry* p;
+
+    KNI_StartHandles(2);
+    KNI_DeclareHandle(handlesObject);
+    KNI_DeclareHandle(opsObject);
+    KNI_GetParameterAsObject(1, handlesObject);
+    KNI_GetParameterAsObject(2, opsObject);
+
+    max = (int)KNI_GetArrayLength(handlesObject);
+    if ((int)KNI_GetArrayLength(opsObject) < max) {
+        max = (int)KNI_GetArrayLength(opsObject);
+    }
+
+    for (p = selectorEntries; p != NULL && count < max; p = p->next) {
+        if (p->isolateId == isolateId && p->readyOps != 0) {
+            KNI_SetIntArrayElement(handlesObject, count, (jint)p->handle);
+            KNI_SetIntArrayElement(opsObject, count, (jint)p->readyOps);
+            p->readyOps = 0;
+            count++;
+        }
+    }
+
+    /* a wake up taken here is handled by this return */
+    if (!takeWakeup(isolateId) && count == 0 &&
+            SNI_GetReentryData(NULL) == NULL) {
+        midp_thread_wait(NETWORK_SELECT_SIGNAL, 0, NULL);
+    }
+
+    KNI_EndHandles();
+    KNI_ReturnInt((jint)count);
+}
+
+/**
+ * Wakes up the selector thread of the current isolate. The threads of
+ * the other isolates blocked in <code>select0</code> are woken up too
+ * by the signal, find no ready socket and block again.
+ * <p>
+ * Java declaration:
+ * <pre>
+ *     wakeup0(V)V
+ * </pre>
+ */
+KNIEXPORT KNI_RETURNTYPE_VOID
+Java_com_sun_midp_io_j2me_socket_SocketSelector_wakeup0(void) {
+    int isolateId = getCurrentIsolateId();
+    PendingWakeup* p;
+
+    for (p = pendingWakeups; p != NULL; p = p->next) {
+        if (p->isolateId == isolateId) {
+            break;
+        }
+    }
+
+    if (p == NULL) {
+        p = (PendingWakeup*)midpMalloc(sizeof (PendingWakeup));
+        if (p != NULL) {
+            p->isolateId = isolateId;
+            p->next = pendingWakeups;
+            pendingWakeups = p;
+        } else {
+            /*
+             * Not recorded, a selector thread that has not blocked yet
+             * will wait for the next ready socket or wake up.
+             */
+            REPORT_WARN(LC_PROTOCOL,
+                        "socket selector: no memory for a wake up\n");
+        }
+    }
+
+    midp_thread_signal(NETWORK_SELECT_SIGNAL, 0, 0);
+    KNI_ReturnVoid();
+}
@@ -41,6 +41,7 @@
 #include <midp_thread.h>
 
 #include <socket_notify_export.h>
+#include <socket_selector_export.h>
 
 /**
  * @file
@@ -129,6 +130,11 @@ NotifySocketStatusChanged(long handle, int waitingFor) {
     JVMSPI_ThreadID id = getBlockedThreadFromHandle(handle, waitingFor);
     if (id != 0) {
         midp_thread_unblock(id);
+    } else if (socket_selector_notify((int)handle, 
+                   (waitingFor == SD_RECV) ? NETWORK_READ_SIGNAL :
+                                             NETWORK_WRITE_SIGNAL)) {
+        /* A socket selector is waiting for the socket */
+        midp_thread_signal(NETWORK_SELECT_SIGNAL, 0, 0);
     }
 }
 
@@ -72,6 +72,14 @@ class OffsetCache extends IntToIntMapper {
 
 /**
  * A class implementing a index of the record store.
+ *
+ * Record stores with less than RMSConfig.RMS_INDEX_THRESHOLD records
+ * are searched linearly, remembering the offsets of the records seen.
+ * Larger record stores are scanned once and then fully indexed in
+ * memory: the offsets of all records and the free blocks are kept up
+ * to date as blocks are written, so looking up a record, rejecting an
+ * invalid record ID or finding a free block needs no scan of the
+ * db file.
  */
 class RecordStoreIndex {
 
@@ -84,6 +92,15 @@ class RecordStoreIndex {
     /** specifies record ID to offset mapping */
     private OffsetCache recordIdOffsets;
 
+    /**
+     * True if <code>recordIdOffsets</code> holds every record and
+     * <code>freeBlocks</code> every free block of the record store.
+     */
+    private boolean complete;
+
+    /** free block offset to block size mapping, null unless complete */
+    private IntToIntMapper freeBlocks;
+
     /** 
      * Specifies the version of record store for which this index is valid.
      * Index becomes invalid if another MIDlet changes the record store.
@@ -133,6 +150,16 @@ class RecordStoreIndex {
     void close() throws IOException {
     }
 
+    /**
+     * Writes the pending changes of the index. There is no index
+     * file in case of linear index implementation, thus makes
+     * nothing.
+     *
+     * @exception IOException if there are any file errors
+     */
+    void flush() throws IOException {
+    }
+
     /**
      * Deletes index filed of named record store. There is no index
      * file in case of linear index implementation, thus makes
@@ -220,6 +247,23 @@ class RecordStoreIndex {
 
         ensureIndexValidity();
 
+        if (isComplete()) {
+            int offset = recordIdOffsets.elementAt(recordId);
+            if (offset == INVALID_OFFSET) {
+                throw new InvalidRecordIDException("error finding record");
+            }
+
+            dbFile.seek(offset);
+            if (dbFile.read(header) ==
+                    AbstractRecordStoreImpl.BLOCK_HEADER_SIZE &&
+                    RecordStoreUtil.getInt(header, 0) == recordId) {
+                return offset;
+            }
+
+            // the index is wrong, fall back to searching
+            invalidateIndex();
+        }
+
         if (null != recordIdOffsets)
         {
             int offset = recordIdOffsets.elementAt(recordId);
@@ -375,6 +419,36 @@ class RecordStoreIndex {
                            " targetSize = " + targetSize);
         }
 
+        ensureIndexValidity();
+
+        if (isComplete()) {
+            // the first free block large enough, as found by the search
+            int freeOffset = 0;
+            for (int i = 0; i < freeBlocks.elementCount; i++) {
+                if (freeBlocks.elementData[i] >= targetSize &&
+                        (freeOffset == 0 ||
+                         freeBlocks.elementKey[i] < freeOffset)) {
+                    freeOffset = freeBlocks.elementKey[i];
+                }
+            }
+
+            if (freeOffset == 0) {
+                return 0;
+            }
+
+            dbFile.seek(freeOffset);
+            if (dbFile.read(header) ==
+                    AbstractRecordStoreImpl.BLOCK_HEADER_SIZE &&
+                    RecordStoreUtil.getInt(header, 0) < 0 &&
+                    RecordStoreUtil.calculateBlockSize(
+                        RecordStoreUtil.getInt(header, 4)) >= targetSize) {
+                return freeOffset;
+            }
+
+            // the index is wrong, fall back to searching
+            invalidateIndex();
+        }
+
         // search through the data blocks for a free block that is large enough
         while (currentOffset < recordStore.getSize()) {
             // seek to the next offset
@@ -442,7 +516,16 @@ class RecordStoreIndex {
         ensureIndexValidity();
 
         int recordId = RecordStoreUtil.getInt(header, 0);
-        if (null != recordIdOffsets) {
+        if (complete) {
+            if (recordId > 0) {
+                recordIdOffsets.setElementAt(blockOffset, recordId);
+                // the block may have been free
+                freeBlocks.removeElementAt(blockOffset);
+            } else {
+                freeBlocks.setElementAt(RecordStoreUtil.calculateBlockSize(
+                    RecordStoreUtil.getInt(header, 4)), blockOffset);
+            }
+        } else if (null != recordIdOffsets) {
             recordIdOffsets.setElementAt(blockOffset, recordId);
         }
     }
@@ -473,7 +556,10 @@ class RecordStoreIndex {
         // of a record.
         // In principle, all moved blocks will notify us via UpdateBlock(),
         // so LastSeenOffset=min(LastSeenOffset,blockOffset) should be ok.
-        if (null != recordIdOffsets) {
+        if (complete) {
+            // only free blocks are removed, moved records are updated
+            freeBlocks.removeElementAt(blockOffset);
+        } else if (null != recordIdOffsets) {
             recordIdOffsets.LastSeenOffset = recordIdOffsets.NO_OFFSET;
         }
     }
@@ -510,6 +596,14 @@ class RecordStoreIndex {
         indexVersion = newVersion;
     }
 
+    /**
+     * Drops the cached block offsets, they are searched again. Called
+     * when changes of the db file have been rolled back.
+     */
+    void invalidate() {
+        invalidateIndex();
+    }
+
     /**
      * Ensures index validity. Index becomes invalid when another 
      * MIDlet changes the record store.
@@ -534,5 +628,76 @@ class RecordStoreIndex {
      */
     private void invalidateIndex() {
         recordIdOffsets = null;
+        freeBlocks = null;
+        complete = false;
+    }
+
+    /**
+     * Checks if the record store is fully indexed, scanning it first
+     * if it has grown to RMSConfig.RMS_INDEX_THRESHOLD records.
+     *
+     * @return true if all the blocks are indexed
+     */
+    private boolean isComplete() {
+        if (!complete && recordStore.getNumRecords() >=
+                RMSConfig.RMS_INDEX_THRESHOLD) {
+            scanBlocks();
+        }
+
+        return complete;
+    }
+
+    /**
+     * Reads the headers of all the blocks of the db file into the
+     * index. If the db file cannot be read, the record store is
+     * searched linearly until the next attempt.
+     */
+    private void scanBlocks() {
+        OffsetCache offsets = new OffsetCache(recordStore.getNumRecords(),
+                                              INVALID_OFFSET,
+                                              CACHE_CAPACITY_INCREMENT);
+        IntToIntMapper free = new IntToIntMapper(INITIAL_CACHE_CAPACITY, 0,
+                                                 CACHE_CAPACITY_INCREMENT);
+        byte[] blockHeader = new byte[AbstractRecordStoreImpl.BLOCK_HEADER_SIZE];
+        int currentOffset = AbstractRecordStoreImpl.DB_HEADER_SIZE;
+        int dbSize = recordStore.getSize();
+
+        try {
+            while (currentOffset < dbSize) {
+                dbFile.seek(currentOffset);
+                if (dbFile.read(blockHeader) !=
+                        AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
+                    return;
+                }
+
+                int currentId = RecordStoreUtil.getInt(blockHeader, 0);
+                int currentSize = RecordStoreUtil.
+                    calculateBlockSize(RecordStoreUtil.getInt(blockHeader, 4));
+                if (currentSize <= 0) {
+                    return;
+                }
+
+                if (currentId > 0) {
+                    offsets.setElementAt(currentOffset, currentId);
+                    offsets.LastSeenOffset = currentOffset;
+                } else {
+                    free.setElementAt(currentSize, currentOffset);
+                }
+
+                currentOffset += currentSize;
+            }
+        } catch (IOException ioe) {
+            return;
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "scanBlocks records = " + offsets.size() +
+                           " free blocks = " + free.size());
+        }
+
+        recordIdOffsets = offsets;
+        freeBlocks = free;
+        complete = true;
     }
 }
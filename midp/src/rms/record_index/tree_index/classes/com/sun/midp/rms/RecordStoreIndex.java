@@ -27,6 +27,7 @@
 package com.sun.midp.rms;
 
 import java.io.IOException;
+import java.util.Hashtable;
 
 import javax.microedition.rms.*;
 
@@ -38,6 +39,7 @@ import com.sun.midp.log.LogChannels;
  *
  *  Methods used by the RecordStoreImpl
  *      close()
+ *      flush()
  *      deleteIndex()
  *      getRecordIDs()
  *      getRecordHeader()
@@ -45,7 +47,13 @@ import com.sun.midp.log.LogChannels;
  *      updateBlock()
  *      deleteRecordIndex()
  *      removeBlock()
+ *      recordStoreVersionUpdated()
  *
+ * Record stores with less than RMSConfig.RMS_INDEX_THRESHOLD
+ * records are searched linearly and have no index file. The index
+ * tree is built once a record store reaches that size. The most
+ * recently used tree nodes are cached, changed nodes are written
+ * back when the changes of a record store operation are committed.
  */
 
 class RecordStoreIndex {
@@ -57,7 +65,8 @@ class RecordStoreIndex {
      * 04-07 - Offset to recordId tree root (big endian)
      * 08-11 - Offset to free block tree root (big endian)
      * 12-15 - Offset to the list of free tree blocks (big endian)
-     * 16-xx - Tree Blocks
+     * 16-19 - Number of elements in each node, negated (big endian)
+     * 20-xx - Tree Blocks
      */
 
     /** IDX_SIZE offset */
@@ -72,11 +81,18 @@ class RecordStoreIndex {
     /** IDX_FREE_NODES offset */
     static final int IDX3_FREE_NODE_HEAD = 12;
 
+    /**
+     * IDX_NODE_ELEMENTS offset. The value is negated, so that an index
+     * file of an older layout, whose first node starts here, is
+     * detected and rebuilt.
+     */
+    static final int IDX4_NODE_ELEMENTS = 16;
+
     /** Size of the index header */
-    static final int IDX_HEADER_SIZE = 16;
+    static final int IDX_HEADER_SIZE = 20;
 
     /** The maximum number of data elements in each  node */
-    static final int NODE_ELEMENTS = 8;
+    static final int NODE_ELEMENTS = RMSConfig.RMS_INDEX_NODE_ELEMENTS;
 
     /** The size of the tree blocks */
     static final int NODE_SIZE = 4 + (NODE_ELEMENTS * (4 + 4 + 4));
@@ -93,8 +109,33 @@ class RecordStoreIndex {
     /** The header of the index file */
     private byte[] idxHeader = new byte[IDX_HEADER_SIZE];
 
-    /** The node buffer for initializing nodes */
-    private byte[] nodeBuf = new byte[NODE_SIZE];
+    /** True if the header has changed since the index was flushed */
+    private boolean isHeaderDirty;
+
+    /** ID of the suite that owns the record store */
+    private int suiteId;
+
+    /** Name of the record store */
+    private String recordStoreName;
+
+    /** True if the record store has an index tree */
+    private boolean hasTree;
+
+    /**
+     * Version of the record store for which the cached nodes and the
+     * header are valid. They become invalid if another MIDlet changes
+     * the record store.
+     */
+    private int indexVersion;
+
+    /** Cached nodes, by offset */
+    private Hashtable nodeCache = new Hashtable();
+
+    /** Most recently used cached node */
+    private CachedNode lruHead;
+
+    /** Least recently used cached node */
+    private CachedNode lruTail;
 
     /**
      * Constructor for creating an index object for the given Record Store.
@@ -112,28 +153,16 @@ class RecordStoreIndex {
             dbFile = rs.getDbFile();
         }
 
-        boolean exist =
-          RecordStoreUtil.exists(suiteId, recordStoreName,
-                                 AbstractRecordStoreFile.IDX_EXTENSION);
+        this.suiteId = suiteId;
+        this.recordStoreName = recordStoreName;
 
-        idxFile = rs.createIndexFile(suiteId, recordStoreName);
-
-        if (exist) {
-            // load header
-            if (idxFile.read(idxHeader) != IDX_HEADER_SIZE) {
-               throw new IOException("Index file corrupted");
-            }
-        } else {
-            RecordStoreUtil.putInt(IDX_HEADER_SIZE + NODE_SIZE * 2,
-                                   idxHeader, IDX0_SIZE);
-            RecordStoreUtil.putInt(IDX_HEADER_SIZE, idxHeader, IDX1_ID_ROOT);
-            RecordStoreUtil.putInt(IDX_HEADER_SIZE + NODE_SIZE,
-                                   idxHeader, IDX2_FREE_BLOCK_ROOT);
-            idxFile.write(idxHeader);
-            idxFile.write(nodeBuf);
-            idxFile.write(nodeBuf);
-            idxFile.commitWrite();
+        try {
+            indexVersion = rs.getVersion();
+        } catch (Exception e) {
+            // ignore
         }
+
+        openTree();
     }
 
     /**
@@ -142,7 +171,46 @@ class RecordStoreIndex {
      * @exception IOException if there are any file errors
      */
     void close() throws IOException {
-        idxFile.close();
+        if (hasTree) {
+            flush();
+        }
+
+        if (idxFile != null) {
+            idxFile.close();
+        }
+    }
+
+    /**
+     * Writes the changed nodes and header to the index file. Called when
+     * the changes of a record store operation are committed, builds the
+     * index tree if the record store has grown large enough.
+     *
+     * @exception IOException if there are any file errors
+     */
+    void flush() throws IOException {
+        if (!hasTree) {
+            // the blocks are consistent only between operations
+            if (recordStore.getNumRecords() >=
+                    RMSConfig.RMS_INDEX_THRESHOLD) {
+                buildTree();
+            }
+            return;
+        }
+
+        for (CachedNode cached = lruHead; cached != null;
+                 cached = cached.next) {
+            if (cached.dirty) {
+                writeNode(cached);
+            }
+        }
+
+        if (isHeaderDirty) {
+            idxFile.seek(0);
+            idxFile.write(idxHeader);
+            isHeaderDirty = false;
+        }
+
+        idxFile.commitWrite();
     }
 
     /**
@@ -152,11 +220,19 @@ class RecordStoreIndex {
      * @param suiteId ID of the MIDlet suite that owns the record store
      * @param recordStoreName the MIDlet suite unique record store to
      *          delete
-     * @return <code>true</code> if file was found and deleted successfully,
-     *         <code>false</code> otherwise.
+     * @return <code>true</code> if there was no index file or it was
+     *         deleted successfully, <code>false</code> otherwise.
      */
     static boolean deleteIndex(int suiteId, String recordStoreName) {
-        return RecordStoreUtil.quietDeleteFile(suiteId,
+        String filenameBase = RmsEnvironment.getSecureFilenameBase(suiteId);
+
+        // small record stores have no index file
+        if (!RecordStoreUtil.exists(filenameBase, recordStoreName,
+                                    AbstractRecordStoreFile.IDX_EXTENSION)) {
+            return true;
+        }
+
+        return RecordStoreUtil.quietDeleteFile(filenameBase,
                                    recordStoreName,
                                    AbstractRecordStoreFile.IDX_EXTENSION);
     }
@@ -188,7 +264,13 @@ class RecordStoreIndex {
         int count = 0;
 
         try {
-            Node node = new Node(idxFile);
+            ensureIndexValidity();
+
+            if (!hasTree) {
+                return scanRecordIds(recordIdList);
+            }
+
+            Node node = new Node();
             node.load(getRecordIdRootOffset());
 
             count = walk(node, recordIdList, 0);
@@ -221,6 +303,12 @@ class RecordStoreIndex {
             throw new InvalidRecordIDException("error finding record data");
         }
 
+        ensureIndexValidity();
+
+        if (!hasTree) {
+            return findRecordHeader(recordId, header);
+        }
+
         int loc_offset = getBlockOffsetOfRecord(recordId);
 
         if (loc_offset == 0) {
@@ -253,7 +341,7 @@ class RecordStoreIndex {
     int getBlockOffsetOfRecord(int recordId)
         throws IOException, InvalidRecordIDException {
 
-        Node node = new Node(idxFile);
+        Node node = new Node();
         node.load(getRecordIdRootOffset());
 
         int loc_offset = getKeyValue(node, recordId);
@@ -277,7 +365,9 @@ class RecordStoreIndex {
     void updateBlock(int blockOffset, byte[] header) throws IOException {
         int recordId = RecordStoreUtil.getInt(header, 0);
 
-        if (recordId > 0) {
+        ensureIndexValidity();
+
+        if (recordId > 0 && hasTree) {
             updateRecordId(recordId, blockOffset);
         }
     }
@@ -292,7 +382,7 @@ class RecordStoreIndex {
      * @exception IOException if there is an error accessing the index file
      */
     void updateRecordId(int recordId, int blockOffset) throws IOException {
-        Node node = new Node(idxFile);
+        Node node = new Node();
         node.load(getRecordIdRootOffset());
 
         // update the key
@@ -313,8 +403,14 @@ class RecordStoreIndex {
      * @exception IOException if there is an error accessing the db index
      */
     void deleteRecordIndex(int recordId) throws IOException {
+        ensureIndexValidity();
+
+        if (!hasTree) {
+            return;
+        }
+
         int rootOffset = getRecordIdRootOffset();
-        Node node = new Node(idxFile);
+        Node node = new Node();
         node.load(rootOffset);
 
         // find the key's node
@@ -385,6 +481,213 @@ class RecordStoreIndex {
     void removeBlock(int blockOffset, byte[] header) throws IOException {
     }
 
+    /**
+     * Called when record store version has been updated.
+     *
+     * @param newVersion new record store version
+     */
+    void recordStoreVersionUpdated(int newVersion) {
+        indexVersion = newVersion;
+    }
+
+    /**
+     * Rebuilds the index tree from the db file. Called when changes of
+     * the db file have been rolled back, the index file is not part of
+     * the journal and may describe them.
+     *
+     * @exception IOException if there is an error accessing the files
+     */
+    void invalidate() throws IOException {
+        if (hasTree) {
+            buildTree();
+        }
+    }
+
+    /**
+     * Ensures index validity. The cached nodes and header become
+     * invalid when another MIDlet changes the record store.
+     *
+     * @exception IOException if there is an error accessing the files
+     */
+    private void ensureIndexValidity() throws IOException {
+        int storeVersion = indexVersion;
+
+        try {
+            storeVersion = recordStore.getVersion();
+        } catch (Exception e) {
+            // ignore
+        }
+
+        if (indexVersion < storeVersion) {
+            // out of date, reload the tree
+            indexVersion = storeVersion;
+            clearNodeCache();
+
+            if (hasTree) {
+                idxFile.seek(0);
+                if (idxFile.read(idxHeader) != IDX_HEADER_SIZE) {
+                    throw new IOException("Index file corrupted");
+                }
+            } else {
+                openTree();
+            }
+        }
+
+        if (!hasTree &&
+                recordStore.getNumRecords() >= RMSConfig.RMS_INDEX_THRESHOLD) {
+            // another MIDlet may have built the tree
+            openTree();
+        }
+    }
+
+    /**
+     * Opens the index file if it exists and has the current layout.
+     *
+     * @exception IOException if there are any file errors
+     */
+    private void openTree() throws IOException {
+        if (!RecordStoreUtil.exists(
+                RmsEnvironment.getSecureFilenameBase(suiteId),
+                recordStoreName, AbstractRecordStoreFile.IDX_EXTENSION)) {
+            return;
+        }
+
+        if (idxFile == null) {
+            idxFile = recordStore.createIndexFile(suiteId, recordStoreName);
+        }
+
+        idxFile.seek(0);
+        if (idxFile.read(idxHeader) == IDX_HEADER_SIZE &&
+                RecordStoreUtil.getInt(idxHeader, IDX4_NODE_ELEMENTS) ==
+                    -NODE_ELEMENTS) {
+            hasTree = true;
+        }
+    }
+
+    /**
+     * Builds the index tree from the blocks of the database file,
+     * replacing the contents of the index file.
+     *
+     * @exception IOException if there are any file errors
+     */
+    private void buildTree() throws IOException {
+        if (idxFile == null) {
+            idxFile = recordStore.createIndexFile(suiteId, recordStoreName);
+        }
+
+        clearNodeCache();
+        hasTree = true;
+
+        RecordStoreUtil.putInt(IDX_HEADER_SIZE + NODE_SIZE * 2,
+                               idxHeader, IDX0_SIZE);
+        RecordStoreUtil.putInt(IDX_HEADER_SIZE, idxHeader, IDX1_ID_ROOT);
+        RecordStoreUtil.putInt(IDX_HEADER_SIZE + NODE_SIZE,
+                               idxHeader, IDX2_FREE_BLOCK_ROOT);
+        RecordStoreUtil.putInt(0, idxHeader, IDX3_FREE_NODE_HEAD);
+        RecordStoreUtil.putInt(-NODE_ELEMENTS, idxHeader, IDX4_NODE_ELEMENTS);
+
+        byte[] nodeBuf = new byte[NODE_SIZE];
+        idxFile.seek(0);
+        idxFile.write(idxHeader);
+        idxFile.write(nodeBuf);
+        idxFile.write(nodeBuf);
+
+        byte[] header = new byte[AbstractRecordStoreImpl.BLOCK_HEADER_SIZE];
+        int dbSize = recordStore.getSize();
+        int currentOffset = AbstractRecordStoreImpl.DB_HEADER_SIZE;
+
+        while (currentOffset < dbSize) {
+            dbFile.seek(currentOffset);
+            if (dbFile.read(header) !=
+                    AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
+                throw new IOException("Could not read block " +
+                                      currentOffset);
+            }
+
+            int recordId = RecordStoreUtil.getInt(header, 0);
+            if (recordId > 0) {
+                updateRecordId(recordId, currentOffset);
+            }
+
+            currentOffset += RecordStoreUtil.
+                calculateBlockSize(RecordStoreUtil.getInt(header, 4));
+        }
+
+        flush();
+    }
+
+    /**
+     * Searches the database file for the block of a record, when the
+     * record store has no index tree.
+     *
+     * @param recordId the ID of the record to use in this operation
+     * @param header a buffer that receives the header of the block
+     *
+     * @exception IOException if there is an error accessing the db file
+     * @exception InvalidRecordIDException if the recordId is invalid
+     *
+     * @return the offset in the db file of the block
+     */
+    private int findRecordHeader(int recordId, byte[] header)
+        throws IOException, InvalidRecordIDException {
+
+        int dbSize = recordStore.getSize();
+        int currentOffset = AbstractRecordStoreImpl.DB_HEADER_SIZE;
+
+        while (currentOffset < dbSize) {
+            dbFile.seek(currentOffset);
+            if (dbFile.read(header) !=
+                    AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
+                break;
+            }
+
+            if (RecordStoreUtil.getInt(header, 0) == recordId) {
+                return currentOffset;
+            }
+
+            currentOffset += RecordStoreUtil.
+                calculateBlockSize(RecordStoreUtil.getInt(header, 4));
+        }
+
+        // did not find the recordId
+        throw new InvalidRecordIDException();
+    }
+
+    /**
+     * Places the recordId's found in the database file in the given
+     * array, when the record store has no index tree.
+     *
+     * @param recordIdList array to place the recordId's
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return the number of recordId's placed in the array.
+     */
+    private int scanRecordIds(int[] recordIdList) throws IOException {
+        byte[] header = new byte[AbstractRecordStoreImpl.BLOCK_HEADER_SIZE];
+        int dbSize = recordStore.getSize();
+        int currentOffset = AbstractRecordStoreImpl.DB_HEADER_SIZE;
+        int count = 0;
+
+        while (currentOffset < dbSize && count < recordIdList.length) {
+            dbFile.seek(currentOffset);
+            if (dbFile.read(header) !=
+                    AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
+                break;
+            }
+
+            int recordId = RecordStoreUtil.getInt(header, 0);
+            if (recordId > 0) {
+                recordIdList[count++] = recordId;
+            }
+
+            currentOffset += RecordStoreUtil.
+                calculateBlockSize(RecordStoreUtil.getInt(header, 4));
+        }
+
+        return count;
+    }
+
 
     /**
      *  Getter/Setter for header info
@@ -410,9 +713,7 @@ class RecordStoreIndex {
      */
     void setRecordIdRootOffset(int newOffset) throws IOException {
         RecordStoreUtil.putInt(newOffset, idxHeader, IDX1_ID_ROOT);
-        idxFile.seek(0);
-        idxFile.write(idxHeader);
-        idxFile.commitWrite();
+        isHeaderDirty = true;
     }
 
     /**
@@ -435,9 +736,7 @@ class RecordStoreIndex {
      */
     void setFreeBlockRootOffset(int newOffset) throws IOException {
         RecordStoreUtil.putInt(newOffset, idxHeader, IDX2_FREE_BLOCK_ROOT);
-        idxFile.seek(0);
-        idxFile.write(idxHeader);
-        idxFile.commitWrite();
+        isHeaderDirty = true;
     }
 
     /**
@@ -461,13 +760,15 @@ class RecordStoreIndex {
             loc_offset = RecordStoreUtil.getInt(idxHeader, IDX0_SIZE);
             RecordStoreUtil.putInt(loc_offset + NODE_SIZE,
 	                           idxHeader, IDX0_SIZE);
+
+            // extend the file now, cached nodes may be written in any order
+            idxFile.seek(loc_offset);
+            idxFile.write(new byte[NODE_SIZE]);
         } else {
             idxFile.seek(loc_offset);
             idxFile.read(idxHeader, IDX3_FREE_NODE_HEAD, 4);
         }
-        idxFile.seek(0);
-        idxFile.write(idxHeader);
-        idxFile.commitWrite();
+        isHeaderDirty = true;
 
         return loc_offset;
     }
@@ -480,13 +781,183 @@ class RecordStoreIndex {
      * @exception IOException if there is an error accessing the index file
      */
     private void freeNode(int inp_offset) throws IOException {
+        // the free list link must not be overwritten by the cached node
+        CachedNode cached = (CachedNode)nodeCache.get(new Integer(inp_offset));
+        if (cached != null) {
+            removeCachedNode(cached);
+        }
+
         idxFile.seek(inp_offset);
         idxFile.write(idxHeader, IDX3_FREE_NODE_HEAD, 4);
 
         RecordStoreUtil.putInt(inp_offset, idxHeader, IDX3_FREE_NODE_HEAD);
-        idxFile.seek(0);
-        idxFile.write(idxHeader);
-        idxFile.commitWrite();
+        isHeaderDirty = true;
+    }
+
+
+    /**
+     *  Node cache management
+     */
+
+    /**
+     * Gets the data of the node at the given offset, from the node
+     * cache or from the index file.
+     *
+     * @param inp_offset the offset of the node
+     *
+     * @exception IOException if there is an error accessing the index file
+     *
+     * @return the node data, which must not be modified
+     */
+    private byte[] readNode(int inp_offset) throws IOException {
+        CachedNode cached = (CachedNode)nodeCache.get(new Integer(inp_offset));
+
+        if (cached != null) {
+            unlink(cached);
+            link(cached);
+            return cached.data;
+        }
+
+        byte[] data = new byte[NODE_SIZE];
+        idxFile.seek(inp_offset);
+        if (idxFile.read(data) != NODE_SIZE) {
+            throw new IOException("Could not read node " + inp_offset);
+        }
+
+        cacheNode(inp_offset, data, false);
+        return data;
+    }
+
+    /**
+     * Saves the data of the node at the given offset. The node is
+     * written to the index file when it is flushed or evicted from
+     * the node cache.
+     *
+     * @param inp_offset the offset of the node
+     * @param data the node data
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void saveNode(int inp_offset, byte[] data) throws IOException {
+        if (RMSConfig.RMS_INDEX_NODE_CACHE_SIZE == 0) {
+            idxFile.seek(inp_offset);
+            idxFile.write(data);
+            return;
+        }
+
+        CachedNode cached = (CachedNode)nodeCache.get(new Integer(inp_offset));
+
+        if (cached != null) {
+            cached.data = data;
+            cached.dirty = true;
+            unlink(cached);
+            link(cached);
+        } else {
+            cacheNode(inp_offset, data, true);
+        }
+    }
+
+    /**
+     * Adds a node to the node cache, evicting the least recently used
+     * node if the cache is full.
+     *
+     * @param inp_offset the offset of the node
+     * @param data the node data
+     * @param dirty true if the node has to be written to the index file
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void cacheNode(int inp_offset, byte[] data, boolean dirty)
+        throws IOException {
+
+        if (RMSConfig.RMS_INDEX_NODE_CACHE_SIZE == 0) {
+            return;
+        }
+
+        if (nodeCache.size() >= RMSConfig.RMS_INDEX_NODE_CACHE_SIZE) {
+            CachedNode evicted = lruTail;
+            if (evicted.dirty) {
+                writeNode(evicted);
+            }
+            removeCachedNode(evicted);
+        }
+
+        CachedNode cached = new CachedNode(inp_offset, data);
+        cached.dirty = dirty;
+        nodeCache.put(new Integer(inp_offset), cached);
+        link(cached);
+    }
+
+    /**
+     * Writes a cached node to the index file.
+     *
+     * @param cached the cached node
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void writeNode(CachedNode cached) throws IOException {
+        idxFile.seek(cached.offset);
+        idxFile.write(cached.data);
+        cached.dirty = false;
+    }
+
+    /**
+     * Removes a node from the node cache without writing it.
+     *
+     * @param cached the cached node
+     */
+    private void removeCachedNode(CachedNode cached) {
+        unlink(cached);
+        nodeCache.remove(new Integer(cached.offset));
+    }
+
+    /**
+     * Removes all nodes from the node cache without writing them.
+     */
+    private void clearNodeCache() {
+        nodeCache.clear();
+        lruHead = null;
+        lruTail = null;
+    }
+
+    /**
+     * Inserts a cached node at the head of the LRU list.
+     *
+     * @param cached the cached node
+     */
+    private void link(CachedNode cached) {
+        cached.prev = null;
+        cached.next = lruHead;
+
+        if (lruHead != null) {
+            lruHead.prev = cached;
+        } else {
+            lruTail = cached;
+        }
+
+        lruHead = cached;
+    }
+
+    /**
+     * Removes a cached node from the LRU list.
+     *
+     * @param cached the cached node
+     */
+    private void unlink(CachedNode cached) {
+        if (cached.prev != null) {
+            cached.prev.next = cached.next;
+        } else {
+            lruHead = cached.next;
+        }
+
+        if (cached.next != null) {
+            cached.next.prev = cached.prev;
+        } else {
+            lruTail = cached.prev;
+        }
+
+        cached.prev = null;
+        cached.next = null;
     }
 
 
@@ -582,7 +1053,7 @@ class RecordStoreIndex {
         }
 
         // add the key to the node
-        Node newNode = new Node(idxFile);
+        Node newNode = new Node();
         int rightChild = 0;
 
         while (key > 0) {
@@ -703,7 +1174,7 @@ class RecordStoreIndex {
         if (node.child[index+1] > 0) {
             // find the least key in the subtree
             Node rootNode = node;
-            node = new Node(idxFile);
+            node = new Node();
             node.load(rootNode.child[index+1]);
             node.copyStack(rootNode);
             node.pushParent(rootNode.offset);
@@ -743,7 +1214,7 @@ class RecordStoreIndex {
             }
 
             // load the parent of this node
-            Node parentNode = new Node(idxFile);
+            Node parentNode = new Node();
             parentNode.load(parentOffset);
 
             // find the offset of the node in the parent
@@ -757,7 +1228,7 @@ class RecordStoreIndex {
             // try loading the left sibling
             if (childIdx-1 >= 0) {
                 // load the left sibling
-                siblingNode = new Node(idxFile);
+                siblingNode = new Node();
                 siblingNode.load(parentNode.child[childIdx-1]);
                 midpointIdx = childIdx-1;
             }
@@ -766,7 +1237,7 @@ class RecordStoreIndex {
             if (siblingNode == null ||
                 node.numKeys + siblingNode.numKeys + 1 > NODE_ELEMENTS) {
                 if (siblingNode == null) {
-                    siblingNode = new Node(idxFile);
+                    siblingNode = new Node();
                 }
 
                 // not a merge candidate, check the right sibling
@@ -944,9 +1415,6 @@ class RecordStoreIndex {
      * Abstraction of a tree node
      */
     class Node {
-        /** file that contains the tree, the index file */
-        AbstractRecordStoreFile treeFile;
-
         /** number of keys in this node */
         int numKeys;
 
@@ -970,11 +1438,8 @@ class RecordStoreIndex {
 
         /**
          * Constructor for creating a node in the tree.
-         *
-         * @param file the index file that contains this node
          */
-        Node(AbstractRecordStoreFile file) {
-            treeFile = file;
+        Node() {
         }
 
         /**
@@ -1094,35 +1559,23 @@ class RecordStoreIndex {
             offset = inp_offset;
             numKeys = 0;
 
-            // seek to the start of the node
-            treeFile.seek(inp_offset);
-
-            byte[] buffer = new byte[12];
+            byte[] buffer = readNode(inp_offset);
 
-            // read the first child
-            if (treeFile.read(buffer, 0, 4) != 4) {
-                throw new IOException("Could not read first child " +
-                                      inp_offset);
-            }
+            // the first child
             child[0] = RecordStoreUtil.getInt(buffer, 0);
 
-            // read the key, value, child triplets
+            // the key, value, child triplets
             int i = 0;
-            for (; i < NODE_ELEMENTS; i++) {
-                if (treeFile.read(buffer) != buffer.length) {
-                    throw new IOException("Could not read entire buffer " +
-                                          inp_offset);
-                }
-
-                int tempKey = RecordStoreUtil.getInt(buffer, 0);
+            for (int pos = 4; i < NODE_ELEMENTS; i++, pos += 12) {
+                int tempKey = RecordStoreUtil.getInt(buffer, pos);
                 if (tempKey <= 0) {
                     break;
                 }
 
                 numKeys++;
                 key[i] = tempKey;
-                value[i] = RecordStoreUtil.getInt(buffer, 4);
-                child[i+1] = RecordStoreUtil.getInt(buffer, 8);
+                value[i] = RecordStoreUtil.getInt(buffer, pos + 4);
+                child[i+1] = RecordStoreUtil.getInt(buffer, pos + 8);
             }
 
             // clear the rest of the entries
@@ -1140,24 +1593,19 @@ class RecordStoreIndex {
          * @exception IOException if there is an error accessing the tree file
          */
         void save() throws IOException {
-            // seek to the start of the node
-            treeFile.seek(offset);
-
-            byte[] buffer = new byte[12];
+            byte[] buffer = new byte[NODE_SIZE];
 
-            // write the left most child
+            // the left most child
             RecordStoreUtil.putInt(child[0], buffer, 0);
-            treeFile.write(buffer, 0, 4);
-
-            // write the key, value, child triplets
-            for (int i = 0; i < NODE_ELEMENTS; i++) {
-                RecordStoreUtil.putInt(key[i], buffer, 0);
-                RecordStoreUtil.putInt(value[i], buffer, 4);
-                RecordStoreUtil.putInt(child[i+1], buffer, 8);
-                treeFile.write(buffer);
+
+            // the key, value, child triplets
+            for (int i = 0, pos = 4; i < NODE_ELEMENTS; i++, pos += 12) {
+                RecordStoreUtil.putInt(key[i], buffer, pos);
+                RecordStoreUtil.putInt(value[i], buffer, pos + 4);
+                RecordStoreUtil.putInt(child[i+1], buffer, pos + 8);
             }
 
-            treeFile.commitWrite();
+            saveNode(offset, buffer);
         }
 
         /**
@@ -1175,4 +1623,35 @@ class RecordStoreIndex {
             return temp;
         }
     }
+
+    /**
+     * A node of the tree kept in the node cache
+     */
+    private static class CachedNode {
+        /** offset of the node in the tree file */
+        int offset;
+
+        /** node data, as stored in the tree file */
+        byte[] data;
+
+        /** true if the node has to be written to the tree file */
+        boolean dirty;
+
+        /** more recently used node */
+        CachedNode prev;
+
+        /** less recently used node */
+        CachedNode next;
+
+        /**
+         * Constructs a cached node.
+         *
+         * @param offset offset of the node in the tree file
+         * @param data node data
+         */
+        CachedNode(int offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,678 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+/**
+ * @file
+ *
+ * Mapped implementation of the RMS file cache interface declared in
+ * midp_file_cache.h, selected with USE_RMS_MAPPED_FILES=true.
+ *
+ * A record store file is read into a native buffer when it is opened,
+ * and reads and writes are served from that buffer, so that accessing
+ * a record or the database header costs a memory copy instead of
+ * storage calls. Changed pages are written back when the file is
+ * flushed or closed, or once RMS_CACHE_LIMIT bytes of changes have
+ * been gathered.
+ *
+ * The buffer is shared by all handles opening the same file, so that
+ * changes made through one handle (e.g. by another isolate) are seen
+ * through the others at once. Each handle keeps its own position.
+ *
+ * The buffers of all mapped files together take at most
+ * RMS_MAPPED_FILE_LIMIT bytes. A file whose buffer doesn't fit into
+ * what is left, or cannot be allocated, is accessed directly in
+ * storage; so is a mapped file that grows beyond it, once its changes
+ * are written back.
+ */
+
+#include <kni.h>
+#include "midp_file_cache.h"
+#include <midpMalloc.h>
+#include <midpStorage.h> /* IMPL_NOTE: use PCSL File API */
+#include <midp_logging.h>
+#include <midp_properties_port.h>
+#include <string.h>
+
+/* Size of the units in which changes are tracked and written back */
+#define MAPPED_PAGE_SIZE 512
+
+/* Rounds a size up to a multiple of MAPPED_PAGE_SIZE */
+#define PAGE_ALIGN(size) \
+    (((size) + MAPPED_PAGE_SIZE - 1) / MAPPED_PAGE_SIZE * MAPPED_PAGE_SIZE)
+
+/* Size of the bitmap of changed pages for a buffer of the given size */
+#define DIRTY_MAP_SIZE(capacity) \
+    (((capacity) / MAPPED_PAGE_SIZE + 7) / 8)
+
+#define IS_DIRTY(f, page) ((f)->dirty[(page) >> 3] & (1 << ((page) & 7)))
+
+#define UNINITIALIZED_CACHED_VALUE (-1)
+
+/* A file read into memory, shared by all handles opening it */
+typedef struct _MidpMappedFile {
+    struct _MidpMappedFile *next;  /* next mapped file */
+    pcsl_string filename;          /* name of the file */
+    int refCount;                  /* number of handles using the file */
+    char *data;                    /* file contents, NULL if not mapped */
+    long size;                     /* current size of the file */
+    long capacity;                 /* size of the buffer */
+    long storedSize;               /* size of the file in storage */
+    unsigned char *dirty;          /* one bit per changed page */
+    long dirtySize;                /* size of the changed pages */
+} MidpMappedFile;
+
+/* An open file handle */
+typedef struct _MidpMappedHandle {
+    struct _MidpMappedHandle *next; /* next open handle */
+    int handle;                     /* storage handle */
+    MidpMappedFile *file;           /* file opened by the handle */
+    long position;                  /* position, if the file is mapped */
+} MidpMappedHandle;
+
+/* Files opened through this interface */
+static MidpMappedFile *mappedFiles;
+
+/* Handles opened through this interface */
+static MidpMappedHandle *mappedHandles;
+
+/* Memory for the buffers of mapped files, -1 until initialized */
+static long mappedFileLimit = UNINITIALIZED_CACHED_VALUE;
+
+/* Memory taken by the buffers of mapped files */
+static long mappedSize;
+
+/* Size of changes gathered before a file is written back */
+static long dirtyLimit;
+
+/* Free space of cachedStorageId, not counting unwritten growth */
+static jlong cachedFreeSpace = UNINITIALIZED_CACHED_VALUE;
+
+/* Storage the free space is cached for */
+static StorageIdType cachedStorageId;
+
+/*
+ * Initialize the limits reading the RMS_MAPPED_FILE_LIMIT and
+ * RMS_CACHE_LIMIT properties, using the constants as default values.
+ * The limits are initialized only once.
+ */
+static void initLimits() {
+    int limit;
+
+    if (mappedFileLimit != UNINITIALIZED_CACHED_VALUE) {
+        return;
+    }
+
+    limit = getInternalPropertyInt("RMS_MAPPED_FILE_LIMIT");
+    if (0 == limit) {
+        REPORT_INFO(LC_RMS, "RMS_MAPPED_FILE_LIMIT property not set");
+        /* set XML constant value as property value */
+        limit = RMS_MAPPED_FILE_LIMIT;
+    }
+    mappedFileLimit = limit;
+
+    limit = getInternalPropertyInt("RMS_CACHE_LIMIT");
+    if (0 == limit) {
+        REPORT_INFO(LC_RMS, "RMS_CACHE_LIMIT property not set");
+        limit = RMS_CACHE_LIMIT;
+    }
+    dirtyLimit = limit;
+}
+
+/* Finds an open handle, returns NULL if it is not known */
+static MidpMappedHandle* findHandle(int handle) {
+    MidpMappedHandle *h;
+
+    for (h = mappedHandles; h != NULL; h = h->next) {
+        if (h->handle == handle) {
+            return h;
+        }
+    }
+
+    return NULL;
+}
+
+/* Returns true if the file of a handle is kept in memory */
+static int isMapped(MidpMappedHandle *h) {
+    return h != NULL && h->file->data != NULL;
+}
+
+/* Marks the pages covering a range of a mapped file as changed */
+static void markDirty(MidpMappedFile *f, long position, long length) {
+    long page;
+    long last = (position + length - 1) / MAPPED_PAGE_SIZE;
+
+    for (page = position / MAPPED_PAGE_SIZE; page <= last; page++) {
+        if (!IS_DIRTY(f, page)) {
+            f->dirty[page >> 3] |= (unsigned char)(1 << (page & 7));
+            f->dirtySize += MAPPED_PAGE_SIZE;
+        }
+    }
+}
+
+/*
+ * Writes the changed pages of a mapped file to storage, merging
+ * adjacent pages into one write.
+ */
+static void writeBack(char** ppszError, int handle, MidpMappedFile *f) {
+    long numPages = f->capacity / MAPPED_PAGE_SIZE;
+    long page = 0;
+    long first, start, end;
+
+    *ppszError = NULL;
+
+    if (f->dirtySize == 0) {
+        return;
+    }
+
+    while (page < numPages) {
+        if (!IS_DIRTY(f, page)) {
+            page++;
+            continue;
+        }
+
+        first = page;
+        while (page < numPages && IS_DIRTY(f, page)) {
+            page++;
+        }
+
+        start = first * MAPPED_PAGE_SIZE;
+        end = page * MAPPED_PAGE_SIZE;
+        if (end > f->size) {
+            end = f->size;
+        }
+
+        if (start < end) {
+            storagePosition(ppszError, handle, start);
+            if (*ppszError != NULL) {
+                REPORT_ERROR(LC_RMS, "Mapped file write back error");
+                return;
+            }
+
+            storageWrite(ppszError, handle, f->data + start, end - start);
+            if (*ppszError != NULL) {
+                REPORT_ERROR(LC_RMS, "Mapped file write back error");
+                return;
+            }
+        }
+
+        /* the pages are in storage now */
+        for (; first < page; first++) {
+            f->dirty[first >> 3] &= (unsigned char)~(1 << (first & 7));
+            f->dirtySize -= MAPPED_PAGE_SIZE;
+        }
+    }
+
+    if (f->size > f->storedSize) {
+        if (cachedFreeSpace != UNINITIALIZED_CACHED_VALUE) {
+            cachedFreeSpace -= f->size - f->storedSize;
+        }
+        f->storedSize = f->size;
+    }
+}
+
+/* Returns true if a buffer can grow by the given size within the limit */
+static int fitsLimit(long growth) {
+    return growth <= mappedFileLimit - mappedSize;
+}
+
+/*
+ * Reads a file into memory. The file stays in storage only if its
+ * buffer doesn't fit into the limit or there is not enough memory.
+ */
+static void mapFile(int handle, MidpMappedFile *f) {
+    char* pszError;
+    long size;
+    long capacity;
+    long total = 0;
+    long n;
+
+    size = storageSizeOf(&pszError, handle);
+    if (pszError != NULL) {
+        storageFreeError(pszError);
+        return;
+    }
+
+    capacity = PAGE_ALIGN(size);
+    if (capacity == 0) {
+        capacity = MAPPED_PAGE_SIZE;
+    }
+
+    if (!fitsLimit(capacity)) {
+        REPORT_INFO1(LC_RMS, "File doesn't fit into mapped file limit: %ld", size);
+        return;
+    }
+
+    f->data = (char*)midpMalloc(capacity);
+    f->dirty = (unsigned char*)midpCalloc(DIRTY_MAP_SIZE(capacity), 1);
+    if (f->data == NULL || f->dirty == NULL) {
+        REPORT_WARN(LC_RMS, "Not enough memory to map file");
+        midpFree(f->data);
+        midpFree(f->dirty);
+        f->data = NULL;
+        f->dirty = NULL;
+        return;
+    }
+
+    storagePosition(&pszError, handle, 0);
+    while (pszError == NULL && total < size) {
+        n = storageRead(&pszError, handle, f->data + total, size - total);
+        if (n <= 0) {
+            break;
+        }
+        total += n;
+    }
+
+    if (pszError != NULL || total < size) {
+        REPORT_ERROR(LC_RMS, "Cannot read file to be mapped");
+        storageFreeError(pszError);
+        midpFree(f->data);
+        midpFree(f->dirty);
+        f->data = NULL;
+        f->dirty = NULL;
+        return;
+    }
+
+    f->capacity = capacity;
+    mappedSize += capacity;
+    f->size = size;
+    f->storedSize = size;
+    f->dirtySize = 0;
+}
+
+/* Frees the buffer of a mapped file */
+static void freeBuffer(MidpMappedFile *f) {
+    mappedSize -= f->capacity;
+    midpFree(f->data);
+    midpFree(f->dirty);
+    f->data = NULL;
+    f->dirty = NULL;
+    f->capacity = 0;
+}
+
+/*
+ * Writes a mapped file back and leaves it in storage from now on.
+ * The storage positions of its handles are set to their positions
+ * in the mapped file.
+ */
+static void unmapFile(char** ppszError, int handle, MidpMappedFile *f) {
+    MidpMappedHandle *h;
+    char* pszError;
+
+    writeBack(ppszError, handle, f);
+    if (*ppszError != NULL) {
+        return;
+    }
+
+    for (h = mappedHandles; h != NULL; h = h->next) {
+        if (h->file == f) {
+            storagePosition(&pszError, h->handle, h->position);
+            storageFreeError(pszError);
+        }
+    }
+
+    freeBuffer(f);
+}
+
+/*
+ * Grows the buffer of a mapped file so it can hold the given size.
+ * Returns false if the buffer would not fit into the limit or there
+ * is not enough memory.
+ */
+static int growFile(MidpMappedFile *f, long size) {
+    long capacity = f->capacity * 2;
+    char *data;
+    unsigned char *dirty;
+    long oldMapSize = DIRTY_MAP_SIZE(f->capacity);
+
+    if (capacity < size || !fitsLimit(capacity - f->capacity)) {
+        capacity = PAGE_ALIGN(size);
+        if (!fitsLimit(capacity - f->capacity)) {
+            return 0;
+        }
+    }
+
+    data = (char*)midpRealloc(f->data, capacity);
+    if (data == NULL) {
+        return 0;
+    }
+    f->data = data;
+
+    dirty = (unsigned char*)midpRealloc(f->dirty, DIRTY_MAP_SIZE(capacity));
+    if (dirty == NULL) {
+        return 0;
+    }
+    memset(dirty + oldMapSize, 0, DIRTY_MAP_SIZE(capacity) - oldMapSize);
+    f->dirty = dirty;
+
+    mappedSize += capacity - f->capacity;
+    f->capacity = capacity;
+    return 1;
+}
+
+/* Drops a handle's reference to its file, freeing the unused file */
+static void releaseFile(MidpMappedFile *f) {
+    MidpMappedFile **p;
+
+    if (--f->refCount > 0) {
+        return;
+    }
+
+    for (p = &mappedFiles; *p != NULL; p = &(*p)->next) {
+        if (*p == f) {
+            *p = f->next;
+            break;
+        }
+    }
+
+    pcsl_string_free(&f->filename);
+    freeBuffer(f);
+    midpFree(f);
+}
+
+void midp_file_cache_flush(char** ppszError, int handle) {
+    MidpMappedHandle *h = findHandle(handle);
+    *ppszError = NULL;
+
+    if (isMapped(h)) {
+        writeBack(ppszError, handle, h->file);
+        if (*ppszError != NULL) {
+            return;
+        }
+    }
+
+    storageCommitWrite(ppszError, handle);
+}
+
+int midp_file_cache_open(char** ppszError, StorageIdType storageId,
+                         const pcsl_string* filename, int ioMode) {
+    MidpMappedHandle *h;
+    MidpMappedFile *f;
+    int handle;
+    char* pszError;
+
+    (void)storageId;
+    *ppszError = NULL;
+    handle = storage_open(ppszError, filename, ioMode);
+    if (*ppszError != NULL) {
+        return handle;
+    }
+
+    initLimits();
+
+    for (f = mappedFiles; f != NULL; f = f->next) {
+        if (pcsl_string_equals(&f->filename, filename)) {
+            break;
+        }
+    }
+
+    h = (MidpMappedHandle*)midpMalloc(sizeof(MidpMappedHandle));
+    if (h == NULL) {
+        /*
+         * The handle accesses the file directly, so the file must not
+         * be kept in memory from now on.
+         */
+        REPORT_WARN(LC_RMS, "Not enough memory, file mapping disabled");
+        mappedFileLimit = 0;
+        if (f != NULL && f->data != NULL) {
+            unmapFile(&pszError, handle, f);
+            storageFreeError(pszError);
+        }
+        return handle;
+    }
+
+    if (f == NULL) {
+        f = (MidpMappedFile*)midpMalloc(sizeof(MidpMappedFile));
+        if (f == NULL || PCSL_STRING_OK != pcsl_string_dup(filename,
+                                                           &f->filename)) {
+            REPORT_WARN(LC_RMS, "Not enough memory, file mapping disabled");
+            midpFree(f);
+            midpFree(h);
+            mappedFileLimit = 0;
+            return handle;
+        }
+
+        f->refCount = 0;
+        f->data = NULL;
+        f->dirty = NULL;
+        f->size = 0;
+        f->capacity = 0;
+        f->storedSize = 0;
+        f->dirtySize = 0;
+        mapFile(handle, f);
+
+        f->next = mappedFiles;
+        mappedFiles = f;
+    }
+
+    f->refCount++;
+    h->handle = handle;
+    h->file = f;
+    h->position = 0;
+    h->next = mappedHandles;
+    mappedHandles = h;
+
+    if (f->data == NULL) {
+        /* the file may have been positioned while being opened */
+        storagePosition(&pszError, handle, 0);
+        storageFreeError(pszError);
+    }
+
+    return handle;
+}
+
+void midp_file_cache_close(char** ppszError, int handle) {
+    MidpMappedHandle **p;
+    MidpMappedHandle *h = NULL;
+    char *pszErrorTmp = NULL;
+    *ppszError = NULL;
+
+    for (p = &mappedHandles; *p != NULL; p = &(*p)->next) {
+        if ((*p)->handle == handle) {
+            h = *p;
+            *p = h->next;
+            break;
+        }
+    }
+
+    if (h != NULL) {
+        if (h->file->data != NULL) {
+            writeBack(&pszErrorTmp, handle, h->file);
+        }
+        releaseFile(h->file);
+        midpFree(h);
+    }
+
+    storageClose(ppszError, handle);
+
+    if (*ppszError == NULL) {
+        *ppszError = pszErrorTmp;
+    } else {
+        storageFreeError(pszErrorTmp);
+    }
+}
+
+void midp_file_cache_seek(char** ppszError, int handle, long position) {
+    MidpMappedHandle *h = findHandle(handle);
+    *ppszError = NULL;
+
+    if (position >= 0 && isMapped(h)) {
+        h->position = position;
+    } else {
+        storagePosition(ppszError, handle, position);
+    }
+}
+
+void midp_file_cache_write(char** ppszError, int handle,
+                           char* buffer, long length) {
+    MidpMappedHandle *h = findHandle(handle);
+    MidpMappedFile *f;
+    long end;
+
+    *ppszError = NULL;
+
+    if (length <= 0) {
+        return;
+    }
+
+    if (!isMapped(h)) {
+        storageWrite(ppszError, handle, buffer, length);
+        cachedFreeSpace = UNINITIALIZED_CACHED_VALUE;
+        return;
+    }
+
+    f = h->file;
+    end = h->position + length;
+
+    if (end > f->capacity && !growFile(f, end)) {
+        /* the file doesn't fit into memory any longer */
+        unmapFile(ppszError, handle, f);
+        if (*ppszError == NULL) {
+            storageWrite(ppszError, handle, buffer, length);
+        }
+        return;
+    }
+
+    if (h->position > f->size) {
+        /* fill the gap left by seeking beyond the end of the file */
+        memset(f->data + f->size, 0, h->position - f->size);
+        markDirty(f, f->size, h->position - f->size);
+    }
+
+    memcpy(f->data + h->position, buffer, length);
+    markDirty(f, h->position, length);
+    h->position = end;
+    if (end > f->size) {
+        f->size = end;
+    }
+
+    if (f->dirtySize > dirtyLimit) {
+        writeBack(ppszError, handle, f);
+    }
+}
+
+long midp_file_cache_read(char** ppszError, int handle,
+                          char* buffer, long length) {
+    MidpMappedHandle *h = findHandle(handle);
+    MidpMappedFile *f;
+    long available;
+
+    *ppszError = NULL;
+
+    if (length <= 0) {
+        return 0;
+    }
+
+    if (!isMapped(h)) {
+        return storageRead(ppszError, handle, buffer, length);
+    }
+
+    f = h->file;
+    available = f->size - h->position;
+    if (available <= 0) {
+        /* end of file */
+        return -1;
+    }
+
+    if (length > available) {
+        length = available;
+    }
+
+    memcpy(buffer, f->data + h->position, length);
+    h->position += length;
+    return length;
+}
+
+jlong midp_file_cache_available_space(char** ppszError, int handle,
+                                      StorageIdType storageId) {
+    /* Storage may have more then 2Gb space available so use 64-bit type */
+    jlong availSpace;
+    MidpMappedFile *f;
+
+    (void)handle;
+    *ppszError = NULL;
+
+    if (cachedFreeSpace == UNINITIALIZED_CACHED_VALUE ||
+            cachedStorageId != storageId) {
+        cachedFreeSpace = storage_get_free_space(storageId);
+        cachedStorageId = storageId;
+    }
+
+    availSpace = cachedFreeSpace;
+
+    /* growth of mapped files that is not in storage yet */
+    for (f = mappedFiles; f != NULL; f = f->next) {
+        if (f->data != NULL && f->size > f->storedSize) {
+            availSpace -= f->size - f->storedSize;
+        }
+    }
+
+    return (availSpace < 0) ? 0 : availSpace;
+}
+
+long midp_file_cache_sizeof(char** ppszError, int handle) {
+    MidpMappedHandle *h = findHandle(handle);
+    *ppszError = NULL;
+
+    if (!isMapped(h)) {
+        return storageSizeOf(ppszError, handle);
+    }
+
+    return h->file->size;
+}
+
+void midp_file_cache_truncate(char** ppszError, int handle, long size) {
+    MidpMappedHandle *h = findHandle(handle);
+    MidpMappedFile *f;
+    *ppszError = NULL;
+
+    if (!isMapped(h)) {
+        storageTruncate(ppszError, handle, size);
+        cachedFreeSpace = UNINITIALIZED_CACHED_VALUE;
+        return;
+    }
+
+    f = h->file;
+    writeBack(ppszError, handle, f);
+    if (*ppszError != NULL) {
+        return;
+    }
+
+    storageTruncate(ppszError, handle, size);
+    if (*ppszError != NULL) {
+        return;
+    }
+
+    if (f->storedSize > size &&
+            cachedFreeSpace != UNINITIALIZED_CACHED_VALUE) {
+        cachedFreeSpace += f->storedSize - size;
+    }
+
+    if (f->size > size) {
+        f->size = size;
+    }
+    f->storedSize = size;
+}
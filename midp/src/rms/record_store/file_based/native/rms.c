@@ -44,6 +44,8 @@
 /** Easily recognize record store files in the file system */
 static const int DB_EXTENSION_INDEX = 0;
 static const int IDX_EXTENSION_INDEX = 1;
+static const int JNL_EXTENSION_INDEX = 2;
+static const int SDX_EXTENSION_INDEX = 3;
 
 /*
 PCSL_DEFINE_STATIC_ASCII_STRING_LITERAL_START( DB_EXTENSION )
@@ -102,9 +104,17 @@ rmsdb_get_unique_id_path(pcsl_string* filenameBase, StorageIdType storageId,
         return MIDP_ERROR_ILLEGAL_ARGUMENT;
     }
 
-    midpErr = buildSuiteFilename(filenameBase, name, extension == IDX_EXTENSION_INDEX
-                                          ? MIDP_RMS_IDX_EXT : MIDP_RMS_DB_EXT,
-                                          res_path);
+    if (extension == IDX_EXTENSION_INDEX) {
+        extension = MIDP_RMS_IDX_EXT;
+    } else if (extension == JNL_EXTENSION_INDEX) {
+        extension = MIDP_RMS_JNL_EXT;
+    } else if (extension == SDX_EXTENSION_INDEX) {
+        extension = MIDP_RMS_SDX_EXT;
+    } else {
+        extension = MIDP_RMS_DB_EXT;
+    }
+
+    midpErr = buildSuiteFilename(filenameBase, name, extension, res_path);
 
     if (midpErr != MIDP_ERROR_NONE) {
         return midpErr;
@@ -446,6 +456,18 @@ rmsdb_remove_record_stores_for_suite(pcsl_string* filenameBase, SuiteIdType id)
             break;
         */
         }
+        /* The journal file is optional as well */
+        if (rmsdb_record_store_delete(&pszError, filenameBase, &pNames[i],
+            JNL_EXTENSION_INDEX) <= 0) {
+            recordStoreFreeError(pszError);
+            pszError = NULL;
+        }
+        /* So is the secondary index file */
+        if (rmsdb_record_store_delete(&pszError, filenameBase, &pNames[i],
+            SDX_EXTENSION_INDEX) <= 0) {
+            recordStoreFreeError(pszError);
+            pszError = NULL;
+        }
     }
 
     recordStoreFreeError(pszError);
@@ -743,6 +765,41 @@ recordStoreSizeOf(char** ppszError, int handle) {
     return midp_file_cache_sizeof(ppszError, handle);
 }
 
+/**
+ * Gets the size of an optional file of a record store, such as its
+ * journal. The file is not opened, so it is not created if missing.
+ *
+ * @param filenameBase filenameBase of the suite
+ * @param name name of the record store
+ * @param extension extension number of the file
+ *
+ * @return size of the file in bytes, 0 if it does not exist
+ */
+static long
+getOptionalFileSize(pcsl_string* filenameBase, const pcsl_string* name,
+                       int extension) {
+    pcsl_string filename_str;
+    char* pszError;
+    long size = 0;
+
+    if (MIDP_ERROR_NONE != rmsdb_get_unique_id_path(filenameBase,
+                INTERNAL_STORAGE_ID, name, extension, &filename_str)) {
+        return 0;
+    }
+
+    if (storage_file_exists(&filename_str)) {
+        size = storage_size_of_file_by_name(&pszError, &filename_str);
+        if (pszError != NULL) {
+            storageFreeError(pszError);
+            size = 0;
+        }
+    }
+
+    pcsl_string_free(&filename_str);
+
+    return size;
+}
+
 /**
  * Gets the amount of RMS storage on the device that this suite is using.
  *
@@ -795,6 +852,14 @@ rmsdb_get_rms_storage_size(pcsl_string* filenameBase, SuiteIdType id) {
         if (pszError != NULL) {
             break;
         }
+
+        /* the index, journal and secondary index files use storage too */
+        used += getOptionalFileSize(filenameBase, &pNames[i],
+                                       IDX_EXTENSION_INDEX);
+        used += getOptionalFileSize(filenameBase, &pNames[i],
+                                       JNL_EXTENSION_INDEX);
+        used += getOptionalFileSize(filenameBase, &pNames[i],
+                                       SDX_EXTENSION_INDEX);
     }
 
     free_pcsl_string_list(pNames, numberOfNames);
@@ -807,8 +872,8 @@ rmsdb_get_rms_storage_size(pcsl_string* filenameBase, SuiteIdType id) {
  * 
  * @param filenameBase base for the filename
  * @param name name of record store
- * @param extension rms extension that can be MIDP_RMS_DB_EXT or
- * MIDP_RMS_IDX_EXT
+ * @param extension rms extension that can be MIDP_RMS_DB_EXT,
+ * MIDP_RMS_IDX_EXT, MIDP_RMS_JNL_EXT or MIDP_RMS_SDX_EXT
  *
  * @return the filename
  */
@@ -836,6 +901,12 @@ static MIDPError buildSuiteFilename(pcsl_string* filenameBase,
         } else if (MIDP_RMS_DB_EXT == extension) {
             ext = &DB_EXTENSION;
             extLen = pcsl_string_length(&DB_EXTENSION);
+        } else if (MIDP_RMS_JNL_EXT == extension) {
+            ext = &JNL_EXTENSION;
+            extLen = pcsl_string_length(&JNL_EXTENSION);
+        } else if (MIDP_RMS_SDX_EXT == extension) {
+            ext = &SDX_EXTENSION;
+            extLen = pcsl_string_length(&SDX_EXTENSION);
         } else {
             return BAD_PARAMS;
         }
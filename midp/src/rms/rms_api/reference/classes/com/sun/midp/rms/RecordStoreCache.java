@@ -0,0 +1,367 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.rms;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * Cache of record data of a record store, shared by all
+ * <code>RecordStoreImpl</code> instances of the record store in this
+ * isolate.
+ *
+ * The records of all record stores are kept in a single LRU list, whose
+ * total size is limited by RMSConfig.RMS_RECORD_CACHE_SIZE. Records
+ * larger than an eighth of the limit are not cached.
+ *
+ * The cached records are valid for one version and modification time
+ * of the record store. A record store operation updates the version
+ * of the cache after invalidating the changed record; a different
+ * version found when the record store is locked means that the record
+ * store has been changed elsewhere (e.g. by another isolate), and all
+ * its cached records are dropped.
+ *
+ * All methods must be called with the record store locked.
+ */
+class RecordStoreCache {
+
+    /** approximate memory taken by a cache entry besides the data */
+    static final int ENTRY_OVERHEAD = 48;
+
+    /** lock guarding the LRU list and the cache registry */
+    private static final Object lruLock = new Object();
+
+    /** caches of the open record stores, by suite ID and name */
+    private static Hashtable caches = new Hashtable();
+
+    /** most recently used entry of all caches */
+    private static Entry lruHead;
+
+    /** least recently used entry of all caches */
+    private static Entry lruTail;
+
+    /** memory taken by the entries of all caches */
+    private static int totalSize;
+
+    /** key of this cache in the registry */
+    private String key;
+
+    /** number of record store instances using this cache */
+    private int useCount;
+
+    /** cached records, by record ID */
+    private Hashtable entries = new Hashtable();
+
+    /** record store version the cached records belong to */
+    private int version;
+
+    /** record store modification time the cached records belong to */
+    private long lastModified;
+
+    /** memory taken by the entries of this cache */
+    private int size;
+
+    /** number of records found in the cache */
+    private int hits;
+
+    /** number of records looked up but not found in the cache */
+    private int misses;
+
+    /**
+     * Constructs a cache.
+     *
+     * @param key key of the cache in the registry
+     */
+    private RecordStoreCache(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Gets the cache of a record store, creating it if needed.
+     * Each call must be matched by a call to <code>release()</code>.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     * @param name name of the record store
+     *
+     * @return the cache of the record store
+     */
+    static RecordStoreCache getInstance(int suiteId, String name) {
+        String key = suiteId + "#" + name;
+
+        synchronized (lruLock) {
+            RecordStoreCache cache = (RecordStoreCache)caches.get(key);
+
+            if (cache == null) {
+                cache = new RecordStoreCache(key);
+                caches.put(key, cache);
+            }
+
+            cache.useCount++;
+            return cache;
+        }
+    }
+
+    /**
+     * Called when a record store instance using the cache is closed.
+     * The records are dropped when the last instance is closed.
+     */
+    void release() {
+        synchronized (lruLock) {
+            useCount--;
+
+            if (useCount <= 0) {
+                clearEntries();
+                caches.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Checks that the cached records belong to the given state of the
+     * record store and drops them otherwise.
+     *
+     * @param newVersion current version of the record store
+     * @param newLastModified current modification time of the record store
+     */
+    void validate(int newVersion, long newLastModified) {
+        synchronized (lruLock) {
+            if (newVersion != version || newLastModified != lastModified) {
+                clearEntries();
+                version = newVersion;
+                lastModified = newLastModified;
+            }
+        }
+    }
+
+    /**
+     * Drops all cached records, e.g. after a transaction has been
+     * aborted.
+     */
+    void clear() {
+        synchronized (lruLock) {
+            clearEntries();
+        }
+    }
+
+    /**
+     * Invalidates a record changed by a record store operation and
+     * moves the cache to the new state of the record store.
+     *
+     * @param recordId ID of the added, changed or deleted record
+     * @param newVersion new version of the record store
+     * @param newLastModified new modification time of the record store
+     */
+    void recordChanged(int recordId, int newVersion, long newLastModified) {
+        synchronized (lruLock) {
+            Entry entry = (Entry)entries.get(new Integer(recordId));
+
+            if (entry != null) {
+                removeEntry(entry);
+            }
+
+            version = newVersion;
+            lastModified = newLastModified;
+        }
+    }
+
+    /**
+     * Looks up a record and marks it as the most recently used one.
+     * The returned array must not be modified.
+     *
+     * @param recordId ID of the record
+     *
+     * @return the record data, an empty array for an empty record,
+     *         or null if the record is not cached
+     */
+    byte[] get(int recordId) {
+        synchronized (lruLock) {
+            Entry entry = (Entry)entries.get(new Integer(recordId));
+
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+
+            hits++;
+            unlink(entry);
+            link(entry);
+            return entry.data;
+        }
+    }
+
+    /**
+     * Adds a record to the cache, evicting the least recently used
+     * records of all record stores if the cache is full.
+     * The array must not be modified afterwards.
+     *
+     * @param recordId ID of the record
+     * @param data the record data, an empty array for an empty record
+     */
+    void put(int recordId, byte[] data) {
+        int entrySize = ENTRY_OVERHEAD + data.length;
+
+        if (entrySize > RMSConfig.RMS_RECORD_CACHE_SIZE / 8) {
+            return;
+        }
+
+        synchronized (lruLock) {
+            Integer id = new Integer(recordId);
+            Entry entry = (Entry)entries.get(id);
+
+            if (entry != null) {
+                removeEntry(entry);
+            }
+
+            while (totalSize + entrySize > RMSConfig.RMS_RECORD_CACHE_SIZE) {
+                lruTail.cache.removeEntry(lruTail);
+            }
+
+            entry = new Entry(this, id, data);
+            entries.put(id, entry);
+            link(entry);
+            size += entrySize;
+            totalSize += entrySize;
+        }
+    }
+
+    /**
+     * Gets the statistics of this cache.
+     *
+     * @return cache statistics
+     */
+    RecordStoreCacheStatistics getStatistics() {
+        synchronized (lruLock) {
+            return new RecordStoreCacheStatistics(hits, misses,
+                entries.size(), size, totalSize);
+        }
+    }
+
+    /**
+     * Removes all entries of this cache. The caller must hold
+     * <code>lruLock</code>.
+     */
+    private void clearEntries() {
+        Enumeration e = entries.elements();
+
+        while (e.hasMoreElements()) {
+            unlink((Entry)e.nextElement());
+        }
+
+        entries.clear();
+        totalSize -= size;
+        size = 0;
+    }
+
+    /**
+     * Removes an entry of this cache. The caller must hold
+     * <code>lruLock</code>.
+     *
+     * @param entry the entry
+     */
+    private void removeEntry(Entry entry) {
+        int entrySize = ENTRY_OVERHEAD + entry.data.length;
+
+        unlink(entry);
+        entries.remove(entry.recordId);
+        size -= entrySize;
+        totalSize -= entrySize;
+    }
+
+    /**
+     * Inserts an entry at the head of the LRU list.
+     *
+     * @param entry the entry
+     */
+    private static void link(Entry entry) {
+        entry.prev = null;
+        entry.next = lruHead;
+
+        if (lruHead != null) {
+            lruHead.prev = entry;
+        } else {
+            lruTail = entry;
+        }
+
+        lruHead = entry;
+    }
+
+    /**
+     * Removes an entry from the LRU list.
+     *
+     * @param entry the entry
+     */
+    private static void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            lruHead = entry.next;
+        }
+
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            lruTail = entry.prev;
+        }
+
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /**
+     * A cached record.
+     */
+    private static class Entry {
+        /** cache the record belongs to */
+        RecordStoreCache cache;
+
+        /** ID of the record */
+        Integer recordId;
+
+        /** the record data */
+        byte[] data;
+
+        /** more recently used entry */
+        Entry prev;
+
+        /** less recently used entry */
+        Entry next;
+
+        /**
+         * Constructs an entry.
+         *
+         * @param cache cache the record belongs to
+         * @param recordId ID of the record
+         * @param data the record data
+         */
+        Entry(RecordStoreCache cache, Integer recordId, byte[] data) {
+            this.cache = cache;
+            this.recordId = recordId;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.rms;
+
+/**
+ * Statistics of the record cache of a record store, as returned by
+ * <code>RecordStoreImpl.getCacheStatistics()</code>.
+ */
+public class RecordStoreCacheStatistics {
+
+    /** number of records found in the cache */
+    private int hits;
+
+    /** number of records looked up but not found in the cache */
+    private int misses;
+
+    /** number of cached records of the record store */
+    private int records;
+
+    /** memory taken by the cached records of the record store */
+    private int size;
+
+    /** memory taken by the cached records of all record stores */
+    private int totalSize;
+
+    /**
+     * Constructs cache statistics.
+     *
+     * @param hits number of records found in the cache
+     * @param misses number of records looked up but not found
+     * @param records number of cached records of the record store
+     * @param size memory taken by the cached records of the record store
+     * @param totalSize memory taken by the cached records of all
+     *        record stores
+     */
+    RecordStoreCacheStatistics(int hits, int misses, int records, int size,
+                               int totalSize) {
+        this.hits = hits;
+        this.misses = misses;
+        this.records = records;
+        this.size = size;
+        this.totalSize = totalSize;
+    }
+
+    /**
+     * Gets the number of record reads served from the cache since
+     * the record store was opened.
+     *
+     * @return number of cache hits
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of record reads that had to go to the record
+     * store file since the record store was opened.
+     *
+     * @return number of cache misses
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of records of the record store in the cache.
+     *
+     * @return number of cached records
+     */
+    public int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Gets the memory taken by the cached records of the record store.
+     *
+     * @return size in bytes, including the cache overhead
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the memory taken by the cached records of all record
+     * stores, which is limited by RMSConfig.RMS_RECORD_CACHE_SIZE.
+     *
+     * @return size in bytes, including the cache overhead
+     */
+    public int getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Gets the part of the record reads served from the cache.
+     *
+     * @return percentage from 0 to 100
+     */
+    public int getHitPercentage() {
+        int reads = hits + misses;
+
+        if (reads == 0) {
+            return 0;
+        }
+
+        return (int)((long)hits * 100 / reads);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+/**
+ * Fragmentation statistics of a record store file, as returned by
+ * <code>RecordStoreImpl.getFragmentation()</code>.
+ */
+public class RecordStoreFragmentation {
+
+    /** size of all data blocks, including free ones */
+    private int dataSize;
+
+    /** size of all free blocks */
+    private int freeSize;
+
+    /** number of free blocks */
+    private int freeBlocks;
+
+    /** size of the largest free block */
+    private int largestFreeBlock;
+
+    /**
+     * Constructs fragmentation statistics.
+     *
+     * @param dataSize size of all data blocks, including free ones
+     * @param freeSize size of all free blocks
+     * @param freeBlocks number of free blocks
+     * @param largestFreeBlock size of the largest free block
+     */
+    RecordStoreFragmentation(int dataSize, int freeSize, int freeBlocks,
+                             int largestFreeBlock) {
+        this.dataSize = dataSize;
+        this.freeSize = freeSize;
+        this.freeBlocks = freeBlocks;
+        this.largestFreeBlock = largestFreeBlock;
+    }
+
+    /**
+     * Gets the size of all data blocks of the record store file,
+     * including free ones.
+     *
+     * @return size in bytes
+     */
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Gets the size of all free blocks, which compaction would
+     * give back to the storage.
+     *
+     * @return size in bytes
+     */
+    public int getFreeSize() {
+        return freeSize;
+    }
+
+    /**
+     * Gets the number of free blocks.
+     *
+     * @return number of free blocks
+     */
+    public int getFreeBlockCount() {
+        return freeBlocks;
+    }
+
+    /**
+     * Gets the size of the largest free block, which is the largest
+     * record that can be added without growing the file.
+     *
+     * @return size in bytes, including the block header
+     */
+    public int getLargestFreeBlock() {
+        return largestFreeBlock;
+    }
+
+    /**
+     * Gets the part of the data blocks taken by free blocks.
+     *
+     * @return percentage from 0 to 100
+     */
+    public int getFreePercentage() {
+        if (dataSize == 0) {
+            return 0;
+        }
+
+        return (int)((long)freeSize * 100 / dataSize);
+    }
+}
@@ -31,12 +31,15 @@
 package com.sun.midp.rms;
 
 import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
 import javax.microedition.rms.*;
 
 import com.sun.midp.security.Permissions;
 import com.sun.midp.security.SecurityToken;
 import com.sun.midp.log.Logging;
 import com.sun.midp.log.LogChannels;
+import com.sun.midp.rms.index.RecordKeyExtractor;
 
 /**
  * A class implementing a MIDP a record store.
@@ -55,6 +58,9 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     /** unique id for suite that owns this record store */
     int suiteId;
 
+    /** name of this record store */
+    private String recordStoreName;
+
     /** 
      * lock used to synchronize this record store between concurrently 
      * running MIDlets 
@@ -68,7 +74,31 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     private RecordStoreIndex dbIndex;
 
     /** record store data */
-    private RecordStoreFile dbFile;
+    private RecordStoreJournal dbFile;
+
+    /** secondary index, null if no key extractor is declared */
+    private RecordStoreKeyIndex keyIndex;
+
+    /** record cache shared with other instances of this record store */
+    private RecordStoreCache recordCache;
+
+    /** background task committing the journal, null if not scheduled */
+    private TimerTask journalFlushTask;
+
+    /** background compaction task, null if not scheduled */
+    private TimerTask compactionTask;
+
+    /**
+     * Offset of the first free block, if any. All blocks before it
+     * hold records. Incremental compaction starts from here.
+     */
+    private int compactionOffset = DB_HEADER_SIZE;
+
+    /** header version at the moment the record store was unlocked */
+    private int unlockedHeaderVersion;
+
+    /** timer shared by all record stores for background work */
+    private static Timer timer;
 
     /**
      * Deletes the named record store. MIDlet suites are only allowed
@@ -108,6 +138,10 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             RecordStoreUtil.deleteFile(
                     RmsEnvironment.getSecureFilenameBase(suiteId),
                     recordStoreName, RecordStoreFile.DB_EXTENSION);
+            RecordStoreUtil.quietDeleteFile(
+                    RmsEnvironment.getSecureFilenameBase(suiteId),
+                    recordStoreName, RecordStoreFile.JNL_EXTENSION);
+            RecordStoreKeyIndex.deleteIndex(suiteId, recordStoreName);
 
             if (!success) {
                 throw new RecordStoreException("deleteRecordStore " +
@@ -212,7 +246,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                     dbFile.seek(RS1_AUTHMODE);
                     dbFile.write(dbHeaderData, RS1_AUTHMODE, 4);
                     dbHeader.headerUpdated(dbHeaderData);
-                    // dbFile.commitWrite();
+                    commitChanges();
                 } catch (java.io.IOException ioe) {
                     throw new RecordStoreException("error writing record " +
                             "store attributes");
@@ -249,9 +283,22 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             lockRecordStore();
 
             try {
+                if (journalFlushTask != null) {
+                    journalFlushTask.cancel();
+                    journalFlushTask = null;
+                }
+
+                if (compactionTask != null) {
+                    compactionTask.cancel();
+                    compactionTask = null;
+                }
+
                 compactRecords();  // compact before close
                 dbFile.close();
                 dbIndex.close();
+                if (keyIndex != null) {
+                    keyIndex.close();
+                }
             } catch (java.io.IOException ioe) {
                 throw new RecordStoreException("error closing .db file. "
                         + ioe);
@@ -259,6 +306,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 unlockRecordStore();
                 dbFile = null;
                 dbHeader.recordStoreClosed();
+                recordCache.release();
             }
         }
     }
@@ -431,6 +479,12 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 int recordId = getNextRecordID();
 
                 try {
+                    boolean indexed = isKeyIndexInSync();
+                    byte[] newKey = null;
+                    if (indexed) {
+                        newKey = getKey(data, offset, numBytes);
+                    }
+
                     // add a block for this record
                     addBlock(recordId, data, offset, numBytes);
 
@@ -451,7 +505,11 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                     dbFile.write(dbHeaderData, RS2_NEXT_ID, 3*4+8);
                     dbHeader.headerUpdated(dbHeaderData);
                     dbIndex.recordStoreVersionUpdated(newVersion);
-                    // dbFile.commitWrite();
+                    if (indexed) {
+                        updateKeyIndex(recordId, null, newKey);
+                    }
+                    recordChanged(recordId);
+                    commitChanges();
                 } catch (java.io.IOException ioe) {
                     throw new RecordStoreException("error writing new record "
                             + "data");
@@ -490,6 +548,12 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 byte[] header = new byte[BLOCK_HEADER_SIZE];
                 int blockOffset = dbIndex.getRecordHeader(recordId, header);
 
+                boolean indexed = isKeyIndexInSync();
+                byte[] oldKey = null;
+                if (indexed) {
+                    oldKey = readKey(blockOffset, header);
+                }
+
                 // free the block
                 freeBlock(blockOffset, header);
 
@@ -511,7 +575,11 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 dbFile.write(dbHeaderData, RS3_NUM_LIVE, 2*4+8);
                 dbHeader.headerUpdated(dbHeaderData);
                 dbIndex.recordStoreVersionUpdated(newVersion);
-                // dbFile.commitWrite();
+                if (indexed) {
+                    updateKeyIndex(recordId, oldKey, null);
+                }
+                recordChanged(recordId);
+                commitChanges();
 
             } catch (java.io.IOException ioe) {
                 throw new RecordStoreException("error updating file after" +
@@ -545,6 +613,11 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             lockRecordStore();
 
             try {
+                byte[] data = getCachedRecord(recordId);
+                if (data != null) {
+                    return data.length;
+                }
+
                 byte[] header = new byte[BLOCK_HEADER_SIZE];
 
                 try {
@@ -587,13 +660,27 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             lockRecordStore();
 
             try {
+                byte[] data = getCachedRecord(recordId);
+                if (data != null) {
+                    System.arraycopy(data, 0, buffer, offset, data.length);
+                    return data.length;
+                }
+
                 byte[] header = new byte[BLOCK_HEADER_SIZE];
                 int blockOffset = dbIndex.getRecordHeader(recordId, header);
 
                 int dataSize = RecordStoreUtil.getInt(header, 4);
 
                 dbFile.seek(blockOffset+BLOCK_HEADER_SIZE);
-                return dbFile.read(buffer, offset, dataSize);
+                int numBytes = dbFile.read(buffer, offset, dataSize);
+
+                if (numBytes == dataSize) {
+                    data = new byte[dataSize];
+                    System.arraycopy(buffer, offset, data, 0, dataSize);
+                    cacheRecord(recordId, data);
+                }
+
+                return numBytes;
             } catch (java.io.IOException ioe) {
                 throw new RecordStoreException("error reading record data");
             } finally {
@@ -625,20 +712,41 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             lockRecordStore();
 
             try {
+                byte[] buffer = getCachedRecord(recordId);
+                if (buffer != null) {
+                    if (buffer.length == 0) {
+                        return null;
+                    }
+
+                    // the cached data must not be modified
+                    byte[] copy = new byte[buffer.length];
+                    System.arraycopy(buffer, 0, copy, 0, buffer.length);
+                    return copy;
+                }
+
                 byte[] header = new byte[BLOCK_HEADER_SIZE];
                 int blockOffset = dbIndex.getRecordHeader(recordId, header);
 
                 int dataSize = RecordStoreUtil.getInt(header, 4);
-                if (dataSize == 0) {
-                    return null;
+                buffer = new byte[dataSize];
+
+                if (dataSize > 0) {
+                    dbFile.seek(blockOffset+BLOCK_HEADER_SIZE);
+                    if (dbFile.read(buffer) != dataSize) {
+                        throw new RecordStoreException("error reading " +
+                                                       "record data");
+                    }
                 }
 
-                byte[] buffer = new byte[dataSize];
+                cacheRecord(recordId, buffer);
 
-                dbFile.seek(blockOffset+BLOCK_HEADER_SIZE);
-                dbFile.read(buffer);
+                if (dataSize == 0) {
+                    return null;
+                }
 
-                return buffer;
+                byte[] copy = new byte[dataSize];
+                System.arraycopy(buffer, 0, copy, 0, dataSize);
+                return copy;
             } catch (java.io.IOException ioe) {
                 throw new RecordStoreException("error reading record data");
             } finally {
@@ -683,13 +791,22 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 byte[] header = new byte[BLOCK_HEADER_SIZE];
                 int blockOffset = dbIndex.getRecordHeader(recordId, header);
 
+                boolean indexed = isKeyIndexInSync();
+                byte[] oldKey = null;
+                byte[] newKey = null;
+                if (indexed) {
+                    oldKey = readKey(blockOffset, header);
+                    newKey = getKey(newData, offset, numBytes);
+                }
+
                 int oldBlockSize =
                   RecordStoreUtil.calculateBlockSize(RecordStoreUtil.getInt(
                                                        header, 4));
                 int newBlockSize = RecordStoreUtil.calculateBlockSize(numBytes);
                 if (newBlockSize <= oldBlockSize) {
                     // reuse the old block
-                    splitBlock(blockOffset, header, newData, offset, numBytes);
+                    addFreeSize(splitBlock(blockOffset, header, newData,
+                                           offset, numBytes));
                 } else {
                     // free the old record data
                     freeBlock(blockOffset, header);
@@ -711,7 +828,11 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 dbFile.write(dbHeaderData, RS4_VERSION, 4+8);
                 dbHeader.headerUpdated(dbHeaderData);
                 dbIndex.recordStoreVersionUpdated(newVersion);
-                // dbFile.commitWrite();
+                if (indexed) {
+                    updateKeyIndex(recordId, oldKey, newKey);
+                }
+                recordChanged(recordId);
+                commitChanges();
             } catch (java.io.IOException ioe) {
                 throw new RecordStoreException("error setting record data");
             } finally {
@@ -738,230 +859,1055 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     }
 
     /**
-     * Returns data base file associated with this record store
-     *
-     * @return data base file
-     */
-    public AbstractRecordStoreFile getDbFile() {
-        return dbFile;
-    }
-
-    /**
-     * Creates data base index file associated with this record store
-     *
-     * @param suiteId unique ID of the suite that owns the store
-     * @param name a string to name the index file
-     * @return data base index file
-     * @exception IOException if failed to create a file
-     */
-    public AbstractRecordStoreFile createIndexFile(int suiteId, String name)
-      throws IOException {
-        return new RecordStoreFile(suiteId, name,
-                                   AbstractRecordStoreFile.IDX_EXTENSION);
-    }
-
-    /**
-     * Remove free blocks from the record store and compact records
-     * with data into as small a space in <code>dbFile</code> as
-     * possible.  Operates from smallest to greatest offset in
-     * <code>dbFile</code>, copying data in chunks towards the
-     * beginning of the file, and updating record store meta-data
-     * as it progresses.
+     * Returns the data of several records at once. The record store
+     * is locked only once and the records not found in the cache are
+     * read in the order of their position in the record store file.
      *
-     * Warning: This is a slow operation that scales linearly
-     * with dbFile size.
+     * @param recordIds the IDs of the records
      *
-     * Warning: it is assumed that this method is only called while being
-     * protected by record store lock.
+     * @return copies of the data of the records, in the order of
+     *          <code>recordIds</code>; null for a record with no data
      *
-     * @exception RecordStoreNotOpenException if this record store
-     *            is closed
-     * @exception RecordStoreException if an error occurs during record
-     *            store compaction
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception InvalidRecordIDException if a recordId is invalid
+     * @exception RecordStoreException if a general record store
+     *          exception occurs
      */
-    private void compactRecords()
-        throws IOException {
-
-        // check if the db can be compacted
-        byte[] dbHeaderData = dbHeader.getHeaderData();
-        if (RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) == 0) {
-            // no free space to compact
-            return;
-        }
-
-        byte[] header = new byte[BLOCK_HEADER_SIZE];
-        int currentId = 0;
-        int currentOffset = RecordStoreImpl.DB_HEADER_SIZE;
-        int currentSize = 0;
-        int moveUpNumBytes = 0;
-
-        // search through the data blocks for a free block that is large enough
-        while (currentOffset < getSize()) {
-            // seek to the next offset
-            dbFile.seek(currentOffset);
-
-            // read the block header
-            if (dbFile.read(header) != RecordStoreImpl.BLOCK_HEADER_SIZE) {
-                // could not read the block
-                throw new IOException();
-            }
+    public byte[][] getRecords(int[] recordIds)
+        throws RecordStoreNotOpenException, InvalidRecordIDException,
+               RecordStoreException {
 
-            currentId = RecordStoreUtil.getInt(header, 0);
-            currentSize =
-              RecordStoreUtil.calculateBlockSize(RecordStoreUtil.getInt(
-                                                   header, 4));
+        synchronized (recordStoreLock) {
+            lockRecordStore();
 
-            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                               "currentId = " + currentId +
-                               " currentSize = " + currentSize);
-            }
+            try {
+                byte[][] records = new byte[recordIds.length][];
+                int[] order = new int[recordIds.length];
+                int[] offsets = new int[recordIds.length];
+                int numMisses = 0;
+                byte[] header = new byte[BLOCK_HEADER_SIZE];
 
-            // check if this is a free block or a record
-            if (currentId < 0) {
-                if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                    Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                                   "found free block at offset " +
-                                   currentOffset);
-                }
+                for (int i = 0; i < recordIds.length; i++) {
+                    byte[] data = getCachedRecord(recordIds[i]);
 
-                // a free block, add to the moveUpNumBytes
-                moveUpNumBytes += currentSize;
+                    if (data != null) {
+                        records[i] = data;
+                        continue;
+                    }
 
-                // remove from the index
-                dbIndex.removeBlock(currentOffset, header);
-            } else {
-                if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                    Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                                   "found record block at offset " +
-                                   currentOffset);
+                    offsets[i] = dbIndex.getRecordHeader(recordIds[i],
+                                                         header);
+                    records[i] =
+                        new byte[RecordStoreUtil.getInt(header, 4)];
+                    order[numMisses++] = i;
                 }
 
-                // a record data block, check if it needs to be moved up
-                if (moveUpNumBytes > 0) {
-
-                    if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                        Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                                       "moveUpNumBytes = " + currentOffset);
-                    }
+                sortByOffset(order, numMisses, offsets);
 
-                    int numMoved = 0;
-                    while (numMoved < currentSize) {
-                        int curRead = currentSize - numMoved;
-                        if (curRead > COMPACT_BUFFER_SIZE) {
-                            curRead = COMPACT_BUFFER_SIZE;
-                        }
+                for (int n = 0; n < numMisses; n++) {
+                    int i = order[n];
+                    byte[] data = records[i];
 
-                        dbFile.seek(currentOffset + numMoved);
-                        curRead = dbFile.read(compactBuffer, 0, curRead);
-                        if (curRead == -1) {
-                            throw new IOException();
+                    if (data.length > 0) {
+                        dbFile.seek(offsets[i] + BLOCK_HEADER_SIZE);
+                        if (dbFile.read(data) != data.length) {
+                            throw new RecordStoreException("error reading " +
+                                                           "record data");
                         }
-
-                        dbFile.seek(currentOffset + numMoved - moveUpNumBytes);
-                        dbFile.write(compactBuffer, 0, curRead);
-                        // dbFile.commitWrite();
-                        numMoved += curRead;
                     }
 
-                    dbIndex.updateBlock(currentOffset - moveUpNumBytes, header);
+                    cacheRecord(recordIds[i], data);
                 }
-            }
-
-            // added the block size to the currentOffset
-            currentOffset += currentSize;
-        }
 
-        // check if the db file can be truncated
-        if (moveUpNumBytes > 0) {
-            RecordStoreUtil.putInt(
-                RecordStoreUtil.getInt(dbHeaderData, RS6_DATA_SIZE) -
-                    moveUpNumBytes, dbHeaderData, RS6_DATA_SIZE);
-            RecordStoreUtil.putInt(0, dbHeaderData, RS7_FREE_SIZE);
-            dbFile.seek(RS6_DATA_SIZE);
-            dbFile.write(dbHeaderData, RS6_DATA_SIZE, 4+4);
-            dbHeader.headerUpdated(dbHeaderData);
-            // dbFile.commitWrite();
+                // the cached data must not be modified
+                for (int i = 0; i < records.length; i++) {
+                    byte[] data = records[i];
 
-            dbFile.truncate(getSize());
+                    if (data.length == 0) {
+                        records[i] = null;
+                    } else {
+                        records[i] = new byte[data.length];
+                        System.arraycopy(data, 0, records[i], 0,
+                                         data.length);
+                    }
+                }
 
-            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                               "compactRecords, truncate to size " + 
-                               getSize());
+                return records;
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error reading record data");
+            } finally {
+                unlockRecordStore();
             }
         }
     }
 
     /**
-     * Set the record in the block to the data passed in and adds any remaining
-     * space to the free list.
+     * Adds several records to the record store at once. The record
+     * store is locked and its header and secondary index are updated
+     * only once; records appended to the end of the record store file
+     * are gathered in a buffer of RMSConfig.RMS_BATCH_BUFFER_SIZE bytes
+     * and written with as few writes as possible.
      *
-     * @param blockOffset the offset in db file to the block to split
-     * @param header the header of the block to split
-     * @param newData the new data to store in the record
-     * @param offset the index into the data buffer of the first
-     *          relevant byte for this record
-     * @param numBytes the number of bytes of the data buffer to use
-     *          for this record
+     * <p>The records are added in a journal transaction: if an error
+     * occurs, none of them is added. Only if the transaction could not
+     * be rolled back (see <code>beginTransaction()</code>), the records
+     * written before the error stay in the record store.
      *
-     * @exception IOException if there is an error accessing the db file
+     * @param records the data of the records; a null or empty element
+     *          adds a record with no data
+     *
+     * @return the recordIds of the new records, in the order of
+     *          <code>records</code>
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception RecordStoreException if a different record
+     *          store-related exception occurred
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception SecurityException if the MIDlet has read-only access
+     *          to the RecordStore
      */
-    private void splitBlock(int blockOffset, byte[] header,
-                            byte[] newData, int offset,
-                            int numBytes) throws IOException {
+    public int[] addRecords(byte[][] records)
+        throws RecordStoreNotOpenException, RecordStoreException,
+            RecordStoreFullException {
 
-        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                           "splitBlock("+RecordStoreUtil.getInt(header, 0) +
-                           ") old numBytes = " + RecordStoreUtil.getInt(header, 4) +
-                           " new numBytes=" + numBytes);
-        }
+        synchronized (recordStoreLock) {
+            lockRecordStore();
 
-        // calculate the size of the block
-        int oldBlockSize =
-          RecordStoreUtil.calculateBlockSize(RecordStoreUtil.getInt(
-                                               header, 4));
+            try {
+                int firstId = getNextRecordID();
+                int[] recordIds = new int[records.length];
+                for (int i = 0; i < records.length; i++) {
+                    recordIds[i] = firstId + i;
+                }
 
-        // calculate the size of the block
-        int newBlockSize = RecordStoreUtil.calculateBlockSize(numBytes);
+                if (records.length == 0) {
+                    return recordIds;
+                }
 
-        // update the block header
-        RecordStoreUtil.putInt(numBytes, header, 4);
+                boolean indexed = isKeyIndexInSync();
+                byte[][] newKeys = null;
+                if (indexed) {
+                    newKeys = new byte[records.length][];
+                    for (int i = 0; i < records.length; i++) {
+                        byte[] data = records[i];
+                        newKeys[i] = getKey(data, 0,
+                                            (data == null) ? 0 : data.length);
+                    }
+                }
 
-        // seek to the location and write the block and header
-        writeBlock(blockOffset, header, newData, offset, numBytes);
+                ensureSpace(records);
 
-        // check if there is any left over free space
-        int freeSize = oldBlockSize - newBlockSize - BLOCK_HEADER_SIZE;
-        if (freeSize >= 0) {
-            // update the block header and free block of extra space
-            RecordStoreUtil.putInt(freeSize, header, 4);
-            freeBlock(blockOffset+newBlockSize, header);
+                boolean done = false;
+                dbFile.beginTransaction();
+
+                try {
+                    writeRecords(records, recordIds);
+
+                    writeBatchHeader(firstId + records.length,
+                                     getNumRecords() + records.length,
+                                     records.length);
+                    if (indexed) {
+                        updateKeyIndex(recordIds, null, newKeys);
+                    }
+                    for (int i = 0; i < records.length; i++) {
+                        recordChanged(recordIds[i]);
+                    }
+                    commitChanges();
+                    done = true;
+                } finally {
+                    if (!done) {
+                        abortBatch();
+                    }
+                }
+
+                commitBatch();
+                return recordIds;
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error writing new record "
+                        + "data");
+            } finally {
+                unlockRecordStore();
+            }
         }
     }
 
     /**
-     * Adds a block for the record and data or sets an existing block to
-     * the data.  Splits an exiting block if needed.
-     * 
-     * Warning: it is assumed that this method is only called while being
-     * protected by record store lock.
+     * Deletes several records at once. The record store is locked and
+     * its header and secondary index are updated only once; the blocks
+     * of the records are freed in the order of their position in the
+     * record store file. Nothing is deleted if one of the recordIds is
+     * invalid or occurs twice.
      *
-     * @param recordId the ID of the record to use in this operation
-     * @param data the new data to store in the record
-     * @param offset the index into the data buffer of the first
-     *          relevant byte for this record
-     * @param numBytes the number of bytes of the data buffer to use
-     *          for this record
+     * <p>The records are deleted in a journal transaction: if an error
+     * occurs, none of them is deleted. Only if the transaction could
+     * not be rolled back (see <code>beginTransaction()</code>), the
+     * records freed before the error stay deleted.
      *
-     * @exception RecordStoreFullException if the operation cannot be
-     *          completed because the record store has no more room
-     * @exception IOException if there is an error accessing the db file
-     * @exception RecordStoreException if the new consumption is gong to
-     *            exceed the resource limit
+     * @param recordIds the IDs of the records to delete
      *
-     * @return the offset in the db file of the block added
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception InvalidRecordIDException if a recordId is invalid
+     * @exception RecordStoreException if a general record store
+     *          exception occurs
+     * @exception SecurityException if the MIDlet has read-only access
+     *          to the RecordStore
+     */
+    public void deleteRecords(int[] recordIds)
+        throws RecordStoreNotOpenException, InvalidRecordIDException,
+            RecordStoreException {
+
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                if (recordIds.length == 0) {
+                    return;
+                }
+
+                int[] order = new int[recordIds.length];
+                int[] offsets = new int[recordIds.length];
+                byte[][] headers = new byte[recordIds.length][];
+
+                for (int i = 0; i < recordIds.length; i++) {
+                    headers[i] = new byte[BLOCK_HEADER_SIZE];
+                    offsets[i] = dbIndex.getRecordHeader(recordIds[i],
+                                                         headers[i]);
+                    order[i] = i;
+                }
+
+                sortByOffset(order, recordIds.length, offsets);
+
+                for (int n = 1; n < recordIds.length; n++) {
+                    if (offsets[order[n]] == offsets[order[n - 1]]) {
+                        throw new InvalidRecordIDException();
+                    }
+                }
+
+                boolean indexed = isKeyIndexInSync();
+                byte[][] oldKeys = null;
+                if (indexed) {
+                    oldKeys = new byte[recordIds.length][];
+                    for (int n = 0; n < recordIds.length; n++) {
+                        int i = order[n];
+                        oldKeys[i] = readKey(offsets[i], headers[i]);
+                    }
+                }
+
+                boolean done = false;
+                dbFile.beginTransaction();
+
+                try {
+                    for (int n = 0; n < recordIds.length; n++) {
+                        int i = order[n];
+
+                        addToHeader(RS7_FREE_SIZE,
+                                    markBlockFree(offsets[i], headers[i]));
+                        dbIndex.deleteRecordIndex(recordIds[i]);
+                    }
+
+                    writeBatchHeader(getNextRecordID(),
+                                     getNumRecords() - recordIds.length,
+                                     recordIds.length);
+                    if (indexed) {
+                        updateKeyIndex(recordIds, oldKeys, null);
+                    }
+                    for (int i = 0; i < recordIds.length; i++) {
+                        recordChanged(recordIds[i]);
+                    }
+                    commitChanges();
+                    done = true;
+                } finally {
+                    if (!done) {
+                        abortBatch();
+                    }
+                }
+
+                commitBatch();
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error updating file after" +
+                        " record deletion");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Starts a transaction. Changes made to the record store until the
+     * matching <code>commitTransaction()</code> call are either all
+     * recovered after a crash or not at all. Transactions can be nested,
+     * only the outermost one is committed.
+     *
+     * <p>Atomicity is only guaranteed while the record store is not
+     * shared with MIDlets running in other isolates: the changes of
+     * a shared record store are written directly to the record store
+     * file.
+     *
+     * @exception RecordStoreException if the journal cannot be opened
+     */
+    public void beginTransaction() throws RecordStoreException {
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                dbFile.beginTransaction();
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error opening journal");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Commits the current transaction and syncs the journal,
+     * so the changes of the transaction are durable on return.
+     *
+     * @exception RecordStoreException if there is no transaction,
+     *          the journal cannot be written or another MIDlet opened
+     *          the record store while the transaction was in progress
+     */
+    public void commitTransaction() throws RecordStoreException {
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                if (!dbFile.isInTransaction()) {
+                    throw new RecordStoreException("no transaction");
+                }
+
+                if (!dbFile.commitTransaction()) {
+                    // cached records may be from the lost changes
+                    recordCache.clear();
+                    if (RecordStoreSharedDBHeader.SHARE_RECORDS) {
+                        dbHeader.clearCachedRecords();
+                    }
+                    throw new RecordStoreException("transaction aborted");
+                }
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error writing journal");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Collects fragmentation statistics of the record store file.
+     * This walks through all blocks, so it may take a while for
+     * large record stores.
+     *
+     * @return fragmentation statistics
+     *
+     * @exception RecordStoreException if the record store file
+     *          cannot be read
+     */
+    public RecordStoreFragmentation getFragmentation()
+        throws RecordStoreException {
+
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                byte[] header = new byte[BLOCK_HEADER_SIZE];
+                int size = getSize();
+                int currentOffset = DB_HEADER_SIZE;
+                int freeSize = 0;
+                int freeBlocks = 0;
+                int largestFreeBlock = 0;
+
+                while (currentOffset < size) {
+                    dbFile.seek(currentOffset);
+                    if (dbFile.read(header) != BLOCK_HEADER_SIZE) {
+                        throw new RecordStoreException("error reading " +
+                                                       "block header");
+                    }
+
+                    int blockSize = RecordStoreUtil.calculateBlockSize(
+                        RecordStoreUtil.getInt(header, 4));
+
+                    if (RecordStoreUtil.getInt(header, 0) < 0) {
+                        freeSize += blockSize;
+                        freeBlocks++;
+                        if (blockSize > largestFreeBlock) {
+                            largestFreeBlock = blockSize;
+                        }
+                    }
+
+                    currentOffset += blockSize;
+                }
+
+                return new RecordStoreFragmentation(size - DB_HEADER_SIZE,
+                    freeSize, freeBlocks, largestFreeBlock);
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error reading record " +
+                                               "store file");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Performs one step of incremental compaction, moving at most
+     * <code>maxBlocks</code> records. Unlike the compaction done when
+     * the record store is closed, this holds the record store lock
+     * for a bounded time only.
+     *
+     * <p>Nothing is done while the record store is opened by MIDlets
+     * in other isolates, since they cache record offsets.
+     *
+     * @param maxBlocks maximum number of records to move
+     *
+     * @return true if there is free space left to compact
+     *
+     * @exception RecordStoreException if the record store file
+     *          cannot be compacted
+     */
+    public boolean compactIncrementally(int maxBlocks)
+        throws RecordStoreException {
+
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                if (!dbHeader.isExclusiveUse) {
+                    return false;
+                }
+
+                return compactStep(maxBlocks);
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error compacting record " +
+                                               "store file");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Starts compacting the record store in background, a few records
+     * at a time (see RMSConfig.RMS_COMPACTION_STEP_BLOCKS). Background
+     * compaction is also started automatically once the free space
+     * exceeds RMSConfig.RMS_COMPACTION_THRESHOLD percent of the
+     * record store file.
+     */
+    public void startCompaction() {
+        synchronized (recordStoreLock) {
+            if (dbFile != null) {
+                scheduleCompaction(0);
+            }
+        }
+    }
+
+    /**
+     * Gets the statistics of the record cache of this record store.
+     * The cache is shared by all instances of the record store opened
+     * in this isolate, and so are the statistics.
+     *
+     * @return cache statistics
+     */
+    public RecordStoreCacheStatistics getCacheStatistics() {
+        synchronized (recordStoreLock) {
+            return recordCache.getStatistics();
+        }
+    }
+
+    /**
+     * Declares the key extractor of the secondary index of this record
+     * store. The index orders the records by their keys and is kept
+     * up to date as records are added, changed and deleted while the
+     * extractor is declared. The index is saved with the record store,
+     * but the extractor is not: it has to be declared again after the
+     * record store is reopened, and an extractor of the same class then
+     * reuses the saved index. An extractor of another class replaces it.
+     *
+     * <p>The index is built when it is first used. It is also rebuilt
+     * if it is out of sync with the record store, e.g. because the
+     * records were changed while no extractor was declared.
+     *
+     * @param extractor the key extractor, or null to drop the index
+     *
+     * @exception RecordStoreException if the index file cannot be created
+     *
+     * @see #getRecordIDsByKey
+     */
+    public void setKeyExtractor(RecordKeyExtractor extractor)
+        throws RecordStoreException {
+
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                if (keyIndex != null) {
+                    if (extractor != null && keyIndex.isIndexedBy(extractor)) {
+                        keyIndex.setExtractor(extractor);
+                        return;
+                    }
+
+                    keyIndex.delete();
+                    keyIndex = null;
+                }
+
+                if (extractor == null) {
+                    RecordStoreKeyIndex.deleteIndex(suiteId, recordStoreName);
+                    return;
+                }
+
+                // reuse the index saved by an extractor of the same class
+                keyIndex = RecordStoreKeyIndex.open(suiteId, recordStoreName,
+                                                    extractor);
+                if (keyIndex == null) {
+                    keyIndex = new RecordStoreKeyIndex(suiteId,
+                        recordStoreName, extractor);
+                }
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error creating secondary " +
+                                               "index");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Gets the key extractor of the secondary index of this record store.
+     *
+     * @return the key extractor, or null if there is no index
+     */
+    public RecordKeyExtractor getKeyExtractor() {
+        synchronized (recordStoreLock) {
+            return (keyIndex == null) ? null : keyIndex.getExtractor();
+        }
+    }
+
+    /**
+     * Returns the IDs of the records whose keys lie within the given
+     * range, as a scan of the secondary index. Records with equal keys
+     * are ordered by record ID. Only the first
+     * <code>RecordKeyExtractor.KEY_SIZE</code> bytes of the keys and
+     * bounds are compared.
+     *
+     * @param lowKey lowest key, inclusive, or null if unbounded
+     * @param highKey highest key, inclusive, or null if unbounded
+     *
+     * @return the record IDs ordered by key, or null if no key extractor
+     *         has been declared
+     *
+     * @exception RecordStoreException if the index cannot be read
+     *          or rebuilt
+     *
+     * @see #setKeyExtractor
+     */
+    public int[] getRecordIDsByKey(byte[] lowKey, byte[] highKey)
+        throws RecordStoreException {
+
+        return getRecordIDsByKey(lowKey, highKey, null);
+    }
+
+    /**
+     * Returns the IDs of the records whose keys lie within the given
+     * range, as a scan of the secondary index, and the runs of records
+     * whose stored keys are equal. Only the records of a run can be out
+     * of the order of a comparator consistent with the keys.
+     *
+     * @param lowKey lowest key, inclusive, or null if unbounded
+     * @param highKey highest key, inclusive, or null if unbounded
+     * @param runs if not null, its first element receives the runs of
+     *        two or more records with equal stored keys, as pairs of
+     *        the index of the first record of a run in the result and
+     *        the index following its last record
+     *
+     * @return the record IDs ordered by key, or null if no key extractor
+     *         has been declared
+     *
+     * @exception RecordStoreException if the index cannot be read
+     *          or rebuilt
+     *
+     * @see #setKeyExtractor
+     */
+    public int[] getRecordIDsByKey(byte[] lowKey, byte[] highKey,
+                                   int[][] runs)
+        throws RecordStoreException {
+
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                if (keyIndex == null) {
+                    return null;
+                }
+
+                if (!isKeyIndexInSync()) {
+                    rebuildKeyIndex();
+                }
+
+                return keyIndex.getRecordIDs(lowKey, highKey, runs);
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error reading secondary " +
+                                               "index");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Returns data base file associated with this record store
+     *
+     * @return data base file
+     */
+    public AbstractRecordStoreFile getDbFile() {
+        return dbFile;
+    }
+
+    /**
+     * Creates data base index file associated with this record store
+     *
+     * @param suiteId unique ID of the suite that owns the store
+     * @param name a string to name the index file
+     * @return data base index file
+     * @exception IOException if failed to create a file
+     */
+    public AbstractRecordStoreFile createIndexFile(int suiteId, String name)
+      throws IOException {
+        return new RecordStoreFile(suiteId, name,
+                                   AbstractRecordStoreFile.IDX_EXTENSION);
+    }
+
+    /**
+     * Remove free blocks from the record store and compact records
+     * with data into as small a space in <code>dbFile</code> as
+     * possible.  Operates from smallest to greatest offset in
+     * <code>dbFile</code>, copying data in chunks towards the
+     * beginning of the file, and updating record store meta-data
+     * as it progresses.
+     *
+     * Warning: This is a slow operation that scales linearly
+     * with dbFile size.
+     *
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @exception RecordStoreNotOpenException if this record store
+     *            is closed
+     * @exception RecordStoreException if an error occurs during record
+     *            store compaction
+     */
+    private void compactRecords()
+        throws IOException {
+
+        // check if the db can be compacted
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        if (RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) == 0) {
+            // no free space to compact
+            return;
+        }
+
+        // blocks are moved all over the file, don't journal them
+        dbFile.writeThrough();
+
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+        int currentId = 0;
+        int currentOffset = RecordStoreImpl.DB_HEADER_SIZE;
+        int currentSize = 0;
+        int moveUpNumBytes = 0;
+
+        // search through the data blocks for a free block that is large enough
+        while (currentOffset < getSize()) {
+            // seek to the next offset
+            dbFile.seek(currentOffset);
+
+            // read the block header
+            if (dbFile.read(header) != RecordStoreImpl.BLOCK_HEADER_SIZE) {
+                // could not read the block
+                throw new IOException();
+            }
+
+            currentId = RecordStoreUtil.getInt(header, 0);
+            currentSize =
+              RecordStoreUtil.calculateBlockSize(RecordStoreUtil.getInt(
+                                                   header, 4));
+
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                               "currentId = " + currentId +
+                               " currentSize = " + currentSize);
+            }
+
+            // check if this is a free block or a record
+            if (currentId < 0) {
+                if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                    Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                                   "found free block at offset " +
+                                   currentOffset);
+                }
+
+                // a free block, add to the moveUpNumBytes
+                moveUpNumBytes += currentSize;
+
+                // remove from the index
+                dbIndex.removeBlock(currentOffset, header);
+            } else {
+                if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                    Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                                   "found record block at offset " +
+                                   currentOffset);
+                }
+
+                // a record data block, check if it needs to be moved up
+                if (moveUpNumBytes > 0) {
+
+                    if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                        Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                                       "moveUpNumBytes = " + currentOffset);
+                    }
+
+                    moveBlock(currentOffset, currentOffset - moveUpNumBytes,
+                              currentSize);
+                    dbIndex.updateBlock(currentOffset - moveUpNumBytes, header);
+                }
+            }
+
+            // added the block size to the currentOffset
+            currentOffset += currentSize;
+        }
+
+        // check if the db file can be truncated
+        if (moveUpNumBytes > 0) {
+            RecordStoreUtil.putInt(
+                RecordStoreUtil.getInt(dbHeaderData, RS6_DATA_SIZE) -
+                    moveUpNumBytes, dbHeaderData, RS6_DATA_SIZE);
+            RecordStoreUtil.putInt(0, dbHeaderData, RS7_FREE_SIZE);
+            dbFile.seek(RS6_DATA_SIZE);
+            dbFile.write(dbHeaderData, RS6_DATA_SIZE, 4+4);
+            dbHeader.headerUpdated(dbHeaderData);
+            // dbFile.commitWrite();
+
+            dbFile.truncate(getSize());
+
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                               "compactRecords, truncate to size " + 
+                               getSize());
+            }
+        }
+
+        compactionOffset = getSize();
+    }
+
+    /**
+     * Performs one step of incremental compaction in a journal
+     * transaction. The record store stays open while its blocks are
+     * moved, so the moved blocks and the free block and header that
+     * describe them must survive a crash together, also when
+     * journaling is turned off.
+     *
+     * @param maxBlocks maximum number of record blocks to move
+     *
+     * @return true if there is free space left to compact
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private boolean compactStep(int maxBlocks) throws IOException {
+        boolean moreToDo = false;
+        boolean done = false;
+
+        dbFile.beginTransaction();
+
+        try {
+            moreToDo = compactBlocks(maxBlocks);
+            commitChanges();
+            done = true;
+        } finally {
+            if (!done) {
+                // never commit blocks moved half way
+                abortCompactStep();
+            }
+        }
+
+        if (!dbFile.commitTransaction()) {
+            reloadState();
+            throw new IOException("compaction step aborted");
+        }
+
+        return moreToDo;
+    }
+
+    /**
+     * Rolls back the journal transaction of a failed compaction step
+     * and reloads the state the step changed in memory.
+     */
+    private void abortCompactStep() {
+        try {
+            if (!dbFile.abortTransaction()) {
+                if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                    Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                                   "compaction step could not be rolled " +
+                                   "back, the record store was truncated");
+                }
+            }
+
+            reloadState();
+        } catch (IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                               "error rolling back compaction step: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Reloads the header and the block index after a transaction
+     * has been rolled back, and restarts compaction from the first
+     * block.
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void reloadState() throws IOException {
+        byte[] dbHeaderData = new byte[DB_HEADER_SIZE];
+
+        dbFile.seek(0);
+        if (dbFile.read(dbHeaderData) != DB_HEADER_SIZE) {
+            throw new IOException("error reading record store header");
+        }
+
+        dbHeader.headerUpdated(dbHeaderData);
+        dbIndex.invalidate();
+        compactionOffset = DB_HEADER_SIZE;
+    }
+
+    /**
+     * Performs one step of incremental compaction: moves up to
+     * <code>maxBlocks</code> record blocks that follow the first
+     * free block over it. The free space is collected into a single
+     * free block behind the moved blocks, so the record store stays
+     * consistent between steps. Once the free space reaches the end
+     * of <code>dbFile</code>, the file is truncated.
+     *
+     * @param maxBlocks maximum number of record blocks to move
+     *
+     * @return true if there is free space left to compact
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private boolean compactBlocks(int maxBlocks) throws IOException {
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        if (RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) == 0) {
+            // no free space to compact
+            return false;
+        }
+
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+        int size = getSize();
+        int freeOffset = compactionOffset;
+        int moveUpNumBytes = 0;
+
+        // search for the first free block
+        while (freeOffset < size) {
+            dbFile.seek(freeOffset);
+            if (dbFile.read(header) != BLOCK_HEADER_SIZE) {
+                // could not read the block
+                throw new IOException();
+            }
+
+            int blockSize = RecordStoreUtil.calculateBlockSize(
+                RecordStoreUtil.getInt(header, 4));
+
+            if (RecordStoreUtil.getInt(header, 0) < 0) {
+                moveUpNumBytes = blockSize;
+                break;
+            }
+
+            freeOffset += blockSize;
+        }
+
+        if (moveUpNumBytes == 0) {
+            // the free blocks are before the start offset, rescan
+            boolean rescan = compactionOffset > DB_HEADER_SIZE;
+            compactionOffset = DB_HEADER_SIZE;
+            return rescan;
+        }
+
+        // the free block is going to be moved
+        dbIndex.removeBlock(freeOffset, header);
+
+        int currentOffset = freeOffset + moveUpNumBytes;
+        int numMoved = 0;
+
+        while (currentOffset < size && numMoved < maxBlocks) {
+            dbFile.seek(currentOffset);
+            if (dbFile.read(header) != BLOCK_HEADER_SIZE) {
+                // could not read the block
+                throw new IOException();
+            }
+
+            int currentSize = RecordStoreUtil.calculateBlockSize(
+                RecordStoreUtil.getInt(header, 4));
+
+            if (RecordStoreUtil.getInt(header, 0) < 0) {
+                // a free block, merge it
+                dbIndex.removeBlock(currentOffset, header);
+                moveUpNumBytes += currentSize;
+            } else {
+                moveBlock(currentOffset, currentOffset - moveUpNumBytes,
+                          currentSize);
+                dbIndex.updateBlock(currentOffset - moveUpNumBytes, header);
+                numMoved++;
+            }
+
+            currentOffset += currentSize;
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "compactBlocks moved " + numMoved +
+                           " blocks up by " + moveUpNumBytes);
+        }
+
+        if (currentOffset < size) {
+            // leave the collected free space behind the moved blocks
+            compactionOffset = currentOffset - moveUpNumBytes;
+            RecordStoreUtil.putInt(-1, header, 0);
+            RecordStoreUtil.putInt(moveUpNumBytes - BLOCK_HEADER_SIZE,
+                                   header, 4);
+            writeBlock(compactionOffset, header, null, 0, 0);
+            return true;
+        }
+
+        // the free space reached the end of file, truncate it
+        RecordStoreUtil.putInt(
+            RecordStoreUtil.getInt(dbHeaderData, RS6_DATA_SIZE) -
+                moveUpNumBytes, dbHeaderData, RS6_DATA_SIZE);
+        RecordStoreUtil.putInt(
+            RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) -
+                moveUpNumBytes, dbHeaderData, RS7_FREE_SIZE);
+        dbFile.seek(RS6_DATA_SIZE);
+        dbFile.write(dbHeaderData, RS6_DATA_SIZE, 4+4);
+        dbHeader.headerUpdated(dbHeaderData);
+
+        dbFile.truncate(getSize());
+        compactionOffset = getSize();
+
+        return RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) > 0;
+    }
+
+    /**
+     * Moves a block towards the beginning of <code>dbFile</code>.
+     *
+     * @param blockOffset the offset in db file of the block to move
+     * @param newOffset the offset to move the block to
+     * @param blockSize size of the block
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void moveBlock(int blockOffset, int newOffset, int blockSize)
+        throws IOException {
+
+        int numMoved = 0;
+        while (numMoved < blockSize) {
+            int curRead = blockSize - numMoved;
+            if (curRead > COMPACT_BUFFER_SIZE) {
+                curRead = COMPACT_BUFFER_SIZE;
+            }
+
+            dbFile.seek(blockOffset + numMoved);
+            curRead = dbFile.read(compactBuffer, 0, curRead);
+            if (curRead == -1) {
+                throw new IOException();
+            }
+
+            dbFile.seek(newOffset + numMoved);
+            dbFile.write(compactBuffer, 0, curRead);
+            // dbFile.commitWrite();
+            numMoved += curRead;
+        }
+    }
+
+    /**
+     * Set the record in the block to the data passed in and adds any remaining
+     * space to the free list. The caller has to add the returned size
+     * to the db free size.
+     *
+     * @param blockOffset the offset in db file to the block to split
+     * @param header the header of the block to split
+     * @param newData the new data to store in the record
+     * @param offset the index into the data buffer of the first
+     *          relevant byte for this record
+     * @param numBytes the number of bytes of the data buffer to use
+     *          for this record
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return the size of the block freed from the remaining space,
+     *         0 if none
+     */
+    private int splitBlock(int blockOffset, byte[] header,
+                            byte[] newData, int offset,
+                            int numBytes) throws IOException {
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "splitBlock("+RecordStoreUtil.getInt(header, 0) +
+                           ") old numBytes = " + RecordStoreUtil.getInt(header, 4) +
+                           " new numBytes=" + numBytes);
+        }
+
+        // calculate the size of the block
+        int oldBlockSize =
+          RecordStoreUtil.calculateBlockSize(RecordStoreUtil.getInt(
+                                               header, 4));
+
+        // calculate the size of the block
+        int newBlockSize = RecordStoreUtil.calculateBlockSize(numBytes);
+
+        /*
+         * Check if there is any left over free space, and free it first:
+         * if a write fails in write-through mode, the blocks can still
+         * be walked through.
+         */
+        int freedSize = 0;
+        int freeSize = oldBlockSize - newBlockSize - BLOCK_HEADER_SIZE;
+        if (freeSize >= 0) {
+            byte[] freeHeader = new byte[BLOCK_HEADER_SIZE];
+            RecordStoreUtil.putInt(freeSize, freeHeader, 4);
+            freedSize = markBlockFree(blockOffset+newBlockSize, freeHeader);
+        }
+
+        // update the block header
+        RecordStoreUtil.putInt(numBytes, header, 4);
+
+        // seek to the location and write the block and header
+        writeBlock(blockOffset, header, newData, offset, numBytes);
+
+        return freedSize;
+    }
+
+    /**
+     * Adds a block for the record and data or sets an existing block to
+     * the data.  Splits an exiting block if needed.
+     * 
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @param recordId the ID of the record to use in this operation
+     * @param data the new data to store in the record
+     * @param offset the index into the data buffer of the first
+     *          relevant byte for this record
+     * @param numBytes the number of bytes of the data buffer to use
+     *          for this record
+     *
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception IOException if there is an error accessing the db file
+     * @exception RecordStoreException if the new consumption is gong to
+     *            exceed the resource limit
+     *
+     * @return the offset in the db file of the block added
      */
     private int addBlock(int recordId, byte[] data, int offset, int numBytes)
         throws IOException, RecordStoreFullException, RecordStoreException {
@@ -1001,7 +1947,8 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
 
         if (blockOffset > 0) {
             // search found a block, use it
-            splitBlock(blockOffset, header, data, offset, numBytes);
+            addFreeSize(splitBlock(blockOffset, header, data, offset,
+                                   numBytes));
         } else {
             // search failed, add a new block to the end of the db file
             int spaceAvailable = getSizeAvailable();
@@ -1015,109 +1962,599 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                                "spaceAvailable = "+spaceAvailable);
             }
 
-            // Is there room to grow the file?
-            if (spaceAvailable < blockSize) {
-                 // Is there enough room totally: in storage and free blocks?
-                 if (spaceAvailable + freeBlocksSize < blockSize) {
-                     throw new RecordStoreFullException();
-                 }
-                 compactRecords();
+            // Is there room to grow the file?
+            if (spaceAvailable < blockSize) {
+                 // Is there enough room totally: in storage and free blocks?
+                 if (spaceAvailable + freeBlocksSize < blockSize) {
+                     throw new RecordStoreFullException();
+                 }
+                 compactRecords();
+            }
+
+            blockOffset = getSize();
+
+            // seek to the location and write the block and header
+            RecordStoreUtil.putInt(numBytes, header, 4);
+            writeBlock(blockOffset, header, data, offset, numBytes);
+
+            // update the db data size
+            RecordStoreUtil.putInt(RecordStoreUtil.getInt(
+                    dbHeaderData, RS6_DATA_SIZE) + blockSize, 
+                    dbHeaderData, RS6_DATA_SIZE);
+            dbFile.seek(RS6_DATA_SIZE);
+            dbFile.write(dbHeaderData, RS6_DATA_SIZE, 4);
+            dbHeader.headerUpdated(dbHeaderData);
+            // dbFile.commitWrite();
+
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                               "blockOffset = "+blockOffset);
+            }
+        }
+
+        return blockOffset;
+    }
+
+    /**
+     * Mark the block at the given offset in db file as free.
+     *
+     * @param blockOffset the offset in db file to the block to free
+     * @param header the header of the block to free
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void freeBlock(int blockOffset, byte[] header) throws IOException {
+        addFreeSize(markBlockFree(blockOffset, header));
+    }
+
+    /**
+     * Writes the header of a free block at the given offset in db file.
+     * The caller has to add the block to the db free size.
+     *
+     * @param blockOffset the offset in db file to the block to free
+     * @param header the header of the block to free
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return the size of the freed block
+     */
+    private int markBlockFree(int blockOffset, byte[] header)
+        throws IOException {
+
+        int dataSize = RecordStoreUtil.getInt(header, 4);
+
+        // calculate the size of the block
+        int blockSize = RecordStoreUtil.calculateBlockSize(dataSize);
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "freeBlock(" + blockOffset + ") size = " +
+                           blockSize);
+        }
+
+        if (blockOffset < compactionOffset) {
+            compactionOffset = blockOffset;
+        }
+
+        // mark the block as free
+        RecordStoreUtil.putInt(-1, header, 0);
+        RecordStoreUtil.putInt(blockSize - BLOCK_HEADER_SIZE, header, 4);
+
+        // save the updated block header
+        writeBlock(blockOffset, header, null, 0, 0);
+
+        return blockSize;
+    }
+
+    /**
+     * Adds freed blocks to the db free size.
+     *
+     * @param freedSize size of the freed blocks
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void addFreeSize(int freedSize) throws IOException {
+        if (freedSize == 0) {
+            return;
+        }
+
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        RecordStoreUtil.putInt(RecordStoreUtil.getInt(
+                dbHeaderData, RS7_FREE_SIZE) + freedSize,
+                dbHeaderData, RS7_FREE_SIZE);
+        dbFile.seek(RS7_FREE_SIZE);
+        dbFile.write(dbHeaderData, RS7_FREE_SIZE, 4);
+        dbHeader.headerUpdated(dbHeaderData);
+        // dbFile.commitWrite();
+    }
+
+    /**
+     * Writes a block to the db file at the given offset.
+     *
+     * @param blockOffset the offset in db file to write the block
+     * @param header the header of the block to write
+     * @param data the new data to store in the record
+     * @param offset the index into the data buffer of the first
+     *          relevant byte for this record
+     * @param numBytes the number of bytes of the data buffer to use
+     *          for this record
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void writeBlock(int blockOffset, byte[] header,
+                            byte[] data, int offset, int numBytes)
+        throws IOException {
+
+        int remainder;
+        if (data != null && numBytes > 0) {
+            // the header goes last, the block is valid once it is written
+            dbFile.seek(blockOffset + BLOCK_HEADER_SIZE);
+            dbFile.write(data, offset, numBytes);
+            remainder = numBytes % BLOCK_HEADER_SIZE;
+            if (remainder != 0) {
+                // DB_SIGNATURE used here as meaningless pad bytes
+                dbFile.write(DB_SIGNATURE, 0, BLOCK_HEADER_SIZE - remainder);
+            }
+        }
+        dbFile.seek(blockOffset);
+        dbFile.write(header);
+        // flush the writes
+        // dbFile.commitWrite();
+        // update the index
+        dbIndex.updateBlock(blockOffset, header);
+    }
+
+    /**
+     * Checks that there is room for the records of a batch operation,
+     * and compacts the record store if they only fit into the storage
+     * and free blocks together. This is done before the journal
+     * transaction of the batch, as compaction writes directly to the
+     * db file and would make the transaction irrevocable.
+     *
+     * @param records the data of the records
+     *
+     * @exception RecordStoreFullException if the records don't fit
+     *          into the record store
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void ensureSpace(byte[][] records)
+        throws IOException, RecordStoreFullException {
+
+        long neededSize = 0;
+        for (int i = 0; i < records.length; i++) {
+            neededSize += RecordStoreUtil.calculateBlockSize(
+                (records[i] == null) ? 0 : records[i].length);
+        }
+
+        int spaceAvailable = getSizeAvailable();
+        if (neededSize <= spaceAvailable) {
+            return;
+        }
+
+        // Is there enough room totally: in storage and free blocks?
+        int freeSize = RecordStoreUtil.getInt(dbHeader.getHeaderData(),
+                                              RS7_FREE_SIZE);
+        if (neededSize > spaceAvailable + (long)freeSize) {
+            throw new RecordStoreFullException();
+        }
+
+        compactRecords();
+        dbFile.endWriteThrough(dbHeader.isExclusiveUse);
+
+        // the free size only estimates the space of the free blocks
+        if (neededSize > getSizeAvailable()) {
+            throw new RecordStoreFullException();
+        }
+    }
+
+    /**
+     * Writes the blocks of records added by a batch operation. Free
+     * blocks are reused where possible; the other records are gathered
+     * and appended to the end of the db file. The db data size and free
+     * size are only updated in memory, the caller has to write the
+     * db header.
+     *
+     * @param records the data of the records
+     * @param recordIds the IDs of the records
+     *
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void writeRecords(byte[][] records, int[] recordIds)
+        throws IOException, RecordStoreFullException {
+
+        BlockAppender appender = new BlockAppender();
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+        int spaceAvailable = getSizeAvailable();
+
+        // free blocks only shrink, don't search again for them
+        int noFreeBlockSize = Integer.MAX_VALUE;
+
+        for (int i = 0; i < records.length; i++) {
+            byte[] data = records[i];
+            int numBytes = (data == null) ? 0 : data.length;
+            int blockSize = RecordStoreUtil.calculateBlockSize(numBytes);
+            int blockOffset = 0;
+            int freeSize = RecordStoreUtil.getInt(dbHeader.getHeaderData(),
+                                                  RS7_FREE_SIZE);
+
+            if (blockSize < noFreeBlockSize && freeSize >= blockSize) {
+                RecordStoreUtil.putInt(numBytes, header, 4);
+                blockOffset = dbIndex.getFreeBlock(header);
+                if (blockOffset <= 0) {
+                    noFreeBlockSize = blockSize;
+                }
+            }
+
+            RecordStoreUtil.putInt(recordIds[i], header, 0);
+
+            if (blockOffset > 0) {
+                addToHeader(RS7_FREE_SIZE, splitBlock(blockOffset, header,
+                                                      data, 0, numBytes));
+                continue;
+            }
+
+            if (spaceAvailable < blockSize) {
+                throw new RecordStoreFullException();
+            }
+
+            RecordStoreUtil.putInt(numBytes, header, 4);
+            appender.append(header, data, numBytes);
+            spaceAvailable -= blockSize;
+        }
+
+        appender.flush();
+    }
+
+    /**
+     * Adds to an int field of the db header in memory. The header
+     * is written later.
+     *
+     * @param offset offset of the field in the db header
+     * @param value the value to add
+     */
+    private void addToHeader(int offset, int value) {
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        RecordStoreUtil.putInt(RecordStoreUtil.getInt(dbHeaderData, offset) +
+                value, dbHeaderData, offset);
+        dbHeader.headerUpdated(dbHeaderData);
+    }
+
+    /**
+     * Writes the db header at the end of a batch operation, with the
+     * data size and free size as updated in memory.
+     *
+     * @param nextId the recordId of the next record to be added
+     * @param numLive number of records in the record store
+     * @param numChanged number of records added or deleted
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void writeBatchHeader(int nextId, int numLive, int numChanged)
+        throws IOException {
+
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        RecordStoreUtil.putInt(nextId, dbHeaderData, RS2_NEXT_ID);
+        RecordStoreUtil.putInt(numLive, dbHeaderData, RS3_NUM_LIVE);
+        int newVersion = RecordStoreUtil.getInt(dbHeaderData, RS4_VERSION) +
+            numChanged;
+        RecordStoreUtil.putInt(newVersion, dbHeaderData, RS4_VERSION);
+        RecordStoreUtil.putLong(System.currentTimeMillis(),
+                dbHeaderData, RS5_LAST_MODIFIED);
+
+        dbFile.seek(RS2_NEXT_ID);
+        dbFile.write(dbHeaderData, RS2_NEXT_ID, 4*4+8+4);
+        dbHeader.headerUpdated(dbHeaderData);
+        dbIndex.recordStoreVersionUpdated(newVersion);
+    }
+
+    /**
+     * Commits the journal transaction of a batch operation.
+     *
+     * @exception IOException if the journal cannot be written
+     * @exception RecordStoreException if another MIDlet opened the
+     *            record store while the transaction was in progress
+     */
+    private void commitBatch() throws IOException, RecordStoreException {
+        if (!dbFile.commitTransaction()) {
+            reloadState();
+            recordCache.clear();
+            if (RecordStoreSharedDBHeader.SHARE_RECORDS) {
+                dbHeader.clearCachedRecords();
+            }
+            throw new RecordStoreException("transaction aborted");
+        }
+    }
+
+    /**
+     * Ends the journal transaction of a failed batch operation. The
+     * changes are rolled back if possible. Otherwise some of them are
+     * in the db file already, and the db header is rewritten to count
+     * the records found in the blocks.
+     */
+    private void abortBatch() {
+        try {
+            if (dbFile.isTransactionRevocable()) {
+                dbFile.abortTransaction();
+                reloadState();
+            } else {
+                recountRecords();
+
+                // commits the changes made so far
+                dbFile.abortTransaction();
+            }
+        } catch (IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                               "error rolling back batch operation: " +
+                               ioe);
+            }
+        }
+
+        recordCache.clear();
+        if (RecordStoreSharedDBHeader.SHARE_RECORDS) {
+            dbHeader.clearCachedRecords();
+        }
+    }
+
+    /**
+     * Counts the records in the blocks of the db file and writes the
+     * db header for them, after a batch operation has failed half way.
+     * The block index is reloaded as well.
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void recountRecords() throws IOException {
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+        int nextId = getNextRecordID();
+        int numLive = 0;
+        int size = getSize();
+
+        for (int offset = DB_HEADER_SIZE; offset < size; ) {
+            dbFile.seek(offset);
+            if (dbFile.read(header) != BLOCK_HEADER_SIZE) {
+                throw new IOException("error reading block header");
+            }
+
+            int recordId = RecordStoreUtil.getInt(header, 0);
+            if (recordId >= 0) {
+                numLive++;
+                if (recordId >= nextId) {
+                    nextId = recordId + 1;
+                }
             }
 
-            blockOffset = getSize();
+            offset += RecordStoreUtil.calculateBlockSize(
+                RecordStoreUtil.getInt(header, 4));
+        }
 
-            // seek to the location and write the block and header
-            RecordStoreUtil.putInt(numBytes, header, 4);
-            writeBlock(blockOffset, header, data, offset, numBytes);
+        writeBatchHeader(nextId, numLive, 1);
+        dbIndex.invalidate();
+    }
 
-            // update the db data size
-            RecordStoreUtil.putInt(RecordStoreUtil.getInt(
-                    dbHeaderData, RS6_DATA_SIZE) + blockSize, 
-                    dbHeaderData, RS6_DATA_SIZE);
-            dbFile.seek(RS6_DATA_SIZE);
-            dbFile.write(dbHeaderData, RS6_DATA_SIZE, 4);
-            dbHeader.headerUpdated(dbHeaderData);
-            // dbFile.commitWrite();
+    /**
+     * Sorts the first entries of an array of indexes by the file offsets
+     * they refer to, so the blocks can be accessed sequentially.
+     *
+     * @param order the indexes to sort
+     * @param count number of indexes to sort
+     * @param offsets file offsets, by index
+     */
+    private static void sortByOffset(int[] order, int count, int[] offsets) {
+        // shell sort, the arrays are already sorted more often than not
+        for (int gap = count / 2; gap > 0; gap /= 2) {
+            for (int i = gap; i < count; i++) {
+                int index = order[i];
+                int offset = offsets[index];
+                int j = i;
+
+                while (j >= gap && offsets[order[j - gap]] > offset) {
+                    order[j] = order[j - gap];
+                    j -= gap;
+                }
 
-            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                               "blockOffset = "+blockOffset);
+                order[j] = index;
             }
         }
+    }
 
-        return blockOffset;
+    /**
+     * Invalidates the cached data of a record after it has been added,
+     * changed or deleted, and the record store header has been updated.
+     *
+     * @param recordId ID of the record
+     */
+    private void recordChanged(int recordId) {
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        int version = RecordStoreUtil.getInt(dbHeaderData, RS4_VERSION);
+
+        recordCache.recordChanged(recordId, version,
+            RecordStoreUtil.getLong(dbHeaderData, RS5_LAST_MODIFIED));
+        if (RecordStoreSharedDBHeader.SHARE_RECORDS) {
+            dbHeader.cachedRecordChanged(recordId, version);
+        }
     }
 
     /**
-     * Mark the block at the given offset in db file as free.
+     * Looks up a record in the record cache of this isolate, then
+     * in the record cache shared by all isolates.
+     * The returned array must not be modified.
      *
-     * @param blockOffset the offset in db file to the block to free
-     * @param header the header of the block to free
+     * @param recordId ID of the record
      *
-     * @exception IOException if there is an error accessing the db file
+     * @return the record data, an empty array for an empty record,
+     *         or null if the record is not cached
      */
-    private void freeBlock(int blockOffset, byte[] header) throws IOException {
-        int dataSize = RecordStoreUtil.getInt(header, 4);
+    private byte[] getCachedRecord(int recordId) {
+        byte[] data = recordCache.get(recordId);
+
+        if (data == null && RecordStoreSharedDBHeader.SHARE_RECORDS) {
+            data = dbHeader.getCachedRecord(recordId,
+                RecordStoreUtil.getInt(dbHeader.getHeaderData(),
+                                       RS4_VERSION));
+            if (data != null) {
+                recordCache.put(recordId, data);
+            }
+        }
 
-        // calculate the size of the block
-        int blockSize = RecordStoreUtil.calculateBlockSize(dataSize);
+        return data;
+    }
 
-        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                           "freeBlock(" + blockOffset + ") size = " +
-                           blockSize);
+    /**
+     * Caches a record read from the record store file in the record
+     * cache of this isolate and in the one shared by all isolates.
+     * The array must not be modified afterwards.
+     *
+     * @param recordId ID of the record
+     * @param data the record data, an empty array for an empty record
+     */
+    private void cacheRecord(int recordId, byte[] data) {
+        recordCache.put(recordId, data);
+
+        if (RecordStoreSharedDBHeader.SHARE_RECORDS) {
+            dbHeader.putCachedRecord(recordId,
+                RecordStoreUtil.getInt(dbHeader.getHeaderData(),
+                                       RS4_VERSION),
+                data);
         }
+    }
 
-        // mark the block as free
-        RecordStoreUtil.putInt(-1, header, 0);
-        RecordStoreUtil.putInt(blockSize - BLOCK_HEADER_SIZE, header, 4);
-
-        // save the updated block header
-        writeBlock(blockOffset, header, null, 0, 0);
+    /**
+     * Checks if the secondary index is in sync with the record store,
+     * so it can be updated by the current change.
+     *
+     * @return true if there is a secondary index in sync
+     *
+     * @exception IOException if the index file cannot be read
+     */
+    private boolean isKeyIndexInSync() throws IOException {
+        if (keyIndex == null) {
+            return false;
+        }
 
-        // add to the db free size
         byte[] dbHeaderData = dbHeader.getHeaderData();
-        RecordStoreUtil.putInt(RecordStoreUtil.getInt(
-                dbHeaderData, RS7_FREE_SIZE) + blockSize,
-                dbHeaderData, RS7_FREE_SIZE);
-        dbFile.seek(RS7_FREE_SIZE);
-        dbFile.write(dbHeaderData, RS7_FREE_SIZE, 4);
-        dbHeader.headerUpdated(dbHeaderData);
-        // dbFile.commitWrite();
+        return keyIndex.isInSync(
+            RecordStoreUtil.getInt(dbHeaderData, RS4_VERSION),
+            RecordStoreUtil.getLong(dbHeaderData, RS5_LAST_MODIFIED));
     }
 
     /**
-     * Writes a block to the db file at the given offset.
+     * Extracts the key of record data for the secondary index.
      *
-     * @param blockOffset the offset in db file to write the block
-     * @param header the header of the block to write
-     * @param data the new data to store in the record
+     * @param data the record data
      * @param offset the index into the data buffer of the first
      *          relevant byte for this record
      * @param numBytes the number of bytes of the data buffer to use
      *          for this record
      *
+     * @return the key
+     */
+    private byte[] getKey(byte[] data, int offset, int numBytes) {
+        byte[] recordData = null;
+
+        if (numBytes > 0) {
+            recordData = new byte[numBytes];
+            System.arraycopy(data, offset, recordData, 0, numBytes);
+        }
+
+        return keyIndex.getKey(recordData);
+    }
+
+    /**
+     * Reads a record and extracts its key for the secondary index.
+     *
+     * @param blockOffset the offset in db file of the record block
+     * @param header the header of the record block
+     *
+     * @return the key
+     *
      * @exception IOException if there is an error accessing the db file
      */
-    private void writeBlock(int blockOffset, byte[] header,
-                            byte[] data, int offset, int numBytes)
+    private byte[] readKey(int blockOffset, byte[] header)
         throws IOException {
 
-        int remainder;
-        dbFile.seek(blockOffset);
-        dbFile.write(header);
-        if (data != null && numBytes > 0) {
-            dbFile.write(data, offset, numBytes);
-            remainder = numBytes % BLOCK_HEADER_SIZE;
-            if (remainder != 0) {
-                // DB_SIGNATURE used here as meaningless pad bytes
-                dbFile.write(DB_SIGNATURE, 0, BLOCK_HEADER_SIZE - remainder);
+        int dataSize = RecordStoreUtil.getInt(header, 4);
+        byte[] data = null;
+
+        if (dataSize > 0) {
+            data = new byte[dataSize];
+            dbFile.seek(blockOffset + BLOCK_HEADER_SIZE);
+            dbFile.read(data);
+        }
+
+        return keyIndex.getKey(data);
+    }
+
+    /**
+     * Applies a record change to the secondary index. If the index
+     * cannot be updated, it is left out of sync to be rebuilt later.
+     *
+     * @param recordId ID of the changed record
+     * @param oldKey previous key of the record, null if it has been added
+     * @param newKey new key of the record, null if it has been deleted
+     */
+    private void updateKeyIndex(int recordId, byte[] oldKey, byte[] newKey) {
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+
+        try {
+            keyIndex.update(recordId, oldKey, newKey,
+                RecordStoreUtil.getInt(dbHeaderData, RS4_VERSION),
+                RecordStoreUtil.getLong(dbHeaderData, RS5_LAST_MODIFIED));
+        } catch (java.io.IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                               "error updating secondary index: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Applies the changes of a batch operation to the secondary index,
+     * writing the index version once.
+     *
+     * @param recordIds IDs of the changed records
+     * @param oldKeys previous keys of the records, null if all have
+     *        been added
+     * @param newKeys new keys of the records, null if all have been
+     *        deleted
+     */
+    private void updateKeyIndex(int[] recordIds, byte[][] oldKeys,
+                                byte[][] newKeys) {
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+
+        try {
+            keyIndex.update(recordIds, oldKeys, newKeys,
+                RecordStoreUtil.getInt(dbHeaderData, RS4_VERSION),
+                RecordStoreUtil.getLong(dbHeaderData, RS5_LAST_MODIFIED));
+        } catch (java.io.IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                               "error updating secondary index: " + ioe);
             }
         }
-        // flush the writes
-        // dbFile.commitWrite();
-        // update the index
-        dbIndex.updateBlock(blockOffset, header);
+    }
+
+    /**
+     * Rebuilds the secondary index from the records.
+     *
+     * @exception IOException if there is an error accessing the files
+     * @exception RecordStoreException if a record cannot be found
+     */
+    private void rebuildKeyIndex() throws IOException, RecordStoreException {
+        int[] recordIds = dbIndex.getRecordIDs();
+        byte[][] keys = new byte[recordIds.length][];
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+
+        for (int i = 0; i < recordIds.length; i++) {
+            int blockOffset = dbIndex.getRecordHeader(recordIds[i], header);
+            keys[i] = readKey(blockOffset, header);
+        }
+
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        keyIndex.rebuild(recordIds, keys,
+            RecordStoreUtil.getInt(dbHeaderData, RS4_VERSION),
+            RecordStoreUtil.getLong(dbHeaderData, RS5_LAST_MODIFIED));
     }
 
     /**
@@ -1126,16 +2563,194 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     private void lockRecordStore() {
         recordStoreLock.obtain();
         dbHeader.recordStoreLocked();
+        dbFile.recordStoreLocked(dbHeader.isExclusiveUse,
+                                 dbHeader.getHeaderVersion());
+
+        if (dbHeader.getHeaderVersion() != unlockedHeaderVersion) {
+            // blocks may have been moved by another MIDlet
+            compactionOffset = DB_HEADER_SIZE;
+        }
+
+        // drop cached records changed by another MIDlet
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        int version = RecordStoreUtil.getInt(dbHeaderData, RS4_VERSION);
+        recordCache.validate(version,
+            RecordStoreUtil.getLong(dbHeaderData, RS5_LAST_MODIFIED));
+        if (RecordStoreSharedDBHeader.SHARE_RECORDS) {
+            dbHeader.validateCachedRecords(version);
+        }
     }
 
     /**
      * Unlocks this record store.
      */
     private void unlockRecordStore() {
+        if (keyIndex != null && !dbHeader.isExclusiveUse) {
+            // other MIDlets would find the index out of sync
+            try {
+                keyIndex.flush();
+            } catch (java.io.IOException ioe) {
+                if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                    Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                                   "error saving secondary index: " + ioe);
+                }
+            }
+        }
+
+        // shares the header changes, updating the header version
         dbHeader.recordStoreAboutToBeUnlocked();
+        unlockedHeaderVersion = dbHeader.getHeaderVersion();
+        dbFile.recordStoreAboutToBeUnlocked(unlockedHeaderVersion);
         recordStoreLock.release();        
     }
 
+    /**
+     * Terminates the changes of a record store operation in the journal
+     * and schedules the journal to be committed in background.
+     * Must be called with the record store locked.
+     *
+     * @exception IOException if the journal cannot be written
+     */
+    private void commitChanges() throws IOException {
+        dbIndex.flush();
+        dbFile.commit();
+
+        if (journalFlushTask == null && dbFile.hasPendingChanges()) {
+            journalFlushTask = new JournalFlushTask();
+            schedule(journalFlushTask, RMSConfig.RMS_JOURNAL_COMMIT_DELAY);
+        }
+
+        if (RMSConfig.RMS_COMPACTION_THRESHOLD > 0 &&
+                dbHeader.isExclusiveUse) {
+            byte[] dbHeaderData = dbHeader.getHeaderData();
+            int freeSize = RecordStoreUtil.getInt(dbHeaderData,
+                                                  RS7_FREE_SIZE);
+            int dataSize = RecordStoreUtil.getInt(dbHeaderData,
+                                                  RS6_DATA_SIZE);
+
+            if (freeSize > 0 && freeSize * 100L >=
+                    dataSize * (long)RMSConfig.RMS_COMPACTION_THRESHOLD) {
+                scheduleCompaction(RMSConfig.RMS_COMPACTION_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Commits the journal in background.
+     */
+    private void flushJournal() {
+        synchronized (recordStoreLock) {
+            journalFlushTask = null;
+
+            if (dbFile == null) {
+                // the record store has been closed
+                return;
+            }
+
+            lockRecordStore();
+
+            try {
+                dbFile.flush();
+
+                // the changes of the index are as durable as the records
+                if (keyIndex != null) {
+                    keyIndex.flush();
+                }
+            } catch (Throwable t) {
+                /*
+                 * Any exception escaping from here would kill the timer
+                 * thread shared by all record stores.
+                 */
+                if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                    Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                                   "error committing journal: " + t);
+                }
+            } finally {
+                unlockRecordStore();
+            }
+
+            if (dbFile.hasPendingChanges()) {
+                // a transaction is in progress, retry later
+                journalFlushTask = new JournalFlushTask();
+                schedule(journalFlushTask, RMSConfig.RMS_JOURNAL_COMMIT_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Schedules the next step of background compaction, unless it is
+     * already scheduled.
+     *
+     * @param delay delay in milliseconds before the step
+     */
+    private void scheduleCompaction(long delay) {
+        if (compactionTask == null) {
+            compactionTask = new CompactionTask();
+            schedule(compactionTask, delay);
+        }
+    }
+
+    /**
+     * Performs a step of background compaction and schedules the next
+     * one if there is free space left.
+     */
+    private void runCompactionStep() {
+        synchronized (recordStoreLock) {
+            compactionTask = null;
+
+            if (dbFile == null) {
+                // the record store has been closed
+                return;
+            }
+
+            boolean moreToDo = false;
+            lockRecordStore();
+
+            try {
+                if (dbHeader.isExclusiveUse) {
+                    moreToDo = compactStep(
+                        RMSConfig.RMS_COMPACTION_STEP_BLOCKS);
+                }
+            } catch (Throwable t) {
+                // do not let the exception kill the shared timer thread
+                if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                    Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                                   "error compacting record store: " + t);
+                }
+            } finally {
+                unlockRecordStore();
+            }
+
+            if (moreToDo) {
+                scheduleCompaction(RMSConfig.RMS_COMPACTION_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Schedules a task on the timer shared by all record stores.
+     * If the timer thread has died, a new timer is created.
+     *
+     * @param task task to schedule
+     * @param delay delay in milliseconds before the task is executed
+     */
+    private static synchronized void schedule(TimerTask task, long delay) {
+        if (timer != null) {
+            try {
+                timer.schedule(task, delay);
+                return;
+            } catch (IllegalStateException ise) {
+                if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                    Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                                   "record store timer restarted: " + ise);
+                }
+            }
+        }
+
+        timer = new Timer();
+        timer.schedule(task, delay);
+    }
+
     /**
      * Creates a RecordStoreImpl instance; for internal use only.
      * Callers from outside must use <code>openRecordStore()</code>.
@@ -1156,6 +2771,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
         throws RecordStoreException, RecordStoreNotFoundException {
 
         this.suiteId = suiteId;
+        this.recordStoreName = recordStoreName;
         recordStoreLock = RecordStoreLockFactory.getLockInstance(
                 token, suiteId, recordStoreName);
 
@@ -1191,10 +2807,15 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             }
 
             // Create a RecordStoreFile for storing the record store.
+            RecordStoreFile dataFile = null;
             try {
-                dbFile = new RecordStoreFile(suiteId, recordStoreName,
+                dataFile = new RecordStoreFile(suiteId, recordStoreName,
                         RecordStoreFile.DB_EXTENSION);
 
+                // replays the journal left from a crash, if any
+                dbFile = new RecordStoreJournal(suiteId, recordStoreName,
+                        dataFile, RMSConfig.RMS_JOURNAL_ENABLED);
+
                 // allocate a new header
                 byte[] dbHeaderData = new byte[DB_HEADER_SIZE];
 
@@ -1225,6 +2846,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
 
                     // write the header to the file
                     dbFile.write(dbHeaderData);
+                    dbFile.checkpoint();
                     dbFile.commitWrite();
                 }
 
@@ -1234,10 +2856,15 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 // create the index object
                 dbIndex = new RecordStoreIndex(this, suiteId, recordStoreName);
 
+                recordCache = RecordStoreCache.getInstance(suiteId,
+                                                           recordStoreName);
+
             } catch (java.io.IOException ioe) {
                 try {
                     if (dbFile != null) {
                         dbFile.close();
+                    } else if (dataFile != null) {
+                        dataFile.close();
                     }
                 } catch (java.io.IOException ioe2) {
                     // ignore exception within exception block
@@ -1248,7 +2875,11 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                     RecordStoreUtil.quietDeleteFile(
                             RmsEnvironment.getSecureFilenameBase(suiteId),
                             recordStoreName, RecordStoreFile.DB_EXTENSION);
+                    RecordStoreUtil.quietDeleteFile(
+                            RmsEnvironment.getSecureFilenameBase(suiteId),
+                            recordStoreName, RecordStoreFile.JNL_EXTENSION);
                     RecordStoreIndex.deleteIndex(suiteId, recordStoreName);
+                    RecordStoreKeyIndex.deleteIndex(suiteId, recordStoreName);
                 }
 
                 dbFile = null;
@@ -1259,4 +2890,116 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             recordStoreLock.release();
         }
     }
+
+    /**
+     * Performs a step of background compaction.
+     */
+    private class CompactionTask extends TimerTask {
+        /**
+         * Compacts a few blocks.
+         */
+        public void run() {
+            runCompactionStep();
+        }
+    }
+
+    /**
+     * Commits the journal of the record store some time after
+     * the record store has been changed.
+     */
+    private class JournalFlushTask extends TimerTask {
+        /**
+         * Commits the journal.
+         */
+        public void run() {
+            flushJournal();
+        }
+    }
+
+    /**
+     * Gathers consecutive blocks appended to the db file by a batch
+     * operation, so they are written with one write.
+     */
+    private class BlockAppender {
+        /** the gathered blocks, allocated on first use */
+        private byte[] buffer;
+
+        /** number of bytes gathered */
+        private int size;
+
+        /**
+         * Gathers a block. Blocks larger than the buffer are written
+         * directly.
+         *
+         * @param header the header of the block
+         * @param data the record data, may be null if numBytes is 0
+         * @param numBytes the number of bytes of the record data
+         *
+         * @exception IOException if there is an error accessing the
+         *            db file
+         */
+        void append(byte[] header, byte[] data, int numBytes)
+            throws IOException {
+
+            int blockSize = RecordStoreUtil.calculateBlockSize(numBytes);
+
+            if (size + blockSize > RMSConfig.RMS_BATCH_BUFFER_SIZE) {
+                flush();
+            }
+
+            if (blockSize > RMSConfig.RMS_BATCH_BUFFER_SIZE) {
+                writeBlock(getSize(), header, data, 0, numBytes);
+                addToHeader(RS6_DATA_SIZE, blockSize);
+                return;
+            }
+
+            if (buffer == null) {
+                buffer = new byte[RMSConfig.RMS_BATCH_BUFFER_SIZE];
+            }
+
+            System.arraycopy(header, 0, buffer, size, BLOCK_HEADER_SIZE);
+            size += BLOCK_HEADER_SIZE;
+
+            if (numBytes > 0) {
+                System.arraycopy(data, 0, buffer, size, numBytes);
+                size += numBytes;
+
+                int remainder = numBytes % BLOCK_HEADER_SIZE;
+                if (remainder != 0) {
+                    // DB_SIGNATURE used here as meaningless pad bytes
+                    System.arraycopy(DB_SIGNATURE, 0, buffer, size,
+                                     BLOCK_HEADER_SIZE - remainder);
+                    size += BLOCK_HEADER_SIZE - remainder;
+                }
+            }
+        }
+
+        /**
+         * Writes the gathered blocks to the end of the db file and
+         * adds them to the index.
+         *
+         * @exception IOException if there is an error accessing the
+         *            db file
+         */
+        void flush() throws IOException {
+            if (size == 0) {
+                return;
+            }
+
+            int blockOffset = getSize();
+            dbFile.seek(blockOffset);
+            dbFile.write(buffer, 0, size);
+
+            byte[] header = new byte[BLOCK_HEADER_SIZE];
+            for (int pos = 0; pos < size; ) {
+                System.arraycopy(buffer, pos, header, 0, BLOCK_HEADER_SIZE);
+                dbIndex.updateBlock(blockOffset + pos, header);
+                pos += RecordStoreUtil.calculateBlockSize(
+                    RecordStoreUtil.getInt(header, 4));
+            }
+
+            addToHeader(RS6_DATA_SIZE, size);
+            size = 0;
+        }
+    }
 }
@@ -0,0 +1,1062 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
+/**
+ * Write-ahead journal in front of a record store database file.
+ *
+ * All writes to the database file are appended to a journal file
+ * instead and kept in an in-memory overlay, so that subsequent reads
+ * see them. Each record store operation (or each explicit transaction)
+ * is terminated by a commit mark. The journal file is synced once
+ * enough data has been gathered (group commit) and is periodically
+ * checkpointed: the overlay is written to the database file and the
+ * journal is reset.
+ *
+ * Journal file layout:
+ * <pre>
+ * Journal header:
+ *  00-07 : Signature ('midp-jnl')
+ *  08-11 : Generation, incremented each time the journal is reset
+ *  12-15 : Reserved
+ * Journal entries:
+ *  00-03 : Offset in the database file
+ *  04-07 : Size of data
+ *  08-xx : Data
+ * Commit mark:
+ *  00-03 : COMMIT_MARK
+ *  04-07 : Checksum of the entries since the previous commit mark
+ * </pre>
+ *
+ * When a record store is opened and its journal file exists, all
+ * completely committed entries are replayed into the database file.
+ *
+ * If journaling is turned off (see RMSConfig.RMS_JOURNAL_ENABLED)
+ * all calls are passed directly to the database file, except within
+ * an explicit transaction.
+ *
+ * While the record store is shared with another MIDlet, the journal
+ * is checkpointed and writes go directly to the database file, since
+ * the other MIDlet reads the database file itself.
+ */
+class RecordStoreJournal implements AbstractRecordStoreFile {
+
+    /** signature of the journal file */
+    static final byte[] JNL_SIGNATURE = {
+        (byte)'m', (byte)'i', (byte)'d', (byte)'p',
+        (byte)'-', (byte)'j', (byte)'n', (byte)'l'
+    };
+
+    /** offset of the generation in the journal header */
+    static final int JNL_GENERATION = 8;
+
+    /** size of the journal header */
+    static final int JNL_HEADER_SIZE = 16;
+
+    /** size of the journal entry header */
+    static final int ENTRY_HEADER_SIZE = 8;
+
+    /** offset value which marks a commit */
+    static final int COMMIT_MARK = -1;
+
+    /** size of the buffer used to replay the journal */
+    private static final int REPLAY_BUFFER_SIZE = 1024;
+
+    /** replay mode: only scan the journal entries */
+    private static final int REPLAY_SCAN = 0;
+
+    /** replay mode: write the journal entries to the database file */
+    private static final int REPLAY_DATABASE = 1;
+
+    /** replay mode: add the journal entries to the overlay */
+    private static final int REPLAY_OVERLAY = 2;
+
+    /** ID of the suite that owns the record store */
+    private int suiteId;
+
+    /** name of the record store */
+    private String name;
+
+    /** true if journaling is turned on */
+    private boolean enabled;
+
+    /** the database file */
+    private RecordStoreFile dbFile;
+
+    /** the journal file, null if the journal is not open */
+    private RecordStoreFile jnlFile;
+
+    /** generation of the journal */
+    private int generation;
+
+    /** size of the journal file */
+    private int jnlSize;
+
+    /** part of the journal file known to be synced */
+    private int syncedSize;
+
+    /** part of the journal file terminated by a commit mark */
+    private int committedSize;
+
+    /** checksum of the entries after the last commit mark */
+    private int checksum;
+
+    /** pending changes, sorted by offset and non-overlapping */
+    private Vector extents = new Vector();
+
+    /** logical position within the database file */
+    private int position;
+
+    /** nesting depth of explicit transactions */
+    private int transactionDepth;
+
+    /** true if changes of the open transaction have been lost */
+    private boolean transactionAborted;
+
+    /**
+     * true while all changes of the open transaction are still in the
+     * journal after its last commit mark, so they can be rolled back
+     */
+    private boolean transactionRevocable;
+
+    /** true if writes go directly to the database file */
+    private boolean writeThrough;
+
+    /** header version at the moment the record store was unlocked */
+    private int unlockedHeaderVersion;
+
+    /** scratch buffer for entry headers */
+    private byte[] entryHeader = new byte[ENTRY_HEADER_SIZE];
+
+    /**
+     * Constructs a journal for the given database file and replays
+     * the journal file left from a previous session, if any.
+     * The caller must hold the record store lock.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     * @param name name of the record store
+     * @param dbFile the database file
+     * @param enabled true if all changes should be journaled
+     *
+     * @exception IOException if the journal cannot be replayed
+     */
+    RecordStoreJournal(int suiteId, String name, RecordStoreFile dbFile,
+                       boolean enabled) throws IOException {
+        this.suiteId = suiteId;
+        this.name = name;
+        this.dbFile = dbFile;
+        this.enabled = enabled;
+
+        boolean exists = RecordStoreUtil.exists(
+                RmsEnvironment.getSecureFilenameBase(suiteId),
+                name, JNL_EXTENSION);
+
+        if (exists || enabled) {
+            jnlFile = new RecordStoreFile(suiteId, name, JNL_EXTENSION);
+
+            if (exists) {
+                recover();
+            } else {
+                resetJournal();
+            }
+
+            if (!enabled) {
+                closeJournal();
+            }
+        }
+    }
+
+    /**
+     * Called after the record store has been locked.
+     * Detects that the journal has been replayed by another MIDlet
+     * opening the record store and switches to write-through mode
+     * if the record store is shared.
+     *
+     * @param exclusiveUse true if no other MIDlet uses the record store
+     * @param headerVersion current version of the shared header
+     */
+    void recordStoreLocked(boolean exclusiveUse, int headerVersion) {
+        try {
+            if (jnlFile != null && jnlSize > JNL_HEADER_SIZE &&
+                    headerVersion != unlockedHeaderVersion) {
+                int newGeneration = readGeneration();
+
+                if (newGeneration != generation) {
+                    if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                        Logging.report(Logging.INFORMATION,
+                                       LogChannels.LC_RMS,
+                                       "journal replayed by another " +
+                                       "record store user");
+                    }
+
+                    // pending changes are already in the database file
+                    extents.removeAllElements();
+                    generation = newGeneration;
+                    jnlSize = JNL_HEADER_SIZE;
+                    syncedSize = JNL_HEADER_SIZE;
+                    committedSize = JNL_HEADER_SIZE;
+                    checksum = 0;
+
+                    if (transactionDepth > 0) {
+                        transactionAborted = true;
+                    }
+                }
+            }
+
+            writeThrough = !exclusiveUse;
+            if (writeThrough) {
+                checkpoint();
+            }
+        } catch (IOException ioe) {
+            /*
+             * Pending changes stay in the overlay, the checkpoint
+             * will be retried on the next write.
+             */
+            if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                               "journal checkpoint failed: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Called just before the record store is unlocked.
+     *
+     * @param headerVersion current version of the shared header
+     */
+    void recordStoreAboutToBeUnlocked(int headerVersion) {
+        unlockedHeaderVersion = headerVersion;
+    }
+
+    /**
+     * Returns true if there are changes that haven't been written
+     * to the database file yet.
+     *
+     * @return true if there are pending changes
+     */
+    boolean hasPendingChanges() {
+        return jnlFile != null && jnlSize > JNL_HEADER_SIZE;
+    }
+
+    /**
+     * Starts an explicit transaction. Changes made until the matching
+     * <code>commitTransaction()</code> call are either all replayed
+     * after a crash or not at all. Transactions can be nested; only
+     * the outermost one is committed.
+     *
+     * @exception IOException if the journal cannot be opened
+     */
+    void beginTransaction() throws IOException {
+        if (transactionDepth == 0) {
+            if (jnlFile == null) {
+                jnlFile = new RecordStoreFile(suiteId, name, JNL_EXTENSION);
+                resetJournal();
+            }
+
+            // terminate the changes made before the transaction
+            if (jnlSize > committedSize) {
+                writeCommitMark();
+            }
+
+            transactionAborted = false;
+            transactionRevocable = true;
+        }
+
+        transactionDepth++;
+    }
+
+    /**
+     * Commits the current transaction and syncs the journal.
+     *
+     * @return false if the transaction had to be aborted because
+     *         another MIDlet opened the record store in the middle of it
+     *
+     * @exception IOException if the journal cannot be written
+     */
+    boolean commitTransaction() throws IOException {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("no transaction");
+        }
+
+        transactionDepth--;
+        if (transactionDepth > 0) {
+            return true;
+        }
+
+        boolean committed = !transactionAborted;
+        transactionAborted = false;
+
+        if (jnlSize > committedSize) {
+            writeCommitMark();
+        }
+        sync();
+
+        if (!enabled) {
+            // the journal was opened for this transaction only
+            checkpoint();
+            closeJournal();
+        }
+
+        return committed;
+    }
+
+    /**
+     * Aborts the current transaction. The changes made since the
+     * outermost transaction began are dropped from the journal and from
+     * the overlay of pending changes. If a nested transaction is
+     * aborted, the enclosing transaction is reported as aborted by
+     * <code>commitTransaction()</code>.
+     *
+     * @return false if the changes could not be rolled back because
+     *         some had already been written to the database file by a
+     *         checkpoint or in write-through mode, then the changes of
+     *         the outermost transaction are committed instead
+     *
+     * @exception IOException if the journal cannot be written
+     */
+    boolean abortTransaction() throws IOException {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("no transaction");
+        }
+
+        transactionDepth--;
+        if (transactionDepth > 0) {
+            transactionAborted = true;
+        }
+
+        if (!transactionRevocable) {
+            if (transactionDepth == 0) {
+                // keep the journal in step with the database file
+                transactionDepth++;
+                commitTransaction();
+            }
+
+            return false;
+        }
+
+        if (jnlFile != null && jnlSize > committedSize) {
+            jnlFile.truncate(committedSize);
+            jnlSize = committedSize;
+            if (syncedSize > jnlSize) {
+                syncedSize = jnlSize;
+            }
+            checksum = 0;
+
+            // rebuild the overlay from the committed entries
+            extents.removeAllElements();
+            replay(committedSize, REPLAY_OVERLAY);
+        }
+
+        if (transactionDepth == 0) {
+            transactionAborted = false;
+
+            if (!enabled) {
+                // the journal was opened for this transaction only
+                closeJournal();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if an explicit transaction is open.
+     *
+     * @return true if in a transaction
+     */
+    boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
+
+    /**
+     * Returns true if the current transaction can still be rolled back
+     * by <code>abortTransaction()</code>, i.e. none of its changes has
+     * been written to the database file yet.
+     *
+     * @return true if the transaction is revocable
+     */
+    boolean isTransactionRevocable() {
+        return transactionDepth > 0 && transactionRevocable;
+    }
+
+    /**
+     * Terminates the changes of a record store operation. The journal
+     * is synced once RMSConfig.RMS_JOURNAL_COMMIT_SIZE bytes have been
+     * gathered and checkpointed once it grows beyond
+     * RMSConfig.RMS_JOURNAL_CHECKPOINT_SIZE bytes.
+     *
+     * @exception IOException if the journal cannot be written
+     */
+    void commit() throws IOException {
+        if (jnlFile == null || transactionDepth > 0) {
+            return;
+        }
+
+        if (jnlSize > committedSize) {
+            writeCommitMark();
+        }
+
+        if (jnlSize - syncedSize >= RMSConfig.RMS_JOURNAL_COMMIT_SIZE) {
+            sync();
+        }
+
+        if (jnlSize >= RMSConfig.RMS_JOURNAL_CHECKPOINT_SIZE) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Syncs the journal and, unless a transaction is open,
+     * checkpoints it. Called in background some time after
+     * a record store change.
+     *
+     * @exception IOException if the journal cannot be written
+     */
+    void flush() throws IOException {
+        if (jnlFile == null) {
+            return;
+        }
+
+        sync();
+
+        if (transactionDepth == 0) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Checkpoints the journal and passes all writes directly to the
+     * database file until the record store is unlocked. Used by
+     * operations that rewrite large parts of the database file.
+     *
+     * @exception IOException if the journal cannot be written
+     */
+    void writeThrough() throws IOException {
+        checkpoint();
+        writeThrough = true;
+    }
+
+    /**
+     * Ends the write-through mode once the database file has been
+     * rewritten: the file is synced and the following writes go to
+     * the journal again, unless the record store is shared.
+     *
+     * @param exclusiveUse true if no other MIDlet uses the record store
+     *
+     * @exception IOException if the database file cannot be synced
+     */
+    void endWriteThrough(boolean exclusiveUse) throws IOException {
+        if (writeThrough) {
+            dbFile.commitWrite();
+            writeThrough = !exclusiveUse;
+        }
+    }
+
+    /**
+     * Writes all pending changes to the database file and resets
+     * the journal. An open transaction is committed by this.
+     *
+     * @exception IOException if the journal cannot be written
+     */
+    void checkpoint() throws IOException {
+        if (jnlFile == null || jnlSize == JNL_HEADER_SIZE) {
+            return;
+        }
+
+        if (jnlSize > committedSize) {
+            if (transactionDepth > 0) {
+                transactionRevocable = false;
+            }
+
+            writeCommitMark();
+        }
+
+        // the journal must hit the storage before the database file
+        sync();
+
+        for (int i = 0; i < extents.size(); i++) {
+            Extent e = (Extent)extents.elementAt(i);
+            dbFile.seek(e.offset);
+            dbFile.write(e.data);
+        }
+        dbFile.commitWrite();
+        extents.removeAllElements();
+
+        resetJournal();
+    }
+
+    /**
+     * Approximation of remaining space in storage.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     *        can be null
+     *
+     * @return the approximate space available to grow the
+     *         record store in bytes.
+     */
+    public int spaceAvailable(int suiteId) {
+        return dbFile.spaceAvailable(suiteId);
+    }
+
+    /**
+     * Sets the logical position within the database file.
+     *
+     * @param pos position within the file
+     *
+     * @exception IOException if there is a problem with the seek.
+     */
+    public void seek(int pos) throws IOException {
+        position = pos;
+    }
+
+    /**
+     * Write all of <code>buf</code> at the current position.
+     *
+     * @param buf buffer to read out of.
+     *
+     * @exception IOException if a write error occurs.
+     */
+    public void write(byte[] buf) throws IOException {
+        write(buf, 0, buf.length);
+    }
+
+    /**
+     * Write <code>buf</code> at the current position, starting at
+     * <code>offset</code> and continuing for <code>numBytes</code>
+     * bytes. The data goes to the journal unless journaling is off.
+     *
+     * @param buf buffer to read out of.
+     * @param offset starting point write offset, from beginning of buffer.
+     * @param numBytes the number of bytes to write.
+     *
+     * @exception IOException if a write error occurs.
+     */
+    public void write(byte[] buf, int offset, int numBytes)
+            throws IOException {
+        if (jnlFile == null || writeThrough) {
+            if (!extents.isEmpty()) {
+                checkpoint();
+            }
+
+            if (transactionDepth > 0) {
+                transactionRevocable = false;
+            }
+
+            dbFile.seek(position);
+            dbFile.write(buf, offset, numBytes);
+        } else {
+            writeEntry(position, buf, offset, numBytes);
+            addExtent(position, buf, offset, numBytes);
+        }
+
+        position += numBytes;
+    }
+
+    /**
+     * Commits pending writes. If journaling is on, this syncs the
+     * journal, otherwise the database file.
+     *
+     * @exception IOException if an error occurs while writing
+     */
+    public void commitWrite() throws IOException {
+        if (jnlFile == null || writeThrough) {
+            dbFile.commitWrite();
+        } else {
+            sync();
+        }
+    }
+
+    /**
+     * Read up to <code>buf.length</code> bytes at the current position.
+     *
+     * @param buf buffer where data is read into
+     *
+     * @return the number of bytes read or -1 on end of file
+     *
+     * @exception IOException if a read error occurs
+     */
+    public int read(byte[] buf) throws IOException {
+        return read(buf, 0, buf.length);
+    }
+
+    /**
+     * Read up to <code>numBytes</code> bytes at the current position.
+     * Pending changes are applied on top of the database file data.
+     *
+     * @param buf buffer where data is read into
+     * @param offset starting point read offset, from beginning of buffer
+     * @param numBytes the number of bytes to read
+     *
+     * @return the number of bytes read or -1 on end of file
+     *
+     * @exception IOException if a read error occurs
+     */
+    public int read(byte[] buf, int offset, int numBytes)
+            throws IOException {
+        dbFile.seek(position);
+        int count = dbFile.read(buf, offset, numBytes);
+
+        int numExtents = extents.size();
+        if (numExtents > 0 && numBytes > 0) {
+            int end = position + numBytes;
+            int read = (count > 0) ? count : 0;
+
+            for (int i = findExtent(position); i < numExtents; i++) {
+                Extent e = (Extent)extents.elementAt(i);
+                if (e.offset >= end) {
+                    break;
+                }
+
+                int from = (e.offset > position) ? e.offset : position;
+                int to = e.offset + e.data.length;
+                if (to > end) {
+                    to = end;
+                }
+
+                System.arraycopy(e.data, from - e.offset,
+                                 buf, offset + from - position, to - from);
+
+                if (to - position > read) {
+                    read = to - position;
+                }
+            }
+
+            if (read > 0) {
+                count = read;
+            }
+        }
+
+        if (count > 0) {
+            position += count;
+        }
+
+        return count;
+    }
+
+    /**
+     * Checkpoints pending changes and closes the database file and
+     * the journal.
+     *
+     * @exception IOException if an error occurs
+     */
+    public void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            try {
+                closeJournal();
+            } finally {
+                dbFile.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the length of the database file after checkpointing
+     * pending changes.
+     *
+     * @param size new size for this file.
+     *
+     * @exception IOException if an error occurs, or if
+     * truncation is not supported.
+     */
+    public void truncate(int size) throws IOException {
+        checkpoint();
+        dbFile.truncate(size);
+    }
+
+    /**
+     * Replays committed entries of the journal file into the
+     * database file and resets the journal.
+     *
+     * @exception IOException if an error occurs
+     */
+    private void recover() throws IOException {
+        generation = readGeneration();
+
+        jnlSize = JNL_HEADER_SIZE;
+        int lastCommit = replay(Integer.MAX_VALUE, REPLAY_SCAN);
+
+        if (lastCommit > JNL_HEADER_SIZE) {
+            replay(lastCommit, REPLAY_DATABASE);
+            dbFile.commitWrite();
+
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                               "replayed " + (lastCommit - JNL_HEADER_SIZE) +
+                               " journal bytes of " + name);
+            }
+        }
+
+        if (generation < 0 || jnlSize > JNL_HEADER_SIZE) {
+            resetJournal();
+        } else {
+            syncedSize = JNL_HEADER_SIZE;
+            committedSize = JNL_HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Scans the journal file entries up to <code>limit</code> or
+     * up to the first damaged entry. Sets <code>jnlSize</code> to
+     * the size of the scanned part.
+     *
+     * @param limit the journal file offset to stop at
+     * @param mode REPLAY_SCAN, REPLAY_DATABASE to write the entries to
+     *             the database file or REPLAY_OVERLAY to add them to the
+     *             overlay of pending changes
+     *
+     * @return the journal file offset just after the last valid
+     *         commit mark
+     *
+     * @exception IOException if an error occurs
+     */
+    private int replay(int limit, int mode) throws IOException {
+        byte[] buffer = new byte[REPLAY_BUFFER_SIZE];
+        int pos = JNL_HEADER_SIZE;
+        int lastCommit = JNL_HEADER_SIZE;
+        int sum = 0;
+
+        jnlFile.seek(pos);
+        while (pos < limit) {
+            int count = jnlFile.read(entryHeader);
+            if (count > 0 && pos + count > jnlSize) {
+                jnlSize = pos + count;
+            }
+
+            if (count != ENTRY_HEADER_SIZE) {
+                break;
+            }
+
+            int offset = RecordStoreUtil.getInt(entryHeader, 0);
+            int size = RecordStoreUtil.getInt(entryHeader, 4);
+
+            if (offset == COMMIT_MARK) {
+                if (size != sum) {
+                    break;
+                }
+
+                pos += ENTRY_HEADER_SIZE;
+                lastCommit = pos;
+                sum = 0;
+                continue;
+            }
+
+            if (offset < 0 || size < 0) {
+                break;
+            }
+
+            sum = updateChecksum(sum, entryHeader, 0, ENTRY_HEADER_SIZE);
+            pos += ENTRY_HEADER_SIZE;
+
+            int done = 0;
+            while (done < size) {
+                int chunk = size - done;
+                if (chunk > buffer.length) {
+                    chunk = buffer.length;
+                }
+
+                count = jnlFile.read(buffer, 0, chunk);
+                if (count > 0 && pos + count > jnlSize) {
+                    jnlSize = pos + count;
+                }
+
+                if (count != chunk) {
+                    return lastCommit;
+                }
+
+                sum = updateChecksum(sum, buffer, 0, chunk);
+
+                if (mode == REPLAY_DATABASE) {
+                    dbFile.seek(offset + done);
+                    dbFile.write(buffer, 0, chunk);
+                } else if (mode == REPLAY_OVERLAY) {
+                    addExtent(offset + done, buffer, 0, chunk);
+                }
+
+                pos += chunk;
+                done += chunk;
+            }
+        }
+
+        return lastCommit;
+    }
+
+    /**
+     * Reads the generation from the journal file header.
+     *
+     * @return the generation or -1 if the header is damaged
+     *
+     * @exception IOException if an error occurs
+     */
+    private int readGeneration() throws IOException {
+        byte[] header = new byte[JNL_HEADER_SIZE];
+
+        jnlFile.seek(0);
+        if (jnlFile.read(header) != JNL_HEADER_SIZE) {
+            return -1;
+        }
+
+        for (int i = 0; i < JNL_SIGNATURE.length; i++) {
+            if (header[i] != JNL_SIGNATURE[i]) {
+                return -1;
+            }
+        }
+
+        return RecordStoreUtil.getInt(header, JNL_GENERATION);
+    }
+
+    /**
+     * Empties the journal file and starts a new generation.
+     *
+     * @exception IOException if an error occurs
+     */
+    private void resetJournal() throws IOException {
+        byte[] header = new byte[JNL_HEADER_SIZE];
+
+        generation = (generation < 0) ? 1 : generation + 1;
+
+        System.arraycopy(JNL_SIGNATURE, 0, header, 0, JNL_SIGNATURE.length);
+        RecordStoreUtil.putInt(generation, header, JNL_GENERATION);
+
+        jnlFile.seek(0);
+        jnlFile.write(header);
+        jnlFile.truncate(JNL_HEADER_SIZE);
+        jnlFile.commitWrite();
+
+        jnlSize = JNL_HEADER_SIZE;
+        syncedSize = JNL_HEADER_SIZE;
+        committedSize = JNL_HEADER_SIZE;
+        checksum = 0;
+    }
+
+    /**
+     * Closes the journal file. If journaling is off, the journal file
+     * is removed as well.
+     *
+     * @exception IOException if an error occurs
+     */
+    private void closeJournal() throws IOException {
+        if (jnlFile == null) {
+            return;
+        }
+
+        try {
+            jnlFile.close();
+        } finally {
+            jnlFile = null;
+            extents.removeAllElements();
+
+            if (!enabled) {
+                RecordStoreUtil.quietDeleteFile(
+                        RmsEnvironment.getSecureFilenameBase(suiteId),
+                        name, JNL_EXTENSION);
+            }
+        }
+    }
+
+    /**
+     * Syncs the journal file.
+     *
+     * @exception IOException if an error occurs
+     */
+    private void sync() throws IOException {
+        if (jnlSize > syncedSize) {
+            jnlFile.commitWrite();
+            syncedSize = jnlSize;
+        }
+    }
+
+    /**
+     * Appends an entry to the journal file.
+     *
+     * @param offset offset of the data in the database file
+     * @param buf buffer holding the data
+     * @param bufOffset offset of the data in the buffer
+     * @param numBytes size of the data
+     *
+     * @exception IOException if an error occurs
+     */
+    private void writeEntry(int offset, byte[] buf, int bufOffset,
+                            int numBytes) throws IOException {
+        RecordStoreUtil.putInt(offset, entryHeader, 0);
+        RecordStoreUtil.putInt(numBytes, entryHeader, 4);
+
+        jnlFile.seek(jnlSize);
+        jnlFile.write(entryHeader);
+        jnlFile.write(buf, bufOffset, numBytes);
+        jnlSize += ENTRY_HEADER_SIZE + numBytes;
+
+        checksum = updateChecksum(checksum, entryHeader, 0,
+                                  ENTRY_HEADER_SIZE);
+        checksum = updateChecksum(checksum, buf, bufOffset, numBytes);
+    }
+
+    /**
+     * Appends a commit mark to the journal file.
+     *
+     * @exception IOException if an error occurs
+     */
+    private void writeCommitMark() throws IOException {
+        RecordStoreUtil.putInt(COMMIT_MARK, entryHeader, 0);
+        RecordStoreUtil.putInt(checksum, entryHeader, 4);
+
+        jnlFile.seek(jnlSize);
+        jnlFile.write(entryHeader);
+        jnlSize += ENTRY_HEADER_SIZE;
+
+        committedSize = jnlSize;
+        checksum = 0;
+    }
+
+    /**
+     * Adds data to the overlay of pending changes, merging it with
+     * the extents it overlaps.
+     *
+     * @param offset offset of the data in the database file
+     * @param buf buffer holding the data
+     * @param bufOffset offset of the data in the buffer
+     * @param numBytes size of the data
+     */
+    private void addExtent(int offset, byte[] buf, int bufOffset,
+                           int numBytes) {
+        int end = offset + numBytes;
+        int first = findExtent(offset);
+        int last = first;
+
+        while (last < extents.size() &&
+                ((Extent)extents.elementAt(last)).offset < end) {
+            last++;
+        }
+
+        if (first == last) {
+            Extent e = new Extent(offset, new byte[numBytes]);
+            System.arraycopy(buf, bufOffset, e.data, 0, numBytes);
+            extents.insertElementAt(e, first);
+            return;
+        }
+
+        Extent head = (Extent)extents.elementAt(first);
+        Extent tail = (Extent)extents.elementAt(last - 1);
+
+        if (first + 1 == last && head.offset <= offset &&
+                head.offset + head.data.length >= end) {
+            // the common case of rewriting a part of a single extent
+            System.arraycopy(buf, bufOffset,
+                             head.data, offset - head.offset, numBytes);
+            return;
+        }
+
+        int start = (head.offset < offset) ? head.offset : offset;
+        int tailEnd = tail.offset + tail.data.length;
+        Extent merged = new Extent(start,
+            new byte[((tailEnd > end) ? tailEnd : end) - start]);
+
+        for (int i = first; i < last; i++) {
+            Extent e = (Extent)extents.elementAt(first);
+            System.arraycopy(e.data, 0, merged.data, e.offset - start,
+                             e.data.length);
+            extents.removeElementAt(first);
+        }
+
+        System.arraycopy(buf, bufOffset, merged.data, offset - start,
+                         numBytes);
+        extents.insertElementAt(merged, first);
+    }
+
+    /**
+     * Finds the first extent that ends after the given offset.
+     *
+     * @param offset offset in the database file
+     *
+     * @return index of the extent or the number of extents
+     */
+    private int findExtent(int offset) {
+        int low = 0;
+        int high = extents.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Extent e = (Extent)extents.elementAt(mid);
+
+            if (e.offset + e.data.length <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Updates a journal checksum with the given data.
+     *
+     * @param sum checksum so far
+     * @param buf buffer holding the data
+     * @param offset offset of the data in the buffer
+     * @param numBytes size of the data
+     *
+     * @return new checksum
+     */
+    private static int updateChecksum(int sum, byte[] buf, int offset,
+                                      int numBytes) {
+        for (int i = offset; i < offset + numBytes; i++) {
+            sum = sum * 31 + (buf[i] & 0xff);
+        }
+
+        return sum;
+    }
+
+    /**
+     * A pending change of the database file.
+     */
+    private static class Extent {
+        /** offset in the database file */
+        int offset;
+
+        /** new contents */
+        byte[] data;
+
+        /**
+         * Constructs an extent.
+         *
+         * @param offset offset in the database file
+         * @param data new contents
+         */
+        Extent(int offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+}
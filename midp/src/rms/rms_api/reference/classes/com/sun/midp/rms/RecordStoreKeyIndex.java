@@ -0,0 +1,1413 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.rms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+import com.sun.midp.rms.index.RecordKeyExtractor;
+
+/**
+ * Secondary index of a record store: a B-tree kept in a separate file
+ * which orders the record IDs by the keys of a
+ * <code>RecordKeyExtractor</code>.
+ *
+ * Index file layout:
+ * <pre>
+ * Index header:
+ *  00-07 : Signature ('midp-sdx')
+ *  08-11 : Record store version the index is in sync with,
+ *          -1 while the index is being changed
+ *  12-19 : Last modification time of the record store at that version
+ *  20-23 : Offset of the root node
+ *  24-27 : Offset of the first node in the list of free nodes
+ *  28-31 : Size of the index file
+ *  32-35 : Number of keys
+ *  36-37 : Key size
+ *  38-39 : Maximum number of entries in a node
+ *  40-41 : Length of the extractor class name
+ *  42-xx : Extractor class name (UTF-8)
+ * Node:
+ *  00-01 : 1 for a leaf node, 0 for an inner node
+ *  02-03 : Number of entries
+ *  04-xx : Entries
+ * Entry:
+ *  00    : Key length
+ *  01-xx : Key, padded to the key size
+ *  xx+4  : Record ID
+ *  xx+8  : Child node offset (inner nodes only)
+ * </pre>
+ *
+ * Entries are ordered by key, then by record ID, so every entry is
+ * unique. In an inner node each entry is a lower bound of the entries
+ * of its child subtree, except for the first one: the first child takes
+ * everything below the second entry. Deletions never change these
+ * separators, they only remove empty nodes.
+ *
+ * The index is not journaled. The first change after the index was
+ * saved marks it as being changed, with a stamp of this index object,
+ * and only this mark is synced. The record store version reached by
+ * the changes is kept in memory until flush() saves it, so an index
+ * left by a crash, or not updated by a MIDlet that did not declare the
+ * extractor, is found out of sync with the record store and rebuilt
+ * by the caller.
+ *
+ * The extractor class name in the header is never loaded: an existing
+ * index is only reused when the caller declares an extractor of the
+ * same class, otherwise it is replaced.
+ */
+class RecordStoreKeyIndex {
+
+    /** signature of the index file */
+    static final byte[] SDX_SIGNATURE = {
+        (byte)'m', (byte)'i', (byte)'d', (byte)'p',
+        (byte)'-', (byte)'s', (byte)'d', (byte)'x'
+    };
+
+    /** SDX_VERSION offset */
+    static final int SDX_VERSION = 8;
+
+    /** SDX_LAST_MODIFIED offset */
+    static final int SDX_LAST_MODIFIED = 12;
+
+    /** SDX_ROOT offset */
+    static final int SDX_ROOT = 20;
+
+    /** SDX_FREE_NODES offset */
+    static final int SDX_FREE_NODES = 24;
+
+    /** SDX_SIZE offset */
+    static final int SDX_SIZE = 28;
+
+    /** SDX_NUM_KEYS offset */
+    static final int SDX_NUM_KEYS = 32;
+
+    /** SDX_KEY_SIZE offset */
+    static final int SDX_KEY_SIZE = 36;
+
+    /** SDX_NODE_ELEMENTS offset */
+    static final int SDX_NODE_ELEMENTS = 38;
+
+    /** SDX_EXTRACTOR offset */
+    static final int SDX_EXTRACTOR = 40;
+
+    /** size of the part of the header changed by index updates */
+    static final int SDX_STATE_SIZE = SDX_EXTRACTOR;
+
+    /** size of the index header */
+    static final int SDX_HEADER_SIZE = 168;
+
+    /** version of an index being changed */
+    static final int VERSION_CHANGING = -1;
+
+    /** number of key bytes stored in the index */
+    static final int KEY_SIZE = RecordKeyExtractor.KEY_SIZE;
+
+    /** maximum number of entries in a node */
+    static final int NODE_ELEMENTS = 32;
+
+    /** number of entries in the nodes written by rebuild() */
+    static final int FILL_ELEMENTS = NODE_ELEMENTS * 3 / 4;
+
+    /** size of a node entry */
+    static final int ENTRY_SIZE = 1 + KEY_SIZE + 4 + 4;
+
+    /** size of the node header */
+    static final int NODE_HEADER_SIZE = 4;
+
+    /** size of a node */
+    static final int NODE_SIZE = NODE_HEADER_SIZE +
+                                 NODE_ELEMENTS * ENTRY_SIZE;
+
+    /** ID of the suite that owns the record store */
+    private int suiteId;
+
+    /** name of the record store */
+    private String name;
+
+    /** the index file */
+    private RecordStoreFile sdxFile;
+
+    /** the key extractor */
+    private RecordKeyExtractor extractor;
+
+    /** state part of the index header */
+    private byte[] header = new byte[SDX_STATE_SIZE];
+
+    /** entry split off by the last insert into a full node */
+    private byte[] splitEntry = new byte[ENTRY_SIZE];
+
+    /** state part of the header read from the index file */
+    private byte[] fileHeader = new byte[SDX_STATE_SIZE];
+
+    /** stamp saved with VERSION_CHANGING when this object marked the file */
+    private long changingStamp;
+
+    /**
+     * True if the index file is marked as being changed by this object
+     * and <code>header</code> holds the version of the changes, which
+     * has not been saved yet.
+     */
+    private boolean versionPending;
+
+    /**
+     * Creates a new, empty index file for the given extractor.
+     * The index is out of sync with the record store until it
+     * is rebuilt.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     * @param name name of the record store
+     * @param extractor the key extractor
+     *
+     * @exception IOException if the index file cannot be written
+     */
+    RecordStoreKeyIndex(int suiteId, String name,
+                        RecordKeyExtractor extractor) throws IOException {
+        this.suiteId = suiteId;
+        this.name = name;
+        this.extractor = extractor;
+
+        byte[] className = getClassName(extractor);
+        byte[] sdxHeader = new byte[SDX_HEADER_SIZE];
+
+        System.arraycopy(SDX_SIGNATURE, 0, sdxHeader, 0,
+                         SDX_SIGNATURE.length);
+        RecordStoreUtil.putInt(VERSION_CHANGING, sdxHeader, SDX_VERSION);
+        RecordStoreUtil.putInt(SDX_HEADER_SIZE, sdxHeader, SDX_ROOT);
+        RecordStoreUtil.putInt(SDX_HEADER_SIZE + NODE_SIZE, sdxHeader,
+                               SDX_SIZE);
+        putShort(KEY_SIZE, sdxHeader, SDX_KEY_SIZE);
+        putShort(NODE_ELEMENTS, sdxHeader, SDX_NODE_ELEMENTS);
+        if (className != null) {
+            System.arraycopy(className, 0, sdxHeader, SDX_EXTRACTOR,
+                             className.length);
+        }
+
+        sdxFile = new RecordStoreFile(suiteId, name,
+                                      AbstractRecordStoreFile.SDX_EXTENSION);
+
+        try {
+            sdxFile.truncate(0);
+            sdxFile.write(sdxHeader);
+
+            // an empty root leaf
+            Node root = new Node();
+            root.offset = SDX_HEADER_SIZE;
+            root.init(true);
+            root.store();
+            sdxFile.commitWrite();
+        } catch (IOException ioe) {
+            sdxFile.close();
+            throw ioe;
+        }
+
+        System.arraycopy(sdxHeader, 0, header, 0, SDX_STATE_SIZE);
+    }
+
+    /**
+     * Constructs an index object for an existing index file.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     * @param name name of the record store
+     * @param sdxFile the index file
+     * @param extractor the key extractor
+     */
+    private RecordStoreKeyIndex(int suiteId, String name,
+                                RecordStoreFile sdxFile,
+                                RecordKeyExtractor extractor) {
+        this.suiteId = suiteId;
+        this.name = name;
+        this.sdxFile = sdxFile;
+        this.extractor = extractor;
+    }
+
+    /**
+     * Opens the existing index of a record store if it was built with
+     * a key extractor of the same class as the given one. Nothing is
+     * instantiated from the index file: the class name saved in it
+     * only identifies the extractor the keys were extracted with.
+     * The caller must hold the record store lock.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     * @param name name of the record store
+     * @param extractor the key extractor declared by the caller
+     *
+     * @return the index or null if the record store has no index, the
+     *         index was built by another extractor or cannot be used
+     */
+    static RecordStoreKeyIndex open(int suiteId, String name,
+                                    RecordKeyExtractor extractor) {
+        if (!RecordStoreUtil.exists(
+                RmsEnvironment.getSecureFilenameBase(suiteId),
+                name, AbstractRecordStoreFile.SDX_EXTENSION)) {
+            return null;
+        }
+
+        byte[] className = getClassName(extractor);
+        if (className == null) {
+            // the extractor could not have been saved with the index
+            return null;
+        }
+
+        RecordStoreFile file = null;
+
+        try {
+            file = new RecordStoreFile(suiteId, name,
+                                       AbstractRecordStoreFile.SDX_EXTENSION);
+
+            byte[] sdxHeader = new byte[SDX_HEADER_SIZE];
+            if (file.read(sdxHeader) != SDX_HEADER_SIZE) {
+                throw new IOException("index file corrupted");
+            }
+
+            for (int i = 0; i < SDX_SIGNATURE.length; i++) {
+                if (sdxHeader[i] != SDX_SIGNATURE[i]) {
+                    throw new IOException("invalid index signature");
+                }
+            }
+
+            if (getShort(sdxHeader, SDX_KEY_SIZE) != KEY_SIZE ||
+                    getShort(sdxHeader, SDX_NODE_ELEMENTS) != NODE_ELEMENTS) {
+                throw new IOException("unsupported index format");
+            }
+
+            for (int i = 0; i < className.length; i++) {
+                if (sdxHeader[SDX_EXTRACTOR + i] != className[i]) {
+                    throw new IOException("index of another extractor");
+                }
+            }
+
+            RecordStoreKeyIndex index =
+                new RecordStoreKeyIndex(suiteId, name, file, extractor);
+            System.arraycopy(sdxHeader, 0, index.header, 0, SDX_STATE_SIZE);
+            return index;
+        } catch (IOException ioe) {
+            // the caller replaces the index by a new one
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                               "secondary index of " + name +
+                               " not reused: " + ioe);
+            }
+
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ioe2) {
+                    // ignore exception within exception block
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the index file of the named record store.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     * @param name name of the record store
+     *
+     * @return <code>true</code> if the file was found and deleted
+     */
+    static boolean deleteIndex(int suiteId, String name) {
+        return RecordStoreUtil.quietDeleteFile(
+            RmsEnvironment.getSecureFilenameBase(suiteId),
+            name, AbstractRecordStoreFile.SDX_EXTENSION);
+    }
+
+    /**
+     * Closes the index file.
+     *
+     * @exception IOException if the file cannot be closed
+     */
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            sdxFile.close();
+        }
+    }
+
+    /**
+     * Closes and deletes the index file.
+     */
+    void delete() {
+        try {
+            sdxFile.close();
+        } catch (IOException ioe) {
+            // the file is deleted anyway
+        }
+
+        deleteIndex(suiteId, name);
+    }
+
+    /**
+     * Gets the key extractor of the index.
+     *
+     * @return the key extractor
+     */
+    RecordKeyExtractor getExtractor() {
+        return extractor;
+    }
+
+    /**
+     * Checks if the keys of the given extractor are those of this
+     * index, which is the case if both are of the same class.
+     *
+     * @param other key extractor to check
+     *
+     * @return true if the index can be used with the extractor
+     */
+    boolean isIndexedBy(RecordKeyExtractor other) {
+        return extractor.getClass() == other.getClass();
+    }
+
+    /**
+     * Replaces the key extractor by an extractor of the same class.
+     *
+     * @param other the new key extractor
+     */
+    void setExtractor(RecordKeyExtractor other) {
+        extractor = other;
+    }
+
+    /**
+     * Extracts the key of a record and truncates it to the key size.
+     *
+     * @param data the record data, null if the record is empty
+     *
+     * @return the key
+     */
+    byte[] getKey(byte[] data) {
+        byte[] key = extractor.getKey(data);
+
+        if (key == null) {
+            return new byte[0];
+        }
+
+        if (key.length > KEY_SIZE) {
+            byte[] shortKey = new byte[KEY_SIZE];
+            System.arraycopy(key, 0, shortKey, 0, KEY_SIZE);
+            return shortKey;
+        }
+
+        return key;
+    }
+
+    /**
+     * Checks if the index reflects the given state of the record store.
+     * The caller must hold the record store lock.
+     *
+     * @param version version of the record store
+     * @param lastModified last modification time of the record store
+     *
+     * @return true if the index is in sync with the record store
+     *
+     * @exception IOException if the index file cannot be read
+     */
+    boolean isInSync(int version, long lastModified) throws IOException {
+        // another MIDlet may have changed the index
+        if (!isMarkedByThis() || !versionPending) {
+            versionPending = false;
+            System.arraycopy(fileHeader, 0, header, 0, SDX_STATE_SIZE);
+        }
+
+        return RecordStoreUtil.getInt(header, SDX_VERSION) == version &&
+            RecordStoreUtil.getLong(header, SDX_LAST_MODIFIED) ==
+                lastModified;
+    }
+
+    /**
+     * Updates the index after a record has been added, changed or
+     * deleted. The index must have been in sync with the record store
+     * before the change.
+     *
+     * @param recordId ID of the record
+     * @param oldKey previous key of the record, null if it has been added
+     * @param newKey new key of the record, null if it has been deleted
+     * @param version new version of the record store
+     * @param lastModified new modification time of the record store
+     *
+     * @exception IOException if the index file cannot be updated,
+     *            the index is then out of sync
+     */
+    void update(int recordId, byte[] oldKey, byte[] newKey,
+                int version, long lastModified) throws IOException {
+        update(new int[] { recordId }, new byte[][] { oldKey },
+               new byte[][] { newKey }, version, lastModified);
+    }
+
+    /**
+     * Updates the index after several records have been added, changed
+     * or deleted by a batch operation. The new version is only kept in
+     * memory until the index is flushed.
+     *
+     * @param recordIds IDs of the records
+     * @param oldKeys previous keys of the records, null elements for
+     *        added records; null if all records have been added
+     * @param newKeys new keys of the records, null elements for deleted
+     *        records; null if all records have been deleted
+     * @param version new version of the record store
+     * @param lastModified new modification time of the record store
+     *
+     * @exception IOException if the index file cannot be updated,
+     *            the index is then out of sync
+     */
+    void update(int[] recordIds, byte[][] oldKeys, byte[][] newKeys,
+                int version, long lastModified) throws IOException {
+        markChanging();
+
+        int numKeys = RecordStoreUtil.getInt(header, SDX_NUM_KEYS);
+
+        for (int i = 0; i < recordIds.length; i++) {
+            if (oldKeys != null && oldKeys[i] != null) {
+                deleteKey(oldKeys[i], recordIds[i]);
+                numKeys--;
+            }
+
+            if (newKeys != null && newKeys[i] != null) {
+                insertKey(newKeys[i], recordIds[i]);
+                numKeys++;
+            }
+        }
+
+        RecordStoreUtil.putInt(numKeys, header, SDX_NUM_KEYS);
+        RecordStoreUtil.putInt(version, header, SDX_VERSION);
+        RecordStoreUtil.putLong(lastModified, header, SDX_LAST_MODIFIED);
+        versionPending = true;
+    }
+
+    /**
+     * Saves the record store version reached by the last updates, so
+     * that the index is found in sync when the record store is opened
+     * again or used by another MIDlet. The caller must hold the record
+     * store lock.
+     *
+     * @exception IOException if the index file cannot be written
+     */
+    void flush() throws IOException {
+        if (versionPending) {
+            versionPending = false;
+
+            // another MIDlet may have rebuilt the index meanwhile
+            if (isMarkedByThis()) {
+                setVersion(RecordStoreUtil.getInt(header, SDX_VERSION),
+                    RecordStoreUtil.getLong(header, SDX_LAST_MODIFIED));
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the index by the given keys.
+     * The arrays are reordered.
+     *
+     * @param recordIds IDs of all records of the record store
+     * @param keys keys of the records
+     * @param version current version of the record store
+     * @param lastModified last modification time of the record store
+     *
+     * @exception IOException if the index file cannot be written
+     */
+    void rebuild(int[] recordIds, byte[][] keys, int version,
+                 long lastModified) throws IOException {
+        int count = recordIds.length;
+
+        setVersion(VERSION_CHANGING, 0);
+        sort(recordIds, keys, new int[count], new byte[count][], 0, count);
+
+        RecordStoreUtil.putInt(0, header, SDX_FREE_NODES);
+        RecordStoreUtil.putInt(SDX_HEADER_SIZE, header, SDX_SIZE);
+        sdxFile.truncate(SDX_HEADER_SIZE);
+
+        // build the tree bottom up, starting with the leaves
+        Node node = new Node();
+        int[] childIds = recordIds;
+        byte[][] childKeys = keys;
+        int[] children = null;
+        boolean leaf = true;
+
+        do {
+            int numNodes = (count + FILL_ELEMENTS - 1) / FILL_ELEMENTS;
+            if (numNodes == 0) {
+                numNodes = 1;
+            }
+
+            int[] nodeIds = new int[numNodes];
+            byte[][] nodeKeys = new byte[numNodes][];
+            int[] nodeOffsets = new int[numNodes];
+
+            for (int n = 0; n < numNodes; n++) {
+                // spread the entries evenly over the nodes
+                int first = (int)((long)count * n / numNodes);
+                int last = (int)((long)count * (n + 1) / numNodes);
+
+                node.offset = allocateNode();
+                node.init(leaf);
+                for (int i = first; i < last; i++) {
+                    node.setEntry(i - first, childKeys[i], childIds[i],
+                                  leaf ? 0 : children[i]);
+                }
+                node.count = last - first;
+                node.store();
+
+                if (last > first) {
+                    nodeIds[n] = childIds[first];
+                    nodeKeys[n] = childKeys[first];
+                } else {
+                    nodeKeys[n] = new byte[0];
+                }
+                nodeOffsets[n] = node.offset;
+            }
+
+            count = numNodes;
+            childIds = nodeIds;
+            childKeys = nodeKeys;
+            children = nodeOffsets;
+            leaf = false;
+        } while (count > 1);
+
+        RecordStoreUtil.putInt(children[0], header, SDX_ROOT);
+        RecordStoreUtil.putInt(recordIds.length, header, SDX_NUM_KEYS);
+        setVersion(version, lastModified);
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "secondary index of " + name + " rebuilt, " +
+                           recordIds.length + " keys");
+        }
+    }
+
+    /**
+     * Returns the IDs of the records whose keys lie within the given
+     * range, ordered by key. The bounds are truncated to the key size.
+     *
+     * @param lowKey lowest key, inclusive, null if unbounded
+     * @param highKey highest key, inclusive, null if unbounded
+     *
+     * @return the record IDs
+     *
+     * @exception IOException if the index file cannot be read
+     */
+    int[] getRecordIDs(byte[] lowKey, byte[] highKey) throws IOException {
+        return getRecordIDs(lowKey, highKey, null);
+    }
+
+    /**
+     * Returns the IDs of the records whose keys lie within the given
+     * range, ordered by key, and the runs of records whose stored keys
+     * are equal. The bounds are truncated to the key size.
+     *
+     * @param lowKey lowest key, inclusive, null if unbounded
+     * @param highKey highest key, inclusive, null if unbounded
+     * @param runs if not null, its first element receives the runs of
+     *        two or more records with equal stored keys, as pairs of
+     *        the index of the first record of a run in the result and
+     *        the index following its last record
+     *
+     * @return the record IDs
+     *
+     * @exception IOException if the index file cannot be read
+     */
+    int[] getRecordIDs(byte[] lowKey, byte[] highKey, int[][] runs)
+            throws IOException {
+        int numKeys = RecordStoreUtil.getInt(header, SDX_NUM_KEYS);
+        int[] recordIds = new int[numKeys];
+        boolean[] equalKeys = (runs == null) ? null : new boolean[numKeys];
+
+        int count = scan(RecordStoreUtil.getInt(header, SDX_ROOT),
+                         lowKey, highKey, recordIds, equalKeys,
+                         new byte[1 + KEY_SIZE], 0);
+
+        if (runs != null) {
+            runs[0] = getRuns(equalKeys, count);
+        }
+
+        if (count == recordIds.length) {
+            return recordIds;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(recordIds, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Gets the runs of records with equal stored keys from the result
+     * of a scan.
+     *
+     * @param equalKeys for each record, true if its stored key is equal
+     *        to the one of the previous record
+     * @param count number of records
+     *
+     * @return the runs, as pairs of the first index of a run and the
+     *         index following it
+     */
+    private static int[] getRuns(boolean[] equalKeys, int count) {
+        int numRuns = 0;
+
+        for (int i = 1; i < count; i++) {
+            if (equalKeys[i] && !equalKeys[i - 1]) {
+                numRuns++;
+            }
+        }
+
+        int[] runs = new int[numRuns * 2];
+        int n = 0;
+
+        for (int i = 1; i < count; i++) {
+            if (equalKeys[i] && !equalKeys[i - 1]) {
+                runs[n] = i - 1;
+            }
+
+            if (equalKeys[i] && (i + 1 == count || !equalKeys[i + 1])) {
+                runs[n + 1] = i + 1;
+                n += 2;
+            }
+        }
+
+        return runs;
+    }
+
+    /**
+     * Collects the record IDs of a subtree whose keys lie within
+     * the given range.
+     *
+     * @param nodeOffset offset of the subtree root
+     * @param lowKey lowest key, inclusive, null if unbounded
+     * @param highKey highest key, inclusive, null if unbounded
+     * @param recordIds array receiving the record IDs
+     * @param equalKeys array receiving for each record whether its
+     *        stored key is equal to the one of the previous record,
+     *        may be null
+     * @param lastKey the stored key of the last record collected
+     * @param count number of record IDs already in the array
+     *
+     * @return the new number of record IDs in the array
+     *
+     * @exception IOException if the index file cannot be read
+     */
+    private int scan(int nodeOffset, byte[] lowKey, byte[] highKey,
+                     int[] recordIds, boolean[] equalKeys, byte[] lastKey,
+                     int count) throws IOException {
+        Node node = new Node();
+        node.load(nodeOffset);
+
+        for (int i = 0; i < node.count; i++) {
+            // the first entry of an inner node is no lower bound
+            if (highKey != null && (node.leaf || i > 0) &&
+                    node.compareKey(i, highKey) > 0) {
+                // this and all following entries are too high
+                break;
+            }
+
+            if (node.leaf) {
+                if (lowKey == null || node.compareKey(i, lowKey) >= 0) {
+                    if (count == recordIds.length) {
+                        throw new IOException("index file corrupted");
+                    }
+                    if (equalKeys != null) {
+                        equalKeys[count] =
+                            node.replaceKey(i, lastKey) && count > 0;
+                    }
+                    recordIds[count++] = node.getRecordId(i);
+                }
+            } else if (lowKey == null || i + 1 == node.count ||
+                       node.compareKey(i + 1, lowKey) >= 0) {
+                count = scan(node.getChild(i), lowKey, highKey,
+                             recordIds, equalKeys, lastKey, count);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Inserts an entry into the tree.
+     *
+     * @param key the key
+     * @param recordId the record ID
+     *
+     * @exception IOException if the index file cannot be updated
+     */
+    private void insertKey(byte[] key, int recordId) throws IOException {
+        int rootOffset = RecordStoreUtil.getInt(header, SDX_ROOT);
+        int newOffset = insertKey(rootOffset, key, recordId);
+
+        if (newOffset != 0) {
+            // the root has been split, grow the tree
+            Node oldRoot = new Node();
+            oldRoot.load(rootOffset);
+
+            Node root = new Node();
+            root.offset = allocateNode();
+            root.init(false);
+            root.copyEntry(0, oldRoot, 0);
+            root.setChild(0, rootOffset);
+            root.count = 1;
+            root.insertEntry(1, splitEntry, newOffset);
+            root.store();
+
+            RecordStoreUtil.putInt(root.offset, header, SDX_ROOT);
+        }
+    }
+
+    /**
+     * Inserts an entry into a subtree.
+     *
+     * @param nodeOffset offset of the subtree root
+     * @param key the key
+     * @param recordId the record ID
+     *
+     * @return offset of the node split off the subtree root, whose first
+     *         entry is copied to <code>splitEntry</code>, or 0
+     *
+     * @exception IOException if the index file cannot be updated
+     */
+    private int insertKey(int nodeOffset, byte[] key, int recordId)
+            throws IOException {
+        Node node = new Node();
+        node.load(nodeOffset);
+
+        int pos = node.findPosition(key, recordId);
+
+        if (node.leaf) {
+            node.setEntry(node.count, key, recordId, 0);
+            node.moveLastEntry(pos);
+        } else {
+            int child = (pos > 0) ? pos - 1 : 0;
+            int newOffset = insertKey(node.getChild(child), key, recordId);
+
+            if (newOffset == 0) {
+                return 0;
+            }
+
+            node.insertEntry(child + 1, splitEntry, newOffset);
+        }
+
+        if (node.count <= NODE_ELEMENTS) {
+            node.store();
+            return 0;
+        }
+
+        // split the node in halves
+        Node right = new Node();
+        right.offset = allocateNode();
+        right.init(node.leaf);
+
+        int half = node.count / 2;
+        for (int i = half; i < node.count; i++) {
+            right.copyEntry(i - half, node, i);
+        }
+        right.count = node.count - half;
+        node.count = half;
+
+        right.store();
+        node.store();
+
+        System.arraycopy(right.data, NODE_HEADER_SIZE, splitEntry, 0,
+                         ENTRY_SIZE);
+        return right.offset;
+    }
+
+    /**
+     * Deletes an entry from the tree.
+     *
+     * @param key the key
+     * @param recordId the record ID
+     *
+     * @exception IOException if the index file cannot be updated or
+     *            the entry is not found
+     */
+    private void deleteKey(byte[] key, int recordId) throws IOException {
+        int rootOffset = RecordStoreUtil.getInt(header, SDX_ROOT);
+        Node root = new Node();
+
+        if (deleteKey(rootOffset, key, recordId)) {
+            // the tree is empty, start over with an empty leaf
+            root.offset = rootOffset;
+            root.init(true);
+            root.store();
+            return;
+        }
+
+        // remove inner roots with a single child
+        root.load(rootOffset);
+        while (!root.leaf && root.count == 1) {
+            freeNode(rootOffset);
+            rootOffset = root.getChild(0);
+            root.load(rootOffset);
+        }
+
+        RecordStoreUtil.putInt(rootOffset, header, SDX_ROOT);
+    }
+
+    /**
+     * Deletes an entry from a subtree. Nodes becoming empty are freed.
+     *
+     * @param nodeOffset offset of the subtree root
+     * @param key the key
+     * @param recordId the record ID
+     *
+     * @return true if the subtree root has become empty
+     *
+     * @exception IOException if the index file cannot be updated or
+     *            the entry is not found
+     */
+    private boolean deleteKey(int nodeOffset, byte[] key, int recordId)
+            throws IOException {
+        Node node = new Node();
+        node.load(nodeOffset);
+
+        int pos = node.findPosition(key, recordId);
+
+        if (node.leaf) {
+            if (pos == 0 || node.compare(pos - 1, key, recordId) != 0) {
+                throw new IOException("key of record " + recordId +
+                                      " not found");
+            }
+            node.removeEntry(pos - 1);
+        } else {
+            int child = (pos > 0) ? pos - 1 : 0;
+            int childOffset = node.getChild(child);
+
+            if (!deleteKey(childOffset, key, recordId)) {
+                return false;
+            }
+
+            freeNode(childOffset);
+            node.removeEntry(child);
+        }
+
+        node.store();
+        return node.count == 0;
+    }
+
+    /**
+     * Allocates a node, reusing a free one if possible.
+     *
+     * @return offset of the node
+     *
+     * @exception IOException if the index file cannot be read
+     */
+    private int allocateNode() throws IOException {
+        int offset = RecordStoreUtil.getInt(header, SDX_FREE_NODES);
+
+        if (offset != 0) {
+            byte[] next = new byte[4];
+            sdxFile.seek(offset);
+            if (sdxFile.read(next) != 4) {
+                throw new IOException("index file corrupted");
+            }
+            RecordStoreUtil.putInt(RecordStoreUtil.getInt(next, 0),
+                                   header, SDX_FREE_NODES);
+            return offset;
+        }
+
+        offset = RecordStoreUtil.getInt(header, SDX_SIZE);
+        RecordStoreUtil.putInt(offset + NODE_SIZE, header, SDX_SIZE);
+        return offset;
+    }
+
+    /**
+     * Puts a node to the list of free nodes.
+     *
+     * @param offset offset of the node
+     *
+     * @exception IOException if the index file cannot be written
+     */
+    private void freeNode(int offset) throws IOException {
+        byte[] next = new byte[4];
+        RecordStoreUtil.putInt(RecordStoreUtil.getInt(header, SDX_FREE_NODES),
+                               next, 0);
+        sdxFile.seek(offset);
+        sdxFile.write(next);
+        RecordStoreUtil.putInt(offset, header, SDX_FREE_NODES);
+    }
+
+    /**
+     * Saves the index header with the given record store version.
+     *
+     * @param version record store version, or VERSION_CHANGING
+     * @param lastModified last modification time of the record store
+     *
+     * @exception IOException if the index file cannot be written
+     */
+    private void setVersion(int version, long lastModified)
+            throws IOException {
+        versionPending = false;
+        RecordStoreUtil.putInt(version, header, SDX_VERSION);
+        RecordStoreUtil.putLong(lastModified, header, SDX_LAST_MODIFIED);
+        sdxFile.seek(0);
+        sdxFile.write(header);
+        sdxFile.commitWrite();
+    }
+
+    /**
+     * Marks the index file as being changed by this object before the
+     * nodes are changed. The mark is synced, but only if the file is not
+     * marked yet: the changes following it keep their version pending.
+     * The caller must have checked that the index is in sync.
+     *
+     * @exception IOException if the index file cannot be written
+     */
+    private void markChanging() throws IOException {
+        if (versionPending) {
+            // the index is out of sync until the changes are complete
+            versionPending = false;
+            return;
+        }
+
+        long stamp = System.currentTimeMillis() ^
+            ((long)System.identityHashCode(this) << 32);
+        changingStamp = (stamp == 0) ? 1 : stamp;
+        setVersion(VERSION_CHANGING, changingStamp);
+    }
+
+    /**
+     * Reads the header from the index file and checks if it is still
+     * marked as being changed by this object.
+     *
+     * @return true if the file holds the mark of this object
+     *
+     * @exception IOException if the index file cannot be read
+     */
+    private boolean isMarkedByThis() throws IOException {
+        sdxFile.seek(0);
+        if (sdxFile.read(fileHeader) != SDX_STATE_SIZE) {
+            throw new IOException("index file corrupted");
+        }
+
+        return RecordStoreUtil.getInt(fileHeader, SDX_VERSION) ==
+                VERSION_CHANGING &&
+            RecordStoreUtil.getLong(fileHeader, SDX_LAST_MODIFIED) ==
+                changingStamp;
+    }
+
+    /**
+     * Sorts record IDs and keys by key, then by record ID (merge sort).
+     *
+     * @param recordIds the record IDs
+     * @param keys the keys
+     * @param tmpIds scratch array as large as <code>recordIds</code>
+     * @param tmpKeys scratch array as large as <code>keys</code>
+     * @param from index of the first element to sort
+     * @param to index after the last element to sort
+     */
+    private static void sort(int[] recordIds, byte[][] keys,
+                             int[] tmpIds, byte[][] tmpKeys,
+                             int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        sort(recordIds, keys, tmpIds, tmpKeys, from, middle);
+        sort(recordIds, keys, tmpIds, tmpKeys, middle, to);
+
+        System.arraycopy(recordIds, from, tmpIds, from, to - from);
+        System.arraycopy(keys, from, tmpKeys, from, to - from);
+
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle &&
+                    compare(tmpKeys[left], tmpIds[left],
+                            tmpKeys[right], tmpIds[right]) <= 0)) {
+                recordIds[i] = tmpIds[left];
+                keys[i] = tmpKeys[left++];
+            } else {
+                recordIds[i] = tmpIds[right];
+                keys[i] = tmpKeys[right++];
+            }
+        }
+    }
+
+    /**
+     * Compares two entries.
+     *
+     * @param key1 key of the first entry
+     * @param recordId1 record ID of the first entry
+     * @param key2 key of the second entry
+     * @param recordId2 record ID of the second entry
+     *
+     * @return negative, zero or positive if the first entry is
+     *         less than, equal to or greater than the second one
+     */
+    private static int compare(byte[] key1, int recordId1,
+                               byte[] key2, int recordId2) {
+        int result = compareKeys(key1, 0, key1.length, key2);
+
+        if (result != 0) {
+            return result;
+        }
+
+        return (recordId1 < recordId2) ? -1 :
+            ((recordId1 == recordId2) ? 0 : 1);
+    }
+
+    /**
+     * Compares a stored key with a key as unsigned bytes; the key
+     * is truncated to the key size.
+     *
+     * @param data buffer holding the stored key
+     * @param offset offset of the stored key in the buffer
+     * @param length length of the stored key
+     * @param key the key
+     *
+     * @return negative, zero or positive if the stored key is
+     *         less than, equal to or greater than the key
+     */
+    private static int compareKeys(byte[] data, int offset, int length,
+                                   byte[] key) {
+        int keyLength = (key.length > KEY_SIZE) ? KEY_SIZE : key.length;
+        int n = (length < keyLength) ? length : keyLength;
+
+        for (int i = 0; i < n; i++) {
+            int diff = (data[offset + i] & 0xff) - (key[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return length - keyLength;
+    }
+
+    /**
+     * Gets a short from the byte array at the given offset.
+     *
+     * @param data the byte array
+     * @param offset offset of the short
+     *
+     * @return the short value
+     */
+    private static int getShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    /**
+     * Puts a short into the byte array at the given offset.
+     *
+     * @param value the short value
+     * @param data the byte array
+     * @param offset offset of the short
+     */
+    private static void putShort(int value, byte[] data, int offset) {
+        data[offset] = (byte)(value >> 8);
+        data[offset + 1] = (byte)value;
+    }
+
+    /**
+     * Encodes the class name of a key extractor as saved in the index
+     * header.
+     *
+     * @param extractor the key extractor
+     *
+     * @return the encoded name, or null if it does not fit the header
+     */
+    private static byte[] getClassName(RecordKeyExtractor extractor) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(extractor.getClass().getName());
+            out.close();
+
+            byte[] className = bytes.toByteArray();
+            if (className.length <= SDX_HEADER_SIZE - SDX_EXTRACTOR) {
+                return className;
+            }
+        } catch (IOException ioe) {
+            // cannot happen with a byte array stream
+        }
+
+        return null;
+    }
+
+    /**
+     * A node of the tree, as a copy of its contents in the index file.
+     */
+    private class Node {
+        /** offset of the node in the index file */
+        int offset;
+
+        /** true if the node is a leaf */
+        boolean leaf;
+
+        /** number of entries */
+        int count;
+
+        /** node data, with room for an extra entry before a split */
+        byte[] data = new byte[NODE_SIZE + ENTRY_SIZE];
+
+        /**
+         * Clears the node.
+         *
+         * @param isLeaf true if the node is a leaf
+         */
+        void init(boolean isLeaf) {
+            leaf = isLeaf;
+            count = 0;
+        }
+
+        /**
+         * Reads the node from the index file.
+         *
+         * @param nodeOffset offset of the node
+         *
+         * @exception IOException if the node cannot be read
+         */
+        void load(int nodeOffset) throws IOException {
+            offset = nodeOffset;
+            sdxFile.seek(offset);
+            if (sdxFile.read(data, 0, NODE_SIZE) != NODE_SIZE) {
+                throw new IOException("index file corrupted");
+            }
+
+            leaf = getShort(data, 0) != 0;
+            count = getShort(data, 2);
+            if (count > NODE_ELEMENTS) {
+                throw new IOException("index file corrupted");
+            }
+        }
+
+        /**
+         * Writes the node to the index file.
+         *
+         * @exception IOException if the node cannot be written
+         */
+        void store() throws IOException {
+            putShort(leaf ? 1 : 0, data, 0);
+            putShort(count, data, 2);
+            sdxFile.seek(offset);
+            sdxFile.write(data, 0, NODE_SIZE);
+        }
+
+        /**
+         * Gets the offset of an entry in the node data.
+         *
+         * @param i index of the entry
+         *
+         * @return offset of the entry
+         */
+        int entryOffset(int i) {
+            return NODE_HEADER_SIZE + i * ENTRY_SIZE;
+        }
+
+        /**
+         * Gets the record ID of an entry.
+         *
+         * @param i index of the entry
+         *
+         * @return the record ID
+         */
+        int getRecordId(int i) {
+            return RecordStoreUtil.getInt(data, entryOffset(i) + 1 + KEY_SIZE);
+        }
+
+        /**
+         * Gets the child node offset of an entry of an inner node.
+         *
+         * @param i index of the entry
+         *
+         * @return offset of the child node
+         */
+        int getChild(int i) {
+            return RecordStoreUtil.getInt(data, entryOffset(i) + 5 + KEY_SIZE);
+        }
+
+        /**
+         * Sets the child node offset of an entry of an inner node.
+         *
+         * @param i index of the entry
+         * @param child offset of the child node
+         */
+        void setChild(int i, int child) {
+            RecordStoreUtil.putInt(child, data, entryOffset(i) + 5 + KEY_SIZE);
+        }
+
+        /**
+         * Sets an entry.
+         *
+         * @param i index of the entry
+         * @param key the key
+         * @param recordId the record ID
+         * @param child offset of the child node
+         */
+        void setEntry(int i, byte[] key, int recordId, int child) {
+            int pos = entryOffset(i);
+            int length = (key.length > KEY_SIZE) ? KEY_SIZE : key.length;
+
+            data[pos] = (byte)length;
+            System.arraycopy(key, 0, data, pos + 1, length);
+            for (int j = length; j < KEY_SIZE; j++) {
+                data[pos + 1 + j] = 0;
+            }
+            RecordStoreUtil.putInt(recordId, data, pos + 1 + KEY_SIZE);
+            setChild(i, child);
+        }
+
+        /**
+         * Copies an entry from another node.
+         *
+         * @param i index of the entry
+         * @param from the other node
+         * @param j index of the entry in the other node
+         */
+        void copyEntry(int i, Node from, int j) {
+            System.arraycopy(from.data, from.entryOffset(j), data,
+                             entryOffset(i), ENTRY_SIZE);
+        }
+
+        /**
+         * Inserts an entry, shifting the following entries.
+         *
+         * @param i index of the new entry
+         * @param entry the entry data
+         * @param child offset of the child node
+         */
+        void insertEntry(int i, byte[] entry, int child) {
+            System.arraycopy(entry, 0, data, entryOffset(count), ENTRY_SIZE);
+            setChild(count, child);
+            moveLastEntry(i);
+        }
+
+        /**
+         * Adds the entry stored after the last entry to the node at
+         * the given index.
+         *
+         * @param i index of the new entry
+         */
+        void moveLastEntry(int i) {
+            if (i < count) {
+                byte[] entry = new byte[ENTRY_SIZE];
+                System.arraycopy(data, entryOffset(count), entry, 0,
+                                 ENTRY_SIZE);
+                System.arraycopy(data, entryOffset(i), data,
+                                 entryOffset(i + 1), (count - i) * ENTRY_SIZE);
+                System.arraycopy(entry, 0, data, entryOffset(i), ENTRY_SIZE);
+            }
+            count++;
+        }
+
+        /**
+         * Removes an entry, shifting the following entries.
+         *
+         * @param i index of the entry
+         */
+        void removeEntry(int i) {
+            count--;
+            System.arraycopy(data, entryOffset(i + 1), data, entryOffset(i),
+                             (count - i) * ENTRY_SIZE);
+        }
+
+        /**
+         * Compares the key of an entry with a key.
+         *
+         * @param i index of the entry
+         * @param key the key
+         *
+         * @return negative, zero or positive if the key of the entry is
+         *         less than, equal to or greater than the key
+         */
+        int compareKey(int i, byte[] key) {
+            int pos = entryOffset(i);
+            return compareKeys(data, pos + 1, data[pos], key);
+        }
+
+        /**
+         * Copies the stored key of an entry, with its length, into a
+         * buffer.
+         *
+         * @param i index of the entry
+         * @param key buffer of 1 + KEY_SIZE bytes
+         *
+         * @return true if the buffer already held the same stored key
+         */
+        boolean replaceKey(int i, byte[] key) {
+            int pos = entryOffset(i);
+            boolean equal = true;
+
+            for (int j = 0; j <= KEY_SIZE; j++) {
+                if (key[j] != data[pos + j]) {
+                    key[j] = data[pos + j];
+                    equal = false;
+                }
+            }
+
+            return equal;
+        }
+
+        /**
+         * Compares an entry with the given key and record ID.
+         *
+         * @param i index of the entry
+         * @param key the key
+         * @param recordId the record ID
+         *
+         * @return negative, zero or positive if the entry is
+         *         less than, equal to or greater than the given one
+         */
+        int compare(int i, byte[] key, int recordId) {
+            int result = compareKey(i, key);
+
+            if (result != 0) {
+                return result;
+            }
+
+            int id = getRecordId(i);
+            return (id < recordId) ? -1 : ((id == recordId) ? 0 : 1);
+        }
+
+        /**
+         * Finds the index of the first entry greater than the given one.
+         *
+         * @param key the key
+         * @param recordId the record ID
+         *
+         * @return index of the first greater entry, or the number of
+         *         entries
+         */
+        int findPosition(byte[] key, int recordId) {
+            int low = 0;
+            int high = count;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(middle, key, recordId) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+
+import com.sun.midp.rms.index.RecordKeyExtractor;
+
+/**
+ * This is the interface to "tunnel" across Java package namespace,
+ * and call the package private methods of
+ * javax.microedition.rms.RecordStore. The javax.microedition.rms
+ * package implements this interface and provides an instance of it
+ * to <code>RecordKeyIndex</code>.
+ */
+public interface RecordStoreTunnel {
+    /**
+     * Declares the key extractor of the secondary index of a record
+     * store.
+     *
+     * @param store the record store
+     * @param extractor the key extractor, or null to delete the index
+     *
+     * @exception RecordStoreException if the index file cannot be
+     *          created or the record store is not open
+     * @exception SecurityException if the record store belongs to
+     *          another MIDlet suite
+     */
+    public void setKeyExtractor(RecordStore store,
+                                RecordKeyExtractor extractor)
+        throws RecordStoreException;
+}
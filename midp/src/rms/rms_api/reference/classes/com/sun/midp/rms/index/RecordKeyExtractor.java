@@ -0,0 +1,68 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms.index;
+
+/**
+ * Extracts the sort key of a record for the secondary index of a
+ * record store.
+ *
+ * <p>The key is a byte array compared as unsigned bytes, in the
+ * lexicographic order; only its first <code>KEY_SIZE</code> bytes are
+ * stored in the index. Records with equal stored keys are ordered by
+ * their record ID.
+ *
+ * <p>The index is created by <code>RecordKeyIndex.createIndex()</code>.
+ * An extractor that is also a <code>RecordComparator</code> then makes
+ * <code>RecordStore.enumerateRecords()</code> walk the index of the
+ * record store instead of sorting the records; its
+ * <code>compare()</code> method must then be consistent with the
+ * order of the keys. Records whose stored keys are equal are put in
+ * order by <code>compare()</code> itself.
+ *
+ * <p>The index is saved with the record store together with the class
+ * name of its extractor, but the extractor is never instantiated from
+ * that name. The index is only kept up to date while it is declared;
+ * an extractor of the same class reuses the saved index, which is
+ * rebuilt if the records have changed in the meantime. The key of a
+ * record must therefore depend only on the record data.
+ *
+ * @see RecordKeyIndex#createIndex
+ * @see javax.microedition.rms.RecordStore#enumerateRecords
+ */
+public interface RecordKeyExtractor {
+    /** Number of key bytes stored in the index. */
+    int KEY_SIZE = 16;
+
+    /**
+     * Returns the sort key of a record.
+     *
+     * @param data the record data, null if the record is empty
+     *
+     * @return the key; null is treated as an empty key
+     */
+    byte[] getKey(byte[] data);
+}
@@ -0,0 +1,121 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms.index;
+
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+
+import com.sun.midp.rms.RecordStoreTunnel;
+
+import com.sun.midp.security.Permissions;
+import com.sun.midp.security.SecurityToken;
+
+/**
+ * Creates and deletes the secondary index of a record store.
+ *
+ * <p>A record store has at most one secondary index, which orders its
+ * records by the keys of a <code>RecordKeyExtractor</code>. The index
+ * is only created by <code>createIndex()</code>; enumerating the
+ * records never creates one. Once it exists, the enumerations whose
+ * comparator is of the class of the extractor walk the index instead
+ * of sorting the records, and those whose filter is a
+ * <code>RecordKeyRange</code> only look at the records of the range.
+ *
+ * <p>The index is saved with the record store, but the extractor is
+ * not: <code>createIndex()</code> has to be called again after the
+ * record store is opened, and then reuses the saved index if the
+ * extractor is of the same class. Changes made while no extractor is
+ * declared make the index rebuilt when it is used next.
+ */
+public final class RecordKeyIndex {
+    /** The tunnel to the package private methods of RecordStore. */
+    private static RecordStoreTunnel tunnel;
+
+    /** Only static methods. */
+    private RecordKeyIndex() {
+    }
+
+    /**
+     * Sets up the reference to the RecordStoreTunnel implementation.
+     * This must be called exactly once during system initialization.
+     *
+     * @param token security token for authorizing the caller
+     * @param t the RecordStoreTunnel implementation
+     */
+    public static void setRecordStoreTunnel(SecurityToken token,
+                                            RecordStoreTunnel t) {
+        token.checkIfPermissionAllowed(Permissions.MIDP);
+
+        tunnel = t;
+    }
+
+    /**
+     * Creates the secondary index of a record store for the given key
+     * extractor, replacing an index of another extractor class. The
+     * index is built from the records when it is first used.
+     *
+     * @param store a record store of the calling MIDlet suite
+     * @param extractor the key extractor
+     *
+     * @exception RecordStoreException if the record store is not open
+     *          or the index file cannot be created
+     * @exception SecurityException if the record store belongs to
+     *          another MIDlet suite
+     * @exception NullPointerException if <code>store</code> or
+     *          <code>extractor</code> is null
+     */
+    public static void createIndex(RecordStore store,
+                                   RecordKeyExtractor extractor)
+        throws RecordStoreException {
+
+        if (store == null || extractor == null) {
+            throw new NullPointerException();
+        }
+
+        tunnel.setKeyExtractor(store, extractor);
+    }
+
+    /**
+     * Deletes the secondary index of a record store, if it has one.
+     *
+     * @param store a record store of the calling MIDlet suite
+     *
+     * @exception RecordStoreException if the record store is not open
+     * @exception SecurityException if the record store belongs to
+     *          another MIDlet suite
+     * @exception NullPointerException if <code>store</code> is null
+     */
+    public static void deleteIndex(RecordStore store)
+        throws RecordStoreException {
+
+        if (store == null) {
+            throw new NullPointerException();
+        }
+
+        tunnel.setKeyExtractor(store, null);
+    }
+}
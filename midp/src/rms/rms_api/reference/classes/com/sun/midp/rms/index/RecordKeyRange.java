@@ -0,0 +1,56 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms.index;
+
+import javax.microedition.rms.RecordFilter;
+
+/**
+ * A record filter that only matches records whose keys lie in a range.
+ * When the record store has a secondary index, a record enumeration
+ * using such a filter only looks at the records of the range instead
+ * of all the records of the record store. The filter's
+ * <code>matches()</code> method is still applied to each of them.
+ * The bounds are truncated to <code>RecordKeyExtractor.KEY_SIZE</code>
+ * bytes, so <code>matches()</code> has to check keys longer than that.
+ *
+ * @see RecordKeyExtractor
+ */
+public interface RecordKeyRange extends RecordFilter {
+    /**
+     * Returns the lowest key of the range.
+     *
+     * @return the lowest key, inclusive, or null if unbounded
+     */
+    byte[] getLowKey();
+
+    /**
+     * Returns the highest key of the range.
+     *
+     * @return the highest key, inclusive, or null if unbounded
+     */
+    byte[] getHighKey();
+}
@@ -64,6 +64,9 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      */
     private static final int NO_SUCH_RECORD = -1;
 
+    /** Number of records read at once for the filter */
+    private static final int FILTER_BATCH_SIZE = 32;
+
 
     /**
      * Builds an enumeration to traverse a set of records in the
@@ -268,8 +271,15 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     public void rebuild() {
 	checkDestroyed();
 
-	int[] tmp = recordStore.getRecordIDs();
-	reFilterSort(tmp);
+	// use the secondary index of the record store if it applies
+	int[][] runs = new int[1][];
+	int[] tmp = recordStore.getIndexedRecordIDs(filter, comparator, runs);
+	if (tmp != null) {
+	    reFilterSort(tmp, runs[0]);
+	} else {
+	    tmp = recordStore.getRecordIDs();
+	    reFilterSort(tmp, null);
+	}
     }
 
 
@@ -432,21 +442,27 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      */
     private void filterAdd(int recordId) {
 	int insertPoint = -1;
-	if (filter != null) {
+	byte[] data = null;
+	if (filter != null || comparator != null) {
 	    try {
-		if (!filter.matches(recordStore.getRecord(recordId))) {
-		    if (Logging.REPORT_LEVEL <= Logging.WARNING) {
-			Logging.report(Logging.WARNING, LogChannels.LC_RMS,
-				       "Unexpected case in filterAdd: " + 
-				       "recordId filtered out");
-		    }
-		    return;  // recordId filtered out
-		}
+		// read once for both the filter and the comparator
+		data = recordStore.getRecord(recordId);
 	    } catch (RecordStoreException rse) {
 		return;  // recordId does not exist
 	    }
 	}
 
+	if (filter != null) {
+	    if (!filter.matches(data)) {
+		if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+		    Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+				   "Unexpected case in filterAdd: " + 
+				   "recordId filtered out");
+		}
+		return;  // recordId filtered out
+	    }
+	}
+
 	// the new record has been accepted by the filter
 	int[] newrecs = new int[records.length + 1];
 	newrecs[0] = recordId;  // insert new record at front of list
@@ -454,7 +470,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 	records = newrecs;
 	if (comparator != null) {  // move the new record into place
 	    try {
-		insertPoint = sortInsert();
+		insertPoint = sortInsert(data);
 	    } catch (RecordStoreException rse) {
 		// NOTE: - should never be here
 		// throw a RSE?  destroy record enumeration?
@@ -477,17 +493,18 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      * <code>records</code> array to its sorted position
      * within the array.
      *
+     * @param data the data of the record to move
      * @return index of inserted element.
      * @exception RecordStoreException if an error occurs
      *            in the comparator function.
      */
-    private int sortInsert() throws RecordStoreException {
+    private int sortInsert(byte[] data) throws RecordStoreException {
 	// bubble sort the first record in records into place
 	int tmp;
 	int i;
 	int j;
 	for (i = 0, j = 1; i < records.length - 1; i++, j++) {
-	    if (comparator.compare(recordStore.getRecord(records[i]),
+	    if (comparator.compare(data,
 				   recordStore.getRecord(records[j])) ==
 		RecordComparator.FOLLOWS) {
 		// if i follows j swap them in records
@@ -558,9 +575,36 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      * Should be called from within a synchronized(recordStore.rsLock) block
      *
      * @param filtered array of record stores to filter and sort.
+     * @param runs null if the records have to be sorted, otherwise the
+     *        records are in the order of the secondary index, which is
+     *        the comparator order up to the runs of records whose
+     *        stored keys are equal, given as pairs of the index of the
+     *        first record of a run and the index following its last one
      */ 
-    private void reFilterSort(int[] filtered) {
+    private void reFilterSort(int[] filtered, int[] runs) {
 	int filteredIndex = 0;
+
+	/*
+	 * The records of the runs of equal stored keys are compared
+	 * with each other, the filter keeps their data for that.
+	 */
+	int[] runOf = null;
+	byte[][] runData = null;
+	if (comparator != null && runs != null && runs.length > 0) {
+	    runOf = new int[filtered.length];
+	    for (int i = 0; i < runOf.length; i++) {
+		runOf[i] = -1;
+	    }
+	    for (int r = 0; r < runs.length; r += 2) {
+		for (int i = runs[r]; i < runs[r + 1]; i++) {
+		    runOf[i] = r;
+		}
+	    }
+	    if (filter != null) {
+		runData = new byte[filtered.length][];
+	    }
+	}
+
 	if (filter == null) {
 	    /*
 	     * If this enumeration doesn't have any filters, the
@@ -574,19 +618,46 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 	     * records to determine the subset to be used for this
 	     * enumeration.
 	     */
-	    for (int i = 0; i < filtered.length; i++) {
-		// if this record matches the filter keep it
+	    int[] batch = new int[Math.min(FILTER_BATCH_SIZE,
+					   filtered.length)];
+
+	    for (int start = 0; start < filtered.length;
+		     start += batch.length) {
+		int count = Math.min(batch.length, filtered.length - start);
+		if (count < batch.length) {
+		    batch = new int[count];
+		}
+		System.arraycopy(filtered, start, batch, 0, count);
+
+		/*
+		 * Read the records of the batch with one call, which
+		 * locks the record store once and reads them in file
+		 * order. If one of them is gone, read them one by one.
+		 */
+		byte[][] data = null;
 		try {
-		    if (filter.matches(recordStore.getRecord(filtered[i]))) {
-			// need revisit : if element overlap is allowed
-			if (filteredIndex != i) {
-			    filtered[filteredIndex++] = filtered[i];
-			} else {
-			    filteredIndex++;
+		    data = recordStore.getRecords(batch);
+		} catch (RecordStoreException rse) {
+		    // fall back to getRecord()
+		}
+
+		for (int i = 0; i < count; i++) {
+		    // if this record matches the filter keep it
+		    try {
+			byte[] record = (data != null) ? data[i] :
+			    recordStore.getRecord(batch[i]);
+			if (filter.matches(record)) {
+			    if (runOf != null) {
+				runOf[filteredIndex] = runOf[start + i];
+				if (runOf[filteredIndex] >= 0) {
+				    runData[filteredIndex] = record;
+				}
+			    }
+			    filtered[filteredIndex++] = batch[i];
 			}
+		    } catch (RecordStoreException rse) {
+			// if a record can't be found it doesn't match
 		    }
-		} catch (RecordStoreException rse) {
-		    // if a record can't be found it doesn't match
 		}
 	    }
 	    
@@ -600,7 +671,16 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 	 */
 	if (comparator != null) {
 	    try {
-		QuickSort(records, 0, records.length - 1, comparator);
+		if (runs == null) {
+		    QuickSort(records, 0, records.length - 1, comparator);
+		} else if (runOf != null) {
+		    /*
+		     * The index only orders the records by the first
+		     * bytes of their keys, records sharing them are in
+		     * recordId order and still have to be compared.
+		     */
+		    sortEqualKeys(records, runOf, runData, comparator);
+		}
 	    }
 	    catch (RecordStoreException rse) {
 		// NOTE: - should never be here
@@ -616,6 +696,64 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     }
     
     
+    /**
+     * Sorts records taken from a scan of the secondary index. Only
+     * records whose stored keys are equal can be out of order, and
+     * they are next to each other, so only the records of such a run
+     * are compared, with each other. Each of them is read once.
+     *
+     * @param a the array of recordId's in index order.
+     * @param runOf for each record, the run of equal stored keys it
+     *        belongs to, or -1
+     * @param data the data of the records of the runs, or null if they
+     *        have not been read yet
+     * @param inp_comparator the RecordComparator to use to compare records.
+     */
+    private void sortEqualKeys(int a[], int[] runOf, byte[][] data,
+			       RecordComparator inp_comparator)
+	throws RecordStoreException {
+
+	int start = 0;
+	while (start < a.length) {
+	    int end = start + 1;
+	    if (runOf[start] >= 0) {
+		while (end < a.length && runOf[end] == runOf[start]) {
+		    end++;
+		}
+	    }
+
+	    if (end - start > 1) {
+		byte[][] run = new byte[end - start][];
+		if (data != null) {
+		    System.arraycopy(data, start, run, 0, run.length);
+		} else {
+		    int[] ids = new int[run.length];
+		    System.arraycopy(a, start, ids, 0, ids.length);
+		    run = recordStore.getRecords(ids);
+		}
+
+		// insertion sort, stable for records the comparator
+		// finds equivalent
+		for (int i = 1; i < run.length; i++) {
+		    int recordId = a[start + i];
+		    byte[] record = run[i];
+		    int j = i - 1;
+		    while (j >= 0 && inp_comparator.compare(run[j], record) ==
+			   RecordComparator.FOLLOWS) {
+			a[start + j + 1] = a[start + j];
+			run[j + 1] = run[j];
+			j--;
+		    }
+		    a[start + j + 1] = recordId;
+		    run[j + 1] = record;
+		}
+	    }
+
+	    start = end;
+	}
+    }
+
+
     /**
      * Quicksort helper function for sorting the records.
      *
@@ -31,6 +31,9 @@ import com.sun.midp.midlet.MIDletStateHandler;
 
 import com.sun.midp.midletsuite.MIDletSuiteStorage;
 
+import com.sun.midp.rms.index.RecordKeyExtractor;
+import com.sun.midp.rms.index.RecordKeyIndex;
+import com.sun.midp.rms.index.RecordKeyRange;
 import com.sun.midp.rms.RecordStoreImpl;
 import com.sun.midp.rms.RecordStoreEventConsumer;
 import com.sun.midp.rms.RecordStoreRegistry;
@@ -156,6 +159,15 @@ public class RecordStore {
     private static SecurityToken classSecurityToken =
         SecurityInitializer.requestToken(new SecurityTrusted());
 
+    /**
+     * Static initializer to set the RecordStoreTunnel implementation
+     * in RecordKeyIndex.
+     */
+    static {
+        RecordKeyIndex.setRecordStoreTunnel(classSecurityToken,
+                                            new RecordStoreTunnelImpl());
+    }
+
     /** Consumer of record store change events */
     private static RecordStoreEventConsumer recordStoreEventConsumer;
 
@@ -1090,6 +1102,108 @@ public class RecordStore {
 	return peer.getRecordIDs();
     }
 
+    /**
+     * Returns copies of the data of several records, read with one
+     * call to the record store implementation.
+     * (Package accessible for use by record enumeration objects.)
+     *
+     * @param recordIds the IDs of the records
+     *
+     * @return the data of the records, in the order of
+     *         <code>recordIds</code>; null for a record with no data
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception InvalidRecordIDException if a recordId is invalid
+     * @exception RecordStoreException if a general record store
+     *          exception occurs
+     */
+    byte[][] getRecords(int[] recordIds)
+        throws RecordStoreNotOpenException, InvalidRecordIDException,
+            RecordStoreException {
+	checkOpen();
+        return peer.getRecords(recordIds);
+    }
+
+    /**
+     * Returns the recordId's of an enumeration as a scan of the
+     * secondary index of the record store, if the index applies.
+     * (Package accessible for use by record enumeration objects.)
+     *
+     * The index applies to a comparator of the same class as the key
+     * extractor declared by <code>RecordKeyIndex.createIndex()</code>.
+     * A filter that is a <code>RecordKeyRange</code> restricts the scan
+     * to the range of the filter.
+     *
+     * @param filter the filter of the enumeration, may be null
+     * @param comparator the comparator of the enumeration, may be null
+     * @param runs receives in its first element the runs of records
+     *        whose stored keys are equal, see
+     *        <code>RecordStoreImpl.getRecordIDsByKey()</code>
+     *
+     * @return the recordId's in key order, not filtered yet, or null if
+     *         the records have to be filtered and sorted one by one
+     */
+    int[] getIndexedRecordIDs(RecordFilter filter,
+                              RecordComparator comparator, int[][] runs) {
+        RecordKeyExtractor extractor = peer.getKeyExtractor();
+
+        if (extractor == null) {
+            return null;
+        }
+
+        if (comparator != null) {
+            if (extractor.getClass() != comparator.getClass()) {
+                return null;
+            }
+        } else if (!(filter instanceof RecordKeyRange)) {
+            return null;
+        }
+
+        try {
+            if (filter instanceof RecordKeyRange) {
+                RecordKeyRange range = (RecordKeyRange)filter;
+                return peer.getRecordIDsByKey(range.getLowKey(),
+                                              range.getHighKey(), runs);
+            }
+
+            return peer.getRecordIDsByKey(null, null, runs);
+        } catch (RecordStoreException rse) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                               "secondary index not used: " + rse);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Declares the key extractor of the secondary index of this record
+     * store, creating the index file or reusing the one saved by an
+     * extractor of the same class.
+     * (Package accessible for use by <code>RecordKeyIndex</code>.)
+     *
+     * @param extractor the key extractor, or null to delete the index
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception RecordStoreException if the index file cannot be
+     *          created
+     * @exception SecurityException if the record store belongs to
+     *          another MIDlet suite
+     */
+    void setKeyExtractor(RecordKeyExtractor extractor)
+        throws RecordStoreNotOpenException, RecordStoreException {
+
+        checkOpen();
+        if (!isRecordStoreOwner()) {
+            throw new SecurityException("not the owner of the record store");
+        }
+
+        peer.setKeyExtractor(extractor);
+    }
+
     /**
      * Throws a RecordStoreNotOpenException if the RecordStore
      * is closed.  (A RecordStore is closed if the RecordStoreFile
@@ -0,0 +1,439 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import java.util.Random;
+
+import javax.microedition.rms.*;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+
+/**
+ * Benchmark of record stores. It is not part of the i3test repository
+ * and is run explicitly, e.g. on the Linux emulator:
+ * <pre>
+ *     runMidlet internal com.sun.midp.i3test.Framework \
+ *         com.sun.midp.rms.RecordStoreBenchmark
+ * </pre>
+ * Every run uses the same random sequence, so that builds with
+ * different RMS constants can be compared, e.g. RMS_INDEX_THRESHOLD
+ * above NUM_RECORDS, which keeps the record store searched linearly,
+ * and below it, which indexes it fully. The tree index cannot be
+ * built in this release and is not among the options. For
+ * each workload it prints the number of operations, operations per
+ * second, the number of record bytes written and the 50th, 90th and
+ * 99th percentile and maximum of the operation latencies in
+ * milliseconds.
+ */
+public class RecordStoreBenchmark extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "RecordStoreBenchmark";
+
+    /** Number of records of the record store. */
+    static final int NUM_RECORDS = 1000;
+
+    /** Size of each record. */
+    static final int RECORD_SIZE = 64;
+
+    /** Number of operations of the random read and update workloads. */
+    static final int NUM_OPERATIONS = 2000;
+
+    /** Number of enumerations. */
+    static final int NUM_ENUMERATIONS = 10;
+
+    /** Number of times the record store is opened and closed. */
+    static final int NUM_OPENS = 20;
+
+    /** Number of blocks moved by each compaction step. */
+    static final int COMPACTION_STEP = 8;
+
+    /** Seed of the random sequence. */
+    static final long SEED = 1990;
+
+    /** Random sequence of record IDs and contents. */
+    Random random;
+
+    /** Record store under test. */
+    RecordStore store;
+
+    /** Name of the running workload. */
+    String workload;
+
+    /** Latencies of the operations of the running workload. */
+    long[] latencies;
+
+    /** Number of operations of the running workload. */
+    int numOperations;
+
+    /** Number of record bytes written by the running workload. */
+    long bytesWritten;
+
+    /** Start time of the running workload. */
+    long workloadStart;
+
+    /** Start time of the running operation. */
+    long operationStart;
+
+    /**
+     * Starts measuring a workload.
+     *
+     * @param name name of the workload
+     * @param maxOperations maximum number of operations of the workload
+     */
+    void beginWorkload(String name, int maxOperations) {
+        declare(name);
+        workload = name;
+        latencies = new long[maxOperations];
+        numOperations = 0;
+        bytesWritten = 0;
+        workloadStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts measuring an operation.
+     */
+    void beginOperation() {
+        operationStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Ends measuring an operation.
+     *
+     * @param bytes number of record bytes written by the operation
+     */
+    void endOperation(int bytes) {
+        latencies[numOperations++] =
+            System.currentTimeMillis() - operationStart;
+        bytesWritten += bytes;
+    }
+
+    /**
+     * Ends measuring a workload and prints its results.
+     */
+    void endWorkload() {
+        long time = System.currentTimeMillis() - workloadStart;
+
+        sort(latencies, numOperations);
+
+        StringBuffer line = new StringBuffer();
+        append(line, workload, -16);
+        append(line, String.valueOf(numOperations), 7);
+        append(line, time == 0 ? "-" :
+               String.valueOf(numOperations * 1000L / time), 9);
+        append(line, String.valueOf(bytesWritten), 10);
+        append(line, String.valueOf(percentile(50)), 6);
+        append(line, String.valueOf(percentile(90)), 6);
+        append(line, String.valueOf(percentile(99)), 6);
+        append(line, String.valueOf(latencies[numOperations - 1]), 6);
+        System.out.println(line.toString());
+    }
+
+    /**
+     * Gets a percentile of the sorted latencies of a workload.
+     *
+     * @param percent the percentile
+     * @return latency in milliseconds
+     */
+    long percentile(int percent) {
+        return latencies[(numOperations - 1) * percent / 100];
+    }
+
+    /**
+     * Sorts the first values of an array. The number of values is small,
+     * so insertion sort is good enough.
+     *
+     * @param values array to sort
+     * @param count number of values to sort
+     */
+    static void sort(long[] values, int count) {
+        for (int i = 1; i < count; i++) {
+            long value = values[i];
+            int j = i - 1;
+
+            for (; j >= 0 && values[j] > value; j--) {
+                values[j + 1] = values[j];
+            }
+
+            values[j + 1] = value;
+        }
+    }
+
+    /**
+     * Appends a padded column to a line of the results.
+     *
+     * @param line line of the results
+     * @param text column text
+     * @param width column width, negative for left aligned text
+     */
+    static void append(StringBuffer line, String text, int width) {
+        int padding = Math.abs(width) - text.length();
+
+        if (width < 0) {
+            line.append(text);
+        }
+
+        for (; padding > 0; padding--) {
+            line.append(' ');
+        }
+
+        if (width > 0) {
+            line.append(text);
+        }
+    }
+
+    /**
+     * Creates the contents of a record.
+     *
+     * @return record data
+     */
+    byte[] recordData() {
+        byte[] data = new byte[RECORD_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt();
+        }
+        return data;
+    }
+
+    /**
+     * Gets a random ID of the records added by testSequentialAdd().
+     *
+     * @return record ID
+     */
+    int randomRecordId() {
+        return 1 + (random.nextInt() & 0x7fffffff) % NUM_RECORDS;
+    }
+
+    /**
+     * Adds records to an empty record store.
+     */
+    void testSequentialAdd() throws Exception {
+        beginWorkload("sequential add", NUM_RECORDS);
+
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            byte[] data = recordData();
+
+            beginOperation();
+            store.addRecord(data, 0, data.length);
+            endOperation(data.length);
+        }
+
+        endWorkload();
+        assertEquals("records", NUM_RECORDS, store.getNumRecords());
+    }
+
+    /**
+     * Reads records in random order.
+     */
+    void testRandomRead() throws Exception {
+        byte[] buffer = new byte[RECORD_SIZE];
+        int bytesRead = 0;
+
+        beginWorkload("random read", NUM_OPERATIONS);
+
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            int recordId = randomRecordId();
+
+            beginOperation();
+            bytesRead += store.getRecord(recordId, buffer, 0);
+            endOperation(0);
+        }
+
+        endWorkload();
+        assertEquals("bytes read", NUM_OPERATIONS * RECORD_SIZE, bytesRead);
+    }
+
+    /**
+     * Replaces records in random order with records of the same size.
+     */
+    void testUpdateInPlace() throws Exception {
+        beginWorkload("update in place", NUM_OPERATIONS);
+
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            int recordId = randomRecordId();
+            byte[] data = recordData();
+
+            beginOperation();
+            store.setRecord(recordId, data, 0, data.length);
+            endOperation(data.length);
+        }
+
+        endWorkload();
+        assertEquals("records", NUM_RECORDS, store.getNumRecords());
+    }
+
+    /**
+     * Enumerates the records with a filter and a comparator.
+     */
+    void testEnumeration() throws Exception {
+        RecordFilter filter = new RecordFilter() {
+            public boolean matches(byte[] candidate) {
+                return (candidate[0] & 1) == 0;
+            }
+        };
+
+        RecordComparator comparator = new RecordComparator() {
+            public int compare(byte[] rec1, byte[] rec2) {
+                for (int i = 0; i < rec1.length && i < rec2.length; i++) {
+                    if (rec1[i] != rec2[i]) {
+                        return rec1[i] < rec2[i] ? PRECEDES : FOLLOWS;
+                    }
+                }
+                return EQUIVALENT;
+            }
+        };
+
+        int numMatches = -1;
+        boolean sameMatches = true;
+
+        beginWorkload("enumeration", NUM_ENUMERATIONS);
+
+        for (int i = 0; i < NUM_ENUMERATIONS; i++) {
+            int count = 0;
+
+            beginOperation();
+            RecordEnumeration records =
+                store.enumerateRecords(filter, comparator, false);
+            while (records.hasNextElement()) {
+                records.nextRecordId();
+                count++;
+            }
+            records.destroy();
+            endOperation(0);
+
+            if (numMatches >= 0 && numMatches != count) {
+                sameMatches = false;
+            }
+            numMatches = count;
+        }
+
+        endWorkload();
+        assertTrue("matches", numMatches > 0 && sameMatches);
+    }
+
+    /**
+     * Closes and opens the record store.
+     */
+    void testOpenClose() throws Exception {
+        beginWorkload("open/close", NUM_OPENS);
+
+        store.closeRecordStore();
+
+        for (int i = 0; i < NUM_OPENS; i++) {
+            beginOperation();
+            store = RecordStore.openRecordStore(NAME, false);
+            store.closeRecordStore();
+            endOperation(0);
+        }
+
+        endWorkload();
+
+        store = RecordStore.openRecordStore(NAME, false);
+        assertEquals("records", NUM_RECORDS, store.getNumRecords());
+    }
+
+    /**
+     * Deletes every second record of a separate record store and
+     * compacts it step by step. The bytes written are the bytes
+     * given back to the storage.
+     */
+    void testCompaction() throws Exception {
+        String name = NAME + "Compaction";
+        RecordStoreImpl impl = RecordStoreImpl.openRecordStore(
+            getSecurityToken(), SUITE, name, true);
+
+        try {
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                byte[] data = recordData();
+                impl.addRecord(data, 0, data.length);
+            }
+
+            for (int recordId = 2; recordId <= NUM_RECORDS; recordId += 2) {
+                impl.deleteRecord(recordId);
+            }
+
+            int sizeBefore = impl.getSize();
+            boolean more = true;
+
+            beginWorkload("compaction", NUM_RECORDS);
+
+            while (more) {
+                beginOperation();
+                more = impl.compactIncrementally(COMPACTION_STEP);
+                endOperation(0);
+            }
+
+            bytesWritten = sizeBefore - impl.getSize();
+            endWorkload();
+
+            assertEquals("free blocks", 0,
+                         impl.getFragmentation().getFreeBlockCount());
+            assertEquals("records", NUM_RECORDS / 2, impl.getNumRecords());
+        } finally {
+            impl.closeRecordStore();
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE,
+                                              name);
+        }
+    }
+
+    /** Run all workloads. */
+    public void runTests() throws Exception {
+        random = new Random(SEED);
+
+        try {
+            RecordStore.deleteRecordStore(NAME);
+        } catch (RecordStoreNotFoundException e) {
+            // expected
+        }
+
+        System.out.println("record store benchmark, " + NUM_RECORDS +
+                           " records of " + RECORD_SIZE + " bytes, " +
+                           "index threshold " +
+                           RMSConfig.RMS_INDEX_THRESHOLD);
+        System.out.println("workload            ops  ops/sec     bytes" +
+                           "   p50   p90   p99   max");
+
+        store = RecordStore.openRecordStore(NAME, true);
+
+        try {
+            testSequentialAdd();
+            testRandomRead();
+            testUpdateInPlace();
+            testEnumeration();
+            testOpenClose();
+        } finally {
+            store.closeRecordStore();
+            RecordStore.deleteRecordStore(NAME);
+        }
+
+        testCompaction();
+    }
+}
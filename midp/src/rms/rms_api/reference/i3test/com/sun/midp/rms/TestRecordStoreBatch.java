@@ -0,0 +1,397 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreFullException;
+
+/**
+ * Tests the batch operations of record stores.
+ */
+public class TestRecordStoreBatch extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "TestRecordStoreBatch";
+
+    /** Number of records added. */
+    static final int NUM_RECORDS = 100;
+
+    /** Record store under test. */
+    RecordStoreImpl store;
+
+    /**
+     * Creates the contents of a record. Every tenth record is empty,
+     * record 50 is larger than the record cache.
+     *
+     * @param index index of the record
+     * @return record data
+     */
+    static byte[] recordData(int index) {
+        if (index % 10 == 9) {
+            return null;
+        }
+
+        int size = (index == 50) ? RMSConfig.RMS_RECORD_CACHE_SIZE + 1 :
+            index * 7;
+        byte[] data = new byte[size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(index + i);
+        }
+        return data;
+    }
+
+    /**
+     * Checks a record against the data it was added with.
+     *
+     * @param index index of the record
+     * @param data the record data read back
+     */
+    void checkRecord(int index, byte[] data) {
+        byte[] expected = recordData(index);
+
+        if (expected == null || expected.length == 0) {
+            assertTrue("record " + index + " empty", data == null);
+            return;
+        }
+
+        assertEquals("record " + index + " size",
+                     expected.length, data.length);
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != expected[i]) {
+                fail("record " + index + " corrupted");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates the record store and fills it.
+     *
+     * @return the IDs of the added records
+     */
+    int[] setUp() throws Exception {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                SUITE, NAME, true);
+
+        int[] ids = new int[NUM_RECORDS];
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            byte[] data = recordData(i);
+            ids[i] = store.addRecord(data, 0,
+                                     (data == null) ? 0 : data.length);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Creates the record store and fills it with a batch.
+     *
+     * @return the IDs of the added records
+     */
+    int[] setUpBatch() throws Exception {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                SUITE, NAME, true);
+
+        byte[][] records = new byte[NUM_RECORDS][];
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            records[i] = recordData(i);
+        }
+
+        return store.addRecords(records);
+    }
+
+    /**
+     * Checks that the record store holds the records with the given
+     * IDs and no others.
+     *
+     * @param ids the IDs of the records, by index; 0 for a deleted record
+     */
+    void checkRecords(int[] ids) throws Exception {
+        int numRecords = 0;
+
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != 0) {
+                checkRecord(i, store.getRecord(ids[i]));
+                numRecords++;
+            }
+        }
+
+        assertEquals("number of records", numRecords, store.getNumRecords());
+        assertEquals("number of IDs", numRecords,
+                     store.getRecordIDs().length);
+    }
+
+    /**
+     * Closes and deletes the record store.
+     */
+    void tearDown() throws Exception {
+        store.closeRecordStore();
+        RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+    }
+
+    /**
+     * Reads the records back as a batch.
+     */
+    void testGet() throws Exception {
+        int[] ids = setUp();
+
+        try {
+            // reverse order, partly served by the record cache
+            int[] reverse = new int[NUM_RECORDS];
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                reverse[i] = ids[NUM_RECORDS - 1 - i];
+            }
+
+            byte[][] records = store.getRecords(reverse);
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                checkRecord(NUM_RECORDS - 1 - i, records[i]);
+            }
+
+            // callers get their own copy
+            records[1][0]++;
+            checkRecord(NUM_RECORDS - 2, store.getRecords(reverse)[1]);
+
+            // a deleted record fails the whole batch
+            store.deleteRecord(ids[3]);
+            try {
+                store.getRecords(ids);
+                fail("deleted record found");
+            } catch (InvalidRecordIDException e) {
+                // expected
+            }
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Adds the records as a batch and reads them back, also after
+     * the record store has been reopened.
+     */
+    void testAdd() throws Exception {
+        int[] ids = setUpBatch();
+
+        try {
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                assertEquals("record ID " + i, i + 1, ids[i]);
+            }
+            assertEquals("next ID", NUM_RECORDS + 1, store.getNextRecordID());
+            assertEquals("version", NUM_RECORDS, store.getVersion());
+            checkRecords(ids);
+
+            // the blocks of deleted records are reused
+            int size = store.getSize();
+            for (int i = 20; i < 40; i++) {
+                store.deleteRecord(ids[i]);
+            }
+            byte[][] records = new byte[20][];
+            for (int i = 20; i < 40; i++) {
+                records[i - 20] = recordData(i);
+            }
+            int[] newIds = store.addRecords(records);
+            for (int i = 20; i < 40; i++) {
+                ids[i] = newIds[i - 20];
+            }
+            assertEquals("free blocks reused", size, store.getSize());
+            checkRecords(ids);
+
+            assertEquals("empty batch", 0,
+                         store.addRecords(new byte[0][]).length);
+
+            store.closeRecordStore();
+            store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                    SUITE, NAME, false);
+            checkRecords(ids);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Deletes records as a batch.
+     */
+    void testDelete() throws Exception {
+        int[] ids = setUpBatch();
+
+        try {
+            int version = store.getVersion();
+
+            // every third record, in reverse order
+            int[] deleted = new int[(NUM_RECORDS + 2) / 3];
+            for (int n = 0; n < deleted.length; n++) {
+                int i = NUM_RECORDS - 1 - n * 3;
+                deleted[n] = ids[i];
+                ids[i] = 0;
+            }
+            store.deleteRecords(deleted);
+            assertEquals("version", version + deleted.length,
+                         store.getVersion());
+            checkRecords(ids);
+
+            // an invalid or repeated ID deletes nothing
+            version = store.getVersion();
+            try {
+                store.deleteRecords(new int[] { ids[0], deleted[0] });
+                fail("deleted record deleted again");
+            } catch (InvalidRecordIDException e) {
+                // expected
+            }
+            try {
+                store.deleteRecords(new int[] { ids[0], ids[1], ids[0] });
+                fail("record deleted twice");
+            } catch (InvalidRecordIDException e) {
+                // expected
+            }
+            assertEquals("nothing deleted", version, store.getVersion());
+            checkRecords(ids);
+
+            store.closeRecordStore();
+            store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                    SUITE, NAME, false);
+            checkRecords(ids);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that a batch that does not fit into the record store
+     * adds nothing.
+     */
+    void testFull() throws Exception {
+        int[] ids = setUpBatch();
+
+        try {
+            int version = store.getVersion();
+            int size = store.getSize();
+            int nextId = store.getNextRecordID();
+
+            // a few records fit, the batch fails half way
+            byte[] data = new byte[1000];
+            byte[][] records =
+                new byte[store.getSizeAvailable() / data.length + 2][];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = data;
+            }
+
+            try {
+                store.addRecords(records);
+                fail("record store not full");
+            } catch (RecordStoreFullException e) {
+                // expected
+            }
+
+            assertEquals("version", version, store.getVersion());
+            assertEquals("size", size, store.getSize());
+            assertEquals("next ID", nextId, store.getNextRecordID());
+            checkRecords(ids);
+
+            store.closeRecordStore();
+            store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                    SUITE, NAME, false);
+            assertEquals("size after reopening", size, store.getSize());
+            checkRecords(ids);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that batches keep the secondary index up to date.
+     */
+    void testKeyIndex() throws Exception {
+        int[] ids = setUpBatch();
+
+        try {
+            store.setKeyExtractor(new TestRecordStoreKeyIndex.TailKey());
+            assertEquals("index built", NUM_RECORDS,
+                         store.getRecordIDsByKey(null, null).length);
+
+            int[] deleted = new int[NUM_RECORDS / 2];
+            for (int n = 0; n < deleted.length; n++) {
+                deleted[n] = ids[n * 2];
+                ids[n * 2] = 0;
+            }
+            store.deleteRecords(deleted);
+
+            byte[][] records = new byte[deleted.length][];
+            for (int n = 0; n < records.length; n++) {
+                records[n] = recordData(n * 2);
+            }
+            int[] newIds = store.addRecords(records);
+            for (int n = 0; n < newIds.length; n++) {
+                ids[n * 2] = newIds[n];
+            }
+
+            // each record is found by its own key
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                byte[] data = recordData(i);
+                if (data == null || data.length == 0) {
+                    continue;
+                }
+
+                byte[] key =
+                    new TestRecordStoreKeyIndex.TailKey().getKey(data);
+
+                int[] found = store.getRecordIDsByKey(key, key);
+                boolean match = false;
+                for (int n = 0; n < found.length; n++) {
+                    match |= (found[n] == ids[i]);
+                }
+                assertTrue("record " + i + " found by key", match);
+            }
+            assertEquals("index size", NUM_RECORDS,
+                         store.getRecordIDsByKey(null, null).length);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testGet");
+        testGet();
+
+        declare("testAdd");
+        testAdd();
+
+        declare("testDelete");
+        testDelete();
+
+        declare("testFull");
+        testFull();
+
+        declare("testKeyIndex");
+        testKeyIndex();
+    }
+}
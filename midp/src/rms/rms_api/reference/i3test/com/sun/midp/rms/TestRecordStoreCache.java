@@ -0,0 +1,198 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import javax.microedition.rms.InvalidRecordIDException;
+
+/**
+ * Tests the record cache of record stores.
+ */
+public class TestRecordStoreCache extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "TestRecordStoreCache";
+
+    /** Number of records added. */
+    static final int NUM_RECORDS = 20;
+
+    /** Record store under test. */
+    RecordStoreImpl store;
+
+    /**
+     * Creates the contents of a record.
+     *
+     * @param value first byte of the record
+     * @return record data
+     */
+    static byte[] recordData(int value) {
+        byte[] data = new byte[10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(value + i);
+        }
+        return data;
+    }
+
+    /**
+     * Creates the record store and fills it.
+     */
+    void setUp() throws Exception {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                SUITE, NAME, true);
+
+        for (int id = 1; id <= NUM_RECORDS; id++) {
+            byte[] data = recordData(id);
+            store.addRecord(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Closes and deletes the record store.
+     */
+    void tearDown() throws Exception {
+        store.closeRecordStore();
+        RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+    }
+
+    /**
+     * Checks that repeated reads are served from the cache and
+     * callers get their own copy of the data.
+     */
+    void testHits() throws Exception {
+        setUp();
+
+        try {
+            byte[] data = store.getRecord(3);
+            RecordStoreCacheStatistics stats = store.getCacheStatistics();
+            assertEquals("misses", 1, stats.getMisses());
+            assertEquals("hits", 0, stats.getHits());
+
+            data[0] = 0;
+            data = store.getRecord(3);
+            assertEquals("copy", 3, data[0]);
+
+            byte[] buffer = new byte[12];
+            assertEquals("size", 10, store.getRecord(3, buffer, 2));
+            assertEquals("offset", 3, buffer[2]);
+            assertEquals("record size", 10, store.getRecordSize(3));
+
+            stats = store.getCacheStatistics();
+            assertEquals("misses", 1, stats.getMisses());
+            assertEquals("hits", 3, stats.getHits());
+            assertEquals("records", 1, stats.getRecordCount());
+            assertEquals("hit percentage", 75, stats.getHitPercentage());
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that changed and deleted records are not served from
+     * the cache, also by another instance of the record store.
+     */
+    void testInvalidation() throws Exception {
+        setUp();
+
+        RecordStoreImpl other = RecordStoreImpl.openRecordStore(
+            getSecurityToken(), SUITE, NAME, false);
+
+        try {
+            store.getRecord(5);
+            store.getRecord(6);
+            other.getRecord(5);
+            assertEquals("shared", 1,
+                         other.getCacheStatistics().getHits());
+
+            byte[] data = recordData(50);
+            other.setRecord(5, data, 0, data.length);
+            assertEquals("changed", 50, store.getRecord(5)[0]);
+
+            other.deleteRecord(6);
+            try {
+                store.getRecord(6);
+                fail("deleted record found");
+            } catch (InvalidRecordIDException e) {
+                // expected
+            }
+
+            store.setRecord(7, null, 0, 0);
+            assertTrue("empty", store.getRecord(7) == null);
+            assertTrue("empty again", other.getRecord(7) == null);
+        } finally {
+            other.closeRecordStore();
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that the cache stays within its memory limit.
+     */
+    void testLimit() throws Exception {
+        setUp();
+
+        try {
+            byte[] data = new byte[RMSConfig.RMS_RECORD_CACHE_SIZE / 10];
+            for (int i = 0; i < 20; i++) {
+                int id = store.addRecord(data, 0, data.length);
+                store.getRecord(id);
+            }
+
+            RecordStoreCacheStatistics stats = store.getCacheStatistics();
+            assertTrue("records cached", stats.getRecordCount() > 0);
+            assertTrue("limit", stats.getTotalSize() <=
+                       RMSConfig.RMS_RECORD_CACHE_SIZE);
+
+            // too large to be cached
+            data = new byte[RMSConfig.RMS_RECORD_CACHE_SIZE / 4];
+            int id = store.addRecord(data, 0, data.length);
+            store.getRecord(id);
+            store.getRecord(id);
+            assertEquals("not cached", 0,
+                         store.getCacheStatistics().getHits() -
+                         stats.getHits());
+        } finally {
+            tearDown();
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testHits");
+        testHits();
+
+        declare("testInvalidation");
+        testInvalidation();
+
+        declare("testLimit");
+        testLimit();
+    }
+}
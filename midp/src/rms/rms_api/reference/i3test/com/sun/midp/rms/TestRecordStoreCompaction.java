@@ -0,0 +1,179 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+
+/**
+ * Tests incremental compaction of record stores.
+ */
+public class TestRecordStoreCompaction extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "TestRecordStoreCompaction";
+
+    /** Number of records added. */
+    static final int NUM_RECORDS = 40;
+
+    /** Record store under test. */
+    RecordStoreImpl store;
+
+    /**
+     * Creates the contents of a record.
+     *
+     * @param recordId ID of the record
+     * @return record data
+     */
+    static byte[] recordData(int recordId) {
+        byte[] data = new byte[recordId * 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(recordId + i);
+        }
+        return data;
+    }
+
+    /**
+     * Checks that the remaining records are intact.
+     */
+    void checkRecords() throws Exception {
+        for (int id = 1; id <= NUM_RECORDS; id++) {
+            if (id % 2 == 0) {
+                continue;
+            }
+
+            byte[] expected = recordData(id);
+            byte[] data = store.getRecord(id);
+
+            assertEquals("record " + id + " size",
+                         expected.length, data.length);
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] != expected[i]) {
+                    fail("record " + id + " corrupted");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the record store and deletes every second record.
+     */
+    void setUp() throws Exception {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                SUITE, NAME, true);
+
+        for (int id = 1; id <= NUM_RECORDS; id++) {
+            byte[] data = recordData(id);
+            store.addRecord(data, 0, data.length);
+        }
+
+        for (int id = 2; id <= NUM_RECORDS; id += 2) {
+            store.deleteRecord(id);
+        }
+    }
+
+    /**
+     * Closes and deletes the record store.
+     */
+    void tearDown() throws Exception {
+        store.closeRecordStore();
+        RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+    }
+
+    /**
+     * Checks the fragmentation statistics of a store with holes.
+     */
+    void testFragmentation() throws Exception {
+        setUp();
+
+        try {
+            RecordStoreFragmentation stats = store.getFragmentation();
+
+            assertEquals("free blocks", NUM_RECORDS / 2,
+                         stats.getFreeBlockCount());
+            assertEquals("data size", store.getSize() -
+                         AbstractRecordStoreImpl.DB_HEADER_SIZE,
+                         stats.getDataSize());
+            assertTrue("free size", stats.getFreeSize() > 0);
+            assertTrue("largest free block",
+                       stats.getLargestFreeBlock() <= stats.getFreeSize());
+            assertTrue("percentage", stats.getFreePercentage() > 0 &&
+                       stats.getFreePercentage() < 100);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Compacts the store step by step and checks that the records
+     * survive every step.
+     */
+    void testIncrementalCompaction() throws Exception {
+        setUp();
+
+        try {
+            int sizeBefore = store.getSize();
+            int freeBefore = store.getFragmentation().getFreeSize();
+            int steps = 0;
+
+            while (store.compactIncrementally(2)) {
+                checkRecords();
+                steps++;
+                if (steps > NUM_RECORDS) {
+                    fail("compaction does not finish");
+                    return;
+                }
+            }
+
+            RecordStoreFragmentation stats = store.getFragmentation();
+            assertEquals("free blocks", 0, stats.getFreeBlockCount());
+            assertEquals("size", sizeBefore - freeBefore, store.getSize());
+            assertEquals("records", NUM_RECORDS / 2, store.getNumRecords());
+            checkRecords();
+
+            // new records still go into the compacted file
+            byte[] data = recordData(5);
+            assertEquals("next id", NUM_RECORDS + 1,
+                         store.addRecord(data, 0, data.length));
+        } finally {
+            tearDown();
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testFragmentation");
+        testFragmentation();
+
+        declare("testIncrementalCompaction");
+        testIncrementalCompaction();
+    }
+}
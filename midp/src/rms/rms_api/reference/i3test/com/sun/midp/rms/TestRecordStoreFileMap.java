@@ -0,0 +1,297 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import java.io.IOException;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+
+/**
+ * Tests record store files kept in memory by midp_file_map.c: the
+ * handles opening a file share its contents, and files that don't fit
+ * into RMSConfig.RMS_MAPPED_FILE_LIMIT are accessed in storage. Only
+ * built with USE_RMS_MAPPED_FILES=true.
+ */
+public class TestRecordStoreFileMap extends TestCase {
+
+    /** The suite used when creating files. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name used when creating files. */
+    static final String NAME = "TestRecordStoreFileMap";
+
+    /** Size of a file that cannot be kept in memory. */
+    static final int LARGE_SIZE = RMSConfig.RMS_MAPPED_FILE_LIMIT * 2 + 100;
+
+    /** Number of files sharing the memory limit in testManyFiles. */
+    static final int NUM_FILES = 5;
+
+    /**
+     * Creates a byte array filled with the given value.
+     *
+     * @param size size of the array
+     * @param value value of the array elements
+     * @return the array
+     */
+    static byte[] fill(int size, int value) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)value;
+        }
+        return data;
+    }
+
+    /**
+     * Opens a database file.
+     *
+     * @param name name of the record store
+     * @return the file
+     */
+    static RecordStoreFile open(String name) throws IOException {
+        return new RecordStoreFile(SUITE, name,
+            AbstractRecordStoreFile.DB_EXTENSION);
+    }
+
+    /**
+     * Writes a file in pieces, the bytes of each piece set to its index.
+     *
+     * @param file file to write
+     * @param size size of the data
+     * @param piece size of the pieces
+     */
+    static void writePieces(RecordStoreFile file, int size, int piece)
+            throws IOException {
+        for (int pos = 0, i = 0; pos < size; pos += piece, i++) {
+            file.write(fill(Math.min(piece, size - pos), i));
+        }
+    }
+
+    /**
+     * Reads a file from its start and checks it holds the pieces
+     * written by writePieces.
+     *
+     * @param message assertion message
+     * @param file file to read
+     * @param size size of the data
+     * @param piece size of the pieces
+     */
+    void checkPieces(String message, RecordStoreFile file, int size,
+                     int piece) throws IOException {
+        byte[] data = new byte[size + 1];
+        int total = 0;
+        int count;
+
+        file.seek(0);
+        while (total < data.length &&
+               (count = file.read(data, total, data.length - total)) > 0) {
+            total += count;
+        }
+
+        assertEquals(message + ", size", size, total);
+        for (int i = 0; i < size; i++) {
+            if (data[i] != (byte)(i / piece)) {
+                fail(message + ", byte " + i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Deletes a database file.
+     *
+     * @param name name of the record store
+     */
+    static void delete(String name) {
+        RecordStoreUtil.quietDeleteFile(
+            RmsEnvironment.getSecureFilenameBase(SUITE), name,
+            AbstractRecordStoreFile.DB_EXTENSION);
+    }
+
+    /**
+     * Checks that writes through one handle are read through another
+     * before they are committed, and that every handle keeps its own
+     * position.
+     */
+    void testSharedChanges() throws IOException {
+        RecordStoreFile a = open(NAME);
+        RecordStoreFile b = open(NAME);
+
+        try {
+            byte[] data = new byte[1000];
+
+            a.write(fill(1000, 1));
+            assertEquals("read other's write", 1000, b.read(data));
+            assertEquals(1, data[999]);
+
+            a.seek(500);
+            a.write(fill(100, 2));
+            b.seek(500);
+            assertEquals("read other's change", 100, b.read(data, 0, 100));
+            assertEquals(2, data[0]);
+            assertEquals(2, data[99]);
+
+            // b's reads left a at the end of its write
+            a.write(fill(10, 3));
+            b.seek(600);
+            assertEquals("own position", 10, b.read(data, 0, 10));
+            assertEquals(3, data[0]);
+        } finally {
+            a.close();
+            b.close();
+            delete(NAME);
+        }
+    }
+
+    /**
+     * Checks that the contents written while the file was in memory
+     * are in storage once the file is closed.
+     */
+    void testReopen() throws IOException {
+        RecordStoreFile file = open(NAME);
+
+        try {
+            writePieces(file, 5000, 700);
+            file.seek(1400);
+            file.write(fill(700, 2));
+            file.close();
+
+            file = open(NAME);
+            checkPieces("reopened", file, 5000, 700);
+        } finally {
+            file.close();
+            delete(NAME);
+        }
+    }
+
+    /**
+     * Checks that a file growing beyond the limit is written back and
+     * read correctly from storage through all of its handles.
+     */
+    void testLargeFile() throws IOException {
+        RecordStoreFile a = open(NAME);
+        RecordStoreFile b = open(NAME);
+
+        try {
+            writePieces(a, LARGE_SIZE, 1000);
+            checkPieces("other handle", b, LARGE_SIZE, 1000);
+            checkPieces("own handle", a, LARGE_SIZE, 1000);
+            a.close();
+            b.close();
+
+            a = open(NAME);
+            b = open(NAME);
+            checkPieces("reopened", a, LARGE_SIZE, 1000);
+            b.seek(LARGE_SIZE);
+            b.write(fill(10, LARGE_SIZE / 1000));
+            checkPieces("appended", a, LARGE_SIZE + 10, 1000);
+        } finally {
+            a.close();
+            b.close();
+            delete(NAME);
+        }
+    }
+
+    /**
+     * Checks that a file truncated through one handle is shorter for
+     * the others.
+     */
+    void testTruncate() throws IOException {
+        RecordStoreFile a = open(NAME);
+        RecordStoreFile b = open(NAME);
+
+        try {
+            writePieces(a, 3000, 500);
+            b.truncate(1000);
+            checkPieces("truncated", a, 1000, 500);
+
+            a.seek(1000);
+            a.write(fill(500, 2));
+            checkPieces("grown again", b, 1500, 500);
+            a.close();
+
+            a = open(NAME);
+            checkPieces("reopened", a, 1500, 500);
+        } finally {
+            a.close();
+            b.close();
+            delete(NAME);
+        }
+    }
+
+    /**
+     * Checks files that together don't fit into the limit, so that some
+     * of them are kept in memory and the others in storage.
+     */
+    void testManyFiles() throws IOException {
+        RecordStoreFile[] files = new RecordStoreFile[NUM_FILES];
+        int size = RMSConfig.RMS_MAPPED_FILE_LIMIT / 3;
+
+        try {
+            for (int i = 0; i < NUM_FILES; i++) {
+                files[i] = open(NAME + i);
+                writePieces(files[i], size + i, 300 + i);
+            }
+
+            for (int i = 0; i < NUM_FILES; i++) {
+                checkPieces("file " + i, files[i], size + i, 300 + i);
+                files[i].close();
+                files[i] = null;
+            }
+
+            for (int i = NUM_FILES - 1; i >= 0; i--) {
+                files[i] = open(NAME + i);
+                checkPieces("reopened " + i, files[i], size + i, 300 + i);
+            }
+        } finally {
+            for (int i = 0; i < NUM_FILES; i++) {
+                if (files[i] != null) {
+                    files[i].close();
+                }
+                delete(NAME + i);
+            }
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testSharedChanges");
+        testSharedChanges();
+
+        declare("testReopen");
+        testReopen();
+
+        declare("testLargeFile");
+        testLargeFile();
+
+        declare("testTruncate");
+        testTruncate();
+
+        declare("testManyFiles");
+        testManyFiles();
+    }
+}
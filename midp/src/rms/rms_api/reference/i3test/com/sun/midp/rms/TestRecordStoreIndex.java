@@ -0,0 +1,228 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+
+/**
+ * Tests the record store index of record stores growing past
+ * RMSConfig.RMS_INDEX_THRESHOLD records, from which they are fully
+ * indexed instead of searched linearly.
+ */
+public class TestRecordStoreIndex extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "TestRecordStoreIndex";
+
+    /** Number of records added. */
+    static final int NUM_RECORDS = RMSConfig.RMS_INDEX_THRESHOLD * 2 + 1;
+
+    /** Record store under test. */
+    RecordStoreImpl store;
+
+    /**
+     * Creates the contents of a record.
+     *
+     * @param recordId ID of the record
+     * @return record data
+     */
+    static byte[] recordData(int recordId) {
+        byte[] data = new byte[recordId % 17 + 4];
+        RecordStoreUtil.putInt(recordId, data, 0);
+        return data;
+    }
+
+    /**
+     * Checks that the record store contains the records not deleted
+     * by setUp().
+     */
+    void checkRecords() throws Exception {
+        int[] ids = store.getRecordIDs();
+        boolean[] found = new boolean[NUM_RECORDS + 1];
+
+        assertEquals("number of IDs", NUM_RECORDS - NUM_RECORDS / 3,
+                     ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertTrue("ID " + ids[i], ids[i] > 0 && ids[i] <= NUM_RECORDS &&
+                       ids[i] % 3 != 0 && !found[ids[i]]);
+            found[ids[i]] = true;
+        }
+
+        for (int id = 1; id <= NUM_RECORDS; id++) {
+            if (id % 3 == 0) {
+                try {
+                    store.getRecord(id);
+                    fail("deleted record " + id);
+                } catch (javax.microedition.rms.InvalidRecordIDException e) {
+                    // expected
+                }
+                continue;
+            }
+
+            byte[] data = store.getRecord(id);
+            assertEquals("record " + id + " size",
+                         recordData(id).length, data.length);
+            assertEquals("record " + id, id, RecordStoreUtil.getInt(data, 0));
+        }
+    }
+
+    /**
+     * Fills the record store and deletes every third record.
+     */
+    void setUp() throws Exception {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                SUITE, NAME, true);
+
+        for (int id = 1; id <= NUM_RECORDS; id++) {
+            byte[] data = recordData(id);
+            store.addRecord(data, 0, data.length);
+        }
+
+        for (int id = 3; id <= NUM_RECORDS; id += 3) {
+            store.deleteRecord(id);
+        }
+    }
+
+    /**
+     * Closes and deletes the record store.
+     */
+    void tearDown() throws Exception {
+        store.closeRecordStore();
+        RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+    }
+
+    /**
+     * Checks the records found through the index.
+     */
+    void testLookup() throws Exception {
+        setUp();
+
+        try {
+            checkRecords();
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that the index survives reopening the record store and
+     * keeps track of records changed after that.
+     */
+    void testReopen() throws Exception {
+        setUp();
+
+        try {
+            store.closeRecordStore();
+            store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                    SUITE, NAME, false);
+            checkRecords();
+
+            // larger data moves the records to new blocks
+            byte[] data = new byte[64];
+            for (int id = 1; id <= NUM_RECORDS; id += 3) {
+                RecordStoreUtil.putInt(id, data, 0);
+                store.setRecord(id, data, 0, data.length);
+            }
+
+            store.closeRecordStore();
+            store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                    SUITE, NAME, false);
+
+            for (int id = 1; id <= NUM_RECORDS; id += 3) {
+                assertEquals("record " + id + " size", data.length,
+                             store.getRecordSize(id));
+                assertEquals("record " + id, id,
+                             RecordStoreUtil.getInt(store.getRecord(id), 0));
+            }
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that free blocks are found and reused, and that compaction
+     * keeps the index consistent.
+     */
+    void testFreeBlocks() throws Exception {
+        setUp();
+
+        try {
+            // looked up once to index the record store
+            checkRecords();
+
+            try {
+                store.getRecord(NUM_RECORDS + 1);
+                fail("invalid record found");
+            } catch (javax.microedition.rms.InvalidRecordIDException e) {
+                // expected
+            }
+
+            // records of the size of deleted ones go into freed blocks
+            int size = store.getSize();
+            int nextId = store.getNextRecordID();
+            for (int id = 3; id <= NUM_RECORDS; id += 3) {
+                byte[] data = recordData(id);
+                store.addRecord(data, 0, data.length);
+            }
+            assertEquals("free blocks reused", size, store.getSize());
+
+            for (int id = nextId; id < store.getNextRecordID(); id++) {
+                assertEquals("record " + id + " size",
+                             recordData((id - nextId + 1) * 3).length,
+                             store.getRecordSize(id));
+            }
+
+            // free the blocks again and move the records over them
+            for (int id = nextId; id < store.getNextRecordID(); id++) {
+                store.deleteRecord(id);
+            }
+            while (store.compactIncrementally(4)) {
+                // compact one step at a time
+            }
+            assertTrue("compacted", store.getSize() < size);
+            checkRecords();
+        } finally {
+            tearDown();
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testLookup");
+        testLookup();
+
+        declare("testReopen");
+        testReopen();
+
+        declare("testFreeBlocks");
+        testFreeBlocks();
+    }
+}
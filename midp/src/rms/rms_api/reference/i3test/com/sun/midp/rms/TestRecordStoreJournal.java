@@ -0,0 +1,310 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import java.io.IOException;
+
+/**
+ * Tests the write-ahead journal of record store files.
+ * RecordStoreJournal is a private class inside com.sun.midp.rms,
+ * so that's why this test resides in that package.
+ */
+public class TestRecordStoreJournal extends TestCase {
+
+    /** The suite used when creating files. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name used when creating files. */
+    static final String NAME = "TestRecordStoreJournal";
+
+    /** Journal under test. */
+    RecordStoreJournal journal;
+
+    /**
+     * Creates a byte array filled with the given value.
+     *
+     * @param size size of the array
+     * @param value value of the array elements
+     * @return the array
+     */
+    static byte[] fill(int size, int value) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)value;
+        }
+        return data;
+    }
+
+    /**
+     * Opens the database file and a journal on it.
+     *
+     * @param enabled true if journaling should be turned on
+     * @return the journal
+     */
+    RecordStoreJournal openJournal(boolean enabled) throws IOException {
+        RecordStoreFile dbFile = new RecordStoreFile(SUITE, NAME,
+            AbstractRecordStoreFile.DB_EXTENSION);
+        return new RecordStoreJournal(SUITE, NAME, dbFile, enabled);
+    }
+
+    /**
+     * Reads the database file bypassing the journal.
+     *
+     * @param size number of bytes to read
+     * @return the data, shorter if the file is shorter
+     */
+    byte[] readDbFile(int size) throws IOException {
+        RecordStoreFile dbFile = new RecordStoreFile(SUITE, NAME,
+            AbstractRecordStoreFile.DB_EXTENSION);
+        try {
+            byte[] data = new byte[size];
+            int count = dbFile.read(data);
+            if (count == size) {
+                return data;
+            }
+
+            byte[] shortData = new byte[(count > 0) ? count : 0];
+            System.arraycopy(data, 0, shortData, 0, shortData.length);
+            return shortData;
+        } finally {
+            dbFile.close();
+        }
+    }
+
+    /**
+     * Closes the journal and deletes the files.
+     */
+    void cleanUp() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ioe) { }
+            journal = null;
+        }
+
+        String base = RmsEnvironment.getSecureFilenameBase(SUITE);
+        RecordStoreUtil.quietDeleteFile(base, NAME,
+            AbstractRecordStoreFile.DB_EXTENSION);
+        RecordStoreUtil.quietDeleteFile(base, NAME,
+            AbstractRecordStoreFile.JNL_EXTENSION);
+    }
+
+    /**
+     * Checks that reads see the journaled writes before the
+     * database file does.
+     */
+    void testOverlay() throws IOException {
+        try {
+            journal = openJournal(true);
+
+            journal.write(fill(32, 1));
+            journal.seek(16);
+            journal.write(fill(32, 2));
+            journal.seek(56);
+            journal.write(fill(8, 3));
+            journal.commit();
+
+            assertEquals("db file untouched", 0, readDbFile(64).length);
+
+            byte[] data = new byte[64];
+            journal.seek(0);
+            assertEquals("overlay size", 64, journal.read(data));
+            assertEquals(1, data[15]);
+            assertEquals(2, data[16]);
+            assertEquals(2, data[47]);
+            assertEquals(3, data[56]);
+            assertEquals(3, data[63]);
+
+            journal.checkpoint();
+            data = readDbFile(64);
+            assertEquals("checkpointed size", 64, data.length);
+            assertEquals(1, data[0]);
+            assertEquals(2, data[40]);
+            assertEquals(3, data[60]);
+        } finally {
+            cleanUp();
+        }
+    }
+
+    /**
+     * Checks that committed changes are replayed and changes without
+     * a commit mark are dropped when the record store is reopened.
+     */
+    void testRecovery() throws IOException {
+        try {
+            journal = openJournal(true);
+
+            journal.write(fill(16, 5));
+            journal.commit();
+            journal.seek(16);
+            journal.write(fill(16, 6));
+            // no commit mark, as after a crash in the middle of a change
+            journal.commitWrite();
+
+            RecordStoreJournal reopened = openJournal(false);
+            reopened.close();
+
+            byte[] data = readDbFile(32);
+            assertEquals("replayed size", 16, data.length);
+            assertEquals(5, data[15]);
+
+            assertFalse("journal removed", RecordStoreUtil.exists(
+                RmsEnvironment.getSecureFilenameBase(SUITE), NAME,
+                AbstractRecordStoreFile.JNL_EXTENSION));
+        } finally {
+            cleanUp();
+        }
+    }
+
+    /**
+     * Checks that a transaction is aborted if another user of the
+     * record store replays the journal in the middle of it.
+     */
+    void testAbortedTransaction() throws IOException {
+        try {
+            journal = openJournal(true);
+            journal.recordStoreLocked(true, 1);
+
+            journal.beginTransaction();
+            journal.write(fill(16, 7));
+            journal.commitWrite();
+            journal.recordStoreAboutToBeUnlocked(1);
+
+            RecordStoreJournal other = openJournal(true);
+            other.close();
+
+            journal.recordStoreLocked(true, 2);
+            assertFalse("aborted", journal.commitTransaction());
+            assertEquals("nothing replayed", 0, readDbFile(16).length);
+        } finally {
+            cleanUp();
+        }
+    }
+
+    /**
+     * Checks that an aborted transaction is rolled back, with journaling
+     * turned on and off, unless its changes were checkpointed.
+     */
+    void testRollback() throws IOException {
+        try {
+            journal = openJournal(true);
+
+            journal.write(fill(16, 1));
+            journal.commit();
+            journal.beginTransaction();
+            journal.seek(8);
+            journal.write(fill(16, 2));
+            journal.seek(40);
+            journal.write(fill(8, 3));
+            assertTrue("rolled back", journal.abortTransaction());
+            assertFalse("no transaction", journal.isInTransaction());
+
+            byte[] data = new byte[48];
+            journal.seek(0);
+            assertEquals("overlay size", 16, journal.read(data));
+            assertEquals(1, data[8]);
+            assertEquals(1, data[15]);
+
+            journal.close();
+            journal = null;
+            data = readDbFile(48);
+            assertEquals("db size", 16, data.length);
+            assertEquals(1, data[15]);
+
+            journal = openJournal(false);
+            journal.beginTransaction();
+            journal.seek(8);
+            journal.write(fill(16, 4));
+            assertTrue("rolled back unjournaled", journal.abortTransaction());
+            assertEquals("db unchanged", 16, readDbFile(48).length);
+            assertFalse("journal removed", RecordStoreUtil.exists(
+                RmsEnvironment.getSecureFilenameBase(SUITE), NAME,
+                AbstractRecordStoreFile.JNL_EXTENSION));
+            journal.close();
+
+            journal = openJournal(true);
+            journal.beginTransaction();
+            journal.seek(0);
+            journal.write(fill(8, 5));
+            journal.checkpoint();
+            journal.write(fill(8, 6));
+            assertFalse("checkpointed", journal.abortTransaction());
+            journal.close();
+            journal = null;
+            data = readDbFile(48);
+            assertEquals("committed instead", 5, data[0]);
+            assertEquals("committed instead", 6, data[8]);
+        } finally {
+            cleanUp();
+        }
+    }
+
+    /**
+     * Checks that records added in a transaction survive reopening
+     * the record store.
+     */
+    void testTransaction() throws Exception {
+        RecordStoreImpl store = RecordStoreImpl.openRecordStore(
+            getSecurityToken(), SUITE, NAME, true);
+
+        try {
+            store.beginTransaction();
+            store.addRecord(fill(10, 1), 0, 10);
+            store.addRecord(fill(20, 2), 0, 20);
+            store.commitTransaction();
+            store.closeRecordStore();
+
+            store = RecordStoreImpl.openRecordStore(
+                getSecurityToken(), SUITE, NAME, false);
+            assertEquals("records", 2, store.getNumRecords());
+            assertEquals("record size", 20, store.getRecordSize(2));
+        } finally {
+            store.closeRecordStore();
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testOverlay");
+        testOverlay();
+
+        declare("testRecovery");
+        testRecovery();
+
+        declare("testAbortedTransaction");
+        testAbortedTransaction();
+
+        declare("testRollback");
+        testRollback();
+
+        declare("testTransaction");
+        testTransaction();
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import com.sun.midp.rms.index.RecordKeyExtractor;
+
+/**
+ * Tests the secondary index of record stores.
+ */
+public class TestRecordStoreKeyIndex extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "TestRecordStoreKeyIndex";
+
+    /** Number of records added, enough for a tree of several levels. */
+    static final int NUM_RECORDS = 500;
+
+    /** Record store under test. */
+    RecordStoreImpl store;
+
+    /**
+     * Uses the record data without its first byte as the key, so
+     * that records can have equal keys.
+     */
+    public static class TailKey implements RecordKeyExtractor {
+        /**
+         * Returns the sort key of a record.
+         *
+         * @param data the record data
+         *
+         * @return the key
+         */
+        public byte[] getKey(byte[] data) {
+            if (data == null) {
+                return null;
+            }
+
+            byte[] key = new byte[data.length - 1];
+            System.arraycopy(data, 1, key, 0, key.length);
+            return key;
+        }
+    }
+
+    /**
+     * Creates the contents of a record. Keys repeat and some of them
+     * are longer than the key size.
+     *
+     * @param n number of the record
+     * @return record data
+     */
+    static byte[] recordData(int n) {
+        int value = (n * 7919) % 211;
+        byte[] data = new byte[1 + 1 + (value % 3) * 10];
+        data[0] = (byte)n;
+        for (int i = 1; i < data.length; i++) {
+            data[i] = (byte)(value * 3 + i);
+        }
+        return data;
+    }
+
+    /**
+     * Compares two keys as stored in the index.
+     *
+     * @param key1 the first key
+     * @param key2 the second key
+     * @return negative, zero or positive
+     */
+    static int compareKeys(byte[] key1, byte[] key2) {
+        int length1 = Math.min(key1.length, RecordKeyExtractor.KEY_SIZE);
+        int length2 = Math.min(key2.length, RecordKeyExtractor.KEY_SIZE);
+
+        for (int i = 0; i < length1 && i < length2; i++) {
+            int diff = (key1[i] & 0xff) - (key2[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return length1 - length2;
+    }
+
+    /**
+     * Gets the key of a record.
+     *
+     * @param recordId ID of the record
+     * @return the key, empty for an empty record
+     */
+    byte[] getKey(int recordId) throws Exception {
+        byte[] key = new TailKey().getKey(store.getRecord(recordId));
+        return (key == null) ? new byte[0] : key;
+    }
+
+    /**
+     * Checks that an index scan returns the records of a range in
+     * key order, and nothing else.
+     *
+     * @param lowKey lowest key or null
+     * @param highKey highest key or null
+     */
+    void checkScan(byte[] lowKey, byte[] highKey) throws Exception {
+        int[] all = store.getRecordIDs();
+        int expected = 0;
+
+        for (int i = 0; i < all.length; i++) {
+            byte[] key = getKey(all[i]);
+            if ((lowKey == null || compareKeys(key, lowKey) >= 0) &&
+                    (highKey == null || compareKeys(key, highKey) <= 0)) {
+                expected++;
+            }
+        }
+
+        int[] ids = store.getRecordIDsByKey(lowKey, highKey);
+        assertEquals("number of records", expected, ids.length);
+
+        byte[] previousKey = null;
+        int previousId = 0;
+        for (int i = 0; i < ids.length; i++) {
+            byte[] key = getKey(ids[i]);
+
+            if (lowKey != null && compareKeys(key, lowKey) < 0 ||
+                    highKey != null && compareKeys(key, highKey) > 0) {
+                fail("record " + ids[i] + " out of range");
+                return;
+            }
+
+            if (previousKey != null) {
+                int diff = compareKeys(previousKey, key);
+                if (diff > 0 || (diff == 0 && previousId >= ids[i])) {
+                    fail("record " + ids[i] + " out of order");
+                    return;
+                }
+            }
+
+            previousKey = key;
+            previousId = ids[i];
+        }
+    }
+
+    /**
+     * Creates the record store with the index declared.
+     */
+    void setUp() throws Exception {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                SUITE, NAME, true);
+        store.setKeyExtractor(new TailKey());
+
+        for (int n = 1; n <= NUM_RECORDS; n++) {
+            byte[] data = recordData(n);
+            store.addRecord(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Closes and deletes the record store.
+     */
+    void tearDown() throws Exception {
+        store.closeRecordStore();
+        RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+    }
+
+    /**
+     * Checks full and range scans of the index.
+     */
+    void testScan() throws Exception {
+        setUp();
+
+        try {
+            checkScan(null, null);
+            checkScan(recordData(10), null);
+            checkScan(null, recordData(10));
+            checkScan(recordData(3), recordData(20));
+            checkScan(recordData(20), recordData(3));
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that the index follows changes of the records.
+     */
+    void testUpdates() throws Exception {
+        setUp();
+
+        try {
+            for (int n = 1; n <= NUM_RECORDS; n += 3) {
+                store.deleteRecord(n);
+            }
+
+            for (int n = 2; n <= NUM_RECORDS; n += 3) {
+                byte[] data = recordData(n * 5);
+                store.setRecord(n, data, 0, data.length);
+            }
+
+            // empty records have an empty key
+            store.addRecord(null, 0, 0);
+
+            checkScan(null, null);
+            checkScan(recordData(10), recordData(40));
+
+            // delete everything, the tree shrinks to an empty leaf
+            int[] ids = store.getRecordIDs();
+            for (int i = 0; i < ids.length; i++) {
+                store.deleteRecord(ids[i]);
+            }
+            assertEquals("empty", 0,
+                         store.getRecordIDsByKey(null, null).length);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Uses the whole record data as the key, to check that an index
+     * saved by another extractor class is not reused.
+     */
+    public static class WholeKey implements RecordKeyExtractor {
+        /**
+         * Returns the sort key of a record.
+         *
+         * @param data the record data
+         *
+         * @return the key
+         */
+        public byte[] getKey(byte[] data) {
+            return data;
+        }
+    }
+
+    /**
+     * Checks that the saved index is only reused when an extractor of
+     * the same class is declared again, and rebuilt after changes made
+     * without the extractor.
+     */
+    void testReopen() throws Exception {
+        setUp();
+
+        try {
+            store.closeRecordStore();
+            store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                    SUITE, NAME, false);
+
+            // nothing is instantiated from the index file
+            assertTrue("no extractor", store.getKeyExtractor() == null);
+            assertTrue("no scan", store.getRecordIDsByKey(null, null) == null);
+
+            // change the records behind the back of the index
+            store.deleteRecord(5);
+            byte[] data = recordData(NUM_RECORDS + 1);
+            store.addRecord(data, 0, data.length);
+
+            store.setKeyExtractor(new TailKey());
+            checkScan(null, null);
+
+            // another extractor class replaces the index
+            store.setKeyExtractor(new WholeKey());
+            assertTrue("extractor replaced",
+                       store.getKeyExtractor() instanceof WholeKey);
+            int[] ids = store.getRecordIDsByKey(null, null);
+            assertEquals("all records", store.getNumRecords(), ids.length);
+
+            store.setKeyExtractor(null);
+            assertTrue("index dropped", store.getKeyExtractor() == null);
+            assertTrue("no scan", store.getRecordIDsByKey(null, null) == null);
+
+            store.setKeyExtractor(new TailKey());
+            checkScan(null, null);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that a scan reports the runs of records whose stored keys
+     * are equal, and nothing else.
+     */
+    void testRuns() throws Exception {
+        setUp();
+
+        try {
+            int[][] runs = new int[1][];
+            int[] ids = store.getRecordIDsByKey(null, null, runs);
+
+            // true for the records of a run but its first one
+            boolean[] inRun = new boolean[ids.length];
+            int previousEnd = 0;
+
+            assertTrue("runs found", runs[0].length > 0);
+            for (int r = 0; r < runs[0].length; r += 2) {
+                int first = runs[0][r];
+                int end = runs[0][r + 1];
+
+                assertTrue("run " + first, first >= previousEnd &&
+                           end - first >= 2 && end <= ids.length);
+                for (int i = first + 1; i < end; i++) {
+                    inRun[i] = true;
+                }
+                previousEnd = end;
+            }
+
+            for (int i = 1; i < ids.length; i++) {
+                boolean equal = compareKeys(getKey(ids[i - 1]),
+                                            getKey(ids[i])) == 0;
+                assertTrue("record " + i + " in a run", equal == inRun[i]);
+            }
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Reads the version saved in the index file.
+     *
+     * @return the version
+     */
+    static int getSavedVersion() throws Exception {
+        RecordStoreFile sdxFile = new RecordStoreFile(SUITE, NAME,
+            AbstractRecordStoreFile.SDX_EXTENSION);
+        byte[] data = new byte[4];
+
+        try {
+            sdxFile.seek(RecordStoreKeyIndex.SDX_VERSION);
+            sdxFile.read(data);
+        } finally {
+            sdxFile.close();
+        }
+
+        return RecordStoreUtil.getInt(data, 0);
+    }
+
+    /**
+     * Checks that the index stays marked as being changed while records
+     * change, and saves the version of the record store when it is
+     * closed, so that it is reused without being rebuilt.
+     */
+    void testVersion() throws Exception {
+        setUp();
+
+        try {
+            checkScan(null, null);
+            for (int n = 1; n <= 10; n++) {
+                byte[] data = recordData(NUM_RECORDS + n);
+                store.setRecord(n, data, 0, data.length);
+            }
+            assertEquals("marked while changing",
+                         RecordStoreKeyIndex.VERSION_CHANGING,
+                         getSavedVersion());
+            checkScan(null, null);
+
+            int version = store.getVersion();
+            store.closeRecordStore();
+            assertEquals("version saved", version, getSavedVersion());
+
+            store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                    SUITE, NAME, false);
+            store.setKeyExtractor(new TailKey());
+            checkScan(null, null);
+            assertEquals("version kept", version, getSavedVersion());
+
+            // the index is marked again by the next change
+            store.deleteRecord(1);
+            assertEquals("marked again",
+                         RecordStoreKeyIndex.VERSION_CHANGING,
+                         getSavedVersion());
+            checkScan(null, null);
+        } finally {
+            tearDown();
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testScan");
+        testScan();
+
+        declare("testUpdates");
+        testUpdates();
+
+        declare("testReopen");
+        testReopen();
+
+        declare("testRuns");
+        testRuns();
+
+        declare("testVersion");
+        testVersion();
+    }
+}
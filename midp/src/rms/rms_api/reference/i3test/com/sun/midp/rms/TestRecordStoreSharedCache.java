@@ -0,0 +1,164 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+
+/**
+ * Tests sharing of the header and of cached records between the
+ * users of a record store.
+ */
+public class TestRecordStoreSharedCache extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "TestRecordStoreSharedCache";
+
+    /** First user of the record store. */
+    RecordStoreImpl store1;
+
+    /** Second user of the record store. */
+    RecordStoreImpl store2;
+
+    /**
+     * Checks that two arrays have the same contents.
+     *
+     * @param message message to report on failure
+     * @param expected expected contents
+     * @param actual actual contents
+     */
+    void checkData(String message, byte[] expected, byte[] actual) {
+        assertNotNull(message, actual);
+        assertEquals(message + " size", expected.length, actual.length);
+        for (int i = 0; i < actual.length; i++) {
+            if (actual[i] != expected[i]) {
+                fail(message + " corrupted");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens the record store twice.
+     */
+    void setUp() throws Exception {
+        store1 = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                 SUITE, NAME, true);
+        store2 = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                 SUITE, NAME, false);
+    }
+
+    /**
+     * Closes and deletes the record store.
+     */
+    void tearDown() throws Exception {
+        store1.closeRecordStore();
+        store2.closeRecordStore();
+        RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+    }
+
+    /**
+     * Checks that the changes made by one user are seen by the other.
+     */
+    void testSharedHeader() throws Exception {
+        setUp();
+
+        try {
+            byte[] data = {1, 2, 3};
+            int id = store1.addRecord(data, 0, data.length);
+
+            assertEquals("records", 1, store2.getNumRecords());
+            assertEquals("version", store1.getVersion(), store2.getVersion());
+            checkData("record", data, store2.getRecord(id));
+
+            byte[] newData = {4, 5};
+            store2.setRecord(id, newData, 0, newData.length);
+            checkData("changed record", newData, store1.getRecord(id));
+            assertEquals("next id", store2.getNextRecordID(),
+                         store1.getNextRecordID());
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that a record cached by one user can be read by the other
+     * for the same record store version only.
+     */
+    void testSharedRecords() throws Exception {
+        setUp();
+
+        try {
+            byte[] data1 = {1, 2, 3};
+            byte[] data2 = {4};
+            int version = store1.getVersion();
+
+            store1.dbHeader.putCachedRecord(1, version, data1);
+            store1.dbHeader.putCachedRecord(2, version, data2);
+            store1.dbHeader.putCachedRecord(3, version, new byte[0]);
+
+            checkData("record 1", data1,
+                      store2.dbHeader.getCachedRecord(1, version));
+            checkData("empty record", new byte[0],
+                      store2.dbHeader.getCachedRecord(3, version));
+            assertNull("not cached",
+                       store2.dbHeader.getCachedRecord(4, version));
+
+            // a change drops the record and moves to the next version
+            store2.dbHeader.cachedRecordChanged(1, version + 1);
+            assertNull("changed record",
+                       store1.dbHeader.getCachedRecord(1, version + 1));
+            checkData("record 2", data2,
+                      store1.dbHeader.getCachedRecord(2, version + 1));
+
+            // another version drops all the records
+            assertNull("other version",
+                       store1.dbHeader.getCachedRecord(2, version + 5));
+            assertNull("dropped record",
+                       store1.dbHeader.getCachedRecord(2, version + 1));
+
+            store1.dbHeader.putCachedRecord(2, version, data2);
+            store2.dbHeader.clearCachedRecords();
+            assertNull("cleared record",
+                       store1.dbHeader.getCachedRecord(2, version));
+        } finally {
+            tearDown();
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testSharedHeader");
+        testSharedHeader();
+
+        declare("testSharedRecords");
+        testSharedRecords();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import java.io.IOException;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+
+/**
+ * Tests the index file of the tree record store index: it is created
+ * when a record store reaches RMSConfig.RMS_INDEX_THRESHOLD records,
+ * and rebuilt from the database file when it is missing or has
+ * another node layout. Only built with USE_RMS_TREE_INDEX=true.
+ */
+public class TestRecordStoreTreeIndex extends TestCase {
+
+    /** The suite used when creating record stores. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The record store name. */
+    static final String NAME = "TestRecordStoreTreeIndex";
+
+    /** Number of records added, enough for several levels of nodes. */
+    static final int NUM_RECORDS = RMSConfig.RMS_INDEX_THRESHOLD +
+        RMSConfig.RMS_INDEX_NODE_ELEMENTS * 4;
+
+    /** Record store under test. */
+    RecordStoreImpl store;
+
+    /**
+     * Creates the contents of a record.
+     *
+     * @param recordId ID of the record
+     * @return record data
+     */
+    static byte[] recordData(int recordId) {
+        byte[] data = new byte[recordId % 13 + 4];
+        RecordStoreUtil.putInt(recordId, data, 0);
+        return data;
+    }
+
+    /**
+     * Tells whether the record store has an index file.
+     *
+     * @return true if the index file exists
+     */
+    static boolean indexExists() {
+        return RecordStoreUtil.exists(
+            RmsEnvironment.getSecureFilenameBase(SUITE), NAME,
+            AbstractRecordStoreFile.IDX_EXTENSION);
+    }
+
+    /**
+     * Opens the record store.
+     *
+     * @param create true to create the record store
+     */
+    void open(boolean create) throws Exception {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(),
+                                                SUITE, NAME, create);
+    }
+
+    /**
+     * Adds records with the IDs from the next one up to the given one.
+     *
+     * @param lastId ID of the last record added
+     */
+    void addRecords(int lastId) throws Exception {
+        for (int id = store.getNextRecordID(); id <= lastId; id++) {
+            byte[] data = recordData(id);
+            store.addRecord(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Checks that the record store holds the records 1 to NUM_RECORDS
+     * except every fourth one.
+     */
+    void checkRecords() throws Exception {
+        int[] ids = store.getRecordIDs();
+        boolean[] found = new boolean[NUM_RECORDS + 1];
+
+        assertEquals("number of IDs", NUM_RECORDS - NUM_RECORDS / 4,
+                     ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertTrue("ID " + ids[i], ids[i] > 0 && ids[i] <= NUM_RECORDS &&
+                       ids[i] % 4 != 0 && !found[ids[i]]);
+            found[ids[i]] = true;
+        }
+
+        for (int id = 1; id <= NUM_RECORDS; id++) {
+            if (id % 4 == 0) {
+                try {
+                    store.getRecord(id);
+                    fail("deleted record " + id);
+                } catch (javax.microedition.rms.InvalidRecordIDException e) {
+                    // expected
+                }
+                continue;
+            }
+
+            byte[] data = store.getRecord(id);
+            assertEquals("record " + id + " size",
+                         recordData(id).length, data.length);
+            assertEquals("record " + id, id, RecordStoreUtil.getInt(data, 0));
+        }
+    }
+
+    /**
+     * Fills the record store past the threshold and deletes every
+     * fourth record.
+     */
+    void setUp() throws Exception {
+        open(true);
+        addRecords(NUM_RECORDS);
+        for (int id = 4; id <= NUM_RECORDS; id += 4) {
+            store.deleteRecord(id);
+        }
+    }
+
+    /**
+     * Closes and deletes the record store.
+     */
+    void tearDown() throws Exception {
+        if (store != null) {
+            store.closeRecordStore();
+            store = null;
+        }
+        RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+    }
+
+    /**
+     * Replaces the node layout stored in the index file.
+     *
+     * @param elements number of elements per node to store
+     */
+    static void setIndexLayout(int elements) throws IOException {
+        RecordStoreFile idxFile = new RecordStoreFile(SUITE, NAME,
+            AbstractRecordStoreFile.IDX_EXTENSION);
+        byte[] data = new byte[4];
+
+        try {
+            RecordStoreUtil.putInt(-elements, data, 0);
+            idxFile.seek(RecordStoreIndex.IDX4_NODE_ELEMENTS);
+            idxFile.write(data);
+            idxFile.commitWrite();
+        } finally {
+            idxFile.close();
+        }
+    }
+
+    /**
+     * Checks that the index file is created only once the record store
+     * reaches the threshold, and removed with the record store.
+     */
+    void testThreshold() throws Exception {
+        open(true);
+
+        try {
+            addRecords(RMSConfig.RMS_INDEX_THRESHOLD - 1);
+            assertTrue("no index below the threshold", !indexExists());
+
+            addRecords(RMSConfig.RMS_INDEX_THRESHOLD);
+            assertTrue("index at the threshold", indexExists());
+        } finally {
+            tearDown();
+        }
+
+        assertTrue("index deleted", !indexExists());
+    }
+
+    /**
+     * Checks lookups, deletions and reuse of free blocks in the tree.
+     */
+    void testLookup() throws Exception {
+        setUp();
+
+        try {
+            checkRecords();
+
+            // deleted blocks are found in the free block tree
+            int size = store.getSize();
+            int nextId = store.getNextRecordID();
+            for (int id = 4; id <= NUM_RECORDS; id += 4) {
+                byte[] data = recordData(id);
+                store.addRecord(data, 0, data.length);
+            }
+            assertEquals("free blocks reused", size, store.getSize());
+
+            for (int id = nextId; id < store.getNextRecordID(); id++) {
+                store.deleteRecord(id);
+            }
+            while (store.compactIncrementally(8)) {
+                // compact one step at a time
+            }
+            assertTrue("compacted", store.getSize() < size);
+            checkRecords();
+
+            store.closeRecordStore();
+            open(false);
+            checkRecords();
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * Checks that a missing index file or one of another node layout
+     * is rebuilt from the database file.
+     */
+    void testRebuild() throws Exception {
+        setUp();
+
+        try {
+            store.closeRecordStore();
+            store = null;
+
+            setIndexLayout(RMSConfig.RMS_INDEX_NODE_ELEMENTS + 1);
+            open(false);
+            checkRecords();
+
+            // the next change rebuilds the index with the current layout
+            store.setRecord(1, recordData(1), 0, recordData(1).length);
+            store.closeRecordStore();
+            store = null;
+            assertTrue("index rebuilt", indexExists());
+
+            assertTrue("index deleted",
+                       RecordStoreIndex.deleteIndex(SUITE, NAME));
+            open(false);
+            checkRecords();
+            store.setRecord(1, recordData(1), 0, recordData(1).length);
+            assertTrue("index recreated", indexExists());
+            checkRecords();
+        } finally {
+            tearDown();
+        }
+    }
+
+    /** Run all tests. */
+    public void runTests() throws Exception {
+        declare("testThreshold");
+        testThreshold();
+
+        declare("testLookup");
+        testLookup();
+
+        declare("testRebuild");
+        testRebuild();
+    }
+}
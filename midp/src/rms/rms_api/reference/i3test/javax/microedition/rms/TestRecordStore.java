@@ -26,6 +26,9 @@
 package javax.microedition.rms;
 
 import com.sun.midp.i3test.*;
+import com.sun.midp.rms.index.RecordKeyExtractor;
+import com.sun.midp.rms.index.RecordKeyIndex;
+import com.sun.midp.rms.index.RecordKeyRange;
 
 import java.util.Random;
 
@@ -125,6 +128,139 @@ public class TestRecordStore extends TestCase {
         store.closeRecordStore();
     }
 
+    /**
+     * Orders records by their bytes, as unsigned values. The key is the
+     * record itself, so records longer than the stored key size can
+     * only be told apart by compare().
+     */
+    static class BytesOrder implements RecordComparator, RecordKeyExtractor {
+        public byte[] getKey(byte[] data) {
+            return data;
+        }
+
+        public int compare(byte[] rec1, byte[] rec2) {
+            for (int i = 0; i < rec1.length && i < rec2.length; i++) {
+                int diff = (rec1[i] & 0xff) - (rec2[i] & 0xff);
+                if (diff != 0) {
+                    return (diff < 0) ? PRECEDES : FOLLOWS;
+                }
+            }
+
+            if (rec1.length == rec2.length) {
+                return EQUIVALENT;
+            }
+
+            return (rec1.length < rec2.length) ? PRECEDES : FOLLOWS;
+        }
+    }
+
+    /**
+     * Matches every record, but restricts an index scan to the records
+     * whose first byte is 1.
+     */
+    static class FirstByteOne implements RecordKeyRange {
+        public byte[] getLowKey() {
+            return new byte[] { 1 };
+        }
+
+        public byte[] getHighKey() {
+            return new byte[] { 1, (byte)0xff, (byte)0xff, (byte)0xff };
+        }
+
+        public boolean matches(byte[] candidate) {
+            return true;
+        }
+    }
+
+    /**
+     * Matches the records whose last byte is even.
+     */
+    static class LastByteEven implements RecordFilter {
+        public boolean matches(byte[] candidate) {
+            return (candidate[candidate.length - 1] & 1) == 0;
+        }
+    }
+
+    /**
+     * Checks that an enumeration returns its records in the order of
+     * a comparator.
+     *
+     * @param records the enumeration
+     * @param order the comparator
+     * @return true if the records are ordered
+     */
+    private static boolean isOrdered(RecordEnumeration records,
+                                     RecordComparator order)
+        throws RecordStoreException {
+
+        byte[] previous = null;
+        boolean ordered = true;
+        while (records.hasNextElement()) {
+            byte[] record = records.nextRecord();
+            if (previous != null && order.compare(previous, record) ==
+                    RecordComparator.FOLLOWS) {
+                ordered = false;
+            }
+            previous = record;
+        }
+
+        return ordered;
+    }
+
+    private void testIndexedEnumeration() throws RecordStoreException {
+        final String name = "testrmsindex";
+        final int PREFIX = RecordKeyExtractor.KEY_SIZE + 4;
+        BytesOrder order = new BytesOrder();
+
+        declare("Indexed enumeration order");
+
+        try {
+            RecordStore.deleteRecordStore(name);
+        } catch (RecordStoreNotFoundException rnfe) {}
+
+        RecordStore store = RecordStore.openRecordStore(name, true);
+
+        try {
+            // records sharing more than the stored key, added backwards
+            for (int i = 0; i < 40; i++) {
+                byte[] data = new byte[PREFIX + 1];
+                data[0] = (byte)(i % 3);
+                data[PREFIX] = (byte)(40 - i);
+                store.addRecord(data, 0, data.length);
+            }
+
+            // enumerating does not create the index
+            RecordEnumeration records = store.enumerateRecords(null, order,
+                                                               false);
+            assertTrue("sorted order", isOrdered(records, order));
+            records = store.enumerateRecords(new FirstByteOne(), null,
+                                             false);
+            assertEquals("no index scan", 40, records.numRecords());
+
+            RecordKeyIndex.createIndex(store, order);
+            records = store.enumerateRecords(new FirstByteOne(), null,
+                                             false);
+            assertEquals("index scan", 13, records.numRecords());
+
+            records = store.enumerateRecords(null, order, false);
+            assertEquals("all records", 40, records.numRecords());
+            assertTrue("comparator order", isOrdered(records, order));
+
+            records = store.enumerateRecords(new LastByteEven(), order,
+                                             false);
+            assertEquals("filtered records", 20, records.numRecords());
+            assertTrue("filtered order", isOrdered(records, order));
+
+            RecordKeyIndex.deleteIndex(store);
+            records = store.enumerateRecords(new FirstByteOne(), null,
+                                             false);
+            assertEquals("index deleted", 40, records.numRecords());
+        } finally {
+            store.closeRecordStore();
+            RecordStore.deleteRecordStore(name);
+        }
+    }
+
     private void testCompactRecords() throws RecordStoreException {
 
         declare("testCompactRecords");
@@ -255,6 +391,7 @@ public class TestRecordStore extends TestCase {
         try {
             testSequentialRMS();
             testEnumeration();
+            testIndexedEnumeration();
             testCompactRecords();
             cleanup();
             testSizeLimit();
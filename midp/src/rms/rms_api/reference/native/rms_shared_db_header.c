@@ -32,6 +32,7 @@
 #include <pcsl_esc.h>
 #include <pcsl_string.h>
 #include <midp_logging.h>
+#include <midp_constants_data.h>
 
 #include <string.h>
 
@@ -43,6 +44,83 @@ static jint gsLookupId = 0;
 /** Head of the list */
 static RecordStoreSharedDBHeaderList* gsHeaderListHead = NULL;
 
+/** Most recently used cached record of all record stores */
+static RecordStoreSharedRecord* gsRecordLruHead = NULL;
+
+/** Least recently used cached record of all record stores */
+static RecordStoreSharedRecord* gsRecordLruTail = NULL;
+
+/** Memory taken by the cached records of all record stores */
+static int gsRecordCacheSize = 0;
+
+/**
+ * Gets the memory taken by a cached record.
+ *
+ * @param dataSize record data size in jbytes
+ * @return memory taken by the record in bytes
+ */
+#define SHARED_RECORD_SIZE(dataSize) \
+    ((int)sizeof(RecordStoreSharedRecord) + (dataSize) * (int)sizeof(jbyte))
+
+/**
+ * Removes a cached record from the LRU list and from the list
+ * of its record store, and frees it.
+ *
+ * @param record the cached record
+ */
+static void remove_cached_record(RecordStoreSharedRecord* record) {
+    RecordStoreSharedRecord** link = &(record->node->records);
+
+    while (*link != record) {
+        link = &((*link)->next);
+    }
+    *link = record->next;
+
+    if (record->lruPrev != NULL) {
+        record->lruPrev->lruNext = record->lruNext;
+    } else {
+        gsRecordLruHead = record->lruNext;
+    }
+
+    if (record->lruNext != NULL) {
+        record->lruNext->lruPrev = record->lruPrev;
+    } else {
+        gsRecordLruTail = record->lruPrev;
+    }
+
+    gsRecordCacheSize -= SHARED_RECORD_SIZE(record->dataSize);
+    midpFree(record);
+}
+
+/**
+ * Finds a cached record. The cached records of the record store are
+ * dropped first if they belong to another version of the record store.
+ *
+ * @param node header node of the record store
+ * @param version current version of the record store
+ * @param recordId record ID
+ * @return the cached record, NULL if not found
+ */
+static RecordStoreSharedRecord* find_cached_record(
+        RecordStoreSharedDBHeaderList* node, jint version, jint recordId) {
+
+    RecordStoreSharedRecord* record;
+
+    if (node->cacheVersion != version) {
+        rmsdb_clear_cached_records(node);
+        node->cacheVersion = version;
+        return NULL;
+    }
+
+    for (record = node->records; record != NULL; record = record->next) {
+        if (record->recordId == recordId) {
+            break;
+        }
+    }
+
+    return record;
+}
+
 /**
  * Finds header node in list by ID.
  *
@@ -106,6 +184,8 @@ RecordStoreSharedDBHeaderList* rmsdb_create_header_node(int suiteId,
     node->headerVersion = 0;
     node->suiteId = suiteId;    
     node->refCount = 0;
+    node->cacheVersion = 0;
+    node->records = NULL;
 
     node->headerData = midpMalloc(headerDataSize * sizeof(jbyte));
     if (node->headerData == NULL) {
@@ -161,6 +241,7 @@ void rmsdb_delete_header_node(RecordStoreSharedDBHeaderList* node) {
         prevNode->next = node->next;
     }
 
+    rmsdb_clear_cached_records(node);
     midpFree(node->headerData);
     pcsl_string_free(&(node->storeName));
 
@@ -282,3 +363,183 @@ void rmsdb_dec_header_node_refcount(RecordStoreSharedDBHeaderList* node) {
     }
 }
 
+/**
+ * Gets the size of a cached record.
+ *
+ * @param node header node of the record store
+ * @param version current version of the record store, the cached
+ *        records are dropped if they belong to another version
+ * @param recordId record ID
+ * @return record size in jbytes, -1 if the record is not cached
+ */
+int rmsdb_get_cached_record_size(RecordStoreSharedDBHeaderList* node,
+        jint version, jint recordId) {
+
+    RecordStoreSharedRecord* record;
+
+    /** Safety check */
+    if (node == NULL) {
+        return -1;
+    }
+
+    record = find_cached_record(node, version, recordId);
+    if (record == NULL) {
+        return -1;
+    }
+
+    return record->dataSize;
+}
+
+/**
+ * Copies a cached record into specified buffer and marks it as
+ * the most recently used one.
+ *
+ * @param node header node of the record store
+ * @param version current version of the record store, the cached
+ *        records are dropped if they belong to another version
+ * @param recordId record ID
+ * @param dstBuffer where to copy record data
+ * @param dstSize dst buffer size, in jbytes
+ * @return record size in jbytes, -1 if the record is not cached
+ *         or doesn't fit into the buffer
+ */
+int rmsdb_get_cached_record(RecordStoreSharedDBHeaderList* node,
+        jint version, jint recordId, jbyte* dstBuffer, jint dstSize) {
+
+    RecordStoreSharedRecord* record;
+
+    /** Safety checks */
+    if (node == NULL || dstBuffer == NULL) {
+        return -1;
+    }
+
+    record = find_cached_record(node, version, recordId);
+    if (record == NULL || record->dataSize > dstSize) {
+        return -1;
+    }
+
+    memcpy(dstBuffer, record + 1, record->dataSize * sizeof(jbyte));
+
+    /* Move the record to the head of the LRU list */
+    if (record != gsRecordLruHead) {
+        record->lruPrev->lruNext = record->lruNext;
+        if (record->lruNext != NULL) {
+            record->lruNext->lruPrev = record->lruPrev;
+        } else {
+            gsRecordLruTail = record->lruPrev;
+        }
+
+        record->lruPrev = NULL;
+        record->lruNext = gsRecordLruHead;
+        gsRecordLruHead->lruPrev = record;
+        gsRecordLruHead = record;
+    }
+
+    return record->dataSize;
+}
+
+/**
+ * Caches a record, evicting the least recently used records of all 
+ * record stores if RMS_SHARED_CACHE_SIZE is exceeded.
+ *
+ * @param node header node of the record store
+ * @param version current version of the record store
+ * @param recordId record ID
+ * @param srcBuffer record data
+ * @param srcSize record size, in jbytes
+ */
+void rmsdb_put_cached_record(RecordStoreSharedDBHeaderList* node,
+        jint version, jint recordId, jbyte* srcBuffer, jint srcSize) {
+
+    RecordStoreSharedRecord* record;
+    int size;
+
+    /** Safety checks */
+    if (node == NULL || srcBuffer == NULL || srcSize < 0) {
+        return;
+    }
+
+    /* Large records would evict too many others */
+    size = SHARED_RECORD_SIZE(srcSize);
+    if (size > RMS_SHARED_CACHE_SIZE / 8) {
+        return;
+    }
+
+    record = find_cached_record(node, version, recordId);
+    if (record != NULL) {
+        remove_cached_record(record);
+    }
+
+    while (gsRecordLruTail != NULL &&
+            gsRecordCacheSize + size > RMS_SHARED_CACHE_SIZE) {
+        remove_cached_record(gsRecordLruTail);
+    }
+
+    record = (RecordStoreSharedRecord*)midpMalloc(size);
+    if (record == NULL) {
+        return;
+    }
+
+    record->recordId = recordId;
+    record->dataSize = srcSize;
+    record->node = node;
+    memcpy(record + 1, srcBuffer, srcSize * sizeof(jbyte));
+
+    record->next = node->records;
+    node->records = record;
+
+    record->lruPrev = NULL;
+    record->lruNext = gsRecordLruHead;
+    if (gsRecordLruHead != NULL) {
+        gsRecordLruHead->lruPrev = record;
+    } else {
+        gsRecordLruTail = record;
+    }
+    gsRecordLruHead = record;
+
+    gsRecordCacheSize += size;
+}
+
+/**
+ * Drops a cached record after it has been changed and moves the 
+ * cache to the new version of the record store.
+ *
+ * @param node header node of the record store
+ * @param recordId ID of the added, changed or deleted record
+ * @param newVersion new version of the record store
+ */
+void rmsdb_cached_record_changed(RecordStoreSharedDBHeaderList* node,
+        jint recordId, jint newVersion) {
+
+    RecordStoreSharedRecord* record;
+
+    /** Safety check */
+    if (node == NULL) {
+        return;
+    }
+
+    for (record = node->records; record != NULL; record = record->next) {
+        if (record->recordId == recordId) {
+            remove_cached_record(record);
+            break;
+        }
+    }
+
+    node->cacheVersion = newVersion;
+}
+
+/**
+ * Drops all cached records of a record store.
+ *
+ * @param node header node of the record store
+ */
+void rmsdb_clear_cached_records(RecordStoreSharedDBHeaderList* node) {
+    /** Safety check */
+    if (node == NULL) {
+        return;
+    }
+
+    while (node->records != NULL) {
+        remove_cached_record(node->records);
+    }
+}
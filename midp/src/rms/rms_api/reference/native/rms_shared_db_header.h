@@ -34,6 +34,8 @@
 extern "C" {
 #endif
 
+struct RecordStoreSharedRecordStruct;
+
 /**
  * Native data associated with RecordStoreSharedDBHeader class. 
  * Also, the list.
@@ -65,10 +67,41 @@ typedef struct RecordStoreSharedDBHeaderListStruct {
      */
     int refCount;
 
+    /** Record store version the cached records belong to */
+    jint cacheVersion;
+
+    /** Records of this record store cached for all isolates */
+    struct RecordStoreSharedRecordStruct* records;
+
     /** Next node in list */ 
     struct RecordStoreSharedDBHeaderListStruct* next;
 } RecordStoreSharedDBHeaderList;
 
+/**
+ * Record cached in native, so that it can be read by all isolates
+ * using the record store without accessing the record store file.
+ * The record data follow the structure.
+ */
+typedef struct RecordStoreSharedRecordStruct {
+    /** Record ID */
+    jint recordId;
+
+    /** Record data size in jbytes */
+    jint dataSize;
+
+    /** Header node of the record store the record belongs to */
+    RecordStoreSharedDBHeaderList* node;
+
+    /** Next cached record of the same record store */
+    struct RecordStoreSharedRecordStruct* next;
+
+    /** More recently used record of all record stores */
+    struct RecordStoreSharedRecordStruct* lruPrev;
+
+    /** Less recently used record of all record stores */
+    struct RecordStoreSharedRecordStruct* lruNext;
+} RecordStoreSharedRecord;
+
 /**
  * Finds header node in list by ID.
  *
@@ -156,6 +189,65 @@ int rmsdb_get_header_node_refcount(RecordStoreSharedDBHeaderList* node);
  */
 void rmsdb_dec_header_node_refcount(RecordStoreSharedDBHeaderList* node);
 
+/**
+ * Gets the size of a cached record.
+ *
+ * @param node header node of the record store
+ * @param version current version of the record store, the cached
+ *        records are dropped if they belong to another version
+ * @param recordId record ID
+ * @return record size in jbytes, -1 if the record is not cached
+ */
+int rmsdb_get_cached_record_size(RecordStoreSharedDBHeaderList* node,
+        jint version, jint recordId);
+
+/**
+ * Copies a cached record into specified buffer and marks it as
+ * the most recently used one.
+ *
+ * @param node header node of the record store
+ * @param version current version of the record store, the cached
+ *        records are dropped if they belong to another version
+ * @param recordId record ID
+ * @param dstBuffer where to copy record data
+ * @param dstSize dst buffer size, in jbytes
+ * @return record size in jbytes, -1 if the record is not cached
+ *         or doesn't fit into the buffer
+ */
+int rmsdb_get_cached_record(RecordStoreSharedDBHeaderList* node,
+        jint version, jint recordId, jbyte* dstBuffer, jint dstSize);
+
+/**
+ * Caches a record, evicting the least recently used records of all 
+ * record stores if RMS_SHARED_CACHE_SIZE is exceeded.
+ *
+ * @param node header node of the record store
+ * @param version current version of the record store
+ * @param recordId record ID
+ * @param srcBuffer record data
+ * @param srcSize record size, in jbytes
+ */
+void rmsdb_put_cached_record(RecordStoreSharedDBHeaderList* node,
+        jint version, jint recordId, jbyte* srcBuffer, jint srcSize);
+
+/**
+ * Drops a cached record after it has been changed and moves the 
+ * cache to the new version of the record store.
+ *
+ * @param node header node of the record store
+ * @param recordId ID of the added, changed or deleted record
+ * @param newVersion new version of the record store
+ */
+void rmsdb_cached_record_changed(RecordStoreSharedDBHeaderList* node,
+        jint recordId, jint newVersion);
+
+/**
+ * Drops all cached records of a record store.
+ *
+ * @param node header node of the record store
+ */
+void rmsdb_clear_cached_records(RecordStoreSharedDBHeaderList* node);
+
 #ifdef __cplusplus
 }
 #endif
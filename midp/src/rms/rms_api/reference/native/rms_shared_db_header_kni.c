@@ -181,6 +181,149 @@ KNIDECL(com_sun_midp_rms_RecordStoreSharedDBHeader_getHeaderRefCount0) {
     KNI_ReturnInt(refCount);
 }
 
+KNIEXPORT KNI_RETURNTYPE_INT
+KNIDECL(com_sun_midp_rms_RecordStoreSharedDBHeader_getCachedRecordSize0) {
+    RecordStoreSharedDBHeaderList* node = NULL;
+    jint lookupId = -1;
+    jint version = 0;
+    jint recordId = 0;
+    int size = -1;
+
+    lookupId = KNI_GetParameterAsInt(1);
+    version = KNI_GetParameterAsInt(2);
+    recordId = KNI_GetParameterAsInt(3);
+
+    node = rmsdb_find_header_node_by_id(lookupId);
+    if (node == NULL) {
+        KNI_ThrowNew(midpIllegalStateException, 
+                "Invalid header node lookup ID");
+    } else {
+        size = rmsdb_get_cached_record_size(node, version, recordId);
+    }
+
+    KNI_ReturnInt(size);
+}
+
+KNIEXPORT KNI_RETURNTYPE_INT
+KNIDECL(com_sun_midp_rms_RecordStoreSharedDBHeader_getCachedRecord0) {
+    RecordStoreSharedDBHeaderList* node = NULL;
+    jint lookupId = -1;
+    jint version = 0;
+    jint recordId = 0;
+    jint dataSize = 0;
+    jbyte* data = NULL;
+    int size = -1;
+
+    KNI_StartHandles(1); 
+    KNI_DeclareHandle(dataJavaArray);
+
+    lookupId = KNI_GetParameterAsInt(1);
+    version = KNI_GetParameterAsInt(2);
+    recordId = KNI_GetParameterAsInt(3);
+    dataSize = KNI_GetParameterAsInt(5);
+
+    node = rmsdb_find_header_node_by_id(lookupId);
+
+    if (node == NULL) {
+        KNI_ThrowNew(midpIllegalStateException, 
+                "Invalid header node lookup ID");
+    } else {
+        KNI_GetParameterAsObject(4, dataJavaArray);
+        if (KNI_IsNullHandle(dataJavaArray)) {
+            KNI_ThrowNew(midpIllegalArgumentException, 
+                    "Record data array is null");
+        } else {
+        SNI_BEGIN_RAW_POINTERS
+            data = JavaByteArray(dataJavaArray);
+            size = rmsdb_get_cached_record(node, version, recordId, 
+                    data, dataSize);
+        SNI_END_RAW_POINTERS 
+        }
+    }
+
+    KNI_EndHandles();
+    KNI_ReturnInt(size);
+}
+
+KNIEXPORT KNI_RETURNTYPE_VOID
+KNIDECL(com_sun_midp_rms_RecordStoreSharedDBHeader_putCachedRecord0) {
+    RecordStoreSharedDBHeaderList* node = NULL;
+    jint lookupId = -1;
+    jint version = 0;
+    jint recordId = 0;
+    jint dataSize = 0;
+    jbyte* data = NULL;
+
+    KNI_StartHandles(1); 
+    KNI_DeclareHandle(dataJavaArray);
+
+    lookupId = KNI_GetParameterAsInt(1);
+    version = KNI_GetParameterAsInt(2);
+    recordId = KNI_GetParameterAsInt(3);
+    dataSize = KNI_GetParameterAsInt(5);
+
+    node = rmsdb_find_header_node_by_id(lookupId);
+
+    if (node == NULL) {
+        KNI_ThrowNew(midpIllegalStateException, 
+                "Invalid header node lookup ID");
+    } else {
+        KNI_GetParameterAsObject(4, dataJavaArray);
+        if (KNI_IsNullHandle(dataJavaArray)) {
+            KNI_ThrowNew(midpIllegalArgumentException, 
+                    "Record data array is null");
+        } else {
+        SNI_BEGIN_RAW_POINTERS
+            data = JavaByteArray(dataJavaArray);
+            rmsdb_put_cached_record(node, version, recordId, data, dataSize);
+        SNI_END_RAW_POINTERS 
+        }
+    }
+
+    KNI_EndHandles();
+    KNI_ReturnVoid();
+}
+
+KNIEXPORT KNI_RETURNTYPE_VOID
+KNIDECL(com_sun_midp_rms_RecordStoreSharedDBHeader_cachedRecordChanged0) {
+    RecordStoreSharedDBHeaderList* node = NULL;
+    jint lookupId = -1;
+    jint recordId = 0;
+    jint newVersion = 0;
+
+    lookupId = KNI_GetParameterAsInt(1);
+    recordId = KNI_GetParameterAsInt(2);
+    newVersion = KNI_GetParameterAsInt(3);
+
+    node = rmsdb_find_header_node_by_id(lookupId);
+    if (node == NULL) {
+        KNI_ThrowNew(midpIllegalStateException, 
+                "Invalid header node lookup ID");
+    } else {
+        rmsdb_cached_record_changed(node, recordId, newVersion);
+    }
+
+    KNI_ReturnVoid();
+}
+
+KNIEXPORT KNI_RETURNTYPE_VOID
+KNIDECL(com_sun_midp_rms_RecordStoreSharedDBHeader_clearCachedRecords0) {
+    RecordStoreSharedDBHeaderList* node = NULL;
+    jint lookupId = -1;
+
+    lookupId = KNI_GetParameterAsInt(1);
+
+    node = rmsdb_find_header_node_by_id(lookupId);
+    if (node == NULL) {
+        KNI_ThrowNew(midpIllegalStateException, 
+                "Invalid header node lookup ID");
+    } else {
+        rmsdb_clear_cached_records(node);
+    }
+
+    KNI_ReturnVoid();
+}
+
 
 #define SHARED_DB_HEADER_FINALIZER_BODY                                 \
     jint lookupId = -1;                                                 \
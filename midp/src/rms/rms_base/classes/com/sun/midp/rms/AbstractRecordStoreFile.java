@@ -52,6 +52,12 @@ interface AbstractRecordStoreFile {
     /** extension for RecordStore database files */
     static final int IDX_EXTENSION = 1;
 
+    /** extension for RecordStore journal files */
+    static final int JNL_EXTENSION = 2;
+
+    /** extension for RecordStore secondary index files */
+    static final int SDX_EXTENSION = 3;
+
     /**
      * Approximation of remaining space in storage.
      *
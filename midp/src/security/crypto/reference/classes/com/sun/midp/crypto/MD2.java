@@ -165,12 +165,29 @@ final class MD2 extends MessageDigest {
      */
     public Object clone() {
 	MD2 cpy = new MD2();
-	
+
+	copyState(cpy);
+	return cpy;
+    }
+
+    /**
+     * Copies the current state of this digest into another MD2
+     * digest without allocating anything.
+     * @param dst digest that receives the state
+     * @exception IllegalArgumentException if <code>dst</code> is not
+     * an MD2 digest
+     */
+    public void copyState(MessageDigest dst) {
+	if (!(dst instanceof MD2)) {
+	    throw new IllegalArgumentException();
+	}
+
+	MD2 cpy = (MD2)dst;
+
 	System.arraycopy(this.state, 0, cpy.state, 0, 16);
 	System.arraycopy(this.num, 0, cpy.num, 0, 1);
 	System.arraycopy(this.cksm, 0, cpy.cksm, 0, 16);
 	System.arraycopy(this.data, 0, cpy.data, 0, 16);
-	return cpy;
     }
 }
 
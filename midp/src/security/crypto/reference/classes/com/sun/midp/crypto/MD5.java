@@ -171,11 +171,28 @@ final class MD5 extends MessageDigest {
      */
     public Object clone() {
         MD5 cpy = new MD5();
-        
+
+        copyState(cpy);
+        return cpy;
+    }
+
+    /**
+     * Copies the current state of this digest into another MD5
+     * digest without allocating anything.
+     * @param dst digest that receives the state
+     * @exception IllegalArgumentException if <code>dst</code> is not
+     * an MD5 digest
+     */
+    public void copyState(MessageDigest dst) {
+        if (!(dst instanceof MD5)) {
+            throw new IllegalArgumentException();
+        }
+
+        MD5 cpy = (MD5)dst;
+
         System.arraycopy(this.state, 0, cpy.state, 0, 4);
         System.arraycopy(this.num, 0, cpy.num, 0, 1);
         System.arraycopy(this.data, 0, cpy.data, 0, 16);
         System.arraycopy(this.count, 0, cpy.count, 0, 2);
-        return cpy;
     }
 }
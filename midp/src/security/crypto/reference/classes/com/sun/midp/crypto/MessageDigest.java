@@ -28,7 +28,7 @@ package com.sun.midp.crypto;
 
 /**
  * This MessageDigest class provides applications the functionality of a
- * message digest algorithm, such as MD5 or SHA.
+ * message digest algorithm, such as MD5, SHA-1 or SHA-256.
  * Message digests are secure one-way hash functions that take arbitrary-sized
  * data and output a fixed-length hash value.
  *
@@ -80,6 +80,8 @@ public abstract class MessageDigest {
             return new MD5();
         } else if (algorithm.equals("SHA-1")) {
             return new SHA();
+        } else if (algorithm.equals("SHA-256")) {
+            return new SHA256();
         }
 
         throw new NoSuchAlgorithmException(algorithm);
@@ -134,4 +136,18 @@ public abstract class MessageDigest {
      * @return a clone of this object
      */
     public abstract Object clone();
+
+    /**
+     * Copies the current state of this digest into another digest
+     * of the same algorithm without allocating anything. A digest
+     * that has hashed a fixed prefix, such as a MAC secret and its
+     * pad, can be kept aside and copied into the working digest
+     * before every message instead of hashing the prefix again.
+     *
+     * @param dst digest that receives the state
+     *
+     * @exception IllegalArgumentException if <code>dst</code> does not
+     * implement the same algorithm as this digest
+     */
+    public abstract void copyState(MessageDigest dst);
 }
@@ -166,10 +166,27 @@ final class SHA extends MessageDigest {
     public Object clone() {
 	SHA cpy = new SHA();
 
+	copyState(cpy);
+	return cpy;
+    }
+
+    /**
+     * Copies the current state of this digest into another SHA-1
+     * digest without allocating anything.
+     * @param dst digest that receives the state
+     * @exception IllegalArgumentException if <code>dst</code> is not
+     * a SHA-1 digest
+     */
+    public void copyState(MessageDigest dst) {
+	if (!(dst instanceof SHA)) {
+	    throw new IllegalArgumentException();
+	}
+
+	SHA cpy = (SHA)dst;
+
 	System.arraycopy(this.state, 0, cpy.state, 0, this.state.length);
 	System.arraycopy(this.num, 0, cpy.num, 0, this.num.length);
 	System.arraycopy(this.count, 0, cpy.count, 0, this.count.length);
 	System.arraycopy(this.data, 0, cpy.data, 0, this.data.length);
-	return cpy;
     }
 }
@@ -128,11 +128,22 @@ public class Util {
      * @return the value
      */
     public static int getInt(byte[] data, int offset) {
-        int res = 0;
-        for (int i = 0; i < 4; i++) {
-            res = (res << 8) | (data[offset + i] & 0xff);
-        }
-        return res;
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16) |
+               ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * Stores an integer value in the buffer as 4 bytes, most significant
+     * byte first.
+     * @param data data array
+     * @param offset value offset
+     * @param value the value
+     */
+    public static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >>> 24);
+        data[offset + 1] = (byte)(value >>> 16);
+        data[offset + 2] = (byte)(value >>> 8);
+        data[offset + 3] = (byte)value;
     }
 
     /**
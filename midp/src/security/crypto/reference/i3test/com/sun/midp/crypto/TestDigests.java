@@ -0,0 +1,195 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.crypto;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the MD5, SHA-1 and SHA-256 digests with published test vectors,
+ * updates split at every kind of block boundary, and state copying.
+ */
+public class TestDigests extends TestCase {
+
+    /** Two-block message from FIPS 180-2. */
+    static final String LONG_MSG =
+        "abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq";
+
+    /**
+     * Converts bytes to a hexadecimal string.
+     *
+     * @param b the bytes
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @return two lower case digits per byte
+     */
+    static String hex(byte[] b, int off, int len) {
+        StringBuffer sb = new StringBuffer(len * 2);
+
+        for (int i = 0; i < len; i++) {
+            int v = b[off + i] & 0xff;
+
+            sb.append(Character.forDigit(v >> 4, 16));
+            sb.append(Character.forDigit(v & 0xf, 16));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Hashes a string and returns the digest in hexadecimal.
+     *
+     * @param md digest to use
+     * @param msg ASCII message
+     * @return the digest
+     */
+    static String hash(MessageDigest md, String msg) throws Exception {
+        byte[] in = msg.getBytes();
+        byte[] out = new byte[md.getDigestLength()];
+
+        md.update(in, 0, in.length);
+        md.digest(out, 0, out.length);
+        return hex(out, 0, out.length);
+    }
+
+    /**
+     * Checks the digests against the test vectors of RFC 1321 and
+     * FIPS 180-2, and that digest() resets the object.
+     */
+    void testVectors() throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+
+        assertEquals("SHA-256", sha256.getAlgorithm());
+        assertEquals(32, sha256.getDigestLength());
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals("900150983cd24fb0d6963f7d28e17f72",
+                         hash(md5, "abc"));
+            assertEquals("d41d8cd98f00b204e9800998ecf8427e",
+                         hash(md5, ""));
+            assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d",
+                         hash(sha1, "abc"));
+            assertEquals("84983e441c3bd26ebaae4aa1f95129e5e54670f1",
+                         hash(sha1, LONG_MSG));
+            assertEquals("ba7816bf8f01cfea414140de5dae2223" +
+                         "b00361a396177a9cb410ff61f20015ad",
+                         hash(sha256, "abc"));
+            assertEquals("248d6a61d20638b8e5c026930c3e6039" +
+                         "a33ce45964ff2167f6ecedd419db06c1",
+                         hash(sha256, LONG_MSG));
+            assertEquals("e3b0c44298fc1c149afbf4c8996fb924" +
+                         "27ae41e4649b934ca495991b7852b855",
+                         hash(sha256, ""));
+        }
+    }
+
+    /**
+     * Checks that a message hashed in pieces of every size from 1 to
+     * 130 bytes, at an offset, gives the same digest as one update.
+     *
+     * @param algorithm digest algorithm
+     */
+    void checkPieces(String algorithm) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        int len = md.getDigestLength();
+        byte[] in = new byte[1000];
+        byte[] expected = new byte[len];
+        byte[] out = new byte[len + 3];
+
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (byte)(i * 7 + (i >> 8));
+        }
+
+        md.update(in, 0, in.length);
+        md.digest(expected, 0, len);
+
+        for (int piece = 1; piece <= 130; piece++) {
+            for (int off = 0; off < in.length; off += piece) {
+                md.update(in, off, Math.min(piece, in.length - off));
+            }
+
+            md.digest(out, 3, len);
+            assertEquals(algorithm + " in pieces of " + piece,
+                         hex(expected, 0, len), hex(out, 3, len));
+        }
+    }
+
+    /**
+     * Checks that copyState and clone carry the complete state, so
+     * that a saved prefix can be continued any number of times.
+     *
+     * @param algorithm digest algorithm
+     */
+    void checkCopyState(String algorithm) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        MessageDigest prefix = MessageDigest.getInstance(algorithm);
+        byte[] key = "0123456789abcdef0123456789abcdef0123456789".getBytes();
+
+        // An odd prefix length leaves a partial block in the state
+        prefix.update(key, 0, key.length);
+
+        String expected = hash((MessageDigest)prefix.clone(), "message");
+
+        for (int i = 0; i < 3; i++) {
+            prefix.copyState(md);
+            assertEquals(algorithm + " copy " + i,
+                         expected, hash(md, "message"));
+        }
+
+        assertEquals(algorithm + " prefix unchanged",
+                     expected, hash(prefix, "message"));
+
+        MessageDigest other = MessageDigest.getInstance(
+            algorithm.equals("MD5") ? "SHA-1" : "MD5");
+
+        try {
+            prefix.copyState(other);
+            fail(algorithm + " copied into " + other.getAlgorithm());
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Runs all tests.
+     */
+    public void runTests() throws Exception {
+        String[] algorithms = { "MD5", "SHA-1", "SHA-256" };
+
+        declare("testVectors");
+        testVectors();
+
+        for (int i = 0; i < algorithms.length; i++) {
+            declare("checkPieces " + algorithms[i]);
+            checkPieces(algorithms[i]);
+
+            declare("checkCopyState " + algorithms[i]);
+            checkCopyState(algorithms[i]);
+        }
+    }
+}
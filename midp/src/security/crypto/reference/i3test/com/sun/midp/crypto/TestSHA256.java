@@ -0,0 +1,243 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.crypto;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the native SHA-256 digest with the test vectors of FIPS 180-2,
+ * including the state copied in the middle of a message and continued,
+ * as the MAC computation of the SSL record layer does.
+ */
+public class TestSHA256 extends TestCase {
+
+    /** Message of the first FIPS 180-2 example. */
+    static final String MSG1 = "abc";
+
+    /** Digest of MSG1. */
+    static final String HASH1 =
+        "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    /** Two-block message of the second FIPS 180-2 example. */
+    static final String MSG2 =
+        "abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq";
+
+    /** Digest of MSG2. */
+    static final String HASH2 =
+        "248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1";
+
+    /** Length of the message of the third example, all 'a'. */
+    static final int MSG3_LENGTH = 1000000;
+
+    /** Digest of the third example. */
+    static final String HASH3 =
+        "cdc76e5c9914fb9281a1c7e284d73e67f1809a48a497200e046d39ccc7112cd0";
+
+    /** Bytes of 'a' the third message is hashed from. */
+    static byte[] as = new byte[1000];
+
+    static {
+        for (int i = 0; i < as.length; i++) {
+            as[i] = 'a';
+        }
+    }
+
+    /**
+     * Gets the digest of the state of a SHA-256 object in hexadecimal.
+     *
+     * @param md digest to complete, reset by the call
+     * @return the digest
+     */
+    static String digest(MessageDigest md) throws DigestException {
+        byte[] out = new byte[32];
+
+        md.digest(out, 0, out.length);
+        return TestDigests.hex(out, 0, out.length);
+    }
+
+    /**
+     * Hashes a range of the third example message.
+     *
+     * @param md digest to update
+     * @param from index of the first byte
+     * @param to index after the last byte
+     */
+    static void updateAs(MessageDigest md, int from, int to) {
+        // uneven pieces, so updates start anywhere in a block
+        for (int n; from < to; from += n) {
+            n = Math.min(as.length - from % 7, to - from);
+            md.update(as, from % 7, n);
+        }
+    }
+
+    /**
+     * Checks the three FIPS 180-2 examples.
+     */
+    void testVectors() throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+        assertEquals("SHA-256", md.getAlgorithm());
+        assertEquals(32, md.getDigestLength());
+
+        md.update(MSG1.getBytes(), 0, MSG1.length());
+        assertEquals("abc", HASH1, digest(md));
+
+        md.update(MSG2.getBytes(), 0, MSG2.length());
+        assertEquals("two blocks", HASH2, digest(md));
+
+        updateAs(md, 0, MSG3_LENGTH);
+        assertEquals("million a", HASH3, digest(md));
+
+        // digest() left the object reset
+        md.update(MSG1.getBytes(), 0, MSG1.length());
+        assertEquals("abc after reset", HASH1, digest(md));
+    }
+
+    /**
+     * Copies the state after every prefix of a message into a digest
+     * holding other data, and checks that both the original and the
+     * copy finish the message with the expected digest.
+     *
+     * @param msg the message
+     * @param expected digest of the message
+     */
+    void checkCopies(String msg, String expected) throws Exception {
+        byte[] in = msg.getBytes();
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        MessageDigest copy = MessageDigest.getInstance("SHA-256");
+        byte[] other = new byte[in.length + 61];
+
+        for (int i = 0; i < other.length; i++) {
+            other[i] = 'z';
+        }
+
+        for (int split = 0; split <= in.length; split++) {
+            copy.update(other, 0, other.length);
+            md.update(in, 0, split);
+            md.copyState(copy);
+
+            md.update(in, split, in.length - split);
+            assertEquals("original split at " + split, expected, digest(md));
+
+            copy.update(in, split, in.length - split);
+            assertEquals("copy split at " + split, expected, digest(copy));
+        }
+    }
+
+    /**
+     * Checks state copies in the middle of the FIPS 180-2 messages: at
+     * every byte of the first two, and inside a block half way through
+     * the third.
+     */
+    void testCopyState() throws Exception {
+        checkCopies(MSG1, HASH1);
+        checkCopies(MSG2, HASH2);
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        MessageDigest copy = MessageDigest.getInstance("SHA-256");
+        int split = MSG3_LENGTH / 2 + 37;
+
+        updateAs(md, 0, split);
+        md.copyState(copy);
+        updateAs(md, split, MSG3_LENGTH);
+        assertEquals("million a, original", HASH3, digest(md));
+        updateAs(copy, split, MSG3_LENGTH);
+        assertEquals("million a, copy", HASH3, digest(copy));
+
+        md.update(MSG1.getBytes(), 0, MSG1.length());
+        copy = (MessageDigest)md.clone();
+        assertEquals("clone", HASH1, digest(copy));
+        assertEquals("cloned", HASH1, digest(md));
+    }
+
+    /**
+     * Computes HMAC-SHA-256 the way the SSL record layer computes its
+     * MACs: the inner and outer start states are hashed once, and
+     * copied into one working digest for every message.
+     */
+    void testHMAC() throws Exception {
+        byte[][] keys = { new byte[20], "Jefe".getBytes() };
+        String[] msgs = { "Hi There", "what do ya want for nothing?" };
+        // RFC 4231, test cases 1 and 2
+        String[] macs = {
+            "b0344c61d8db38535ca8afceaf0bf12b" +
+            "881dc200c9833da726e9376c2e32cff7",
+            "5bdcc146bf60754e6a042426089575c7" +
+            "5a003f089d2739839dec58b964ec3843"
+        };
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] innerHash = new byte[32];
+        byte[] pad = new byte[64];
+
+        for (int i = 0; i < 20; i++) {
+            keys[0][i] = 0x0b;
+        }
+
+        for (int k = 0; k < keys.length; k++) {
+            for (int i = 0; i < pad.length; i++) {
+                pad[i] = (byte)((i < keys[k].length ? keys[k][i] : 0) ^ 0x36);
+            }
+            digest.update(pad, 0, pad.length);
+            MessageDigest innerStart = (MessageDigest)digest.clone();
+            digest.reset();
+
+            for (int i = 0; i < pad.length; i++) {
+                pad[i] ^= 0x36 ^ 0x5c;
+            }
+            digest.update(pad, 0, pad.length);
+            MessageDigest outerStart = (MessageDigest)digest.clone();
+            digest.reset();
+
+            // the start states must survive any number of MACs
+            for (int n = 0; n < 3; n++) {
+                byte[] msg = msgs[k].getBytes();
+
+                innerStart.copyState(digest);
+                digest.update(msg, 0, msg.length);
+                digest.digest(innerHash, 0, innerHash.length);
+
+                outerStart.copyState(digest);
+                digest.update(innerHash, 0, innerHash.length);
+                assertEquals("HMAC " + k + ", " + n, macs[k], digest(digest));
+            }
+        }
+    }
+
+    /**
+     * Runs all tests.
+     */
+    public void runTests() throws Exception {
+        declare("testVectors");
+        testVectors();
+
+        declare("testCopyState");
+        testCopyState();
+
+        declare("testHMAC");
+        testHMAC();
+    }
+}
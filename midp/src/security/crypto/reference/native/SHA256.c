@@ -0,0 +1,233 @@
+/*
+ *   
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+/*
+ * SHA-256 as specified in FIPS 180-2. Whole 64-byte blocks are hashed
+ * straight from the caller's buffer; only a trailing partial block is
+ * copied into the context.
+ */
+
+#include <SHA256.h>
+
+/** Round constants: first 32 bits of the cube roots of the first primes. */
+static const unsigned int K256[64] = {
+    0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5,
+    0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+    0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3,
+    0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+    0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc,
+    0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+    0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7,
+    0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+    0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13,
+    0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+    0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3,
+    0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+    0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5,
+    0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+    0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208,
+    0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+};
+
+#define ROTR(x,n)	(((x) >> (n)) | ((x) << (32 - (n))))
+
+#define Sigma0(x)	(ROTR((x),2) ^ ROTR((x),13) ^ ROTR((x),22))
+#define Sigma1(x)	(ROTR((x),6) ^ ROTR((x),11) ^ ROTR((x),25))
+#define sigma0(x)	(ROTR((x),7) ^ ROTR((x),18) ^ ((x) >> 3))
+#define sigma1(x)	(ROTR((x),17) ^ ROTR((x),19) ^ ((x) >> 10))
+
+#define Ch(x,y,z)	((((y) ^ (z)) & (x)) ^ (z))
+#define Maj(x,y,z)	(((x) & (y)) | (((x) | (y)) & (z)))
+
+#define c2nl(c)		(((unsigned int)(c)[0] << 24) | \
+			 ((unsigned int)(c)[1] << 16) | \
+			 ((unsigned int)(c)[2] <<  8) | \
+			 ((unsigned int)(c)[3]))
+
+#define nl2c(l,c)	((c)[0] = (unsigned char)((l) >> 24), \
+			 (c)[1] = (unsigned char)((l) >> 16), \
+			 (c)[2] = (unsigned char)((l) >>  8), \
+			 (c)[3] = (unsigned char)(l))
+
+/*
+ * One round. Instead of shifting the eight working variables every
+ * round, the callers rotate the argument list, as the SHA-1 code does.
+ */
+#define ROUND(a,b,c,d,e,f,g,h,i,w) \
+	T1 = (h) + Sigma1(e) + Ch((e),(f),(g)) + K256[i] + (w); \
+	(d) += T1; \
+	(h) = T1 + Sigma0(a) + Maj((a),(b),(c));
+
+#define ROUND_00_15(a,b,c,d,e,f,g,h,i) \
+	X[i] = c2nl(p + ((i) << 2)); \
+	ROUND(a,b,c,d,e,f,g,h,i,X[i])
+
+#define ROUND_16_63(a,b,c,d,e,f,g,h,i,j) \
+	X[j] += sigma0(X[((j) + 1) & 0x0f]) + sigma1(X[((j) + 14) & 0x0f]) + \
+		X[((j) + 9) & 0x0f]; \
+	ROUND(a,b,c,d,e,f,g,h,(i) + (j),X[j])
+
+/**
+ * Hashes a number of consecutive 64-byte blocks into the context.
+ *
+ * @param c context holding the running hash
+ * @param p first byte of the first block
+ * @param blocks number of blocks
+ */
+static void sha256_blocks(SHA256_CTX *c, const unsigned char *p,
+			  unsigned long blocks)
+	{
+	unsigned int A,B,C,D,E,F,G,H,T1;
+	unsigned int X[SHA256_LBLOCK];
+	int i;
+
+	for (; blocks; blocks--, p += SHA256_CBLOCK)
+		{
+		A=c->h[0]; B=c->h[1]; C=c->h[2]; D=c->h[3];
+		E=c->h[4]; F=c->h[5]; G=c->h[6]; H=c->h[7];
+
+		ROUND_00_15(A,B,C,D,E,F,G,H, 0);
+		ROUND_00_15(H,A,B,C,D,E,F,G, 1);
+		ROUND_00_15(G,H,A,B,C,D,E,F, 2);
+		ROUND_00_15(F,G,H,A,B,C,D,E, 3);
+		ROUND_00_15(E,F,G,H,A,B,C,D, 4);
+		ROUND_00_15(D,E,F,G,H,A,B,C, 5);
+		ROUND_00_15(C,D,E,F,G,H,A,B, 6);
+		ROUND_00_15(B,C,D,E,F,G,H,A, 7);
+		ROUND_00_15(A,B,C,D,E,F,G,H, 8);
+		ROUND_00_15(H,A,B,C,D,E,F,G, 9);
+		ROUND_00_15(G,H,A,B,C,D,E,F,10);
+		ROUND_00_15(F,G,H,A,B,C,D,E,11);
+		ROUND_00_15(E,F,G,H,A,B,C,D,12);
+		ROUND_00_15(D,E,F,G,H,A,B,C,13);
+		ROUND_00_15(C,D,E,F,G,H,A,B,14);
+		ROUND_00_15(B,C,D,E,F,G,H,A,15);
+
+		for (i = 16; i < 64; i += 16)
+			{
+			ROUND_16_63(A,B,C,D,E,F,G,H,i, 0);
+			ROUND_16_63(H,A,B,C,D,E,F,G,i, 1);
+			ROUND_16_63(G,H,A,B,C,D,E,F,i, 2);
+			ROUND_16_63(F,G,H,A,B,C,D,E,i, 3);
+			ROUND_16_63(E,F,G,H,A,B,C,D,i, 4);
+			ROUND_16_63(D,E,F,G,H,A,B,C,i, 5);
+			ROUND_16_63(C,D,E,F,G,H,A,B,i, 6);
+			ROUND_16_63(B,C,D,E,F,G,H,A,i, 7);
+			ROUND_16_63(A,B,C,D,E,F,G,H,i, 8);
+			ROUND_16_63(H,A,B,C,D,E,F,G,i, 9);
+			ROUND_16_63(G,H,A,B,C,D,E,F,i,10);
+			ROUND_16_63(F,G,H,A,B,C,D,E,i,11);
+			ROUND_16_63(E,F,G,H,A,B,C,D,i,12);
+			ROUND_16_63(D,E,F,G,H,A,B,C,i,13);
+			ROUND_16_63(C,D,E,F,G,H,A,B,i,14);
+			ROUND_16_63(B,C,D,E,F,G,H,A,i,15);
+			}
+
+		c->h[0]+=A; c->h[1]+=B; c->h[2]+=C; c->h[3]+=D;
+		c->h[4]+=E; c->h[5]+=F; c->h[6]+=G; c->h[7]+=H;
+		}
+	}
+
+void SHA256_Init(SHA256_CTX *c)
+	{
+	c->h[0]=0x6a09e667; c->h[1]=0xbb67ae85;
+	c->h[2]=0x3c6ef372; c->h[3]=0xa54ff53a;
+	c->h[4]=0x510e527f; c->h[5]=0x9b05688c;
+	c->h[6]=0x1f83d9ab; c->h[7]=0x5be0cd19;
+	c->Nl=0;
+	c->Nh=0;
+	c->num=0;
+	memset(c->data,0,sizeof c->data);
+	}
+
+void SHA256_Update(SHA256_CTX *c, unsigned char *data, unsigned long len)
+	{
+	unsigned int l;
+	unsigned long n;
+
+	if (len == 0) return;
+
+	l=(c->Nl+(unsigned int)(len<<3));
+	if (l < c->Nl) /* overflow */
+		c->Nh++;
+	c->Nh+=(unsigned int)(len>>29);
+	c->Nl=l;
+
+	if (c->num != 0)
+		{
+		n=SHA256_CBLOCK-c->num;
+		if (len < n)
+			{
+			memcpy(c->data+c->num,data,len);
+			c->num+=(int)len;
+			return;
+			}
+		memcpy(c->data+c->num,data,n);
+		sha256_blocks(c,c->data,1);
+		data+=n;
+		len-=n;
+		c->num=0;
+		}
+
+	n=len/SHA256_CBLOCK;
+	if (n != 0)
+		{
+		sha256_blocks(c,data,n);
+		n*=SHA256_CBLOCK;
+		data+=n;
+		len-=n;
+		}
+
+	if (len != 0)
+		{
+		memcpy(c->data,data,len);
+		c->num=(int)len;
+		}
+	}
+
+void SHA256_Final(unsigned char *md, SHA256_CTX *c)
+	{
+	int i;
+	unsigned char *p=c->data;
+
+	p[c->num++]=0x80;
+	if (c->num > SHA256_LAST_BLOCK)
+		{
+		memset(p+c->num,0,SHA256_CBLOCK-c->num);
+		sha256_blocks(c,p,1);
+		c->num=0;
+		}
+	memset(p+c->num,0,SHA256_LAST_BLOCK-c->num);
+	nl2c(c->Nh,p+SHA256_LAST_BLOCK);
+	nl2c(c->Nl,p+SHA256_LAST_BLOCK+4);
+	sha256_blocks(c,p,1);
+
+	for (i = 0; i < 8; i++)
+		{
+		nl2c(c->h[i],md+(i<<2));
+		}
+	c->num=0;
+	}
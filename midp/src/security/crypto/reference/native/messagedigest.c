@@ -38,6 +38,7 @@
 #include <SHA.h>
 #include <MD5.h>
 #include <MD2.h>
+#include <SHA256.h>
 
 KNIEXPORT KNI_RETURNTYPE_VOID
 Java_com_sun_midp_crypto_MD2_nativeUpdate() {
@@ -179,13 +180,198 @@ Java_com_sun_midp_crypto_MD2_nativeFinal() {
     KNI_ReturnVoid();
 }
 
+/*
+ * The MD5 and SHA contexts are kept in Java int arrays between calls.
+ * Each array is moved in one region copy instead of one copy per word,
+ * since for the short updates typical of record MACs and handshake
+ * messages the copying used to cost more than the hashing itself.
+ */
+
+/**
+ * Loads an MD5 context from the Java state arrays.
+ *
+ * @param c context to fill
+ * @param state handle to the A, B, C, D words
+ * @param num handle to the number of buffered bytes
+ * @param count handle to the bit count
+ * @param data handle to the buffered data block
+ */
+static void getMD5Context(KNIDECLARGS MD5_CTX *c, jobject state,
+                          jobject num, jobject count, jobject data) {
+    jint words[MD5_LBLOCK];
+    int i;
+
+    KNI_GetRawArrayRegion(state, 0, 4 * sizeof (jint), (jbyte*)words);
+    c->A = (unsigned int)words[0];
+    c->B = (unsigned int)words[1];
+    c->C = (unsigned int)words[2];
+    c->D = (unsigned int)words[3];
+
+    KNI_GetRawArrayRegion(count, 0, 2 * sizeof (jint), (jbyte*)words);
+    c->Nl = (unsigned int)words[0];
+    c->Nh = (unsigned int)words[1];
+
+    KNI_GetRawArrayRegion(num, 0, sizeof (jint), (jbyte*)words);
+    c->num = words[0];
+
+    KNI_GetRawArrayRegion(data, 0, sizeof words, (jbyte*)words);
+    for (i = 0; i < MD5_LBLOCK; i++) {
+        c->data[i] = (unsigned int)words[i];
+    }
+}
+
+/**
+ * Stores an MD5 context back into the Java state arrays.
+ *
+ * @param c context to store
+ * @param state handle to the A, B, C, D words
+ * @param num handle to the number of buffered bytes
+ * @param count handle to the bit count
+ * @param data handle to the buffered data block
+ */
+static void setMD5Context(KNIDECLARGS MD5_CTX *c, jobject state,
+                          jobject num, jobject count, jobject data) {
+    jint words[MD5_LBLOCK];
+    int i;
+
+    words[0] = (jint)c->A;
+    words[1] = (jint)c->B;
+    words[2] = (jint)c->C;
+    words[3] = (jint)c->D;
+    KNI_SetRawArrayRegion(state, 0, 4 * sizeof (jint), (jbyte*)words);
+
+    words[0] = (jint)c->Nl;
+    words[1] = (jint)c->Nh;
+    KNI_SetRawArrayRegion(count, 0, 2 * sizeof (jint), (jbyte*)words);
+
+    words[0] = c->num;
+    KNI_SetRawArrayRegion(num, 0, sizeof (jint), (jbyte*)words);
+
+    for (i = 0; i < MD5_LBLOCK; i++) {
+        words[i] = (jint)c->data[i];
+    }
+    KNI_SetRawArrayRegion(data, 0, sizeof words, (jbyte*)words);
+}
+
+/**
+ * Loads a SHA-1 context from the Java state arrays.
+ *
+ * @param c context to fill
+ * @param state handle to the h0 ... h4 words
+ * @param num handle to the number of buffered bytes
+ * @param count handle to the bit count
+ * @param data handle to the buffered data block
+ */
+static void getSHAContext(KNIDECLARGS SHA_CTX *c, jobject state,
+                          jobject num, jobject count, jobject data) {
+    jint words[SHA_LBLOCK];
+    int i;
+
+    KNI_GetRawArrayRegion(state, 0, 5 * sizeof (jint), (jbyte*)words);
+    c->h0 = (unsigned int)words[0];
+    c->h1 = (unsigned int)words[1];
+    c->h2 = (unsigned int)words[2];
+    c->h3 = (unsigned int)words[3];
+    c->h4 = (unsigned int)words[4];
+
+    KNI_GetRawArrayRegion(count, 0, 2 * sizeof (jint), (jbyte*)words);
+    c->Nl = (unsigned int)words[0];
+    c->Nh = (unsigned int)words[1];
+
+    KNI_GetRawArrayRegion(num, 0, sizeof (jint), (jbyte*)words);
+    c->num = words[0];
+
+    KNI_GetRawArrayRegion(data, 0, sizeof words, (jbyte*)words);
+    for (i = 0; i < SHA_LBLOCK; i++) {
+        c->data[i] = (unsigned int)words[i];
+    }
+}
+
+/**
+ * Stores a SHA-1 context back into the Java state arrays.
+ *
+ * @param c context to store
+ * @param state handle to the h0 ... h4 words
+ * @param num handle to the number of buffered bytes
+ * @param count handle to the bit count
+ * @param data handle to the buffered data block
+ */
+static void setSHAContext(KNIDECLARGS SHA_CTX *c, jobject state,
+                          jobject num, jobject count, jobject data) {
+    jint words[SHA_LBLOCK];
+    int i;
+
+    words[0] = (jint)c->h0;
+    words[1] = (jint)c->h1;
+    words[2] = (jint)c->h2;
+    words[3] = (jint)c->h3;
+    words[4] = (jint)c->h4;
+    KNI_SetRawArrayRegion(state, 0, 5 * sizeof (jint), (jbyte*)words);
+
+    words[0] = (jint)c->Nl;
+    words[1] = (jint)c->Nh;
+    KNI_SetRawArrayRegion(count, 0, 2 * sizeof (jint), (jbyte*)words);
+
+    words[0] = c->num;
+    KNI_SetRawArrayRegion(num, 0, sizeof (jint), (jbyte*)words);
+
+    for (i = 0; i < SHA_LBLOCK; i++) {
+        words[i] = (jint)c->data[i];
+    }
+    KNI_SetRawArrayRegion(data, 0, sizeof words, (jbyte*)words);
+}
+
+/**
+ * Loads a SHA-256 context from the Java state arrays. The context uses
+ * 32-bit words and keeps its data block as bytes, so every array is
+ * copied as is.
+ *
+ * @param c context to fill
+ * @param state handle to the eight hash words
+ * @param num handle to the number of buffered bytes
+ * @param count handle to the bit count
+ * @param data handle to the buffered data block
+ */
+static void getSHA256Context(KNIDECLARGS SHA256_CTX *c, jobject state,
+                             jobject num, jobject count, jobject data) {
+    jint n;
+
+    KNI_GetRawArrayRegion(state, 0, sizeof c->h, (jbyte*)c->h);
+    KNI_GetRawArrayRegion(count, 0, sizeof (jint), (jbyte*)&c->Nl);
+    KNI_GetRawArrayRegion(count, sizeof (jint), sizeof (jint),
+                          (jbyte*)&c->Nh);
+    KNI_GetRawArrayRegion(num, 0, sizeof (jint), (jbyte*)&n);
+    c->num = n;
+    KNI_GetRawArrayRegion(data, 0, SHA256_CBLOCK, (jbyte*)c->data);
+}
+
+/**
+ * Stores a SHA-256 context back into the Java state arrays.
+ *
+ * @param c context to store
+ * @param state handle to the eight hash words
+ * @param num handle to the number of buffered bytes
+ * @param count handle to the bit count
+ * @param data handle to the buffered data block
+ */
+static void setSHA256Context(KNIDECLARGS SHA256_CTX *c, jobject state,
+                             jobject num, jobject count, jobject data) {
+    jint n = c->num;
+
+    KNI_SetRawArrayRegion(state, 0, sizeof c->h, (jbyte*)c->h);
+    KNI_SetRawArrayRegion(count, 0, sizeof (jint), (jbyte*)&c->Nl);
+    KNI_SetRawArrayRegion(count, sizeof (jint), sizeof (jint),
+                          (jbyte*)&c->Nh);
+    KNI_SetRawArrayRegion(num, 0, sizeof (jint), (jbyte*)&n);
+    KNI_SetRawArrayRegion(data, 0, SHA256_CBLOCK, (jbyte*)c->data);
+}
+
 KNIEXPORT KNI_RETURNTYPE_VOID
 Java_com_sun_midp_crypto_MD5_nativeFinal() {
     unsigned long outoff = KNI_GetParameterAsInt(5);
     unsigned long  inlen = KNI_GetParameterAsInt(3);
     unsigned long  inoff = KNI_GetParameterAsInt(2);
-    unsigned char md[16];
-    int i,j;
+    unsigned char md[MD5_DIGEST_LENGTH];
     MD5_CTX c;
 
     KNI_StartHandles(6);
@@ -205,18 +391,8 @@ Java_com_sun_midp_crypto_MD5_nativeFinal() {
     KNI_GetParameterAsObject(1, inbuf);
 
     /* Copy the context in */
-    KNI_GetRawArrayRegion(state,  0, 4, (jbyte*)&(c.A));
-    KNI_GetRawArrayRegion(state,  4, 4, (jbyte*)&(c.B));
-    KNI_GetRawArrayRegion(state,  8, 4, (jbyte*)&(c.C));
-    KNI_GetRawArrayRegion(state, 12, 4, (jbyte*)&(c.D));
-    KNI_GetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_GetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_GetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_GetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
-    }
-        
+    getMD5Context(KNIPASSARGS &c, state, num, count, data);
+
     /* Perform MD5Update if necessary */
     if (inlen != 0) {
         /* Do MD5 Update */
@@ -228,18 +404,11 @@ Java_com_sun_midp_crypto_MD5_nativeFinal() {
 
     }
 
-    /* Create and initialize the mesage digest buffer */
-    for (i = 0; i < 16; i++) {
-        md[i] = 0;
-    }
-
     /* Do MD5 final */
     MD5_Final(md, &c);
 
     /* Copy the message digest into output buffer at offset outoff */
-    for (i = 0; i < 16; i++) {
-	KNI_SetRawArrayRegion(outbuf,  i+outoff, 1, (jbyte*)&(md[i]));
-    }
+    KNI_SetRawArrayRegion(outbuf, outoff, MD5_DIGEST_LENGTH, (jbyte*)md);
 
     /* Reset the context */
     c.A = (unsigned long)0x67452301L;
@@ -249,23 +418,10 @@ Java_com_sun_midp_crypto_MD5_nativeFinal() {
     c.Nl= 0;
     c.Nh = 0;
     c.num = 0;
-    for (i = 0; i < 16; i ++) {
-        c.data[i] = 0;
-    }
-        
+    memset(c.data, 0, sizeof c.data);
 
     /* Copy back the context for next use. */
-    KNI_SetRawArrayRegion(state,  0, 4, (jbyte*)&(c.A));
-    KNI_SetRawArrayRegion(state,  4, 4, (jbyte*)&(c.B));
-    KNI_SetRawArrayRegion(state,  8, 4, (jbyte*)&(c.C));
-    KNI_SetRawArrayRegion(state, 12, 4, (jbyte*)&(c.D));
-    KNI_SetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_SetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_SetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_SetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
-    }
+    setMD5Context(KNIPASSARGS &c, state, num, count, data);
         
     KNI_EndHandles();
     KNI_ReturnVoid();
@@ -276,7 +432,6 @@ KNIEXPORT KNI_RETURNTYPE_VOID
 Java_com_sun_midp_crypto_MD5_nativeUpdate() {
     unsigned long  inlen = KNI_GetParameterAsInt(3);
     unsigned long  inoff = KNI_GetParameterAsInt(2);
-    int i, j;
     MD5_CTX c;
         
     KNI_StartHandles(5);
@@ -294,17 +449,7 @@ Java_com_sun_midp_crypto_MD5_nativeUpdate() {
     KNI_GetParameterAsObject(1, inbuf);
 
     /* Copy the context in */
-    KNI_GetRawArrayRegion(state,  0, 4, (jbyte*)&(c.A));
-    KNI_GetRawArrayRegion(state,  4, 4, (jbyte*)&(c.B));
-    KNI_GetRawArrayRegion(state,  8, 4, (jbyte*)&(c.C));
-    KNI_GetRawArrayRegion(state, 12, 4, (jbyte*)&(c.D));
-    KNI_GetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_GetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_GetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_GetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
-    }
+    getMD5Context(KNIPASSARGS &c, state, num, count, data);
         
     /* Do MD5 Update */
     SNI_BEGIN_RAW_POINTERS;
@@ -314,17 +459,7 @@ Java_com_sun_midp_crypto_MD5_nativeUpdate() {
     SNI_END_RAW_POINTERS;
 
     /* Copy back the context for next use. */
-    KNI_SetRawArrayRegion(state,  0, 4, (jbyte*)&(c.A));
-    KNI_SetRawArrayRegion(state,  4, 4, (jbyte*)&(c.B));
-    KNI_SetRawArrayRegion(state,  8, 4, (jbyte*)&(c.C));
-    KNI_SetRawArrayRegion(state, 12, 4, (jbyte*)&(c.D));
-    KNI_SetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_SetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_SetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_SetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
-    }
+    setMD5Context(KNIPASSARGS &c, state, num, count, data);
         
     KNI_EndHandles();
     KNI_ReturnVoid();
@@ -335,8 +470,7 @@ Java_com_sun_midp_crypto_SHA_nativeFinal() {
     unsigned long outoff = KNI_GetParameterAsInt(5);
     unsigned long  inlen = KNI_GetParameterAsInt(3);
     unsigned long  inoff = KNI_GetParameterAsInt(2);
-    unsigned char md[20];
-    int i, j;
+    unsigned char md[SHA_DIGEST_LENGTH];
     SHA_CTX c;
         
     KNI_StartHandles(6);
@@ -356,18 +490,7 @@ Java_com_sun_midp_crypto_SHA_nativeFinal() {
     KNI_GetParameterAsObject(1, inbuf);
 
     /* Copy the context in */
-    KNI_GetRawArrayRegion(state,  0, 4, (jbyte*)&(c.h0));
-    KNI_GetRawArrayRegion(state,  4, 4, (jbyte*)&(c.h1));
-    KNI_GetRawArrayRegion(state,  8, 4, (jbyte*)&(c.h2));
-    KNI_GetRawArrayRegion(state, 12, 4, (jbyte*)&(c.h3));
-    KNI_GetRawArrayRegion(state, 16, 4, (jbyte*)&(c.h4));
-    KNI_GetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_GetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_GetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_GetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
-    }
+    getSHAContext(KNIPASSARGS &c, state, num, count, data);
         
     /* Perform SHA update if necessary */
     if (inlen != 0) {
@@ -379,18 +502,11 @@ Java_com_sun_midp_crypto_SHA_nativeFinal() {
         SNI_END_RAW_POINTERS;
     }
 
-    /* Create and initialize the mesage digest buffer */
-    for (i=0; i < 20; i++) {
-        md[i] = 0;
-    }
-
     /* Do SHA */
     SHA1_Final(md, &c);
 
     /* Copy message digest into output buffer at offset outoff */
-    for (i = 0; i < 20; i++) {
-        KNI_SetRawArrayRegion(outbuf, i+outoff, 1, (jbyte*)&(md[i]));
-    }
+    KNI_SetRawArrayRegion(outbuf, outoff, SHA_DIGEST_LENGTH, (jbyte*)md);
 
     /* Reset the context */
     c.h0 = (unsigned long)0x67452301L;
@@ -403,18 +519,7 @@ Java_com_sun_midp_crypto_SHA_nativeFinal() {
     c.num = 0;
         
     /* Copy back the context for next use. */
-    KNI_SetRawArrayRegion(state,  0, 4, (jbyte*)&(c.h0));
-    KNI_SetRawArrayRegion(state,  4, 4, (jbyte*)&(c.h1));
-    KNI_SetRawArrayRegion(state,  8, 4, (jbyte*)&(c.h2));
-    KNI_SetRawArrayRegion(state, 12, 4, (jbyte*)&(c.h3));
-    KNI_SetRawArrayRegion(state, 16, 4, (jbyte*)&(c.h4));
-    KNI_SetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_SetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_SetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_SetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
-    }
+    setSHAContext(KNIPASSARGS &c, state, num, count, data);
         
     KNI_EndHandles();
     KNI_ReturnVoid();
@@ -435,7 +540,6 @@ KNIEXPORT KNI_RETURNTYPE_VOID
 Java_com_sun_midp_crypto_SHA_nativeUpdate() {
     unsigned long  inlen = KNI_GetParameterAsInt(3);
     unsigned long  inoff = KNI_GetParameterAsInt(2);
-    int i, j;
     SHA_CTX c;
         
     KNI_StartHandles(5);
@@ -453,18 +557,7 @@ Java_com_sun_midp_crypto_SHA_nativeUpdate() {
     KNI_GetParameterAsObject(1, inbuf);
 
     /* Copy the context in */
-    KNI_GetRawArrayRegion(state,  0, 4, (jbyte*)&(c.h0));
-    KNI_GetRawArrayRegion(state,  4, 4, (jbyte*)&(c.h1));
-    KNI_GetRawArrayRegion(state,  8, 4, (jbyte*)&(c.h2));
-    KNI_GetRawArrayRegion(state, 12, 4, (jbyte*)&(c.h3));
-    KNI_GetRawArrayRegion(state, 16, 4, (jbyte*)&(c.h4));
-    KNI_GetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_GetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_GetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_GetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
-    }
+    getSHAContext(KNIPASSARGS &c, state, num, count, data);
 
     /* Do SHA Update */
     SNI_BEGIN_RAW_POINTERS;
@@ -474,20 +567,112 @@ Java_com_sun_midp_crypto_SHA_nativeUpdate() {
     SNI_END_RAW_POINTERS;
 
     /* Copy Context back */
-    KNI_SetRawArrayRegion(state,  0, 4, (jbyte*)&(c.h0));
-    KNI_SetRawArrayRegion(state,  4, 4, (jbyte*)&(c.h1));
-    KNI_SetRawArrayRegion(state,  8, 4, (jbyte*)&(c.h2));
-    KNI_SetRawArrayRegion(state, 12, 4, (jbyte*)&(c.h3));
-    KNI_SetRawArrayRegion(state, 16, 4, (jbyte*)&(c.h4));
-    KNI_SetRawArrayRegion(count,  0, 4, (jbyte*)&(c.Nl));
-    KNI_SetRawArrayRegion(count,  4, 4, (jbyte*)&(c.Nh));
-    KNI_SetRawArrayRegion(num,    0, 4, (jbyte*)&(c.num));
-    for (i = 0, j = 0 ; i < 16; i ++) {
-        KNI_SetRawArrayRegion(data, j, 4, (jbyte*)&(c.data[i]));
-        j += 4;
+    setSHAContext(KNIPASSARGS &c, state, num, count, data);
+        
+    KNI_EndHandles();
+    KNI_ReturnVoid();
+}
+
+/**
+ * Completes a SHA-256 hash, optionally hashing a last piece of input
+ * first, and resets the context.
+ * @param inBuf input buffer of data to be hashed
+ * @param inOff offset within inBuf where input data begins
+ * @param inLen length (in bytes) of data to be hashed
+ * @param outBuf output buffer where the hash should be placed
+ * @param outOff offset within outBuf where the resulting hash begins
+ * @param state internal hash state
+ * @param num internal hash state
+ * @param count internal hash state
+ * @param data internal hash state
+ */
+KNIEXPORT KNI_RETURNTYPE_VOID
+Java_com_sun_midp_crypto_SHA256_nativeFinal() {
+    unsigned long outoff = KNI_GetParameterAsInt(5);
+    unsigned long  inlen = KNI_GetParameterAsInt(3);
+    unsigned long  inoff = KNI_GetParameterAsInt(2);
+    unsigned char md[SHA256_DIGEST_LENGTH];
+    SHA256_CTX c;
+        
+    KNI_StartHandles(6);
+
+    KNI_DeclareHandle(data);
+    KNI_DeclareHandle(count);
+    KNI_DeclareHandle(num);
+    KNI_DeclareHandle(state);
+    KNI_DeclareHandle(outbuf);
+    KNI_DeclareHandle(inbuf);
+
+    KNI_GetParameterAsObject(9, data);
+    KNI_GetParameterAsObject(8, count);
+    KNI_GetParameterAsObject(7, num);
+    KNI_GetParameterAsObject(6, state);
+    KNI_GetParameterAsObject(4, outbuf);
+    KNI_GetParameterAsObject(1, inbuf);
+
+    getSHA256Context(KNIPASSARGS &c, state, num, count, data);
+
+    if (inlen != 0) {
+        SNI_BEGIN_RAW_POINTERS;
+
+        SHA256_Update(&c, (unsigned char*)&(JavaByteArray(inbuf)[inoff]),
+                      inlen);
+
+        SNI_END_RAW_POINTERS;
     }
+
+    SHA256_Final(md, &c);
+
+    KNI_SetRawArrayRegion(outbuf, outoff, SHA256_DIGEST_LENGTH, (jbyte*)md);
+
+    /* Reset the context for next use. */
+    SHA256_Init(&c);
+    setSHA256Context(KNIPASSARGS &c, state, num, count, data);
         
     KNI_EndHandles();
     KNI_ReturnVoid();
 }
 
+/**
+ * Accumulates a SHA-256 hash of the input data.
+ * @param inBuf input buffer of data to be hashed
+ * @param inOff offset within inBuf where input data begins
+ * @param inLen length (in bytes) of data to be hashed
+ * @param state internal hash state
+ * @param num internal hash state
+ * @param count internal hash state
+ * @param data internal hash state
+ */
+KNIEXPORT KNI_RETURNTYPE_VOID
+Java_com_sun_midp_crypto_SHA256_nativeUpdate() {
+    unsigned long  inlen = KNI_GetParameterAsInt(3);
+    unsigned long  inoff = KNI_GetParameterAsInt(2);
+    SHA256_CTX c;
+        
+    KNI_StartHandles(5);
+
+    KNI_DeclareHandle(data);
+    KNI_DeclareHandle(count);
+    KNI_DeclareHandle(num);
+    KNI_DeclareHandle(state);
+    KNI_DeclareHandle(inbuf);
+
+    KNI_GetParameterAsObject(7, data);
+    KNI_GetParameterAsObject(6, count);
+    KNI_GetParameterAsObject(5, num);
+    KNI_GetParameterAsObject(4, state);
+    KNI_GetParameterAsObject(1, inbuf);
+
+    getSHA256Context(KNIPASSARGS &c, state, num, count, data);
+
+    SNI_BEGIN_RAW_POINTERS;
+
+    SHA256_Update(&c, (unsigned char*)&(JavaByteArray(inbuf)[inoff]), inlen);
+
+    SNI_END_RAW_POINTERS;
+
+    setSHA256Context(KNIPASSARGS &c, state, num, count, data);
+        
+    KNI_EndHandles();
+    KNI_ReturnVoid();
+}
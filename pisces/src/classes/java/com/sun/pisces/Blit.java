@@ -294,6 +294,67 @@ public class Blit {
         byteData[iidx] = (byte)ngray;
     }
 
+    // Runs of at least this many adjacent pixels are filled by
+    // doubling the filled part with System.arraycopy
+    private static final int MIN_COPY_FILL = 16;
+
+    // The span loops below walk each row of coverage values as runs of
+    // equal coverage, so the choice between skipping, filling and
+    // blending is made once per run instead of once per pixel.  Rows
+    // with nothing to draw have a width of zero or less.
+
+    // Stores a value into len pixels and returns the index following them
+    private static int fill(int[] intData, int iidx, int imagePixelStride,
+                            int len, int val) {
+        if (imagePixelStride != 1 || len < MIN_COPY_FILL) {
+            for (int i = 0; i < len; i++, iidx += imagePixelStride) {
+                intData[iidx] = val;
+            }
+            return iidx;
+        }
+
+        intData[iidx] = val;
+        for (int done = 1; done < len; done <<= 1) {
+            System.arraycopy(intData, iidx, intData, iidx + done,
+                             Math.min(done, len - done));
+        }
+        return iidx + len;
+    }
+
+    private static int fill(short[] shortData, int iidx, int imagePixelStride,
+                            int len, short val) {
+        if (imagePixelStride != 1 || len < MIN_COPY_FILL) {
+            for (int i = 0; i < len; i++, iidx += imagePixelStride) {
+                shortData[iidx] = val;
+            }
+            return iidx;
+        }
+
+        shortData[iidx] = val;
+        for (int done = 1; done < len; done <<= 1) {
+            System.arraycopy(shortData, iidx, shortData, iidx + done,
+                             Math.min(done, len - done));
+        }
+        return iidx + len;
+    }
+
+    private static int fill(byte[] byteData, int iidx, int imagePixelStride,
+                            int len, byte val) {
+        if (imagePixelStride != 1 || len < MIN_COPY_FILL) {
+            for (int i = 0; i < len; i++, iidx += imagePixelStride) {
+                byteData[iidx] = val;
+            }
+            return iidx;
+        }
+
+        byteData[iidx] = val;
+        for (int done = 1; done < len; done <<= 1) {
+            System.arraycopy(byteData, iidx, byteData, iidx + done,
+                             Math.min(done, len - done));
+        }
+        return iidx + len;
+    }
+
     private static void blitSrcOver888(int[] intData,
                                        int imageOffset,
                                        int imageScanlineStride,
@@ -318,14 +379,37 @@ public class Blit {
                 w = width - minX;
             }
 
-            for (int i = 0; i < w; i++, aidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
-                if (aval == 0) {
-                    continue;
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int aval = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
+                if (aval == MIN_ALPHA) {
+                    iidx += len*imagePixelStride;
                 } else if (aval == MAX_ALPHA) {
-                    intData[iidx] = cval;
+                    iidx = fill(intData, iidx, imagePixelStride, len, cval);
                 } else {
-                    blend888(intData, iidx, aval, cred, cgreen, cblue);
+                    // Same result as blend888
+                    int ia = MAX_ALPHA - aval;
+                    int sred = cred*aval + HALF_ALPHA;
+                    int sgreen = cgreen*aval + HALF_ALPHA;
+                    int sblue = cblue*aval + HALF_ALPHA;
+                    for (; len > 0; len--, iidx += imagePixelStride) {
+                        int ival = intData[iidx];
+                        intData[iidx] = 0xff000000 |
+                            (((((ival >> 16) & 0xff)*ia + sred)
+                              >> ALPHA_SHIFT) << 16) |
+                            (((((ival >> 8) & 0xff)*ia + sgreen)
+                              >> ALPHA_SHIFT) << 8) |
+                            (((ival & 0xff)*ia + sblue) >> ALPHA_SHIFT);
+                    }
                 }
             }
 
@@ -357,14 +441,27 @@ public class Blit {
                 w = width - minX;
             }
 
-            for (int i = 0; i < w; i++, aidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
-                if (aval == 0) {
-                    continue;
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int aval = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
+                if (aval == MIN_ALPHA) {
+                    iidx += len*imagePixelStride;
                 } else if (aval == MAX_ALPHA) {
-                    intData[iidx] = cval;
+                    iidx = fill(intData, iidx, imagePixelStride, len, cval);
                 } else {
-                    blend8888(intData, iidx, aval, cred, cgreen, cblue);
+                    // The result depends on the destination alpha
+                    for (; len > 0; len--, iidx += imagePixelStride) {
+                        blend8888(intData, iidx, aval, cred, cgreen, cblue);
+                    }
                 }
             }
 
@@ -396,14 +493,37 @@ public class Blit {
                 w = width - minX;
             }
 
-            for (int i = 0; i < w; i++, aidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int aval = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
                 if (aval == MIN_ALPHA) {
-                    continue;
+                    iidx += len*imagePixelStride;
                 } else if (aval == MAX_ALPHA) {
-                    shortData[iidx] = cval;
+                    iidx = fill(shortData, iidx, imagePixelStride, len, cval);
                 } else {
-                    blend565(shortData, iidx, aval, cred5, cgreen6, cblue5);
+                    // Same result as blend565
+                    int ia = MAX_ALPHA - aval;
+                    int sred = cred5*aval + HALF_ALPHA;
+                    int sgreen = cgreen6*aval + HALF_ALPHA;
+                    int sblue = cblue5*aval + HALF_ALPHA;
+                    for (; len > 0; len--, iidx += imagePixelStride) {
+                        int sval = shortData[iidx];
+                        shortData[iidx] = (short)
+                            (((((sval >> 11) & 0x1f)*ia + sred)
+                              >> ALPHA_SHIFT) << 11 |
+                             ((((sval >> 5) & 0x3f)*ia + sgreen)
+                              >> ALPHA_SHIFT) << 5 |
+                             (((sval & 0x1f)*ia + sblue) >> ALPHA_SHIFT));
+                    }
                 }
             }
 
@@ -435,14 +555,31 @@ public class Blit {
                 w = width - minX;
             }
             
-            for (int i = 0; i < w; i++, aidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
-                if (aval == 0) {
-                    continue;
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int aval = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
+                if (aval == MIN_ALPHA) {
+                    iidx += len*imagePixelStride;
                 } else if (aval == MAX_ALPHA) {
-                    byteData[iidx] = cval;
+                    iidx = fill(byteData, iidx, imagePixelStride, len, cval);
                 } else {
-                    blend8(byteData, iidx, aval, cgray);
+                    // Same result as blend8
+                    int ia = MAX_ALPHA - aval;
+                    int sgray = cgray*aval + HALF_ALPHA;
+                    for (; len > 0; len--, iidx += imagePixelStride) {
+                        byteData[iidx] = (byte)
+                            (((byteData[iidx] & 0xff)*ia + sgray)
+                             >> ALPHA_SHIFT);
+                    }
                 }
             }
 
@@ -450,6 +587,10 @@ public class Blit {
         }
     }
 
+    // In the loops with a paint, the coverage of a run is combined with
+    // the alpha of each paint pixel.  Opaque paint pixels, the common
+    // case for gradients and textures, keep the coverage unchanged.
+
     // blit 888 w/ paint
     private static void blitSrcOver888(int[] intData,
                                        int imageOffset,
@@ -476,27 +617,51 @@ public class Blit {
                 w = width - minX;
             }
             
-            for (int i = 0; i < w;
-                 i++, aidx++, pidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int cover = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
+                if (cover == MIN_ALPHA) {
+                    pidx += len;
+                    iidx += len*imagePixelStride;
+                    continue;
+                }
 
-                // Combine AA alpha with paint alpha
-                // IMPL NOTE : This could be sped up somehow...
-                int paint = paintData[pidx];
-                int calpha = (paint >> 24) & 0xff;
-                aval = (aval*calpha + 127)/255;
+                for (; len > 0; len--, pidx++, iidx += imagePixelStride) {
+                    int paint = paintData[pidx];
+                    int calpha = paint >>> 24;
+                    int aval = cover;
+                    if (calpha != 0xff) {
+                        aval = (aval*calpha + 127)/255;
+                    }
 
-                if (aval == 0) {
-                    continue;
-                } else if (aval == MAX_ALPHA) {
-                    // Force output alpha to 1
-                    intData[iidx] = paintData[pidx] | 0xff000000;
-                } else {
-                    int cred = (paint >> 16) & 0xff;
-                    int cgreen = (paint >> 8) & 0xff;
-                    int cblue = paint & 0xff;
-                    
-                    blend888(intData, iidx, aval, cred, cgreen, cblue);
+                    if (aval == MIN_ALPHA) {
+                        continue;
+                    } else if (aval == MAX_ALPHA) {
+                        // Force output alpha to 1
+                        intData[iidx] = paint | 0xff000000;
+                    } else {
+                        int ia = MAX_ALPHA - aval;
+                        int ival = intData[iidx];
+                        intData[iidx] = 0xff000000 |
+                            (((((ival >> 16) & 0xff)*ia +
+                               ((paint >> 16) & 0xff)*aval + HALF_ALPHA)
+                              >> ALPHA_SHIFT) << 16) |
+                            (((((ival >> 8) & 0xff)*ia +
+                               ((paint >> 8) & 0xff)*aval + HALF_ALPHA)
+                              >> ALPHA_SHIFT) << 8) |
+                            (((ival & 0xff)*ia +
+                              (paint & 0xff)*aval + HALF_ALPHA)
+                             >> ALPHA_SHIFT);
+                    }
                 }
             }
 
@@ -531,26 +696,42 @@ public class Blit {
                 w = width - minX;
             }
             
-            for (int i = 0; i < w;
-                 i++, aidx++, pidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int cover = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
+                if (cover == MIN_ALPHA) {
+                    pidx += len;
+                    iidx += len*imagePixelStride;
+                    continue;
+                }
 
-                // Combine AA alpha with paint alpha
-                // IMPL NOTE : This could be sped up somehow...
-                int paint = paintData[pidx];
-                int calpha = (paint >> 24) & 0xff;
-                aval = (aval*calpha + 127)/255;
+                for (; len > 0; len--, pidx++, iidx += imagePixelStride) {
+                    int paint = paintData[pidx];
+                    int calpha = paint >>> 24;
+                    int aval = cover;
+                    if (calpha != 0xff) {
+                        aval = (aval*calpha + 127)/255;
+                    }
 
-                if (aval == 0) {
-                    continue;
-                } else if (aval == MAX_ALPHA) {
-                    intData[iidx] = paintData[pidx];
-                } else {
-                    int cred = (paint >> 16) & 0xff;
-                    int cgreen = (paint >> 8) & 0xff;
-                    int cblue = paint & 0xff;
-                    
-                    blend8888(intData, iidx, aval, cred, cgreen, cblue);
+                    if (aval == MIN_ALPHA) {
+                        continue;
+                    } else if (aval == MAX_ALPHA) {
+                        intData[iidx] = paint;
+                    } else {
+                        blend8888(intData, iidx, aval,
+                                  (paint >> 16) & 0xff,
+                                  (paint >> 8) & 0xff,
+                                  paint & 0xff);
+                    }
                 }
             }
 
@@ -573,6 +754,9 @@ public class Blit {
                                        int paintOffset,
                                        int paintScanlineStride,
                                        int[] alphaMap) {
+        int[] convert8To5 = Blit.convert8To5;
+        int[] convert8To6 = Blit.convert8To6;
+
         for (int j = 0; j < height; j++) {
             int minX = minTouched[j];
             int maxX = maxTouched[j];
@@ -585,27 +769,57 @@ public class Blit {
                 w = width - minX;
             }
 
-            for (int i = 0; i < w;
-                 i++, aidx++, pidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
-                int paint = paintData[pidx];
-                int calpha = (paint >> 24) & 0xff;
-                // IMPL NOTE : This could be sped up somehow...
-                aval = (aval*calpha + 127)/255;
-                
-                if (aval == MIN_ALPHA) {
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int cover = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
+                if (cover == MIN_ALPHA) {
+                    pidx += len;
+                    iidx += len*imagePixelStride;
                     continue;
                 }
-                
-                int cred5 = convert8To5[(paint >> 16) & 0xff];
-                int cgreen6 = convert8To6[(paint >> 8) & 0xff];
-                int cblue5 = convert8To5[paint & 0xff];
 
-                if (aval == MAX_ALPHA) {
-                    shortData[iidx] =
-                        (short)((cred5 << 11) | (cgreen6 << 5) | cblue5);
-                } else {
-                    blend565(shortData, iidx, aval, cred5, cgreen6, cblue5);
+                for (; len > 0; len--, pidx++, iidx += imagePixelStride) {
+                    int paint = paintData[pidx];
+                    int calpha = paint >>> 24;
+                    int aval = cover;
+                    if (calpha != 0xff) {
+                        aval = (aval*calpha + 127)/255;
+                    }
+
+                    if (aval == MIN_ALPHA) {
+                        continue;
+                    }
+
+                    int cred5 = convert8To5[(paint >> 16) & 0xff];
+                    int cgreen6 = convert8To6[(paint >> 8) & 0xff];
+                    int cblue5 = convert8To5[paint & 0xff];
+
+                    if (aval == MAX_ALPHA) {
+                        shortData[iidx] =
+                            (short)((cred5 << 11) | (cgreen6 << 5) | cblue5);
+                    } else {
+                        int ia = MAX_ALPHA - aval;
+                        int sval = shortData[iidx];
+                        shortData[iidx] = (short)
+                            (((((sval >> 11) & 0x1f)*ia +
+                               cred5*aval + HALF_ALPHA)
+                              >> ALPHA_SHIFT) << 11 |
+                             ((((sval >> 5) & 0x3f)*ia +
+                               cgreen6*aval + HALF_ALPHA)
+                              >> ALPHA_SHIFT) << 5 |
+                             (((sval & 0x1f)*ia +
+                               cblue5*aval + HALF_ALPHA)
+                              >> ALPHA_SHIFT));
+                    }
                 }
             }
 
@@ -640,29 +854,48 @@ public class Blit {
                 w = width - minX;
             }
             
-            for (int i = 0; i < w;
-                 i++, aidx++, pidx++, iidx += imagePixelStride) {
-                int aval = alphaMap[alpha[aidx] & 0xff];
-                int paint = paintData[pidx];
-                int calpha = (paint >> 24) & 0xff;
-                // IMPL NOTE : This could be sped up somehow...
-                aval = (aval*calpha + 127)/255;
-
-                if (aval == MIN_ALPHA) {
+            int aend = aidx + w;
+            while (w > 0) {
+                byte a = alpha[aidx];
+                int next = aidx + 1;
+                while (next < aend && alpha[next] == a) {
+                    ++next;
+                }
+                int cover = alphaMap[a & 0xff];
+                int len = next - aidx;
+                aidx = next;
+                w -= len;
+
+                if (cover == MIN_ALPHA) {
+                    pidx += len;
+                    iidx += len*imagePixelStride;
                     continue;
                 }
 
-                int cred = (paint >> 16) & 0xff;
-                int cgreen = (paint >> 8) & 0xff;
-                int cblue = paint & 0xff;
+                for (; len > 0; len--, pidx++, iidx += imagePixelStride) {
+                    int paint = paintData[pidx];
+                    int calpha = paint >>> 24;
+                    int aval = cover;
+                    if (calpha != 0xff) {
+                        aval = (aval*calpha + 127)/255;
+                    }
 
-                // gray = .3*red + .59*green + .11*blue
-                int cgray = (19961*cred + 38666*cgreen + 7209*cblue) >> 16;
+                    if (aval == MIN_ALPHA) {
+                        continue;
+                    }
 
-                if (aval == MAX_ALPHA) {
-                    byteData[iidx] = (byte)cgray;
-                } else {
-                    blend8(byteData, iidx, aval, cgray);
+                    // gray = .3*red + .59*green + .11*blue
+                    int cgray = (19961*((paint >> 16) & 0xff) +
+                                 38666*((paint >> 8) & 0xff) +
+                                 7209*(paint & 0xff)) >> 16;
+
+                    if (aval == MAX_ALPHA) {
+                        byteData[iidx] = (byte)cgray;
+                    } else {
+                        byteData[iidx] = (byte)
+                            (((byteData[iidx] & 0xff)*(MAX_ALPHA - aval) +
+                              cgray*aval + HALF_ALPHA) >> ALPHA_SHIFT);
+                    }
                 }
             }
 
@@ -774,29 +1007,17 @@ public class Blit {
                 ix0*imagePixelStride;
             if (intData != null) {
                 for (int j = 0; j < height; j++) {
-                    int iidx = offset;
-                    for (int i = 0; i < width; i++) {
-                        intData[iidx] = intVal;
-                        iidx += imagePixelStride;
-                    }
+                    fill(intData, offset, imagePixelStride, width, intVal);
                     offset += imageScanlineStride;
                 }
             } else if (shortData != null) {
                 for (int j = 0; j < height; j++) {
-                    int iidx = offset;
-                    for (int i = 0; i < width; i++) {
-                        shortData[iidx] = shortVal;
-                        iidx += imagePixelStride;
-                    }
+                    fill(shortData, offset, imagePixelStride, width, shortVal);
                     offset += imageScanlineStride;
                 }
             } else if (byteData != null) {
                 for (int j = 0; j < height; j++) {
-                    int iidx = offset;
-                    for (int i = 0; i < width; i++) {
-                        byteData[iidx] = byteVal;
-                        iidx += imagePixelStride;
-                    }
+                    fill(byteData, offset, imagePixelStride, width, byteVal);
                     offset += imageScanlineStride;
                 }
             }
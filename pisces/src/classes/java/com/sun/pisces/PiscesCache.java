@@ -44,7 +44,14 @@ public final class PiscesCache {
     int alphaWidth = 0;
     int alphaHeight = 0;
 
+    // One past the rightmost pixel of any row, while recording
+    int maxX = Integer.MIN_VALUE;
+
+    // Leftmost pixel of each row, or Integer.MAX_VALUE if it is empty
     int[] minTouched = null;
+
+    // Image row of each row; a row may appear twice when strips split it
+    int[] rowY = null;
     
     private PiscesCache() {}
 
@@ -73,17 +80,21 @@ public final class PiscesCache {
             int len = Math.max(newHeight, MIN_TOUCHED_LEN);
             minTouched = new int[len];
             rowOffsetsRLE = new int[len];
+            rowY = new int[len];
         } else if (minTouched.length < newHeight) {
             int len = Math.max(newHeight,
                                (int)(minTouched.length*TOUCHED_FACTOR));
             int[] newMinTouched = new int[len];
             int[] newRowOffsetsRLE = new int[len];
+            int[] newRowY = new int[len];
             System.arraycopy(minTouched, 0, newMinTouched, 0,
                              minTouched.length);
             System.arraycopy(rowOffsetsRLE, 0, newRowOffsetsRLE, 0,
                              rowOffsetsRLE.length);
+            System.arraycopy(rowY, 0, newRowY, 0, rowY.length);
             minTouched = newMinTouched;
             rowOffsetsRLE = newRowOffsetsRLE;
+            rowY = newRowY;
         }
     }
 
@@ -93,25 +104,41 @@ public final class PiscesCache {
         rowAARLE[alphaRLELength++] = (byte)runLen;
     }
 
-    void addRow(int minX, int offset) {
+    void addRow(int minX, int offset, int y) {
         reallocRowInfo(alphaHeight + 1);
         minTouched[alphaHeight] = minX;
         rowOffsetsRLE[alphaHeight] = offset;
+        rowY[alphaHeight] = y;
         ++alphaHeight;
     }
 
+    // Approximate number of bytes held by the coverage data
+    int getMemorySize() {
+        int size = 0;
+        if (rowAARLE != null) {
+            size += rowAARLE.length;
+        }
+        if (minTouched != null) {
+            size += 4*(minTouched.length + rowOffsetsRLE.length +
+                       rowY.length);
+        }
+        return size;
+    }
+
     public synchronized boolean isValid() {
         return isValid;
     }
 
     public synchronized void dispose() {
         alphaWidth = alphaHeight = 0;
+        maxX = Integer.MIN_VALUE;
 
         rowAARLE = null;
         alphaRLELength = 0;
 
         minTouched = null;
         rowOffsetsRLE = null;
+        rowY = null;
 
         isValid = false;
     }
@@ -0,0 +1,336 @@
+/*
+ * 
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved. 
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER 
+ *  
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License version 
+ * 2 only, as published by the Free Software Foundation. 
+ *  
+ * This program is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License version 2 for more details (a copy is 
+ * included at /legal/license.txt). 
+ *  
+ * You should have received a copy of the GNU General Public License 
+ * version 2 along with this work; if not, write to the Free Software 
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 
+ * 02110-1301 USA 
+ *  
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa 
+ * Clara, CA 95054 or visit www.sun.com if you need additional 
+ * information or have any questions.
+ */
+ 
+ 
+package com.sun.pisces;
+
+import java.util.Hashtable;
+
+/**
+ * A table of pre-rendered coverage masks shared by renderers drawing the
+ * same paths repeatedly, such as icons and other static UI elements.
+ *
+ * <p> Masks are keyed by the identity of a caller supplied path object
+ * together with the renderer state the mask depends on: the transform,
+ * the fill or stroke settings, the winding rule, antialiasing and the
+ * clip.  They do not depend on the paint.  When the masks exceed the
+ * memory budget the least recently used ones are discarded, except for
+ * those of pinned paths.
+ *
+ * <p> A mask is only handed out once it is complete.  While one
+ * renderer records a mask, other renderers asking for the same mask
+ * render the path without the table.
+ *
+ * <p> The table does not track changes to the path objects themselves;
+ * callers must use <code>remove</code> when a path is modified.
+ *
+ * @see PiscesRenderer#renderPath(Object, int, byte[], float[], int)
+ */
+public final class PiscesCacheTable {
+
+    // A cached mask of one path for one renderer state
+    private static final class Entry {
+        Slot slot;
+        int[] state;
+        PiscesCache cache;
+        int size;
+
+        // True while a renderer records the mask into cache
+        boolean inProgress;
+
+        // Next entry of the same path
+        Entry nextInSlot;
+
+        // Neighbours in the table's LRU list, most recent first
+        Entry prev, next;
+    }
+
+    // The entries and the pin count of one path.  Slots are their own
+    // keys in the table and compare paths by identity, whatever the
+    // equals method of the path objects does.
+    private static final class Slot {
+        Object path;
+        Entry entries;
+        int pinCount;
+
+        public int hashCode() {
+            return System.identityHashCode(path);
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof Slot) && ((Slot)o).path == path;
+        }
+    }
+
+    private Hashtable slots = new Hashtable();
+
+    // Key used to look up the slot of a path
+    private final Slot probe = new Slot();
+
+    private Entry mostRecent = null;
+    private Entry leastRecent = null;
+
+    private int memoryBudget;
+    private int memoryUsed = 0;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param memoryBudget the number of bytes of mask data kept for
+     * unpinned paths.
+     */
+    public PiscesCacheTable(int memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Changes the memory budget, evicting masks if needed.
+     *
+     * @param memoryBudget the number of bytes of mask data kept for
+     * unpinned paths.
+     */
+    public synchronized void setMemoryBudget(int memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        trim();
+    }
+
+    public synchronized int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the number of bytes of mask data currently held, including
+     * the masks of pinned paths.
+     */
+    public synchronized int getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * Keeps the masks of a path in the table until it is unpinned,
+     * regardless of the memory budget.  Pins are counted, so each call
+     * must be matched by a call to <code>unpin</code>.
+     *
+     * @param path the path object used as the key.
+     */
+    public synchronized void pin(Object path) {
+        Slot slot = getSlot(path);
+        if (slot == null) {
+            slot = new Slot();
+            slot.path = path;
+            slots.put(slot, slot);
+        }
+        ++slot.pinCount;
+    }
+
+    /**
+     * Releases a pin taken by <code>pin</code>.  Once a path has no
+     * pins left its masks become subject to eviction again.
+     *
+     * @param path the path object used as the key.
+     */
+    public synchronized void unpin(Object path) {
+        Slot slot = getSlot(path);
+        if (slot == null || slot.pinCount == 0) {
+            return;
+        }
+        if (--slot.pinCount == 0) {
+            if (slot.entries == null) {
+                slots.remove(slot);
+            } else {
+                trim();
+            }
+        }
+    }
+
+    /**
+     * Discards all masks of a path, for example after it was modified.
+     * Pins on the path are kept.
+     *
+     * @param path the path object used as the key.
+     */
+    public synchronized void remove(Object path) {
+        Slot slot = getSlot(path);
+        if (slot == null) {
+            return;
+        }
+        while (slot.entries != null) {
+            removeEntry(slot.entries);
+        }
+    }
+
+    /**
+     * Discards all masks and pins.
+     */
+    public synchronized void clear() {
+        slots.clear();
+        mostRecent = leastRecent = null;
+        memoryUsed = 0;
+    }
+
+    /**
+     * Returns the cache for the given path and renderer state.  If no
+     * valid mask is held, an empty cache is returned that the caller
+     * fills by rendering into it and then passes to <code>added</code>,
+     * or <code>null</code> if another renderer is filling it.
+     */
+    synchronized PiscesCache lookup(Object path, int[] state, int stateLen) {
+        Slot slot = getSlot(path);
+        if (slot == null) {
+            slot = new Slot();
+            slot.path = path;
+            slots.put(slot, slot);
+        }
+
+        for (Entry e = slot.entries; e != null; e = e.nextInSlot) {
+            if (sameState(e.state, state, stateLen)) {
+                if (e.inProgress) {
+                    return null;
+                }
+                if (e != mostRecent) {
+                    unlink(e);
+                    linkFirst(e);
+                }
+                return e.cache;
+            }
+        }
+
+        Entry e = new Entry();
+        e.slot = slot;
+        e.state = new int[stateLen];
+        System.arraycopy(state, 0, e.state, 0, stateLen);
+        e.cache = PiscesCache.createInstance();
+        e.inProgress = true;
+        e.nextInSlot = slot.entries;
+        slot.entries = e;
+        linkFirst(e);
+        return e.cache;
+    }
+
+    /**
+     * Accounts for a mask after it was rendered into a cache returned
+     * by <code>lookup</code>, and evicts older masks if the table went
+     * over budget.  A cache left invalid, because rendering failed, is
+     * dropped.
+     */
+    synchronized void added(Object path, PiscesCache cache) {
+        Slot slot = getSlot(path);
+        if (slot == null) {
+            // Removed while rendering
+            return;
+        }
+        for (Entry e = slot.entries; e != null; e = e.nextInSlot) {
+            if (e.cache == cache) {
+                e.inProgress = false;
+                if (!cache.isValid()) {
+                    removeEntry(e);
+                    return;
+                }
+                memoryUsed -= e.size;
+                e.size = cache.getMemorySize();
+                memoryUsed += e.size;
+                trim();
+                return;
+            }
+        }
+    }
+
+    private static boolean sameState(int[] a, int[] b, int len) {
+        if (a.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Evicts least recently used masks of unpinned paths until the
+    // table is within budget
+    private void trim() {
+        Entry e = leastRecent;
+        while (memoryUsed > memoryBudget && e != null) {
+            Entry prev = e.prev;
+            if (e.slot.pinCount == 0) {
+                removeEntry(e);
+            }
+            e = prev;
+        }
+    }
+
+    private void removeEntry(Entry e) {
+        Slot slot = e.slot;
+        if (slot.entries == e) {
+            slot.entries = e.nextInSlot;
+        } else {
+            Entry p = slot.entries;
+            while (p.nextInSlot != e) {
+                p = p.nextInSlot;
+            }
+            p.nextInSlot = e.nextInSlot;
+        }
+        if (slot.entries == null && slot.pinCount == 0) {
+            slots.remove(slot);
+        }
+
+        // Not disposed: a renderer may still be replaying the mask
+        unlink(e);
+        memoryUsed -= e.size;
+    }
+
+    private Slot getSlot(Object path) {
+        probe.path = path;
+        Slot slot = (Slot)slots.get(probe);
+        probe.path = null;
+        return slot;
+    }
+
+    private void linkFirst(Entry e) {
+        e.prev = null;
+        e.next = mostRecent;
+        if (mostRecent != null) {
+            mostRecent.prev = e;
+        } else {
+            leastRecent = e;
+        }
+        mostRecent = e;
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null) {
+            e.prev.next = e.next;
+        } else {
+            mostRecent = e.next;
+        }
+        if (e.next != null) {
+            e.next.prev = e.prev;
+        } else {
+            leastRecent = e.prev;
+        }
+        e.prev = e.next = null;
+    }
+}
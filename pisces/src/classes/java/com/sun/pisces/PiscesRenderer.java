@@ -50,6 +50,7 @@ public final class PiscesRenderer extends PathSink {
 
     private static final int STROKE_X_BIAS;
     private static final int STROKE_Y_BIAS;
+    private static final int TILE_SIZE;
     
     static {
         if (enableLogging) {
@@ -87,6 +88,16 @@ public final class PiscesRenderer extends PathSink {
             }
         }
         STROKE_Y_BIAS = intValue;
+
+        strValue = Configuration.getProperty("pisces.renderer.tilesize");
+        intValue = 0; // default is untiled rendering
+        if (strValue != null) {
+            try {
+                intValue = Integer.parseInt(strValue);
+            } catch (NumberFormatException e) {
+            }
+        }
+        TILE_SIZE = intValue;
     }
 
     private static boolean messageShown = false;
@@ -98,7 +109,7 @@ public final class PiscesRenderer extends PathSink {
     int offset, scanlineStride, pixelStride;
     int type;
 
-    RendererBase rdr;
+    Renderer rdr;
     public PathSink fillerP = null;
     public PathSink textFillerP = null;
     public PathSink strokerP = null;
@@ -135,6 +146,11 @@ public final class PiscesRenderer extends PathSink {
     int bbMinY = Integer.MIN_VALUE;
     int bbMaxX = Integer.MAX_VALUE;
     int bbMaxY = Integer.MAX_VALUE;
+
+    // Coverage masks for renderPath(Object, ...), and scratch space
+    // for the key describing the current renderer state
+    PiscesCacheTable cacheTable = null;
+    int[] cacheState = null;
     
     /**
      * Creates a renderer that will write into a given pixel array.
@@ -180,6 +196,7 @@ public final class PiscesRenderer extends PathSink {
         this.rdr = new Renderer(this.data, this.width, this.height,
                 this.offset, this.scanlineStride, this.pixelStride,
                 type);
+        rdr.setTileSize(TILE_SIZE);
 
         invalidate();
         setFill();
@@ -797,6 +814,116 @@ public final class PiscesRenderer extends PathSink {
         }
     }
 
+    /**
+     * Sets the table of coverage masks used by
+     * <code>renderPath(Object, ...)</code>, or <code>null</code> to
+     * render every path from scratch.  A table may be shared by several
+     * renderers.
+     */
+    public void setCacheTable(PiscesCacheTable cacheTable) {
+        this.cacheTable = cacheTable;
+    }
+
+    public PiscesCacheTable getCacheTable() {
+        return cacheTable;
+    }
+
+    /**
+     * Render a complex path identified by <code>pathKey</code>, reusing
+     * its coverage mask from the cache table when the path was already
+     * rendered with the same transform, fill or stroke settings,
+     * winding rule, antialiasing and clip.  Otherwise the path is
+     * flattened, stroked and rasterized as usual and its mask is added
+     * to the table.  The paint may differ between uses of a mask.
+     *
+     * <p> <code>pathKey</code> is compared by identity and must stand
+     * for the same path data on every call; a modified path must be
+     * removed from the table with <code>PiscesCacheTable.remove</code>.
+     * Without a cache table, this is the same as calling
+     * <code>renderPath</code> with a <code>null</code> cache.
+     *
+     * @see #setCacheTable
+     */
+    public void renderPath(Object pathKey,
+                           int numCommands,
+                           byte[] commands,
+                           float[] coordsXY,
+                           int windingRule) {
+        PiscesCacheTable table = this.cacheTable;
+        if (table == null || pathKey == null) {
+            renderPath(numCommands, commands, coordsXY, windingRule);
+            return;
+        }
+
+        int stateLen = computeCacheState(windingRule);
+        PiscesCache cache = table.lookup(pathKey, cacheState, stateLen);
+        if (cache == null) {
+            // Another renderer is recording this mask
+            renderPath(numCommands, commands, coordsXY, windingRule);
+        } else if (cache.isValid()) {
+            rdr.renderFromCache(cache);
+        } else {
+            rdr.setCache(cache);
+            try {
+                renderPath(numCommands, commands, coordsXY, windingRule);
+            } finally {
+                rdr.setCache(null);
+                table.added(pathKey, cache);
+            }
+        }
+    }
+
+    // Stores the renderer state a coverage mask depends on in
+    // cacheState and returns its length
+    private int computeCacheState(int windingRule) {
+        int dashLen = (isPathFilled || dashArray == null) ?
+            0 : dashArray.length;
+        int len = 19 + dashLen;
+        if (cacheState == null || cacheState.length < len) {
+            cacheState = new int[len];
+        }
+
+        int[] state = cacheState;
+        if (!isPathFilled) {
+            state[0] = 1;
+        } else if (externalConsumer == textTransformer) {
+            state[0] = 2;
+        } else {
+            state[0] = 0;
+        }
+        state[1] = windingRule;
+        state[2] = antialiasingOn ? 1 : 0;
+
+        state[3] = transform.m00;
+        state[4] = transform.m01;
+        state[5] = transform.m10;
+        state[6] = transform.m11;
+        state[7] = transform.m02;
+        state[8] = transform.m12;
+
+        // The clip as computed by myBeginRendering(windingRule)
+        state[9] = Math.max(0, bbMinX);
+        state[10] = Math.max(0, bbMinY);
+        state[11] = Math.min(width, bbMaxX);
+        state[12] = Math.min(height, bbMaxY);
+
+        if (isPathFilled) {
+            state[13] = state[14] = state[15] = 0;
+            state[16] = state[17] = state[18] = 0;
+        } else {
+            state[13] = lineWidth;
+            state[14] = capStyle;
+            state[15] = joinStyle;
+            state[16] = miterLimit;
+            state[17] = dashPhase;
+            state[18] = dashLen;
+            for (int i = 0; i < dashLen; i++) {
+                state[19 + i] = dashArray[i];
+            }
+        }
+        return len;
+    }
+
     /**
      * Returns a bounding box containing all pixels drawn during the
      * rendering of the most recent primitive
@@ -40,6 +40,9 @@ public class Renderer extends RendererBase {
 
     public static final int NUM_ALPHA_ROWS = 8;
 
+    // Largest supported tile size is 1 << MAX_TILE_LG_SIZE pixels
+    public static final int MAX_TILE_LG_SIZE = 7;
+
     // Antialiasing
     private int SUBPIXEL_LG_POSITIONS_X;
     private int SUBPIXEL_LG_POSITIONS_Y;
@@ -58,6 +61,11 @@ public class Renderer extends RendererBase {
 
     private static final int MIN_QUAD_OPT_WIDTH = 100 << 16;
 
+    // Kinds of tiles in tiled mode
+    private static final int TILE_EMPTY = 0;
+    private static final int TILE_FULL = 1;
+    private static final int TILE_PARTIAL = 2;
+
     // Cache to store RLE-encoded coverage mask of the current primitive
     PiscesCache cache = null;
 
@@ -126,6 +134,21 @@ public class Renderer extends RendererBase {
     private int currX, currY;
     private int currImageOffset;
 
+    // Spans are clipped to x < spanMaxX, at subsample precision.  This
+    // is rasterMaxX except when a run of tiles ends inside the raster,
+    // where the span must reach the first subpixel of the next tile.
+    private int spanMaxX;
+
+    // Tiled rasterization: log2 of the tile size in pixels, 0 if the
+    // whole shape is rasterized strip by strip as one piece
+    private int tileLgSize = 0;
+
+    // Per tile column of the current tile row: set if a crossing falls
+    // inside the tile, and the number of subpixel rows whose span covers
+    // the whole tile (accumulated as differences, then summed)
+    private byte[] tileEdge = null;
+    private int[] tileCover = null;
+
     public Renderer(Object imageData, int width, int height,
 		    int imageOffset,
                     int imageScanlineStride,
@@ -190,6 +213,27 @@ public class Renderer extends RendererBase {
         createAlphaMap(this.calpha);
     }
 
+    /**
+     * Sets the size of the tiles used to rasterize filled shapes.  With
+     * tiling, edges are binned into rows of tiles and each row is
+     * classified tile by tile: tiles no span touches are skipped, tiles
+     * covered by every span are filled directly when the paint is an
+     * opaque color, and the remaining tiles are rasterized as runs.
+     * A size below 2 turns tiling off; other sizes are rounded down to
+     * a power of two no larger than 1 << MAX_TILE_LG_SIZE.
+     *
+     * <p> Tiled output is identical to untiled output.
+     *
+     * @param size tile width and height in pixels
+     */
+    public void setTileSize(int size) {
+        int lg = 0;
+        while (lg < MAX_TILE_LG_SIZE && (2 << lg) <= size) {
+            ++lg;
+        }
+        this.tileLgSize = lg;
+    }
+
     public int getSubpixelLgPositionsX() {
         return SUBPIXEL_LG_POSITIONS_X;
     }
@@ -329,30 +373,36 @@ public class Renderer extends RendererBase {
             return;
         }
 
-        // Scan convert line using a DDA approach
+        // Scan convert line using a DDA approach.  The DDA always starts
+        // at the first scanline of the edge within the rendered rows, so
+        // the crossings do not depend on how the rows are split into
+        // strips or rows of tiles.
 
         int ix0 = edges[index];
         int ix1 = edges[index + 2];
         int dx = ix1 - ix0;
         int dy = iy1 - iy0;
 
-        // Compute first crossing point at y = minY
+        int starty0 = (iy0 > edgeStartY) ? iy0 : edgeStartY;
+        int startY = ((starty0 + HYSTEP) & YMASK) + HYSTEP;
+
+        // Compute the crossing point at y = startY, then advance it to
+        // y = minY
         int orientation = edges[index + 4];
         int y = minY;
-  	long lx = (long)(y - iy0)*dx/dy + ix0;
-        addCrossing(y >> YSHIFT, (int)(lx >> XSHIFT), orientation);
+  	long lx = (long)(startY - iy0)*dx/dy + ix0;
 
-        // Advance y to next scanline, exit if past endpoint
-        y += YSTEP;
-        if (y > maxY) {
-            return;
+        // Compute xstep only if additional scanlines are crossed
+        long xstep = 0;
+        if (maxY > startY) {
+            xstep = ((long)YSTEP*dx)/dy;
+            lx += ((y - startY) >> YSHIFT)*xstep;
         }
+        addCrossing(y >> YSHIFT, (int)(lx >> XSHIFT), orientation);
 
-        // Compute xstep only if additional scanlines are crossed
         // For each scanline, add xstep to lx and YSTEP to y and
         // emit the new crossing
-    	long xstep = ((long)YSTEP*dx)/dy;
-	for (; y <= maxY; y += YSTEP) {
+	for (y += YSTEP; y <= maxY; y += YSTEP) {
    	    lx += xstep;
 	    addCrossing(y >> YSHIFT, (int)(lx >> XSHIFT), orientation);
 	}
@@ -491,6 +541,15 @@ public class Renderer extends RendererBase {
         bboxY0 = iminY >> SUBPIXEL_LG_POSITIONS_Y;
         bboxY1 = (imaxY + SUBPIXEL_POSITIONS_Y - 1) >> SUBPIXEL_LG_POSITIONS_Y;
 
+        edgeStartY = iminY << YSHIFT;
+
+        // The cache records whole rows, so only untiled output can fill it
+        if (tileLgSize > 0 && cache == null) {
+            renderTileRows(iminY, imaxY);
+            crossingListFinished();
+            return;
+        }
+
         // Compute number of rows that can be processing using
         // a crossings table no larger than DEFAULT_CROSSINGS_SIZE.
         // However, we must process at least one row, so we grow the table
@@ -551,6 +610,7 @@ public class Renderer extends RendererBase {
             bboxX1 = Math.max(bboxX1,
                               (rasterMaxX + SUBPIXEL_POSITIONS_X - 1)
                               >> SUBPIXEL_LG_POSITIONS_X);
+            spanMaxX = rasterMaxX;
             renderStrip();
         }
 
@@ -568,6 +628,8 @@ public class Renderer extends RendererBase {
             cache.bboxY0 = bboxY0;
             cache.bboxX1 = bboxX1;
             cache.bboxY1 = bboxY1;
+            cache.alphaWidth = Math.max(Math.max(bboxX1, cache.maxX) - bboxX0,
+                                        0);
 
             cache.isValid = true;
         }
@@ -580,6 +642,210 @@ public class Renderer extends RendererBase {
         bbox[3] = bboxY1 - bboxY0;
     }
 
+    // Rasterizes the subpixel rows iminY..imaxY one row of tiles at a time
+    private void renderTileRows(int iminY, int imaxY) {
+        int lgRows = tileLgSize + SUBPIXEL_LG_POSITIONS_Y;
+        int firstRow = iminY >> lgRows;
+        int numRows = (imaxY >> lgRows) - firstRow + 1;
+
+        // Bin the edges by the tile row holding their first scanline,
+        // so that each row only looks at edges that can cross it
+        int numEdges = edgeIdx/5;
+        if (edgeBuckets == null || edgeBuckets.length < numRows) {
+            edgeBuckets = new int[numRows];
+        }
+        if (edgeNext == null || edgeNext.length < numEdges) {
+            edgeNext = new int[numEdges];
+            activeEdges = new int[numEdges];
+        }
+        for (int r = 0; r < numRows; r++) {
+            edgeBuckets[r] = -1;
+        }
+        for (int e = numEdges - 1; e >= 0; e--) {
+            int r = ((edges[5*e + 1] >> YSHIFT) >> lgRows) - firstRow;
+            if (r < 0) {
+                r = 0;
+            } else if (r >= numRows) {
+                continue;
+            }
+            edgeNext[e] = edgeBuckets[r];
+            edgeBuckets[r] = e;
+        }
+
+        int numActive = 0;
+        for (int r = 0; r < numRows; r++) {
+            int first = Math.max((firstRow + r) << lgRows, iminY);
+            int last = Math.min(((firstRow + r + 1) << lgRows) - 1, imaxY);
+            setCrossingsExtents(first, last, flips);
+
+            int bminY = first << YSHIFT;
+            int bmaxY = (last << YSHIFT) | ~YMASK;
+
+            for (int e = edgeBuckets[r]; e >= 0; e = edgeNext[e]) {
+                activeEdges[numActive++] = 5*e;
+            }
+
+            // Scan convert the active edges, keeping those that
+            // continue into the next row of tiles
+            int kept = 0;
+            for (int i = 0; i < numActive; i++) {
+                int index = activeEdges[i];
+                computeCrossingsForEdge(index, bminY, bmaxY);
+                if (edges[index + 3] > bmaxY) {
+                    activeEdges[kept++] = index;
+                }
+            }
+            numActive = kept;
+
+            computeBounds();
+            if (rasterMaxX < rasterMinX) {
+                continue;
+            }
+
+            bboxX0 = Math.min(bboxX0,
+                              rasterMinX >> SUBPIXEL_LG_POSITIONS_X);
+            bboxX1 = Math.max(bboxX1,
+                              (rasterMaxX + SUBPIXEL_POSITIONS_X - 1)
+                              >> SUBPIXEL_LG_POSITIONS_X);
+            renderTileRow();
+        }
+    }
+
+    // Classifies the tiles of the crossings currently held, then fills,
+    // skips or rasterizes each run of tiles of the same kind
+    private void renderTileRow() {
+        int lgTileX = tileLgSize + SUBPIXEL_LG_POSITIONS_X;
+        int firstTile = rasterMinX >> lgTileX;
+        int numTiles = (rasterMaxX >> lgTileX) - firstTile + 1;
+
+        if (tileEdge == null || tileEdge.length < numTiles) {
+            tileEdge = new byte[numTiles];
+            tileCover = new int[numTiles + 1];
+        }
+        for (int t = 0; t < numTiles; t++) {
+            tileEdge[t] = (byte)0;
+            tileCover[t] = 0;
+        }
+        tileCover[numTiles] = 0;
+
+	int mask = (windingRule == WIND_EVEN_ODD) ? 0x1 : ~0x0;
+        int tileRound = (1 << lgTileX) - 1;
+
+	iterateCrossings();
+	while (hasMoreCrossingRows()) {
+	    int sum = 0;
+	    int prev = 0;
+            while (crossingRowIndex < crossingRowCount) {
+                int crxo = crossings[crossingRowOffset + crossingRowIndex];
+                crossingRowIndex++;
+
+		int crx = crxo >> 1;
+		if ((sum & mask) != 0) {
+                    // Tiles lying entirely within [prev, crx)
+                    int t0 = ((prev + tileRound) >> lgTileX) - firstTile;
+                    int t1 = (crx >> lgTileX) - firstTile;
+                    if (t0 < 0) {
+                        t0 = 0;
+                    }
+                    if (t1 > numTiles) {
+                        t1 = numTiles;
+                    }
+                    if (t1 > t0) {
+                        ++tileCover[t0];
+                        --tileCover[t1];
+                    }
+                }
+
+                int t = (crx >> lgTileX) - firstTile;
+                if (t >= 0 && t < numTiles) {
+                    tileEdge[t] = (byte)1;
+                }
+
+		sum += ((crxo & 0x1) == 0x1) ? 1 : -1;
+		prev = crx;
+	    }
+	}
+
+        // A tile is full if every subpixel row covers it and no crossing
+        // falls inside it.  Full tiles are filled directly only for an
+        // opaque flat color, otherwise they are rasterized like the rest.
+        // Gray images are excluded since Blit.fillRectSrcOver rounds the
+        // gray level differently from the blending loops.
+        int rows = crossingMaxY - crossingMinY + 1;
+        boolean solid = (paintMode == PAINT_FLAT_COLOR && calpha == 255 &&
+                         imageType != TYPE_BYTE_GRAY);
+
+        int minX = rasterMinX;
+        int maxX = rasterMaxX;
+        int cover = 0;
+        int runStart = 0;
+        int runKind = -1;
+        for (int t = 0; t <= numTiles; t++) {
+            int kind = -1;
+            if (t < numTiles) {
+                cover += tileCover[t];
+                if (tileEdge[t] != 0) {
+                    kind = TILE_PARTIAL;
+                } else if (cover == 0) {
+                    kind = TILE_EMPTY;
+                } else if (cover == rows && solid) {
+                    kind = TILE_FULL;
+                } else {
+                    kind = TILE_PARTIAL;
+                }
+            }
+            if (kind == runKind) {
+                continue;
+            }
+
+            // Emit the run of tiles runStart..t-1
+            if (runKind != -1 && runKind != TILE_EMPTY) {
+                int x0 = (firstTile + runStart) << lgTileX;
+                int x1 = (firstTile + t) << lgTileX;
+                rasterMinX = x0 > minX ? x0 : minX;
+                if (t == numTiles) {
+                    rasterMaxX = maxX;
+                    spanMaxX = maxX;
+                } else {
+                    rasterMaxX = x1 - 1;
+                    spanMaxX = x1;
+                }
+
+                if (runKind == TILE_FULL) {
+                    fillTileRun();
+                } else {
+                    renderStrip();
+                }
+            }
+            runKind = kind;
+            runStart = t;
+        }
+
+        rasterMinX = minX;
+        rasterMaxX = maxX;
+    }
+
+    // Fills the pixels of rasterMinX..rasterMaxX on the rows of the
+    // current crossings with the opaque flat color
+    private void fillTileRun() {
+        int px0 = rasterMinX >> SUBPIXEL_LG_POSITIONS_X;
+        int px1 = px0 +
+            ((rasterMaxX - rasterMinX + 1) >> SUBPIXEL_LG_POSITIONS_X);
+        int py0 = crossingMinY >> SUBPIXEL_LG_POSITIONS_Y;
+        int py1 = (crossingMaxY >> SUBPIXEL_LG_POSITIONS_Y) + 1;
+
+        Blit.fillRectSrcOver(this,
+                             imageData, imageType,
+                             imageOffset,
+                             imageScanlineStride, imagePixelStride,
+                             width, height,
+                             px0 << SUBPIXEL_LG_POSITIONS_X,
+                             py0 << SUBPIXEL_LG_POSITIONS_Y,
+                             px1 << SUBPIXEL_LG_POSITIONS_X,
+                             py1 << SUBPIXEL_LG_POSITIONS_Y,
+                             cred, cgreen, cblue);
+    }
+
     private void renderStrip() {
         // Grow rowAA according to the raster width
         int width = (rasterMaxX - rasterMinX + 1) >> SUBPIXEL_LG_POSITIONS_X;
@@ -654,7 +920,7 @@ public class Renderer extends RendererBase {
 		    // Clip to active X range, if x1 < x0 loop will
 		    // have no effect
                     int x0 = prev > rasterMinX ? prev : rasterMinX;
-		    int x1 =  crx < rasterMaxX ?  crx : rasterMaxX;
+		    int x1 =  crx < spanMaxX ?  crx : spanMaxX;
 
 		    // Empty spans
                     if (x1 > x0) {
@@ -749,14 +1015,8 @@ public class Renderer extends RendererBase {
     private void emitRow(int minX, int maxX, boolean forceOutput) {
         // Copy rowAA data into the cache if one is present
         if (cache != null) {
-            if (cache.alphaWidth == 0) {
-                cache.alphaWidth = alphaWidth;
-            } else {
-                if (alphaWidth != cache.alphaWidth) {
-                    throw new IllegalStateException("alphaWidth changed!");
-                }
-            }
-
+            // Strips may differ in width and position, so rows are
+            // stored at their absolute position in the image
             int len = -1;
             int dstIdx = cache.alphaRLELength;
             if (maxX >= minX) {
@@ -781,10 +1041,12 @@ public class Renderer extends RendererBase {
                 if (runLen > 0) {
                     cache.addRLERun(startVal, runLen);
                 }
-                cache.addRLERun((byte)0, 0);
+                cache.maxX = Math.max(cache.maxX, currX + maxX + 1);
             }
+            cache.addRLERun((byte)0, 0);
 
-            cache.addRow(minX, dstIdx);
+            cache.addRow((maxX >= minX) ? currX + minX : Integer.MAX_VALUE,
+                         dstIdx, currY + rowNum);
         }
 
         // Record values for later blitting
@@ -841,9 +1103,14 @@ public class Renderer extends RendererBase {
         this.alphaWidth = cache.alphaWidth;
         int alphaHeight = cache.alphaHeight;
 
-        int bufLen = NUM_ALPHA_ROWS*alphaWidth;
-	if (this.rowAA == null || this.rowAA.length < bufLen) {
+        int bufLen = NUM_ALPHA_ROWS*alphaWidth + 1;
+	if (this.rowAA == null || this.rowAA.length < bufLen ||
+            this.paintBufferStride < alphaWidth) {
             this.rowAA = new byte[bufLen];
+
+            this.paintBuffer = new int[bufLen];
+            this.paintBufferOffset = 0;
+            this.paintBufferStride = alphaWidth;
         }
 
         // Decode run-length encoded alpha mask data
@@ -851,17 +1118,20 @@ public class Renderer extends RendererBase {
         // and is encoded as a set of 2-byte pairs (val, runLen)
         // terminated by a (0, 0) pair.
 
-        int currX = cache.bboxX0;
-        int currY = cache.bboxY0;
-        currImageOffset = imageOffset +
-            currY*imageScanlineStride +
-            currX*imagePixelStride;
-        
+        // Rows start at the left edge of the bounding box; paints other
+        // than a flat color read their position from currX and currY.
+        // Rows are blitted in groups of consecutive image rows.
+        this.currX = cache.bboxX0;
+
         int idx = 0;
+        int jj = 0;
         for (int j = 0; j < alphaHeight; j++) {
-            int jj = j & (NUM_ALPHA_ROWS - 1);
-
-            rowOffsets[jj] = idx - cache.minTouched[j];
+            if (jj == 0) {
+                this.currY = cache.rowY[j];
+                currImageOffset = imageOffset +
+                    currY*imageScanlineStride +
+                    currX*imagePixelStride;
+            }
 
             int pos = cache.rowOffsetsRLE[j];
             int len = 0;
@@ -879,23 +1149,28 @@ public class Renderer extends RendererBase {
                 pos += 2;
             }
 
-            minTouched[jj] = cache.minTouched[j];
             if (len == 0) {
                 // Empty rows have minX = Integer.MAX_VALUE,
                 // maxX = Integer.MIN_VALUE
+                minTouched[jj] = Integer.MAX_VALUE;
                 maxTouched[jj] = Integer.MIN_VALUE;
+                rowOffsets[jj] = idx;
             } else {
-                maxTouched[jj] = cache.minTouched[j] + len - 1;
+                minTouched[jj] = cache.minTouched[j] - currX;
+                maxTouched[jj] = minTouched[jj] + len - 1;
+                rowOffsets[jj] = idx - len - minTouched[jj];
             }
-
-            // Perform blitting after NUM_ALPHA_ROWS rows have
-            // been decoded, or when we reach the last row
-            if ((jj == NUM_ALPHA_ROWS - 1) || (j == alphaHeight - 1)) {
-                emitRows(jj + 1);
-                currImageOffset += (jj + 1)*imageScanlineStride;
+            jj++;
+
+            // Perform blitting after NUM_ALPHA_ROWS rows have been
+            // decoded, before a row that does not follow the previous
+            // one, or when we reach the last row
+            if (jj == NUM_ALPHA_ROWS || j == alphaHeight - 1 ||
+                cache.rowY[j + 1] != currY + jj) {
+                emitRows(jj);
                 idx = 0;
+                jj = 0;
             }
-
         }
 
         // Update the bounding box for possible retrieval via getBoundingBox
@@ -909,9 +1184,18 @@ public class Renderer extends RendererBase {
 
     private int[] edges = new int[5*INITIAL_EDGES];
     private int edgeIdx = 0;
+
+    // Tiled mode: first edge of each row of tiles, the next edge in the
+    // same row, and the edges crossing the current row
+    private int[] edgeBuckets = null;
+    private int[] edgeNext = null;
+    private int[] activeEdges = null;
     private int edgeMinY = Integer.MAX_VALUE;
     private int edgeMaxY = Integer.MIN_VALUE;
 
+    // First rendered scanline, edges are scan converted from here on
+    private int edgeStartY;
+
     private void addEdge(int x0, int y0, int x1, int y1) {
         int newLen = edgeIdx + 5;
         if (edges.length < newLen) {
@@ -0,0 +1,263 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.pisces;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Benchmark of the span loops of <code>Blit</code>. It is not part of
+ * the i3test repository and is run explicitly on a pure Java Pisces
+ * build, e.g. on the Linux emulator:
+ * <pre>
+ *     runMidlet internal com.sun.midp.i3test.Framework \
+ *         com.sun.pisces.BlitBenchmark
+ * </pre>
+ * For each surface type, paint and kind of coverage it prints the number
+ * of pixels composited, the time and the throughput in Mpixels per
+ * second. Full and half coverage are constant along the rows, as inside
+ * a shape; variable coverage changes at every pixel, as along
+ * antialiased edges.
+ */
+public class BlitBenchmark extends TestCase {
+
+    /** Width of the composited area. */
+    static final int WIDTH = 240;
+
+    /** Height of the composited area. */
+    static final int HEIGHT = 64;
+
+    /** Number of blits of each measurement. */
+    static final int NUM_BLITS = 32;
+
+    /** Largest coverage value, as produced with 8x8 subpixels. */
+    static final int MAX_AA_ALPHA = 64;
+
+    /** Surface types measured. */
+    static final int[] TYPES = {
+        RendererBase.TYPE_INT_RGB,
+        RendererBase.TYPE_INT_ARGB,
+        RendererBase.TYPE_USHORT_565_RGB,
+        RendererBase.TYPE_BYTE_GRAY
+    };
+
+    /** Names of the surface types. */
+    static final String[] TYPE_NAMES = { "888", "8888", "565", "8" };
+
+    /** Paints measured: a flat color or a paint buffer. */
+    static final String[] PAINTS = {
+        "opaque color", "alpha color", "opaque paint", "alpha paint"
+    };
+
+    /** Kinds of coverage measured. */
+    static final String[] COVERAGES = { "full", "half", "variable" };
+
+    /** Alpha of the paint for the translucent paints. */
+    static final int PAINT_ALPHA = 128;
+
+    /**
+     * Computes the table mapping coverage values to blending alpha,
+     * as done by the Renderer.
+     *
+     * @param alpha paint alpha
+     * @return the coverage to alpha table
+     */
+    static int[] alphaMap(int alpha) {
+        int denom = 255 * MAX_AA_ALPHA;
+        int[] map = new int[MAX_AA_ALPHA + 1];
+
+        for (int i = 0; i <= MAX_AA_ALPHA; i++) {
+            map[i] = (256 * i * alpha + denom / 2) / denom;
+        }
+
+        return map;
+    }
+
+    /**
+     * Measures one loop.
+     *
+     * @param type surface type
+     * @param paint index of the paint in PAINTS
+     * @param coverage index of the coverage in COVERAGES
+     */
+    void measure(int type, int paint, int coverage) {
+        Object image;
+        byte[] alpha = new byte[WIDTH * HEIGHT];
+        int[] minTouched = new int[HEIGHT];
+        int[] maxTouched = new int[HEIGHT];
+        int[] rowOffsets = new int[HEIGHT];
+        int[] paintData = null;
+        boolean translucent = paint == 1 || paint == 3;
+        int[] alphaMap = alphaMap(paint == 1 ? PAINT_ALPHA : 255);
+
+        switch (type) {
+        case RendererBase.TYPE_USHORT_565_RGB:
+            image = new short[WIDTH * HEIGHT];
+            break;
+
+        case RendererBase.TYPE_BYTE_GRAY:
+            image = new byte[WIDTH * HEIGHT];
+            break;
+
+        default:
+            image = new int[WIDTH * HEIGHT];
+            break;
+        }
+
+        for (int j = 0; j < HEIGHT; j++) {
+            minTouched[j] = 0;
+            maxTouched[j] = WIDTH - 1;
+            rowOffsets[j] = j * WIDTH;
+
+            for (int i = 0; i < WIDTH; i++) {
+                int value;
+
+                if (coverage == 0) {
+                    value = MAX_AA_ALPHA;
+                } else if (coverage == 1) {
+                    value = MAX_AA_ALPHA / 2;
+                } else {
+                    value = (i * 7 + j) % (MAX_AA_ALPHA + 1);
+                }
+
+                alpha[j * WIDTH + i] = (byte)value;
+            }
+        }
+
+        if (paint >= 2) {
+            paintData = new int[WIDTH * HEIGHT];
+
+            for (int i = 0; i < paintData.length; i++) {
+                int color = (i * 0x010203) & 0xffffff;
+                paintData[i] = (translucent ? PAINT_ALPHA << 24 :
+                                0xff000000) | color;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (int n = 0; n < NUM_BLITS; n++) {
+            if (paintData == null) {
+                Blit.blit(image, type, 0, WIDTH, 1, alpha, 0,
+                          WIDTH, HEIGHT, minTouched, maxTouched, rowOffsets,
+                          Blit.COMPOSITE_SRC_OVER,
+                          (n * 5) & 0x1f, (n * 3) & 0x1f, n & 0x1f,
+                          translucent ? PAINT_ALPHA : 255, alphaMap);
+            } else {
+                Blit.blit(image, type, 0, WIDTH, 1, alpha, 0,
+                          WIDTH, HEIGHT, minTouched, maxTouched, rowOffsets,
+                          Blit.COMPOSITE_SRC_OVER,
+                          paintData, 0, WIDTH, alphaMap);
+            }
+        }
+
+        long time = System.currentTimeMillis() - start;
+        long pixels = (long)NUM_BLITS * WIDTH * HEIGHT;
+
+        StringBuffer line = new StringBuffer();
+        append(line, TYPE_NAMES[indexOf(type)], -6);
+        append(line, PAINTS[paint], -14);
+        append(line, COVERAGES[coverage], -10);
+        append(line, String.valueOf(pixels / 1000), 8);
+        append(line, String.valueOf(time), 7);
+
+        if (time == 0) {
+            append(line, "-", 9);
+        } else {
+            long centiMpixelsPerSecond = pixels / 10 / time;
+
+            append(line, (centiMpixelsPerSecond / 100) + "." +
+                   (centiMpixelsPerSecond % 100 / 10) +
+                   (centiMpixelsPerSecond % 10), 9);
+        }
+
+        System.out.println(line.toString());
+    }
+
+    /**
+     * Finds a surface type in TYPES.
+     *
+     * @param type surface type
+     * @return index of the type
+     */
+    static int indexOf(int type) {
+        int i = 0;
+
+        while (TYPES[i] != type) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Appends a padded column to a line of the results.
+     *
+     * @param line line of the results
+     * @param text column text
+     * @param width column width, negative for left aligned text
+     */
+    static void append(StringBuffer line, String text, int width) {
+        int padding = Math.abs(width) - text.length();
+
+        if (width < 0) {
+            line.append(text);
+        }
+
+        for (; padding > 0; padding--) {
+            line.append(' ');
+        }
+
+        if (width > 0) {
+            line.append(text);
+        }
+    }
+
+    /** Measure all the loops. */
+    public void runTests() {
+        System.out.println("blit benchmark, " + NUM_BLITS + " blits of " +
+                           WIDTH + "x" + HEIGHT + " pixels");
+
+        StringBuffer header = new StringBuffer();
+        append(header, "type", -6);
+        append(header, "paint", -14);
+        append(header, "coverage", -10);
+        append(header, "Kpixels", 8);
+        append(header, "ms", 7);
+        append(header, "Mpix/s", 9);
+        System.out.println(header.toString());
+
+        for (int t = 0; t < TYPES.length; t++) {
+            declare(TYPE_NAMES[t]);
+
+            for (int p = 0; p < PAINTS.length; p++) {
+                for (int c = 0; c < COVERAGES.length; c++) {
+                    measure(TYPES[t], p, c);
+                }
+            }
+        }
+    }
+}
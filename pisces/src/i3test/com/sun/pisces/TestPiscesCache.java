@@ -0,0 +1,280 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.pisces;
+
+import java.util.Random;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Checks that coverage masks recorded in a PiscesCacheTable replay
+ * exactly the pixels of uncached rendering. Random scenes of filled
+ * and stroked paths, partly outside of the image and clipped, are
+ * rendered without a table, while their masks are recorded, and from
+ * the recorded masks; the three images must be bit-identical.
+ */
+public class TestPiscesCache extends TestCase {
+
+    /** Width of the images. */
+    static final int WIDTH = 160;
+
+    /** Height of the images, several strips of the renderer. */
+    static final int HEIGHT = 120;
+
+    /** Number of scenes rendered for each surface type. */
+    static final int NUM_SCENES = 16;
+
+    /** Number of paths in a scene. */
+    static final int NUM_PATHS = 6;
+
+    /** Surface types tested. */
+    static final int[] TYPES = {
+        RendererBase.TYPE_INT_RGB,
+        RendererBase.TYPE_USHORT_565_RGB
+    };
+
+    /** Names of the surface types. */
+    static final String[] TYPE_NAMES = { "888", "565" };
+
+    /**
+     * Creates a random path of lines, quadratic and cubic curves.
+     *
+     * @param rnd random generator
+     * @param commands receives the commands
+     * @return the coordinates
+     */
+    static float[] createPath(Random rnd, byte[] commands) {
+        float[] coords = new float[commands.length * 6];
+        int pos = 0;
+
+        for (int i = 0; i < commands.length; i++) {
+            int points;
+            if (i == 0) {
+                commands[i] = PiscesRenderer.COMMAND_MOVE_TO;
+                points = 1;
+            } else if (i == commands.length - 1) {
+                commands[i] = PiscesRenderer.COMMAND_CLOSE;
+                points = 0;
+            } else {
+                points = 1 + rnd.nextInt(3);
+                commands[i] = (byte)points;
+            }
+
+            // up to a fourth of the image outside of it
+            for (int p = 0; p < points; p++) {
+                coords[pos++] = rnd.nextInt(WIDTH * 6) / 4.0f - WIDTH / 4;
+                coords[pos++] = rnd.nextInt(HEIGHT * 6) / 4.0f - HEIGHT / 4;
+            }
+        }
+
+        return coords;
+    }
+
+    /**
+     * Renders a random scene.
+     *
+     * @param type surface type
+     * @param seed seed of the scene
+     * @param table cache table, or null for uncached rendering
+     * @param keys the keys of the paths in the table
+     * @return the rendered image
+     */
+    static Object renderScene(int type, long seed, PiscesCacheTable table,
+                              Object[] keys) {
+        Random rnd = new Random(seed);
+        Object image = TestTiledRenderer.createImage(type);
+        PiscesRenderer pr = new PiscesRenderer(image, WIDTH, HEIGHT,
+                                               0, WIDTH, 1, type);
+        pr.setCacheTable(table);
+
+        for (int s = 0; s < NUM_PATHS; s++) {
+            pr.setAntialiasing(rnd.nextInt(3) != 0);
+
+            int scale = (1 << 16) - rnd.nextInt(1 << 14);
+            int shear = rnd.nextInt(1 << 14) - (1 << 13);
+            pr.setTransform(new Transform6(scale, shear, -shear, scale,
+                                           rnd.nextInt(20 << 16),
+                                           rnd.nextInt(20 << 16)));
+
+            if (rnd.nextInt(2) == 0) {
+                pr.setColor(rnd.nextInt(256), rnd.nextInt(256),
+                            rnd.nextInt(256), 100 + rnd.nextInt(156));
+            } else {
+                // gradients read the position set by the replay
+                pr.setLinearGradient(0, 0, WIDTH << 16, HEIGHT << 16,
+                                     new int[] { 0, 1 << 16 },
+                                     new int[] { 0xff0000ff, 0xffff0000 },
+                                     GradientColorMap.CYCLE_NONE,
+                                     new Transform6());
+            }
+
+            if (rnd.nextInt(2) == 0) {
+                pr.setFill();
+            } else {
+                pr.setStroke((1 + rnd.nextInt(8)) << 16, rnd.nextInt(3),
+                             rnd.nextInt(3), 10 << 16,
+                             rnd.nextInt(2) == 0 ? null :
+                             new int[] { 6 << 16, 3 << 16 }, 0);
+            }
+
+            // clips leave strips above and below the path empty
+            if (rnd.nextInt(2) == 0) {
+                int x = rnd.nextInt(WIDTH / 2);
+                int y = rnd.nextInt(HEIGHT / 2);
+                pr.setClip(x, y, 1 + rnd.nextInt(WIDTH - x),
+                           1 + rnd.nextInt(HEIGHT - y));
+            } else {
+                pr.resetClip();
+            }
+
+            byte[] commands = new byte[3 + rnd.nextInt(10)];
+            float[] coords = createPath(rnd, commands);
+            pr.renderPath(keys[s], commands.length, commands, coords,
+                          rnd.nextInt(2) == 0 ?
+                          RendererBase.WIND_EVEN_ODD :
+                          RendererBase.WIND_NON_ZERO);
+        }
+
+        return image;
+    }
+
+    /**
+     * Compares uncached output with recorded and replayed masks for the
+     * scenes of a surface type.
+     *
+     * @param type surface type
+     */
+    void testType(int type) {
+        for (int scene = 0; scene < NUM_SCENES; scene++) {
+            long seed = type * 1000 + scene;
+            PiscesCacheTable table = new PiscesCacheTable(1 << 20);
+            Object[] keys = new Object[NUM_PATHS];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new Object();
+            }
+
+            Object uncached = renderScene(type, seed, null, keys);
+            Object recorded = renderScene(type, seed, table, keys);
+            int used = table.getMemoryUsed();
+            Object replayed = renderScene(type, seed, table, keys);
+
+            assertTrue("scene " + scene + ": masks recorded", used > 0);
+            assertEquals("scene " + scene + ": no new masks", used,
+                         table.getMemoryUsed());
+            assertEquals("scene " + scene + ": recording", 0,
+                         TestTiledRenderer.countDifferences(uncached,
+                                                            recorded));
+            assertEquals("scene " + scene + ": replay", 0,
+                         TestTiledRenderer.countDifferences(uncached,
+                                                            replayed));
+        }
+    }
+
+    /**
+     * Renders a path with a flat color and no transform or clip.
+     *
+     * @param table cache table, or null for uncached rendering
+     * @param key the key of the path in the table
+     * @param coords the coordinates of a closed polygon
+     * @return the rendered image
+     */
+    static Object renderPolygon(PiscesCacheTable table, Object key,
+                                float[] coords) {
+        int type = RendererBase.TYPE_INT_RGB;
+        Object image = TestTiledRenderer.createImage(type);
+        PiscesRenderer pr = new PiscesRenderer(image, WIDTH, HEIGHT,
+                                               0, WIDTH, 1, type);
+        pr.setCacheTable(table);
+        pr.setColor(200, 100, 50);
+
+        byte[] commands = new byte[coords.length / 2 + 1];
+        for (int i = 1; i < commands.length - 1; i++) {
+            commands[i] = PiscesRenderer.COMMAND_LINE_TO;
+        }
+        commands[commands.length - 1] = PiscesRenderer.COMMAND_CLOSE;
+
+        pr.renderPath(key, commands.length, commands, coords,
+                      RendererBase.WIND_NON_ZERO);
+        return image;
+    }
+
+    /**
+     * Checks that path keys are compared by identity: keys that are
+     * equal but distinct objects do not share their masks.
+     */
+    void testIdentityKeys() {
+        PiscesCacheTable table = new PiscesCacheTable(1 << 20);
+        float[] triangle = { 10, 10, 150, 20, 40, 110 };
+        float[] square = { 30, 30, 90, 30, 90, 90, 30, 90 };
+
+        renderPolygon(table, new String("path"), triangle);
+        Object cached = renderPolygon(table, new String("path"), square);
+        Object uncached = renderPolygon(null, null, square);
+        assertEquals("different paths with equal keys", 0,
+                     TestTiledRenderer.countDifferences(uncached, cached));
+    }
+
+    /**
+     * Checks that a mask being recorded is not handed out, and that a
+     * failed recording does not leave an entry behind.
+     */
+    void testInProgress() {
+        PiscesCacheTable table = new PiscesCacheTable(1 << 20);
+        Object key = new Object();
+        int[] state = { 1, 2, 3 };
+
+        PiscesCache cache = table.lookup(key, state, state.length);
+        assertTrue("empty cache to fill", cache != null && !cache.isValid());
+        assertTrue("no cache while recording",
+                   table.lookup(key, state, state.length) == null);
+
+        // the recording failed, the cache is still invalid
+        table.added(key, cache);
+        PiscesCache retry = table.lookup(key, state, state.length);
+        assertTrue("new cache after a failure",
+                   retry != null && retry != cache);
+        table.added(key, retry);
+        assertEquals("no memory used", 0, table.getMemoryUsed());
+    }
+
+    /**
+     * Runs all tests.
+     */
+    public void runTests() {
+        for (int t = 0; t < TYPES.length; t++) {
+            declare(TYPE_NAMES[t]);
+            testType(TYPES[t]);
+        }
+
+        declare("testIdentityKeys");
+        testIdentityKeys();
+
+        declare("testInProgress");
+        testInProgress();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.pisces;
+
+import java.util.Random;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Checks that tiled rasterization produces exactly the same pixels as
+ * untiled rasterization. Random scenes of polygons are rendered into
+ * every surface type with and without tiles, and the images must be
+ * bit-identical.
+ */
+public class TestTiledRenderer extends TestCase {
+
+    /** Width of the images. */
+    static final int WIDTH = 160;
+
+    /** Height of the images. */
+    static final int HEIGHT = 120;
+
+    /** Number of scenes rendered for each surface type. */
+    static final int NUM_SCENES = 24;
+
+    /** Number of shapes in a scene. */
+    static final int NUM_SHAPES = 8;
+
+    /** Surface types tested. */
+    static final int[] TYPES = {
+        RendererBase.TYPE_INT_RGB,
+        RendererBase.TYPE_INT_ARGB,
+        RendererBase.TYPE_USHORT_565_RGB,
+        RendererBase.TYPE_BYTE_GRAY
+    };
+
+    /** Names of the surface types. */
+    static final String[] TYPE_NAMES = { "888", "8888", "565", "8" };
+
+    /** Tile sizes compared with untiled output. */
+    static final int[] TILE_SIZES = { 2, 8, 32, 128 };
+
+    /**
+     * Creates an image of the given type.
+     *
+     * @param type surface type
+     * @return array holding the pixels
+     */
+    static Object createImage(int type) {
+        switch (type) {
+        case RendererBase.TYPE_USHORT_565_RGB:
+            return new short[WIDTH*HEIGHT];
+        case RendererBase.TYPE_BYTE_GRAY:
+            return new byte[WIDTH*HEIGHT];
+        default:
+            return new int[WIDTH*HEIGHT];
+        }
+    }
+
+    /**
+     * Renders a random scene.
+     *
+     * @param type surface type
+     * @param seed seed of the scene
+     * @param tileSize tile size, 0 for untiled rendering
+     * @return the rendered image
+     */
+    static Object renderScene(int type, long seed, int tileSize) {
+        Random rnd = new Random(seed);
+        Object image = createImage(type);
+        Renderer renderer = new Renderer(image, WIDTH, HEIGHT,
+                                         0, WIDTH, 1, type);
+        renderer.setTileSize(tileSize);
+        if (rnd.nextInt(3) == 0) {
+            renderer.setAntialiasing(2, 2);
+        }
+
+        for (int s = 0; s < NUM_SHAPES; s++) {
+            int alpha = (rnd.nextInt(3) == 0) ? 100 + rnd.nextInt(155) : 255;
+            renderer.setColor(rnd.nextInt(256), rnd.nextInt(256),
+                              rnd.nextInt(256), alpha);
+
+            // Clip some shapes to bounds smaller than the image
+            int bx = rnd.nextInt(20);
+            int by = rnd.nextInt(20);
+            renderer.beginRendering(bx, by,
+                                    WIDTH - bx - rnd.nextInt(20),
+                                    HEIGHT - by - rnd.nextInt(20),
+                                    rnd.nextInt(2) == 0 ?
+                                    RendererBase.WIND_EVEN_ODD :
+                                    RendererBase.WIND_NON_ZERO);
+
+            // Vertices lie up to a fourth of the image outside of it,
+            // in 16.16 fixed point with random fractions
+            int n = 3 + rnd.nextInt(12);
+            for (int i = 0; i < n; i++) {
+                int x = rnd.nextInt(WIDTH*3/2 << 16) - (WIDTH/4 << 16);
+                int y = rnd.nextInt(HEIGHT*3/2 << 16) - (HEIGHT/4 << 16);
+                if (i == 0) {
+                    renderer.moveTo(x, y);
+                } else {
+                    renderer.lineTo(x, y);
+                }
+            }
+            renderer.close();
+            renderer.end();
+            renderer.endRendering();
+        }
+
+        return image;
+    }
+
+    /**
+     * Returns the number of pixels that differ between two images.
+     *
+     * @param a first image
+     * @param b second image
+     * @return number of different pixels
+     */
+    static int countDifferences(Object a, Object b) {
+        int count = 0;
+        if (a instanceof int[]) {
+            int[] ia = (int[])a;
+            int[] ib = (int[])b;
+            for (int i = 0; i < ia.length; i++) {
+                if (ia[i] != ib[i]) {
+                    count++;
+                }
+            }
+        } else if (a instanceof short[]) {
+            short[] sa = (short[])a;
+            short[] sb = (short[])b;
+            for (int i = 0; i < sa.length; i++) {
+                if (sa[i] != sb[i]) {
+                    count++;
+                }
+            }
+        } else {
+            byte[] ba = (byte[])a;
+            byte[] bb = (byte[])b;
+            for (int i = 0; i < ba.length; i++) {
+                if (ba[i] != bb[i]) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Compares tiled with untiled output of the scenes of a surface type.
+     *
+     * @param type surface type
+     */
+    void testType(int type) {
+        for (int scene = 0; scene < NUM_SCENES; scene++) {
+            long seed = type*1000 + scene;
+            Object untiled = renderScene(type, seed, 0);
+            for (int t = 0; t < TILE_SIZES.length; t++) {
+                Object tiled = renderScene(type, seed, TILE_SIZES[t]);
+                int diff = countDifferences(untiled, tiled);
+                assertEquals("scene " + scene + ", tile size " +
+                             TILE_SIZES[t] + ": different pixels",
+                             0, diff);
+            }
+        }
+    }
+
+    /**
+     * Runs all tests.
+     */
+    public void runTests() {
+        for (int t = 0; t < TYPES.length; t++) {
+            declare(TYPE_NAMES[t]);
+            testType(TYPES[t]);
+        }
+    }
+}
@@ -31,18 +31,18 @@ package com.sun.midp.crypto;
  */
 public class AES_CBC extends AES_ECB {
 
-    /** Internal buffer. */
-    private byte[] scratchPad;
+    /** Chaining value, the previous cipher block as 4 words. */
+    private int[] chain;
 
-    /** Saved internal buffer. */
-    private byte[] savedState;
+    /** Saved chaining value. */
+    private int[] savedChain;
 
     /**
      * Constructor.
      */
     public AES_CBC() {
         super();
-        scratchPad = new byte[BLOCK_SIZE];
+        chain = new int[4];
     }
 
     /**
@@ -59,7 +59,7 @@ public class AES_CBC extends AES_ECB {
     public void init(int mode, Key key, CryptoParameter params)
         throws InvalidKeyException, InvalidAlgorithmParameterException {
         doInit(mode, "AES", key, true, params);
-        System.arraycopy(IV, 0, state, 0, BLOCK_SIZE);
+        resetChain();
     }
 
     /**
@@ -97,31 +97,84 @@ public class AES_CBC extends AES_ECB {
                ShortBufferException, BadPaddingException {
         int result = super.doFinal(inBuff, inOffset, inLength,
                         outBuff, outOffset);
-        System.arraycopy(IV, 0, state, 0, BLOCK_SIZE);
+        resetChain();
         return result;
     }
 
+    /**
+     * Sets the chaining value to the initial vector.
+     */
+    private void resetChain() {
+        for (int i = 0; i < 4; i++) {
+            chain[i] = Util.getInt(IV, i * 4);
+        }
+    }
 
     /**
-     * Depending on the mode, either encrypts or decrypts one block.
+     * Depending on the mode, either encrypts or decrypts consecutive
+     * blocks.
+     * @param in the input buffer
+     * @param inOffset the offset in <code>in</code>
      * @param out will contain the result of encryption
      * or decryption operation
-     * @param offset is the offset in out
+     * @param outOffset is the offset in out
+     * @param count number of blocks
      */
-    protected void processBlock(byte[] out, int offset) {
+    void processBlocks(byte[] in, int inOffset, byte[] out, int outOffset,
+                       int count) {
+        int[] b = block;
+        int c0 = chain[0];
+        int c1 = chain[1];
+        int c2 = chain[2];
+        int c3 = chain[3];
 
         if (mode == Cipher.ENCRYPT_MODE)  {
-            Util.xorArrays(holdData, state);
-            cipherBlock();
-            System.arraycopy(state, 0, out, offset, BLOCK_SIZE);
+            for (int i = 0; i < count; i++) {
+                b[0] = Util.getInt(in, inOffset) ^ c0;
+                b[1] = Util.getInt(in, inOffset + 4) ^ c1;
+                b[2] = Util.getInt(in, inOffset + 8) ^ c2;
+                b[3] = Util.getInt(in, inOffset + 12) ^ c3;
+
+                cipherBlock(b);
+
+                Util.putInt(out, outOffset, c0 = b[0]);
+                Util.putInt(out, outOffset + 4, c1 = b[1]);
+                Util.putInt(out, outOffset + 8, c2 = b[2]);
+                Util.putInt(out, outOffset + 12, c3 = b[3]);
+
+                inOffset  += BLOCK_SIZE;
+                outOffset += BLOCK_SIZE;
+            }
         } else {
-            System.arraycopy(state, 0, scratchPad, 0, BLOCK_SIZE);
-            decipherBlock();
-            Util.xorArrays(state, scratchPad);
-            System.arraycopy(state, 0, out, offset, BLOCK_SIZE);
-            System.arraycopy(holdData, 0, state, 0, BLOCK_SIZE);
+            for (int i = 0; i < count; i++) {
+                // keep the cipher block, the output may overwrite it
+                int v0, v1, v2, v3;
+                b[0] = v0 = Util.getInt(in, inOffset);
+                b[1] = v1 = Util.getInt(in, inOffset + 4);
+                b[2] = v2 = Util.getInt(in, inOffset + 8);
+                b[3] = v3 = Util.getInt(in, inOffset + 12);
+
+                decipherBlock(b);
+
+                Util.putInt(out, outOffset, b[0] ^ c0);
+                Util.putInt(out, outOffset + 4, b[1] ^ c1);
+                Util.putInt(out, outOffset + 8, b[2] ^ c2);
+                Util.putInt(out, outOffset + 12, b[3] ^ c3);
+
+                c0 = v0;
+                c1 = v1;
+                c2 = v2;
+                c3 = v3;
+
+                inOffset  += BLOCK_SIZE;
+                outOffset += BLOCK_SIZE;
+            }
         }
-        holdCount = 0;
+
+        chain[0] = c0;
+        chain[1] = c1;
+        chain[2] = c2;
+        chain[3] = c3;
     }
 
     /**
@@ -129,7 +182,8 @@ public class AES_CBC extends AES_ECB {
      */
     protected void saveState() {
         super.saveState();
-        savedState = Util.cloneArray(state);
+        savedChain = new int[4];
+        System.arraycopy(chain, 0, savedChain, 0, 4);
     }
 
     /**
@@ -137,6 +191,6 @@ public class AES_CBC extends AES_ECB {
      */
     protected void restoreState() {
         super.restoreState();
-        state = savedState;
+        chain = savedChain;
     }
 }
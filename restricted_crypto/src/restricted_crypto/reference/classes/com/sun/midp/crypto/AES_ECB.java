@@ -75,21 +75,41 @@ public class AES_ECB extends BlockCipherBase {
     /** Inverse substitution table. */
     private static final byte[] ISBox;
 
+    /**
+     * Round tables of encryption, combining SubBytes, ShiftRows and
+     * MixColumns. TE1, TE2 and TE3 are TE0 rotated by 8, 16 and 24 bits.
+     */
+    private static final int[] TE0 = new int[256];
+    /** Round table of encryption. */
+    private static final int[] TE1 = new int[256];
+    /** Round table of encryption. */
+    private static final int[] TE2 = new int[256];
+    /** Round table of encryption. */
+    private static final int[] TE3 = new int[256];
+
+    /** Round tables of decryption, the inverse of the TE tables. */
+    private static final int[] TD0 = new int[256];
+    /** Round table of decryption. */
+    private static final int[] TD1 = new int[256];
+    /** Round table of decryption. */
+    private static final int[] TD2 = new int[256];
+    /** Round table of decryption. */
+    private static final int[] TD3 = new int[256];
+
     static {
         ISBox = new byte[256];
         for (int i = 0; i < 256; i++) {
             ISBox[SBox[i] & 0xff] = (byte) i;
         }
-    }
 
-    /** Precalculated table for matrix multiplication. */
-    private int[] SB0;
-    /** Precalculated table for matrix multiplication. */
-    private int[] SB1;
-    /** Precalculated table for matrix multiplication. */
-    private int[] SB2;
-    /** Precalculated table for matrix multiplication. */
-    private int[] SB3;
+        /*
+         * The tables do not depend on the key, they are shared by all
+         * the instances and built once (at ROM build time when the class
+         * is initialized at build).
+         */
+        fillTables(0x02010103, SBox, TE0, TE1, TE2, TE3);
+        fillTables(0x0e090d0b, ISBox, TD0, TD1, TD2, TD3);
+    }
 
     /**
     * Round constants.
@@ -120,19 +140,15 @@ public class AES_ECB extends BlockCipherBase {
      */
     private int[] W;
 
-    /** Internal buffer. */
-    protected byte[] state;
+    /** The block being encrypted or decrypted as 4 words. */
+    protected int[] block;
 
     /**
      * Constructor.
      */
     public AES_ECB()  {
         super(BLOCK_SIZE);
-        state = new byte[BLOCK_SIZE];
-        SB0 = new int[256];
-        SB1 = new int[256];
-        SB2 = new int[256];
-        SB3 = new int[256];
+        block = new int[Nb];
     }
 
     /**
@@ -185,24 +201,27 @@ public class AES_ECB extends BlockCipherBase {
         Nk = data.length >> 2;
         Nr = 6 + Nk;
 
-        int row = 0x0e090d0b;
-        byte[] box = ISBox;
-        if (mode == Cipher.ENCRYPT_MODE) {
-            row = 0x02010103;
-            box = SBox;
-        }
+        KeyExpansion(data, mode);
+    }
 
-        if (multiply(row, box[0]) != SB0[0]) {
-            for (int i = 0; i < 256; i++) {
-                int j;
-                SB0[i] = j = multiply(row, box[i]);
-                SB1[i] = (j >>> 8) | (j << 24);
-                SB2[i] = (j >>> 16) | (j << 16);
-                SB3[i] = (j >>> 24) | (j << 8);
-            }
+    /**
+     * Fills the round tables of one direction.
+     * @param row a column of the MixColumns matrix
+     * @param box substitution table
+     * @param t0 table for the first byte of a column
+     * @param t1 table for the second byte of a column
+     * @param t2 table for the third byte of a column
+     * @param t3 table for the fourth byte of a column
+     */
+    private static void fillTables(int row, byte[] box,
+                                   int[] t0, int[] t1, int[] t2, int[] t3) {
+        for (int i = 0; i < 256; i++) {
+            int j;
+            t0[i] = j = multiply(row, box[i]);
+            t1[i] = (j >>> 8) | (j << 24);
+            t2[i] = (j >>> 16) | (j << 16);
+            t3[i] = (j >>> 24) | (j << 8);
         }
-
-        KeyExpansion(data, mode);
     }
 
     /**
@@ -228,104 +247,135 @@ public class AES_ECB extends BlockCipherBase {
      * @param offset is the offset in out
      */
     protected void processBlock(byte[] out, int offset) {
-
+        processBlocks(holdData, 0, out, offset, 1);
         holdCount = 0;
+    }
 
-        if (mode == Cipher.ENCRYPT_MODE)  {
-            cipherBlock();
-        } else {
-            decipherBlock();
-        }
+    /**
+     * Depending on the mode, either encrypts or decrypts consecutive
+     * blocks.
+     * @param in the input buffer
+     * @param inOffset the offset in <code>in</code>
+     * @param out will contain the result of encryption
+     * or decryption operation
+     * @param outOffset is the offset in out
+     * @param count number of blocks
+     */
+    void processBlocks(byte[] in, int inOffset, byte[] out, int outOffset,
+                       int count) {
+        int[] b = block;
+        boolean encrypt = mode == Cipher.ENCRYPT_MODE;
+
+        for (int i = 0; i < count; i++) {
+            b[0] = Util.getInt(in, inOffset);
+            b[1] = Util.getInt(in, inOffset + 4);
+            b[2] = Util.getInt(in, inOffset + 8);
+            b[3] = Util.getInt(in, inOffset + 12);
+
+            if (encrypt) {
+                cipherBlock(b);
+            } else {
+                decipherBlock(b);
+            }
 
-        System.arraycopy(state, 0, out, offset, BLOCK_SIZE);
+            Util.putInt(out, outOffset, b[0]);
+            Util.putInt(out, outOffset + 4, b[1]);
+            Util.putInt(out, outOffset + 8, b[2]);
+            Util.putInt(out, outOffset + 12, b[3]);
+
+            inOffset  += BLOCK_SIZE;
+            outOffset += BLOCK_SIZE;
+        }
     }
 
     /**
-     * Performs the encryption of data.
+     * Performs the encryption of a block in place.
+     * @param b the block as 4 words
      */
-    protected void cipherBlock() {
-
-        int t0 = Util.getInt(holdData, 0) ^ W[0];
-        int t1 = Util.getInt(holdData, 4) ^ W[1];
-        int t2 = Util.getInt(holdData, 8) ^ W[2];
-        int t3 = Util.getInt(holdData, 12) ^ W[3];
+    protected void cipherBlock(int[] b) {
+        int[] w = W;
+        int[] t0 = TE0;
+        int[] t1 = TE1;
+        int[] t2 = TE2;
+        int[] t3 = TE3;
+
+        int s0 = b[0] ^ w[0];
+        int s1 = b[1] ^ w[1];
+        int s2 = b[2] ^ w[2];
+        int s3 = b[3] ^ w[3];
 
         int j = 4;
         for (int i = 1; i < Nr; i++) {
             int v0, v1, v2;
-            t0 = SB0[(v0 = t0) >>> 24] ^ SB1[(v1 = t1) >>> 16 & 0xff] ^
-                 SB2[(v2 = t2) >>> 8 & 0xff] ^ SB3[t3 & 0xff] ^ W[j];
-            t1 = SB0[v1 >>> 24] ^ SB1[v2 >>> 16 & 0xff] ^
-                 SB2[t3 >>> 8 & 0xff] ^ SB3[v0 & 0xff] ^ W[j + 1];
-            t2 = SB0[v2 >>> 24] ^ SB1[t3 >>> 16 & 0xff] ^
-                 SB2[v0 >>> 8 & 0xff] ^ SB3[v1 & 0xff] ^ W[j + 2];
-            t3 = SB0[t3 >>> 24] ^ SB1[v0 >>> 16 & 0xff] ^
-                 SB2[v1 >>> 8 & 0xff] ^ SB3[v2 & 0xff] ^ W[j + 3];
+            s0 = t0[(v0 = s0) >>> 24] ^ t1[(v1 = s1) >>> 16 & 0xff] ^
+                 t2[(v2 = s2) >>> 8 & 0xff] ^ t3[s3 & 0xff] ^ w[j];
+            s1 = t0[v1 >>> 24] ^ t1[v2 >>> 16 & 0xff] ^
+                 t2[s3 >>> 8 & 0xff] ^ t3[v0 & 0xff] ^ w[j + 1];
+            s2 = t0[v2 >>> 24] ^ t1[s3 >>> 16 & 0xff] ^
+                 t2[v0 >>> 8 & 0xff] ^ t3[v1 & 0xff] ^ w[j + 2];
+            s3 = t0[s3 >>> 24] ^ t1[v0 >>> 16 & 0xff] ^
+                 t2[v1 >>> 8 & 0xff] ^ t3[v2 & 0xff] ^ w[j + 3];
             j += 4;
         }
 
-        int k;
-        byte out[];
-        (out = state)[0] = (byte)(SBox[t0 >>> 24] ^ (k = W[j]) >>> 24);
-        out[1] = (byte)(SBox[t1 >>> 16 & 0xff] ^ k >>> 16);
-        out[2] = (byte)(SBox[t2 >>> 8 & 0xff] ^ k >>> 8);
-        out[3] = (byte)(SBox[t3 & 0xff] ^ k);
-        out[4] = (byte)(SBox[t1 >>> 24] ^ (k = W[j + 1]) >>> 24);
-        out[5] = (byte)(SBox[t2 >>> 16 & 0xff] ^ k >>> 16);
-        out[6] = (byte)(SBox[t3 >>> 8 & 0xff] ^ k >>> 8);
-        out[7] = (byte)(SBox[t0 & 0xff] ^ k);
-        out[8] = (byte)(SBox[t2 >>> 24] ^ (k = W[j + 2]) >>> 24);
-        out[9] = (byte)(SBox[t3 >>> 16 & 0xff] ^ k >>> 16);
-        out[10] = (byte)(SBox[t0 >>> 8 & 0xff] ^ k >>> 8);
-        out[11] = (byte)(SBox[t1 & 0xff] ^ k);
-        out[12] = (byte)(SBox[t3 >>> 24] ^ (k = W[j + 3]) >>> 24);
-        out[13] = (byte)(SBox[t0 >>> 16 & 0xff] ^ k >>> 16);
-        out[14] = (byte)(SBox[t1 >>> 8 & 0xff] ^ k >>> 8);
-        out[15] = (byte)(SBox[t2 & 0xff] ^ k);
+        byte[] box = SBox;
+        b[0] = lastRound(box, s0, s1, s2, s3) ^ w[j];
+        b[1] = lastRound(box, s1, s2, s3, s0) ^ w[j + 1];
+        b[2] = lastRound(box, s2, s3, s0, s1) ^ w[j + 2];
+        b[3] = lastRound(box, s3, s0, s1, s2) ^ w[j + 3];
     }
 
     /**
-     * Performs the decryption of data.
+     * Performs the decryption of a block in place.
+     * @param b the block as 4 words
      */
-    protected void decipherBlock() {
+    protected void decipherBlock(int[] b) {
+        int[] w = W;
+        int[] t0 = TD0;
+        int[] t1 = TD1;
+        int[] t2 = TD2;
+        int[] t3 = TD3;
 
         int j;
-        int t0 = Util.getInt(holdData, 0) ^ W[j = Nr * 4];
-        int t1 = Util.getInt(holdData, 4) ^ W[j + 1];
-        int t2 = Util.getInt(holdData, 8) ^ W[j + 2];
-        int t3 = Util.getInt(holdData, 12) ^ W[j + 3];
+        int s0 = b[0] ^ w[j = Nr * 4];
+        int s1 = b[1] ^ w[j + 1];
+        int s2 = b[2] ^ w[j + 2];
+        int s3 = b[3] ^ w[j + 3];
 
         for (int i = 1; i < Nr; i++) {
             int v0, v1, v2;
-            t0 = SB0[(v0 = t0) >>> 24] ^ SB1[t3 >>> 16 & 0xff] ^
-                 SB2[(v2 = t2) >>> 8 & 0xff] ^
-                 SB3[(v1 = t1) & 0xff] ^ W[j = j - 4];
-            t1 = SB0[v1 >>> 24] ^ SB1[v0 >>> 16 & 0xff] ^
-                 SB2[t3 >>> 8 & 0xff] ^ SB3[v2 & 0xff] ^ W[j + 1];
-            t2 = SB0[v2 >>> 24] ^ SB1[v1 >>> 16 & 0xff] ^
-                 SB2[v0 >>> 8 & 0xff] ^ SB3[t3 & 0xff] ^ W[j + 2];
-            t3 = SB0[t3 >>> 24] ^ SB1[v2 >>> 16 & 0xff] ^
-                 SB2[v1 >>> 8 & 0xff] ^ SB3[v0 & 0xff] ^ W[j + 3];
+            s0 = t0[(v0 = s0) >>> 24] ^ t1[s3 >>> 16 & 0xff] ^
+                 t2[(v2 = s2) >>> 8 & 0xff] ^
+                 t3[(v1 = s1) & 0xff] ^ w[j = j - 4];
+            s1 = t0[v1 >>> 24] ^ t1[v0 >>> 16 & 0xff] ^
+                 t2[s3 >>> 8 & 0xff] ^ t3[v2 & 0xff] ^ w[j + 1];
+            s2 = t0[v2 >>> 24] ^ t1[v1 >>> 16 & 0xff] ^
+                 t2[v0 >>> 8 & 0xff] ^ t3[s3 & 0xff] ^ w[j + 2];
+            s3 = t0[s3 >>> 24] ^ t1[v2 >>> 16 & 0xff] ^
+                 t2[v1 >>> 8 & 0xff] ^ t3[v0 & 0xff] ^ w[j + 3];
         }
 
-        int k;
-        byte out[];
-        (out = state)[0] = (byte)(ISBox[t0 >>> 24] ^ (k = W[0])>>> 24);
-        out[1] = (byte)(ISBox[t3 >>> 16 & 0xff] ^ k >>> 16);
-        out[2] = (byte)(ISBox[t2 >>> 8 & 0xff] ^ k >>> 8);
-        out[3] = (byte)(ISBox[t1 & 0xff] ^ k);
-        out[4] = (byte)(ISBox[t1 >>> 24] ^ (k = W[1]) >>> 24);
-        out[5] = (byte)(ISBox[t0 >>> 16 & 0xff] ^ k >>> 16);
-        out[6] = (byte)(ISBox[t3 >>> 8 & 0xff] ^ k >>> 8);
-        out[7] = (byte)(ISBox[t2 & 0xff] ^ k);
-        out[8] = (byte)(ISBox[t2 >>> 24] ^ (k = W[2]) >>> 24);
-        out[9] = (byte)(ISBox[t1 >>> 16 & 0xff] ^ k >>> 16);
-        out[10] = (byte)(ISBox[t0 >>> 8 & 0xff] ^ k >>> 8);
-        out[11] = (byte)(ISBox[t3 & 0xff] ^ k);
-        out[12] = (byte)(ISBox[t3 >>> 24] ^ (k = W[3]) >>> 24);
-        out[13] = (byte)(ISBox[t2 >>> 16 & 0xff] ^ k >>> 16);
-        out[14] = (byte)(ISBox[t1 >>> 8 & 0xff] ^ k >>> 8);
-        out[15] = (byte)(ISBox[t0 & 0xff] ^ k);
+        byte[] box = ISBox;
+        b[0] = lastRound(box, s0, s3, s2, s1) ^ w[0];
+        b[1] = lastRound(box, s1, s0, s3, s2) ^ w[1];
+        b[2] = lastRound(box, s2, s1, s0, s3) ^ w[2];
+        b[3] = lastRound(box, s3, s2, s1, s0) ^ w[3];
+    }
+
+    /**
+     * Computes a column of the last round, which has no MixColumns.
+     * @param box substitution table
+     * @param a word giving the first byte
+     * @param b word giving the second byte
+     * @param c word giving the third byte
+     * @param d word giving the fourth byte
+     * @return the column before the round key is added
+     */
+    private static int lastRound(byte[] box, int a, int b, int c, int d) {
+        return (box[a >>> 24] << 24) |
+               ((box[b >>> 16 & 0xff] & 0xff) << 16) |
+               ((box[c >>> 8 & 0xff] & 0xff) << 8) |
+               (box[d & 0xff] & 0xff);
     }
 
     /**
@@ -371,10 +421,10 @@ public class AES_ECB extends BlockCipherBase {
 
         if (mode == Cipher.DECRYPT_MODE) {
             for (int i = 4; i < Nr * 4; i++) {
-                V[i] = SB0[SBox[W[i * 4] & 0xff] & 0xff] ^
-                       SB1[SBox[W[i * 4 + 1] & 0xff] & 0xff] ^
-                       SB2[SBox[W[i * 4 + 2] & 0xff] & 0xff] ^
-                       SB3[SBox[W[i * 4 + 3] & 0xff] & 0xff];
+                V[i] = TD0[SBox[W[i * 4] & 0xff] & 0xff] ^
+                       TD1[SBox[W[i * 4 + 1] & 0xff] & 0xff] ^
+                       TD2[SBox[W[i * 4 + 2] & 0xff] & 0xff] ^
+                       TD3[SBox[W[i * 4 + 3] & 0xff] & 0xff];
             }
         }
     }
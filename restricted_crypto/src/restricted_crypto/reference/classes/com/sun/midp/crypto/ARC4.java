@@ -113,39 +113,43 @@ public final class ARC4 extends Cipher {
 	    throw new IllegalArgumentException();
 	}
 	
+	if (((SecretKey)key).secret.length == 0) {
+            throw new InvalidKeyException();
+        }
+
 	mode = opmode;
 	ckey = (SecretKey)key;
 
-	// Initialize the counters
-        ii = new int[1];
+	// Initialize the counters, the arrays are reused by later inits
+        if (S == null) {
+            ii = new int[1];
+            jj = new int[1];
+            S = new byte[256];
+        }
+
         ii[0] = 0;
-        jj = new int[1];
         jj[0] = 0;
 
-	S = new byte[256];
-	
         // Initialize S 
 	for (int i = 0; i < 256; i++) {
             S[i] = (byte) i;
         }
-    
-	// Initilaize K based on the key
-        byte[] K = new byte[256];
-	int index = 0;
-	while (index < 256) {
-	    for (int i = 0; (i < ckey.secret.length) && (index < 256); i++) {
-		K[index++] = ckey.secret[i];
-	    }
-	}
 
-	// Populate the 8*8 S-box
+	// Populate the 8*8 S-box, the key is repeated to 256 bytes
+        byte[] K = ckey.secret;
+        int keyLength = K.length;
 	int j = 0;
+        int k = 0;
 	byte temp;
 	for (int i = 0; i < 256; i++) {
-	    j = (j + ((S[i] + K[i]) & 0xff)) & 0xff;
+	    j = (j + ((S[i] + K[k]) & 0xff)) & 0xff;
 	    temp = S[i];
 	    S[i] = S[j];
 	    S[j] = temp;
+
+            if (++k == keyLength) {
+                k = 0;
+            }
 	}
     }
     /**
@@ -64,6 +64,9 @@ abstract class BlockCipherBase extends Cipher {
     /** True in decryption with padder mode. */
     private boolean keepLastBlock;
 
+    /** Last block of a padded decryption, allocated when first needed. */
+    private byte[] lastBlock;
+
     /**
      * Constructor.
      *
@@ -230,7 +233,9 @@ abstract class BlockCipherBase extends Cipher {
                     counter += blockSize;
                 }
             } else {
-                byte[] lastBlock = new byte[blockSize];
+                if (lastBlock == null) {
+                    lastBlock = new byte[blockSize];
+                }
                 processBlock(lastBlock, 0);
                 int tail = blockSize - padder.unPad(lastBlock, blockSize);
                 if (outOffset + counter + tail > out.length) {
@@ -288,15 +293,18 @@ abstract class BlockCipherBase extends Cipher {
 
         isUpdated = true;
 
-        if (in == out) {
+        /*
+         * Blocks are read before they are written, so in place operation
+         * only needs a copy when the output is ahead of the input.
+         */
+        if (in == out && outOffset + holdCount > offset) {
             in = new byte[len];
             System.arraycopy(out, offset, in, 0, len);
             offset = 0;
         }
 
         int counter = 0;
-        while (true)  {
-
+        if (holdCount > 0) {
             int got;
             System.arraycopy(in, offset, holdData, holdCount,
                              got = Math.min(blockSize - holdCount, len));
@@ -313,6 +321,24 @@ abstract class BlockCipherBase extends Cipher {
             counter   += blockSize;
             outOffset += blockSize;
         }
+
+        int blocks = len / blockSize;
+        if (keepLastBlock && blocks > 0 && len % blockSize == 0) {
+            blocks--;
+        }
+
+        if (blocks > 0) {
+            processBlocks(in, offset, out, outOffset, blocks);
+
+            int done = blocks * blockSize;
+            offset  += done;
+            len     -= done;
+            counter += done;
+        }
+
+        System.arraycopy(in, offset, holdData, 0, len);
+        holdCount = len;
+        return counter;
     }
 
     /**
@@ -354,6 +380,28 @@ abstract class BlockCipherBase extends Cipher {
      */
     abstract void processBlock(byte[] out, int offset);
 
+    /**
+     * Depending on the mode, either encrypts or decrypts consecutive
+     * blocks. Ciphers override this to work on the whole buffer without
+     * copying each block to the holding buffer. The output may be the
+     * input array as long as it does not start after the input.
+     * @param in the input buffer
+     * @param inOffset the offset in <code>in</code>
+     * @param out will contain the result of encryption
+     * or decryption operation
+     * @param outOffset is the offset in out
+     * @param count number of blocks
+     */
+    void processBlocks(byte[] in, int inOffset, byte[] out, int outOffset,
+                       int count) {
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(in, inOffset, holdData, 0, blockSize);
+            processBlock(out, outOffset);
+            inOffset  += blockSize;
+            outOffset += blockSize;
+        }
+    }
+
     /**
      * Initializes key.
      * @param data key data
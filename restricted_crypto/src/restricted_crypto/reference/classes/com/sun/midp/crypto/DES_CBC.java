@@ -31,14 +31,11 @@ package com.sun.midp.crypto;
  */
 public class DES_CBC extends DES_ECB {
 
-    /** Internal data. */
-    private byte[] chainingBlock;
-
-    /** Internal data. */
-    private byte[] storeBuffer;
+    /** Chaining value, the previous cipher block as 2 words. */
+    private int[] chain;
 
     /** Saved state variable. */
-    private byte[] savedChainingBlock;
+    private int[] savedChain;
 
     /**
      * Constructor.
@@ -48,8 +45,7 @@ public class DES_CBC extends DES_ECB {
      */
     public DES_CBC(boolean useTripleDes) {
         super(useTripleDes);
-        chainingBlock = new byte[BLOCK_SIZE];
-        storeBuffer = new byte[BLOCK_SIZE];
+        chain = new int[2];
     }
 
     /**
@@ -67,7 +63,7 @@ public class DES_CBC extends DES_ECB {
         throws InvalidKeyException, InvalidAlgorithmParameterException {
 
         doInit(mode, keyAlgorithm, key, true, params);
-        System.arraycopy(IV, 0, chainingBlock, 0, BLOCK_SIZE);
+        resetChain();
     }
 
     /**
@@ -105,30 +101,69 @@ public class DES_CBC extends DES_ECB {
             ShortBufferException, BadPaddingException {
         int result = super.doFinal(inBuff, inOffset, inLength,
                                    outBuff, outOffset);
-        System.arraycopy(IV, 0, chainingBlock, 0, BLOCK_SIZE);
+        resetChain();
         return result;
     }
 
     /**
-     * Depending on the mode, either encrypts or decrypts data block.
+     * Sets the chaining value to the initial vector.
+     */
+    private void resetChain() {
+        chain[0] = Util.getInt(IV, 0);
+        chain[1] = Util.getInt(IV, 4);
+    }
+
+    /**
+     * Depending on the mode, either encrypts or decrypts consecutive
+     * blocks.
+     * @param in the input buffer
+     * @param inOffset the offset in <code>in</code>
      * @param out will contain the result of encryption
      * or decryption operation
-     * @param offset is the offset in out
+     * @param outOffset is the offset in out
+     * @param count number of blocks
      */
-    protected void processBlock(byte[] out, int offset) {
+    void processBlocks(byte[] in, int inOffset, byte[] out, int outOffset,
+                       int count) {
+        int[] b = block;
+        int c0 = chain[0];
+        int c1 = chain[1];
 
         if (mode == Cipher.ENCRYPT_MODE) {
-            Util.xorArrays(holdData, chainingBlock);
-            super.processBlock(out, offset);
-            System.arraycopy(out, offset, chainingBlock, 0, BLOCK_SIZE);
+            for (int i = 0; i < count; i++) {
+                b[0] = Util.getInt(in, inOffset) ^ c0;
+                b[1] = Util.getInt(in, inOffset + 4) ^ c1;
+
+                cipherBlock(b);
+
+                Util.putInt(out, outOffset, c0 = b[0]);
+                Util.putInt(out, outOffset + 4, c1 = b[1]);
+
+                inOffset  += BLOCK_SIZE;
+                outOffset += BLOCK_SIZE;
+            }
         } else {
-            System.arraycopy(holdData, 0, storeBuffer, 0, BLOCK_SIZE);
-            super.processBlock(out, offset);
-            for (int i = 0; i < BLOCK_SIZE; i++) {
-                out[offset + i] ^= chainingBlock[i];
+            for (int i = 0; i < count; i++) {
+                // keep the cipher block, the output may overwrite it
+                int v0, v1;
+                b[0] = v0 = Util.getInt(in, inOffset);
+                b[1] = v1 = Util.getInt(in, inOffset + 4);
+
+                cipherBlock(b);
+
+                Util.putInt(out, outOffset, b[0] ^ c0);
+                Util.putInt(out, outOffset + 4, b[1] ^ c1);
+
+                c0 = v0;
+                c1 = v1;
+
+                inOffset  += BLOCK_SIZE;
+                outOffset += BLOCK_SIZE;
             }
-            System.arraycopy(storeBuffer, 0, chainingBlock, 0, BLOCK_SIZE);
         }
+
+        chain[0] = c0;
+        chain[1] = c1;
     }
 
     /**
@@ -136,7 +171,8 @@ public class DES_CBC extends DES_ECB {
      */
     protected void saveState() {
         super.saveState();
-        savedChainingBlock = Util.cloneArray(chainingBlock);
+        savedChain = new int[2];
+        System.arraycopy(chain, 0, savedChain, 0, 2);
     }
 
     /**
@@ -144,6 +180,6 @@ public class DES_CBC extends DES_ECB {
      */
     protected void restoreState() {
         super.restoreState();
-        chainingBlock = savedChainingBlock;
+        chain = savedChain;
     }
 }
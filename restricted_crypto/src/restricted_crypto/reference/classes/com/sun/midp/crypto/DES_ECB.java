@@ -119,9 +119,19 @@ class DES_ECB extends BlockCipherBase {
             "3}\014:HKqZ5P3\016;t:\134-U:R5P8I1{\02035U:I4K}\0211}\023" +
             "<M0T").getBytes();
 
-    /** DES key data. */
-    private byte[][] dkey;
-    
+    /**
+     * Round keys of each DES key, two words per round. The first word
+     * holds the key bits of S-boxes 0, 2, 4, 6 and the second the bits of
+     * S-boxes 1, 3, 5, 7, one byte per S-box.
+     */
+    private int[][] subKeys;
+
+    /** The block being encrypted or decrypted as 2 words. */
+    protected int[] block = new int[2];
+
+    /** Left and right halves of the block between the permutations. */
+    private int[] halves = new int[2];
+
     /**
      * Constructor.
      *
@@ -188,9 +198,9 @@ class DES_ECB extends BlockCipherBase {
         }
 
         int keyCount = data.length >> 3;
-        dkey = new byte[keyCount][];
+        subKeys = new int[keyCount][];
         for (int i = 0; i < keyCount; i++) {
-            dkey[i] = expandKey(data, i << 3);
+            subKeys[i] = packKey(expandKey(data, i << 3));
         }
     }
 
@@ -202,22 +212,64 @@ class DES_ECB extends BlockCipherBase {
      * @param offset is the offset in out
      */
     protected void processBlock(byte[] out, int offset) {
+        processBlocks(holdData, 0, out, offset, 1);
+        holdCount = 0;
+    }
+
+    /**
+     * Depending on the mode, either encrypts or decrypts consecutive
+     * blocks.
+     * @param in the input buffer
+     * @param inOffset the offset in <code>in</code>
+     * @param out will contain the result of encryption
+     * or decryption operation
+     * @param outOffset is the offset in out
+     * @param count number of blocks
+     */
+    void processBlocks(byte[] in, int inOffset, byte[] out, int outOffset,
+                       int count) {
+        int[] b = block;
+
+        for (int i = 0; i < count; i++) {
+            b[0] = Util.getInt(in, inOffset);
+            b[1] = Util.getInt(in, inOffset + 4);
 
-        if (dkey.length == 1) {
-            cipherBlock(0, mode == Cipher.ENCRYPT_MODE);
+            cipherBlock(b);
+
+            Util.putInt(out, outOffset, b[0]);
+            Util.putInt(out, outOffset + 4, b[1]);
+
+            inOffset  += BLOCK_SIZE;
+            outOffset += BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * Depending on the mode, either encrypts or decrypts a block in place.
+     * Triple DES permutes the block once around the three DES operations,
+     * the final and initial permutations between them cancel out.
+     * @param b the block as 2 words
+     */
+    protected void cipherBlock(int[] b) {
+        int[] lr = halves;
+
+        initialPermutation(b[0], b[1], lr);
+
+        if (subKeys.length == 1) {
+            rounds(subKeys[0], mode == Cipher.ENCRYPT_MODE, lr);
         } else {
             if (mode == Cipher.ENCRYPT_MODE) {
-                cipherBlock(0, true);
-                cipherBlock(1, false);
-                cipherBlock(2, true);
+                rounds(subKeys[0], true, lr);
+                rounds(subKeys[1], false, lr);
+                rounds(subKeys[2], true, lr);
             } else {
-                cipherBlock(2, false);
-                cipherBlock(1, true);
-                cipherBlock(0, false);
+                rounds(subKeys[2], false, lr);
+                rounds(subKeys[1], true, lr);
+                rounds(subKeys[0], false, lr);
             }
         }
-        System.arraycopy(holdData, 0, out, offset, BLOCK_SIZE);
-        holdCount = 0;
+
+        finalPermutation(lr, b);
     }
 
     /**
@@ -293,53 +345,59 @@ class DES_ECB extends BlockCipherBase {
     }
 
     /**
-     * Performs the encryption/decryption of data.
-     * @param keyIndex index of the the key
-     * @param encryptMode indicates if its encryption or decryption
+     * Performs the initial permutation of a block.
+     * @param d0 first 4 bytes of the block
+     * @param d1 last 4 bytes of the block
+     * @param lr receives the left and right halves
      */
-    private void cipherBlock(int keyIndex, boolean encryptMode) {
-
-        byte[] key = dkey[keyIndex];
-        byte[] data = holdData;
-
-        int j = encryptMode ? 0 : 128 - BLOCK_SIZE;
-        int offset = (encryptMode ? 0 : 16) - BLOCK_SIZE;
-
-        // initial permutations
-
-        int t, v;
+    private static void initialPermutation(int d0, int d1, int[] lr) {
         int left = 0;
-        for (int i = 0; i < 8; i++) {
-            left |= initPermLeft[(v = i << 5) + 16 + ((t = data[i]) & 0xf)] |
-                    initPermLeft[v + ((t >> 4) & 0xf)];
-        }
-
         int right = 0;
+
         for (int i = 0; i < 8; i++) {
-            right |= initPermRight[(v = i << 5) + 16 + ((t = data[i]) & 0xf)] |
-                     initPermRight[v + ((t >> 4) & 0xf)];
+            int t = (i < 4 ? d0 << (i << 3) : d1 << ((i - 4) << 3)) >>> 24;
+            int v = i << 5;
+
+            left |= initPermLeft[v + 16 + (t & 0xf)] |
+                    initPermLeft[v + (t >> 4)];
+            right |= initPermRight[v + 16 + (t & 0xf)] |
+                     initPermRight[v + (t >> 4)];
         }
 
+        lr[0] = left;
+        lr[1] = right;
+    }
+
+    /**
+     * Performs the 16 rounds of DES.
+     * @param key round keys of the DES key
+     * @param encryptMode indicates if its encryption or decryption
+     * @param lr left and right halves, replaced by the result
+     */
+    private static void rounds(int[] key, boolean encryptMode, int[] lr) {
+        int left = lr[0];
+        int right = lr[1];
+        int j = encryptMode ? 0 : 30;
+        int step = encryptMode ? 2 : -2;
+
         int i = 0;
         while (true) {
             // making the first bit and last bit adjacent
             // move the first bit to the last
-            int temp = (right << 1) | ((right >> 31) & 1);
+            int temp = (right << 1) | (right >>> 31);
 
             // Mangler Function
             // every 6 bit is fed into the sbox, which
             // produces 4 bit output
-            left ^= s0p[(temp & 0x3f) ^ key[j]]
-                    ^ s1p[((temp >>  4) & 0x3f) ^ key[j + 1]]
-                    ^ s2p[((temp >>  8) & 0x3f) ^ key[j + 2]]
-                    ^ s3p[((temp >> 12) & 0x3f) ^ key[j + 3]]
-                    ^ s4p[((temp >> 16) & 0x3f) ^ key[j + 4]]
-                    ^ s5p[((temp >> 20) & 0x3f) ^ key[j + 5]]
-                    ^ s6p[((temp >> 24) & 0x3f) ^ key[j + 6]];
-
-            // making the last sbox input last bit from right[0]
-            temp = ((right & 1) << 5) | ((right >> 27) & 0x1f);
-            left ^= s7p[temp ^ key[j + 7]];
+            int w = temp ^ key[j];
+            left ^= s0p[w & 0x3f] ^ s2p[(w >>> 8) & 0x3f]
+                    ^ s4p[(w >>> 16) & 0x3f] ^ s6p[(w >>> 24) & 0x3f];
+
+            // the odd S-boxes see the input rotated by 4 bits, the last
+            // one wraps around to the first bits
+            w = ((temp >>> 4) | (temp << 28)) ^ key[j + 1];
+            left ^= s1p[w & 0x3f] ^ s3p[(w >>> 8) & 0x3f]
+                    ^ s5p[(w >>> 16) & 0x3f] ^ s7p[(w >>> 24) & 0x3f];
 
             if (i++ == 15) {
                 break;
@@ -348,10 +406,21 @@ class DES_ECB extends BlockCipherBase {
             temp = left;
             left = right;
             right = temp;
-            j -= offset;
+            j += step;
         }
 
-        // permutations
+        lr[0] = left;
+        lr[1] = right;
+    }
+
+    /**
+     * Performs the final permutation of a block.
+     * @param lr left and right halves
+     * @param b receives the block as 2 words
+     */
+    private static void finalPermutation(int[] lr, int[] b) {
+        int left = lr[0];
+        int right = lr[1];
 
         int high = perm[left & 0xf] |
                    perm[32 + ((left >> 8) & 0xf)] |
@@ -371,14 +440,30 @@ class DES_ECB extends BlockCipherBase {
                    perm[208 + ((right >> 20) & 0xf)] |
                    perm[240 + ((right >> 28) & 0xf)];
 
-        data[0] = (byte) low;
-        data[1] = (byte) (low >> 8);
-        data[2] = (byte) (low >> 16);
-        data[3] = (byte) (low >> 24);
-        data[4] = (byte) high;
-        data[5] = (byte) (high >> 8);
-        data[6] = (byte) (high >> 16);
-        data[7] = (byte) (high >> 24);
+        // the permutation produces the bytes least significant first
+        b[0] = (low << 24) | ((low << 8) & 0xff0000) |
+               ((low >>> 8) & 0xff00) | (low >>> 24);
+        b[1] = (high << 24) | ((high << 8) & 0xff0000) |
+               ((high >>> 8) & 0xff00) | (high >>> 24);
+    }
+
+    /**
+     * Packs the expanded key bytes of each round in two words.
+     * @param ek expanded key, 8 bytes per round
+     * @return round keys, 2 words per round
+     */
+    private static int[] packKey(byte[] ek) {
+        int[] key = new int[32];
+
+        for (int i = 0; i < 16; i++) {
+            int j = i << 3;
+            key[i << 1] = ek[j] | (ek[j + 2] << 8) |
+                          (ek[j + 4] << 16) | (ek[j + 6] << 24);
+            key[(i << 1) + 1] = ek[j + 1] | (ek[j + 3] << 8) |
+                                (ek[j + 5] << 16) | (ek[j + 7] << 24);
+        }
+
+        return key;
     }
 
     /**
@@ -0,0 +1,178 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.crypto;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Benchmark of the symmetric ciphers. It is not part of the i3test
+ * repository and is run explicitly, e.g. on the Linux emulator:
+ * <pre>
+ *     runMidlet internal com.sun.midp.i3test.Framework \
+ *         com.sun.midp.crypto.CipherBenchmark
+ * </pre>
+ * For each cipher and direction it prints the amount of data processed,
+ * the time and the throughput in KB and MB per second. The data is
+ * passed to <code>update</code> in buffers of the size of an SSL record
+ * fragment.
+ */
+public class CipherBenchmark extends TestCase {
+
+    /** Size of the buffer passed to each update. */
+    static final int BUFFER_SIZE = 4096;
+
+    /** Number of updates of each measurement. */
+    static final int NUM_UPDATES = 64;
+
+    /** Transformations measured. */
+    static final String[] TRANSFORMATIONS = {
+        "AES/ECB/NoPadding",
+        "AES/CBC/NoPadding",
+        "DES/ECB/NoPadding",
+        "DES/CBC/NoPadding",
+        "DESEDE/CBC/NoPadding",
+        "ARC4"
+    };
+
+    /** Key sizes of the transformations. */
+    static final int[] KEY_SIZES = { 16, 16, 8, 8, 24, 16 };
+
+    /** Initial vector sizes of the transformations, 0 for none. */
+    static final int[] IV_SIZES = { 0, 16, 0, 8, 8, 0 };
+
+    /**
+     * Measures one cipher in one direction.
+     *
+     * @param transformation cipher transformation
+     * @param keySize key size in bytes
+     * @param ivSize initial vector size in bytes, 0 for none
+     * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     */
+    void measure(String transformation, int keySize, int ivSize, int mode)
+            throws Exception {
+        int slash = transformation.indexOf('/');
+        String algorithm = slash < 0 ? transformation :
+                           transformation.substring(0, slash);
+        byte[] key = new byte[keySize];
+        byte[] data = new byte[BUFFER_SIZE];
+        CryptoParameter params = null;
+
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte)(i * 7 + 1);
+        }
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+
+        if (ivSize > 0) {
+            params = new IvParameter(new byte[ivSize], 0, ivSize);
+        }
+
+        Cipher cipher = Cipher.getInstance(transformation);
+        cipher.init(mode, new SecretKey(key, 0, key.length, algorithm),
+                    params);
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < NUM_UPDATES; i++) {
+            assertEquals(BUFFER_SIZE,
+                         cipher.update(data, 0, BUFFER_SIZE, data, 0));
+        }
+
+        long time = System.currentTimeMillis() - start;
+        long bytes = (long)NUM_UPDATES * BUFFER_SIZE;
+
+        StringBuffer line = new StringBuffer();
+        append(line, transformation, -22);
+        append(line, mode == Cipher.ENCRYPT_MODE ? "encrypt" : "decrypt",
+               -8);
+        append(line, String.valueOf(bytes / 1024), 6);
+        append(line, String.valueOf(time), 7);
+
+        if (time == 0) {
+            append(line, "-", 8);
+            append(line, "-", 7);
+        } else {
+            long kbPerSecond = bytes * 1000 / 1024 / time;
+            long centiMbPerSecond = kbPerSecond * 100 / 1024;
+
+            append(line, String.valueOf(kbPerSecond), 8);
+            append(line, (centiMbPerSecond / 100) + "." +
+                   (centiMbPerSecond % 100 / 10) + (centiMbPerSecond % 10),
+                   7);
+        }
+
+        System.out.println(line.toString());
+    }
+
+    /**
+     * Appends a padded column to a line of the results.
+     *
+     * @param line line of the results
+     * @param text column text
+     * @param width column width, negative for left aligned text
+     */
+    static void append(StringBuffer line, String text, int width) {
+        int padding = Math.abs(width) - text.length();
+
+        if (width < 0) {
+            line.append(text);
+        }
+
+        for (; padding > 0; padding--) {
+            line.append(' ');
+        }
+
+        if (width > 0) {
+            line.append(text);
+        }
+    }
+
+    /** Measure all the ciphers. */
+    public void runTests() throws Exception {
+        System.out.println("cipher benchmark, updates of " + BUFFER_SIZE +
+                           " bytes");
+
+        StringBuffer header = new StringBuffer();
+        append(header, "cipher", -22);
+        append(header, "", -8);
+        append(header, "KB", 6);
+        append(header, "ms", 7);
+        append(header, "KB/s", 8);
+        append(header, "MB/s", 7);
+        System.out.println(header.toString());
+
+        for (int i = 0; i < TRANSFORMATIONS.length; i++) {
+            declare(TRANSFORMATIONS[i]);
+            measure(TRANSFORMATIONS[i], KEY_SIZES[i], IV_SIZES[i],
+                    Cipher.ENCRYPT_MODE);
+            measure(TRANSFORMATIONS[i], KEY_SIZES[i], IV_SIZES[i],
+                    Cipher.DECRYPT_MODE);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ *
+ *
+ * Copyright  1990-2009 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.crypto;
+
+import java.util.Random;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the AES and DES ciphers with published test vectors and checks
+ * that updates of any size, in place or not, give the same result as
+ * one call.
+ */
+public class TestBlockCiphers extends TestCase {
+
+    /**
+     * Converts a hexadecimal string to bytes.
+     *
+     * @param hex two digits per byte
+     * @return the bytes
+     */
+    static byte[] bytes(String hex) {
+        byte[] b = new byte[hex.length() / 2];
+
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2),
+                                          16);
+        }
+
+        return b;
+    }
+
+    /**
+     * Checks two arrays are equal.
+     *
+     * @param message message of the failure
+     * @param expected the expected bytes
+     * @param actual the actual bytes
+     */
+    void assertBytes(String message, byte[] expected, byte[] actual) {
+        assertEquals(message + " length", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(message + " byte " + i, expected[i], actual[i]);
+        }
+    }
+
+    /**
+     * Encrypts or decrypts data in one call.
+     *
+     * @param transformation cipher transformation
+     * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param key key bytes
+     * @param iv initial vector or null
+     * @param data input
+     * @return output
+     */
+    static byte[] crypt(String transformation, int mode, byte[] key,
+                        byte[] iv, byte[] data) throws Exception {
+        Cipher cipher = Cipher.getInstance(transformation);
+        byte[] out = new byte[data.length + 16];
+
+        init(cipher, transformation, mode, key, iv);
+
+        int len = cipher.doFinal(data, 0, data.length, out, 0);
+        byte[] result = new byte[len];
+
+        System.arraycopy(out, 0, result, 0, len);
+        return result;
+    }
+
+    /**
+     * Initializes a cipher.
+     *
+     * @param cipher the cipher
+     * @param transformation cipher transformation
+     * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param key key bytes
+     * @param iv initial vector or null
+     */
+    static void init(Cipher cipher, String transformation, int mode,
+                     byte[] key, byte[] iv) throws Exception {
+        String algorithm =
+            transformation.substring(0, transformation.indexOf('/'));
+        CryptoParameter params = null;
+
+        if (iv != null) {
+            params = new IvParameter(iv, 0, iv.length);
+        }
+
+        cipher.init(mode, new SecretKey(key, 0, key.length, algorithm),
+                    params);
+    }
+
+    /**
+     * Checks a known answer in both directions.
+     *
+     * @param transformation cipher transformation
+     * @param key key in hexadecimal
+     * @param iv initial vector in hexadecimal or null
+     * @param plain plain text in hexadecimal
+     * @param cipherText cipher text in hexadecimal
+     */
+    void checkKnownAnswer(String transformation, String key, String iv,
+                          String plain, String cipherText) throws Exception {
+        byte[] k = bytes(key);
+        byte[] v = iv == null ? null : bytes(iv);
+
+        assertBytes(transformation + " encrypt", bytes(cipherText),
+                    crypt(transformation, Cipher.ENCRYPT_MODE, k, v,
+                          bytes(plain)));
+        assertBytes(transformation + " decrypt", bytes(plain),
+                    crypt(transformation, Cipher.DECRYPT_MODE, k, v,
+                          bytes(cipherText)));
+    }
+
+    /**
+     * AES vectors of FIPS-197 appendix C and SP 800-38A F.2.1.
+     */
+    void testAes() throws Exception {
+        String plain = "00112233445566778899aabbccddeeff";
+
+        checkKnownAnswer("AES/ECB/NoPadding",
+                         "000102030405060708090a0b0c0d0e0f", null, plain,
+                         "69c4e0d86a7b0430d8cdb78070b4c55a");
+        checkKnownAnswer("AES/ECB/NoPadding",
+                         "000102030405060708090a0b0c0d0e0f1011121314151617",
+                         null, plain,
+                         "dda97ca4864cdfe06eaf70a0ec0d7191");
+        checkKnownAnswer("AES/ECB/NoPadding",
+                         "000102030405060708090a0b0c0d0e0f" +
+                         "101112131415161718191a1b1c1d1e1f", null, plain,
+                         "8ea2b7ca516745bfeafc49904b496089");
+        checkKnownAnswer("AES/CBC/NoPadding",
+                         "2b7e151628aed2a6abf7158809cf4f3c",
+                         "000102030405060708090a0b0c0d0e0f",
+                         "6bc1bee22e409f96e93d7e117393172a" +
+                         "ae2d8a571e03ac9c9eb76fac45af8e51",
+                         "7649abac8119b246cee98e9b12e9197d" +
+                         "5086cb9b507219ee95db113a917678b2");
+    }
+
+    /**
+     * DES vector, triple DES with three equal keys is single DES.
+     */
+    void testDes() throws Exception {
+        checkKnownAnswer("DES/ECB/NoPadding", "133457799bbcdff1", null,
+                         "0123456789abcdef", "85e813540f0ab405");
+        checkKnownAnswer("DESEDE/ECB/NoPadding",
+                         "133457799bbcdff1133457799bbcdff1133457799bbcdff1",
+                         null, "0123456789abcdef", "85e813540f0ab405");
+    }
+
+    /**
+     * Checks updates of random sizes, some in place, match a single
+     * call and decrypt back to the data.
+     *
+     * @param transformation cipher transformation
+     * @param keySize key size in bytes
+     * @param blockSize block size in bytes
+     */
+    void checkPieces(String transformation, int keySize, int blockSize)
+            throws Exception {
+        Random random = new Random(11);
+        byte[] key = new byte[keySize];
+        byte[] iv = new byte[blockSize];
+        byte[] data = new byte[blockSize * 20 + 3];
+
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        random.nextBytes(data);
+
+        byte[] expected = crypt(transformation, Cipher.ENCRYPT_MODE, key,
+                                iv, data);
+        Cipher cipher = Cipher.getInstance(transformation);
+        byte[] out = new byte[expected.length];
+        int outLen = 0;
+
+        init(cipher, transformation, Cipher.ENCRYPT_MODE, key, iv);
+
+        for (int pos = 0; pos < data.length; ) {
+            int piece = Math.min(data.length - pos,
+                                 (random.nextInt() & 0x7fffffff) %
+                                 (blockSize * 3));
+
+            if ((pos & 1) == 0) {
+                // in place
+                byte[] buf = new byte[piece + blockSize];
+
+                System.arraycopy(data, pos, buf, 0, piece);
+                int n = cipher.update(buf, 0, piece, buf, 0);
+                System.arraycopy(buf, 0, out, outLen, n);
+                outLen += n;
+            } else {
+                outLen += cipher.update(data, pos, piece, out, outLen);
+            }
+
+            pos += piece;
+        }
+
+        outLen += cipher.doFinal(data, 0, 0, out, outLen);
+        assertEquals(transformation + " length", expected.length, outLen);
+        assertBytes(transformation + " pieces", expected, out);
+
+        assertBytes(transformation + " decrypt", data,
+                    crypt(transformation, Cipher.DECRYPT_MODE, key, iv,
+                          expected));
+    }
+
+    /**
+     * Checks the multi-block update paths of all the modes.
+     */
+    void testPieces() throws Exception {
+        checkPieces("AES/ECB/PKCS5Padding", 16, 16);
+        checkPieces("AES/CBC/PKCS5Padding", 32, 16);
+        checkPieces("DES/ECB/PKCS5Padding", 8, 8);
+        checkPieces("DES/CBC/PKCS5Padding", 8, 8);
+        checkPieces("DESEDE/CBC/PKCS5Padding", 24, 8);
+    }
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Exception {
+        declare("testAes");
+        testAes();
+
+        declare("testDes");
+        testDes();
+
+        declare("testPieces");
+        testPieces();
+    }
+}
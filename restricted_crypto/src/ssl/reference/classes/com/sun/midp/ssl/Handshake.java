@@ -31,6 +31,7 @@ import java.io.InputStream;
 
 import java.lang.Exception;
 
+import java.util.Hashtable;
 import java.util.Vector;
 
 import javax.microedition.pki.CertificateException;
@@ -38,6 +39,8 @@ import javax.microedition.pki.CertificateException;
 import com.sun.midp.log.Logging;
 import com.sun.midp.log.LogChannels;
 
+import com.sun.midp.main.Configuration;
+
 import com.sun.midp.crypto.*;
 
 import com.sun.midp.pki.*;
@@ -932,7 +935,7 @@ class Handshake {
          * byte with value 0x01.
          */
         rec.rdRec(true, Record.CCS);
-        if ((rec.inputData == null) || (rec.inputData.length != 1) ||
+        if ((rec.inputData == null) || (rec.plainTextLength != 1) ||
                 (rec.inputData[0] != (byte) 0x01)) {
             return -1;
         }
@@ -1130,19 +1133,29 @@ class Handshake {
 
 /**
  * This class implements methods to maintain resumable SSL
- * sessions.
+ * sessions. The most recently used sessions are cached, at most one
+ * for any host/port pair. The number of cached sessions and their
+ * lifetime are set by the com.sun.midp.ssl.max_sessions and
+ * com.sun.midp.ssl.session_lifetime (in seconds) properties.
  */
 // visible within the package
 class Session {
+    /**  Default maximum number of cached resumable sessions. */
+    private static final int DEFAULT_MAX_SESSIONS = 16;
+
+    /**  Default lifetime of a cached session in seconds. */
+    private static final int DEFAULT_SESSION_LIFETIME = 3600;
+
     /**  Maximum number of cached resumable sessions. */
-    private static final byte MAX_SESSIONS = 4;
+    private static final int maxSessions =
+        Configuration.getPositiveIntProperty("com.sun.midp.ssl.max_sessions",
+                                             DEFAULT_MAX_SESSIONS);
+
+    /**  Lifetime of a cached session in milliseconds. */
+    private static final long sessionLifetime = 1000L *
+        Configuration.getPositiveIntProperty(
+            "com.sun.midp.ssl.session_lifetime", DEFAULT_SESSION_LIFETIME);
 
-    /**
-     * Stores the last index where a session was overwritten, we
-     * try to do a round-robin selection of places to overwrite
-     */ 
-    private static int delIdx = 0;
-    
     /*
      * A session is uniquely identified by the combination of 
      * host, port and session identifier. The master secret is
@@ -1158,9 +1171,28 @@ class Session {
     byte[] master; 
     /** Target Certificate. */
     X509Certificate cert;
+    /** Time after which the session is not resumed. */
+    long expires;
+
+    /** More recently used session. */
+    private Session prev;
+    /** Less recently used session. */
+    private Session next;
+
+    /** A cache of currently resumable sessions, by host and port. */
+    private static Hashtable sessions = new Hashtable();
+
+    /** Most recently used session. */
+    private static Session mostRecent;
 
-    /** A cache of currently resumable sessions. */
-    private static Session[] sessions = new Session[MAX_SESSIONS];
+    /** Least recently used session. */
+    private static Session leastRecent;
+
+    /** Number of handshakes that found a resumable session. */
+    private static int hits;
+
+    /** Number of handshakes that found no resumable session. */
+    private static int misses;
 
     /**
      * Gets the master secret associated with a resumable session.
@@ -1173,17 +1205,29 @@ class Session {
      * @return matching session
      */ 
     static synchronized Session get(String h, int p) {
-        for (int i = 0; i < MAX_SESSIONS; i++) {
-            if ((sessions[i] == null) ||
-                (sessions[i].id == null)) continue;
+        Session s = (Session)sessions.get(key(h, p));
 
-            if (sessions[i].host.compareTo(h) == 0 &&
-                    sessions[i].port == p) {
-                return sessions[i];
-            }
+        if (s != null && s.expires <= System.currentTimeMillis()) {
+            remove(s);
+            s = null;
         }
 
-        return null;
+        if (s == null) {
+            misses++;
+        } else {
+            hits++;
+            unlink(s);
+            link(s);
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_SECURITY,
+                           "SSL session cache " +
+                           (s == null ? "miss" : "hit") + " for " + h +
+                           ":" + p + ", hits " + hits + ", misses " + misses);
+        }
+
+        return s;
     }
     
     /**
@@ -1199,48 +1243,36 @@ class Session {
      */ 
     static synchronized void add(String h, int p, byte[] id, byte[] mas,
                     X509Certificate cert) {
-        // IMPL_NOTE: This will change if we stop using linear arrays
-        int idx = MAX_SESSIONS;
-        for (int i = 0; i < MAX_SESSIONS; i++) {
-            if ((sessions[i] == null) || 
-                (sessions[i].id == null)) {
-                idx = i;            // possible candidate for overwriting
-                continue;
-            }
-            
-            if ((sessions[i].host.compareTo(h) == 0) && 
-                (sessions[i].port == p)) {  // preferred candidate
-                idx = i;
-                break;
-            }
-        }
+        String k = key(h, p);
+        Session s = (Session)sessions.get(k);
 
         /*
-         * If all else is taken, overwrite the one specified by 
-         * delIdx and move delIdx over to the next one. Simulates FIFO.
-         */ 
-        if (idx == MAX_SESSIONS) {
-            idx = delIdx;
-            delIdx++;
-            if (delIdx == MAX_SESSIONS) delIdx = 0;
-        }
-
-        if (sessions[idx] == null) {
-            sessions[idx] = new Session();
+         * Cached sessions are not changed, a handshake in progress
+         * may be using the replaced one.
+         */
+        if (s != null) {
+            remove(s);
+        } else if (sessions.size() >= maxSessions) {
+            remove(leastRecent);
         }
 
-        sessions[idx].id = id;
+        s = new Session();
+        // "h" will be a substring of URL
+        s.host = new String(h);
+        s.port = p;
+        s.id = id;
 
         /*
          * Since the master will change after this method, we need to
          * copy it, to preserve its current value for later.
          */
-        sessions[idx].master = new byte[mas.length];
-        System.arraycopy(mas, 0, sessions[idx].master, 0, mas.length);
+        s.master = new byte[mas.length];
+        System.arraycopy(mas, 0, s.master, 0, mas.length);
 
-        sessions[idx].host = new String(h); // "h" will be a substring of URL
-        sessions[idx].port = p;
-        sessions[idx].cert = cert;
+        s.cert = cert;
+        s.expires = System.currentTimeMillis() + sessionLifetime;
+        sessions.put(k, s);
+        link(s);
     }
 
     /**
@@ -1252,21 +1284,91 @@ class Session {
      * @param sid session identifier
      */ 
     static synchronized void del(String h, int p, byte[] sid) {
-        for (int i = 0; i < MAX_SESSIONS; i++) {
-            if ((sessions[i] == null) || 
-                (sessions[i].id == null)) continue;
-            
-            if (Utils.byteMatch(sessions[i].id, 0, 
-                                sid, 0,
-                                sid.length) &&
-                (sessions[i].host.compareTo(h) == 0) &&
-                (sessions[i].port == p)) {
-                sessions[i].id = null;
-                sessions[i].master = null;
-                sessions[i].host = null;
-                sessions[i].cert = null;
-                break;
-            }
+        Session s = (Session)sessions.get(key(h, p));
+
+        if (s != null && s.id.length == sid.length &&
+                Utils.byteMatch(s.id, 0, sid, 0, sid.length)) {
+            remove(s);
+        }
+    }
+
+    /**
+     * Gets the number of handshakes that found a resumable session.
+     *
+     * @return number of cache hits
+     */
+    static synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of handshakes that found no resumable session.
+     *
+     * @return number of cache misses
+     */
+    static synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the key of the sessions of a host/port pair.
+     *
+     * @param h host name of peer
+     * @param p port number of peer
+     *
+     * @return cache key
+     */
+    private static String key(String h, int p) {
+        return h + ":" + p;
+    }
+
+    /**
+     * Removes a session from the cache.
+     *
+     * @param s session to remove
+     */
+    private static void remove(Session s) {
+        unlink(s);
+        sessions.remove(key(s.host, s.port));
+    }
+
+    /**
+     * Makes a session the most recently used one.
+     *
+     * @param s session to insert
+     */
+    private static void link(Session s) {
+        s.prev = null;
+        s.next = mostRecent;
+
+        if (mostRecent != null) {
+            mostRecent.prev = s;
+        } else {
+            leastRecent = s;
+        }
+
+        mostRecent = s;
+    }
+
+    /**
+     * Removes a session from the list of sessions by use.
+     *
+     * @param s session to remove
+     */
+    private static void unlink(Session s) {
+        if (s.prev != null) {
+            s.prev.next = s.next;
+        } else {
+            mostRecent = s.next;
         }
+
+        if (s.next != null) {
+            s.next.prev = s.prev;
+        } else {
+            leastRecent = s.prev;
+        }
+
+        s.prev = null;
+        s.next = null;
     }
 }
@@ -105,6 +105,11 @@ class Record {
     
      /** Size of record header */
     private final int HEADER_SIZE = 5;
+    /**
+     * Initial size of the record data buffers, large enough for one
+     * fragment written by Out plus the longest MAC.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 2048 + MAC.MAX_MAC_SIZE;
     /** Underlying input stream beneath the record layer. */
     private InputStream in; 
     /** Underlying output stream beneath the record layer. */
@@ -129,11 +134,24 @@ class Record {
     /** Shutdown flag, true if connection has been shutdown. */
     private boolean shutdown;
 
-    /** Current input record data. */
+    /**
+     * Current input record data. The buffer is reused for every record
+     * of the connection and only grows when a longer record arrives,
+     * so only the first plainTextLength bytes are valid.
+     */
     byte[] inputData;
     /** Length of the plain text in the input buffer */
     int plainTextLength;
 
+    /**
+     * Output record buffer, reused for every record written. It holds
+     * the header, the fragment and the room for its MAC, so that a record
+     * can be MACed and encrypted in place.
+     */
+    private byte[] outputData = new byte[HEADER_SIZE + INITIAL_BUFFER_SIZE];
+    /** Body of the alert record. */
+    private byte[] alertData = new byte[2];
+
     /** Records encoder */
     private RecordEncoder encoder = null;
     /** Records decoder */
@@ -227,6 +245,8 @@ class Record {
             return;
         }
 
+        int length = plainTextLength;
+
         // Signal end of stream.
         plainTextLength = -1;
 
@@ -243,7 +263,7 @@ class Record {
             
         case ALRT:
             // An Alert record needs to be atleast 2 bytes of data
-            if (inputData.length < 2) {
+            if (length < 2) {
                 throw new IOException("Bad alert length");
             }
 
@@ -341,7 +361,10 @@ class Record {
         
             dataLength = ((inputHeader[3] & 0xff) << 8) + 
                 (inputHeader[4] & 0xff);
-            inputData = new byte[dataLength];
+            if (inputData == null || inputData.length < dataLength) {
+                inputData = new byte[Math.max(dataLength,
+                                              INITIAL_BUFFER_SIZE)];
+            }
         }
 
         while (dataBytesRead < dataLength) {
@@ -361,7 +384,8 @@ class Record {
 
         if (rActive == 1) {
             try {
-                plainTextLength = decoder.decode(inputHeader, inputData);
+                plainTextLength = decoder.decode(inputHeader, inputData,
+                                                 dataLength);
             } catch (IOException e) {
                 if (e.getMessage().compareTo("Bad MAC") == 0) {
                     alert(FATAL, BAD_MAC);
@@ -401,30 +425,35 @@ class Record {
      * turned on. Is it necessary to maintain these counts for
      * handshake messages as well???
      */ 
-    void wrRec(byte type, byte[] buf, int off, int len) throws IOException {
-        byte[] rec;
+    synchronized void wrRec(byte type, byte[] buf, int off, int len)
+            throws IOException {
+        int recLength;
 
         if (shutdown) {
             throw new IOException("Server has shutdown the connection");
         }
 
         /*
-         * Create a new byte array with room for the header and
-         * fill the record header with type, version and length
+         * Fill the record header with type, version and length and
+         * copy the fragment right behind it, leaving room for the MAC.
          */
-        rec = new byte[len + 5];
-        rec[0] = type;
-        rec[1] = (byte) (ver >>> 4);
-        rec[2] = (byte) (ver & 0x0f);
-        rec[3] = (byte) (len >>> 8);
-        rec[4] = (byte) (len & 0xff);
-        // Fill the rest of the record
-        System.arraycopy(buf, off, rec, 5, len);
+        if (outputData.length < HEADER_SIZE + len + MAC.MAX_MAC_SIZE) {
+            outputData = new byte[HEADER_SIZE + len + MAC.MAX_MAC_SIZE];
+        }
+
+        outputData[0] = type;
+        outputData[1] = (byte) (ver >>> 4);
+        outputData[2] = (byte) (ver & 0x0f);
+        outputData[3] = (byte) (len >>> 8);
+        outputData[4] = (byte) (len & 0xff);
+        System.arraycopy(buf, off, outputData, HEADER_SIZE, len);
         if (wActive == 1) {
-            out.write(encoder.encode(rec));
+            recLength = encoder.encode(outputData, len);
         } else {
-            out.write(rec);
+            recLength = HEADER_SIZE + len;
         }
+
+        out.write(outputData, 0, recLength);
         if (type == CCS) wActive = 1;
     }       
             
@@ -436,13 +465,12 @@ class Record {
      *             HNDSHK_FAIL, NO_CERT, BAD_CERT, UNSUP_CERT, CERT_REVKD,
      *             CERT_EXPRD, CERT_UNKWN, BAD_PARAM
      */ 
-    public void alert(byte level, byte type) {
-        byte[] tmp = new byte[2];
-        tmp[0] = level;
-        tmp[1] = type;
+    public synchronized void alert(byte level, byte type) {
+        alertData[0] = level;
+        alertData[1] = type;
 
         try {
-            wrRec(ALRT, tmp, 0, 2);
+            wrRec(ALRT, alertData, 0, 2);
         } catch (IOException e) {
             // ignore, we do not want to step on the real error
         }
@@ -867,6 +895,9 @@ class CipherSuiteData {
  * Implements MAC computation
  */
 class MAC {
+    /** Length of the longest MAC (SHA-1). */
+    static final int MAX_MAC_SIZE = 20;
+
     /** 
      * PAD1 is a 48-byte array filled with 0x36
      */
@@ -904,6 +935,42 @@ class MAC {
     protected int padLength = 0;
     /** Write sequence number */
     private long sequenceNumber = 0;
+    /** Sequence number, record type and length hashed before a fragment. */
+    private byte[] macHeader = new byte[11];
+    /** Inner hash of the MAC. */
+    private byte[] innerHash = new byte[MAX_MAC_SIZE];
+    /** Digest state after hashing the MAC secret and PAD1. */
+    private MessageDigest innerStart;
+    /** Digest state after hashing the MAC secret and PAD2. */
+    private MessageDigest outerStart;
+
+    /**
+     * Constructs a MAC. The secret and the pads are the same for
+     * every record, so both prefixes are hashed here once and each
+     * record starts from a copy of the saved digest state.
+     *
+     * @param dgst digest for MAC computation
+     * @param secret MAC secret
+     * @param padLen padding length
+     */
+    MAC(MessageDigest dgst, byte[] secret, int padLen) {
+        macSecret = secret;
+        digest = dgst;
+        digestLength = digest.getDigestLength();
+        padLength = padLen;
+
+        digest.reset();
+        digest.update(macSecret, 0, macSecret.length);
+        digest.update(PAD1, 0, padLength);
+        innerStart = (MessageDigest)digest.clone();
+
+        digest.reset();
+        digest.update(macSecret, 0, macSecret.length);
+        digest.update(PAD2, 0, padLength);
+        outerStart = (MessageDigest)digest.clone();
+
+        digest.reset();
+    }
         
         
     /** 
@@ -913,10 +980,12 @@ class MAC {
      * @param buf byte array containing the SSLCompressed fragment
      * @param offset starting offset of the fragment in buf
      * @param length length of the fragment
-     *
-     * @return a byte array containing the MAC
+     * @param mac byte array receiving the MAC
+     * @param macOffset offset of the MAC in mac, must not overlap
+     *                  the fragment
      */
-    byte[] getMAC(byte type, byte[] buf, int offset, int length) {
+    void getMAC(byte type, byte[] buf, int offset, int length,
+                byte[] mac, int macOffset) {
         /* 
          * MAC = hash(MAC_secret + PAD2 +
          *    hash(MAC_secret + PAD1 + seq_num + type + len +
@@ -924,37 +993,33 @@ class MAC {
          */ 
 
         // Compute the inner hash first
-        byte[] byteArray = null;
-        digest.update(macSecret, 0, macSecret.length);
-        digest.update(PAD1, 0, padLength);
-        byteArray = Utils.longToBytes(sequenceNumber);
-        digest.update(byteArray, 0, byteArray.length);
-        
-        byteArray = new byte[3];
-        byteArray[0] = type;
-        byteArray[1] = (byte) (length >>> 8);
-        byteArray[2] = (byte) (length & 0xff);
-        digest.update(byteArray, 0, byteArray.length);
-        byte[] innerHash = new byte[digest.getDigestLength()];
+        innerStart.copyState(digest);
+
+        long seq = sequenceNumber;
+        for (int i = 7; i >= 0; i--) {
+            macHeader[i] = (byte) seq;
+            seq >>>= 8;
+        }
+
+        macHeader[8] = type;
+        macHeader[9] = (byte) (length >>> 8);
+        macHeader[10] = (byte) (length & 0xff);
+        digest.update(macHeader, 0, macHeader.length);
         digest.update(buf, offset, length);
         try {
-            digest.digest(innerHash, 0, innerHash.length);
+            digest.digest(innerHash, 0, digestLength);
         } catch (DigestException e) {
             // Ignore this exception, it should never happen
         }
             
         // Now, the outer hash
-        digest.update(macSecret, 0, macSecret.length);
-        digest.update(PAD2, 0, padLength);
-        byte[] mac = new byte[innerHash.length];
-        digest.update(innerHash, 0, innerHash.length);
+        outerStart.copyState(digest);
+        digest.update(innerHash, 0, digestLength);
         try {
-            digest.digest(mac, 0, mac.length);
+            digest.digest(mac, macOffset, digestLength);
         } catch (DigestException e) {
             // Ignore this exception, it should never happen
         }
-            
-            return mac;
     }
         
     /**
@@ -983,81 +1048,59 @@ class RecordEncoder extends MAC {
      * @param cphr cipher used for encoding
      */
     RecordEncoder(MessageDigest dgst, byte[] secret, int padLen, Cipher cphr) {
-        macSecret = secret;
-        digest = dgst;
-        digestLength = digest.getDigestLength();
-        padLength = padLen;
+        super(dgst, secret, padLen);
         cipher = cphr;
     }
 
     /**
-     * Converts a byte array containing an SSLPlaintext structure
-     * to the corresponding SSLCiphertext structure. The process 
-     * typically involves the addition of a MAC followed by 
-     * encryption.
+     * Converts an SSLPlaintext structure to the corresponding
+     * SSLCiphertext structure in place. The process typically involves
+     * the addition of a MAC followed by encryption.
      * 
-     * @param plainText byte array containing SSLPlaintext
-     * @return the number of bytes written to the OutputStream
+     * @param record byte array containing the 5-byte record header
+     *               followed by the fragment, with room for the MAC
+     *               behind the fragment
+     * @param length length of the fragment
+     * @return length of the encoded record including its header
      *
      * @exception IOException if a problem is encountered during
      * encryption
      */ 
-    byte[] encode(byte[] plainText) throws IOException {
+    int encode(byte[] record, int length) throws IOException {
         /*
          * Since we only support NULL compression, SSLPlaintext
          * the same as SSLCompressed.
          */ 
-        byte[] fragAndMAC = null; // fragment plus MAC
-        
         if (digest != null) {
-            fragAndMAC = new byte[plainText.length - 5 + digestLength];
-            System.arraycopy(plainText, 5, fragAndMAC, 
-                    0, plainText.length - 5);
-            byte[] mac = getMAC(plainText[0], 
-                    plainText, 5, plainText.length - 5);
-            System.arraycopy(mac, 0, fragAndMAC, 
-                    (plainText.length - 5), digestLength);
-            } else {
-                fragAndMAC = new byte[plainText.length - 5];
-                System.arraycopy(plainText, 5, fragAndMAC, 
-                        0, plainText.length - 5);
+            getMAC(record[0], record, 5, length, record, 5 + length);
+            length += digestLength;
         }
         
-        // ... now we need to encrypt fragAndMAC and possibly update IVs
-        byte[] efragAndMAC = null; 
+        // ... now we need to encrypt fragment and MAC
         if (cipher != null) {
             try {
                 /*
-                * NOTE: For now, we always have a stream cipher so this
-                * is commented out.
+                * NOTE: For now, we always have a stream cipher so 
+                * the fragment is encrypted in place.
                 */ 
-                // We have a stream cipher
-                efragAndMAC = fragAndMAC;
-                cipher.update(fragAndMAC, 0, 
-                        fragAndMAC.length, efragAndMAC, 0);
+                cipher.update(record, 5, length, record, 5);
             } catch (Exception e) {
                 throw new IOException("Encode caught " + e);
             }
-        } else {
-            // Cipher algorithm is NULL
-            efragAndMAC = fragAndMAC;
         }
         
     	if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
 	        Logging.report(Logging.INFORMATION, LogChannels.LC_SECURITY,
-			   "efragAndMAC: " + Utils.hexEncode(efragAndMAC));
+			   "efragAndMAC: " + Utils.hexEncode(record, 5, length));
 	    }
         
-        byte[] record = new byte[efragAndMAC.length + 5];
-        System.arraycopy(plainText, 0, record, 0, 3);
-        record[3] = (byte) (efragAndMAC.length >>> 8);
-        record[4] = (byte) (efragAndMAC.length & 0xff);
-        System.arraycopy(efragAndMAC, 0, record, 5, efragAndMAC.length);
+        record[3] = (byte) (length >>> 8);
+        record[4] = (byte) (length & 0xff);
         
         // We have encoded one more record, increment seq number
         incrementSequenceNumber();
         
-        return record;
+        return length + 5;
     }
 }
 
@@ -1067,6 +1110,8 @@ class RecordEncoder extends MAC {
 class RecordDecoder extends MAC {
     /** Cipher used for decryption */
     private Cipher cipher;
+    /** MAC expected for the record being decoded. */
+    private byte[] expectedMAC = new byte[MAX_MAC_SIZE];
 
     /**
      * Constructs RecordDecoder object
@@ -1077,27 +1122,25 @@ class RecordDecoder extends MAC {
      * @param cphr cipher used for decoding
      */
     RecordDecoder(MessageDigest dgst, byte[] secret, int padLen, Cipher cphr) {
-        macSecret = secret;
-        digest = dgst;
-        digestLength = digest.getDigestLength();
-        padLength = padLen;
+        super(dgst, secret, padLen);
         cipher = cphr;
     }    
     
 
     /**
      * Converts a byte array containing an SSLCiphertext structure
-     * to the corresponding SSLPlaintext structure. The process
+     * to the corresponding SSLPlaintext structure in place. The process
      * typically involves decryption followed by MAC verification
      * and MAC stripping.
      * @param recordHeader record header
      * @param recordData record data
+     * @param dataLength length of the record data in recordData
      * @return Length of the decrypted data in the input buffer.
      * 
      * @exception IOException if a problem is encountered during decryption
      *                        or MAC verification
      */ 
-    int decode(byte[] recordHeader, byte[] recordData) 
+    int decode(byte[] recordHeader, byte[] recordData, int dataLength) 
                throws IOException {
         if (cipher != null) {
             // Cipher algorithm is not NULL (ctxt needs to be decrypted)
@@ -1114,17 +1157,20 @@ class RecordDecoder extends MAC {
                 // We have a stream cipher (NOTE: assuming CLIENT role)
 
                 // We can decode in place w/o using additional memory
-                cipher.update(recordData, 0, recordData.length, recordData, 0);
+                cipher.update(recordData, 0, dataLength, recordData, 0);
             } catch (Exception e) {
                 throw new IOException("Decode caught " + e);
             }
         }
 
-        int length = recordData.length - digestLength;
+        int length = dataLength - digestLength;
         if (digest != null) {
-            byte[] expMAC = null;  // expected MAC
-            expMAC = getMAC(recordHeader[0], recordData, 0, length);
-            if (!Utils.byteMatch(expMAC, 0, recordData, length, 
+            if (length < 0) {
+                throw new IOException("Bad MAC");
+            }
+
+            getMAC(recordHeader[0], recordData, 0, length, expectedMAC, 0);
+            if (!Utils.byteMatch(expectedMAC, 0, recordData, length, 
                         digestLength)) {
                 throw new IOException("Bad MAC");
             }
@@ -1135,4 +1181,3 @@ class RecordDecoder extends MAC {
         return length;
     }
 }
-